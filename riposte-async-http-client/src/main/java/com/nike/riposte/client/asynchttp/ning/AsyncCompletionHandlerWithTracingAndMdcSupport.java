@@ -7,6 +7,8 @@ import com.nike.wingtips.Span;
 import com.nike.wingtips.Tracer;
 
 import com.ning.http.client.AsyncCompletionHandler;
+import com.ning.http.client.HttpResponseBodyPart;
+import com.ning.http.client.HttpResponseStatus;
 import com.ning.http.client.Response;
 
 import org.slf4j.Logger;
@@ -162,6 +164,36 @@ class AsyncCompletionHandlerWithTracingAndMdcSupport<O> extends AsyncCompletionH
         return "async_downstream_call-" + httpMethod + "_" + url;
     }
 
+    /**
+     * Completes the subspan that was started for the downstream call if {@link #performSubSpanAroundDownstreamCalls}
+     * is true. Expects {@link #distributedTraceStackToUse} to be linked to the current thread.
+     */
+    protected void completeSubSpanIfNecessary() {
+        if (performSubSpanAroundDownstreamCalls) {
+            if (distributedTraceStackToUse == null || distributedTraceStackToUse.size() < 2)
+                Tracer.getInstance().completeRequestSpan();
+            else
+                Tracer.getInstance().completeSubSpan();
+        }
+    }
+
+    @Override
+    public STATE onStatusReceived(HttpResponseStatus status) throws Exception {
+        // Nobody is waiting for the response if the completableFutureResponse was cancelled, so stop reading it.
+        if (completableFutureResponse.isCancelled())
+            return STATE.ABORT;
+
+        return super.onStatusReceived(status);
+    }
+
+    @Override
+    public STATE onBodyPartReceived(HttpResponseBodyPart content) throws Exception {
+        if (completableFutureResponse.isCancelled())
+            return STATE.ABORT;
+
+        return super.onBodyPartReceived(content);
+    }
+
     @Override
     public Response onCompleted(Response response) throws Exception {
         Pair<Deque<Span>, Map<String, String>> originalThreadInfo = null;
@@ -170,9 +202,11 @@ class AsyncCompletionHandlerWithTracingAndMdcSupport<O> extends AsyncCompletionH
             // Link up the distributed tracing and MDC information to the current thread
             originalThreadInfo = linkTracingAndMdcToCurrentThread(distributedTraceStackToUse, mdcContextToUse);
 
-            // Notify the circuit breaker of an event.
+            // Notify the circuit breaker of an event, unless the call was cancelled by the caller (in which case the
+            //      response may be incomplete and says nothing about the health of the downstream service).
             try {
-                circuitBreakerManualTask.ifPresent(cb -> cb.handleEvent(response));
+                if (!completableFutureResponse.isCancelled())
+                    circuitBreakerManualTask.ifPresent(cb -> cb.handleEvent(response));
             }
             catch (Throwable t) {
                 logger.error(
@@ -182,12 +216,7 @@ class AsyncCompletionHandlerWithTracingAndMdcSupport<O> extends AsyncCompletionH
             }
 
             // If a subspan was started for the downstream call, it should now be completed
-            if (performSubSpanAroundDownstreamCalls) {
-                if (distributedTraceStackToUse == null || distributedTraceStackToUse.size() < 2)
-                    Tracer.getInstance().completeRequestSpan();
-                else
-                    Tracer.getInstance().completeSubSpan();
-            }
+            completeSubSpanIfNecessary();
 
             // If the completableFutureResponse is already done it means we were cancelled or some other error occurred,
             //      and we should not do any more processing here.
@@ -221,9 +250,11 @@ class AsyncCompletionHandlerWithTracingAndMdcSupport<O> extends AsyncCompletionH
             originalThreadInfo =
                 linkTracingAndMdcToCurrentThread(distributedTraceStackToUse, mdcContextToUse);
 
-            // Notify the circuit breaker of an exception.
+            // Notify the circuit breaker of an exception, unless the call was cancelled by the caller (in which case
+            //      the exception is most likely caused by the cancellation itself).
             try {
-                circuitBreakerManualTask.ifPresent(cb -> cb.handleException(t));
+                if (!completableFutureResponse.isCancelled())
+                    circuitBreakerManualTask.ifPresent(cb -> cb.handleException(t));
             }
             catch (Throwable cbError) {
                 logger.error(
@@ -233,12 +264,7 @@ class AsyncCompletionHandlerWithTracingAndMdcSupport<O> extends AsyncCompletionH
             }
 
             // If a subspan was started for the downstream call, it should now be completed
-            if (performSubSpanAroundDownstreamCalls) {
-                if (distributedTraceStackToUse == null || distributedTraceStackToUse.size() < 2)
-                    Tracer.getInstance().completeRequestSpan();
-                else
-                    Tracer.getInstance().completeSubSpan();
-            }
+            completeSubSpanIfNecessary();
 
             // If the completableFutureResponse is already done it means we were cancelled or some other error occurred,
             //      and we should not do any more processing here.
@@ -4,14 +4,21 @@ import com.nike.fastbreak.CircuitBreaker;
 import com.nike.fastbreak.CircuitBreaker.ManualModeTask;
 import com.nike.fastbreak.CircuitBreakerDelegate;
 import com.nike.fastbreak.exception.CircuitBreakerOpenException;
+import com.nike.riposte.client.dns.CachingHostnameResolver;
+import com.nike.riposte.client.hedging.HedgingPolicy;
+import com.nike.riposte.client.retry.RetryPolicy;
 import com.nike.riposte.server.channelpipeline.ChannelAttributes;
+import com.nike.riposte.server.error.exception.RequestDeadlineExceededException;
 import com.nike.riposte.server.http.HttpProcessingState;
+import com.nike.riposte.server.http.RequestDeadline;
 import com.nike.wingtips.Span;
 import com.nike.wingtips.TraceHeaders;
 import com.nike.wingtips.Tracer;
 import com.ning.http.client.AsyncHttpClient;
 import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.ListenableFuture;
 import com.ning.http.client.NameResolver;
+import com.ning.http.client.Request;
 import com.ning.http.client.Response;
 import com.ning.http.client.SignatureCalculator;
 import com.ning.http.client.uri.Uri;
@@ -22,6 +29,7 @@ import org.slf4j.MDC;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.Deque;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
@@ -33,6 +41,8 @@ import java.util.concurrent.atomic.AtomicInteger;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.EventLoop;
 import io.netty.handler.codec.http.HttpMethod;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.GlobalEventExecutor;
 
 import static com.nike.fastbreak.CircuitBreakerForHttpStatusCode.getDefaultHttpStatusCodeCircuitBreakerForKey;
 
@@ -71,7 +81,8 @@ import static com.nike.fastbreak.CircuitBreakerForHttpStatusCode.getDefaultHttpS
  *      <li>
  *          Call one of the {@code executeAsyncHttpRequest(...)} methods with the finished request builder to execute
  *          the async HTTP call and return a {@link CompletableFuture} that will be completed when the async HTTP call
- *          returns.
+ *          returns. Or call one of the {@code executeFanOut(...)} methods with a list of finished request builders
+ *          and a {@link FanOutPolicy} to scatter the calls and gather their results (see {@link FanOutResult}).
  *      </li>
  * </ol>
  *
@@ -113,6 +124,7 @@ public class AsyncHttpClientHelper {
 
     protected final AsyncHttpClient asyncHttpClient;
     protected boolean performSubSpanAroundDownstreamCalls;
+    protected FanOutMetrics fanOutMetrics = FanOutMetrics.getDefaultInstance();
 
     /**
      * Constructor that gives you maximum control over configuration and behavior.
@@ -199,6 +211,18 @@ public class AsyncHttpClientHelper {
         return this;
     }
 
+    /**
+     * Sets the metrics that fan-outs (see {@link #executeFanOut(List, AsyncResponseHandler, FanOutPolicy,
+     * ChannelHandlerContext)}) are recorded in. Defaults to {@link FanOutMetrics#getDefaultInstance()}.
+     */
+    public AsyncHttpClientHelper setFanOutMetrics(FanOutMetrics fanOutMetrics) {
+        if (fanOutMetrics == null)
+            throw new IllegalArgumentException("fanOutMetrics cannot be null");
+
+        this.fanOutMetrics = fanOutMetrics;
+        return this;
+    }
+
     /**
      * Call this before one of the {@code executeAsyncHttpRequest(...)} methods in order to get a request builder you
      * can populate with query params, headers, body, etc. If you want to specify a custom circuit breaker (or disable
@@ -310,6 +334,11 @@ public class AsyncHttpClientHelper {
      * HttpProcessingState} from the given ctx argument, and then grabs {@link
      * HttpProcessingState#getDistributedTraceStack()} and {@link HttpProcessingState#getLoggerMdcContextMap()} to use
      * as the distributed trace stack and MDC info for the downstream call.
+     * <p/>
+     * If the request has a deadline ({@link HttpProcessingState#getRequestDeadline()}) then the call's request timeout
+     * is capped at the time left before the deadline, the remaining budget is forwarded in the deadline header (if
+     * any), and the returned future is instantly failed with a {@link RequestDeadlineExceededException} if the deadline
+     * is already too close for the call to be worth making.
      */
     public <O> CompletableFuture<O> executeAsyncHttpRequest(RequestBuilderWrapper requestBuilderWrapper,
                                                             AsyncResponseHandler<O> responseHandlerFunction,
@@ -319,6 +348,18 @@ public class AsyncHttpClientHelper {
         if (state == null)
             throw new IllegalStateException("state cannot be null");
 
+        RequestDeadline requestDeadline = state.getRequestDeadline();
+        if (requestDeadline != null) {
+            RequestDeadlineExceededException deadlineExceeded = requestDeadline.exceededExceptionIfTooClose();
+            if (deadlineExceeded != null) {
+                CompletableFuture<O> failedFuture = new CompletableFuture<>();
+                failedFuture.completeExceptionally(deadlineExceeded);
+                return failedFuture;
+            }
+
+            applyRequestDeadline(requestBuilderWrapper, requestDeadline);
+        }
+
         Map<String, String> mdcContextMap = state.getLoggerMdcContextMap();
         Deque<Span> distributedTraceStack = state.getDistributedTraceStack();
 
@@ -344,6 +385,57 @@ public class AsyncHttpClientHelper {
                                                             Map<String, String> mdcContextForCall) {
         CompletableFuture<O> completableFutureResponse = new CompletableFuture<>();
 
+        // The AsyncHttpClient resolves the host synchronously on whatever thread executes the request, so make sure
+        //      the host is in the resolver's cache first. Whether or not the lookup succeeds, the call goes ahead and
+        //      the AsyncHttpClient reports any resolution failure the usual way.
+        CompletableFuture<InetAddress[]> hostLookup = prewarmHostResolution(requestBuilderWrapper);
+        if (hostLookup.isDone()) {
+            doExecuteAsyncHttpRequest(requestBuilderWrapper, responseHandlerFunction, distributedTraceStackForCall,
+                                      mdcContextForCall, completableFutureResponse);
+        }
+        else {
+            ChannelHandlerContext ctx = requestBuilderWrapper.getCtx();
+            EventExecutor executor = (ctx == null) ? GlobalEventExecutor.INSTANCE : ctx.executor();
+            hostLookup.whenCompleteAsync(
+                (addresses, error) -> doExecuteAsyncHttpRequest(
+                    requestBuilderWrapper, responseHandlerFunction, distributedTraceStackForCall, mdcContextForCall,
+                    completableFutureResponse
+                ),
+                executor
+            );
+        }
+
+        return completableFutureResponse;
+    }
+
+    /**
+     * Kicks off a non-blocking lookup of the given request's host with the {@link #getMultiIpAwareNameResolver()}'s
+     * cache so that the {@link MultiIpAwareNameResolver} won't block when the AsyncHttpClient asks it for the host.
+     *
+     * @return A future that completes when the host is in the resolver's cache - already complete if it was cached (the
+     * usual case) or the request's URL can't be parsed.
+     */
+    protected CompletableFuture<InetAddress[]> prewarmHostResolution(RequestBuilderWrapper requestBuilderWrapper) {
+        String host;
+        try {
+            host = Uri.create(requestBuilderWrapper.url).getHost();
+        }
+        catch (Throwable t) {
+            // The AsyncHttpClient will report the bad URL when the request is executed.
+            return CompletableFuture.completedFuture(null);
+        }
+
+        if (host == null)
+            return CompletableFuture.completedFuture(null);
+
+        return getMultiIpAwareNameResolver().resolveAllAsync(host);
+    }
+
+    protected <O> void doExecuteAsyncHttpRequest(RequestBuilderWrapper requestBuilderWrapper,
+                                                 AsyncResponseHandler<O> responseHandlerFunction,
+                                                 Deque<Span> distributedTraceStackForCall,
+                                                 Map<String, String> mdcContextForCall,
+                                                 CompletableFuture<O> completableFutureResponse) {
         try {
             Optional<ManualModeTask<Response>> circuitBreakerManualTask =
                 getCircuitBreaker(requestBuilderWrapper).map(CircuitBreaker::newManualModeTask);
@@ -351,6 +443,37 @@ public class AsyncHttpClientHelper {
             // If we have a circuit breaker, give it a chance to throw an exception if the circuit is open/tripped
             circuitBreakerManualTask.ifPresent(ManualModeTask::throwExceptionIfCircuitBreakerIsOpen);
 
+            // Hand the call off to a HedgedAsyncHttpRequest if it should be hedged, or a RetryingAsyncHttpRequest if it
+            //      should be retried.
+            HedgingPolicy hedgingPolicy = requestBuilderWrapper.hedgingPolicy;
+            RetryPolicy retryPolicy = requestBuilderWrapper.retryPolicy;
+            boolean hedge = hedgingPolicy != null
+                            && hedgingPolicy.isHedgeableHttpMethod(requestBuilderWrapper.httpMethod);
+            if (hedge || retryPolicy != null) {
+                Request request = requestBuilderWrapper.requestBuilder.build();
+                if (HedgedAsyncHttpRequest.isReplayable(request)) {
+                    ChannelHandlerContext ctx = requestBuilderWrapper.getCtx();
+                    EventExecutor timerExecutor = (ctx == null) ? GlobalEventExecutor.INSTANCE : ctx.executor();
+                    if (hedge) {
+                        new HedgedAsyncHttpRequest<>(
+                            asyncHttpClient, hedgingPolicy, request, completableFutureResponse,
+                            responseHandlerFunction, performSubSpanAroundDownstreamCalls,
+                            requestBuilderWrapper.httpMethod, requestBuilderWrapper.url, circuitBreakerManualTask,
+                            distributedTraceStackForCall, mdcContextForCall, timerExecutor
+                        ).start();
+                    }
+                    else {
+                        new RetryingAsyncHttpRequest<>(
+                            asyncHttpClient, retryPolicy, request, completableFutureResponse,
+                            responseHandlerFunction, performSubSpanAroundDownstreamCalls,
+                            requestBuilderWrapper.httpMethod, requestBuilderWrapper.url, circuitBreakerManualTask,
+                            distributedTraceStackForCall, mdcContextForCall, timerExecutor
+                        ).start();
+                    }
+                    return;
+                }
+            }
+
             // Setup the async completion handler for the call.
             AsyncCompletionHandlerWithTracingAndMdcSupport<O> asyncCompletionHandler =
                 new AsyncCompletionHandlerWithTracingAndMdcSupport<>(
@@ -371,7 +494,14 @@ public class AsyncHttpClientHelper {
             }
             // Execute the downstream call. The completableFutureResponse will be completed or completed exceptionally
             //      depending on the result of the call.
-            requestBuilderWrapper.requestBuilder.execute(asyncCompletionHandler);
+            ListenableFuture<Response> responseFuture =
+                requestBuilderWrapper.requestBuilder.execute(asyncCompletionHandler);
+
+            // Abort the downstream call if the caller cancels completableFutureResponse (e.g. a fan-out straggler).
+            completableFutureResponse.whenComplete((result, error) -> {
+                if (completableFutureResponse.isCancelled())
+                    responseFuture.cancel(true);
+            });
         }
         catch (Throwable t) {
             // Log the error for later debugging, unless it's a CircuitBreakerOpenException, which is expected and
@@ -385,8 +515,114 @@ public class AsyncHttpClientHelper {
             }
             completableFutureResponse.completeExceptionally(t);
         }
+    }
 
-        return completableFutureResponse;
+    /**
+     * Sends the given requests as a scatter-gather fan-out governed by the given policy (see {@link FanOutPolicy}),
+     * handling each response with the given responseHandlerFunction, and returns a {@link CompletableFuture} that is
+     * completed with a {@link FanOutResult} as soon as the fan-out finishes. The returned future is never completed
+     * exceptionally - the outcome of each call (including any errors) is available from the {@link FanOutResult}.
+     * <p/>
+     * NOTE: This is a helper method for calling {@link #executeFanOut(List, AsyncResponseHandler, FanOutPolicy,
+     * ChannelHandlerContext)} that uses the current thread's {@link Tracer#getCurrentSpanStackCopy()} and {@link
+     * org.slf4j.MDC#getCopyOfContextMap()} for the distributed trace stack and MDC info for the downstream calls. Only
+     * the policy's deadline (if any) applies, and the deadline timer runs on {@link GlobalEventExecutor#INSTANCE}.
+     */
+    public <O> CompletableFuture<FanOutResult<O>> executeFanOut(List<RequestBuilderWrapper> requestBuilderWrappers,
+                                                                AsyncResponseHandler<O> responseHandlerFunction,
+                                                                FanOutPolicy fanOutPolicy) {
+        Map<String, String> mdcContextMap = MDC.getCopyOfContextMap();
+        Deque<Span> distributedTraceStack = Tracer.getInstance().getCurrentSpanStackCopy();
+
+        return executeFanOut(requestBuilderWrappers, responseHandlerFunction, fanOutPolicy, null, null,
+                             distributedTraceStack, mdcContextMap);
+    }
+
+    /**
+     * Sends the given requests as a scatter-gather fan-out governed by the given policy (see {@link FanOutPolicy}),
+     * handling each response with the given responseHandlerFunction, and returns a {@link CompletableFuture} that is
+     * completed with a {@link FanOutResult} as soon as the fan-out finishes. The returned future is never completed
+     * exceptionally - the outcome of each call (including any errors) is available from the {@link FanOutResult}.
+     * <p/>
+     * The {@link HttpProcessingState} is extracted from the given ctx argument, and its {@link
+     * HttpProcessingState#getDistributedTraceStack()} and {@link HttpProcessingState#getLoggerMdcContextMap()} are
+     * used as the distributed trace stack and MDC info for each downstream call. If the request has a deadline ({@link
+     * HttpProcessingState#getRequestDeadline()}) then the fan-out's deadline is whichever comes first of it and the
+     * policy's {@link FanOutPolicy#deadlineMillis}.
+     */
+    public <O> CompletableFuture<FanOutResult<O>> executeFanOut(List<RequestBuilderWrapper> requestBuilderWrappers,
+                                                                AsyncResponseHandler<O> responseHandlerFunction,
+                                                                FanOutPolicy fanOutPolicy,
+                                                                ChannelHandlerContext ctx) {
+        HttpProcessingState state = ChannelAttributes.getHttpProcessingStateForChannel(ctx).get();
+        if (state == null)
+            throw new IllegalStateException("state cannot be null");
+
+        return executeFanOut(requestBuilderWrappers, responseHandlerFunction, fanOutPolicy, ctx,
+                             state.getRequestDeadline(), state.getDistributedTraceStack(),
+                             state.getLoggerMdcContextMap());
+    }
+
+    protected <O> CompletableFuture<FanOutResult<O>> executeFanOut(List<RequestBuilderWrapper> requestBuilderWrappers,
+                                                                   AsyncResponseHandler<O> responseHandlerFunction,
+                                                                   FanOutPolicy fanOutPolicy,
+                                                                   ChannelHandlerContext ctx,
+                                                                   RequestDeadline requestDeadline,
+                                                                   Deque<Span> distributedTraceStackForCalls,
+                                                                   Map<String, String> mdcContextForCalls) {
+        if (requestBuilderWrappers == null)
+            throw new IllegalArgumentException("requestBuilderWrappers cannot be null");
+
+        if (fanOutPolicy == null)
+            fanOutPolicy = FanOutPolicy.newBuilder().build();
+
+        EventExecutor deadlineTimerExecutor = (ctx == null) ? GlobalEventExecutor.INSTANCE : ctx.executor();
+
+        return new FanOutAsyncHttpRequest<>(
+            this, requestBuilderWrappers, responseHandlerFunction, fanOutPolicy,
+            getFanOutDeadline(fanOutPolicy, requestDeadline), fanOutMetrics, ctx, distributedTraceStackForCalls,
+            mdcContextForCalls, deadlineTimerExecutor
+        ).start();
+    }
+
+    /**
+     * @return Whichever comes first of the given request deadline and the policy's {@link
+     * FanOutPolicy#deadlineMillis} from now, or null if neither is set. The request deadline's minimum remaining budget
+     * and header name are kept.
+     */
+    protected RequestDeadline getFanOutDeadline(FanOutPolicy fanOutPolicy, RequestDeadline requestDeadline) {
+        if (fanOutPolicy.deadlineMillis <= 0)
+            return requestDeadline;
+
+        long policyDeadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(fanOutPolicy.deadlineMillis);
+        if (requestDeadline == null)
+            return new RequestDeadline(policyDeadlineNanos, 0, null);
+
+        if (requestDeadline.getDeadlineNanos() - policyDeadlineNanos <= 0)
+            return requestDeadline;
+
+        return new RequestDeadline(policyDeadlineNanos, requestDeadline.getMinimumRemainingBudgetMillis(),
+                                   requestDeadline.getHeaderName());
+    }
+
+    /**
+     * Caps the given request's timeout at the time left before the given deadline, and forwards the remaining budget in
+     * the deadline's header (if it has one).
+     */
+    protected void applyRequestDeadline(RequestBuilderWrapper requestBuilderWrapper, RequestDeadline requestDeadline) {
+        long remainingMillis = requestDeadline.getRemainingMillis();
+        if (requestDeadline.getHeaderName() != null) {
+            requestBuilderWrapper.requestBuilder.setHeader(requestDeadline.getHeaderName(),
+                                                           String.valueOf(Math.max(0, remainingMillis)));
+        }
+
+        // A request timeout that isn't positive means the client's default is used.
+        int requestTimeout = requestBuilderWrapper.getRequestTimeout();
+        if (requestTimeout <= 0)
+            requestTimeout = asyncHttpClient.getConfig().getRequestTimeout();
+
+        if (requestTimeout <= 0 || remainingMillis < requestTimeout)
+            requestBuilderWrapper.setRequestTimeout((int) Math.max(1, remainingMillis));
     }
 
     protected Optional<CircuitBreaker<Response>> getCircuitBreaker(RequestBuilderWrapper requestBuilderWrapper) {
@@ -414,12 +650,35 @@ public class AsyncHttpClientHelper {
         );
     }
 
+    /**
+     * Round robins calls across all the IP addresses of a host, using a {@link CachingHostnameResolver} for the
+     * lookups. The AsyncHttpClient's {@link NameResolver} API is synchronous, so {@link #resolve(String)} has to block
+     * when the host isn't cached. {@link #executeAsyncHttpRequest(RequestBuilderWrapper, AsyncResponseHandler, Deque,
+     * Map)} avoids that by warming the cache with {@link #resolveAllAsync(String)} before it executes the request, so
+     * in practice this only blocks if the cache entry expires in between.
+     */
     protected static class MultiIpAwareNameResolver implements NameResolver {
 
         public static MultiIpAwareNameResolver INSTANCE = new MultiIpAwareNameResolver();
         protected static final ConcurrentMap<String, AtomicInteger> HOST_ROUND_ROBIN_COUNTER_MAP =
             new ConcurrentHashMap<>();
 
+        protected final CachingHostnameResolver hostnameResolver;
+
+        public MultiIpAwareNameResolver() {
+            this(CachingHostnameResolver.getDefaultInstance());
+        }
+
+        /**
+         * @param hostnameResolver The resolver that does the actual (cached) hostname lookups. Cannot be null.
+         */
+        public MultiIpAwareNameResolver(CachingHostnameResolver hostnameResolver) {
+            if (hostnameResolver == null)
+                throw new IllegalArgumentException("hostnameResolver cannot be null");
+
+            this.hostnameResolver = hostnameResolver;
+        }
+
         @Override
         public InetAddress resolve(String hostName) throws UnknownHostException {
             // Get ALL IP addresses associated with the requested host.
@@ -440,8 +699,18 @@ public class AsyncHttpClientHelper {
             return ipAddresses[instanceIndexToUse];
         }
 
+        /**
+         * @return A future that completes with all the IP addresses for the given host without blocking. Once it
+         * completes successfully, {@link #resolve(String)} will be served from the cache.
+         */
+        public CompletableFuture<InetAddress[]> resolveAllAsync(String host) {
+            return hostnameResolver.resolveAll(host);
+        }
+
         protected InetAddress[] getAllAddressesForHost(String host) throws UnknownHostException {
-            return InetAddress.getAllByName(host);
+            // The resolver caches addresses (shared with the proxy router's client when using the default instance),
+            //      so this only blocks when the host hasn't been resolved recently.
+            return hostnameResolver.resolveAllBlocking(host);
         }
     }
 
@@ -0,0 +1,266 @@
+package com.nike.riposte.client.asynchttp.ning;
+
+import com.nike.riposte.client.asynchttp.ning.FanOutResult.CallOutcome;
+import com.nike.riposte.server.error.exception.RequestDeadlineExceededException;
+import com.nike.riposte.server.http.RequestDeadline;
+import com.nike.wingtips.Span;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import static com.nike.riposte.util.AsyncNettyHelper.runnableWithTracingAndMdc;
+
+/**
+ * Runs a single scatter-gather fan-out for {@link AsyncHttpClientHelper} (see {@link FanOutPolicy}). Up to {@link
+ * FanOutPolicy#maxConcurrency} calls are sent right away, and each time one finishes the next one is sent. The fan-out
+ * finishes as soon as enough calls have succeeded, too many have failed for that to be possible, every call has
+ * finished, or the deadline passes - whichever comes first. At that point the shared {@link CompletableFuture} is
+ * completed with a {@link FanOutResult}, the calls that are still in flight are cancelled, and the calls that haven't
+ * been sent yet never will be.
+ *
+ * <p>Each call is made by {@link AsyncHttpClientHelper#executeAsyncHttpRequest(RequestBuilderWrapper,
+ * AsyncResponseHandler, Deque, Map)} with the fan-out's distributed trace and MDC info, so it gets its own subspan and
+ * circuit breaker handling as usual. Its timeout is capped at the time left before the deadline.
+ */
+@SuppressWarnings("WeakerAccess")
+class FanOutAsyncHttpRequest<O> {
+
+    private static final Logger logger = LoggerFactory.getLogger(FanOutAsyncHttpRequest.class);
+
+    protected final AsyncHttpClientHelper asyncHttpClientHelper;
+    protected final List<RequestBuilderWrapper> requests;
+    protected final AsyncResponseHandler<O> responseHandlerFunction;
+    protected final int maxConcurrency;
+    protected final int requiredSuccesses;
+    /**
+     * The deadline shared by all the calls, or null if there isn't one.
+     */
+    protected final RequestDeadline deadline;
+    protected final FanOutMetrics fanOutMetrics;
+    protected final ChannelHandlerContext ctx;
+    protected final Deque<Span> distributedTraceStackForCalls;
+    protected final Map<String, String> mdcContextForCalls;
+    protected final EventExecutor deadlineTimerExecutor;
+    protected final CompletableFuture<FanOutResult<O>> fanOutResultFuture = new CompletableFuture<>();
+
+    // All of the following are guarded by synchronizing on this.
+    protected final List<CompletableFuture<O>> callFutures;
+    protected final CallOutcome[] outcomes;
+    protected final O[] results;
+    protected final Throwable[] errors;
+    protected int nextCallIndex = 0;
+    protected int successCount = 0;
+    protected int failureCount = 0;
+    protected boolean finished = false;
+    protected ScheduledFuture<?> deadlineTimer;
+
+    @SuppressWarnings("unchecked")
+    FanOutAsyncHttpRequest(AsyncHttpClientHelper asyncHttpClientHelper,
+                           List<RequestBuilderWrapper> requests,
+                           AsyncResponseHandler<O> responseHandlerFunction,
+                           FanOutPolicy fanOutPolicy,
+                           RequestDeadline deadline,
+                           FanOutMetrics fanOutMetrics,
+                           ChannelHandlerContext ctx,
+                           Deque<Span> distributedTraceStackForCalls,
+                           Map<String, String> mdcContextForCalls,
+                           EventExecutor deadlineTimerExecutor) {
+        this.asyncHttpClientHelper = asyncHttpClientHelper;
+        this.requests = new ArrayList<>(requests);
+        this.responseHandlerFunction = responseHandlerFunction;
+        this.maxConcurrency = fanOutPolicy.maxConcurrency;
+        this.requiredSuccesses = fanOutPolicy.getRequiredSuccesses(requests.size());
+        this.deadline = deadline;
+        this.fanOutMetrics = fanOutMetrics;
+        this.ctx = ctx;
+        this.distributedTraceStackForCalls = distributedTraceStackForCalls;
+        this.mdcContextForCalls = mdcContextForCalls;
+        this.deadlineTimerExecutor = deadlineTimerExecutor;
+
+        int numCalls = this.requests.size();
+        this.callFutures = new ArrayList<>(numCalls);
+        for (int i = 0; i < numCalls; i++) {
+            callFutures.add(null);
+        }
+        this.outcomes = new CallOutcome[numCalls];
+        this.results = (O[]) new Object[numCalls];
+        this.errors = new Throwable[numCalls];
+    }
+
+    /**
+     * Starts the deadline timer and sends the first batch of calls.
+     *
+     * @return The future that will be completed with the fan-out's result.
+     */
+    CompletableFuture<FanOutResult<O>> start() {
+        fanOutMetrics.recordFanOutStarted(requests.size());
+
+        if (requests.isEmpty() || requiredSuccesses == 0) {
+            finish(false);
+            return fanOutResultFuture;
+        }
+
+        if (deadline != null) {
+            long remainingMillis = Math.max(0, deadline.getRemainingMillis());
+            synchronized (this) {
+                deadlineTimer = deadlineTimerExecutor.schedule(
+                    runnableWithTracingAndMdc(this::deadlineTimerFired, distributedTraceStackForCalls,
+                                              mdcContextForCalls),
+                    remainingMillis, TimeUnit.MILLISECONDS
+                );
+            }
+        }
+
+        sendCallsUpToConcurrencyLimit();
+        return fanOutResultFuture;
+    }
+
+    protected void deadlineTimerFired() {
+        synchronized (this) {
+            deadlineTimer = null;
+        }
+
+        logger.debug("Fan-out deadline passed before it finished. num_calls={}, successes={}, required_successes={}",
+                     requests.size(), getSuccessCount(), requiredSuccesses);
+        finish(true);
+    }
+
+    protected synchronized int getSuccessCount() {
+        return successCount;
+    }
+
+    protected void sendCallsUpToConcurrencyLimit() {
+        while (true) {
+            int callIndex;
+            synchronized (this) {
+                int inFlight = nextCallIndex - successCount - failureCount;
+                if (finished || nextCallIndex >= requests.size() || inFlight >= maxConcurrency)
+                    return;
+
+                callIndex = nextCallIndex++;
+            }
+
+            sendCall(callIndex);
+        }
+    }
+
+    protected void sendCall(int callIndex) {
+        CompletableFuture<O> callFuture;
+        RequestDeadlineExceededException deadlineExceeded =
+            (deadline == null) ? null : deadline.exceededExceptionIfTooClose();
+        if (deadlineExceeded != null) {
+            callFuture = new CompletableFuture<>();
+            callFuture.completeExceptionally(deadlineExceeded);
+        }
+        else {
+            RequestBuilderWrapper request = requests.get(callIndex);
+            request.setCtx(ctx);
+            if (deadline != null)
+                asyncHttpClientHelper.applyRequestDeadline(request, deadline);
+
+            callFuture = asyncHttpClientHelper.executeAsyncHttpRequest(
+                request, responseHandlerFunction, distributedTraceStackForCalls, mdcContextForCalls
+            );
+        }
+
+        boolean cancel;
+        synchronized (this) {
+            callFutures.set(callIndex, callFuture);
+            // The fan-out finished while this call was being sent.
+            cancel = finished;
+        }
+
+        if (cancel)
+            callFuture.cancel(true);
+        else
+            callFuture.whenComplete((result, error) -> onCallFinished(callIndex, result, error));
+    }
+
+    protected void onCallFinished(int callIndex, O result, Throwable error) {
+        boolean done;
+        synchronized (this) {
+            // Stragglers that were cancelled when the fan-out finished already have their outcome.
+            if (finished)
+                return;
+
+            if (error == null) {
+                outcomes[callIndex] = CallOutcome.SUCCEEDED;
+                results[callIndex] = result;
+                successCount++;
+            }
+            else {
+                outcomes[callIndex] = CallOutcome.FAILED;
+                errors[callIndex] = error;
+                failureCount++;
+            }
+
+            int numCalls = requests.size();
+            done = successCount >= requiredSuccesses
+                   || numCalls - failureCount < requiredSuccesses
+                   || successCount + failureCount == numCalls;
+        }
+
+        if (done)
+            finish(false);
+        else
+            sendCallsUpToConcurrencyLimit();
+    }
+
+    protected void finish(boolean deadlineExceeded) {
+        List<CompletableFuture<O>> stragglers = new ArrayList<>();
+        int cancelledStragglers = 0;
+        int notStartedCalls = 0;
+        FanOutResult<O> fanOutResult;
+        synchronized (this) {
+            if (finished)
+                return;
+
+            finished = true;
+            if (deadlineTimer != null) {
+                deadlineTimer.cancel(false);
+                deadlineTimer = null;
+            }
+
+            for (int i = 0; i < outcomes.length; i++) {
+                if (outcomes[i] != null)
+                    continue;
+
+                if (i < nextCallIndex) {
+                    outcomes[i] = CallOutcome.CANCELLED;
+                    cancelledStragglers++;
+                    // If the call is still being sent then sendCall() will cancel it.
+                    CompletableFuture<O> callFuture = callFutures.get(i);
+                    if (callFuture != null)
+                        stragglers.add(callFuture);
+                }
+                else {
+                    outcomes[i] = CallOutcome.NOT_STARTED;
+                    notStartedCalls++;
+                }
+            }
+
+            fanOutResult = FanOutResult.fromArrays(outcomes, results, errors, requiredSuccesses, deadlineExceeded);
+        }
+
+        for (CompletableFuture<O> straggler : stragglers) {
+            straggler.cancel(true);
+        }
+
+        fanOutMetrics.recordFanOutFinished(
+            cancelledStragglers, notStartedCalls, deadlineExceeded, fanOutResult.isRequiredSuccessesMet()
+        );
+
+        fanOutResultFuture.complete(fanOutResult);
+    }
+}
@@ -0,0 +1,115 @@
+package com.nike.riposte.client.asynchttp.ning;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the scatter-gather fan-outs made by {@link AsyncHttpClientHelper}, how wide they were, and how much work was
+ * saved by finishing them early: calls that were still in flight when their fan-out finished (stragglers) and were
+ * cancelled, and calls that were never sent. Also counts the fan-outs that ran out of time and the ones that didn't get
+ * the successes they needed. The getters can be registered as metrics gauges.
+ *
+ * <p>Most apps should use the shared {@link #getDefaultInstance()}.
+ */
+@SuppressWarnings("WeakerAccess")
+public class FanOutMetrics {
+
+    protected final LongAdder fanOutCount = new LongAdder();
+    protected final LongAdder fanOutCallCount = new LongAdder();
+    protected final AtomicLong maxFanOutWidth = new AtomicLong();
+    protected final LongAdder cancelledStragglerCount = new LongAdder();
+    protected final LongAdder notStartedCallCount = new LongAdder();
+    protected final LongAdder deadlineExceededCount = new LongAdder();
+    protected final LongAdder requiredSuccessesNotMetCount = new LongAdder();
+
+    private static class DefaultInstanceHolder {
+        private static final FanOutMetrics INSTANCE = new FanOutMetrics();
+    }
+
+    /**
+     * @return The shared default instance.
+     */
+    public static FanOutMetrics getDefaultInstance() {
+        return DefaultInstanceHolder.INSTANCE;
+    }
+
+    /**
+     * Records a fan-out that's starting.
+     *
+     * @param width The number of calls in the fan-out.
+     */
+    public void recordFanOutStarted(int width) {
+        fanOutCount.increment();
+        fanOutCallCount.add(width);
+        maxFanOutWidth.accumulateAndGet(width, Math::max);
+    }
+
+    /**
+     * Records a fan-out that has finished.
+     *
+     * @param cancelledStragglers The number of calls that were still in flight and were cancelled.
+     * @param notStartedCalls The number of calls that were never sent.
+     * @param deadlineExceeded True if the fan-out finished because its deadline passed.
+     * @param requiredSuccessesMet True if the fan-out got the successes it needed.
+     */
+    public void recordFanOutFinished(int cancelledStragglers, int notStartedCalls, boolean deadlineExceeded,
+                                     boolean requiredSuccessesMet) {
+        cancelledStragglerCount.add(cancelledStragglers);
+        notStartedCallCount.add(notStartedCalls);
+        if (deadlineExceeded)
+            deadlineExceededCount.increment();
+        if (!requiredSuccessesMet)
+            requiredSuccessesNotMetCount.increment();
+    }
+
+    public long getFanOutCount() {
+        return fanOutCount.sum();
+    }
+
+    /**
+     * @return The total number of calls across all fan-outs, whether they were sent or not.
+     */
+    public long getFanOutCallCount() {
+        return fanOutCallCount.sum();
+    }
+
+    /**
+     * @return The average number of calls per fan-out, or 0 if there haven't been any fan-outs.
+     */
+    public double getAverageFanOutWidth() {
+        long fanOuts = getFanOutCount();
+        return (fanOuts == 0) ? 0 : ((double) getFanOutCallCount()) / fanOuts;
+    }
+
+    public long getMaxFanOutWidth() {
+        return maxFanOutWidth.get();
+    }
+
+    /**
+     * @return The number of calls that were still in flight when their fan-out finished, and were cancelled.
+     */
+    public long getCancelledStragglerCount() {
+        return cancelledStragglerCount.sum();
+    }
+
+    /**
+     * @return The number of calls that were never sent because their fan-out finished first.
+     */
+    public long getNotStartedCallCount() {
+        return notStartedCallCount.sum();
+    }
+
+    /**
+     * @return The number of fan-outs that finished because their deadline passed.
+     */
+    public long getDeadlineExceededCount() {
+        return deadlineExceededCount.sum();
+    }
+
+    /**
+     * @return The number of fan-outs that finished without the successes they needed.
+     */
+    public long getRequiredSuccessesNotMetCount() {
+        return requiredSuccessesNotMetCount.sum();
+    }
+}
@@ -0,0 +1,137 @@
+package com.nike.riposte.client.asynchttp.ning;
+
+/**
+ * Settings for a scatter-gather fan-out made by {@link AsyncHttpClientHelper#executeFanOut(java.util.List,
+ * AsyncResponseHandler, FanOutPolicy, io.netty.channel.ChannelHandlerContext)}:
+ * <ul>
+ *     <li>
+ *         {@link #maxConcurrency} - the maximum number of the fan-out's calls that can be in flight at once. The rest
+ *         are started as earlier ones finish.
+ *     </li>
+ *     <li>
+ *         {@link #deadlineMillis} - the deadline shared by all the fan-out's calls, or 0 for no fan-out deadline. Each
+ *         call's timeout is capped at the time left before the deadline, and when it passes the fan-out finishes with
+ *         whatever results it has. The request's own deadline (if any) also applies.
+ *     </li>
+ *     <li>
+ *         {@link #requiredSuccesses} or {@link #quorumPercent} - how many calls must succeed for the fan-out to be
+ *         complete (see {@link #getRequiredSuccesses(int)}). The fan-out finishes as soon as that many calls have
+ *         succeeded (first-N or quorum completion), or as soon as too many have failed for it to be possible. If
+ *         neither is set then every call must succeed.
+ *     </li>
+ * </ul>
+ * When the fan-out finishes any calls that are still in flight (stragglers) are cancelled, and calls that haven't
+ * started yet are never sent. Unlike {@link com.nike.riposte.client.hedging.HedgingPolicy} this class holds no state,
+ * so a single instance can be shared freely.
+ */
+@SuppressWarnings("WeakerAccess")
+public class FanOutPolicy {
+
+    public static final int DEFAULT_MAX_CONCURRENCY = 10;
+
+    public final int maxConcurrency;
+    public final long deadlineMillis;
+    public final int requiredSuccesses;
+    public final double quorumPercent;
+
+    /**
+     * Use {@link #newBuilder()} to create instances rather than calling this constructor directly.
+     *
+     * @param maxConcurrency The maximum number of calls that can be in flight at once. Must be greater than 0.
+     * @param deadlineMillis The deadline shared by all the calls, or 0 for no fan-out deadline. Cannot be negative.
+     * @param requiredSuccesses The number of calls that must succeed (first-N completion), or 0 if {@code
+     * quorumPercent} should be used instead. Cannot be negative.
+     * @param quorumPercent The percentage of calls that must succeed (quorum completion), or 0 if {@code
+     * requiredSuccesses} should be used instead. Must be between 0 and 100, and cannot be used along with {@code
+     * requiredSuccesses}.
+     */
+    public FanOutPolicy(int maxConcurrency, long deadlineMillis, int requiredSuccesses, double quorumPercent) {
+        if (maxConcurrency < 1)
+            throw new IllegalArgumentException("maxConcurrency must be greater than 0. maxConcurrency="
+                                               + maxConcurrency);
+
+        if (deadlineMillis < 0)
+            throw new IllegalArgumentException("deadlineMillis cannot be negative. deadlineMillis=" + deadlineMillis);
+
+        if (requiredSuccesses < 0)
+            throw new IllegalArgumentException("requiredSuccesses cannot be negative. requiredSuccesses="
+                                               + requiredSuccesses);
+
+        if (quorumPercent < 0 || quorumPercent > 100)
+            throw new IllegalArgumentException("quorumPercent must be between 0 and 100. quorumPercent="
+                                               + quorumPercent);
+
+        if (requiredSuccesses > 0 && quorumPercent > 0)
+            throw new IllegalArgumentException("requiredSuccesses and quorumPercent cannot both be set. "
+                                               + "requiredSuccesses=" + requiredSuccesses
+                                               + ", quorumPercent=" + quorumPercent);
+
+        this.maxConcurrency = maxConcurrency;
+        this.deadlineMillis = deadlineMillis;
+        this.requiredSuccesses = requiredSuccesses;
+        this.quorumPercent = quorumPercent;
+    }
+
+    /**
+     * @return A new builder with all the values set to their defaults.
+     */
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * @return The number of calls that must succeed for a fan-out of the given number of calls to be complete: {@link
+     * #requiredSuccesses} (capped at the number of calls) if it's set, otherwise {@link #quorumPercent} of the calls
+     * rounded up if it's set, otherwise all of them.
+     */
+    public int getRequiredSuccesses(int numCalls) {
+        if (requiredSuccesses > 0)
+            return Math.min(requiredSuccesses, numCalls);
+
+        if (quorumPercent > 0)
+            return (int) Math.ceil(numCalls * quorumPercent / 100);
+
+        return numCalls;
+    }
+
+    public static final class Builder {
+
+        private int maxConcurrency = DEFAULT_MAX_CONCURRENCY;
+        private long deadlineMillis = 0;
+        private int requiredSuccesses = 0;
+        private double quorumPercent = 0;
+
+        private Builder() {
+        }
+
+        public Builder withMaxConcurrency(int maxConcurrency) {
+            this.maxConcurrency = maxConcurrency;
+            return this;
+        }
+
+        public Builder withDeadlineMillis(long deadlineMillis) {
+            this.deadlineMillis = deadlineMillis;
+            return this;
+        }
+
+        /**
+         * Finish the fan-out as soon as the given number of calls have succeeded.
+         */
+        public Builder withFirstN(int requiredSuccesses) {
+            this.requiredSuccesses = requiredSuccesses;
+            return this;
+        }
+
+        /**
+         * Finish the fan-out as soon as the given percentage of the calls have succeeded.
+         */
+        public Builder withQuorumPercent(double quorumPercent) {
+            this.quorumPercent = quorumPercent;
+            return this;
+        }
+
+        public FanOutPolicy build() {
+            return new FanOutPolicy(maxConcurrency, deadlineMillis, requiredSuccesses, quorumPercent);
+        }
+    }
+}
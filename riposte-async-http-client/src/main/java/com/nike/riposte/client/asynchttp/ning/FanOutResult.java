@@ -0,0 +1,136 @@
+package com.nike.riposte.client.asynchttp.ning;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of a scatter-gather fan-out made by {@link AsyncHttpClientHelper#executeFanOut(List,
+ * AsyncResponseHandler, FanOutPolicy, io.netty.channel.ChannelHandlerContext)}. Holds the outcome of each call in the
+ * same order as the requests that were passed in, so partial results can be used even if the fan-out didn't get all
+ * the successes it needed (see {@link #isRequiredSuccessesMet()}).
+ */
+@SuppressWarnings("WeakerAccess")
+public class FanOutResult<O> {
+
+    public enum CallOutcome {
+        /**
+         * The call completed, and its result is available from {@link #getResult(int)}.
+         */
+        SUCCEEDED,
+        /**
+         * The call failed, and its error is available from {@link #getError(int)}.
+         */
+        FAILED,
+        /**
+         * The call was still in flight when the fan-out finished, so it was cancelled.
+         */
+        CANCELLED,
+        /**
+         * The fan-out finished before the call was started, so it was never sent.
+         */
+        NOT_STARTED
+    }
+
+    protected final List<CallOutcome> outcomes;
+    protected final List<O> results;
+    protected final List<Throwable> errors;
+    protected final int requiredSuccesses;
+    protected final boolean deadlineExceeded;
+    protected final int successCount;
+
+    /**
+     * @param outcomes The outcome of each call. Cannot be null.
+     * @param results The result of each call, or null for calls that didn't succeed. Must be the same size as {@code
+     * outcomes}.
+     * @param errors The error for each call, or null for calls that didn't fail. Must be the same size as {@code
+     * outcomes}.
+     * @param requiredSuccesses The number of calls that had to succeed for the fan-out to be complete.
+     * @param deadlineExceeded True if the fan-out finished because its deadline passed.
+     */
+    public FanOutResult(List<CallOutcome> outcomes, List<O> results, List<Throwable> errors, int requiredSuccesses,
+                        boolean deadlineExceeded) {
+        if (outcomes == null || results == null || errors == null)
+            throw new IllegalArgumentException("outcomes, results, and errors cannot be null");
+
+        if (results.size() != outcomes.size() || errors.size() != outcomes.size())
+            throw new IllegalArgumentException("outcomes, results, and errors must all be the same size");
+
+        this.outcomes = Collections.unmodifiableList(new ArrayList<>(outcomes));
+        this.results = Collections.unmodifiableList(new ArrayList<>(results));
+        this.errors = Collections.unmodifiableList(new ArrayList<>(errors));
+        this.requiredSuccesses = requiredSuccesses;
+        this.deadlineExceeded = deadlineExceeded;
+        this.successCount = (int) outcomes.stream().filter(CallOutcome.SUCCEEDED::equals).count();
+    }
+
+    static <O> FanOutResult<O> fromArrays(CallOutcome[] outcomes, O[] results, Throwable[] errors,
+                                          int requiredSuccesses, boolean deadlineExceeded) {
+        return new FanOutResult<>(Arrays.asList(outcomes), Arrays.asList(results), Arrays.asList(errors),
+                                  requiredSuccesses, deadlineExceeded);
+    }
+
+    /**
+     * @return The number of calls in the fan-out.
+     */
+    public int size() {
+        return outcomes.size();
+    }
+
+    public CallOutcome getOutcome(int callIndex) {
+        return outcomes.get(callIndex);
+    }
+
+    /**
+     * @return The result of the given call, or null if it didn't succeed.
+     */
+    public O getResult(int callIndex) {
+        return results.get(callIndex);
+    }
+
+    /**
+     * @return The error for the given call, or null if it didn't fail.
+     */
+    public Throwable getError(int callIndex) {
+        return errors.get(callIndex);
+    }
+
+    public List<CallOutcome> getOutcomes() {
+        return outcomes;
+    }
+
+    /**
+     * @return The results of the calls that succeeded, in the same order as their requests.
+     */
+    public List<O> getSuccessfulResults() {
+        List<O> successfulResults = new ArrayList<>(successCount);
+        for (int i = 0; i < outcomes.size(); i++) {
+            if (outcomes.get(i) == CallOutcome.SUCCEEDED)
+                successfulResults.add(results.get(i));
+        }
+        return successfulResults;
+    }
+
+    public int getSuccessCount() {
+        return successCount;
+    }
+
+    public int getRequiredSuccesses() {
+        return requiredSuccesses;
+    }
+
+    /**
+     * @return true if at least {@link #getRequiredSuccesses()} calls succeeded.
+     */
+    public boolean isRequiredSuccessesMet() {
+        return successCount >= requiredSuccesses;
+    }
+
+    /**
+     * @return true if the fan-out finished because its deadline passed.
+     */
+    public boolean isDeadlineExceeded() {
+        return deadlineExceeded;
+    }
+}
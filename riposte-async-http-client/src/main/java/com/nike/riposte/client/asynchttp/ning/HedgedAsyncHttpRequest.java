@@ -0,0 +1,319 @@
+package com.nike.riposte.client.asynchttp.ning;
+
+import com.nike.fastbreak.CircuitBreaker;
+import com.nike.internal.util.Pair;
+import com.nike.riposte.client.hedging.HedgingPolicy;
+import com.nike.riposte.util.AsyncNettyHelper;
+import com.nike.wingtips.Span;
+import com.nike.wingtips.TraceHeaders;
+
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.HttpResponseStatus;
+import com.ning.http.client.ListenableFuture;
+import com.ning.http.client.Request;
+import com.ning.http.client.RequestBuilder;
+import com.ning.http.client.Response;
+import com.ning.http.client.uri.Uri;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Deque;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import static com.nike.riposte.util.AsyncNettyHelper.linkTracingAndMdcToCurrentThread;
+
+/**
+ * Runs a single hedged call for {@link AsyncHttpClientHelper} (see {@link HedgingPolicy}). The primary call is sent
+ * right away. If it hasn't received its response status by the time the policy's hedge delay for the host runs out,
+ * and the policy's budget allows it, the same request is sent again as a hedge. The hostname is resolved separately
+ * for each call by {@link AsyncHttpClientHelper.MultiIpAwareNameResolver}, which round robins across the host's
+ * addresses, so the hedge will usually go to a different address than the primary call.
+ *
+ * <p>The first call to receive its response status wins: it completes the shared {@link CompletableFuture} and
+ * notifies the circuit breaker as usual. The losing call is aborted (if it's already receiving its response) or
+ * cancelled (if it isn't), and it does not touch the future or the circuit breaker, so cancelling it isn't counted as
+ * a downstream failure. An error from one call is only passed along if the other call can't still produce a response.
+ *
+ * <p>Only requests whose body can be sent twice are hedged - see {@link #isReplayable(Request)}.
+ */
+@SuppressWarnings({"WeakerAccess", "OptionalUsedAsFieldOrParameterType"})
+class HedgedAsyncHttpRequest<O> {
+
+    private static final Logger logger = LoggerFactory.getLogger(HedgedAsyncHttpRequest.class);
+
+    protected final AsyncHttpClient asyncHttpClient;
+    protected final HedgingPolicy hedgingPolicy;
+    protected final Request request;
+    protected final CompletableFuture<O> completableFutureResponse;
+    protected final AsyncResponseHandler<O> responseHandlerFunction;
+    protected final boolean performSubSpanAroundDownstreamCalls;
+    protected final String httpMethod;
+    protected final String url;
+    protected final Optional<CircuitBreaker.ManualModeTask<Response>> circuitBreakerManualTask;
+    protected final Deque<Span> distributedTraceStackForCall;
+    protected final Map<String, String> mdcContextForCall;
+    protected final EventExecutor hedgeTimerExecutor;
+    protected final String hostKey;
+    protected final long startTimeNanos = System.nanoTime();
+
+    // All of the following are guarded by synchronizing on this.
+    protected AttemptHandler primary;
+    protected AttemptHandler hedge;
+    protected AttemptHandler winner;
+    /**
+     * True once the outcome of the call has been decided - either a winner was picked or an error was passed along.
+     */
+    protected boolean finished = false;
+    protected ScheduledFuture<?> hedgeTimer;
+
+    HedgedAsyncHttpRequest(AsyncHttpClient asyncHttpClient,
+                           HedgingPolicy hedgingPolicy,
+                           Request request,
+                           CompletableFuture<O> completableFutureResponse,
+                           AsyncResponseHandler<O> responseHandlerFunction,
+                           boolean performSubSpanAroundDownstreamCalls,
+                           String httpMethod,
+                           String url,
+                           Optional<CircuitBreaker.ManualModeTask<Response>> circuitBreakerManualTask,
+                           Deque<Span> distributedTraceStackForCall,
+                           Map<String, String> mdcContextForCall,
+                           EventExecutor hedgeTimerExecutor) {
+        this.asyncHttpClient = asyncHttpClient;
+        this.hedgingPolicy = hedgingPolicy;
+        this.request = request;
+        this.completableFutureResponse = completableFutureResponse;
+        this.responseHandlerFunction = responseHandlerFunction;
+        this.performSubSpanAroundDownstreamCalls = performSubSpanAroundDownstreamCalls;
+        this.httpMethod = httpMethod;
+        this.url = url;
+        this.circuitBreakerManualTask = circuitBreakerManualTask;
+        this.distributedTraceStackForCall = distributedTraceStackForCall;
+        this.mdcContextForCall = mdcContextForCall;
+        this.hedgeTimerExecutor = hedgeTimerExecutor;
+        this.hostKey = hostKey(request.getUri());
+    }
+
+    /**
+     * @return true if the given request's body (if any) can be sent more than once. Requests with an {@link
+     * java.io.InputStream} body or a {@link com.ning.http.client.BodyGenerator} are not replayable.
+     */
+    static boolean isReplayable(Request request) {
+        return request.getStreamData() == null && request.getBodyGenerator() == null;
+    }
+
+    protected static String hostKey(Uri uri) {
+        int port = uri.getPort();
+        if (port == -1)
+            port = "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+
+        return uri.getHost() + ":" + port;
+    }
+
+    /**
+     * Sends the primary call and starts the hedge timer.
+     */
+    void start() {
+        hedgingPolicy.onEligibleCallStarted();
+
+        AttemptHandler primaryHandler = new AttemptHandler(false);
+        synchronized (this) {
+            primary = primaryHandler;
+        }
+        execute(primaryHandler);
+
+        long hedgeDelayMillis = hedgingPolicy.getHedgeDelayMillis(hostKey);
+        synchronized (this) {
+            if (!finished) {
+                hedgeTimer = hedgeTimerExecutor.schedule(
+                    this::hedgeTimerFired, hedgeDelayMillis, TimeUnit.MILLISECONDS
+                );
+            }
+        }
+    }
+
+    protected void hedgeTimerFired() {
+        AttemptHandler hedgeHandler;
+        synchronized (this) {
+            hedgeTimer = null;
+            if (finished || primary.failed || completableFutureResponse.isDone() || !hedgingPolicy.tryAcquireHedge())
+                return;
+
+            hedgeHandler = new AttemptHandler(true);
+            hedge = hedgeHandler;
+        }
+
+        logger.debug("Downstream call is slow to respond, sending a hedge. method={}, url={}, elapsed_millis={}",
+                     httpMethod, url, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTimeNanos));
+        execute(hedgeHandler);
+    }
+
+    protected void execute(AttemptHandler attempt) {
+        try {
+            // Each call gets its own span (if subspans are on), so it needs its own tracing headers.
+            RequestBuilder requestBuilder = new RequestBuilder(request);
+            Span spanForCall = attempt.getSpanForCall();
+            if (spanForCall != null) {
+                requestBuilder.setHeader(TraceHeaders.TRACE_SAMPLED, String.valueOf(spanForCall.isSampleable()));
+                requestBuilder.setHeader(TraceHeaders.TRACE_ID, spanForCall.getTraceId());
+                requestBuilder.setHeader(TraceHeaders.SPAN_ID, spanForCall.getSpanId());
+                requestBuilder.setHeader(TraceHeaders.PARENT_SPAN_ID, spanForCall.getParentSpanId());
+                requestBuilder.setHeader(TraceHeaders.SPAN_NAME, spanForCall.getSpanName());
+            }
+
+            ListenableFuture<Response> responseFuture =
+                asyncHttpClient.executeRequest(requestBuilder.build(), attempt);
+
+            boolean cancel;
+            synchronized (this) {
+                attempt.responseFuture = responseFuture;
+                cancel = finished && winner != attempt;
+            }
+
+            // The call was decided while this one was being sent.
+            if (cancel)
+                responseFuture.cancel(true);
+        }
+        catch (Throwable t) {
+            attempt.onThrowable(t);
+        }
+    }
+
+    /**
+     * @return true if the given call won (or had already won), false if it lost.
+     */
+    protected boolean onStatusReceived(AttemptHandler attempt) {
+        AttemptHandler loser = null;
+        boolean justWon = false;
+        boolean won;
+        synchronized (this) {
+            if (!finished) {
+                winner = attempt;
+                finished = true;
+                justWon = true;
+                cancelHedgeTimer();
+                loser = (attempt == primary) ? hedge : primary;
+            }
+            won = (winner == attempt);
+        }
+
+        if (justWon) {
+            hedgingPolicy.recordLatency(hostKey, System.nanoTime() - startTimeNanos);
+            if (attempt.isHedge)
+                hedgingPolicy.onHedgeWon();
+
+            // If the loser hasn't been sent yet then execute() will cancel it.
+            ListenableFuture<Response> loserFuture = (loser == null) ? null : loser.getResponseFuture();
+            if (loserFuture != null)
+                loserFuture.cancel(true);
+        }
+
+        return won;
+    }
+
+    /**
+     * @return true if the error from the given call should be passed along, false if it should be ignored.
+     */
+    protected boolean onAttemptError(AttemptHandler attempt) {
+        synchronized (this) {
+            if (finished)
+                return winner == attempt;
+
+            attempt.failed = true;
+            AttemptHandler other = (attempt == primary) ? hedge : primary;
+            if (other != null && !other.failed) {
+                // Let the other call finish - it might still succeed.
+                return false;
+            }
+
+            finished = true;
+            cancelHedgeTimer();
+            return true;
+        }
+    }
+
+    protected synchronized boolean isWinner(AttemptHandler attempt) {
+        return winner == attempt;
+    }
+
+    protected void cancelHedgeTimer() {
+        if (hedgeTimer != null) {
+            hedgeTimer.cancel(false);
+            hedgeTimer = null;
+        }
+    }
+
+    /**
+     * The completion handler for one of the (at most two) calls. Only the winning call (or the call whose error is
+     * passed along) does the normal completion handling - the other one just completes its subspan.
+     */
+    protected class AttemptHandler extends AsyncCompletionHandlerWithTracingAndMdcSupport<O> {
+
+        protected final boolean isHedge;
+        protected final AtomicBoolean abandoned = new AtomicBoolean(false);
+        // Guarded by synchronizing on the enclosing HedgedAsyncHttpRequest.
+        protected ListenableFuture<Response> responseFuture;
+        protected boolean failed = false;
+
+        protected AttemptHandler(boolean isHedge) {
+            super(HedgedAsyncHttpRequest.this.completableFutureResponse,
+                  HedgedAsyncHttpRequest.this.responseHandlerFunction,
+                  HedgedAsyncHttpRequest.this.performSubSpanAroundDownstreamCalls, httpMethod, url,
+                  HedgedAsyncHttpRequest.this.circuitBreakerManualTask, distributedTraceStackForCall,
+                  mdcContextForCall);
+            this.isHedge = isHedge;
+        }
+
+        protected ListenableFuture<Response> getResponseFuture() {
+            synchronized (HedgedAsyncHttpRequest.this) {
+                return responseFuture;
+            }
+        }
+
+        @Override
+        public STATE onStatusReceived(HttpResponseStatus status) throws Exception {
+            if (!HedgedAsyncHttpRequest.this.onStatusReceived(this))
+                return STATE.ABORT;
+
+            return super.onStatusReceived(status);
+        }
+
+        @Override
+        public Response onCompleted(Response response) throws Exception {
+            if (isWinner(this))
+                return super.onCompleted(response);
+
+            abandon();
+            return response;
+        }
+
+        @Override
+        public void onThrowable(Throwable t) {
+            if (onAttemptError(this))
+                super.onThrowable(t);
+            else
+                abandon();
+        }
+
+        protected void abandon() {
+            if (!abandoned.compareAndSet(false, true))
+                return;
+
+            Pair<Deque<Span>, Map<String, String>> originalThreadInfo = null;
+            try {
+                originalThreadInfo = linkTracingAndMdcToCurrentThread(distributedTraceStackToUse, mdcContextToUse);
+                completeSubSpanIfNecessary();
+            }
+            finally {
+                AsyncNettyHelper.unlinkTracingAndMdcFromCurrentThread(originalThreadInfo);
+            }
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.nike.riposte.client.asynchttp.ning;
 
 import com.nike.fastbreak.CircuitBreaker;
+import com.nike.riposte.client.hedging.HedgingPolicy;
+import com.nike.riposte.client.retry.RetryPolicy;
 
 import com.ning.http.client.AsyncHttpClient;
 import com.ning.http.client.Response;
@@ -40,6 +42,20 @@ public class RequestBuilderWrapper {
      * #customCircuitBreaker} will be used to determine which circuit breaker to use (custom vs. default).
      */
     boolean disableCircuitBreaker;
+    /**
+     * The policy to use for hedging the call, or null if the call should not be hedged. See {@link HedgingPolicy}.
+     */
+    HedgingPolicy hedgingPolicy;
+    /**
+     * The policy to use for retrying the call when it fails in a way that's known to be safe to retry, or null if the
+     * call should not be retried. See {@link RetryPolicy}.
+     */
+    RetryPolicy retryPolicy;
+    /**
+     * The request timeout in milliseconds, or 0 if the {@link AsyncHttpClient}'s default request timeout should be
+     * used. See {@link #setRequestTimeout(int)}.
+     */
+    int requestTimeoutMillis;
 
     private ChannelHandlerContext ctx;
 
@@ -83,6 +99,54 @@ public class RequestBuilderWrapper {
         return disableCircuitBreaker;
     }
 
+    /**
+     * Set this to a {@link HedgingPolicy} if you want the call to be hedged when it's slow to respond. Defaults to null
+     * (no hedging). Only calls with an idempotent HTTP method and a body that can be sent twice (i.e. not an {@link
+     * java.io.InputStream} or {@link com.ning.http.client.BodyGenerator} body) are hedged. The policy should be shared
+     * by all the calls it applies to, since it tracks their latency and hedge budget.
+     */
+    public void setHedgingPolicy(HedgingPolicy hedgingPolicy) {
+        this.hedgingPolicy = hedgingPolicy;
+    }
+
+    public HedgingPolicy getHedgingPolicy() {
+        return hedgingPolicy;
+    }
+
+    /**
+     * Set this to a {@link RetryPolicy} if you want the call to be retried when it fails before the downstream service
+     * could have acted on it. Defaults to null (no retries). Connection failures are retried for any HTTP method, and
+     * connections that close or reset before the response starts are retried for idempotent HTTP methods. Only calls
+     * with a body that can be sent again (i.e. not an {@link java.io.InputStream} or {@link
+     * com.ning.http.client.BodyGenerator} body) are retried, and hedged calls are not retried. The policy should be
+     * shared by all the calls it applies to, since it tracks their retry budget.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * <p>Use this method to update the request timeout (in milliseconds) stored inside this {@link
+     * RequestBuilderWrapper} and the wrapped {@link AsyncHttpClient.BoundRequestBuilder}. Pass in 0 (or less) to use
+     * the {@link AsyncHttpClient}'s default request timeout.
+     *
+     * <p>Setting the request timeout only on the wrapped {@link AsyncHttpClient.BoundRequestBuilder} means it won't be
+     * taken into account when the timeout is capped at the request's deadline. Use this method to keep the two in
+     * sync.
+     */
+    public void setRequestTimeout(int requestTimeoutMillis) {
+        this.requestTimeoutMillis = requestTimeoutMillis;
+        requestBuilder.setRequestTimeout(requestTimeoutMillis);
+    }
+
+    public int getRequestTimeout() {
+        return requestTimeoutMillis;
+    }
+
     /**
      * <p>Use this method to update the url stored inside this {@link RequestBuilderWrapper}
      * and the wrapped {@link AsyncHttpClient.BoundRequestBuilder}
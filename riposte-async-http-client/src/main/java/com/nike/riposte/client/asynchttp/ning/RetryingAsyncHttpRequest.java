@@ -0,0 +1,189 @@
+package com.nike.riposte.client.asynchttp.ning;
+
+import com.nike.fastbreak.CircuitBreaker;
+import com.nike.internal.util.Pair;
+import com.nike.riposte.client.retry.RetryPolicy;
+import com.nike.riposte.util.AsyncNettyHelper;
+import com.nike.wingtips.Span;
+import com.nike.wingtips.TraceHeaders;
+
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.HttpResponseStatus;
+import com.ning.http.client.Request;
+import com.ning.http.client.RequestBuilder;
+import com.ning.http.client.Response;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.util.concurrent.EventExecutor;
+
+import static com.nike.riposte.util.AsyncNettyHelper.linkTracingAndMdcToCurrentThread;
+
+/**
+ * Runs a single call for {@link AsyncHttpClientHelper}, retrying it according to the given {@link RetryPolicy} when it
+ * fails before its response starts in a way that's known to be safe to retry. Connection failures (see {@link
+ * ConnectException}) are retried for any HTTP method. Other I/O errors (e.g. a pooled connection that turns out to be
+ * closed or gets reset) are only retried for idempotent HTTP methods, since the downstream service might have received
+ * the request. Timeouts are never retried. Each retry waits for the policy's jittered backoff, and the hostname is
+ * resolved again by {@link AsyncHttpClientHelper.MultiIpAwareNameResolver}, which round robins across the host's
+ * addresses, so a retry will usually go to a different address than the call that failed.
+ *
+ * <p>A call that's being retried does not touch the shared {@link CompletableFuture} or the circuit breaker. Only the
+ * final call does the normal completion handling.
+ *
+ * <p>Only requests whose body can be sent again are retried - see {@link HedgedAsyncHttpRequest#isReplayable(Request)}.
+ */
+@SuppressWarnings({"WeakerAccess", "OptionalUsedAsFieldOrParameterType"})
+class RetryingAsyncHttpRequest<O> {
+
+    private static final Logger logger = LoggerFactory.getLogger(RetryingAsyncHttpRequest.class);
+
+    protected final AsyncHttpClient asyncHttpClient;
+    protected final RetryPolicy retryPolicy;
+    protected final Request request;
+    protected final CompletableFuture<O> completableFutureResponse;
+    protected final AsyncResponseHandler<O> responseHandlerFunction;
+    protected final boolean performSubSpanAroundDownstreamCalls;
+    protected final String httpMethod;
+    protected final String url;
+    protected final Optional<CircuitBreaker.ManualModeTask<Response>> circuitBreakerManualTask;
+    protected final Deque<Span> distributedTraceStackForCall;
+    protected final Map<String, String> mdcContextForCall;
+    protected final EventExecutor retryTimerExecutor;
+
+    RetryingAsyncHttpRequest(AsyncHttpClient asyncHttpClient,
+                             RetryPolicy retryPolicy,
+                             Request request,
+                             CompletableFuture<O> completableFutureResponse,
+                             AsyncResponseHandler<O> responseHandlerFunction,
+                             boolean performSubSpanAroundDownstreamCalls,
+                             String httpMethod,
+                             String url,
+                             Optional<CircuitBreaker.ManualModeTask<Response>> circuitBreakerManualTask,
+                             Deque<Span> distributedTraceStackForCall,
+                             Map<String, String> mdcContextForCall,
+                             EventExecutor retryTimerExecutor) {
+        this.asyncHttpClient = asyncHttpClient;
+        this.retryPolicy = retryPolicy;
+        this.request = request;
+        this.completableFutureResponse = completableFutureResponse;
+        this.responseHandlerFunction = responseHandlerFunction;
+        this.performSubSpanAroundDownstreamCalls = performSubSpanAroundDownstreamCalls;
+        this.httpMethod = httpMethod;
+        this.url = url;
+        this.circuitBreakerManualTask = circuitBreakerManualTask;
+        this.distributedTraceStackForCall = distributedTraceStackForCall;
+        this.mdcContextForCall = mdcContextForCall;
+        this.retryTimerExecutor = retryTimerExecutor;
+    }
+
+    /**
+     * Sends the first call.
+     */
+    void start() {
+        retryPolicy.onCallStarted();
+        execute(new AttemptHandler(0));
+    }
+
+    protected void execute(AttemptHandler attempt) {
+        try {
+            // Each call gets its own span (if subspans are on), so it needs its own tracing headers.
+            RequestBuilder requestBuilder = new RequestBuilder(request);
+            Span spanForCall = attempt.getSpanForCall();
+            if (spanForCall != null) {
+                requestBuilder.setHeader(TraceHeaders.TRACE_SAMPLED, String.valueOf(spanForCall.isSampleable()));
+                requestBuilder.setHeader(TraceHeaders.TRACE_ID, spanForCall.getTraceId());
+                requestBuilder.setHeader(TraceHeaders.SPAN_ID, spanForCall.getSpanId());
+                requestBuilder.setHeader(TraceHeaders.PARENT_SPAN_ID, spanForCall.getParentSpanId());
+                requestBuilder.setHeader(TraceHeaders.SPAN_NAME, spanForCall.getSpanName());
+            }
+
+            asyncHttpClient.executeRequest(requestBuilder.build(), attempt);
+        }
+        catch (Throwable t) {
+            attempt.onThrowable(t);
+        }
+    }
+
+    /**
+     * @return true if the given error, received before the response started, is safe to retry for this request.
+     */
+    protected boolean isRetryableError(Throwable t) {
+        if (t instanceof ConnectException || t.getCause() instanceof ConnectException)
+            return true;
+
+        return t instanceof IOException && retryPolicy.isIdempotentHttpMethod(httpMethod);
+    }
+
+    /**
+     * Schedules a retry of the given (failed) call if the {@link #retryPolicy} allows it.
+     *
+     * @return true if a retry was scheduled, false if the error should be passed along.
+     */
+    protected boolean scheduleRetry(AttemptHandler failedAttempt, Throwable error) {
+        int retryNumber = failedAttempt.retryNumber + 1;
+        if (!retryPolicy.tryAcquireRetry(retryNumber))
+            return false;
+
+        long backoffMillis = retryPolicy.computeBackoffMillis(retryNumber);
+        logger.debug("Retrying downstream call. method={}, url={}, retry_number={}, backoff_millis={}, error={}",
+                     httpMethod, url, retryNumber, backoffMillis, String.valueOf(error));
+        retryTimerExecutor.schedule(
+            () -> execute(new AttemptHandler(retryNumber)), backoffMillis, TimeUnit.MILLISECONDS
+        );
+        return true;
+    }
+
+    /**
+     * The completion handler for one of the calls. A call that fails in a retryable way before its response starts
+     * just completes its subspan and hands off to the next call - otherwise it does the normal completion handling.
+     */
+    protected class AttemptHandler extends AsyncCompletionHandlerWithTracingAndMdcSupport<O> {
+
+        protected final int retryNumber;
+        protected volatile boolean responseStarted = false;
+
+        protected AttemptHandler(int retryNumber) {
+            super(RetryingAsyncHttpRequest.this.completableFutureResponse,
+                  RetryingAsyncHttpRequest.this.responseHandlerFunction,
+                  RetryingAsyncHttpRequest.this.performSubSpanAroundDownstreamCalls, httpMethod, url,
+                  RetryingAsyncHttpRequest.this.circuitBreakerManualTask, distributedTraceStackForCall,
+                  mdcContextForCall);
+            this.retryNumber = retryNumber;
+        }
+
+        @Override
+        public STATE onStatusReceived(HttpResponseStatus status) throws Exception {
+            responseStarted = true;
+            return super.onStatusReceived(status);
+        }
+
+        @Override
+        public void onThrowable(Throwable t) {
+            if (!responseStarted && !completableFutureResponse.isDone() && isRetryableError(t)) {
+                Pair<Deque<Span>, Map<String, String>> originalThreadInfo = null;
+                try {
+                    originalThreadInfo = linkTracingAndMdcToCurrentThread(distributedTraceStackToUse, mdcContextToUse);
+                    if (scheduleRetry(this, t)) {
+                        completeSubSpanIfNecessary();
+                        return;
+                    }
+                }
+                finally {
+                    AsyncNettyHelper.unlinkTracingAndMdcFromCurrentThread(originalThreadInfo);
+                }
+            }
+
+            super.onThrowable(t);
+        }
+    }
+}
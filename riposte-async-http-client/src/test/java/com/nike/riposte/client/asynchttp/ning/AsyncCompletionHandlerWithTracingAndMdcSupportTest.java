@@ -6,6 +6,9 @@ import com.nike.internal.util.Pair;
 import com.nike.wingtips.Span;
 import com.nike.wingtips.Tracer;
 
+import com.ning.http.client.AsyncHandler.STATE;
+import com.ning.http.client.HttpResponseBodyPart;
+import com.ning.http.client.HttpResponseStatus;
 import com.ning.http.client.Response;
 import com.tngtech.java.junit.dataprovider.DataProvider;
 import com.tngtech.java.junit.dataprovider.DataProviderRunner;
@@ -303,6 +306,7 @@ public class AsyncCompletionHandlerWithTracingAndMdcSupportTest {
         // then
         verify(circuitBreakerManualTaskMock).handleEvent(responseMock);
 
+        verify(cfMock).isCancelled();
         verify(cfMock).isDone();
         verifyNoMoreInteractions(cfMock);
 
@@ -466,10 +470,56 @@ public class AsyncCompletionHandlerWithTracingAndMdcSupportTest {
         // then
         verify(circuitBreakerManualTaskMock).handleException(ex);
 
+        verify(cfMock).isCancelled();
         verify(cfMock).isDone();
         verifyNoMoreInteractions(cfMock);
     }
 
+    @DataProvider(value = {
+        "true",
+        "false"
+    }, splitBy = "\\|")
+    @Test
+    public void onCompleted_and_onThrowable_do_not_notify_circuit_breaker_if_completableFutureResponse_was_cancelled(
+        boolean completed) throws Throwable {
+        // given
+        completableFutureResponse.cancel(true);
+
+        // when
+        if (completed)
+            handlerSpy.onCompleted(responseMock);
+        else
+            handlerSpy.onThrowable(new Exception("kaboom"));
+
+        // then
+        verifyZeroInteractions(circuitBreakerManualTaskMock);
+        verifyZeroInteractions(responseHandlerFunctionMock);
+    }
+
+    @DataProvider(value = {
+        "true",
+        "false"
+    }, splitBy = "\\|")
+    @Test
+    public void onStatusReceived_and_onBodyPartReceived_abort_only_if_completableFutureResponse_was_cancelled(
+        boolean cancelled) throws Exception {
+        // given
+        if (cancelled)
+            completableFutureResponse.cancel(true);
+
+        HttpResponseStatus statusMock = mock(HttpResponseStatus.class);
+        HttpResponseBodyPart bodyPartMock = mock(HttpResponseBodyPart.class);
+
+        // when
+        STATE statusState = handlerSpy.onStatusReceived(statusMock);
+        STATE bodyPartState = handlerSpy.onBodyPartReceived(bodyPartMock);
+
+        // then
+        STATE expectedState = (cancelled) ? STATE.ABORT : STATE.CONTINUE;
+        assertThat(statusState).isEqualTo(expectedState);
+        assertThat(bodyPartState).isEqualTo(expectedState);
+    }
+
     private Pair<ObjectHolder<Span>, ObjectHolder<Span>> setupBeforeAndAfterSpanCaptureForOnThrowable(
         CompletableFuture<String> cfMock) throws Throwable {
         ObjectHolder<Span> before = new ObjectHolder<>();
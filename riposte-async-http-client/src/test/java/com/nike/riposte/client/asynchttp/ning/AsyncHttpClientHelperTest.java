@@ -7,8 +7,13 @@ import com.nike.fastbreak.CircuitBreakerForHttpStatusCode;
 import com.nike.fastbreak.exception.CircuitBreakerOpenException;
 import com.nike.internal.util.Pair;
 import com.nike.riposte.client.asynchttp.ning.AsyncHttpClientHelper.MultiIpAwareNameResolver;
+import com.nike.riposte.client.dns.CachingHostnameResolver;
+import com.nike.riposte.client.hedging.HedgingPolicy;
+import com.nike.riposte.client.retry.RetryPolicy;
 import com.nike.riposte.server.channelpipeline.ChannelAttributes;
+import com.nike.riposte.server.error.exception.RequestDeadlineExceededException;
 import com.nike.riposte.server.http.HttpProcessingState;
+import com.nike.riposte.server.http.RequestDeadline;
 import com.nike.wingtips.Span;
 import com.nike.wingtips.TraceHeaders;
 import com.nike.wingtips.Tracer;
@@ -17,6 +22,7 @@ import com.ning.http.client.AsyncHandler;
 import com.ning.http.client.AsyncHttpClient;
 import com.ning.http.client.AsyncHttpClientConfig;
 import com.ning.http.client.Request;
+import com.ning.http.client.RequestBuilder;
 import com.ning.http.client.Response;
 import com.ning.http.client.SignatureCalculator;
 import com.ning.http.client.uri.Uri;
@@ -32,6 +38,9 @@ import org.mockito.internal.util.reflection.Whitebox;
 import org.slf4j.Logger;
 import org.slf4j.MDC;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.ConnectException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
@@ -43,6 +52,7 @@ import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 
@@ -64,7 +74,9 @@ import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 
@@ -346,6 +358,79 @@ public class AsyncHttpClientHelperTest {
         verify(rbwMock).setCtx(ctxMock);
     }
 
+    @Test
+    public void executeAsyncHttpRequest_with_ctx_caps_request_timeout_and_forwards_remaining_budget_if_request_has_a_deadline() {
+        // given
+        RequestBuilderWrapper rbw = helperSpy.getRequestBuilder("http://localhost/some/path", HttpMethod.GET);
+        AsyncResponseHandler responseHandlerMock = mock(AsyncResponseHandler.class);
+        CompletableFuture cfMock = mock(CompletableFuture.class);
+        doReturn(cfMock).when(helperSpy).executeAsyncHttpRequest(
+            any(RequestBuilderWrapper.class), any(AsyncResponseHandler.class), any(Deque.class), any(Map.class)
+        );
+        state.setRequestDeadline(new RequestDeadline(
+            System.nanoTime() + TimeUnit.SECONDS.toNanos(2), 5, "X-Request-Timeout-Millis"
+        ));
+
+        // when
+        CompletableFuture result = helperSpy.executeAsyncHttpRequest(rbw, responseHandlerMock, ctxMock);
+
+        // then
+        assertThat(result).isSameAs(cfMock);
+        Request request = rbw.requestBuilder.build();
+        assertThat(request.getRequestTimeout()).isBetween(1, 2000);
+        assertThat(rbw.getRequestTimeout()).isEqualTo(request.getRequestTimeout());
+        assertThat(Long.parseLong(request.getHeaders().getFirstValue("X-Request-Timeout-Millis"))).isBetween(1L, 2000L);
+    }
+
+    @Test
+    public void applyRequestDeadline_keeps_the_wrappers_request_timeout_if_it_is_shorter_than_the_time_left() {
+        // given
+        RequestBuilderWrapper rbw = helperSpy.getRequestBuilder("http://localhost/some/path", HttpMethod.GET);
+        rbw.setRequestTimeout(500);
+        RequestDeadline deadline = new RequestDeadline(System.nanoTime() + TimeUnit.SECONDS.toNanos(10), 5, null);
+
+        // when
+        helperSpy.applyRequestDeadline(rbw, deadline);
+
+        // then
+        assertThat(rbw.getRequestTimeout()).isEqualTo(500);
+        assertThat(rbw.requestBuilder.build().getRequestTimeout()).isEqualTo(500);
+    }
+
+    @Test
+    public void applyRequestDeadline_caps_the_wrappers_request_timeout_at_the_time_left() {
+        // given
+        RequestBuilderWrapper rbw = helperSpy.getRequestBuilder("http://localhost/some/path", HttpMethod.GET);
+        rbw.setRequestTimeout(30000);
+        RequestDeadline deadline = new RequestDeadline(System.nanoTime() + TimeUnit.SECONDS.toNanos(2), 5, null);
+
+        // when
+        helperSpy.applyRequestDeadline(rbw, deadline);
+
+        // then
+        assertThat(rbw.getRequestTimeout()).isBetween(1, 2000);
+        assertThat(rbw.requestBuilder.build().getRequestTimeout()).isEqualTo(rbw.getRequestTimeout());
+    }
+
+    @Test
+    public void executeAsyncHttpRequest_with_ctx_fails_fast_if_request_deadline_is_too_close() {
+        // given
+        RequestBuilderWrapper rbwMock = mock(RequestBuilderWrapper.class);
+        AsyncResponseHandler responseHandlerMock = mock(AsyncResponseHandler.class);
+        state.setRequestDeadline(new RequestDeadline(System.nanoTime(), 5, null));
+
+        // when
+        CompletableFuture result = helperSpy.executeAsyncHttpRequest(rbwMock, responseHandlerMock, ctxMock);
+
+        // then
+        assertThat(result).isCompletedExceptionally();
+        Throwable ex = catchThrowable(result::join);
+        assertThat(ex.getCause()).isInstanceOf(RequestDeadlineExceededException.class);
+        verify(helperSpy, never()).executeAsyncHttpRequest(
+            any(RequestBuilderWrapper.class), any(AsyncResponseHandler.class), any(Deque.class), any(Map.class)
+        );
+    }
+
     @Test
     public void executeAsyncHttpRequest_with_ctx_throws_IllegalStateException_if_state_is_null() {
         // given
@@ -365,6 +450,82 @@ public class AsyncHttpClientHelperTest {
         assertThat(ex).isInstanceOf(IllegalStateException.class);
     }
 
+    @Test
+    public void executeFanOut_with_ctx_throws_IllegalStateException_if_state_is_null() {
+        // given
+        doReturn(null).when(stateAttributeMock).get();
+
+        // when
+        Throwable ex = catchThrowable(() -> helperSpy.executeFanOut(
+            new ArrayList<>(), mock(AsyncResponseHandler.class), FanOutPolicy.newBuilder().build(), ctxMock
+        ));
+
+        // then
+        assertThat(ex).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void executeFanOut_with_ctx_sends_calls_with_state_trace_and_mdc_and_uses_default_policy_if_null() {
+        // given
+        RequestBuilderWrapper rbwMock = mock(RequestBuilderWrapper.class);
+        AsyncResponseHandler<String> responseHandlerMock = mock(AsyncResponseHandler.class);
+        doReturn(CompletableFuture.completedFuture("result")).when(helperSpy).executeAsyncHttpRequest(
+            any(RequestBuilderWrapper.class), any(AsyncResponseHandler.class), any(Deque.class), any(Map.class)
+        );
+
+        // when
+        FanOutResult<String> result =
+            helperSpy.executeFanOut(Arrays.asList(rbwMock), responseHandlerMock, null, ctxMock).join();
+
+        // then
+        assertThat(result.getSuccessfulResults()).containsExactly("result");
+        verify(rbwMock).setCtx(ctxMock);
+        verify(helperSpy).executeAsyncHttpRequest(rbwMock, responseHandlerMock, state.getDistributedTraceStack(),
+                                                  state.getLoggerMdcContextMap());
+    }
+
+    @DataProvider(value = {
+        "false  |   0       |   false",
+        "true   |   0       |   true",
+        "true   |   100     |   false",
+        "true   |   100000  |   true",
+        "false  |   100     |   false"
+    }, splitBy = "\\|")
+    @Test
+    public void getFanOutDeadline_returns_whichever_deadline_comes_first(
+        boolean hasRequestDeadline, long policyDeadlineMillis, boolean expectRequestDeadline) {
+        // given
+        RequestDeadline requestDeadline = (hasRequestDeadline)
+                                          ? new RequestDeadline(System.nanoTime() + TimeUnit.SECONDS.toNanos(10),
+                                                                5, "X-Deadline-Ms")
+                                          : null;
+        FanOutPolicy policy = FanOutPolicy.newBuilder().withDeadlineMillis(policyDeadlineMillis).build();
+
+        // when
+        RequestDeadline result = helperSpy.getFanOutDeadline(policy, requestDeadline);
+
+        // then
+        if (expectRequestDeadline) {
+            assertThat(result).isSameAs(requestDeadline);
+            return;
+        }
+
+        if (policyDeadlineMillis == 0) {
+            assertThat(result).isNull();
+            return;
+        }
+
+        assertThat(result.getRemainingMillis()).isBetween(0L, policyDeadlineMillis);
+        if (hasRequestDeadline) {
+            assertThat(result.getMinimumRemainingBudgetMillis()).isEqualTo(5);
+            assertThat(result.getHeaderName()).isEqualTo("X-Deadline-Ms");
+        }
+        else {
+            assertThat(result.getMinimumRemainingBudgetMillis()).isEqualTo(0);
+            assertThat(result.getHeaderName()).isNull();
+        }
+    }
+
     @DataProvider(value = {
         "true   |   true",
         "true   |   false",
@@ -454,6 +615,172 @@ public class AsyncHttpClientHelperTest {
         }
     }
 
+    @DataProvider(value = {
+        "GET    |   false   |   true    |   true",
+        "PUT    |   false   |   true    |   true",
+        "POST   |   false   |   true    |   false",
+        "PUT    |   true    |   true    |   false",
+        "GET    |   false   |   false   |   false"
+    }, splitBy = "\\|")
+    @Test
+    public void executeAsyncHttpRequest_hedges_the_call_only_if_it_has_a_policy_and_is_idempotent_and_replayable(
+        String method, boolean streamedBody, boolean hasPolicy, boolean expectHedged
+    ) {
+        // given
+        AsyncHttpClient asyncHttpClientMock = mock(AsyncHttpClient.class);
+        Whitebox.setInternalState(helperSpy, "asyncHttpClient", asyncHttpClientMock);
+        String url = "http://localhost:8080/some/path";
+        RequestBuilder requestBuilder = new RequestBuilder(method).setUrl(url);
+        if (streamedBody)
+            requestBuilder.setBody(new ByteArrayInputStream("foo".getBytes()));
+        AsyncHttpClient.BoundRequestBuilder reqMock = mock(AsyncHttpClient.BoundRequestBuilder.class);
+        doReturn(requestBuilder.build()).when(reqMock).build();
+        RequestBuilderWrapper rbw = new RequestBuilderWrapper(url, method, reqMock, Optional.empty(), true);
+        if (hasPolicy)
+            rbw.setHedgingPolicy(HedgingPolicy.newBuilder().build());
+
+        // when
+        CompletableFuture resultFuture = helperSpy.executeAsyncHttpRequest(
+            rbw, mock(AsyncResponseHandler.class), null, null
+        );
+
+        // then
+        assertThat(resultFuture).isNotDone();
+        if (expectHedged) {
+            ArgumentCaptor<AsyncHandler> handlerCaptor = ArgumentCaptor.forClass(AsyncHandler.class);
+            verify(asyncHttpClientMock).executeRequest(any(Request.class), handlerCaptor.capture());
+            assertThat(handlerCaptor.getValue()).isInstanceOf(HedgedAsyncHttpRequest.AttemptHandler.class);
+            verify(reqMock, never()).execute(any(AsyncHandler.class));
+        }
+        else {
+            verifyZeroInteractions(asyncHttpClientMock);
+            verify(reqMock).execute(any(AsyncHandler.class));
+        }
+    }
+
+    @DataProvider(value = {
+        "POST   |   true    |   true",
+        "POST   |   false   |   false",
+        "GET    |   false   |   true"
+    }, splitBy = "\\|")
+    @Test
+    public void executeAsyncHttpRequest_retries_connect_failures_for_any_method_and_other_io_errors_only_when_idempotent(
+        String method, boolean connectFailure, boolean expectRetry
+    ) {
+        // given
+        AsyncHttpClient asyncHttpClientMock = mock(AsyncHttpClient.class);
+        Whitebox.setInternalState(helperSpy, "asyncHttpClient", asyncHttpClientMock);
+        String url = "http://localhost:8080/some/path";
+        AsyncHttpClient.BoundRequestBuilder reqMock = mock(AsyncHttpClient.BoundRequestBuilder.class);
+        doReturn(new RequestBuilder(method).setUrl(url).setBody("foo").build()).when(reqMock).build();
+        RequestBuilderWrapper rbw = new RequestBuilderWrapper(url, method, reqMock, Optional.empty(), true);
+        RetryPolicy retryPolicy = RetryPolicy.newBuilder().withMaxRetries(1).withBaseBackoffMillis(0)
+                                             .withMaxBackoffMillis(0).build();
+        rbw.setRetryPolicy(retryPolicy);
+        Throwable error = (connectFailure) ? new ConnectException("nope") : new IOException("connection reset");
+
+        // when
+        CompletableFuture resultFuture = helperSpy.executeAsyncHttpRequest(
+            rbw, mock(AsyncResponseHandler.class), null, null
+        );
+        ArgumentCaptor<AsyncHandler> handlerCaptor = ArgumentCaptor.forClass(AsyncHandler.class);
+        verify(asyncHttpClientMock).executeRequest(any(Request.class), handlerCaptor.capture());
+        handlerCaptor.getValue().onThrowable(error);
+
+        // then
+        verify(reqMock, never()).execute(any(AsyncHandler.class));
+        if (expectRetry) {
+            assertThat(resultFuture).isNotDone();
+            verify(asyncHttpClientMock, timeout(1000).times(2)).executeRequest(any(Request.class),
+                                                                               handlerCaptor.capture());
+            assertThat(handlerCaptor.getValue()).isInstanceOf(RetryingAsyncHttpRequest.AttemptHandler.class);
+            assertThat(retryPolicy.getRetryCount()).isEqualTo(1);
+
+            // and when
+            handlerCaptor.getValue().onThrowable(error);
+        }
+
+        // then
+        assertThat(resultFuture).isCompletedExceptionally();
+        assertThat(catchThrowable(resultFuture::join)).hasCause(error);
+    }
+
+    @Test
+    public void HedgedAsyncHttpRequest_isReplayable_returns_false_for_streamed_bodies() {
+        // expect
+        assertThat(HedgedAsyncHttpRequest.isReplayable(
+            new RequestBuilder("PUT").setUrl("http://localhost").setBody("foo").build()
+        )).isTrue();
+        assertThat(HedgedAsyncHttpRequest.isReplayable(
+            new RequestBuilder("PUT").setUrl("http://localhost")
+                                     .setBody(new ByteArrayInputStream("foo".getBytes())).build()
+        )).isFalse();
+    }
+
+    @DataProvider(value = {
+        "true",
+        "false"
+    }, splitBy = "\\|")
+    @Test
+    public void executeAsyncHttpRequest_executes_the_call_only_after_the_host_is_resolved(boolean lookupFails) {
+        // given
+        doReturn(Optional.empty()).when(helperSpy).getCircuitBreaker(any(RequestBuilderWrapper.class));
+        AsyncHttpClient.BoundRequestBuilder reqMock = mock(AsyncHttpClient.BoundRequestBuilder.class);
+        RequestBuilderWrapper rbw = new RequestBuilderWrapper(
+            "http://localhost/some/path", "GET", reqMock, Optional.empty(), false
+        );
+        CompletableFuture<InetAddress[]> hostLookup = new CompletableFuture<>();
+        doReturn(hostLookup).when(helperSpy).prewarmHostResolution(rbw);
+
+        // when
+        helperSpy.executeAsyncHttpRequest(rbw, mock(AsyncResponseHandler.class), null, null);
+
+        // then
+        verify(reqMock, never()).execute(any(AsyncHandler.class));
+
+        // and when
+        if (lookupFails)
+            hostLookup.completeExceptionally(new UnknownHostException("intentional test exception"));
+        else
+            hostLookup.complete(new InetAddress[]{ mock(InetAddress.class) });
+
+        // then
+        // The call goes ahead either way - the AsyncHttpClient reports resolution failures itself.
+        verify(reqMock, timeout(1000)).execute(any(AsyncHandler.class));
+    }
+
+    @Test
+    public void prewarmHostResolution_starts_a_non_blocking_lookup_of_the_request_host() {
+        // given
+        MultiIpAwareNameResolver resolverMock = mock(MultiIpAwareNameResolver.class);
+        CompletableFuture<InetAddress[]> lookupFuture = new CompletableFuture<>();
+        doReturn(lookupFuture).when(resolverMock).resolveAllAsync("somehost");
+        doReturn(resolverMock).when(helperSpy).getMultiIpAwareNameResolver();
+        RequestBuilderWrapper rbw = new RequestBuilderWrapper(
+            "http://somehost:8080/some/path", "GET", mock(AsyncHttpClient.BoundRequestBuilder.class),
+            Optional.empty(), false
+        );
+
+        // when
+        CompletableFuture<InetAddress[]> result = helperSpy.prewarmHostResolution(rbw);
+
+        // then
+        assertThat(result).isSameAs(lookupFuture);
+    }
+
+    @Test
+    public void prewarmHostResolution_returns_completed_future_if_url_cannot_be_parsed() {
+        // given
+        RequestBuilderWrapper rbw = mock(RequestBuilderWrapper.class);
+
+        // when
+        CompletableFuture<InetAddress[]> result = helperSpy.prewarmHostResolution(rbw);
+
+        // then
+        assertThat(result).isCompleted();
+        verify(helperSpy, never()).getMultiIpAwareNameResolver();
+    }
+
     @DataProvider(value = {
         "true",
         "false"
@@ -615,4 +942,54 @@ public class AsyncHttpClientHelperTest {
         //      be reset to zero when the overflow was detected.
         assertThat(counterForHost.get()).isEqualTo(0);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void multiIpAwareNameResolver_getAllAddressesForHost_delegates_to_CachingHostnameResolver()
+        throws UnknownHostException {
+        // given
+        CachingHostnameResolver hostnameResolverMock = mock(CachingHostnameResolver.class);
+        InetAddress[] ipAddresses = new InetAddress[]{ mock(InetAddress.class) };
+        String host = UUID.randomUUID().toString();
+        doReturn(ipAddresses).when(hostnameResolverMock).resolveAllBlocking(host);
+        MultiIpAwareNameResolver resolver = new MultiIpAwareNameResolver(hostnameResolverMock);
+
+        // when
+        InetAddress[] result = resolver.getAllAddressesForHost(host);
+
+        // then
+        assertThat(result).isSameAs(ipAddresses);
+        verify(hostnameResolverMock).resolveAllBlocking(host);
+    }
+
+    @Test
+    public void multiIpAwareNameResolver_resolveAllAsync_delegates_to_CachingHostnameResolver() {
+        // given
+        CachingHostnameResolver hostnameResolverMock = mock(CachingHostnameResolver.class);
+        CompletableFuture<InetAddress[]> lookupFuture = new CompletableFuture<>();
+        String host = UUID.randomUUID().toString();
+        doReturn(lookupFuture).when(hostnameResolverMock).resolveAll(host);
+        MultiIpAwareNameResolver resolver = new MultiIpAwareNameResolver(hostnameResolverMock);
+
+        // when
+        CompletableFuture<InetAddress[]> result = resolver.resolveAllAsync(host);
+
+        // then
+        assertThat(result).isSameAs(lookupFuture);
+    }
+
+    @Test
+    public void multiIpAwareNameResolver_default_constructor_uses_default_CachingHostnameResolver() {
+        // expect
+        assertThat(new MultiIpAwareNameResolver().hostnameResolver)
+            .isSameAs(CachingHostnameResolver.getDefaultInstance());
+    }
+
+    @Test
+    public void multiIpAwareNameResolver_constructor_throws_IllegalArgumentException_if_passed_null() {
+        // when
+        Throwable ex = catchThrowable(() -> new MultiIpAwareNameResolver(null));
+
+        // then
+        assertThat(ex).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,285 @@
+package com.nike.riposte.client.asynchttp.ning;
+
+import com.nike.riposte.client.asynchttp.ning.FanOutResult.CallOutcome;
+import com.nike.riposte.server.error.exception.RequestDeadlineExceededException;
+import com.nike.riposte.server.http.RequestDeadline;
+import com.nike.wingtips.Span;
+
+import com.tngtech.java.junit.dataprovider.DataProviderRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+/**
+ * Tests the functionality of {@link FanOutAsyncHttpRequest}.
+ */
+@RunWith(DataProviderRunner.class)
+public class FanOutAsyncHttpRequestTest {
+
+    private AsyncHttpClientHelper helperMock;
+    private AsyncResponseHandler<String> responseHandlerMock;
+    private ChannelHandlerContext ctxMock;
+    private Deque<Span> spanStack;
+    private Map<String, String> mdcInfo;
+    private EventExecutor timerExecutorMock;
+    private ScheduledFuture<?> deadlineTimerMock;
+    private FanOutMetrics metrics;
+    private List<CompletableFuture<String>> callFutures;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void beforeMethod() {
+        helperMock = mock(AsyncHttpClientHelper.class);
+        responseHandlerMock = mock(AsyncResponseHandler.class);
+        ctxMock = mock(ChannelHandlerContext.class);
+        spanStack = new LinkedList<>();
+        mdcInfo = new HashMap<>();
+        timerExecutorMock = mock(EventExecutor.class);
+        deadlineTimerMock = mock(ScheduledFuture.class);
+        metrics = new FanOutMetrics();
+        callFutures = new ArrayList<>();
+
+        doAnswer(invocation -> {
+            CompletableFuture<String> callFuture = new CompletableFuture<>();
+            callFutures.add(callFuture);
+            return callFuture;
+        }).when(helperMock).executeAsyncHttpRequest(
+            any(RequestBuilderWrapper.class), any(AsyncResponseHandler.class), any(Deque.class), any(Map.class)
+        );
+        doReturn(deadlineTimerMock).when(timerExecutorMock)
+                                   .schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+    }
+
+    private List<RequestBuilderWrapper> requests(int numRequests) {
+        List<RequestBuilderWrapper> requests = new ArrayList<>();
+        for (int i = 0; i < numRequests; i++) {
+            requests.add(mock(RequestBuilderWrapper.class));
+        }
+        return requests;
+    }
+
+    private FanOutAsyncHttpRequest<String> fanOut(List<RequestBuilderWrapper> requests, FanOutPolicy policy,
+                                                  RequestDeadline deadline) {
+        return new FanOutAsyncHttpRequest<>(helperMock, requests, responseHandlerMock, policy, deadline, metrics,
+                                            ctxMock, spanStack, mdcInfo, timerExecutorMock);
+    }
+
+    @Test
+    public void sends_calls_up_to_maxConcurrency_and_sends_the_next_one_as_each_finishes() {
+        // given
+        List<RequestBuilderWrapper> requests = requests(4);
+        FanOutAsyncHttpRequest<String> fanOut =
+            fanOut(requests, FanOutPolicy.newBuilder().withMaxConcurrency(2).build(), null);
+
+        // when
+        CompletableFuture<FanOutResult<String>> resultFuture = fanOut.start();
+
+        // then
+        assertThat(callFutures).hasSize(2);
+        verify(helperMock).executeAsyncHttpRequest(requests.get(0), responseHandlerMock, spanStack, mdcInfo);
+        verify(requests.get(0)).setCtx(ctxMock);
+        verifyZeroInteractions(timerExecutorMock);
+
+        // and when
+        callFutures.get(1).complete("r1");
+
+        // then
+        assertThat(callFutures).hasSize(3);
+        assertThat(resultFuture).isNotDone();
+
+        // and when
+        callFutures.get(0).complete("r0");
+        callFutures.get(2).complete("r2");
+        callFutures.get(3).complete("r3");
+
+        // then
+        FanOutResult<String> result = resultFuture.join();
+        assertThat(result.getOutcomes()).containsOnly(CallOutcome.SUCCEEDED);
+        assertThat(result.getSuccessfulResults()).containsExactly("r0", "r1", "r2", "r3");
+        assertThat(result.getRequiredSuccesses()).isEqualTo(4);
+        assertThat(result.isRequiredSuccessesMet()).isTrue();
+        assertThat(result.isDeadlineExceeded()).isFalse();
+    }
+
+    @Test
+    public void failed_call_finishes_fan_out_when_every_call_must_succeed() {
+        // given
+        FanOutAsyncHttpRequest<String> fanOut = fanOut(requests(3), FanOutPolicy.newBuilder().build(), null);
+        CompletableFuture<FanOutResult<String>> resultFuture = fanOut.start();
+
+        // when
+        callFutures.get(1).completeExceptionally(new Exception("kaboom"));
+
+        // then
+        FanOutResult<String> result = resultFuture.join();
+        assertThat(result.getOutcomes()).containsExactly(
+            CallOutcome.CANCELLED, CallOutcome.FAILED, CallOutcome.CANCELLED
+        );
+        assertThat(result.getError(1)).hasMessage("kaboom");
+        assertThat(result.isRequiredSuccessesMet()).isFalse();
+    }
+
+    @Test
+    public void first_N_finishes_as_soon_as_N_calls_succeed_and_cancels_stragglers_and_skips_unsent_calls() {
+        // given
+        FanOutAsyncHttpRequest<String> fanOut =
+            fanOut(requests(4), FanOutPolicy.newBuilder().withMaxConcurrency(2).withFirstN(2).build(), null);
+        CompletableFuture<FanOutResult<String>> resultFuture = fanOut.start();
+
+        // when
+        callFutures.get(1).complete("r1");
+        callFutures.get(0).complete("r0");
+
+        // then
+        FanOutResult<String> result = resultFuture.join();
+        assertThat(result.getOutcomes()).containsExactly(
+            CallOutcome.SUCCEEDED, CallOutcome.SUCCEEDED, CallOutcome.CANCELLED, CallOutcome.NOT_STARTED
+        );
+        assertThat(result.getSuccessfulResults()).containsExactly("r0", "r1");
+        assertThat(result.isRequiredSuccessesMet()).isTrue();
+        assertThat(callFutures).hasSize(3);
+        assertThat(callFutures.get(2)).isCancelled();
+
+        assertThat(metrics.getFanOutCount()).isEqualTo(1);
+        assertThat(metrics.getMaxFanOutWidth()).isEqualTo(4);
+        assertThat(metrics.getCancelledStragglerCount()).isEqualTo(1);
+        assertThat(metrics.getNotStartedCallCount()).isEqualTo(1);
+        assertThat(metrics.getRequiredSuccessesNotMetCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void quorum_finishes_as_soon_as_too_many_calls_fail_for_it_to_be_met() {
+        // given
+        FanOutAsyncHttpRequest<String> fanOut =
+            fanOut(requests(3), FanOutPolicy.newBuilder().withQuorumPercent(60).build(), null);
+        CompletableFuture<FanOutResult<String>> resultFuture = fanOut.start();
+
+        // when
+        callFutures.get(0).completeExceptionally(new Exception("kaboom"));
+
+        // then
+        assertThat(resultFuture).isNotDone();
+
+        // and when
+        callFutures.get(1).completeExceptionally(new Exception("kaboom"));
+
+        // then
+        FanOutResult<String> result = resultFuture.join();
+        assertThat(result.getRequiredSuccesses()).isEqualTo(2);
+        assertThat(result.getOutcomes()).containsExactly(
+            CallOutcome.FAILED, CallOutcome.FAILED, CallOutcome.CANCELLED
+        );
+        assertThat(result.isRequiredSuccessesMet()).isFalse();
+        assertThat(callFutures.get(2)).isCancelled();
+        assertThat(metrics.getRequiredSuccessesNotMetCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void deadline_timer_finishes_fan_out_with_partial_results_and_is_cancelled_if_fan_out_finishes_first() {
+        // given
+        RequestDeadline deadline =
+            new RequestDeadline(System.nanoTime() + TimeUnit.SECONDS.toNanos(10), 0, "X-Deadline-Ms");
+        List<RequestBuilderWrapper> requests = requests(2);
+        FanOutAsyncHttpRequest<String> fanOut = fanOut(requests, FanOutPolicy.newBuilder().build(), deadline);
+
+        // when
+        CompletableFuture<FanOutResult<String>> resultFuture = fanOut.start();
+
+        // then
+        ArgumentCaptor<Runnable> timerTaskCaptor = ArgumentCaptor.forClass(Runnable.class);
+        ArgumentCaptor<Long> delayCaptor = ArgumentCaptor.forClass(Long.class);
+        verify(timerExecutorMock).schedule(timerTaskCaptor.capture(), delayCaptor.capture(),
+                                           any(TimeUnit.class));
+        assertThat(delayCaptor.getValue()).isBetween(9000L, 10000L);
+        verify(helperMock).applyRequestDeadline(requests.get(0), deadline);
+        verify(helperMock).applyRequestDeadline(requests.get(1), deadline);
+
+        // and when
+        callFutures.get(0).complete("r0");
+        timerTaskCaptor.getValue().run();
+
+        // then
+        FanOutResult<String> result = resultFuture.join();
+        assertThat(result.isDeadlineExceeded()).isTrue();
+        assertThat(result.getOutcomes()).containsExactly(CallOutcome.SUCCEEDED, CallOutcome.CANCELLED);
+        assertThat(callFutures.get(1)).isCancelled();
+        assertThat(metrics.getDeadlineExceededCount()).isEqualTo(1);
+
+        // and when
+        FanOutAsyncHttpRequest<String> otherFanOut = fanOut(requests(1), FanOutPolicy.newBuilder().build(), deadline);
+        CompletableFuture<FanOutResult<String>> otherResultFuture = otherFanOut.start();
+        callFutures.get(2).complete("r");
+
+        // then
+        assertThat(otherResultFuture.join().isDeadlineExceeded()).isFalse();
+        verify(deadlineTimerMock).cancel(false);
+    }
+
+    @Test
+    public void calls_fail_fast_without_being_sent_if_the_deadline_is_too_close() {
+        // given
+        RequestDeadline deadline = new RequestDeadline(System.nanoTime() + TimeUnit.SECONDS.toNanos(1), 5000, null);
+        FanOutAsyncHttpRequest<String> fanOut = fanOut(requests(2), FanOutPolicy.newBuilder().build(), deadline);
+
+        // when
+        FanOutResult<String> result = fanOut.start().join();
+
+        // then
+        assertThat(callFutures).isEmpty();
+        assertThat(result.getOutcomes()).containsExactly(CallOutcome.FAILED, CallOutcome.NOT_STARTED);
+        assertThat(result.getError(0)).isInstanceOf(RequestDeadlineExceededException.class);
+    }
+
+    @Test
+    public void empty_fan_out_finishes_immediately() {
+        // when
+        FanOutResult<String> result = fanOut(requests(0), FanOutPolicy.newBuilder().build(), null).start().join();
+
+        // then
+        assertThat(result.size()).isEqualTo(0);
+        assertThat(result.isRequiredSuccessesMet()).isTrue();
+        assertThat(metrics.getFanOutCount()).isEqualTo(1);
+        verifyZeroInteractions(helperMock);
+    }
+
+    @Test
+    public void FanOutResult_constructor_copies_lists_and_counts_successes() {
+        // given
+        List<CallOutcome> outcomes = new ArrayList<>(Arrays.asList(CallOutcome.SUCCEEDED, CallOutcome.FAILED));
+
+        // when
+        FanOutResult<String> result =
+            new FanOutResult<>(outcomes, Arrays.asList("r0", null), Arrays.asList(null, new Exception()), 1, false);
+        outcomes.clear();
+
+        // then
+        assertThat(result.size()).isEqualTo(2);
+        assertThat(result.getSuccessCount()).isEqualTo(1);
+        assertThat(result.isRequiredSuccessesMet()).isTrue();
+    }
+}
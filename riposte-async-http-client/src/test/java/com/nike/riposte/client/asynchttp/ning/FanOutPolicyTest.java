@@ -0,0 +1,87 @@
+package com.nike.riposte.client.asynchttp.ning;
+
+import com.tngtech.java.junit.dataprovider.DataProvider;
+import com.tngtech.java.junit.dataprovider.DataProviderRunner;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * Tests the functionality of {@link FanOutPolicy}.
+ */
+@RunWith(DataProviderRunner.class)
+public class FanOutPolicyTest {
+
+    @Test
+    public void builder_uses_defaults() {
+        // when
+        FanOutPolicy policy = FanOutPolicy.newBuilder().build();
+
+        // then
+        assertThat(policy.maxConcurrency).isEqualTo(FanOutPolicy.DEFAULT_MAX_CONCURRENCY);
+        assertThat(policy.deadlineMillis).isEqualTo(0);
+        assertThat(policy.requiredSuccesses).isEqualTo(0);
+        assertThat(policy.quorumPercent).isEqualTo(0);
+    }
+
+    @Test
+    public void builder_sets_values_as_given() {
+        // when
+        FanOutPolicy policy = FanOutPolicy.newBuilder()
+                                          .withMaxConcurrency(3)
+                                          .withDeadlineMillis(250)
+                                          .withQuorumPercent(50)
+                                          .build();
+
+        // then
+        assertThat(policy.maxConcurrency).isEqualTo(3);
+        assertThat(policy.deadlineMillis).isEqualTo(250);
+        assertThat(policy.requiredSuccesses).isEqualTo(0);
+        assertThat(policy.quorumPercent).isEqualTo(50);
+    }
+
+    @DataProvider(value = {
+        "0  |   0   |   0   |   0",
+        "1  |   -1  |   0   |   0",
+        "1  |   0   |   -1  |   0",
+        "1  |   0   |   0   |   -1",
+        "1  |   0   |   0   |   101",
+        "1  |   0   |   2   |   50"
+    }, splitBy = "\\|")
+    @Test
+    public void constructor_throws_IllegalArgumentException_for_invalid_args(
+        int maxConcurrency, long deadlineMillis, int requiredSuccesses, double quorumPercent
+    ) {
+        // when
+        Throwable ex = catchThrowable(
+            () -> new FanOutPolicy(maxConcurrency, deadlineMillis, requiredSuccesses, quorumPercent)
+        );
+
+        // then
+        assertThat(ex).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @DataProvider(value = {
+        "0  |   0   |   5   |   5",
+        "2  |   0   |   5   |   2",
+        "7  |   0   |   5   |   5",
+        "0  |   50  |   5   |   3",
+        "0  |   50  |   4   |   2",
+        "0  |   100 |   4   |   4",
+        "0  |   1   |   4   |   1",
+        "2  |   0   |   0   |   0"
+    }, splitBy = "\\|")
+    @Test
+    public void getRequiredSuccesses_works_as_expected(
+        int requiredSuccesses, double quorumPercent, int numCalls, int expected
+    ) {
+        // given
+        FanOutPolicy policy = new FanOutPolicy(1, 0, requiredSuccesses, quorumPercent);
+
+        // expect
+        assertThat(policy.getRequiredSuccesses(numCalls)).isEqualTo(expected);
+    }
+}
@@ -2,6 +2,8 @@ package com.nike.riposte.client.asynchttp.ning;
 
 import com.nike.fastbreak.CircuitBreaker;
 import com.nike.fastbreak.CircuitBreakerImpl;
+import com.nike.riposte.client.hedging.HedgingPolicy;
+import com.nike.riposte.client.retry.RetryPolicy;
 import com.ning.http.client.AsyncHttpClient;
 import com.ning.http.client.Response;
 import io.netty.channel.ChannelHandlerContext;
@@ -147,4 +149,67 @@ public class RequestBuilderWrapperTest {
         // then
         assertThat(requestBuilderWrapper.getCustomCircuitBreaker()).isEqualTo(alteredCircuitBreaker);
     }
+
+    @Test
+    public void get_set_HedgingPolicy_works_as_expected() {
+        // given
+        requestBuilderWrapper = new RequestBuilderWrapper(
+                url,
+                httpMethod,
+                requestBuilder,
+                customCircuitBreaker,
+                disableCircuitBreaker);
+        HedgingPolicy hedgingPolicy = HedgingPolicy.newBuilder().build();
+
+        // expect
+        assertThat(requestBuilderWrapper.getHedgingPolicy()).isNull();
+
+        // and when
+        requestBuilderWrapper.setHedgingPolicy(hedgingPolicy);
+
+        // then
+        assertThat(requestBuilderWrapper.getHedgingPolicy()).isSameAs(hedgingPolicy);
+    }
+
+    @Test
+    public void get_set_RetryPolicy_works_as_expected() {
+        // given
+        requestBuilderWrapper = new RequestBuilderWrapper(
+                url,
+                httpMethod,
+                requestBuilder,
+                customCircuitBreaker,
+                disableCircuitBreaker);
+        RetryPolicy retryPolicy = RetryPolicy.newBuilder().build();
+
+        // expect
+        assertThat(requestBuilderWrapper.getRetryPolicy()).isNull();
+
+        // and when
+        requestBuilderWrapper.setRetryPolicy(retryPolicy);
+
+        // then
+        assertThat(requestBuilderWrapper.getRetryPolicy()).isSameAs(retryPolicy);
+    }
+
+    @Test
+    public void get_set_RequestTimeout_works_as_expected() {
+        // given
+        requestBuilderWrapper = new RequestBuilderWrapper(
+                url,
+                httpMethod,
+                requestBuilder,
+                customCircuitBreaker,
+                disableCircuitBreaker);
+
+        // expect
+        assertThat(requestBuilderWrapper.getRequestTimeout()).isEqualTo(0);
+
+        // and when
+        requestBuilderWrapper.setRequestTimeout(4242);
+
+        // then
+        assertThat(requestBuilderWrapper.getRequestTimeout()).isEqualTo(4242);
+        verify(requestBuilder).setRequestTimeout(4242);
+    }
 }
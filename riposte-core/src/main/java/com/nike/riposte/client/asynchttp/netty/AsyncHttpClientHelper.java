@@ -0,0 +1,580 @@
+package com.nike.riposte.client.asynchttp.netty;
+
+import com.nike.fastbreak.CircuitBreaker;
+import com.nike.fastbreak.CircuitBreaker.ManualModeTask;
+import com.nike.fastbreak.CircuitBreakerDelegate;
+import com.nike.fastbreak.exception.CircuitBreakerOpenException;
+import com.nike.internal.util.Pair;
+import com.nike.riposte.client.asynchttp.netty.StreamingAsyncHttpClient.StreamingCallback;
+import com.nike.riposte.client.asynchttp.netty.StreamingAsyncHttpClient.StreamingChannel;
+import com.nike.riposte.server.channelpipeline.ChannelAttributes;
+import com.nike.riposte.server.error.exception.DownstreamRequestTimeoutException;
+import com.nike.riposte.server.error.exception.DownstreamResponseTooLargeException;
+import com.nike.riposte.server.error.exception.RequestDeadlineExceededException;
+import com.nike.riposte.server.http.HttpProcessingState;
+import com.nike.riposte.server.http.RequestDeadline;
+import com.nike.wingtips.Span;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Deque;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.EventLoop;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import static com.nike.fastbreak.CircuitBreakerForHttpStatusCode.getDefaultHttpStatusCodeCircuitBreakerForKey;
+import static com.nike.riposte.util.AsyncNettyHelper.linkTracingAndMdcToCurrentThread;
+import static com.nike.riposte.util.AsyncNettyHelper.unlinkTracingAndMdcFromCurrentThread;
+
+/**
+ * <b>WARNING: This class should be used as a singleton (or a small set number per app)!</b> Instances created with the
+ * default constructors share {@link #getDefaultStreamingAsyncHttpClient()} and its downstream connection pools, but
+ * each {@link StreamingAsyncHttpClient} you pass in yourself has its own set of pools - share it between instances
+ * rather than creating one per instance.
+ * <p/>
+ * {@code AsyncHttpClientHelper} is a helper class to make it easy to perform asynchronous downstream HTTP requests that
+ * map to a {@link CompletableFuture}. It has the same request-builder and {@code executeAsyncHttpRequest(...)} API as
+ * the Ning-based {@code AsyncHttpClientHelper} in the {@code riposte-async-http-client} module, but is built on
+ * {@link StreamingAsyncHttpClient} (the client used by proxy router endpoints) rather than a separate HTTP client
+ * library. Downstream connections are registered on the event loop of the request that triggered the call and pooled
+ * per event loop, so the call and its response handling happen on the server's own worker threads with no extra
+ * threadpool and no thread hops. Distributed tracing (a subspan around each call and tracing headers on the downstream
+ * request), circuit breakers, hedging, retries, and the request's deadline (see {@link
+ * HttpProcessingState#getRequestDeadline()}) are all supported.
+ * <p/>
+ * Since response handlers are run on a server worker thread they must not block - hand off any blocking work to
+ * another executor.
+ * <p/>
+ * USAGE:
+ * <ol>
+ *      <li>
+ *          As stated previously in the warning at the top of this javadoc, you generally should only create *one*
+ *          instance of this {@code AsyncHttpClientHelper} class and reuse it for *all* calls.
+ *      </li>
+ *      <li>
+ *          Call {@link #getRequestBuilder(String, HttpMethod)} or {@link
+ *          #getRequestBuilder(String, HttpMethod, Optional, boolean)} to get your hands on a request builder.
+ *      </li>
+ *      <li>
+ *          Call the builder methods on the returned {@link RequestBuilderWrapper} to set all the headers, request body,
+ *          etc that you want in the request.
+ *      </li>
+ *      <li>
+ *          Call {@link #executeAsyncHttpRequest(RequestBuilderWrapper, AsyncResponseHandler, ChannelHandlerContext)}
+ *          with the finished request builder to execute the async HTTP call and return a {@link CompletableFuture}
+ *          that will be completed when the async HTTP call returns.
+ *      </li>
+ * </ol>
+ */
+@SuppressWarnings({"WeakerAccess", "OptionalUsedAsFieldOrParameterType"})
+public class AsyncHttpClientHelper {
+
+    /**
+     * The default amount of time in milliseconds that a request sent by {@link AsyncHttpClientHelper} will wait before
+     * giving up. This default is set to just under the default Amazon ELB timeout of 60 seconds so that the error you
+     * receive will be a much more informative request timeout error rather than the opaque 504 the ELB would throw.
+     */
+    public static final long DEFAULT_REQUEST_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(58);
+
+    /**
+     * The default amount of time in milliseconds that a pooled downstream connection can sit idle before it's closed.
+     */
+    public static final long DEFAULT_IDLE_CHANNEL_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    /**
+     * The default connect timeout in milliseconds for new downstream connections.
+     */
+    public static final long DEFAULT_CONNECTION_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * The default maximum size in bytes of a downstream response body. Responses are aggregated in memory before being
+     * handed to the response handler, so anything bigger fails with a {@link DownstreamResponseTooLargeException}.
+     */
+    public static final long DEFAULT_MAX_RESPONSE_SIZE_BYTES = 10 * 1024 * 1024;
+
+    /**
+     * The default circuit breakers, keyed by host, so that every call to the same host reuses the same breaker
+     * instance rather than allocating a new adapter for each call.
+     */
+    protected static final ConcurrentMap<String, CircuitBreaker<HttpResponse>> DEFAULT_CIRCUIT_BREAKERS_BY_HOST =
+        new ConcurrentHashMap<>();
+
+    private static final Logger logger = LoggerFactory.getLogger(AsyncHttpClientHelper.class);
+
+    protected final StreamingAsyncHttpClient streamingAsyncHttpClient;
+    protected boolean performSubSpanAroundDownstreamCalls;
+    protected long maxResponseSizeBytes = DEFAULT_MAX_RESPONSE_SIZE_BYTES;
+
+    /**
+     * Holds the {@link StreamingAsyncHttpClient} shared by all instances created with the default constructors. It's
+     * only created the first time it's needed.
+     */
+    private static class DefaultStreamingAsyncHttpClientHolder {
+        private static final StreamingAsyncHttpClient INSTANCE = new StreamingAsyncHttpClient(
+            DEFAULT_IDLE_CHANNEL_TIMEOUT_MILLIS, DEFAULT_CONNECTION_TIMEOUT_MILLIS, false, true
+        );
+    }
+
+    /**
+     * @return The {@link StreamingAsyncHttpClient} with default settings that shares the server's worker event loops,
+     * used by all instances created with the default constructors.
+     */
+    public static StreamingAsyncHttpClient getDefaultStreamingAsyncHttpClient() {
+        return DefaultStreamingAsyncHttpClientHolder.INSTANCE;
+    }
+
+    /**
+     * Constructor that gives you maximum control over configuration and behavior.
+     *
+     * @param streamingAsyncHttpClient
+     *     The client that will execute all the async downstream HTTP requests. Cannot be null. This should be created
+     *     with {@code shareInboundEventLoop} set to true so that downstream connections are registered on the server's
+     *     worker event loops, and should be shared with any other {@code AsyncHttpClientHelper} instances so they all
+     *     use the same connection pools.
+     * @param performSubSpanAroundDownstreamCalls
+     *     Pass in true to have a distributed tracing subspan added to each downstream call to measure the time spent
+     *     on the downstream call, false if you do not want subspans performed. The subspans can be used to determine
+     *     how much time is spent processing in your app vs. waiting for downstream requests.
+     */
+    public AsyncHttpClientHelper(StreamingAsyncHttpClient streamingAsyncHttpClient,
+                                 boolean performSubSpanAroundDownstreamCalls) {
+        if (streamingAsyncHttpClient == null)
+            throw new IllegalArgumentException("streamingAsyncHttpClient cannot be null");
+
+        this.streamingAsyncHttpClient = streamingAsyncHttpClient;
+        this.performSubSpanAroundDownstreamCalls = performSubSpanAroundDownstreamCalls;
+    }
+
+    /**
+     * Constructor that uses the shared {@link #getDefaultStreamingAsyncHttpClient()}, but allows you to specify whether
+     * or not you want subspans for each downstream request.
+     *
+     * @param performSubSpanAroundDownstreamCalls
+     *     Pass in true to have a distributed tracing subspan added to each downstream call to measure the time spent
+     *     on the downstream call, false if you do not want subspans performed. The subspans can be used to determine
+     *     how much time is spent processing in your app vs. waiting for downstream requests.
+     */
+    public AsyncHttpClientHelper(boolean performSubSpanAroundDownstreamCalls) {
+        this(getDefaultStreamingAsyncHttpClient(), performSubSpanAroundDownstreamCalls);
+    }
+
+    /**
+     * Default constructor that uses the shared {@link #getDefaultStreamingAsyncHttpClient()}, and sets {@link #performSubSpanAroundDownstreamCalls} to true (so all downstream requests
+     * will be tagged with subspans).
+     */
+    public AsyncHttpClientHelper() {
+        this(true);
+    }
+
+    /**
+     * Sets the flag to determine if SubSpan are created around the downstream calls
+     */
+    public AsyncHttpClientHelper setPerformSubSpanAroundDownstreamCalls(boolean performSubSpanAroundDownstreamCalls) {
+        this.performSubSpanAroundDownstreamCalls = performSubSpanAroundDownstreamCalls;
+        return this;
+    }
+
+    /**
+     * Sets the maximum size in bytes of a downstream response body - calls with a bigger response fail with a {@link
+     * DownstreamResponseTooLargeException}. Defaults to {@link #DEFAULT_MAX_RESPONSE_SIZE_BYTES}.
+     */
+    public AsyncHttpClientHelper setMaxResponseSizeBytes(long maxResponseSizeBytes) {
+        if (maxResponseSizeBytes <= 0)
+            throw new IllegalArgumentException("maxResponseSizeBytes must be greater than 0");
+
+        this.maxResponseSizeBytes = maxResponseSizeBytes;
+        return this;
+    }
+
+    /**
+     * Call this before {@link #executeAsyncHttpRequest(RequestBuilderWrapper, AsyncResponseHandler,
+     * ChannelHandlerContext)} in order to get a request builder you can populate with headers, body, etc. If you want
+     * to specify a custom circuit breaker (or disable circuit breaking entirely) for this call then use {@link
+     * #getRequestBuilder(String, HttpMethod, Optional, boolean)} instead. This method tells the HTTP client to use a
+     * default circuit breaker based on the host being called.
+     */
+    public RequestBuilderWrapper getRequestBuilder(String url, HttpMethod method) {
+        return getRequestBuilder(url, method, Optional.empty(), false);
+    }
+
+    /**
+     * Call this before {@link #executeAsyncHttpRequest(RequestBuilderWrapper, AsyncResponseHandler,
+     * ChannelHandlerContext)} in order to get a request builder you can populate with headers, body, etc. Pass in a
+     * non-empty {@code customCircuitBreaker} argument to specify the exact circuit breaker you want to use, pass in an
+     * empty {@code customCircuitBreaker} if you want the HTTP client to use a default one based on the host being
+     * called, and pass in true for the {@code disableCircuitBreaker} argument if you want to disable circuit breaking
+     * entirely for this call.
+     */
+    public RequestBuilderWrapper getRequestBuilder(String url, HttpMethod method,
+                                                   Optional<CircuitBreaker<HttpResponse>> customCircuitBreaker,
+                                                   boolean disableCircuitBreaker) {
+        return new RequestBuilderWrapper(url, method.name(), customCircuitBreaker, disableCircuitBreaker);
+    }
+
+    /**
+     * Executes the given request asynchronously, handling the response with the given responseHandlerFunction, and
+     * returns a {@link CompletableFuture} that represents the result of executing the responseHandlerFunction on the
+     * downstream response. Any error anywhere along the way will cause the returned future to be completed with {@link
+     * CompletableFuture#completeExceptionally(Throwable)}.
+     * <p/>
+     * The given ctx is the one for the request that's triggering the downstream call. The downstream connection is
+     * registered on its event loop, and the distributed trace and MDC info for the call come from its {@link
+     * HttpProcessingState}. The responseHandlerFunction is run on the downstream connection's event loop with that
+     * distributed trace and MDC info attached.
+     * <p/>
+     * The call's request timeout ({@link RequestBuilderWrapper#setRequestTimeoutMillis(long)}) is a total timeout - if
+     * the full response hasn't been received by then the call is ended and the returned future is failed with a
+     * {@link DownstreamRequestTimeoutException}. A response body bigger than the max response size (see {@link
+     * #setMaxResponseSizeBytes(long)}) fails the returned future with a {@link DownstreamResponseTooLargeException}.
+     * <p/>
+     * If the request has a deadline ({@link HttpProcessingState#getRequestDeadline()}) then the call's timeout is
+     * capped at the time left before the deadline, the remaining budget is forwarded in the deadline header (if any),
+     * and the returned future is instantly failed with a {@link RequestDeadlineExceededException} if the deadline is
+     * already too close for the call to be worth making.
+     */
+    public <O> CompletableFuture<O> executeAsyncHttpRequest(RequestBuilderWrapper requestBuilderWrapper,
+                                                            AsyncResponseHandler<O> responseHandlerFunction,
+                                                            ChannelHandlerContext ctx) {
+        HttpProcessingState state = ChannelAttributes.getHttpProcessingStateForChannel(ctx).get();
+        if (state == null)
+            throw new IllegalStateException("state cannot be null");
+
+        CompletableFuture<O> completableFutureResponse = new CompletableFuture<>();
+
+        try {
+            requestBuilderWrapper.setCtx(ctx);
+
+            long requestTimeoutMillis = (requestBuilderWrapper.requestTimeoutMillis > 0)
+                                        ? requestBuilderWrapper.requestTimeoutMillis
+                                        : DEFAULT_REQUEST_TIMEOUT_MILLIS;
+
+            RequestDeadline requestDeadline = state.getRequestDeadline();
+            if (requestDeadline != null) {
+                RequestDeadlineExceededException deadlineExceeded = requestDeadline.exceededExceptionIfTooClose();
+                if (deadlineExceeded != null) {
+                    completableFutureResponse.completeExceptionally(deadlineExceeded);
+                    return completableFutureResponse;
+                }
+
+                requestDeadline.setRemainingBudgetHeader(requestBuilderWrapper.headers);
+                requestTimeoutMillis = requestDeadline.capTimeoutMillis(requestTimeoutMillis);
+            }
+
+            Optional<ManualModeTask<HttpResponse>> circuitBreakerManualTask =
+                getCircuitBreaker(requestBuilderWrapper).map(CircuitBreaker::newManualModeTask);
+
+            // If we have a circuit breaker, give it a chance to throw an exception if the circuit is open/tripped
+            circuitBreakerManualTask.ifPresent(ManualModeTask::throwExceptionIfCircuitBreakerIsOpen);
+
+            ResponseAggregatingCallback<O> callback = new ResponseAggregatingCallback<>(
+                completableFutureResponse, responseHandlerFunction, circuitBreakerManualTask,
+                state.getDistributedTraceStack(), state.getLoggerMdcContextMap(), maxResponseSizeBytes
+            );
+
+            HttpRequest initialRequestChunk = requestBuilderWrapper.createInitialRequestChunk();
+            LastHttpContent lastRequestChunk = requestBuilderWrapper.createLastRequestChunk();
+
+            // Tracing headers are added to the request by the streaming client once the subspan (if any) is started.
+            streamingAsyncHttpClient.streamDownstreamCall(
+                requestBuilderWrapper.host, requestBuilderWrapper.port, initialRequestChunk,
+                requestBuilderWrapper.isHttps, requestBuilderWrapper.relaxedHttpsValidation, callback,
+                requestTimeoutMillis, performSubSpanAroundDownstreamCalls, true, ctx,
+                requestBuilderWrapper.hedgingPolicy, requestBuilderWrapper.retryPolicy
+            ).whenComplete((streamingChannel, error) -> {
+                if (error != null) {
+                    lastRequestChunk.release();
+                    callback.unrecoverableErrorOccurred(error, true);
+                    return;
+                }
+
+                if (!callback.setStreamingChannel(streamingChannel)) {
+                    // The call already failed (i.e. it timed out), so there's no point sending the rest of the request.
+                    lastRequestChunk.release();
+                    return;
+                }
+
+                // The headers are sent, so finish the request off with the body (if any). Hedged and retried calls
+                //      are bodiless and send their own last chunk, in which case this one is ignored.
+                streamingChannel.streamChunk(lastRequestChunk).addListener(future -> {
+                    if (!future.isSuccess()) {
+                        try {
+                            callback.unrecoverableErrorOccurred(future.cause(), true);
+                        }
+                        finally {
+                            streamingChannel.closeChannelDueToUnrecoverableError(future.cause());
+                        }
+                    }
+                });
+            });
+
+            // The downstream call's timeout handler only fires when the call goes idle, so enforce the request
+            //      timeout as a total timeout as well.
+            long totalTimeoutMillis = requestTimeoutMillis;
+            callback.setRequestTimeoutTimer(ctx.channel().eventLoop().schedule(
+                () -> callback.failDownstreamCall(new DownstreamRequestTimeoutException(totalTimeoutMillis)),
+                totalTimeoutMillis, TimeUnit.MILLISECONDS
+            ));
+        }
+        catch (Throwable t) {
+            // Log the error for later debugging, unless it's a CircuitBreakerOpenException, which is expected and
+            //      normal when the circuit breaker associated with this request has been tripped.
+            if (!(t instanceof CircuitBreakerOpenException)) {
+                logger.error(
+                    "An error occurred while trying to set up an async HTTP call for method {} and URL {}. "
+                    + "The CompletableFuture will be instantly failed with this error",
+                    requestBuilderWrapper.httpMethod, requestBuilderWrapper.url, t
+                );
+            }
+            completableFutureResponse.completeExceptionally(t);
+        }
+
+        return completableFutureResponse;
+    }
+
+    protected Optional<CircuitBreaker<HttpResponse>> getCircuitBreaker(RequestBuilderWrapper requestBuilderWrapper) {
+        if (requestBuilderWrapper.disableCircuitBreaker)
+            return Optional.empty();
+
+        // Circuit breaking is enabled for this call. So we return the custom one specified or use the default one if a
+        //      custom one is not specified.
+        if (requestBuilderWrapper.customCircuitBreaker.isPresent())
+            return requestBuilderWrapper.customCircuitBreaker;
+
+        // No custom circuit breaker. Use the default for the given request's host.
+        String host = requestBuilderWrapper.host;
+        CircuitBreaker<HttpResponse> circuitBreaker = DEFAULT_CIRCUIT_BREAKERS_BY_HOST.get(host);
+        if (circuitBreaker == null) {
+            EventLoop nettyEventLoop = requestBuilderWrapper.getCtx() == null
+                                       ? null
+                                       : requestBuilderWrapper.getCtx().channel().eventLoop();
+            circuitBreaker = DEFAULT_CIRCUIT_BREAKERS_BY_HOST.computeIfAbsent(
+                host, key -> createDefaultCircuitBreakerForHost(key, nettyEventLoop)
+            );
+        }
+
+        return Optional.of(circuitBreaker);
+    }
+
+    protected CircuitBreaker<HttpResponse> createDefaultCircuitBreakerForHost(String host, EventLoop nettyEventLoop) {
+        CircuitBreaker<Integer> defaultStatusCodeCircuitBreaker = getDefaultHttpStatusCodeCircuitBreakerForKey(
+            host, Optional.ofNullable(nettyEventLoop), Optional.ofNullable(nettyEventLoop)
+        );
+        return new CircuitBreakerDelegate<>(
+            defaultStatusCodeCircuitBreaker,
+            httpResponse -> (httpResponse == null ? null : httpResponse.getStatus().code())
+        );
+    }
+
+    /**
+     * The {@link StreamingCallback} for a call made by {@link AsyncHttpClientHelper}. Copies the downstream response
+     * into a {@link FullHttpResponse} as it streams in (the streamed chunks are released once this callback returns),
+     * then notifies the circuit breaker and completes the call's future with the result of the response handler. The
+     * call is failed (and its downstream channel closed) if the response body grows past the max response size, or
+     * if the call's request timeout timer fires first.
+     */
+    protected static class ResponseAggregatingCallback<O> implements StreamingCallback {
+
+        protected final CompletableFuture<O> completableFutureResponse;
+        protected final AsyncResponseHandler<O> responseHandlerFunction;
+        protected final Optional<ManualModeTask<HttpResponse>> circuitBreakerManualTask;
+        protected final Deque<Span> distributedTraceStackToUse;
+        protected final Map<String, String> mdcContextToUse;
+        protected final long maxResponseSizeBytes;
+        protected final AtomicBoolean finished = new AtomicBoolean(false);
+        protected volatile Throwable failure;
+        protected volatile StreamingChannel streamingChannel;
+        protected volatile ScheduledFuture<?> requestTimeoutTimer;
+        // Only touched on the downstream channel's event loop.
+        protected HttpResponse responseFirstChunk;
+        protected ByteBuf responseBody;
+
+        protected ResponseAggregatingCallback(CompletableFuture<O> completableFutureResponse,
+                                              AsyncResponseHandler<O> responseHandlerFunction,
+                                              Optional<ManualModeTask<HttpResponse>> circuitBreakerManualTask,
+                                              Deque<Span> distributedTraceStackToUse,
+                                              Map<String, String> mdcContextToUse,
+                                              long maxResponseSizeBytes) {
+            this.completableFutureResponse = completableFutureResponse;
+            this.responseHandlerFunction = responseHandlerFunction;
+            this.circuitBreakerManualTask = circuitBreakerManualTask;
+            this.distributedTraceStackToUse = distributedTraceStackToUse;
+            this.mdcContextToUse = mdcContextToUse;
+            this.maxResponseSizeBytes = maxResponseSizeBytes;
+        }
+
+        /**
+         * Tells this callback which {@link StreamingChannel} the call is using so it can be closed if the call fails.
+         *
+         * @return true if the call is still going, false if it already failed (in which case the channel is closed).
+         */
+        protected boolean setStreamingChannel(StreamingChannel streamingChannel) {
+            this.streamingChannel = streamingChannel;
+            Throwable alreadyFailed = failure;
+            if (alreadyFailed == null)
+                return true;
+
+            streamingChannel.closeChannelDueToUnrecoverableError(alreadyFailed);
+            return false;
+        }
+
+        protected void setRequestTimeoutTimer(ScheduledFuture<?> requestTimeoutTimer) {
+            this.requestTimeoutTimer = requestTimeoutTimer;
+            // The call may have finished before the timer was handed to us.
+            if (finished.get())
+                cancelRequestTimeoutTimer();
+        }
+
+        protected void cancelRequestTimeoutTimer() {
+            ScheduledFuture<?> timer = requestTimeoutTimer;
+            if (timer != null)
+                timer.cancel(false);
+        }
+
+        /**
+         * Fails the call with the given error and closes its downstream channel (if the call has one yet) so the
+         * downstream system stops sending us data.
+         */
+        protected void failDownstreamCall(Throwable error) {
+            unrecoverableErrorOccurred(error, true);
+            StreamingChannel sc = streamingChannel;
+            if (sc != null)
+                sc.closeChannelDueToUnrecoverableError(error);
+        }
+
+        @Override
+        public void messageReceived(HttpObject msg) {
+            if (finished.get())
+                return;
+
+            if (msg instanceof HttpResponse) {
+                responseFirstChunk = (HttpResponse) msg;
+                if (HttpHeaders.getContentLength(responseFirstChunk, -1) > maxResponseSizeBytes) {
+                    failDownstreamCall(new DownstreamResponseTooLargeException(maxResponseSizeBytes));
+                    return;
+                }
+                responseBody = Unpooled.buffer();
+            }
+
+            if (responseFirstChunk == null) {
+                unrecoverableErrorOccurred(
+                    new IllegalStateException("Received response content before the response headers."), true
+                );
+                return;
+            }
+
+            if (msg instanceof HttpContent) {
+                ByteBuf content = ((HttpContent) msg).content();
+                if ((long) responseBody.readableBytes() + content.readableBytes() > maxResponseSizeBytes) {
+                    failDownstreamCall(new DownstreamResponseTooLargeException(maxResponseSizeBytes));
+                    return;
+                }
+                responseBody.writeBytes(content, content.readerIndex(), content.readableBytes());
+            }
+
+            if (msg instanceof LastHttpContent) {
+                FullHttpResponse response = new DefaultFullHttpResponse(
+                    responseFirstChunk.getProtocolVersion(), responseFirstChunk.getStatus(), responseBody
+                );
+                response.headers().set(responseFirstChunk.headers());
+                response.trailingHeaders().set(((LastHttpContent) msg).trailingHeaders());
+                onCompleted(response);
+            }
+        }
+
+        @Override
+        public void unrecoverableErrorOccurred(Throwable error, boolean guaranteesBrokenDownstreamResponse) {
+            if (!finished.compareAndSet(false, true))
+                return;
+
+            failure = error;
+            cancelRequestTimeoutTimer();
+
+            Pair<Deque<Span>, Map<String, String>> originalThreadInfo = null;
+            try {
+                originalThreadInfo = linkTracingAndMdcToCurrentThread(distributedTraceStackToUse, mdcContextToUse);
+
+                // Notify the circuit breaker of an exception.
+                try {
+                    circuitBreakerManualTask.ifPresent(cb -> cb.handleException(error));
+                }
+                catch (Throwable cbError) {
+                    logger.error(
+                        "Circuit breaker threw an exception during handleException. This should never happen and "
+                        + "means the CircuitBreaker is malfunctioning. Ignoring exception.", cbError
+                    );
+                }
+
+                completableFutureResponse.completeExceptionally(error);
+            }
+            finally {
+                unlinkTracingAndMdcFromCurrentThread(originalThreadInfo);
+            }
+        }
+
+        @Override
+        public void cancelStreamingToOriginalCaller() {
+            // Nothing to do - the response is only handed to the response handler once it has been fully received.
+        }
+
+        protected void onCompleted(FullHttpResponse response) {
+            if (!finished.compareAndSet(false, true))
+                return;
+
+            cancelRequestTimeoutTimer();
+
+            Pair<Deque<Span>, Map<String, String>> originalThreadInfo = null;
+            try {
+                originalThreadInfo = linkTracingAndMdcToCurrentThread(distributedTraceStackToUse, mdcContextToUse);
+
+                // Notify the circuit breaker of an event.
+                try {
+                    circuitBreakerManualTask.ifPresent(cb -> cb.handleEvent(response));
+                }
+                catch (Throwable t) {
+                    logger.error(
+                        "Circuit breaker threw an exception during handleEvent. This should never happen and means the "
+                        + "CircuitBreaker is malfunctioning. Ignoring exception.", t
+                    );
+                }
+
+                // If the completableFutureResponse is already done it means we were cancelled or some other error
+                //      occurred, and we should not do any more processing here.
+                if (completableFutureResponse.isDone())
+                    return;
+
+                // Pass the response to our responseHandlerFunction to get the resulting object to complete the
+                //      completableFutureResponse with.
+                try {
+                    completableFutureResponse.complete(responseHandlerFunction.handleResponse(response));
+                }
+                catch (Throwable throwable) {
+                    // responseHandlerFunction threw an error. Complete completableFutureResponse exceptionally.
+                    completableFutureResponse.completeExceptionally(throwable);
+                }
+            }
+            finally {
+                unlinkTracingAndMdcFromCurrentThread(originalThreadInfo);
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.nike.riposte.client.asynchttp.netty;
+
+import io.netty.handler.codec.http.FullHttpResponse;
+
+/**
+ * Interface representing a handler for an async downstream HTTP call's response. Used by {@link AsyncHttpClientHelper}.
+ * The response's content is an unpooled heap buffer, so it does not need to be released.
+ */
+public interface AsyncResponseHandler<T> {
+
+    /**
+     * @return The result of handling the given response.
+     */
+    T handleResponse(FullHttpResponse response) throws Throwable;
+
+}
@@ -0,0 +1,203 @@
+package com.nike.riposte.client.asynchttp.netty;
+
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.ToIntFunction;
+
+/**
+ * A consistent hash ring over one downstream host's resolved IP addresses, used to send every call with the same
+ * routing key to the same address so that downstream services with per-key in-memory caches get a good hit rate. Each
+ * address is placed on the ring at {@link #virtualNodesPerAddress} points, and a routing key goes to the first address
+ * clockwise from the key's hash.
+ *
+ * <p>The ring uses "consistent hashing with bounded loads": an address only takes a call if its outstanding calls are
+ * below {@link #loadFactor} times the average across the candidate addresses, otherwise the call goes to the next
+ * address clockwise. This keeps a hot key (or an unlucky spread of keys) from overloading a single instance, while still
+ * sending each key to the same address whenever that address isn't overloaded.
+ *
+ * <p>Membership is updated incrementally by {@link #updateMembers(InetAddress[])} - when the DNS results for the host
+ * change only the virtual nodes for the addresses that were added or removed change, so only the keys that belonged to
+ * those addresses move. This class is thread safe. Lookups never block: they read an immutable snapshot of the ring.
+ */
+@SuppressWarnings("WeakerAccess")
+public class ConsistentHashAddressRing {
+
+    /**
+     * The default number of points on the ring for each address. More points spread the keys more evenly across the
+     * addresses at the cost of a bigger ring.
+     */
+    public static final int DEFAULT_VIRTUAL_NODES_PER_ADDRESS = 100;
+    /**
+     * The default maximum load of any address relative to the average, i.e. an address takes no more than 25% more
+     * than its share of the outstanding calls.
+     */
+    public static final double DEFAULT_LOAD_FACTOR = 1.25;
+
+    protected final int virtualNodesPerAddress;
+    protected final double loadFactor;
+
+    /**
+     * The current ring, mapping each virtual node's hash to its address. Replaced (never modified) when the membership
+     * changes.
+     */
+    protected volatile NavigableMap<Long, InetAddress> ring = Collections.emptyNavigableMap();
+    protected volatile Set<InetAddress> members = Collections.emptySet();
+    /**
+     * The last array passed to {@link #updateMembers(InetAddress[])}. The hostname resolver hands back the same array
+     * for as long as a DNS result is cached, so this lets the usual call skip the membership comparison entirely.
+     */
+    protected volatile InetAddress[] lastSeenAddresses;
+    protected volatile long lastUsedNanos = System.nanoTime();
+
+    public ConsistentHashAddressRing() {
+        this(DEFAULT_VIRTUAL_NODES_PER_ADDRESS, DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * @param virtualNodesPerAddress The number of points on the ring for each address. Must be greater than 0.
+     * @param loadFactor The maximum load of any address relative to the average across the candidate addresses. Must
+     * be at least 1.
+     */
+    public ConsistentHashAddressRing(int virtualNodesPerAddress, double loadFactor) {
+        if (virtualNodesPerAddress <= 0) {
+            throw new IllegalArgumentException("virtualNodesPerAddress must be greater than 0. virtualNodesPerAddress="
+                                               + virtualNodesPerAddress);
+        }
+
+        if (loadFactor < 1)
+            throw new IllegalArgumentException("loadFactor must be at least 1. loadFactor=" + loadFactor);
+
+        this.virtualNodesPerAddress = virtualNodesPerAddress;
+        this.loadFactor = loadFactor;
+    }
+
+    /**
+     * Makes the ring's members match the given resolved IP addresses, adding and removing virtual nodes only for the
+     * addresses that changed. Does nothing if the addresses haven't changed.
+     */
+    public void updateMembers(InetAddress[] ipAddresses) {
+        if (ipAddresses == lastSeenAddresses)
+            return;
+
+        synchronized (this) {
+            Set<InetAddress> newMembers = new HashSet<>(Arrays.asList(ipAddresses));
+            if (!newMembers.equals(members)) {
+                NavigableMap<Long, InetAddress> newRing = new TreeMap<>(ring);
+                for (InetAddress removed : members) {
+                    if (!newMembers.contains(removed))
+                        newRing.values().removeIf(removed::equals);
+                }
+                for (InetAddress added : newMembers) {
+                    if (!members.contains(added)) {
+                        for (int i = 0; i < virtualNodesPerAddress; i++) {
+                            // On the (very unlikely) hash collision the first address keeps the point.
+                            newRing.putIfAbsent(hash(added.getHostAddress() + "#" + i), added);
+                        }
+                    }
+                }
+
+                ring = newRing;
+                members = newMembers;
+            }
+
+            lastSeenAddresses = ipAddresses;
+        }
+    }
+
+    /**
+     * @param routingKey The routing key for the call. Cannot be null.
+     * @param candidates The addresses the call is allowed to go to - a subset of the ring's members (e.g. with any
+     * ejected addresses removed). Cannot be null or empty.
+     * @param outstandingCallsForAddress Returns the number of outstanding calls for an address.
+     * @return The first candidate clockwise from the routing key's hash whose outstanding calls are within the load
+     * bound.
+     */
+    public InetAddress chooseAddress(String routingKey, InetAddress[] candidates,
+                                     ToIntFunction<InetAddress> outstandingCallsForAddress) {
+        lastUsedNanos = System.nanoTime();
+        NavigableMap<Long, InetAddress> currentRing = ring;
+        if (candidates.length == 1 || currentRing.isEmpty())
+            return candidates[0];
+
+        int[] outstandingCalls = new int[candidates.length];
+        long totalOutstandingCalls = 0;
+        for (int i = 0; i < candidates.length; i++) {
+            outstandingCalls[i] = outstandingCallsForAddress.applyAsInt(candidates[i]);
+            totalOutstandingCalls += outstandingCalls[i];
+        }
+        // The +1 counts the call being placed, so the bound is never 0 and at least one candidate is always under it.
+        double maxOutstandingCalls = Math.ceil(loadFactor * (totalOutstandingCalls + 1) / candidates.length);
+
+        InetAddress firstCandidateOnRing = null;
+        long keyHash = hash(routingKey);
+        for (int pass = 0; pass < 2; pass++) {
+            Map<Long, InetAddress> segment = (pass == 0)
+                                             ? currentRing.tailMap(keyHash, true)
+                                             : currentRing.headMap(keyHash, false);
+            for (InetAddress address : segment.values()) {
+                int candidateIndex = indexOf(candidates, address);
+                if (candidateIndex < 0)
+                    continue;
+
+                if (firstCandidateOnRing == null)
+                    firstCandidateOnRing = address;
+
+                if (outstandingCalls[candidateIndex] < maxOutstandingCalls)
+                    return address;
+            }
+        }
+
+        // Only possible if none of the candidates are on the ring (i.e. updateMembers() wasn't called with them).
+        return (firstCandidateOnRing == null) ? candidates[0] : firstCandidateOnRing;
+    }
+
+    /**
+     * @return The addresses currently on the ring.
+     */
+    public Set<InetAddress> getMembers() {
+        return Collections.unmodifiableSet(members);
+    }
+
+    /**
+     * @return The {@link System#nanoTime()} of the last {@link #chooseAddress(String, InetAddress[], ToIntFunction)}
+     * call, or of this ring's creation if it hasn't been used yet.
+     */
+    public long getLastUsedNanos() {
+        return lastUsedNanos;
+    }
+
+    protected static int indexOf(InetAddress[] candidates, InetAddress address) {
+        for (int i = 0; i < candidates.length; i++) {
+            if (candidates[i].equals(address))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return A well mixed 64 bit hash of the given string: FNV-1a over its UTF-8 bytes followed by the MurmurHash3
+     * finalizer. {@link String#hashCode()} is too clustered for similar keys (e.g. sequential IDs) to spread evenly
+     * around the ring.
+     */
+    protected static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= (b & 0xff);
+            hash *= 0x100000001b3L;
+        }
+
+        hash ^= (hash >>> 33);
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= (hash >>> 33);
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= (hash >>> 33);
+        return hash;
+    }
+}
@@ -0,0 +1,413 @@
+package com.nike.riposte.client.asynchttp.netty;
+
+import com.nike.backstopper.exception.WrapperException;
+import com.nike.riposte.client.asynchttp.netty.StreamingAsyncHttpClient.StreamingCallback;
+import com.nike.riposte.client.asynchttp.netty.StreamingAsyncHttpClient.StreamingChannel;
+import com.nike.riposte.client.hedging.HedgingPolicy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import static com.nike.riposte.util.AsyncNettyHelper.runnableWithTracingAndMdc;
+
+/**
+ * Runs a single hedged downstream call for {@link StreamingAsyncHttpClient#streamDownstreamCall(String, int,
+ * HttpRequest, boolean, boolean, StreamingCallback, long, boolean, boolean, ChannelHandlerContext, HedgingPolicy)}.
+ * The primary call is started right away. If it hasn't started responding by the time the {@link HedgingPolicy}'s
+ * hedge delay for the host runs out, and the policy's budget allows it, a copy of the request (the hedge) is sent to a
+ * different address for the same host. The first of the two calls to receive its response headers wins: its messages
+ * are passed to the real {@link StreamingCallback}, and the other call is abandoned (its channel is closed rather than
+ * returned to the pool, since it's in the middle of a call). The caller only ever sees one response.
+ *
+ * <p>Only bodiless requests are hedged, since the request body is streamed through rather than buffered and can't be
+ * replayed. This class sends the (empty) last chunk of the request to each call itself, and the {@link
+ * HedgedStreamingChannel} returned to the caller ignores the chunks streamed to it.
+ *
+ * <p>An error from one of the calls is only passed to the real callback if there's no other call that could still
+ * produce a response - e.g. if the primary call fails while the hedge is still in flight then the hedge is given the
+ * chance to finish.
+ */
+@SuppressWarnings("WeakerAccess")
+public class HedgedDownstreamCall {
+
+    private static final Logger logger = LoggerFactory.getLogger(HedgedDownstreamCall.class);
+
+    protected final StreamingAsyncHttpClient client;
+    protected final HedgingPolicy hedgingPolicy;
+    protected final String downstreamHost;
+    protected final int downstreamPort;
+    protected final HttpRequest initialRequestChunk;
+    protected final HttpRequest hedgeRequestChunk;
+    protected final boolean isSecureHttpsCall;
+    protected final boolean relaxedHttpsValidation;
+    protected final StreamingCallback callback;
+    protected final long downstreamCallTimeoutMillis;
+    protected final boolean performSubSpanAroundDownstreamCalls;
+    protected final boolean addTracingHeadersToDownstreamCall;
+    protected final ChannelHandlerContext ctx;
+    /**
+     * The routing key that picks the downstream address via the host's consistent hash ring, or null for normal
+     * address balancing.
+     */
+    protected final String routingKey;
+    protected final String hostKey;
+    protected final long startTimeNanos = System.nanoTime();
+
+    // All of the following are guarded by synchronizing on this.
+    protected final Attempt primary = new Attempt(false);
+    protected Attempt hedge;
+    protected Attempt winner;
+    /**
+     * True once the outcome of the call has been decided - a winner was picked, an error was passed to the callback,
+     * or the whole call was closed via {@link HedgedStreamingChannel#closeChannelDueToUnrecoverableError(Throwable)}.
+     */
+    protected boolean finished = false;
+    protected ScheduledFuture<?> hedgeTimer;
+
+    public HedgedDownstreamCall(StreamingAsyncHttpClient client, HedgingPolicy hedgingPolicy, String downstreamHost,
+                                int downstreamPort, HttpRequest initialRequestChunk, boolean isSecureHttpsCall,
+                                boolean relaxedHttpsValidation, StreamingCallback callback,
+                                long downstreamCallTimeoutMillis, boolean performSubSpanAroundDownstreamCalls,
+                                boolean addTracingHeadersToDownstreamCall, ChannelHandlerContext ctx,
+                                String routingKey) {
+        this.client = client;
+        this.hedgingPolicy = hedgingPolicy;
+        this.downstreamHost = downstreamHost;
+        this.downstreamPort = downstreamPort;
+        this.initialRequestChunk = initialRequestChunk;
+        // Copy the request now, before the primary call adds its own tracing headers to it.
+        this.hedgeRequestChunk = copyRequest(initialRequestChunk);
+        this.isSecureHttpsCall = isSecureHttpsCall;
+        this.relaxedHttpsValidation = relaxedHttpsValidation;
+        this.callback = callback;
+        this.downstreamCallTimeoutMillis = downstreamCallTimeoutMillis;
+        this.performSubSpanAroundDownstreamCalls = performSubSpanAroundDownstreamCalls;
+        this.addTracingHeadersToDownstreamCall = addTracingHeadersToDownstreamCall;
+        this.ctx = ctx;
+        this.routingKey = routingKey;
+        this.hostKey = downstreamHost + ":" + downstreamPort;
+    }
+
+    protected static HttpRequest copyRequest(HttpRequest request) {
+        HttpRequest copy = new DefaultHttpRequest(request.getProtocolVersion(), request.getMethod(), request.getUri());
+        copy.headers().set(request.headers());
+        return copy;
+    }
+
+    /**
+     * Starts the primary call. The hedge timer is started once the primary call has connected and sent its request.
+     *
+     * @return A future that completes the same way as the future from {@link
+     * StreamingAsyncHttpClient#streamDownstreamCall(String, int, HttpRequest, boolean, boolean, StreamingCallback,
+     * long, boolean, boolean, ChannelHandlerContext)} would for the primary call, except that it's completed with a
+     * {@link HedgedStreamingChannel} that covers both the primary call and the hedge.
+     */
+    public CompletableFuture<StreamingChannel> start() {
+        hedgingPolicy.onEligibleCallStarted();
+
+        return client.doStreamDownstreamCall(
+            downstreamHost, downstreamPort, initialRequestChunk, isSecureHttpsCall, relaxedHttpsValidation,
+            primary.callback, downstreamCallTimeoutMillis, performSubSpanAroundDownstreamCalls,
+            addTracingHeadersToDownstreamCall, ctx, null, routingKey
+        ).thenApply(sc -> {
+            onAttemptConnected(primary, sc);
+            scheduleHedge();
+            return new HedgedStreamingChannel(this, sc);
+        });
+    }
+
+    protected void scheduleHedge() {
+        long hedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(hedgingPolicy.getHedgeDelayMillis(hostKey));
+        long remainingNanos = Math.max(0, hedgeDelayNanos - (System.nanoTime() - startTimeNanos));
+        synchronized (this) {
+            if (finished)
+                return;
+
+            hedgeTimer = ctx.executor().schedule(this::hedgeTimerFired, remainingNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    protected void hedgeTimerFired() {
+        SocketAddress primaryAddress;
+        synchronized (this) {
+            hedgeTimer = null;
+            if (finished || !primary.isPending() || !hedgingPolicy.tryAcquireHedge())
+                return;
+
+            hedge = new Attempt(true);
+            primaryAddress = primary.streamingChannel.getChannel().remoteAddress();
+        }
+
+        runnableWithTracingAndMdc(
+            () -> logger.debug("Downstream call is slow to respond, sending a hedge. downstream_host={}, "
+                               + "primary_address={}, elapsed_millis={}",
+                               hostKey, primaryAddress,
+                               TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTimeNanos)),
+            ctx
+        ).run();
+
+        try {
+            client.doStreamDownstreamCall(
+                downstreamHost, downstreamPort, hedgeRequestChunk, isSecureHttpsCall, relaxedHttpsValidation,
+                hedge.callback, downstreamCallTimeoutMillis, performSubSpanAroundDownstreamCalls,
+                addTracingHeadersToDownstreamCall, ctx,
+                (primaryAddress instanceof InetSocketAddress) ? (InetSocketAddress) primaryAddress : null,
+                routingKey
+            ).whenComplete((sc, error) -> {
+                if (error == null)
+                    onAttemptConnected(hedge, sc);
+                else
+                    onAttemptError(hedge, error, true);
+            });
+        }
+        catch (Throwable t) {
+            onAttemptError(hedge, t, true);
+        }
+    }
+
+    protected void onAttemptConnected(Attempt attempt, StreamingChannel sc) {
+        boolean abandon;
+        synchronized (this) {
+            attempt.streamingChannel = sc;
+            abandon = finished && winner != attempt;
+        }
+
+        if (abandon) {
+            // The call was decided while this attempt was connecting.
+            sc.abandonDownstreamCall(performSubSpanAroundDownstreamCalls);
+            return;
+        }
+
+        // The request is bodiless, so finish it off right away.
+        sc.streamChunk(LastHttpContent.EMPTY_LAST_CONTENT).addListener(future -> {
+            if (!future.isSuccess()) {
+                try {
+                    attempt.callback.unrecoverableErrorOccurred(
+                        new WrapperException("Unable to send the last chunk of a hedged downstream request. "
+                                             + "downstream_channel_id=" + sc.getChannel().toString(), future.cause()),
+                        false
+                    );
+                }
+                finally {
+                    sc.closeChannelDueToUnrecoverableError(future.cause());
+                }
+            }
+        });
+    }
+
+    protected void onAttemptMessageReceived(Attempt attempt, HttpObject msg) {
+        Attempt loser = null;
+        boolean justWon = false;
+        boolean deliver;
+        synchronized (this) {
+            if (!finished && msg instanceof HttpResponse) {
+                winner = attempt;
+                finished = true;
+                justWon = true;
+                cancelHedgeTimer();
+                loser = (attempt == primary) ? hedge : primary;
+            }
+            deliver = (winner == attempt);
+        }
+
+        if (justWon) {
+            hedgingPolicy.recordLatency(hostKey, System.nanoTime() - startTimeNanos);
+            if (attempt.isHedge)
+                hedgingPolicy.onHedgeWon();
+
+            // If the loser is still connecting then onAttemptConnected() will abandon it.
+            StreamingChannel loserChannel = (loser == null) ? null : loser.getStreamingChannel();
+            if (loserChannel != null)
+                loserChannel.abandonDownstreamCall(performSubSpanAroundDownstreamCalls);
+        }
+
+        if (deliver)
+            callback.messageReceived(msg);
+    }
+
+    protected void onAttemptError(Attempt attempt, Throwable error, boolean guaranteesBrokenDownstreamResponse) {
+        boolean deliver;
+        synchronized (this) {
+            if (finished) {
+                deliver = (winner == attempt);
+            }
+            else {
+                attempt.failed = true;
+                Attempt other = (attempt == primary) ? hedge : primary;
+                if (other != null && other.isPending()) {
+                    // Let the other call finish - it might still succeed.
+                    deliver = false;
+                }
+                else {
+                    finished = true;
+                    cancelHedgeTimer();
+                    deliver = true;
+                }
+            }
+        }
+
+        if (deliver) {
+            callback.unrecoverableErrorOccurred(error, guaranteesBrokenDownstreamResponse);
+        }
+        else {
+            runnableWithTracingAndMdc(
+                () -> logger.debug("Ignoring error from a hedged downstream call since it lost or the other call is "
+                                   + "still in flight. is_hedge={}, error={}", attempt.isHedge, String.valueOf(error)),
+                ctx
+            ).run();
+        }
+    }
+
+    protected void closeAll(Throwable cause) {
+        List<StreamingChannel> toClose = new ArrayList<>(2);
+        synchronized (this) {
+            finished = true;
+            cancelHedgeTimer();
+            if (primary.streamingChannel != null)
+                toClose.add(primary.streamingChannel);
+            if (hedge != null && hedge.streamingChannel != null)
+                toClose.add(hedge.streamingChannel);
+        }
+
+        // Any call that's still connecting will be abandoned by onAttemptConnected().
+        for (StreamingChannel sc : toClose) {
+            sc.closeChannelDueToUnrecoverableError(cause);
+        }
+    }
+
+    protected synchronized boolean isAnyAttemptActive() {
+        return primary.isActive() || (hedge != null && hedge.isActive());
+    }
+
+    protected synchronized Channel getWinnerOrPrimaryChannel() {
+        Attempt attempt = (winner == null) ? primary : winner;
+        return attempt.streamingChannel.getChannel();
+    }
+
+    protected void cancelHedgeTimer() {
+        if (hedgeTimer != null) {
+            hedgeTimer.cancel(false);
+            hedgeTimer = null;
+        }
+    }
+
+    /**
+     * One of the (at most two) downstream calls made for a hedged call.
+     */
+    protected class Attempt {
+        protected final boolean isHedge;
+        protected final StreamingCallback callback = new AttemptCallback(this);
+        protected StreamingChannel streamingChannel;
+        protected boolean failed = false;
+
+        protected Attempt(boolean isHedge) {
+            this.isHedge = isHedge;
+        }
+
+        /**
+         * @return true if this attempt could still produce a response. Must be called while synchronized on the
+         * enclosing {@link HedgedDownstreamCall}.
+         */
+        protected boolean isPending() {
+            return !failed && (streamingChannel == null || streamingChannel.isDownstreamCallActive());
+        }
+
+        /**
+         * @return true if this attempt is connecting or its call is still active. Must be called while synchronized on
+         * the enclosing {@link HedgedDownstreamCall}.
+         */
+        protected boolean isActive() {
+            return (streamingChannel == null) ? !failed : streamingChannel.isDownstreamCallActive();
+        }
+
+        protected StreamingChannel getStreamingChannel() {
+            synchronized (HedgedDownstreamCall.this) {
+                return streamingChannel;
+            }
+        }
+    }
+
+    /**
+     * Routes the events for one {@link Attempt} through the enclosing {@link HedgedDownstreamCall} so that only the
+     * winner's events make it to the real callback.
+     */
+    protected class AttemptCallback implements StreamingCallback {
+        protected final Attempt attempt;
+
+        protected AttemptCallback(Attempt attempt) {
+            this.attempt = attempt;
+        }
+
+        @Override
+        public void messageReceived(HttpObject msg) {
+            onAttemptMessageReceived(attempt, msg);
+        }
+
+        @Override
+        public void unrecoverableErrorOccurred(Throwable error, boolean guaranteesBrokenDownstreamResponse) {
+            onAttemptError(attempt, error, guaranteesBrokenDownstreamResponse);
+        }
+
+        @Override
+        public void cancelStreamingToOriginalCaller() {
+            callback.cancelStreamingToOriginalCaller();
+        }
+    }
+
+    /**
+     * The {@link StreamingChannel} handed back to the caller for a hedged call. It stands in for both the primary call
+     * and the hedge: closing it closes both, and it counts as active while either is. Since hedged requests are
+     * bodiless and {@link HedgedDownstreamCall} sends the last chunk to each call itself, any chunks streamed to this
+     * channel are released and ignored.
+     */
+    public static class HedgedStreamingChannel extends StreamingChannel {
+
+        protected final HedgedDownstreamCall hedgedCall;
+
+        HedgedStreamingChannel(HedgedDownstreamCall hedgedCall, StreamingChannel primaryChannel) {
+            super(primaryChannel.channel, primaryChannel.pool, primaryChannel.callActiveHolder,
+                  primaryChannel.downstreamLastChunkSentHolder, primaryChannel.distributedTracingSpanStack,
+                  primaryChannel.distributedTracingMdcInfo);
+            this.hedgedCall = hedgedCall;
+        }
+
+        @Override
+        public ChannelFuture streamChunk(HttpContent chunkToWrite) {
+            chunkToWrite.release();
+            return getChannel().newSucceededFuture();
+        }
+
+        @Override
+        public Channel getChannel() {
+            return hedgedCall.getWinnerOrPrimaryChannel();
+        }
+
+        @Override
+        public boolean isDownstreamCallActive() {
+            return hedgedCall.isAnyAttemptActive();
+        }
+
+        @Override
+        public void closeChannelDueToUnrecoverableError(Throwable cause) {
+            hedgedCall.closeAll(cause);
+        }
+    }
+}
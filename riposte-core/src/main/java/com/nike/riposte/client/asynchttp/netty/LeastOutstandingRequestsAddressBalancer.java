@@ -0,0 +1,287 @@
+package com.nike.riposte.client.asynchttp.netty;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chooses which of a downstream host's resolved IP addresses a call should go to, using the "power of two choices"
+ * technique: two of the addresses are picked at random and the call goes to the one with the lower load. Load is the
+ * number of outstanding (in-flight) calls to the address multiplied by an exponentially weighted moving average (EWMA)
+ * of its recent call latency, so a slow instance gets fewer calls even when it isn't yet backed up. The EWMA jumps up
+ * immediately on a latency spike and decays back down over time (a "peak EWMA"), so the balancer reacts quickly when
+ * an instance slows down. Comparing only two random candidates (rather than always picking the single least loaded
+ * address) avoids the herd behavior where every caller piles onto the same "best" address at the same time.
+ *
+ * <p>Callers must report each call via {@link #callStarted(InetSocketAddress)} and then exactly one of {@link
+ * #callFinished(InetSocketAddress, long)} or {@link #callFailed(InetSocketAddress, long)}, otherwise the outstanding
+ * call counts will drift.
+ *
+ * <p>Addresses that have no latency samples yet are compared by outstanding calls only, so new addresses start
+ * receiving traffic right away. Failed calls are recorded as at least {@link #FAILURE_PENALTY_NANOS} of latency so
+ * that an address that fails fast (e.g. refused connections) doesn't look like the fastest address.
+ *
+ * <p>The stats for an address are dropped once it has had no outstanding calls for {@link #idleStatsTtlNanos}, so
+ * addresses that DNS no longer returns don't accumulate forever. By then its EWMA has decayed to next to nothing anyway
+ * (as long as the TTL is several times {@link #decayTimeNanos}), so the address is treated the same as a new one if
+ * it comes back. This class is thread safe.
+ */
+@SuppressWarnings("WeakerAccess")
+public class LeastOutstandingRequestsAddressBalancer {
+
+    /**
+     * The default amount of time it takes for an old latency sample's weight in the EWMA to decay to ~37% (1/e).
+     */
+    public static final long DEFAULT_DECAY_TIME_NANOS = TimeUnit.SECONDS.toNanos(10);
+    /**
+     * The minimum latency recorded for a failed call.
+     */
+    public static final long FAILURE_PENALTY_NANOS = TimeUnit.SECONDS.toNanos(1);
+    /**
+     * The default amount of time an address can go without outstanding calls before its stats are dropped.
+     */
+    public static final long DEFAULT_IDLE_STATS_TTL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    protected final long decayTimeNanos;
+    protected final long idleStatsTtlNanos;
+    protected final ConcurrentMap<InetSocketAddress, AddressStats> statsByAddress = new ConcurrentHashMap<>();
+    protected final AtomicLong lastPruneNanos = new AtomicLong(System.nanoTime());
+
+    public LeastOutstandingRequestsAddressBalancer() {
+        this(DEFAULT_DECAY_TIME_NANOS);
+    }
+
+    /**
+     * @param decayTimeNanos The amount of time it takes for an old latency sample's weight in the EWMA to decay to
+     * ~37% (1/e). Must be greater than 0.
+     */
+    public LeastOutstandingRequestsAddressBalancer(long decayTimeNanos) {
+        this(decayTimeNanos, DEFAULT_IDLE_STATS_TTL_NANOS);
+    }
+
+    /**
+     * @param decayTimeNanos The amount of time it takes for an old latency sample's weight in the EWMA to decay to
+     * ~37% (1/e). Must be greater than 0.
+     * @param idleStatsTtlNanos The amount of time an address can go without outstanding calls before its stats are
+     * dropped. Must be greater than 0.
+     */
+    public LeastOutstandingRequestsAddressBalancer(long decayTimeNanos, long idleStatsTtlNanos) {
+        if (decayTimeNanos <= 0)
+            throw new IllegalArgumentException("decayTimeNanos must be greater than 0. decayTimeNanos="
+                                               + decayTimeNanos);
+
+        if (idleStatsTtlNanos <= 0)
+            throw new IllegalArgumentException("idleStatsTtlNanos must be greater than 0. idleStatsTtlNanos="
+                                               + idleStatsTtlNanos);
+
+        this.decayTimeNanos = decayTimeNanos;
+        this.idleStatsTtlNanos = idleStatsTtlNanos;
+    }
+
+    /**
+     * @param ipAddresses The resolved IP addresses for the downstream host. Cannot be null or empty.
+     * @param port The downstream port.
+     * @return The address the next call should go to.
+     */
+    public InetSocketAddress chooseAddress(InetAddress[] ipAddresses, int port) {
+        int numAddresses = ipAddresses.length;
+        if (numAddresses == 1)
+            return new InetSocketAddress(ipAddresses[0], port);
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int firstIndex = random.nextInt(numAddresses);
+        // Pick a second index that's guaranteed to be different from the first.
+        int secondIndex = (firstIndex + 1 + random.nextInt(numAddresses - 1)) % numAddresses;
+
+        InetSocketAddress first = new InetSocketAddress(ipAddresses[firstIndex], port);
+        InetSocketAddress second = new InetSocketAddress(ipAddresses[secondIndex], port);
+
+        return (isLessLoaded(second, first)) ? second : first;
+    }
+
+    /**
+     * @return true if the candidate address currently has a lower load than the other address.
+     */
+    protected boolean isLessLoaded(InetSocketAddress candidate, InetSocketAddress other) {
+        AddressStats candidateStats = statsByAddress.get(candidate);
+        AddressStats otherStats = statsByAddress.get(other);
+
+        int candidateOutstanding = (candidateStats == null) ? 0 : candidateStats.outstandingCalls.get();
+        int otherOutstanding = (otherStats == null) ? 0 : otherStats.outstandingCalls.get();
+
+        if (candidateStats == null || otherStats == null || !candidateStats.hasLatency() || !otherStats.hasLatency())
+            return candidateOutstanding < otherOutstanding;
+
+        long now = System.nanoTime();
+        // The +1 on the outstanding calls means an idle address is still ranked by its latency.
+        double candidateLoad = candidateStats.currentEwmaNanos(now, decayTimeNanos) * (candidateOutstanding + 1);
+        double otherLoad = otherStats.currentEwmaNanos(now, decayTimeNanos) * (otherOutstanding + 1);
+        return candidateLoad < otherLoad;
+    }
+
+    /**
+     * Records that a call to the given address has started.
+     */
+    public void callStarted(InetSocketAddress address) {
+        long now = System.nanoTime();
+        AddressStats stats = statsFor(address);
+        while (!stats.tryStartCall(now)) {
+            // The stats were dropped by a concurrent prune - start over with a fresh entry.
+            statsByAddress.remove(address, stats);
+            stats = statsFor(address);
+        }
+
+        pruneIdleStatsIfDue(now);
+    }
+
+    /**
+     * Records that a call to the given address has finished.
+     *
+     * @param address The address the call went to.
+     * @param latencyNanos How long the call took, or a negative number if this call shouldn't count towards the
+     * address's latency (the outstanding call count is still decremented).
+     */
+    public void callFinished(InetSocketAddress address, long latencyNanos) {
+        // The address has an outstanding call, so its stats can't have been dropped.
+        AddressStats stats = statsFor(address);
+        long now = System.nanoTime();
+        stats.lastActivityNanos = now;
+        stats.outstandingCalls.decrementAndGet();
+        if (latencyNanos >= 0)
+            stats.recordLatency(latencyNanos, now, decayTimeNanos);
+    }
+
+    /**
+     * Records that a call to the given address failed before it could be made (e.g. the connection could not be
+     * established). The failure is recorded as at least {@link #FAILURE_PENALTY_NANOS} of latency.
+     */
+    public void callFailed(InetSocketAddress address, long latencyNanos) {
+        callFinished(address, Math.max(latencyNanos, FAILURE_PENALTY_NANOS));
+    }
+
+    /**
+     * @return The number of calls to the given address that have started but not yet finished.
+     */
+    public int getOutstandingCalls(InetSocketAddress address) {
+        AddressStats stats = statsByAddress.get(address);
+        return (stats == null) ? 0 : stats.outstandingCalls.get();
+    }
+
+    /**
+     * @return The current latency EWMA in nanoseconds for the given address, or 0 if there are no samples for it yet.
+     */
+    public double getLatencyEwmaNanos(InetSocketAddress address) {
+        AddressStats stats = statsByAddress.get(address);
+        return (stats == null) ? 0 : stats.currentEwmaNanos(System.nanoTime(), decayTimeNanos);
+    }
+
+    /**
+     * @return The number of addresses that stats are currently being kept for.
+     */
+    public int getTrackedAddressCount() {
+        return statsByAddress.size();
+    }
+
+    /**
+     * Calls {@link #pruneIdleStats(long)} if it hasn't been called for at least {@link #idleStatsTtlNanos}.
+     */
+    protected void pruneIdleStatsIfDue(long nowNanos) {
+        long lastPrune = lastPruneNanos.get();
+        if (nowNanos - lastPrune >= idleStatsTtlNanos && lastPruneNanos.compareAndSet(lastPrune, nowNanos))
+            pruneIdleStats(nowNanos);
+    }
+
+    /**
+     * Drops the stats of every address that has had no outstanding calls for at least {@link #idleStatsTtlNanos}.
+     */
+    protected void pruneIdleStats(long nowNanos) {
+        statsByAddress.forEach((address, stats) -> {
+            if (stats.retireIfIdle(nowNanos, idleStatsTtlNanos))
+                statsByAddress.remove(address, stats);
+        });
+    }
+
+    protected AddressStats statsFor(InetSocketAddress address) {
+        AddressStats stats = statsByAddress.get(address);
+        if (stats == null)
+            stats = statsByAddress.computeIfAbsent(address, addr -> new AddressStats());
+
+        return stats;
+    }
+
+    /**
+     * The outstanding call count and latency EWMA for a single address.
+     */
+    protected static class AddressStats {
+        protected final AtomicInteger outstandingCalls = new AtomicInteger();
+        protected double ewmaNanos;
+        protected long lastSampleTimeNanos;
+        protected boolean hasSample = false;
+        protected volatile long lastActivityNanos = System.nanoTime();
+        // Set (under this object's lock) when the stats are dropped, so a call can't start on an orphaned entry.
+        protected boolean retired = false;
+
+        /**
+         * @return true if the call was counted, false if these stats have been dropped and the caller needs a fresh
+         * entry.
+         */
+        protected synchronized boolean tryStartCall(long nowNanos) {
+            if (retired)
+                return false;
+
+            outstandingCalls.incrementAndGet();
+            lastActivityNanos = nowNanos;
+            return true;
+        }
+
+        /**
+         * @return true if there are no outstanding calls and there haven't been for at least the given TTL, in which
+         * case these stats are marked as dropped and no new calls can be started on them.
+         */
+        protected synchronized boolean retireIfIdle(long nowNanos, long idleTtlNanos) {
+            if (outstandingCalls.get() > 0 || nowNanos - lastActivityNanos < idleTtlNanos)
+                return false;
+
+            retired = true;
+            return true;
+        }
+
+        protected synchronized boolean hasLatency() {
+            return hasSample;
+        }
+
+        protected synchronized void recordLatency(long latencyNanos, long nowNanos, long decayTimeNanos) {
+            double decayedEwmaNanos = currentEwmaNanos(nowNanos, decayTimeNanos);
+            if (!hasSample || latencyNanos > decayedEwmaNanos) {
+                // Jump straight to any latency spike so we react to a slow instance right away. It only decays
+                //      gradually afterward.
+                ewmaNanos = latencyNanos;
+                hasSample = true;
+            }
+            else {
+                // Weight the new sample by how long it's been since the last one, so a burst of calls doesn't wipe out
+                //      history faster than a trickle of calls does.
+                double newWeight = 1 - decayWeight(nowNanos, decayTimeNanos);
+                ewmaNanos = decayedEwmaNanos + (latencyNanos * newWeight);
+            }
+            lastSampleTimeNanos = nowNanos;
+        }
+
+        /**
+         * @return The EWMA decayed towards 0 by the time since the last sample. Decaying even without new samples
+         * means an address that was penalized (and therefore stopped receiving calls) is eventually tried again.
+         */
+        protected synchronized double currentEwmaNanos(long nowNanos, long decayTimeNanos) {
+            return (hasSample) ? ewmaNanos * decayWeight(nowNanos, decayTimeNanos) : 0;
+        }
+
+        protected double decayWeight(long nowNanos, long decayTimeNanos) {
+            return Math.exp(-Math.max(nowNanos - lastSampleTimeNanos, 0) / (double) decayTimeNanos);
+        }
+    }
+}
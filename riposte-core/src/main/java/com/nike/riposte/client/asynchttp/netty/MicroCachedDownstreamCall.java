@@ -0,0 +1,312 @@
+package com.nike.riposte.client.asynchttp.netty;
+
+import com.nike.riposte.client.asynchttp.netty.ProxyResponseMicroCache.CachedResponse;
+import com.nike.riposte.client.asynchttp.netty.ProxyResponseMicroCache.ResponseRecorder;
+import com.nike.riposte.client.asynchttp.netty.StreamingAsyncHttpClient.ObjectHolder;
+import com.nike.riposte.client.asynchttp.netty.StreamingAsyncHttpClient.StreamingCallback;
+import com.nike.riposte.client.asynchttp.netty.StreamingAsyncHttpClient.StreamingChannel;
+import com.nike.riposte.client.hedging.HedgingPolicy;
+import com.nike.riposte.client.retry.RetryPolicy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.LastHttpContent;
+
+import static com.nike.riposte.util.AsyncNettyHelper.runnableWithTracingAndMdc;
+
+/**
+ * Runs a single cacheable downstream call for {@link StreamingAsyncHttpClient#streamDownstreamCall(String, int,
+ * HttpRequest, boolean, boolean, StreamingCallback, long, boolean, boolean, ChannelHandlerContext, HedgingPolicy,
+ * RetryPolicy, String, ProxyResponseMicroCache)} through a {@link ProxyResponseMicroCache}:
+ * <ul>
+ *     <li>
+ *         On a miss the call is made as normal (including any hedging or retries), and the response is recorded into
+ *         the cache as it streams back to the caller.
+ *     </li>
+ *     <li>
+ *         On a hit the downstream service isn't called. The returned future is completed right away with a {@link
+ *         CachedResponseStreamingChannel}, and the cached response is replayed to the {@link StreamingCallback} on the
+ *         caller's event loop exactly as if it had come from the downstream service.
+ *     </li>
+ *     <li>
+ *         On a stale hit the cached response is replayed the same way, and if no other refresh of the entry is in
+ *         progress a background call is made to refresh it. The background call doesn't affect the caller's response
+ *         in any way. If it fails the stale entry stays in place until its stale window runs out, and the next stale
+ *         hit tries again.
+ *     </li>
+ * </ul>
+ */
+@SuppressWarnings("WeakerAccess")
+public class MicroCachedDownstreamCall {
+
+    private static final Logger logger = LoggerFactory.getLogger(MicroCachedDownstreamCall.class);
+
+    protected final StreamingAsyncHttpClient client;
+    protected final ProxyResponseMicroCache cache;
+    protected final String downstreamHost;
+    protected final int downstreamPort;
+    protected final HttpRequest initialRequestChunk;
+    protected final boolean isSecureHttpsCall;
+    protected final boolean relaxedHttpsValidation;
+    protected final StreamingCallback callback;
+    protected final long downstreamCallTimeoutMillis;
+    protected final boolean performSubSpanAroundDownstreamCalls;
+    protected final boolean addTracingHeadersToDownstreamCall;
+    protected final ChannelHandlerContext ctx;
+    protected final HedgingPolicy hedgingPolicy;
+    protected final RetryPolicy retryPolicy;
+    protected final String routingKey;
+    protected final String baseKey;
+
+    public MicroCachedDownstreamCall(StreamingAsyncHttpClient client, ProxyResponseMicroCache cache,
+                                     String downstreamHost, int downstreamPort, HttpRequest initialRequestChunk,
+                                     boolean isSecureHttpsCall, boolean relaxedHttpsValidation,
+                                     StreamingCallback callback, long downstreamCallTimeoutMillis,
+                                     boolean performSubSpanAroundDownstreamCalls,
+                                     boolean addTracingHeadersToDownstreamCall, ChannelHandlerContext ctx,
+                                     HedgingPolicy hedgingPolicy, RetryPolicy retryPolicy, String routingKey) {
+        this.client = client;
+        this.cache = cache;
+        this.downstreamHost = downstreamHost;
+        this.downstreamPort = downstreamPort;
+        this.initialRequestChunk = initialRequestChunk;
+        this.isSecureHttpsCall = isSecureHttpsCall;
+        this.relaxedHttpsValidation = relaxedHttpsValidation;
+        this.callback = callback;
+        this.downstreamCallTimeoutMillis = downstreamCallTimeoutMillis;
+        this.performSubSpanAroundDownstreamCalls = performSubSpanAroundDownstreamCalls;
+        this.addTracingHeadersToDownstreamCall = addTracingHeadersToDownstreamCall;
+        this.ctx = ctx;
+        this.hedgingPolicy = hedgingPolicy;
+        this.retryPolicy = retryPolicy;
+        this.routingKey = routingKey;
+        this.baseKey = cache.baseKey(downstreamHost, downstreamPort, isSecureHttpsCall, initialRequestChunk);
+    }
+
+    /**
+     * Serves the call from the cache if possible, otherwise makes the downstream call.
+     *
+     * @return A future that completes the same way as the future from {@link
+     * StreamingAsyncHttpClient#streamDownstreamCall(String, int, HttpRequest, boolean, boolean, StreamingCallback,
+     * long, boolean, boolean, ChannelHandlerContext, HedgingPolicy, RetryPolicy, String)} would, or with a {@link
+     * CachedResponseStreamingChannel} on a cache hit.
+     */
+    public CompletableFuture<StreamingChannel> start() {
+        CachedResponse entry = cache.lookup(baseKey, initialRequestChunk.headers());
+        if (entry != null) {
+            long now = cache.currentTimeMillis();
+            // The body is null if the entry was replaced or removed since the lookup, in which case it's a miss.
+            ByteBuf body = entry.retainedBody();
+            if (body != null) {
+                boolean stale = !entry.isFresh(now);
+                cache.recordHit(stale);
+                if (stale && entry.tryStartRefresh())
+                    startBackgroundRefresh(entry);
+
+                ctx.executor().execute(runnableWithTracingAndMdc(() -> replay(entry, body, now), ctx));
+                return CompletableFuture.completedFuture(new CachedResponseStreamingChannel(ctx.channel()));
+            }
+        }
+
+        cache.recordMiss();
+        ResponseRecorder recorder = cache.newRecorder(baseKey, initialRequestChunk.headers());
+        return client.streamDownstreamCall(
+            downstreamHost, downstreamPort, initialRequestChunk, isSecureHttpsCall, relaxedHttpsValidation,
+            new RecordingCallback(recorder, callback), downstreamCallTimeoutMillis,
+            performSubSpanAroundDownstreamCalls, addTracingHeadersToDownstreamCall, ctx, hedgingPolicy, retryPolicy,
+            routingKey
+        ).whenComplete((sc, error) -> {
+            if (error != null)
+                recorder.abandon();
+        });
+    }
+
+    /**
+     * Passes the given cached response to the {@link #callback} as a first chunk and a single last chunk. The callback
+     * retains the chunk if it keeps it, so the given body is always released here.
+     */
+    protected void replay(CachedResponse entry, ByteBuf body, long nowMillis) {
+        try {
+            callback.messageReceived(entry.newResponse(nowMillis));
+            callback.messageReceived(new DefaultLastHttpContent(body));
+        }
+        catch (Throwable t) {
+            callback.unrecoverableErrorOccurred(t, true);
+        }
+        finally {
+            body.release();
+        }
+    }
+
+    /**
+     * Makes a background call for the given stale entry and stores the response in the cache. The call uses a copy of
+     * the request since the original is sent nowhere, and doesn't do a subspan since nobody is waiting on it.
+     */
+    protected void startBackgroundRefresh(CachedResponse entry) {
+        cache.recordRefresh();
+        HttpRequest refreshRequest = HedgedDownstreamCall.copyRequest(initialRequestChunk);
+        ResponseRecorder recorder = cache.newRecorder(baseKey, refreshRequest.headers());
+        StreamingCallback refreshCallback = new RefreshCallback(entry, recorder);
+
+        runnableWithTracingAndMdc(
+            () -> logger.debug("Refreshing stale micro-cache entry in the background. cache_key={}", baseKey),
+            ctx
+        ).run();
+
+        try {
+            client.doStreamDownstreamCall(
+                downstreamHost, downstreamPort, refreshRequest, isSecureHttpsCall, relaxedHttpsValidation,
+                refreshCallback, downstreamCallTimeoutMillis, false, addTracingHeadersToDownstreamCall, ctx, null,
+                routingKey
+            ).whenComplete((sc, error) -> {
+                if (error != null) {
+                    refreshCallback.unrecoverableErrorOccurred(error, true);
+                    return;
+                }
+
+                // The request is bodiless, so finish it off right away.
+                sc.streamChunk(LastHttpContent.EMPTY_LAST_CONTENT).addListener(future -> {
+                    if (!future.isSuccess()) {
+                        try {
+                            refreshCallback.unrecoverableErrorOccurred(future.cause(), false);
+                        }
+                        finally {
+                            sc.closeChannelDueToUnrecoverableError(future.cause());
+                        }
+                    }
+                });
+            });
+        }
+        catch (Throwable t) {
+            refreshCallback.unrecoverableErrorOccurred(t, true);
+        }
+    }
+
+    /**
+     * Records the response into the cache before passing each message along to the real callback. A failure to record
+     * never affects the response to the caller.
+     */
+    protected static class RecordingCallback implements StreamingCallback {
+        protected final ResponseRecorder recorder;
+        protected final StreamingCallback delegate;
+
+        protected RecordingCallback(ResponseRecorder recorder, StreamingCallback delegate) {
+            this.recorder = recorder;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void messageReceived(HttpObject msg) {
+            try {
+                // Record first - the real callback is free to modify the response headers.
+                recorder.record(msg);
+            }
+            catch (Throwable t) {
+                logger.warn("Unable to record a downstream response into the micro-cache. It will not be cached.", t);
+                recorder.abandon();
+            }
+
+            delegate.messageReceived(msg);
+        }
+
+        @Override
+        public void unrecoverableErrorOccurred(Throwable error, boolean guaranteesBrokenDownstreamResponse) {
+            recorder.abandon();
+            delegate.unrecoverableErrorOccurred(error, guaranteesBrokenDownstreamResponse);
+        }
+
+        @Override
+        public void cancelStreamingToOriginalCaller() {
+            delegate.cancelStreamingToOriginalCaller();
+        }
+    }
+
+    /**
+     * Records the response for a background refresh, and lets the next stale hit start another refresh once this one
+     * is done.
+     */
+    protected static class RefreshCallback implements StreamingCallback {
+        protected final CachedResponse entry;
+        protected final ResponseRecorder recorder;
+
+        protected RefreshCallback(CachedResponse entry, ResponseRecorder recorder) {
+            this.entry = entry;
+            this.recorder = recorder;
+        }
+
+        @Override
+        public void messageReceived(HttpObject msg) {
+            try {
+                recorder.record(msg);
+            }
+            catch (Throwable t) {
+                logger.warn("Unable to record a refreshed downstream response into the micro-cache.", t);
+                recorder.abandon();
+            }
+            finally {
+                if (msg instanceof LastHttpContent)
+                    entry.refreshFinished();
+            }
+        }
+
+        @Override
+        public void unrecoverableErrorOccurred(Throwable error, boolean guaranteesBrokenDownstreamResponse) {
+            recorder.abandon();
+            entry.refreshFinished();
+        }
+
+        @Override
+        public void cancelStreamingToOriginalCaller() {
+            // Nothing to do - there's no original caller for a refresh.
+        }
+    }
+
+    /**
+     * The {@link StreamingChannel} handed back to the caller on a cache hit. There's no downstream call, so it's never
+     * active, closing it does nothing, and any chunks streamed to it are released and ignored.
+     */
+    public static class CachedResponseStreamingChannel extends StreamingChannel {
+
+        CachedResponseStreamingChannel(Channel callerChannel) {
+            super(callerChannel, null, inactiveHolder(), inactiveHolder(), null, null);
+        }
+
+        protected static ObjectHolder<Boolean> inactiveHolder() {
+            ObjectHolder<Boolean> holder = new ObjectHolder<>();
+            holder.heldObject = false;
+            return holder;
+        }
+
+        @Override
+        public ChannelFuture streamChunk(HttpContent chunkToWrite) {
+            chunkToWrite.release();
+            return channel.newSucceededFuture();
+        }
+
+        @Override
+        public boolean isDownstreamCallActive() {
+            return false;
+        }
+
+        @Override
+        public void closeChannelDueToUnrecoverableError(Throwable cause) {
+            // Nothing to close.
+        }
+
+        @Override
+        protected void abandonDownstreamCall(boolean completeSubSpan) {
+            // Nothing to abandon.
+        }
+    }
+}
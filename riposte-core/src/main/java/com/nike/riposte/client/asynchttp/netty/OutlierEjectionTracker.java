@@ -0,0 +1,252 @@
+package com.nike.riposte.client.asynchttp.netty;
+
+import com.nike.riposte.client.pool.DownstreamConnectionPoolMetrics;
+import com.nike.riposte.client.pool.DownstreamOutlierEjectionConfig;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks the health of each resolved IP address of the downstream hosts called by {@link StreamingAsyncHttpClient},
+ * and ejects addresses that fail too many calls in a row so that new calls are routed to the host's other addresses
+ * until the ejection runs out. See {@link DownstreamOutlierEjectionConfig} for the rules.
+ *
+ * <p>Callers report the outcome of calls via {@link #recordSuccess(InetSocketAddress)} and {@link
+ * #recordFailure(InetSocketAddress)}, and remove ejected addresses from the candidates for a new call via {@link
+ * #filterEjected(InetAddress[], int)}. Ejections expire lazily based on time, so there's no background task. Per-host
+ * ejection stats are registered with the given {@link DownstreamConnectionPoolMetrics} under the same {@code
+ * host:port} key as the host's connection pools. This class is thread safe.
+ */
+@SuppressWarnings("WeakerAccess")
+public class OutlierEjectionTracker {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutlierEjectionTracker.class);
+
+    protected final DownstreamOutlierEjectionConfig config;
+    protected final DownstreamConnectionPoolMetrics metrics;
+    protected final ConcurrentMap<String, HostEjectionState> statesByHost = new ConcurrentHashMap<>();
+    /**
+     * The {@link System#nanoTime()} at which the last currently known ejection expires. Lets {@link
+     * #filterEjected(InetAddress[], int)} skip all the per-address work when nothing is ejected (the usual case).
+     */
+    protected final AtomicLong latestEjectionExpiryNanos = new AtomicLong(System.nanoTime());
+
+    /**
+     * @param config The outlier ejection config. Can be null - if it is null then {@link
+     * DownstreamOutlierEjectionConfig#DEFAULT_IMPL} will be used.
+     * @param metrics Where the per-host ejection stats are registered. Can be null - if it is null then {@link
+     * DownstreamConnectionPoolMetrics#getDefaultInstance()} will be used.
+     */
+    public OutlierEjectionTracker(DownstreamOutlierEjectionConfig config, DownstreamConnectionPoolMetrics metrics) {
+        if (config == null)
+            config = DownstreamOutlierEjectionConfig.DEFAULT_IMPL;
+
+        if (metrics == null)
+            metrics = DownstreamConnectionPoolMetrics.getDefaultInstance();
+
+        this.config = config;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return true if outlier ejection is turned on (i.e. {@link
+     * DownstreamOutlierEjectionConfig#consecutiveFailuresToEject()} is greater than 0), false otherwise.
+     */
+    public boolean isEnabled() {
+        return config.consecutiveFailuresToEject() > 0;
+    }
+
+    /**
+     * @param ipAddresses The resolved IP addresses for a downstream host.
+     * @param port The downstream port.
+     * @return The given addresses minus any that are currently ejected. If nothing is ejected then the given array is
+     * returned as-is. If more than {@link DownstreamOutlierEjectionConfig#maxEjectedPercent()} of the addresses are
+     * ejected (which includes all of them being ejected) then the ejections are ignored and the given array is
+     * returned as-is - at that point the host as a whole is in trouble, which is the per-host circuit breaker's job
+     * rather than something that can be routed around.
+     */
+    public InetAddress[] filterEjected(InetAddress[] ipAddresses, int port) {
+        long now = System.nanoTime();
+        if (ipAddresses.length <= 1 || now - latestEjectionExpiryNanos.get() >= 0)
+            return ipAddresses;
+
+        boolean[] ejected = new boolean[ipAddresses.length];
+        int numEjected = 0;
+        for (int i = 0; i < ipAddresses.length; i++) {
+            if (isEjected(new InetSocketAddress(ipAddresses[i], port), now)) {
+                ejected[i] = true;
+                numEjected++;
+            }
+        }
+
+        int maxEjected = (ipAddresses.length * config.maxEjectedPercent()) / 100;
+        if (numEjected == 0 || numEjected > maxEjected || numEjected == ipAddresses.length)
+            return ipAddresses;
+
+        InetAddress[] result = new InetAddress[ipAddresses.length - numEjected];
+        int resultIndex = 0;
+        for (int i = 0; i < ipAddresses.length; i++) {
+            if (!ejected[i])
+                result[resultIndex++] = ipAddresses[i];
+        }
+        return result;
+    }
+
+    /**
+     * @return true if the given address is currently ejected, false otherwise.
+     */
+    public boolean isEjected(InetSocketAddress address) {
+        return isEjected(address, System.nanoTime());
+    }
+
+    protected boolean isEjected(InetSocketAddress address, long nowNanos) {
+        HostEjectionState hostState = statesByHost.get(hostKey(address));
+        if (hostState == null)
+            return false;
+
+        AddressEjectionState addressState = hostState.statesByAddress.get(address);
+        return addressState != null && addressState.isEjected(nowNanos);
+    }
+
+    /**
+     * Records a successful call to the given address, which resets its consecutive failure count and (if it's not
+     * currently ejected) its ejection backoff.
+     */
+    public void recordSuccess(InetSocketAddress address) {
+        // Addresses only get state once they fail, so successful calls to healthy addresses don't allocate anything.
+        HostEjectionState hostState = statesByHost.get(hostKey(address));
+        if (hostState == null)
+            return;
+
+        AddressEjectionState addressState = hostState.statesByAddress.get(address);
+        if (addressState != null)
+            addressState.recordSuccess(System.nanoTime());
+    }
+
+    /**
+     * Records a failed call to the given address (a connect failure, an error during the call, or a 5xx response). If
+     * this pushes the address's consecutive failure count to {@link
+     * DownstreamOutlierEjectionConfig#consecutiveFailuresToEject()} then the address is ejected. Failures reported
+     * while the address is already ejected (i.e. calls that were in flight when it was ejected) are ignored.
+     */
+    public void recordFailure(InetSocketAddress address) {
+        int consecutiveFailuresToEject = config.consecutiveFailuresToEject();
+        if (consecutiveFailuresToEject <= 0)
+            return;
+
+        String hostKey = hostKey(address);
+        HostEjectionState hostState = statesByHost.get(hostKey);
+        if (hostState == null) {
+            hostState = statesByHost.computeIfAbsent(hostKey, key -> {
+                HostEjectionState newHostState = new HostEjectionState();
+                metrics.registerEjectionStats(key, newHostState);
+                return newHostState;
+            });
+        }
+
+        AddressEjectionState addressState = hostState.statesByAddress.get(address);
+        if (addressState == null)
+            addressState = hostState.statesByAddress.computeIfAbsent(address, addr -> new AddressEjectionState());
+
+        long now = System.nanoTime();
+        long ejectionTimeNanos = addressState.recordFailure(
+            now, consecutiveFailuresToEject, TimeUnit.MILLISECONDS.toNanos(config.baseEjectionTimeMillis()),
+            TimeUnit.MILLISECONDS.toNanos(config.maxEjectionTimeMillis())
+        );
+
+        if (ejectionTimeNanos > 0) {
+            hostState.ejectionCount.increment();
+            long ejectionExpiry = now + ejectionTimeNanos;
+            latestEjectionExpiryNanos.accumulateAndGet(
+                ejectionExpiry, (current, candidate) -> (candidate - current > 0) ? candidate : current
+            );
+            logger.warn("Ejecting downstream address after {} consecutive failures. address={}, ejection_time_millis={}",
+                        consecutiveFailuresToEject, address, TimeUnit.NANOSECONDS.toMillis(ejectionTimeNanos));
+        }
+    }
+
+    protected String hostKey(InetSocketAddress address) {
+        // This matches the key the connection pools use when registering with DownstreamConnectionPoolMetrics.
+        return address.getHostString() + ":" + address.getPort();
+    }
+
+    /**
+     * The ejection state for all the addresses of a single {@code host:port}.
+     */
+    protected static class HostEjectionState implements DownstreamConnectionPoolMetrics.EjectionStats {
+        protected final ConcurrentMap<InetSocketAddress, AddressEjectionState> statesByAddress =
+            new ConcurrentHashMap<>();
+        protected final LongAdder ejectionCount = new LongAdder();
+
+        @Override
+        public int getEjectedAddressCount() {
+            long now = System.nanoTime();
+            int count = 0;
+            for (AddressEjectionState addressState : statesByAddress.values()) {
+                if (addressState.isEjected(now))
+                    count++;
+            }
+            return count;
+        }
+
+        @Override
+        public long getEjectionCount() {
+            return ejectionCount.sum();
+        }
+    }
+
+    /**
+     * The consecutive failure count and ejection state for a single address.
+     */
+    protected static class AddressEjectionState {
+        protected int consecutiveFailures = 0;
+        protected int consecutiveEjections = 0;
+        protected boolean everEjected = false;
+        protected long ejectedUntilNanos;
+
+        protected synchronized boolean isEjected(long nowNanos) {
+            return everEjected && ejectedUntilNanos - nowNanos > 0;
+        }
+
+        protected synchronized void recordSuccess(long nowNanos) {
+            consecutiveFailures = 0;
+            if (!isEjected(nowNanos))
+                consecutiveEjections = 0;
+        }
+
+        /**
+         * @return The amount of time in nanoseconds the address was ejected for if this failure caused an ejection,
+         * otherwise 0.
+         */
+        protected synchronized long recordFailure(long nowNanos, int consecutiveFailuresToEject,
+                                                  long baseEjectionTimeNanos, long maxEjectionTimeNanos) {
+            if (isEjected(nowNanos))
+                return 0;
+
+            consecutiveFailures++;
+            if (consecutiveFailures < consecutiveFailuresToEject)
+                return 0;
+
+            // Double the ejection time for every back-to-back ejection, capped at the max.
+            long ejectionTimeNanos = baseEjectionTimeNanos;
+            for (int i = 0; i < consecutiveEjections && ejectionTimeNanos < maxEjectionTimeNanos; i++) {
+                ejectionTimeNanos *= 2;
+            }
+            ejectionTimeNanos = Math.min(ejectionTimeNanos, maxEjectionTimeNanos);
+
+            consecutiveFailures = 0;
+            consecutiveEjections++;
+            everEjected = true;
+            ejectedUntilNanos = nowNanos + ejectionTimeNanos;
+            return ejectionTimeNanos;
+        }
+    }
+}
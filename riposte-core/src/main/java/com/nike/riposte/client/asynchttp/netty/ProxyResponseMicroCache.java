@@ -0,0 +1,631 @@
+package com.nike.riposte.client.asynchttp.netty;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+
+/**
+ * An opt-in, in-memory micro-cache for proxied GET responses (see {@link MicroCachedDownstreamCall} for how it's used).
+ * Responses are cached according to the downstream service's {@code Cache-Control} header, so a downstream service
+ * controls what's cached and for how long. Only {@code 200} responses to bodiless GET requests without an {@code
+ * Authorization} header are cached, and only when their {@code Cache-Control} header allows a shared cache to store
+ * them for a while ({@code s-maxage} or {@code max-age} greater than 0, and no {@code no-store}, {@code no-cache}, or
+ * {@code private}). Responses with a {@code Set-Cookie} header or {@code Vary: *} are never cached. Requests with
+ * {@code Cache-Control: no-cache} or {@code no-store} bypass the cache.
+ *
+ * <p>Cached bodies are copied into buffers from a pooled (off-heap by default) {@link ByteBufAllocator}, and served
+ * by handing out retained duplicates of those buffers so a hit doesn't copy the body again. Entries are keyed by the
+ * downstream host, port, scheme, and URI, plus the values of any request headers named by the response's {@code Vary}
+ * header.
+ *
+ * <p>Each entry is fresh for its {@code max-age} (capped at {@link #maxTtlMillis}). After that it's served stale for
+ * up to its {@code stale-while-revalidate} window (or {@link #defaultStaleWhileRevalidateMillis} if the response
+ * didn't specify one) while a single background call refreshes it. Only one refresh per entry runs at a time, no
+ * matter how many requests are served the stale entry. Once the stale window has passed the entry is discarded and the
+ * next request goes downstream as normal.
+ *
+ * <p>The cache is bounded by {@link #maxEntries}, {@link #maxEntryBodyBytes} (bigger responses aren't cached), and
+ * {@link #maxTotalBodyBytes}. When a new entry won't fit, expired entries are swept first and the new entry is
+ * dropped if that doesn't free enough room. An instance should be shared by every call that uses it, and is thread
+ * safe. Hit, stale hit, miss, refresh, and store counts are available for metrics.
+ */
+@SuppressWarnings("WeakerAccess")
+public class ProxyResponseMicroCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+    public static final int DEFAULT_MAX_ENTRY_BODY_BYTES = 256 * 1024;
+    public static final long DEFAULT_MAX_TOTAL_BODY_BYTES = 64 * 1024 * 1024;
+    public static final long DEFAULT_MAX_TTL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    public static final long DEFAULT_STALE_WHILE_REVALIDATE_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    public final int maxEntries;
+    public final int maxEntryBodyBytes;
+    public final long maxTotalBodyBytes;
+    public final long maxTtlMillis;
+    public final long defaultStaleWhileRevalidateMillis;
+    protected final ByteBufAllocator allocator;
+    protected final LongSupplier currentTimeMillisSupplier;
+
+    /**
+     * The names of the request headers named by the {@code Vary} header of the latest response for each base key.
+     */
+    protected final ConcurrentMap<String, List<String>> varyHeaderNamesByBaseKey = new ConcurrentHashMap<>();
+    protected final ConcurrentMap<String, CachedResponse> entriesByKey = new ConcurrentHashMap<>();
+    protected final AtomicLong totalBodyBytes = new AtomicLong();
+
+    protected final LongAdder hitCount = new LongAdder();
+    protected final LongAdder staleHitCount = new LongAdder();
+    protected final LongAdder missCount = new LongAdder();
+    protected final LongAdder refreshCount = new LongAdder();
+    protected final LongAdder storeCount = new LongAdder();
+    protected final LongAdder storeRejectedCount = new LongAdder();
+
+    /**
+     * Creates a new instance. Use {@link #newBuilder()} unless you need to pass in the allocator or clock.
+     *
+     * @param maxEntries The maximum number of cached responses. Must be greater than 0.
+     * @param maxEntryBodyBytes Responses with bigger bodies than this are not cached. Must be greater than 0.
+     * @param maxTotalBodyBytes The maximum total size of all the cached bodies. Must be at least maxEntryBodyBytes.
+     * @param maxTtlMillis The longest a response is considered fresh, no matter what its {@code max-age} says. Must be
+     * greater than 0.
+     * @param defaultStaleWhileRevalidateMillis How long an expired response is served while it's refreshed, for
+     * responses that don't have a {@code stale-while-revalidate} directive. Cannot be negative.
+     * @param allocator The allocator for the cached bodies. Can be null, in which case {@link
+     * PooledByteBufAllocator#DEFAULT} is used.
+     * @param currentTimeMillisSupplier The clock. Can be null, in which case {@link System#currentTimeMillis()} is used.
+     */
+    public ProxyResponseMicroCache(int maxEntries, int maxEntryBodyBytes, long maxTotalBodyBytes, long maxTtlMillis,
+                                   long defaultStaleWhileRevalidateMillis, ByteBufAllocator allocator,
+                                   LongSupplier currentTimeMillisSupplier) {
+        if (maxEntries <= 0)
+            throw new IllegalArgumentException("maxEntries must be greater than 0. maxEntries=" + maxEntries);
+
+        if (maxEntryBodyBytes <= 0) {
+            throw new IllegalArgumentException("maxEntryBodyBytes must be greater than 0. maxEntryBodyBytes="
+                                               + maxEntryBodyBytes);
+        }
+
+        if (maxTotalBodyBytes < maxEntryBodyBytes) {
+            throw new IllegalArgumentException("maxTotalBodyBytes must be at least maxEntryBodyBytes. "
+                                               + "maxTotalBodyBytes=" + maxTotalBodyBytes);
+        }
+
+        if (maxTtlMillis <= 0)
+            throw new IllegalArgumentException("maxTtlMillis must be greater than 0. maxTtlMillis=" + maxTtlMillis);
+
+        if (defaultStaleWhileRevalidateMillis < 0) {
+            throw new IllegalArgumentException("defaultStaleWhileRevalidateMillis cannot be negative. "
+                                               + "defaultStaleWhileRevalidateMillis="
+                                               + defaultStaleWhileRevalidateMillis);
+        }
+
+        this.maxEntries = maxEntries;
+        this.maxEntryBodyBytes = maxEntryBodyBytes;
+        this.maxTotalBodyBytes = maxTotalBodyBytes;
+        this.maxTtlMillis = maxTtlMillis;
+        this.defaultStaleWhileRevalidateMillis = defaultStaleWhileRevalidateMillis;
+        this.allocator = (allocator == null) ? PooledByteBufAllocator.DEFAULT : allocator;
+        this.currentTimeMillisSupplier = (currentTimeMillisSupplier == null)
+                                         ? System::currentTimeMillis
+                                         : currentTimeMillisSupplier;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * @return true if the given request can be served from (and stored in) this cache: a bodiless GET without an
+     * {@code Authorization} header that isn't asking to bypass caches.
+     */
+    public boolean isCacheableRequest(HttpRequest request) {
+        if (!"GET".equals(request.getMethod().name())
+            || !StreamingAsyncHttpClient.isBodilessRequest(request)
+            || request.headers().contains(HttpHeaders.Names.AUTHORIZATION)) {
+            return false;
+        }
+
+        for (String directive : cacheControlDirectives(request.headers())) {
+            if ("no-cache".equals(directive) || "no-store".equals(directive))
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return The key for the given downstream request, ignoring {@code Vary}.
+     */
+    public String baseKey(String downstreamHost, int downstreamPort, boolean isSecureHttpsCall, HttpRequest request) {
+        return ((isSecureHttpsCall) ? "https://" : "http://") + downstreamHost + ":" + downstreamPort
+               + request.getUri();
+    }
+
+    /**
+     * @return The cached response for the given base key and request headers if it's still fresh or servable stale,
+     * or null. Entries that are past their stale window are removed.
+     */
+    public CachedResponse lookup(String baseKey, HttpHeaders requestHeaders) {
+        List<String> varyHeaderNames = varyHeaderNamesByBaseKey.get(baseKey);
+        if (varyHeaderNames == null)
+            return null;
+
+        String key = fullKey(baseKey, varyHeaderNames, requestHeaders);
+        CachedResponse entry = entriesByKey.get(key);
+        if (entry == null)
+            return null;
+
+        if (entry.isExpired(currentTimeMillis())) {
+            removeEntry(key, entry);
+            return null;
+        }
+
+        return entry;
+    }
+
+    /**
+     * @return A recorder for the response to the given request, which will store the response in this cache if it
+     * turns out to be cacheable.
+     */
+    public ResponseRecorder newRecorder(String baseKey, HttpHeaders requestHeaders) {
+        return new ResponseRecorder(baseKey, requestHeaders);
+    }
+
+    protected String fullKey(String baseKey, List<String> varyHeaderNames, HttpHeaders requestHeaders) {
+        if (varyHeaderNames.isEmpty())
+            return baseKey;
+
+        StringBuilder sb = new StringBuilder(baseKey);
+        for (String headerName : varyHeaderNames) {
+            sb.append('\n').append(headerName).append('=');
+            List<String> values = requestHeaders.getAll(headerName);
+            if (values != null)
+                sb.append(String.join(",", values));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return The lower case directives from the {@code Cache-Control} headers in the given headers.
+     */
+    protected static List<String> cacheControlDirectives(HttpHeaders headers) {
+        List<String> values = headers.getAll(HttpHeaders.Names.CACHE_CONTROL);
+        if (values == null || values.isEmpty())
+            return Collections.emptyList();
+
+        List<String> directives = new ArrayList<>();
+        for (String value : values) {
+            for (String directive : value.split(",")) {
+                String trimmed = directive.trim().toLowerCase(Locale.US);
+                if (!trimmed.isEmpty())
+                    directives.add(trimmed);
+            }
+        }
+        return directives;
+    }
+
+    /**
+     * @return The value in seconds of the given directive (e.g. {@code max-age}), or -1 if it's missing or invalid.
+     */
+    protected static long directiveSeconds(List<String> directives, String name) {
+        String prefix = name + "=";
+        for (String directive : directives) {
+            if (directive.startsWith(prefix)) {
+                try {
+                    return Long.parseLong(directive.substring(prefix.length()).replace("\"", "").trim());
+                }
+                catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return How long the given response is fresh in milliseconds (capped at {@link #maxTtlMillis}), or 0 if it
+     * can't be cached.
+     */
+    protected long freshnessMillis(HttpResponse response) {
+        HttpHeaders headers = response.headers();
+        if (response.getStatus().code() != HttpResponseStatus.OK.code()
+            || headers.contains(HttpHeaders.Names.SET_COOKIE)) {
+            return 0;
+        }
+
+        List<String> varyValues = headers.getAll(HttpHeaders.Names.VARY);
+        if (varyValues != null) {
+            for (String vary : varyValues) {
+                if (vary.trim().equals("*"))
+                    return 0;
+            }
+        }
+
+        List<String> directives = cacheControlDirectives(headers);
+        for (String directive : directives) {
+            if ("no-store".equals(directive) || "no-cache".equals(directive) || "private".equals(directive))
+                return 0;
+        }
+
+        long maxAgeSeconds = directiveSeconds(directives, "s-maxage");
+        if (maxAgeSeconds < 0)
+            maxAgeSeconds = directiveSeconds(directives, "max-age");
+
+        if (maxAgeSeconds <= 0)
+            return 0;
+
+        return Math.min(TimeUnit.SECONDS.toMillis(maxAgeSeconds), maxTtlMillis);
+    }
+
+    protected long staleWhileRevalidateMillis(HttpResponse response) {
+        long seconds = directiveSeconds(cacheControlDirectives(response.headers()), "stale-while-revalidate");
+        return (seconds < 0) ? defaultStaleWhileRevalidateMillis : TimeUnit.SECONDS.toMillis(seconds);
+    }
+
+    protected static List<String> varyHeaderNames(HttpHeaders responseHeaders) {
+        List<String> varyValues = responseHeaders.getAll(HttpHeaders.Names.VARY);
+        if (varyValues == null || varyValues.isEmpty())
+            return Collections.emptyList();
+
+        List<String> names = new ArrayList<>();
+        for (String value : varyValues) {
+            for (String name : value.split(",")) {
+                String trimmed = name.trim().toLowerCase(Locale.US);
+                if (!trimmed.isEmpty() && !names.contains(trimmed))
+                    names.add(trimmed);
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * Stores the given entry, replacing any existing entry for the same key.
+     *
+     * @return true if the entry was stored, false if it didn't fit (in which case its body has been released).
+     */
+    protected boolean store(String baseKey, List<String> varyHeaderNames, HttpHeaders requestHeaders,
+                            CachedResponse entry) {
+        int bodyBytes = entry.body.readableBytes();
+        if (!hasRoomFor(bodyBytes)) {
+            sweepExpiredEntries();
+            if (!hasRoomFor(bodyBytes)) {
+                storeRejectedCount.increment();
+                entry.release();
+                return false;
+            }
+        }
+
+        varyHeaderNamesByBaseKey.put(baseKey, varyHeaderNames);
+        totalBodyBytes.addAndGet(bodyBytes);
+        CachedResponse previous = entriesByKey.put(fullKey(baseKey, varyHeaderNames, requestHeaders), entry);
+        if (previous != null) {
+            totalBodyBytes.addAndGet(-previous.body.readableBytes());
+            previous.release();
+        }
+
+        storeCount.increment();
+        return true;
+    }
+
+    protected boolean hasRoomFor(int bodyBytes) {
+        return entriesByKey.size() < maxEntries && totalBodyBytes.get() + bodyBytes <= maxTotalBodyBytes;
+    }
+
+    /**
+     * Removes (and releases) every entry that's past its stale window.
+     */
+    public void sweepExpiredEntries() {
+        long now = currentTimeMillis();
+        Iterator<Map.Entry<String, CachedResponse>> iterator = entriesByKey.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, CachedResponse> mapEntry = iterator.next();
+            if (mapEntry.getValue().isExpired(now))
+                removeEntry(mapEntry.getKey(), mapEntry.getValue());
+        }
+    }
+
+    protected void removeEntry(String key, CachedResponse entry) {
+        if (entriesByKey.remove(key, entry)) {
+            totalBodyBytes.addAndGet(-entry.body.readableBytes());
+            entry.release();
+        }
+    }
+
+    protected long currentTimeMillis() {
+        return currentTimeMillisSupplier.getAsLong();
+    }
+
+    protected void recordHit(boolean stale) {
+        if (stale)
+            staleHitCount.increment();
+        else
+            hitCount.increment();
+    }
+
+    protected void recordMiss() {
+        missCount.increment();
+    }
+
+    protected void recordRefresh() {
+        refreshCount.increment();
+    }
+
+    /**
+     * @return The number of requests served a fresh cached response.
+     */
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * @return The number of requests served a stale cached response while it was refreshed.
+     */
+    public long getStaleHitCount() {
+        return staleHitCount.sum();
+    }
+
+    /**
+     * @return The number of cacheable requests that had to go downstream.
+     */
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * @return The number of background refreshes started for stale entries.
+     */
+    public long getRefreshCount() {
+        return refreshCount.sum();
+    }
+
+    /**
+     * @return The number of responses stored in the cache.
+     */
+    public long getStoreCount() {
+        return storeCount.sum();
+    }
+
+    /**
+     * @return The number of cacheable responses that were dropped because the cache was full.
+     */
+    public long getStoreRejectedCount() {
+        return storeRejectedCount.sum();
+    }
+
+    /**
+     * @return The number of responses currently cached.
+     */
+    public int getEntryCount() {
+        return entriesByKey.size();
+    }
+
+    /**
+     * @return The total size of the currently cached bodies.
+     */
+    public long getTotalBodyBytes() {
+        return totalBodyBytes.get();
+    }
+
+    /**
+     * A cached response. The body is owned by the cache, and released when the entry is replaced or removed - use
+     * {@link #retainedBody()} to get a handle on it that's safe to send.
+     */
+    public static class CachedResponse {
+        public final HttpVersion protocolVersion;
+        public final HttpResponseStatus status;
+        public final HttpHeaders headers;
+        protected final ByteBuf body;
+        public final long storedAtMillis;
+        public final long freshUntilMillis;
+        public final long staleUntilMillis;
+        protected final AtomicBoolean refreshInProgress = new AtomicBoolean(false);
+        protected boolean released = false;
+
+        protected CachedResponse(HttpVersion protocolVersion, HttpResponseStatus status, HttpHeaders headers,
+                                 ByteBuf body, long storedAtMillis, long freshUntilMillis, long staleUntilMillis) {
+            this.protocolVersion = protocolVersion;
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+            this.storedAtMillis = storedAtMillis;
+            this.freshUntilMillis = freshUntilMillis;
+            this.staleUntilMillis = staleUntilMillis;
+        }
+
+        public boolean isFresh(long nowMillis) {
+            return nowMillis < freshUntilMillis;
+        }
+
+        public boolean isExpired(long nowMillis) {
+            return nowMillis >= staleUntilMillis;
+        }
+
+        /**
+         * @return A new response (with an {@code Age} header) for serving this entry.
+         */
+        public HttpResponse newResponse(long nowMillis) {
+            HttpResponse response = new DefaultHttpResponse(protocolVersion, status);
+            response.headers().set(headers);
+            response.headers().set(HttpHeaders.Names.AGE, Math.max(0, (nowMillis - storedAtMillis) / 1000));
+            return response;
+        }
+
+        /**
+         * @return A retained duplicate of the body that the caller must release (e.g. by writing it), or null if the
+         * entry was removed from the cache in the meantime.
+         */
+        public synchronized ByteBuf retainedBody() {
+            if (released)
+                return null;
+
+            return body.duplicate().retain();
+        }
+
+        /**
+         * @return true if the caller should refresh this entry - i.e. no other refresh is in progress.
+         */
+        protected boolean tryStartRefresh() {
+            return refreshInProgress.compareAndSet(false, true);
+        }
+
+        protected void refreshFinished() {
+            refreshInProgress.set(false);
+        }
+
+        protected synchronized void release() {
+            if (!released) {
+                released = true;
+                body.release();
+            }
+        }
+    }
+
+    /**
+     * Copies a response from the downstream service into a pooled buffer as it streams through, and stores it in the
+     * cache once the last chunk arrives if it's cacheable and fits.
+     */
+    public class ResponseRecorder {
+        protected final String baseKey;
+        protected final HttpHeaders requestHeaders;
+        protected HttpResponse response;
+        protected long freshnessMillis;
+        protected ByteBuf body;
+        protected boolean done = false;
+
+        protected ResponseRecorder(String baseKey, HttpHeaders requestHeaders) {
+            this.baseKey = baseKey;
+            // Copy the headers we might need for the Vary key, since the request gets modified as it's sent.
+            this.requestHeaders = new DefaultHttpHeaders().set(requestHeaders);
+        }
+
+        /**
+         * Looks at the given response message, copying it if it's part of a cacheable response. Call this before
+         * passing the message on, since the receiver is free to modify it.
+         *
+         * @return true if the message was the last chunk of a cacheable response and the response was stored.
+         */
+        public synchronized boolean record(Object msg) {
+            if (done)
+                return false;
+
+            if (msg instanceof HttpResponse) {
+                HttpResponse original = (HttpResponse) msg;
+                freshnessMillis = freshnessMillis(original);
+                if (freshnessMillis <= 0) {
+                    done = true;
+                    return false;
+                }
+
+                response = new DefaultHttpResponse(original.getProtocolVersion(), original.getStatus());
+                response.headers().set(original.headers());
+                body = allocator.buffer();
+            }
+
+            if (msg instanceof HttpContent && body != null) {
+                ByteBuf content = ((HttpContent) msg).content();
+                if (body.readableBytes() + content.readableBytes() > maxEntryBodyBytes) {
+                    abandon();
+                    return false;
+                }
+
+                body.writeBytes(content, content.readerIndex(), content.readableBytes());
+
+                if (msg instanceof LastHttpContent)
+                    return finish();
+            }
+
+            return false;
+        }
+
+        protected boolean finish() {
+            done = true;
+            long now = currentTimeMillis();
+            long freshUntil = now + freshnessMillis;
+            CachedResponse entry = new CachedResponse(
+                response.getProtocolVersion(), response.getStatus(), response.headers(), body, now, freshUntil,
+                freshUntil + staleWhileRevalidateMillis(response)
+            );
+            body = null;
+            return store(baseKey, varyHeaderNames(response.headers()), requestHeaders, entry);
+        }
+
+        /**
+         * Stops recording and releases anything recorded so far. Call this if the downstream call fails.
+         */
+        public synchronized void abandon() {
+            done = true;
+            if (body != null) {
+                body.release();
+                body = null;
+            }
+        }
+    }
+
+    public static final class Builder {
+
+        private int maxEntries = DEFAULT_MAX_ENTRIES;
+        private int maxEntryBodyBytes = DEFAULT_MAX_ENTRY_BODY_BYTES;
+        private long maxTotalBodyBytes = DEFAULT_MAX_TOTAL_BODY_BYTES;
+        private long maxTtlMillis = DEFAULT_MAX_TTL_MILLIS;
+        private long defaultStaleWhileRevalidateMillis = DEFAULT_STALE_WHILE_REVALIDATE_MILLIS;
+
+        private Builder() {
+        }
+
+        public Builder withMaxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        public Builder withMaxEntryBodyBytes(int maxEntryBodyBytes) {
+            this.maxEntryBodyBytes = maxEntryBodyBytes;
+            return this;
+        }
+
+        public Builder withMaxTotalBodyBytes(long maxTotalBodyBytes) {
+            this.maxTotalBodyBytes = maxTotalBodyBytes;
+            return this;
+        }
+
+        public Builder withMaxTtlMillis(long maxTtlMillis) {
+            this.maxTtlMillis = maxTtlMillis;
+            return this;
+        }
+
+        public Builder withDefaultStaleWhileRevalidateMillis(long defaultStaleWhileRevalidateMillis) {
+            this.defaultStaleWhileRevalidateMillis = defaultStaleWhileRevalidateMillis;
+            return this;
+        }
+
+        public ProxyResponseMicroCache build() {
+            return new ProxyResponseMicroCache(
+                maxEntries, maxEntryBodyBytes, maxTotalBodyBytes, maxTtlMillis, defaultStaleWhileRevalidateMillis,
+                null, null
+            );
+        }
+    }
+}
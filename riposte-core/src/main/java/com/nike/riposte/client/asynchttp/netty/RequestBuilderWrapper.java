@@ -0,0 +1,291 @@
+package com.nike.riposte.client.asynchttp.netty;
+
+import com.nike.fastbreak.CircuitBreaker;
+import com.nike.riposte.client.hedging.HedgingPolicy;
+import com.nike.riposte.client.retry.RetryPolicy;
+
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+
+/**
+ * The request for a downstream call made by {@link AsyncHttpClientHelper}, along with the URL, HTTP method, and
+ * circuit breaker, hedging, and retry settings for the call. Generate one of these by calling one of the
+ * request-starter methods in {@link AsyncHttpClientHelper}, e.g. {@link
+ * AsyncHttpClientHelper#getRequestBuilder(String, HttpMethod)}. From there you'll want to set any headers, add request
+ * body, or adjust anything else about the request before passing it into {@link
+ * AsyncHttpClientHelper#executeAsyncHttpRequest(RequestBuilderWrapper, AsyncResponseHandler, ChannelHandlerContext)}.
+ * <p/>
+ * This mirrors the {@code RequestBuilderWrapper} from the Ning-based {@code riposte-async-http-client} module, except
+ * that the request is built directly on this class rather than on a wrapped Ning request builder.
+ */
+@SuppressWarnings({"WeakerAccess", "OptionalUsedAsFieldOrParameterType"})
+public class RequestBuilderWrapper {
+
+    String url;
+    String httpMethod;
+    String host;
+    int port;
+    boolean isHttps;
+    /**
+     * The path and query string of the {@link #url}, i.e. the URI that goes in the request line.
+     */
+    String uri;
+    protected final HttpHeaders headers = new DefaultHttpHeaders();
+    protected byte[] body;
+    /**
+     * The timeout for the call in milliseconds, or 0 if {@link AsyncHttpClientHelper#DEFAULT_REQUEST_TIMEOUT_MILLIS}
+     * should be used.
+     */
+    protected long requestTimeoutMillis;
+    protected boolean relaxedHttpsValidation;
+    /**
+     * An Optional containing a custom circuit breaker if a custom one should be used, or empty if the request sender
+     * should use a default circuit breaker. If you don't want *any* circuit breaker to be used, set {@link
+     * #disableCircuitBreaker} to true. The default circuit breaker will be based on the host value of the {@link #url}
+     * (i.e. all calls to the same host will use the same circuit breaker). If you need something more (or less) fine
+     * grained than that then you'll need to provide a custom circuit breaker.
+     */
+    Optional<CircuitBreaker<HttpResponse>> customCircuitBreaker;
+    /**
+     * Set this to true if you don't want *any* circuit breaker to be used - if this is false then {@link
+     * #customCircuitBreaker} will be used to determine which circuit breaker to use (custom vs. default).
+     */
+    boolean disableCircuitBreaker;
+    /**
+     * The policy to use for hedging the call, or null if the call should not be hedged. See {@link HedgingPolicy}.
+     */
+    HedgingPolicy hedgingPolicy;
+    /**
+     * The policy to use for retrying the call when it fails in a way that's known to be safe to retry, or null if the
+     * call should not be retried. See {@link RetryPolicy}.
+     */
+    RetryPolicy retryPolicy;
+
+    private ChannelHandlerContext ctx;
+
+    /**
+     * Intentionally package-scoped. Instances of this class are generated and returned by calling one of the
+     * request-starter methods in {@link AsyncHttpClientHelper}, e.g. {@link
+     * AsyncHttpClientHelper#getRequestBuilder(String, HttpMethod)}.
+     */
+    RequestBuilderWrapper(
+        String url, String httpMethod, Optional<CircuitBreaker<HttpResponse>> customCircuitBreaker,
+        boolean disableCircuitBreaker
+    ) {
+        setUrl(url);
+        setHttpMethod(httpMethod);
+        this.customCircuitBreaker = customCircuitBreaker;
+        this.disableCircuitBreaker = disableCircuitBreaker;
+    }
+
+    ChannelHandlerContext getCtx() {
+        return ctx;
+    }
+
+    void setCtx(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+    }
+
+    /**
+     * Sets the URL for the call, replacing the previous one. Only absolute http and https URLs are supported - an
+     * {@link IllegalArgumentException} will be thrown for anything else.
+     */
+    public void setUrl(String url) {
+        if (url == null)
+            throw new IllegalArgumentException("url cannot be null");
+
+        URI parsedUrl = URI.create(url);
+        String scheme = parsedUrl.getScheme();
+        if (!"http".equalsIgnoreCase(scheme) && !"https".equalsIgnoreCase(scheme))
+            throw new IllegalArgumentException("Only http and https URLs are supported. url: " + url);
+
+        if (parsedUrl.getHost() == null)
+            throw new IllegalArgumentException("The url must contain a host. url: " + url);
+
+        String path = parsedUrl.getRawPath();
+        if (path == null || path.isEmpty())
+            path = "/";
+
+        this.url = url;
+        this.isHttps = "https".equalsIgnoreCase(scheme);
+        this.host = parsedUrl.getHost();
+        this.port = (parsedUrl.getPort() == -1) ? (isHttps ? 443 : 80) : parsedUrl.getPort();
+        this.uri = (parsedUrl.getRawQuery() == null) ? path : path + "?" + parsedUrl.getRawQuery();
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setHttpMethod(String httpMethod) {
+        if (httpMethod == null)
+            throw new IllegalArgumentException("httpMethod cannot be null");
+
+        this.httpMethod = httpMethod;
+    }
+
+    public String getHttpMethod() {
+        return httpMethod;
+    }
+
+    /**
+     * Sets the given header on the request, replacing any existing values for it.
+     */
+    public RequestBuilderWrapper setHeader(String name, Object value) {
+        headers.set(name, value);
+        return this;
+    }
+
+    /**
+     * Adds the given header to the request, keeping any existing values for it.
+     */
+    public RequestBuilderWrapper addHeader(String name, Object value) {
+        headers.add(name, value);
+        return this;
+    }
+
+    /**
+     * @return The request's headers. This is the live header object, so changes to it will show up in the request.
+     * Don't set the Host header here - it's always set from the {@link #getUrl()}.
+     */
+    public HttpHeaders getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Sets the request body. Pass in null to send the request without a body.
+     */
+    public RequestBuilderWrapper setBody(byte[] body) {
+        this.body = body;
+        return this;
+    }
+
+    /**
+     * Sets the request body to the given string encoded as UTF-8. Pass in null to send the request without a body.
+     */
+    public RequestBuilderWrapper setBody(String body) {
+        return setBody(body, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Sets the request body to the given string encoded with the given charset. Pass in null to send the request
+     * without a body.
+     */
+    public RequestBuilderWrapper setBody(String body, Charset charset) {
+        return setBody((body == null) ? null : body.getBytes(charset));
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * Sets the timeout for the call in milliseconds. Pass in 0 to use {@link
+     * AsyncHttpClientHelper#DEFAULT_REQUEST_TIMEOUT_MILLIS}.
+     */
+    public RequestBuilderWrapper setRequestTimeoutMillis(long requestTimeoutMillis) {
+        if (requestTimeoutMillis < 0)
+            throw new IllegalArgumentException("requestTimeoutMillis cannot be negative");
+
+        this.requestTimeoutMillis = requestTimeoutMillis;
+        return this;
+    }
+
+    public long getRequestTimeoutMillis() {
+        return requestTimeoutMillis;
+    }
+
+    /**
+     * Pass in true to skip validating the downstream server's certificate for https calls. Note that the HTTPS
+     * context is shared by all calls made by the underlying {@link StreamingAsyncHttpClient} and is created the first
+     * time it's needed, so the value for the first https call wins.
+     */
+    public RequestBuilderWrapper setRelaxedHttpsValidation(boolean relaxedHttpsValidation) {
+        this.relaxedHttpsValidation = relaxedHttpsValidation;
+        return this;
+    }
+
+    public boolean isRelaxedHttpsValidation() {
+        return relaxedHttpsValidation;
+    }
+
+    public void setCustomCircuitBreaker(Optional<CircuitBreaker<HttpResponse>> customCircuitBreaker) {
+        this.customCircuitBreaker = customCircuitBreaker;
+    }
+
+    public Optional<CircuitBreaker<HttpResponse>> getCustomCircuitBreaker() {
+        return customCircuitBreaker;
+    }
+
+    public void setDisableCircuitBreaker(boolean disableCircuitBreaker) {
+        this.disableCircuitBreaker = disableCircuitBreaker;
+    }
+
+    public boolean isDisableCircuitBreaker() {
+        return disableCircuitBreaker;
+    }
+
+    /**
+     * Set this to a {@link HedgingPolicy} if you want the call to be hedged when it's slow to respond. Defaults to null
+     * (no hedging). Only calls with an idempotent HTTP method and no body are hedged. The policy should be shared by
+     * all the calls it applies to, since it tracks their latency and hedge budget.
+     */
+    public void setHedgingPolicy(HedgingPolicy hedgingPolicy) {
+        this.hedgingPolicy = hedgingPolicy;
+    }
+
+    public HedgingPolicy getHedgingPolicy() {
+        return hedgingPolicy;
+    }
+
+    /**
+     * Set this to a {@link RetryPolicy} if you want the call to be retried when it fails before the downstream service
+     * could have acted on it. Defaults to null (no retries). Connection failures are retried for any call, and
+     * connections that close or reset before the response starts are retried for calls with an idempotent HTTP method
+     * and no body. Hedged calls are not retried. The policy should be shared by all the calls it applies to, since it
+     * tracks their retry budget.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * @return The first chunk of the request, i.e. the request line and headers. Only has a Content-Length header if
+     * the request has a body, so that bodiless requests are eligible for hedging and retries.
+     */
+    HttpRequest createInitialRequestChunk() {
+        HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.valueOf(httpMethod), uri);
+        request.headers().set(headers);
+        if (body != null)
+            HttpHeaders.setContentLength(request, body.length);
+
+        return request;
+    }
+
+    /**
+     * @return The last chunk of the request, containing the body if there is one.
+     */
+    LastHttpContent createLastRequestChunk() {
+        return (body == null || body.length == 0)
+               ? LastHttpContent.EMPTY_LAST_CONTENT
+               : new DefaultLastHttpContent(Unpooled.wrappedBuffer(body));
+    }
+}
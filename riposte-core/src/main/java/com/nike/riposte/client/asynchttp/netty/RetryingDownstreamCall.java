@@ -0,0 +1,450 @@
+package com.nike.riposte.client.asynchttp.netty;
+
+import com.nike.backstopper.exception.WrapperException;
+import com.nike.riposte.client.asynchttp.netty.StreamingAsyncHttpClient.StreamingCallback;
+import com.nike.riposte.client.asynchttp.netty.StreamingAsyncHttpClient.StreamingChannel;
+import com.nike.riposte.client.retry.RetryPolicy;
+import com.nike.riposte.server.error.exception.DownstreamChannelClosedUnexpectedlyException;
+import com.nike.riposte.server.error.exception.DownstreamRequestNotSentException;
+import com.nike.riposte.server.error.exception.NativeIoExceptionWrapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import static com.nike.riposte.util.AsyncNettyHelper.runnableWithTracingAndMdc;
+
+/**
+ * Runs a single downstream call for {@link StreamingAsyncHttpClient#streamDownstreamCall(String, int, HttpRequest,
+ * boolean, boolean, StreamingCallback, long, boolean, boolean, ChannelHandlerContext,
+ * com.nike.riposte.client.hedging.HedgingPolicy, RetryPolicy)}, retrying it according to the given {@link RetryPolicy}
+ * when it fails in a way that's known to be safe to retry. Each retry waits for the policy's jittered backoff and then
+ * goes to a different address for the same host if there is one.
+ *
+ * <p>Two kinds of failures are retried:
+ * <ul>
+ *     <li>
+ *         Failures before the request was sent - the connection couldn't be made, or the first chunk of the request
+ *         couldn't be written to a pooled connection that had gone stale (see {@link
+ *         DownstreamRequestNotSentException}). These are retried for any request, since the returned future hasn't
+ *         completed yet and the caller hasn't streamed any of the request body.
+ *     </li>
+ *     <li>
+ *         The connection closing or being reset after the request was sent but before any of the response arrived.
+ *         The downstream service might have received the request in this case, so these are only retried for bodiless
+ *         requests with an idempotent HTTP method. For those requests this class sends the (empty) last chunk of the
+ *         request to each call itself, and the returned future is completed with a {@link RetryingStreamingChannel}
+ *         that stands in for whichever call is current and ignores the chunks streamed to it.
+ *     </li>
+ * </ul>
+ *
+ * <p>Errors from a call that's being retried are not passed to the real {@link StreamingCallback}, so they don't count
+ * against the circuit breaker. If a failure can't be retried (or the retry budget is exhausted) then it's passed along
+ * exactly as it would have been without retries.
+ */
+@SuppressWarnings("WeakerAccess")
+public class RetryingDownstreamCall {
+
+    private static final Logger logger = LoggerFactory.getLogger(RetryingDownstreamCall.class);
+
+    protected final StreamingAsyncHttpClient client;
+    protected final RetryPolicy retryPolicy;
+    protected final String downstreamHost;
+    protected final int downstreamPort;
+    protected final HttpRequest initialRequestChunk;
+    protected final boolean isSecureHttpsCall;
+    protected final boolean relaxedHttpsValidation;
+    protected final StreamingCallback callback;
+    protected final long downstreamCallTimeoutMillis;
+    protected final boolean performSubSpanAroundDownstreamCalls;
+    protected final boolean addTracingHeadersToDownstreamCall;
+    protected final ChannelHandlerContext ctx;
+    /**
+     * The routing key that picks the downstream address via the host's consistent hash ring, or null for normal
+     * address balancing.
+     */
+    protected final String routingKey;
+    /**
+     * True if the call can be retried after its request was sent, i.e. it's a bodiless request with an idempotent HTTP
+     * method.
+     */
+    protected final boolean canRetryAfterRequestSent;
+    protected final CompletableFuture<StreamingChannel> result = new CompletableFuture<>();
+
+    // All of the following are guarded by synchronizing on this.
+    protected Attempt currentAttempt;
+    protected int retryCount = 0;
+    /**
+     * True once the outcome of the call has been decided - an error was passed along, or the whole call was closed via
+     * {@link RetryingStreamingChannel#closeChannelDueToUnrecoverableError(Throwable)}.
+     */
+    protected boolean finished = false;
+    protected ScheduledFuture<?> retryTimer;
+
+    public RetryingDownstreamCall(StreamingAsyncHttpClient client, RetryPolicy retryPolicy, String downstreamHost,
+                                  int downstreamPort, HttpRequest initialRequestChunk, boolean isSecureHttpsCall,
+                                  boolean relaxedHttpsValidation, StreamingCallback callback,
+                                  long downstreamCallTimeoutMillis, boolean performSubSpanAroundDownstreamCalls,
+                                  boolean addTracingHeadersToDownstreamCall, ChannelHandlerContext ctx,
+                                  String routingKey) {
+        this.client = client;
+        this.retryPolicy = retryPolicy;
+        this.downstreamHost = downstreamHost;
+        this.downstreamPort = downstreamPort;
+        this.initialRequestChunk = initialRequestChunk;
+        this.isSecureHttpsCall = isSecureHttpsCall;
+        this.relaxedHttpsValidation = relaxedHttpsValidation;
+        this.callback = callback;
+        this.downstreamCallTimeoutMillis = downstreamCallTimeoutMillis;
+        this.performSubSpanAroundDownstreamCalls = performSubSpanAroundDownstreamCalls;
+        this.addTracingHeadersToDownstreamCall = addTracingHeadersToDownstreamCall;
+        this.ctx = ctx;
+        this.routingKey = routingKey;
+        this.canRetryAfterRequestSent =
+            retryPolicy.isIdempotentHttpMethod(initialRequestChunk.getMethod().name())
+            && StreamingAsyncHttpClient.isBodilessRequest(initialRequestChunk);
+    }
+
+    /**
+     * Starts the first call.
+     *
+     * @return A future that completes the same way as the future from {@link
+     * StreamingAsyncHttpClient#streamDownstreamCall(String, int, HttpRequest, boolean, boolean, StreamingCallback,
+     * long, boolean, boolean, ChannelHandlerContext)} would, except that it only fails once the call can't be retried
+     * any more. If {@link #canRetryAfterRequestSent} is true it's completed with a {@link RetryingStreamingChannel}.
+     */
+    public CompletableFuture<StreamingChannel> start() {
+        retryPolicy.onCallStarted();
+        startAttempt(null);
+        return result;
+    }
+
+    protected void startAttempt(InetSocketAddress addressToAvoid) {
+        Attempt attempt = new Attempt();
+        synchronized (this) {
+            if (finished)
+                return;
+
+            currentAttempt = attempt;
+        }
+
+        client.doStreamDownstreamCall(
+            downstreamHost, downstreamPort, initialRequestChunk, isSecureHttpsCall, relaxedHttpsValidation,
+            attempt.callback, downstreamCallTimeoutMillis, performSubSpanAroundDownstreamCalls,
+            addTracingHeadersToDownstreamCall, ctx, addressToAvoid, routingKey
+        ).whenComplete((sc, error) -> {
+            if (error == null)
+                onAttemptConnected(attempt, sc);
+            else
+                onAttemptNotSent(attempt, unwrap(error));
+        });
+    }
+
+    protected void onAttemptConnected(Attempt attempt, StreamingChannel sc) {
+        boolean abandon;
+        Throwable pendingError;
+        synchronized (this) {
+            attempt.streamingChannel = sc;
+            abandon = finished;
+            pendingError = attempt.pendingError;
+            attempt.pendingError = null;
+        }
+
+        if (abandon) {
+            // The whole call was closed while this attempt was connecting.
+            sc.abandonDownstreamCall(performSubSpanAroundDownstreamCalls);
+            return;
+        }
+
+        if (!canRetryAfterRequestSent) {
+            result.complete(sc);
+        }
+        else {
+            if (!result.isDone())
+                result.complete(new RetryingStreamingChannel(this, sc));
+
+            // The request is bodiless, so finish it off right away.
+            sc.streamChunk(LastHttpContent.EMPTY_LAST_CONTENT).addListener(future -> {
+                if (!future.isSuccess()) {
+                    try {
+                        attempt.callback.unrecoverableErrorOccurred(
+                            new WrapperException("Unable to send the last chunk of a retryable downstream request. "
+                                                 + "downstream_channel_id=" + sc.getChannel().toString(),
+                                                 future.cause()),
+                            false
+                        );
+                    }
+                    finally {
+                        sc.closeChannelDueToUnrecoverableError(future.cause());
+                    }
+                }
+            });
+        }
+
+        // An error came through the callback before the connection future completed - handle it now that we know the
+        //      request was sent.
+        if (pendingError != null)
+            onAttemptError(attempt, pendingError, true);
+    }
+
+    protected void onAttemptNotSent(Attempt attempt, Throwable error) {
+        synchronized (this) {
+            // Any error that came through the callback belongs to this failure.
+            attempt.pendingError = null;
+        }
+
+        if (error instanceof DownstreamRequestNotSentException
+            && scheduleRetry(attempt, ((DownstreamRequestNotSentException) error).downstreamAddress, error)) {
+            return;
+        }
+
+        fail(error, true);
+    }
+
+    protected void onAttemptMessageReceived(Attempt attempt, HttpObject msg) {
+        boolean deliver;
+        synchronized (this) {
+            deliver = !attempt.retried;
+            attempt.responseStarted = true;
+        }
+
+        // Messages from an attempt that's being retried are dropped. The downstream channel's handler releases every
+        //      message after passing it to the callback, so there's nothing to release here.
+        if (deliver)
+            callback.messageReceived(msg);
+    }
+
+    protected void onAttemptError(Attempt attempt, Throwable error, boolean guaranteesBrokenDownstreamResponse) {
+        boolean canRetry;
+        synchronized (this) {
+            if (attempt.retried)
+                return;
+
+            if (attempt.streamingChannel == null) {
+                // The connection future hasn't completed yet, so we don't know whether the request was sent. Hold on to
+                //      the error until we do.
+                if (attempt.pendingError == null)
+                    attempt.pendingError = error;
+                return;
+            }
+
+            canRetry = canRetryAfterRequestSent && !attempt.responseStarted && !finished;
+        }
+
+        if (canRetry && isRetryableAfterRequestSent(error)) {
+            SocketAddress remoteAddress = attempt.streamingChannel.getChannel().remoteAddress();
+            InetSocketAddress addressToAvoid =
+                (remoteAddress instanceof InetSocketAddress) ? (InetSocketAddress) remoteAddress : null;
+            if (scheduleRetry(attempt, addressToAvoid, error))
+                return;
+        }
+
+        fail(error, guaranteesBrokenDownstreamResponse);
+    }
+
+    /**
+     * @return true if the given error (or its cause, if it's a {@link WrapperException}) means the connection closed
+     * or was reset. Timeouts are deliberately not included - retrying a call that timed out would just pile more load
+     * onto a downstream service that's already struggling.
+     */
+    protected boolean isRetryableAfterRequestSent(Throwable error) {
+        if (error instanceof WrapperException && error.getCause() != null)
+            error = error.getCause();
+
+        return error instanceof DownstreamChannelClosedUnexpectedlyException
+               || error instanceof NativeIoExceptionWrapper
+               || error instanceof IOException;
+    }
+
+    /**
+     * Schedules a retry of the given (failed) attempt if the call isn't finished and the {@link #retryPolicy} allows
+     * it.
+     *
+     * @return true if a retry was scheduled, false if the failure should be passed along.
+     */
+    protected boolean scheduleRetry(Attempt attempt, InetSocketAddress addressToAvoid, Throwable error) {
+        long backoffMillis;
+        int retryNumber;
+        synchronized (this) {
+            if (finished || attempt != currentAttempt || !retryPolicy.tryAcquireRetry(retryCount + 1))
+                return false;
+
+            retryNumber = ++retryCount;
+            attempt.retried = true;
+            backoffMillis = retryPolicy.computeBackoffMillis(retryNumber);
+            retryTimer = ctx.executor().schedule(
+                () -> retryTimerFired(addressToAvoid), backoffMillis, TimeUnit.MILLISECONDS
+            );
+        }
+
+        runnableWithTracingAndMdc(
+            () -> logger.debug("Retrying downstream call. downstream_host={}:{}, retry_number={}, backoff_millis={}, "
+                               + "failed_address={}, error={}", downstreamHost, downstreamPort, retryNumber,
+                               backoffMillis, addressToAvoid, String.valueOf(error)),
+            ctx
+        ).run();
+
+        return true;
+    }
+
+    protected void retryTimerFired(InetSocketAddress addressToAvoid) {
+        synchronized (this) {
+            retryTimer = null;
+        }
+
+        try {
+            startAttempt(addressToAvoid);
+        }
+        catch (Throwable t) {
+            fail(t, true);
+        }
+    }
+
+    /**
+     * Passes the given error along - by failing the returned future if it hasn't completed yet, or through the real
+     * callback if it has.
+     */
+    protected void fail(Throwable error, boolean guaranteesBrokenDownstreamResponse) {
+        synchronized (this) {
+            finished = true;
+            cancelRetryTimer();
+        }
+
+        if (!result.completeExceptionally(error))
+            callback.unrecoverableErrorOccurred(error, guaranteesBrokenDownstreamResponse);
+    }
+
+    protected void closeAll(Throwable cause) {
+        StreamingChannel toClose;
+        synchronized (this) {
+            finished = true;
+            cancelRetryTimer();
+            toClose = currentAttempt.streamingChannel;
+        }
+
+        // An attempt that's still connecting will be abandoned by onAttemptConnected().
+        if (toClose != null)
+            toClose.closeChannelDueToUnrecoverableError(cause);
+    }
+
+    protected synchronized boolean isCallActive() {
+        if (retryTimer != null)
+            return true;
+
+        StreamingChannel sc = currentAttempt.streamingChannel;
+        return (sc == null) ? !finished : sc.isDownstreamCallActive();
+    }
+
+    /**
+     * @return The channel for the current attempt, or the given fallback channel if the current attempt hasn't
+     * connected yet.
+     */
+    protected synchronized Channel getCurrentChannel(Channel fallback) {
+        StreamingChannel sc = currentAttempt.streamingChannel;
+        return (sc == null) ? fallback : sc.getChannel();
+    }
+
+    protected void cancelRetryTimer() {
+        if (retryTimer != null) {
+            retryTimer.cancel(false);
+            retryTimer = null;
+        }
+    }
+
+    protected static Throwable unwrap(Throwable error) {
+        return (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error;
+    }
+
+    /**
+     * One of the calls made for a {@link RetryingDownstreamCall}.
+     */
+    protected class Attempt {
+        protected final StreamingCallback callback = new AttemptCallback(this);
+        protected StreamingChannel streamingChannel;
+        protected boolean responseStarted = false;
+        protected boolean retried = false;
+        protected Throwable pendingError;
+    }
+
+    /**
+     * Routes the events for one {@link Attempt} through the enclosing {@link RetryingDownstreamCall} so that events
+     * from attempts that are being retried don't make it to the real callback.
+     */
+    protected class AttemptCallback implements StreamingCallback {
+        protected final Attempt attempt;
+
+        protected AttemptCallback(Attempt attempt) {
+            this.attempt = attempt;
+        }
+
+        @Override
+        public void messageReceived(HttpObject msg) {
+            onAttemptMessageReceived(attempt, msg);
+        }
+
+        @Override
+        public void unrecoverableErrorOccurred(Throwable error, boolean guaranteesBrokenDownstreamResponse) {
+            onAttemptError(attempt, error, guaranteesBrokenDownstreamResponse);
+        }
+
+        @Override
+        public void cancelStreamingToOriginalCaller() {
+            callback.cancelStreamingToOriginalCaller();
+        }
+    }
+
+    /**
+     * The {@link StreamingChannel} handed back to the caller for a bodiless idempotent call that can be retried after
+     * its request was sent. It stands in for whichever attempt is current: closing it closes the current attempt (and
+     * cancels any pending retry), and it counts as active while a retry is pending. Since {@link
+     * RetryingDownstreamCall} sends the last chunk to each attempt itself, any chunks streamed to this channel are
+     * released and ignored.
+     */
+    public static class RetryingStreamingChannel extends StreamingChannel {
+
+        protected final RetryingDownstreamCall retryingCall;
+
+        RetryingStreamingChannel(RetryingDownstreamCall retryingCall, StreamingChannel firstChannel) {
+            super(firstChannel.channel, firstChannel.pool, firstChannel.callActiveHolder,
+                  firstChannel.downstreamLastChunkSentHolder, firstChannel.distributedTracingSpanStack,
+                  firstChannel.distributedTracingMdcInfo);
+            this.retryingCall = retryingCall;
+        }
+
+        @Override
+        public ChannelFuture streamChunk(HttpContent chunkToWrite) {
+            chunkToWrite.release();
+            return getChannel().newSucceededFuture();
+        }
+
+        @Override
+        public Channel getChannel() {
+            return retryingCall.getCurrentChannel(channel);
+        }
+
+        @Override
+        public boolean isDownstreamCallActive() {
+            return retryingCall.isCallActive();
+        }
+
+        @Override
+        public void closeChannelDueToUnrecoverableError(Throwable cause) {
+            retryingCall.closeAll(cause);
+        }
+    }
+}
@@ -2,10 +2,18 @@ package com.nike.riposte.client.asynchttp.netty;
 
 import com.nike.backstopper.exception.WrapperException;
 import com.nike.internal.util.Pair;
+import com.nike.riposte.client.dns.CachingHostnameResolver;
+import com.nike.riposte.client.hedging.HedgingPolicy;
+import com.nike.riposte.client.pool.DownstreamConnectionPoolConfig;
+import com.nike.riposte.client.pool.DownstreamConnectionPoolMetrics;
+import com.nike.riposte.client.pool.DownstreamOutlierEjectionConfig;
+import com.nike.riposte.client.pool.DownstreamWarmupTarget;
+import com.nike.riposte.client.retry.RetryPolicy;
 import com.nike.riposte.client.asynchttp.netty.downstreampipeline.DownstreamIdleChannelTimeoutHandler;
 import com.nike.riposte.server.channelpipeline.ChannelAttributes;
 import com.nike.riposte.server.error.exception.DownstreamChannelClosedUnexpectedlyException;
 import com.nike.riposte.server.error.exception.DownstreamIdleChannelTimeoutException;
+import com.nike.riposte.server.error.exception.DownstreamRequestNotSentException;
 import com.nike.riposte.server.error.exception.HostnameResolutionException;
 import com.nike.riposte.server.error.exception.NativeIoExceptionWrapper;
 import com.nike.riposte.server.http.HttpProcessingState;
@@ -25,12 +33,22 @@ import java.net.UnknownHostException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
@@ -47,6 +65,7 @@ import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.ChannelPromise;
 import io.netty.channel.CombinedChannelDuplexHandler;
+import io.netty.channel.EventLoop;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.channel.epoll.Epoll;
@@ -58,6 +77,7 @@ import io.netty.channel.pool.AbstractChannelPoolMap;
 import io.netty.channel.pool.ChannelHealthChecker;
 import io.netty.channel.pool.ChannelPool;
 import io.netty.channel.pool.ChannelPoolMap;
+import io.netty.channel.pool.FixedChannelPool;
 import io.netty.channel.pool.SimpleChannelPool;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
@@ -79,10 +99,12 @@ import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslHandler;
 import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
 import io.netty.util.Attribute;
 import io.netty.util.AttributeKey;
 import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.Promise;
 
@@ -114,13 +136,30 @@ public class StreamingAsyncHttpClient {
     public static final String DOWNSTREAM_IDLE_CHANNEL_TIMEOUT_HANDLER_NAME = "idleDownstreamChannelTimeoutHandler";
     public static final String DOWNSTREAM_CALL_TIMEOUT_HANDLER_NAME = "downstreamCallTimeoutHandler";
     public static final String DEBUG_LOGGER_HANDLER_NAME = "debugLoggerHandler";
+    /**
+     * The default amount of time between checks that the pools for {@link DownstreamWarmupTarget}s still have their
+     * minimum number of connections. See {@link #warmUpConnections(Collection, EventLoopGroup, long)}.
+     */
+    public static final long DEFAULT_WARM_CONNECTION_MAINTENANCE_INTERVAL_MILLIS = 5 * 1000;
     private static final Logger logger = LoggerFactory.getLogger(StreamingAsyncHttpClient.class);
     private volatile ChannelPoolMap<InetSocketAddress, SimpleChannelPool> poolMap;
+    private final ConcurrentMap<EventLoop, ChannelPoolMap<InetSocketAddress, SimpleChannelPool>> perEventLoopPoolMaps =
+        new ConcurrentHashMap<>();
     private SslContext clientSslCtx;
     private final boolean debugChannelLifecycleLoggingEnabled;
     private final long idleChannelTimeoutMillis;
     private final int downstreamConnectionTimeoutMillis;
+    private final boolean shareInboundEventLoop;
+    private final CachingHostnameResolver hostnameResolver;
+    private final DownstreamConnectionPoolConfig connectionPoolConfig;
+    private final DownstreamConnectionPoolMetrics connectionPoolMetrics;
     protected static final AttributeKey<Boolean> CHANNEL_IS_BROKEN_ATTR = AttributeKey.newInstance("channelIsBroken");
+    protected static final AttributeKey<Long> CHANNEL_CREATED_AT_NANOS_ATTR =
+        AttributeKey.newInstance("channelCreatedAtNanos");
+    protected static final AttributeKey<Boolean> CHANNEL_IS_ACQUIRED_ATTR =
+        AttributeKey.newInstance("channelIsAcquired");
+    protected static final AttributeKey<Long> CHANNEL_CALL_STARTED_AT_NANOS_ATTR =
+        AttributeKey.newInstance("channelCallStartedAtNanos");
     private final ProxyRouterChannelHealthChecker CHANNEL_HEALTH_CHECK_INSTANCE = new ProxyRouterChannelHealthChecker();
     public final static String SHOULD_LOG_BAD_MESSAGES_AFTER_REQUEST_FINISHES_SYSTEM_PROP_KEY =
         "StreamingAsyncHttpClient.debug.shouldLogBadMessagesAfterRequestFinishes";
@@ -128,13 +167,128 @@ public class StreamingAsyncHttpClient {
             System.getProperty(SHOULD_LOG_BAD_MESSAGES_AFTER_REQUEST_FINISHES_SYSTEM_PROP_KEY, "false").trim()
     );
 
-    private final Random randomGenerator = new Random();
+    private final LeastOutstandingRequestsAddressBalancer addressBalancer =
+        new LeastOutstandingRequestsAddressBalancer();
+    private final OutlierEjectionTracker outlierEjectionTracker;
+    /**
+     * The consistent hash rings for calls that have a routing key, keyed by "host:port". See {@link
+     * #chooseAddress(String, InetAddress[], int, InetSocketAddress, String)}. Rings that haven't been used for {@link
+     * #IDLE_HASH_RING_TTL_NANOS} are dropped (see {@link #pruneIdleHashRingsIfDue(long)}).
+     */
+    private final ConcurrentMap<String, ConsistentHashAddressRing> hashRingsByHostAndPort = new ConcurrentHashMap<>();
+    /**
+     * How long a hash ring can go unused before it's dropped. A ring's layout depends only on its members, so a ring
+     * that's rebuilt for a host later sends every routing key to the same address the old one did.
+     */
+    protected static final long IDLE_HASH_RING_TTL_NANOS = TimeUnit.MINUTES.toNanos(5);
+    private final AtomicLong lastHashRingPruneNanos = new AtomicLong(System.nanoTime());
 
     public StreamingAsyncHttpClient(long idleChannelTimeoutMillis, long downstreamConnectionTimeoutMillis,
                                     boolean debugChannelLifecycleLoggingEnabled) {
+        this(idleChannelTimeoutMillis, downstreamConnectionTimeoutMillis, debugChannelLifecycleLoggingEnabled, false);
+    }
+
+    /**
+     * @param idleChannelTimeoutMillis The amount of time a pooled downstream channel can sit idle before it is closed.
+     * @param downstreamConnectionTimeoutMillis The connect timeout for new downstream connections.
+     * @param debugChannelLifecycleLoggingEnabled Whether downstream channels should get a debug {@link LoggingHandler}.
+     * @param shareInboundEventLoop Pass in true to register downstream connections on the event loop of the inbound
+     * channel that triggered the downstream call (with a separate set of channel pools per event loop), so that a
+     * proxied request is handled entirely on one thread. Pass in false to use a separate proxy router event loop
+     * group for all downstream connections. See {@link
+     * com.nike.riposte.server.config.ServerConfig#isProxyRouterSharesWorkerEventLoops()} for details.
+     */
+    public StreamingAsyncHttpClient(long idleChannelTimeoutMillis, long downstreamConnectionTimeoutMillis,
+                                    boolean debugChannelLifecycleLoggingEnabled, boolean shareInboundEventLoop) {
+        this(idleChannelTimeoutMillis, downstreamConnectionTimeoutMillis, debugChannelLifecycleLoggingEnabled,
+             shareInboundEventLoop, null);
+    }
+
+    /**
+     * @param idleChannelTimeoutMillis The amount of time a pooled downstream channel can sit idle before it is closed.
+     * @param downstreamConnectionTimeoutMillis The connect timeout for new downstream connections.
+     * @param debugChannelLifecycleLoggingEnabled Whether downstream channels should get a debug {@link LoggingHandler}.
+     * @param shareInboundEventLoop Whether downstream connections should be registered on the inbound channel's event
+     * loop. See {@link #StreamingAsyncHttpClient(long, long, boolean, boolean)}.
+     * @param hostnameResolver The resolver used to turn downstream hostnames into IP addresses without blocking. Can
+     * be null - if it is null then {@link CachingHostnameResolver#getDefaultInstance()} will be used.
+     */
+    public StreamingAsyncHttpClient(long idleChannelTimeoutMillis, long downstreamConnectionTimeoutMillis,
+                                    boolean debugChannelLifecycleLoggingEnabled, boolean shareInboundEventLoop,
+                                    CachingHostnameResolver hostnameResolver) {
+        this(idleChannelTimeoutMillis, downstreamConnectionTimeoutMillis, debugChannelLifecycleLoggingEnabled,
+             shareInboundEventLoop, hostnameResolver, null, null);
+    }
+
+    /**
+     * @param idleChannelTimeoutMillis The amount of time a pooled downstream channel can sit idle before it is closed.
+     * This is overridden by {@link DownstreamConnectionPoolConfig#idleConnectionTimeoutMillis()} if that is not
+     * negative.
+     * @param downstreamConnectionTimeoutMillis The connect timeout for new downstream connections.
+     * @param debugChannelLifecycleLoggingEnabled Whether downstream channels should get a debug {@link LoggingHandler}.
+     * @param shareInboundEventLoop Whether downstream connections should be registered on the inbound channel's event
+     * loop. See {@link #StreamingAsyncHttpClient(long, long, boolean, boolean)}.
+     * @param hostnameResolver The resolver used to turn downstream hostnames into IP addresses without blocking. Can
+     * be null - if it is null then {@link CachingHostnameResolver#getDefaultInstance()} will be used.
+     * @param connectionPoolConfig The size, acquire timeout, and eviction settings for the per-host downstream
+     * connection pools. Can be null - if it is null then {@link DownstreamConnectionPoolConfig#DEFAULT_IMPL} will be
+     * used.
+     * @param connectionPoolMetrics Where the per-host downstream connection pools register their stats. Can be null -
+     * if it is null then {@link DownstreamConnectionPoolMetrics#getDefaultInstance()} will be used.
+     */
+    public StreamingAsyncHttpClient(long idleChannelTimeoutMillis, long downstreamConnectionTimeoutMillis,
+                                    boolean debugChannelLifecycleLoggingEnabled, boolean shareInboundEventLoop,
+                                    CachingHostnameResolver hostnameResolver,
+                                    DownstreamConnectionPoolConfig connectionPoolConfig,
+                                    DownstreamConnectionPoolMetrics connectionPoolMetrics) {
+        this(idleChannelTimeoutMillis, downstreamConnectionTimeoutMillis, debugChannelLifecycleLoggingEnabled,
+             shareInboundEventLoop, hostnameResolver, connectionPoolConfig, connectionPoolMetrics, null);
+    }
+
+    /**
+     * @param idleChannelTimeoutMillis The amount of time a pooled downstream channel can sit idle before it is closed.
+     * This is overridden by {@link DownstreamConnectionPoolConfig#idleConnectionTimeoutMillis()} if that is not
+     * negative.
+     * @param downstreamConnectionTimeoutMillis The connect timeout for new downstream connections.
+     * @param debugChannelLifecycleLoggingEnabled Whether downstream channels should get a debug {@link LoggingHandler}.
+     * @param shareInboundEventLoop Whether downstream connections should be registered on the inbound channel's event
+     * loop. See {@link #StreamingAsyncHttpClient(long, long, boolean, boolean)}.
+     * @param hostnameResolver The resolver used to turn downstream hostnames into IP addresses without blocking. Can
+     * be null - if it is null then {@link CachingHostnameResolver#getDefaultInstance()} will be used.
+     * @param connectionPoolConfig The size, acquire timeout, and eviction settings for the per-host downstream
+     * connection pools. Can be null - if it is null then {@link DownstreamConnectionPoolConfig#DEFAULT_IMPL} will be
+     * used.
+     * @param connectionPoolMetrics Where the per-host downstream connection pools register their stats. Can be null -
+     * if it is null then {@link DownstreamConnectionPoolMetrics#getDefaultInstance()} will be used.
+     * @param outlierEjectionConfig The settings for ejecting individual downstream IP addresses that keep failing.
+     * Can be null - if it is null then {@link DownstreamOutlierEjectionConfig#DEFAULT_IMPL} will be used.
+     */
+    public StreamingAsyncHttpClient(long idleChannelTimeoutMillis, long downstreamConnectionTimeoutMillis,
+                                    boolean debugChannelLifecycleLoggingEnabled, boolean shareInboundEventLoop,
+                                    CachingHostnameResolver hostnameResolver,
+                                    DownstreamConnectionPoolConfig connectionPoolConfig,
+                                    DownstreamConnectionPoolMetrics connectionPoolMetrics,
+                                    DownstreamOutlierEjectionConfig outlierEjectionConfig) {
+        if (hostnameResolver == null)
+            hostnameResolver = CachingHostnameResolver.getDefaultInstance();
+
+        if (connectionPoolConfig == null)
+            connectionPoolConfig = DownstreamConnectionPoolConfig.DEFAULT_IMPL;
+
+        if (connectionPoolMetrics == null)
+            connectionPoolMetrics = DownstreamConnectionPoolMetrics.getDefaultInstance();
+
+        if (connectionPoolConfig.idleConnectionTimeoutMillis() >= 0)
+            idleChannelTimeoutMillis = connectionPoolConfig.idleConnectionTimeoutMillis();
+
+        this.hostnameResolver = hostnameResolver;
+        this.connectionPoolConfig = connectionPoolConfig;
+        this.connectionPoolMetrics = connectionPoolMetrics;
+        this.outlierEjectionTracker = new OutlierEjectionTracker(outlierEjectionConfig, connectionPoolMetrics);
         this.idleChannelTimeoutMillis = idleChannelTimeoutMillis;
         this.downstreamConnectionTimeoutMillis = Math.toIntExact(downstreamConnectionTimeoutMillis);
         this.debugChannelLifecycleLoggingEnabled = debugChannelLifecycleLoggingEnabled;
+        this.shareInboundEventLoop = shareInboundEventLoop;
     }
 
     public static class StreamingChannel {
@@ -177,32 +331,38 @@ public class StreamingAsyncHttpClient {
             try {
                 ChannelPromise result = channel.newPromise();
 
-                channel.eventLoop().execute(
-                    () -> doStreamChunk(chunkToWrite).addListener(future -> {
-                        if (future.isCancelled()) {
-                            result.cancel(true);
-                        }
-                        else if (future.isSuccess()) {
-                            result.setSuccess();
-                        }
-                        else if (future.cause() != null) {
-                            result.setFailure(future.cause());
-                        }
-                        else {
-                            runnableWithTracingAndMdc(
-                                () -> logger.error(
-                                    "Found a future with no result. This should not be possible. Failing the future. "
-                                    + "future_done={}, future_success={}, future_cancelled={}, future_failure_cause={}",
-                                    future.isDone(), future.isSuccess(), future.isCancelled(), future.cause()
-                                ),
-                                distributedTracingSpanStack, distributedTracingMdcInfo
-                            ).run();
-                            result.setFailure(
-                                new RuntimeException("Received ChannelFuture that was in an impossible state")
-                            );
-                        }
-                    })
-                );
+                Runnable streamChunkTask = () -> doStreamChunk(chunkToWrite).addListener(future -> {
+                    if (future.isCancelled()) {
+                        result.cancel(true);
+                    }
+                    else if (future.isSuccess()) {
+                        result.setSuccess();
+                    }
+                    else if (future.cause() != null) {
+                        result.setFailure(future.cause());
+                    }
+                    else {
+                        runnableWithTracingAndMdc(
+                            () -> logger.error(
+                                "Found a future with no result. This should not be possible. Failing the future. "
+                                + "future_done={}, future_success={}, future_cancelled={}, future_failure_cause={}",
+                                future.isDone(), future.isSuccess(), future.isCancelled(), future.cause()
+                            ),
+                            distributedTracingSpanStack, distributedTracingMdcInfo
+                        ).run();
+                        result.setFailure(
+                            new RuntimeException("Received ChannelFuture that was in an impossible state")
+                        );
+                    }
+                });
+
+                // If we're already on the channel's event loop (e.g. the downstream channel shares the inbound
+                //      channel's event loop) then there's no need to hop threads.
+                EventLoop eventLoop = channel.eventLoop();
+                if (eventLoop.inEventLoop())
+                    streamChunkTask.run();
+                else
+                    eventLoop.execute(streamChunkTask);
 
                 return result;
             }
@@ -291,8 +451,12 @@ public class StreamingAsyncHttpClient {
                 //      If the call is *not* active, then everything has already been cleaned up and we shouldn't
                 //      do anything because the channel might have already been handed out for a different call.
                 if (!channelClosedDueToUnrecoverableError && callActiveHolder.heldObject) {
-                    // Schedule the close on the channel's event loop.
-                    channel.eventLoop().execute(() -> doCloseChannelDueToUnrecoverableError(cause));
+                    // Do the close on the channel's event loop, scheduling it if we're not already there.
+                    EventLoop eventLoop = channel.eventLoop();
+                    if (eventLoop.inEventLoop())
+                        doCloseChannelDueToUnrecoverableError(cause);
+                    else
+                        eventLoop.execute(() -> doCloseChannelDueToUnrecoverableError(cause));
                     return;
                 }
 
@@ -346,6 +510,47 @@ public class StreamingAsyncHttpClient {
                              + "done. ignored_unrecoverable_error={}", cause.toString());
             }
         }
+
+        /**
+         * Quietly ends the downstream call if it's still active and closes the channel (a channel in the middle of a
+         * call can't go back to the pool). Unlike {@link #closeChannelDueToUnrecoverableError(Throwable)} this is not
+         * treated as an error - it's for calls whose response is no longer wanted, e.g. the losing call of a {@link
+         * HedgedDownstreamCall}.
+         *
+         * @param completeSubSpan Pass in true if a subspan was started around the downstream call, so it can be
+         * completed.
+         */
+        protected void abandonDownstreamCall(boolean completeSubSpan) {
+            EventLoop eventLoop = channel.eventLoop();
+            if (eventLoop.inEventLoop())
+                doAbandonDownstreamCall(completeSubSpan);
+            else
+                eventLoop.execute(() -> doAbandonDownstreamCall(completeSubSpan));
+        }
+
+        protected void doAbandonDownstreamCall(boolean completeSubSpan) {
+            if (!callActiveHolder.heldObject)
+                return;
+
+            if (completeSubSpan) {
+                runnableWithTracingAndMdc(
+                    () -> {
+                        if (distributedTracingSpanStack == null || distributedTracingSpanStack.size() < 2)
+                            Tracer.getInstance().completeRequestSpan();
+                        else
+                            Tracer.getInstance().completeSubSpan();
+                    },
+                    distributedTracingSpanStack, distributedTracingMdcInfo
+                ).run();
+            }
+
+            markChannelAsBroken(channel);
+            releaseChannelBackToPoolIfCallIsActive(
+                channel, pool, callActiveHolder, "abandoning downstream call", distributedTracingSpanStack,
+                distributedTracingMdcInfo
+            );
+            channel.close();
+        }
     }
 
     public interface StreamingCallback {
@@ -359,27 +564,155 @@ public class StreamingAsyncHttpClient {
 
     /**
      * Returns an {@link InetSocketAddress} for the given hostname and port - if the DNS for the hostname has multiple
-     * IP addresses associated with it then the returned IP address will be randomly chosen from the available IPs.
+     * IP addresses associated with it then the returned IP address will be chosen from the available IPs by {@link
+     * #chooseAddress(InetAddress[], int)}, which prefers the IPs with fewer outstanding calls and lower latency.
      * <p/>
      * This is necessary to properly distribute traffic among all the IPs rather than firehosing a single one. For
      * example, Amazon ELBs function by associating multiple IPs with the ELB's DNS. Without this method all traffic
      * would pipe to only one of an ELB's IPs, and since ELBs scale up based on aggregate traffic over all IPs,
      * firehosing one IP means the ELB would never scale up even though it's being overloaded.
+     *
+     * @deprecated This blocks the calling thread on DNS resolution whenever the hostname isn't already cached by
+     * {@link #hostnameResolver}, so it must never be called on an event loop thread. Riposte no longer calls it - use
+     * {@link #resolveHostnameToInetSocketAddressAsync(String, int)} instead.
      */
+    @Deprecated
     protected InetSocketAddress resolveHostnameToInetSocketAddressWithMultiIpSupport(String hostname, int port) {
         try {
-            InetAddress[] ipAddresses = InetAddress.getAllByName(hostname);
-            int numAddresses = ipAddresses.length;
-            InetAddress address = (numAddresses == 1)
-                                  ? ipAddresses[0]
-                                  : ipAddresses[randomGenerator.nextInt(numAddresses)];
-            return new InetSocketAddress(address, port);
+            return chooseAddress(hostnameResolver.resolveAllBlocking(hostname), port);
         }
         catch (UnknownHostException e) {
-            throw new HostnameResolutionException(
-                "Unable to resolve hostname into IP address(es). hostname=" + hostname, e
+            throw hostnameResolutionException(hostname, e);
+        }
+    }
+
+    /**
+     * Returns an {@link InetSocketAddress} for the given hostname and port, chosen from the hostname's IP addresses by
+     * {@link #chooseAddress(InetAddress[], int)} - see {@link
+     * #resolveHostnameToInetSocketAddressWithMultiIpSupport(String, int)} for why all the IPs are used. This never
+     * blocks. The addresses come from {@link #hostnameResolver}, so when the hostname has been resolved recently (the
+     * usual case) the returned future will already be complete. If the hostname can't be resolved then the returned
+     * future will be completed exceptionally with a {@link HostnameResolutionException}.
+     */
+    protected CompletableFuture<InetSocketAddress> resolveHostnameToInetSocketAddressAsync(String hostname, int port) {
+        return resolveHostnameToInetSocketAddressAsync(hostname, port, null);
+    }
+
+    /**
+     * Same as {@link #resolveHostnameToInetSocketAddressAsync(String, int)}, but avoids the given address if possible
+     * (see {@link #chooseAddress(InetAddress[], int, InetSocketAddress)}).
+     */
+    protected CompletableFuture<InetSocketAddress> resolveHostnameToInetSocketAddressAsync(
+        String hostname, int port, InetSocketAddress addressToAvoid
+    ) {
+        return resolveHostnameToInetSocketAddressAsync(hostname, port, addressToAvoid, null);
+    }
+
+    /**
+     * Same as {@link #resolveHostnameToInetSocketAddressAsync(String, int, InetSocketAddress)}, but if the given
+     * routing key is not null then the address is chosen by the host's consistent hash ring (see {@link
+     * #chooseAddress(String, InetAddress[], int, InetSocketAddress, String)}) so that calls with the same routing key
+     * go to the same address.
+     */
+    protected CompletableFuture<InetSocketAddress> resolveHostnameToInetSocketAddressAsync(
+        String hostname, int port, InetSocketAddress addressToAvoid, String routingKey
+    ) {
+        CompletableFuture<InetSocketAddress> result = new CompletableFuture<>();
+        hostnameResolver.resolveAll(hostname).whenComplete((ipAddresses, error) -> {
+            if (error == null)
+                result.complete(chooseAddress(hostname, ipAddresses, port, addressToAvoid, routingKey));
+            else
+                result.completeExceptionally(hostnameResolutionException(hostname, error));
+        });
+        return result;
+    }
+
+    /**
+     * @return The address the next call should go to, chosen from the given resolved IP addresses by {@link
+     * #addressBalancer} based on the number of outstanding calls and recent latency of each address. Addresses that
+     * are currently ejected by {@link #outlierEjectionTracker} are not considered.
+     */
+    protected InetSocketAddress chooseAddress(InetAddress[] ipAddresses, int port) {
+        return chooseAddress(ipAddresses, port, null);
+    }
+
+    /**
+     * Same as {@link #chooseAddress(InetAddress[], int)}, but the given address is not considered unless it's the
+     * only candidate. Hedged calls use this so the hedge goes to a different instance than the call it's hedging.
+     */
+    protected InetSocketAddress chooseAddress(InetAddress[] ipAddresses, int port, InetSocketAddress addressToAvoid) {
+        return addressBalancer.chooseAddress(candidateAddresses(ipAddresses, port, addressToAvoid), port);
+    }
+
+    /**
+     * Same as {@link #chooseAddress(InetAddress[], int, InetSocketAddress)} if the given routing key is null.
+     * Otherwise the address is chosen by the {@link ConsistentHashAddressRing} for the given host and port, so calls
+     * with the same routing key go to the same address (as long as it isn't ejected or overloaded). The ring is built
+     * over all of the resolved IP addresses and updated incrementally whenever they change, so ejecting an address
+     * only moves that address's keys (temporarily), and a DNS change only moves the keys of the addresses that were
+     * added or removed.
+     */
+    protected InetSocketAddress chooseAddress(String hostname, InetAddress[] ipAddresses, int port,
+                                              InetSocketAddress addressToAvoid, String routingKey) {
+        if (routingKey == null)
+            return chooseAddress(ipAddresses, port, addressToAvoid);
+
+        ConsistentHashAddressRing ring = hashRingsByHostAndPort.get(hostname + ":" + port);
+        if (ring == null) {
+            ring = hashRingsByHostAndPort.computeIfAbsent(
+                hostname + ":" + port, hostAndPort -> new ConsistentHashAddressRing()
             );
         }
+        ring.updateMembers(ipAddresses);
+
+        InetAddress chosen = ring.chooseAddress(
+            routingKey, candidateAddresses(ipAddresses, port, addressToAvoid),
+            ip -> addressBalancer.getOutstandingCalls(new InetSocketAddress(ip, port))
+        );
+        pruneIdleHashRingsIfDue(System.nanoTime());
+        return new InetSocketAddress(chosen, port);
+    }
+
+    /**
+     * Drops the hash rings that haven't been used for {@link #IDLE_HASH_RING_TTL_NANOS}, if they haven't been checked
+     * for that long, so hosts that are no longer called don't keep their rings forever.
+     */
+    protected void pruneIdleHashRingsIfDue(long nowNanos) {
+        long lastPrune = lastHashRingPruneNanos.get();
+        if (nowNanos - lastPrune < IDLE_HASH_RING_TTL_NANOS
+            || !lastHashRingPruneNanos.compareAndSet(lastPrune, nowNanos)) {
+            return;
+        }
+
+        hashRingsByHostAndPort.values().removeIf(
+            ring -> nowNanos - ring.getLastUsedNanos() >= IDLE_HASH_RING_TTL_NANOS
+        );
+    }
+
+    /**
+     * @return The given resolved IP addresses minus any that are currently ejected by {@link #outlierEjectionTracker},
+     * and minus the given address to avoid unless it's the only one left.
+     */
+    protected InetAddress[] candidateAddresses(InetAddress[] ipAddresses, int port, InetSocketAddress addressToAvoid) {
+        InetAddress[] candidates = outlierEjectionTracker.filterEjected(ipAddresses, port);
+        if (addressToAvoid != null && candidates.length > 1) {
+            List<InetAddress> otherCandidates = new ArrayList<>(candidates.length);
+            for (InetAddress candidate : candidates) {
+                if (!candidate.equals(addressToAvoid.getAddress()))
+                    otherCandidates.add(candidate);
+            }
+
+            if (!otherCandidates.isEmpty())
+                candidates = otherCandidates.toArray(new InetAddress[otherCandidates.size()]);
+        }
+
+        return candidates;
+    }
+
+    protected HostnameResolutionException hostnameResolutionException(String hostname, Throwable cause) {
+        return new HostnameResolutionException(
+            "Unable to resolve hostname into IP address(es). hostname=" + hostname, cause
+        );
     }
 
     protected Bootstrap generateClientBootstrap(EventLoopGroup eventLoopGroup,
@@ -428,79 +761,7 @@ public class StreamingAsyncHttpClient {
                         channelClass = NioSocketChannel.class;
                     }
 
-                    result = new AbstractChannelPoolMap<InetSocketAddress, SimpleChannelPool>() {
-                        @Override
-                        protected SimpleChannelPool newPool(InetSocketAddress key) {
-                            return new SimpleChannelPool(
-                                generateClientBootstrap(eventLoopGroup, channelClass).remoteAddress(key),
-                                new ChannelPoolHandlerImpl(),
-                                CHANNEL_HEALTH_CHECK_INSTANCE
-                            ) {
-                                @Override
-                                public Future<Void> release(Channel channel, Promise<Void> promise) {
-                                    markChannelBrokenAndLogInfoIfHttpClientCodecStateIsNotZero(
-                                        channel, "Releasing channel back to pool"
-                                    );
-                                    return super.release(channel, promise);
-                                }
-
-                                @Override
-                                protected Channel pollChannel() {
-                                    Channel channel = super.pollChannel();
-
-                                    if (channel != null) {
-                                        markChannelBrokenAndLogInfoIfHttpClientCodecStateIsNotZero(
-                                            channel, "Polling channel to be reused before healthcheck"
-                                        );
-
-                                        if (idleChannelTimeoutMillis > 0) {
-                                            /*
-                                             We have a channel that is about to be re-used, so disable the idle channel
-                                             timeout detector if it exists. By disabling it here we make sure that it is
-                                             effectively "gone" before the healthcheck happens, preventing race
-                                             conditions. Note that we can't call pipeline.remove() here because we may
-                                             not be in the pipeline's event loop, so calling pipeline.remove() could
-                                             lead to thread deadlock, but we can't call channel.eventLoop().execute()
-                                             because we need it disabled *now* before the healthcheck happens. The
-                                             pipeline preparation phase will remove it safely soon, and in the meantime
-                                             it will be disabled.
-                                             */
-                                            ChannelPipeline pipeline = channel.pipeline();
-                                            ChannelHandler idleHandler =
-                                                pipeline.get(DOWNSTREAM_IDLE_CHANNEL_TIMEOUT_HANDLER_NAME);
-                                            if (idleHandler != null) {
-                                                ((DownstreamIdleChannelTimeoutHandler) idleHandler)
-                                                    .disableTimeoutHandling();
-                                            }
-                                        }
-                                    }
-
-                                    return channel;
-                                }
-
-                                @Override
-                                protected boolean offerChannel(Channel channel) {
-                                    if (idleChannelTimeoutMillis > 0) {
-                                        // Add an idle channel timeout detector. This will be removed before the
-                                        //      channel's reacquisition healthcheck runs (in pollChannel()), so we won't
-                                        //      have a race condition where this channel is handed over for use but gets
-                                        //      squashed right before it's about to be used.
-                                        // NOTE: Due to the semantics of pool.release() we're guaranteed to be in the
-                                        //      channel's event loop, so there's no chance of a thread deadlock when
-                                        //      messing with the pipeline.
-                                        channel.pipeline().addFirst(
-                                            DOWNSTREAM_IDLE_CHANNEL_TIMEOUT_HANDLER_NAME,
-                                            new DownstreamIdleChannelTimeoutHandler(
-                                                idleChannelTimeoutMillis, () -> true, false,
-                                                "StreamingAsyncHttpClientChannel-idle", null, null)
-                                        );
-                                    }
-
-                                    return super.offerChannel(channel);
-                                }
-                            };
-                        }
-                    };
+                    result = createPoolMap(eventLoopGroup, channelClass);
                     poolMap = result;
                 }
             }
@@ -508,12 +769,594 @@ public class StreamingAsyncHttpClient {
         return result;
     }
 
+    /**
+     * @return A new {@link ChannelPoolMap} whose pools create downstream channels of the given class on the given
+     * {@link EventLoopGroup}.
+     */
+    protected ChannelPoolMap<InetSocketAddress, SimpleChannelPool> createPoolMap(
+        EventLoopGroup eventLoopGroup, Class<? extends SocketChannel> channelClass
+    ) {
+        return new AbstractChannelPoolMap<InetSocketAddress, SimpleChannelPool>() {
+            @Override
+            protected SimpleChannelPool newPool(InetSocketAddress key) {
+                ProxyRouterChannelPool pool = new ProxyRouterChannelPool(
+                    generateClientBootstrap(eventLoopGroup, channelClass).remoteAddress(key), key
+                );
+                connectionPoolMetrics.registerPool(key.getHostString() + ":" + key.getPort(), pool);
+                return pool;
+            }
+        };
+    }
+
+    /**
+     * The per-host downstream channel pool. This is a {@link FixedChannelPool} so the number of connections to a
+     * single downstream host and the number of acquires waiting for a connection can be bounded (see {@link
+     * DownstreamConnectionPoolConfig}). It also takes care of idle channel timeouts and max connection lifetime,
+     * tracks the stats that are reported via {@link DownstreamConnectionPoolMetrics}, and reports every acquire/release
+     * to {@link #addressBalancer} so it knows how many calls are outstanding to the pool's address and how long they
+     * take. Connect failures count against the pool's address in {@link #outlierEjectionTracker}.
+     */
+    protected class ProxyRouterChannelPool extends FixedChannelPool
+        implements DownstreamConnectionPoolMetrics.PoolStats {
+
+        protected final InetSocketAddress remoteAddress;
+        protected final long maxConnectionLifetimeNanos;
+
+        protected final AtomicInteger activeConnectionCount = new AtomicInteger();
+        protected final AtomicInteger idleConnectionCount = new AtomicInteger();
+        protected final AtomicInteger pendingAcquireCount = new AtomicInteger();
+        protected final LongAdder acquireCount = new LongAdder();
+        protected final LongAdder acquireFailureCount = new LongAdder();
+        protected final LongAdder totalAcquireNanos = new LongAdder();
+        protected final AtomicLong maxAcquireNanos = new AtomicLong();
+        protected final LongAdder connectCount = new LongAdder();
+        protected final LongAdder connectFailureCount = new LongAdder();
+        protected final LongAdder totalConnectNanos = new LongAdder();
+        protected final LongAdder maxLifetimeEvictionCount = new LongAdder();
+
+        protected ProxyRouterChannelPool(Bootstrap bootstrap, InetSocketAddress remoteAddress) {
+            super(
+                bootstrap,
+                new ChannelPoolHandlerImpl(),
+                CHANNEL_HEALTH_CHECK_INSTANCE,
+                (connectionPoolConfig.acquireTimeoutMillis() > 0) ? AcquireTimeoutAction.FAIL : null,
+                (connectionPoolConfig.acquireTimeoutMillis() > 0) ? connectionPoolConfig.acquireTimeoutMillis() : -1,
+                connectionPoolConfig.maxConnectionsPerPool(),
+                connectionPoolConfig.maxPendingAcquiresPerPool()
+            );
+            this.remoteAddress = remoteAddress;
+            long maxLifetimeMillis = connectionPoolConfig.maxConnectionLifetimeMillis();
+            this.maxConnectionLifetimeNanos =
+                (maxLifetimeMillis > 0) ? TimeUnit.MILLISECONDS.toNanos(maxLifetimeMillis) : 0;
+        }
+
+        @Override
+        public Future<Channel> acquire(Promise<Channel> promise) {
+            long acquireStartNanos = System.nanoTime();
+            pendingAcquireCount.incrementAndGet();
+            promise.addListener(future -> {
+                pendingAcquireCount.decrementAndGet();
+                recordAcquireTime(System.nanoTime() - acquireStartNanos);
+                if (future.isSuccess()) {
+                    Channel ch = (Channel) future.getNow();
+                    if (ch.attr(CHANNEL_IS_ACQUIRED_ATTR).getAndSet(Boolean.TRUE) == null)
+                        activeConnectionCount.incrementAndGet();
+                }
+                else {
+                    acquireFailureCount.increment();
+                }
+            });
+            return super.acquire(promise);
+        }
+
+        /**
+         * Acquires a channel for a downstream call and reports the call to {@link #addressBalancer}: it counts as
+         * outstanding from now until the channel is released (or until the acquire fails, which counts as a failed
+         * call). Plain {@link #acquire()}s - e.g. the warm-up acquires done by {@link
+         * #topUpWarmConnections(SimpleChannelPool, DownstreamWarmupTarget)} - aren't reported, since no request is
+         * sent on them.
+         */
+        public Future<Channel> acquireForDownstreamCall() {
+            long callStartNanos = System.nanoTime();
+            addressBalancer.callStarted(remoteAddress);
+            Future<Channel> channelFuture = acquire();
+            channelFuture.addListener(future -> {
+                if (future.isSuccess())
+                    ((Channel) future.getNow()).attr(CHANNEL_CALL_STARTED_AT_NANOS_ATTR).set(callStartNanos);
+                else
+                    addressBalancer.callFailed(remoteAddress, System.nanoTime() - callStartNanos);
+            });
+            return channelFuture;
+        }
+
+        @Override
+        public Future<Void> release(Channel channel, Promise<Void> promise) {
+            if (channel.attr(CHANNEL_IS_ACQUIRED_ATTR).getAndSet(null) != null) {
+                activeConnectionCount.decrementAndGet();
+                recordCallFinishedWithAddressBalancer(channel);
+            }
+
+            markChannelBrokenAndLogInfoIfHttpClientCodecStateIsNotZero(
+                channel, "Releasing channel back to pool"
+            );
+            boolean pastMaxLifetime = markChannelBrokenIfPastMaxLifetime(channel);
+            Future<Void> releaseFuture = super.release(channel, promise);
+            if (pastMaxLifetime) {
+                // The pool drops unhealthy channels on release without closing them, so we have to close it ourselves.
+                releaseFuture.addListener(future -> channel.close());
+            }
+            return releaseFuture;
+        }
+
+        @Override
+        protected ChannelFuture connectChannel(Bootstrap bs) {
+            long connectStartNanos = System.nanoTime();
+            ChannelFuture connectFuture = super.connectChannel(bs);
+            connectFuture.addListener(future -> {
+                if (future.isSuccess()) {
+                    connectCount.increment();
+                    totalConnectNanos.add(System.nanoTime() - connectStartNanos);
+                    connectFuture.channel().attr(CHANNEL_CREATED_AT_NANOS_ATTR).set(connectStartNanos);
+                }
+                else {
+                    connectFailureCount.increment();
+                    outlierEjectionTracker.recordFailure(remoteAddress);
+                }
+            });
+            return connectFuture;
+        }
+
+        @Override
+        protected Channel pollChannel() {
+            Channel channel = super.pollChannel();
+
+            if (channel != null) {
+                idleConnectionCount.decrementAndGet();
+
+                markChannelBrokenAndLogInfoIfHttpClientCodecStateIsNotZero(
+                    channel, "Polling channel to be reused before healthcheck"
+                );
+                // If the channel is too old then the healthcheck will reject it and close it.
+                markChannelBrokenIfPastMaxLifetime(channel);
+
+                if (idleChannelTimeoutMillis > 0) {
+                    /*
+                     We have a channel that is about to be re-used, so disable the idle channel
+                     timeout detector if it exists. By disabling it here we make sure that it is
+                     effectively "gone" before the healthcheck happens, preventing race
+                     conditions. Note that we can't call pipeline.remove() here because we may
+                     not be in the pipeline's event loop, so calling pipeline.remove() could
+                     lead to thread deadlock, but we can't call channel.eventLoop().execute()
+                     because we need it disabled *now* before the healthcheck happens. The
+                     pipeline preparation phase will remove it safely soon, and in the meantime
+                     it will be disabled.
+                     */
+                    ChannelPipeline pipeline = channel.pipeline();
+                    ChannelHandler idleHandler =
+                        pipeline.get(DOWNSTREAM_IDLE_CHANNEL_TIMEOUT_HANDLER_NAME);
+                    if (idleHandler != null) {
+                        ((DownstreamIdleChannelTimeoutHandler) idleHandler)
+                            .disableTimeoutHandling();
+                    }
+                }
+            }
+
+            return channel;
+        }
+
+        @Override
+        protected boolean offerChannel(Channel channel) {
+            if (idleChannelTimeoutMillis > 0) {
+                // Add an idle channel timeout detector. This will be removed before the
+                //      channel's reacquisition healthcheck runs (in pollChannel()), so we won't
+                //      have a race condition where this channel is handed over for use but gets
+                //      squashed right before it's about to be used.
+                // NOTE: Due to the semantics of pool.release() we're guaranteed to be in the
+                //      channel's event loop, so there's no chance of a thread deadlock when
+                //      messing with the pipeline.
+                channel.pipeline().addFirst(
+                    DOWNSTREAM_IDLE_CHANNEL_TIMEOUT_HANDLER_NAME,
+                    new DownstreamIdleChannelTimeoutHandler(
+                        idleChannelTimeoutMillis, () -> true, false,
+                        "StreamingAsyncHttpClientChannel-idle", null, null)
+                );
+            }
+
+            boolean offered = super.offerChannel(channel);
+            if (offered)
+                idleConnectionCount.incrementAndGet();
+
+            return offered;
+        }
+
+        /**
+         * @return true if the given channel has lived longer than the configured max connection lifetime (in which
+         * case it has been marked as broken so the pool won't reuse it), false otherwise.
+         */
+        protected boolean markChannelBrokenIfPastMaxLifetime(Channel channel) {
+            if (maxConnectionLifetimeNanos <= 0 || channelIsMarkedAsBeingBroken(channel))
+                return false;
+
+            Long createdAtNanos = channel.attr(CHANNEL_CREATED_AT_NANOS_ATTR).get();
+            if (createdAtNanos == null || (System.nanoTime() - createdAtNanos) < maxConnectionLifetimeNanos)
+                return false;
+
+            maxLifetimeEvictionCount.increment();
+            markChannelAsBroken(channel);
+            return true;
+        }
+
+        protected void recordCallFinishedWithAddressBalancer(Channel channel) {
+            // Only channels acquired via acquireForDownstreamCall() carry a call that was reported to the balancer.
+            Long callStartNanos = channel.attr(CHANNEL_CALL_STARTED_AT_NANOS_ATTR).getAndSet(null);
+            if (callStartNanos != null)
+                addressBalancer.callFinished(remoteAddress, System.nanoTime() - callStartNanos);
+        }
+
+        protected void recordAcquireTime(long acquireNanos) {
+            acquireCount.increment();
+            totalAcquireNanos.add(acquireNanos);
+            long currentMax = maxAcquireNanos.get();
+            while (acquireNanos > currentMax && !maxAcquireNanos.compareAndSet(currentMax, acquireNanos)) {
+                currentMax = maxAcquireNanos.get();
+            }
+        }
+
+        @Override
+        public int getActiveConnectionCount() {
+            return activeConnectionCount.get();
+        }
+
+        @Override
+        public int getIdleConnectionCount() {
+            return idleConnectionCount.get();
+        }
+
+        @Override
+        public int getPendingAcquireCount() {
+            return pendingAcquireCount.get();
+        }
+
+        @Override
+        public long getAcquireCount() {
+            return acquireCount.sum();
+        }
+
+        @Override
+        public long getAcquireFailureCount() {
+            return acquireFailureCount.sum();
+        }
+
+        @Override
+        public long getTotalAcquireNanos() {
+            return totalAcquireNanos.sum();
+        }
+
+        @Override
+        public long getMaxAcquireNanos() {
+            return maxAcquireNanos.get();
+        }
+
+        @Override
+        public long getConnectCount() {
+            return connectCount.sum();
+        }
+
+        @Override
+        public long getConnectFailureCount() {
+            return connectFailureCount.sum();
+        }
+
+        @Override
+        public long getTotalConnectNanos() {
+            return totalConnectNanos.sum();
+        }
+
+        @Override
+        public long getMaxLifetimeEvictionCount() {
+            return maxLifetimeEvictionCount.sum();
+        }
+    }
+
+    /**
+     * @return The {@link ChannelPoolMap} dedicated to the given event loop, creating it if necessary. The pools in the
+     * returned map create their downstream channels on the given event loop, so a downstream call made from that event
+     * loop never has to hop threads.
+     */
+    protected ChannelPoolMap<InetSocketAddress, SimpleChannelPool> getPoolMapForEventLoop(
+        EventLoop eventLoop, Class<? extends SocketChannel> channelClass
+    ) {
+        ChannelPoolMap<InetSocketAddress, SimpleChannelPool> result = perEventLoopPoolMaps.get(eventLoop);
+        if (result == null)
+            result = perEventLoopPoolMaps.computeIfAbsent(eventLoop, el -> createPoolMap(el, channelClass));
+
+        return result;
+    }
+
+    /**
+     * @return The downstream {@link SocketChannel} class that can be registered on the given inbound channel's event
+     * loop, or null if the inbound channel's transport isn't one we know how to share.
+     */
+    protected Class<? extends SocketChannel> determineDownstreamChannelClassForInboundChannel(Channel inboundChannel) {
+        if (inboundChannel instanceof EpollSocketChannel)
+            return EpollSocketChannel.class;
+
+        if (inboundChannel instanceof NioSocketChannel)
+            return NioSocketChannel.class;
+
+        return null;
+    }
+
+    /**
+     * @deprecated This resolves the host with {@link #resolveHostnameToInetSocketAddressWithMultiIpSupport(String,
+     * int)}, which blocks. Resolve the address with {@link #resolveHostnameToInetSocketAddressAsync(String, int)} and
+     * use {@link #getChannelPoolForAddress(InetSocketAddress, ChannelHandlerContext)} instead.
+     */
+    @Deprecated
     protected ChannelPool getPooledChannelFuture(String downstreamHost, int downstreamPort) {
         return getPoolMap().get(
             resolveHostnameToInetSocketAddressWithMultiIpSupport(downstreamHost, downstreamPort)
         );
     }
 
+    /**
+     * @return The {@link ChannelPool} to use for a downstream call to the given host and port that is being made on
+     * behalf of the given inbound channel. If this instance was created to share the inbound event loop then this will
+     * be a pool dedicated to the inbound channel's event loop, otherwise (or if the inbound channel's transport can't
+     * be shared) this falls back to {@link #getPooledChannelFuture(String, int)}.
+     *
+     * @deprecated This resolves the host with {@link #resolveHostnameToInetSocketAddressWithMultiIpSupport(String,
+     * int)}, which blocks. Resolve the address with {@link #resolveHostnameToInetSocketAddressAsync(String, int)} and
+     * use {@link #getChannelPoolForAddress(InetSocketAddress, ChannelHandlerContext)} instead.
+     */
+    @Deprecated
+    protected ChannelPool getPooledChannelFuture(String downstreamHost, int downstreamPort, ChannelHandlerContext ctx) {
+        return getChannelPoolForAddress(
+            resolveHostnameToInetSocketAddressWithMultiIpSupport(downstreamHost, downstreamPort), ctx
+        );
+    }
+
+    /**
+     * @return The {@link ChannelPool} to use for a downstream call to the given (already resolved) address that is
+     * being made on behalf of the given inbound channel. See {@link #getPooledChannelFuture(String, int,
+     * ChannelHandlerContext)} for details on which pool is chosen.
+     */
+    protected ChannelPool getChannelPoolForAddress(InetSocketAddress downstreamAddress, ChannelHandlerContext ctx) {
+        if (shareInboundEventLoop && ctx != null) {
+            Channel inboundChannel = ctx.channel();
+            Class<? extends SocketChannel> channelClass =
+                determineDownstreamChannelClassForInboundChannel(inboundChannel);
+            if (channelClass != null)
+                return getPoolMapForEventLoop(inboundChannel.eventLoop(), channelClass).get(downstreamAddress);
+        }
+
+        return getPoolMap().get(downstreamAddress);
+    }
+
+    /**
+     * Opens connections to the given warmup targets so that they're ready before the first downstream calls are made,
+     * and then keeps the pools for those targets topped up to each target's {@link
+     * DownstreamWarmupTarget#minWarmConnections} by rechecking them every {@code maintenanceIntervalMillis} on the
+     * given worker {@link EventLoopGroup} for as long as it is running. Connections are opened to every IP address
+     * each target's host resolves to. For HTTPS targets the TLS handshake is done as part of warming up the
+     * connection.
+     *
+     * <p>If this instance was created to share the inbound event loop then every event loop in the given worker group
+     * has its own pools, so each of them is warmed up.
+     *
+     * @param targets The targets to warm up. Can be null or empty, in which case nothing is done.
+     * @param workerGroup The server's worker event loop group. Used to find the per-event-loop pools when sharing the
+     * inbound event loop, and to schedule the periodic top-ups. Can be null, in which case no periodic top-ups are
+     * done.
+     * @param maintenanceIntervalMillis How often the pools should be topped back up. A value less than or equal to 0
+     * means no periodic top-ups are done.
+     * @return A future that completes when the initial warmup has finished for all targets. This future never
+     * completes exceptionally - failures to open connections are logged and the connections will simply be opened on
+     * demand as usual.
+     */
+    public CompletableFuture<Void> warmUpConnections(Collection<DownstreamWarmupTarget> targets,
+                                                     EventLoopGroup workerGroup,
+                                                     long maintenanceIntervalMillis) {
+        if (targets == null || targets.isEmpty())
+            return CompletableFuture.completedFuture(null);
+
+        CompletableFuture<Void> initialWarmup = doWarmUpConnections(targets, workerGroup);
+
+        if (workerGroup != null && maintenanceIntervalMillis > 0) {
+            initialWarmup.whenComplete(
+                (ignored, error) -> scheduleWarmConnectionMaintenance(targets, workerGroup, maintenanceIntervalMillis)
+            );
+        }
+
+        return initialWarmup;
+    }
+
+    protected void scheduleWarmConnectionMaintenance(Collection<DownstreamWarmupTarget> targets,
+                                                     EventLoopGroup workerGroup,
+                                                     long maintenanceIntervalMillis) {
+        if (workerGroup.isShuttingDown())
+            return;
+
+        try {
+            // Reschedule only after each top-up has finished so a slow downstream can never cause top-ups to pile up.
+            workerGroup.schedule(
+                () -> doWarmUpConnections(targets, workerGroup).whenComplete(
+                    (ignored, error) -> scheduleWarmConnectionMaintenance(targets, workerGroup,
+                                                                          maintenanceIntervalMillis)
+                ),
+                maintenanceIntervalMillis, TimeUnit.MILLISECONDS
+            );
+        }
+        catch (RejectedExecutionException ex) {
+            logger.debug("Worker group is shutting down - warm downstream connection maintenance is stopping.");
+        }
+    }
+
+    protected CompletableFuture<Void> doWarmUpConnections(Collection<DownstreamWarmupTarget> targets,
+                                                          EventLoopGroup workerGroup) {
+        List<CompletableFuture<Void>> targetFutures = new ArrayList<>(targets.size());
+        for (DownstreamWarmupTarget target : targets) {
+            targetFutures.add(
+                hostnameResolver
+                    .resolveAll(target.host)
+                    .thenCompose(ipAddresses -> {
+                        List<CompletableFuture<Void>> poolFutures = new ArrayList<>();
+                        for (InetAddress ipAddress : ipAddresses) {
+                            InetSocketAddress address = new InetSocketAddress(ipAddress, target.port);
+                            for (SimpleChannelPool pool : getChannelPoolsForWarmup(address, workerGroup)) {
+                                poolFutures.add(topUpWarmConnections(pool, target));
+                            }
+                        }
+                        return CompletableFuture.allOf(poolFutures.toArray(new CompletableFuture[0]));
+                    })
+                    .exceptionally(error -> {
+                        logger.warn("Unable to warm up downstream connections. warmup_target={}", target, error);
+                        return null;
+                    })
+            );
+        }
+
+        return CompletableFuture.allOf(targetFutures.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * @return The pools that downstream calls to the given address will use - the per-event-loop pools for every event
+     * loop in the given worker group if this instance shares the inbound event loop, otherwise the single shared pool.
+     */
+    protected List<SimpleChannelPool> getChannelPoolsForWarmup(InetSocketAddress address, EventLoopGroup workerGroup) {
+        if (shareInboundEventLoop && workerGroup != null) {
+            Class<? extends SocketChannel> channelClass = determineDownstreamChannelClassForEventLoopGroup(workerGroup);
+            if (channelClass != null) {
+                List<SimpleChannelPool> pools = new ArrayList<>();
+                for (EventExecutor eventExecutor : workerGroup) {
+                    pools.add(getPoolMapForEventLoop((EventLoop) eventExecutor, channelClass).get(address));
+                }
+                return pools;
+            }
+        }
+
+        return Collections.singletonList(getPoolMap().get(address));
+    }
+
+    /**
+     * @return The downstream {@link SocketChannel} class that can be registered on the event loops of the given worker
+     * group, or null if the group's transport isn't one we know how to share. This matches {@link
+     * #determineDownstreamChannelClassForInboundChannel(Channel)} for the channels the worker group serves.
+     */
+    protected Class<? extends SocketChannel> determineDownstreamChannelClassForEventLoopGroup(
+        EventLoopGroup workerGroup
+    ) {
+        if (workerGroup instanceof EpollEventLoopGroup)
+            return EpollSocketChannel.class;
+
+        if (workerGroup instanceof NioEventLoopGroup)
+            return NioSocketChannel.class;
+
+        return null;
+    }
+
+    /**
+     * Makes sure the given pool has at least the target's minimum number of connections (capped at {@link
+     * DownstreamConnectionPoolConfig#maxConnectionsPerPool()}), counting the ones that are currently in use. The pool
+     * hands out idle connections before it opens new ones, so this simply acquires however many connections are needed
+     * to reach the minimum and releases them all back to the pool once they're ready - the pool takes care of dropping
+     * idle connections that have been closed and opening new ones to make up the difference. Cycling the idle
+     * connections through an acquire/release also resets their idle timeout, so the minimum number of connections
+     * stays warm even when there's no traffic.
+     */
+    protected CompletableFuture<Void> topUpWarmConnections(SimpleChannelPool pool, DownstreamWarmupTarget target) {
+        if (!(pool instanceof ProxyRouterChannelPool))
+            return CompletableFuture.completedFuture(null);
+
+        int minConnections = Math.min(target.minWarmConnections, connectionPoolConfig.maxConnectionsPerPool());
+        int numToAcquire = minConnections - ((ProxyRouterChannelPool) pool).getActiveConnectionCount();
+        if (numToAcquire <= 0)
+            return CompletableFuture.completedFuture(null);
+
+        List<CompletableFuture<Channel>> acquireFutures = new ArrayList<>(numToAcquire);
+        for (int i = 0; i < numToAcquire; i++) {
+            CompletableFuture<Channel> acquireFuture = new CompletableFuture<>();
+            pool.acquire().addListener((Future<Channel> future) -> {
+                if (!future.isSuccess()) {
+                    acquireFuture.completeExceptionally(future.cause());
+                    return;
+                }
+
+                Channel ch = future.getNow();
+                prepWarmChannel(ch, target).whenComplete((ignored, error) -> {
+                    if (error != null) {
+                        // Don't let a channel that failed its TLS handshake go back into the pool for reuse.
+                        markChannelAsBroken(ch);
+                        pool.release(ch).addListener(releaseFuture -> ch.close());
+                        acquireFuture.completeExceptionally(error);
+                    }
+                    else {
+                        acquireFuture.complete(ch);
+                    }
+                });
+            });
+            acquireFutures.add(acquireFuture);
+        }
+
+        // Hold on to every channel until all the acquires are done, otherwise the pool would just keep handing the
+        //      same idle channel back to us.
+        return CompletableFuture
+            .allOf(acquireFutures.toArray(new CompletableFuture[0]))
+            .handle((ignored, error) -> {
+                if (error != null) {
+                    logger.warn("Unable to open all the desired warm downstream connections. warmup_target={}",
+                                target, (error instanceof CompletionException) ? error.getCause() : error);
+                }
+
+                List<CompletableFuture<Void>> releaseFutures = new ArrayList<>(acquireFutures.size());
+                for (CompletableFuture<Channel> acquireFuture : acquireFutures) {
+                    if (acquireFuture.isCompletedExceptionally())
+                        continue;
+
+                    CompletableFuture<Void> releaseFuture = new CompletableFuture<>();
+                    pool.release(acquireFuture.join()).addListener(future -> releaseFuture.complete(null));
+                    releaseFutures.add(releaseFuture);
+                }
+                return CompletableFuture.allOf(releaseFutures.toArray(new CompletableFuture[0]));
+            })
+            .thenCompose(allReleased -> allReleased);
+    }
+
+    /**
+     * Gets the given newly acquired channel ready for reuse by a downstream call to the given target. For HTTPS
+     * targets this adds the SSL handler (if it's not already there) and waits for the TLS handshake to finish. The
+     * SSL handler is left in place so the first downstream call that uses the channel will reuse it instead of doing
+     * its own handshake.
+     */
+    protected CompletableFuture<Void> prepWarmChannel(Channel ch, DownstreamWarmupTarget target) {
+        if (!target.isHttps)
+            return CompletableFuture.completedFuture(null);
+
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        ch.eventLoop().execute(() -> {
+            try {
+                ChannelPipeline p = ch.pipeline();
+                SslHandler sslHandler = (SslHandler) p.get(SSL_HANDLER_NAME);
+                if (sslHandler == null) {
+                    sslHandler = getOrCreateClientSslContext(target.relaxedHttpsValidation).newHandler(ch.alloc());
+                    // Adding the SSL handler to an already connected channel kicks off the handshake.
+                    p.addLast(SSL_HANDLER_NAME, sslHandler);
+                }
+
+                sslHandler.handshakeFuture().addListener(handshakeFuture -> {
+                    if (handshakeFuture.isSuccess())
+                        result.complete(null);
+                    else
+                        result.completeExceptionally(handshakeFuture.cause());
+                });
+            }
+            catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        return result;
+    }
+
     protected static class ChannelPoolHandlerImpl extends AbstractChannelPoolHandler {
         @Override
         public void channelCreated(Channel ch) throws Exception {
@@ -588,6 +1431,162 @@ public class StreamingAsyncHttpClient {
         boolean relaxedHttpsValidation, StreamingCallback callback, long downstreamCallTimeoutMillis,
         boolean performSubSpanAroundDownstreamCalls, boolean addTracingHeadersToDownstreamCall,
         ChannelHandlerContext ctx
+    ) {
+        return doStreamDownstreamCall(
+            downstreamHost, downstreamPort, initialRequestChunk, isSecureHttpsCall, relaxedHttpsValidation, callback,
+            downstreamCallTimeoutMillis, performSubSpanAroundDownstreamCalls, addTracingHeadersToDownstreamCall, ctx,
+            null, null
+        );
+    }
+
+    /**
+     * Same as {@link #streamDownstreamCall(String, int, HttpRequest, boolean, boolean, StreamingCallback, long,
+     * boolean, boolean, ChannelHandlerContext, HedgingPolicy, RetryPolicy)} with no {@link RetryPolicy}.
+     */
+    public CompletableFuture<StreamingChannel> streamDownstreamCall(
+        String downstreamHost, int downstreamPort, HttpRequest initialRequestChunk, boolean isSecureHttpsCall,
+        boolean relaxedHttpsValidation, StreamingCallback callback, long downstreamCallTimeoutMillis,
+        boolean performSubSpanAroundDownstreamCalls, boolean addTracingHeadersToDownstreamCall,
+        ChannelHandlerContext ctx, HedgingPolicy hedgingPolicy
+    ) {
+        return streamDownstreamCall(
+            downstreamHost, downstreamPort, initialRequestChunk, isSecureHttpsCall, relaxedHttpsValidation, callback,
+            downstreamCallTimeoutMillis, performSubSpanAroundDownstreamCalls, addTracingHeadersToDownstreamCall, ctx,
+            hedgingPolicy, null
+        );
+    }
+
+    /**
+     * Same as {@link #streamDownstreamCall(String, int, HttpRequest, boolean, boolean, StreamingCallback, long,
+     * boolean, boolean, ChannelHandlerContext, HedgingPolicy, RetryPolicy, String)} with no routing key.
+     */
+    public CompletableFuture<StreamingChannel> streamDownstreamCall(
+        String downstreamHost, int downstreamPort, HttpRequest initialRequestChunk, boolean isSecureHttpsCall,
+        boolean relaxedHttpsValidation, StreamingCallback callback, long downstreamCallTimeoutMillis,
+        boolean performSubSpanAroundDownstreamCalls, boolean addTracingHeadersToDownstreamCall,
+        ChannelHandlerContext ctx, HedgingPolicy hedgingPolicy, RetryPolicy retryPolicy
+    ) {
+        return streamDownstreamCall(
+            downstreamHost, downstreamPort, initialRequestChunk, isSecureHttpsCall, relaxedHttpsValidation, callback,
+            downstreamCallTimeoutMillis, performSubSpanAroundDownstreamCalls, addTracingHeadersToDownstreamCall, ctx,
+            hedgingPolicy, retryPolicy, null
+        );
+    }
+
+    /**
+     * Same as {@link #streamDownstreamCall(String, int, HttpRequest, boolean, boolean, StreamingCallback, long,
+     * boolean, boolean, ChannelHandlerContext, HedgingPolicy, RetryPolicy, String, ProxyResponseMicroCache)} with no
+     * micro-cache.
+     */
+    public CompletableFuture<StreamingChannel> streamDownstreamCall(
+        String downstreamHost, int downstreamPort, HttpRequest initialRequestChunk, boolean isSecureHttpsCall,
+        boolean relaxedHttpsValidation, StreamingCallback callback, long downstreamCallTimeoutMillis,
+        boolean performSubSpanAroundDownstreamCalls, boolean addTracingHeadersToDownstreamCall,
+        ChannelHandlerContext ctx, HedgingPolicy hedgingPolicy, RetryPolicy retryPolicy, String routingKey
+    ) {
+        return streamDownstreamCall(
+            downstreamHost, downstreamPort, initialRequestChunk, isSecureHttpsCall, relaxedHttpsValidation, callback,
+            downstreamCallTimeoutMillis, performSubSpanAroundDownstreamCalls, addTracingHeadersToDownstreamCall, ctx,
+            hedgingPolicy, retryPolicy, routingKey, null
+        );
+    }
+
+    /**
+     * Same as {@link #streamDownstreamCall(String, int, HttpRequest, boolean, boolean, StreamingCallback, long,
+     * boolean, boolean, ChannelHandlerContext)}, but hedges the call according to the given {@link HedgingPolicy} if
+     * the call is eligible for hedging (see {@link #isHedgeableCall(HttpRequest, HedgingPolicy)}), or otherwise
+     * retries it according to the given {@link RetryPolicy} if it's eligible for retries (see {@link
+     * #isRetryableCall(HttpRequest, RetryPolicy)}). See {@link HedgedDownstreamCall} and {@link
+     * RetryingDownstreamCall} for how hedged and retried calls work. Calls that aren't eligible for either (including
+     * all calls when both policies are null) are made exactly as they would be without a policy.
+     * <p/>
+     * If the given routing key is not null then every call with that key goes to the same one of the host's resolved
+     * addresses, as long as that address isn't ejected or carrying much more than its share of the outstanding calls
+     * (see {@link #chooseAddress(String, InetAddress[], int, InetSocketAddress, String)}). Hedges and retries go to a
+     * different address than the call they're hedging or retrying.
+     * <p/>
+     * If the given micro-cache is not null and the request is cacheable (see {@link
+     * ProxyResponseMicroCache#isCacheableRequest(HttpRequest)}) then the call may be served from the cache without
+     * going downstream at all. See {@link MicroCachedDownstreamCall} for how cached calls work.
+     */
+    public CompletableFuture<StreamingChannel> streamDownstreamCall(
+        String downstreamHost, int downstreamPort, HttpRequest initialRequestChunk, boolean isSecureHttpsCall,
+        boolean relaxedHttpsValidation, StreamingCallback callback, long downstreamCallTimeoutMillis,
+        boolean performSubSpanAroundDownstreamCalls, boolean addTracingHeadersToDownstreamCall,
+        ChannelHandlerContext ctx, HedgingPolicy hedgingPolicy, RetryPolicy retryPolicy, String routingKey,
+        ProxyResponseMicroCache microCache
+    ) {
+        if (microCache != null && microCache.isCacheableRequest(initialRequestChunk)) {
+            return new MicroCachedDownstreamCall(
+                this, microCache, downstreamHost, downstreamPort, initialRequestChunk, isSecureHttpsCall,
+                relaxedHttpsValidation, callback, downstreamCallTimeoutMillis, performSubSpanAroundDownstreamCalls,
+                addTracingHeadersToDownstreamCall, ctx, hedgingPolicy, retryPolicy, routingKey
+            ).start();
+        }
+
+        if (isHedgeableCall(initialRequestChunk, hedgingPolicy)) {
+            return new HedgedDownstreamCall(
+                this, hedgingPolicy, downstreamHost, downstreamPort, initialRequestChunk, isSecureHttpsCall,
+                relaxedHttpsValidation, callback, downstreamCallTimeoutMillis, performSubSpanAroundDownstreamCalls,
+                addTracingHeadersToDownstreamCall, ctx, routingKey
+            ).start();
+        }
+
+        if (isRetryableCall(initialRequestChunk, retryPolicy)) {
+            return new RetryingDownstreamCall(
+                this, retryPolicy, downstreamHost, downstreamPort, initialRequestChunk, isSecureHttpsCall,
+                relaxedHttpsValidation, callback, downstreamCallTimeoutMillis, performSubSpanAroundDownstreamCalls,
+                addTracingHeadersToDownstreamCall, ctx, routingKey
+            ).start();
+        }
+
+        return doStreamDownstreamCall(
+            downstreamHost, downstreamPort, initialRequestChunk, isSecureHttpsCall, relaxedHttpsValidation,
+            callback, downstreamCallTimeoutMillis, performSubSpanAroundDownstreamCalls,
+            addTracingHeadersToDownstreamCall, ctx, null, routingKey
+        );
+    }
+
+    /**
+     * @return true if the given policy is not null, the request uses one of the policy's hedgeable (idempotent) HTTP
+     * methods, and the request has no body. Request bodies are streamed through to the downstream call rather than
+     * buffered, so they can't be replayed for a hedge.
+     */
+    protected boolean isHedgeableCall(HttpRequest initialRequestChunk, HedgingPolicy hedgingPolicy) {
+        return hedgingPolicy != null
+               && hedgingPolicy.isHedgeableHttpMethod(initialRequestChunk.getMethod().name())
+               && isBodilessRequest(initialRequestChunk);
+    }
+
+    /**
+     * @return true if the given policy is not null and the given first chunk is not itself an {@link HttpContent}. A
+     * first chunk that carries content has its reference count reduced when it's written, so it can't be sent again.
+     */
+    protected boolean isRetryableCall(HttpRequest initialRequestChunk, RetryPolicy retryPolicy) {
+        return retryPolicy != null && !(initialRequestChunk instanceof HttpContent);
+    }
+
+    /**
+     * @return true if the given first chunk is the whole request, i.e. it doesn't carry content itself and no content
+     * chunks will follow it.
+     */
+    protected static boolean isBodilessRequest(HttpRequest initialRequestChunk) {
+        return !(initialRequestChunk instanceof HttpContent)
+               && !HttpHeaders.isTransferEncodingChunked(initialRequestChunk)
+               && HttpHeaders.getContentLength(initialRequestChunk, 0) == 0;
+    }
+
+    /**
+     * Does the work for {@link #streamDownstreamCall(String, int, HttpRequest, boolean, boolean, StreamingCallback,
+     * long, boolean, boolean, ChannelHandlerContext)}. If the given address to avoid is not null then the call will
+     * go to one of the host's other addresses if it has any. If the given routing key is not null then the address is
+     * chosen by the host's consistent hash ring.
+     */
+    protected CompletableFuture<StreamingChannel> doStreamDownstreamCall(
+        String downstreamHost, int downstreamPort, HttpRequest initialRequestChunk, boolean isSecureHttpsCall,
+        boolean relaxedHttpsValidation, StreamingCallback callback, long downstreamCallTimeoutMillis,
+        boolean performSubSpanAroundDownstreamCalls, boolean addTracingHeadersToDownstreamCall,
+        ChannelHandlerContext ctx, InetSocketAddress addressToAvoid, String routingKey
     ) {
         CompletableFuture<StreamingChannel> streamingChannel = new CompletableFuture<>();
 
@@ -601,9 +1600,70 @@ public class StreamingAsyncHttpClient {
 
         long beforeConnectionStartTimeNanos = System.nanoTime();
 
-        // Create a connection to the downstream server.
-        ChannelPool pool = getPooledChannelFuture(downstreamHost, downstreamPort);
-        Future<Channel> channelFuture = pool.acquire();
+        // Resolve the downstream host into an IP address. This is normally served from the resolver's cache, in which
+        //      case the future is already complete and we can connect immediately on this thread.
+        CompletableFuture<InetSocketAddress> downstreamAddressFuture =
+            resolveHostnameToInetSocketAddressAsync(downstreamHost, downstreamPort, addressToAvoid, routingKey);
+        if (downstreamAddressFuture.isDone()) {
+            InetSocketAddress downstreamAddress;
+            try {
+                downstreamAddress = downstreamAddressFuture.join();
+            }
+            catch (CompletionException ex) {
+                // Preserve the historical behavior of throwing the HostnameResolutionException directly.
+                if (ex.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) ex.getCause();
+
+                throw ex;
+            }
+
+            acquireChannelAndStreamDownstreamCall(
+                getChannelPoolForAddress(downstreamAddress, ctx), beforeConnectionStartTimeNanos, downstreamHost,
+                downstreamPort, initialRequestChunk, isSecureHttpsCall, relaxedHttpsValidation, callback,
+                downstreamCallTimeoutMillis, performSubSpanAroundDownstreamCalls, addTracingHeadersToDownstreamCall,
+                ctx, streamingChannel
+            );
+        }
+        else {
+            // The hostname wasn't cached, so the resolver is doing a lookup on one of its own threads. Connect when
+            //      it's done.
+            downstreamAddressFuture.whenComplete((downstreamAddress, error) -> {
+                if (error != null) {
+                    streamingChannel.completeExceptionally(
+                        (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error
+                    );
+                    return;
+                }
+
+                try {
+                    acquireChannelAndStreamDownstreamCall(
+                        getChannelPoolForAddress(downstreamAddress, ctx), beforeConnectionStartTimeNanos,
+                        downstreamHost, downstreamPort, initialRequestChunk, isSecureHttpsCall, relaxedHttpsValidation,
+                        callback, downstreamCallTimeoutMillis, performSubSpanAroundDownstreamCalls,
+                        addTracingHeadersToDownstreamCall, ctx, streamingChannel
+                    );
+                }
+                catch (Throwable t) {
+                    streamingChannel.completeExceptionally(t);
+                }
+            });
+        }
+
+        return streamingChannel;
+    }
+
+    protected void acquireChannelAndStreamDownstreamCall(
+        ChannelPool pool, long beforeConnectionStartTimeNanos, String downstreamHost, int downstreamPort,
+        HttpRequest initialRequestChunk, boolean isSecureHttpsCall, boolean relaxedHttpsValidation,
+        StreamingCallback callback, long downstreamCallTimeoutMillis, boolean performSubSpanAroundDownstreamCalls,
+        boolean addTracingHeadersToDownstreamCall, ChannelHandlerContext ctx,
+        CompletableFuture<StreamingChannel> streamingChannel
+    ) {
+        // Create a connection to the downstream server. Pools that balance across the host's IP addresses need to know
+        //      this acquire is for a real call.
+        Future<Channel> channelFuture = (pool instanceof ProxyRouterChannelPool)
+                                        ? ((ProxyRouterChannelPool) pool).acquireForDownstreamCall()
+                                        : pool.acquire();
         // Add a listener that kicks off the downstream call once the connection is completed.
         channelFuture.addListener(future -> {
             Pair<Deque<Span>, Map<String, String>> originalThreadInfo = null;
@@ -629,8 +1689,10 @@ public class StreamingAsyncHttpClient {
                     try {
                         // We did not connect to the downstream host successfully. Notify the callback.
                         streamingChannel.completeExceptionally(
-                            new WrapperException("Unable to connect to downstream host: " + downstreamHost,
-                                                 future.cause())
+                            new DownstreamRequestNotSentException(
+                                "Unable to connect to downstream host: " + downstreamHost, future.cause(),
+                                getRemoteAddressForPool(pool)
+                            )
                         );
                     }
                     finally {
@@ -694,9 +1756,9 @@ public class StreamingAsyncHttpClient {
                 //      wrong thread we can get deadlock type situations. By running the relevant bits in the channel's
                 //      event loop we're guaranteed it will be run in the correct thread.
                 ch.eventLoop().execute(runnableWithTracingAndMdc(() -> {
-                    BiConsumer<String, Throwable> prepChannelErrorHandler = (errorMessage, cause) -> {
+                    Consumer<Throwable> failStreamingChannel = (error) -> {
                         try {
-                            streamingChannel.completeExceptionally(new WrapperException(errorMessage, cause));
+                            streamingChannel.completeExceptionally(error);
                         }
                         finally {
                             // This channel may be permanently busted depending on the error, so mark it broken and let
@@ -705,6 +1767,8 @@ public class StreamingAsyncHttpClient {
                             pool.release(ch);
                         }
                     };
+                    BiConsumer<String, Throwable> prepChannelErrorHandler = (errorMessage, cause) ->
+                        failStreamingChannel.accept(new WrapperException(errorMessage, cause));
 
                     try {
                         ObjectHolder<Boolean> callActiveHolder = new ObjectHolder<>();
@@ -732,9 +1796,14 @@ public class StreamingAsyncHttpClient {
                                     distributedSpanStackToUse, mdcContextToUse
                                 ));
                             else {
-                                prepChannelErrorHandler.accept(
-                                    "Writing the first HttpRequest chunk to the downstream service failed.",
-                                    completedWriteFuture.cause()
+                                // Nothing downstream can have acted on a request whose first chunk couldn't be
+                                //      written (this is usually a pooled channel that went stale), so flag it as
+                                //      safe to retry.
+                                failStreamingChannel.accept(
+                                    new DownstreamRequestNotSentException(
+                                        "Writing the first HttpRequest chunk to the downstream service failed.",
+                                        completedWriteFuture.cause(), getRemoteAddressForPool(pool)
+                                    )
                                 );
                                 //noinspection UnnecessaryReturnStatement
                                 return;
@@ -779,8 +1848,27 @@ public class StreamingAsyncHttpClient {
                 unlinkTracingAndMdcFromCurrentThread(originalThreadInfo);
             }
         });
+    }
 
-        return streamingChannel;
+    /**
+     * @return The {@link SslContext} used for downstream HTTPS calls, creating it if necessary. Note that the context is
+     * created the first time it's needed, so the {@code relaxedHttpsValidation} value of the first HTTPS call (or
+     * warmup) wins.
+     */
+    protected SslContext getOrCreateClientSslContext(boolean relaxedHttpsValidation)
+        throws SSLException, NoSuchAlgorithmException, KeyStoreException {
+        if (clientSslCtx == null) {
+            if (relaxedHttpsValidation) {
+                clientSslCtx = SslContextBuilder.forClient().trustManager(InsecureTrustManagerFactory.INSTANCE).build();
+            }
+            else {
+                TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+                tmf.init((KeyStore) null);
+                clientSslCtx = SslContextBuilder.forClient().trustManager(tmf).build();
+            }
+        }
+
+        return clientSslCtx;
     }
 
     protected void prepChannelForDownstreamCall(
@@ -790,6 +1878,9 @@ public class StreamingAsyncHttpClient {
         ObjectHolder<Boolean> callActiveHolder, ObjectHolder<Boolean> lastChunkSentDownstreamHolder
     ) throws SSLException, NoSuchAlgorithmException, KeyStoreException {
 
+        ObjectHolder<Boolean> responseReceivedHolder = new ObjectHolder<>();
+        responseReceivedHolder.heldObject = false;
+
         ChannelHandler chunkSenderHandler = new SimpleChannelInboundHandler<HttpObject>() {
             @Override
             protected void channelRead0(ChannelHandlerContext downstreamCallCtx, HttpObject msg) throws Exception {
@@ -822,6 +1913,8 @@ public class StreamingAsyncHttpClient {
                             //      msg's headers might get modified - potentially causing this channel pipeline to
                             //      never send a LastHttpContent, which will in turn cause an indefinite hang.
                             HttpResponse origHttpResponse = (HttpResponse) msg;
+                            responseReceivedHolder.heldObject = true;
+                            recordCallOutcomeForOutlierEjection(pool, origHttpResponse.getStatus().code() < 500);
 
                             HttpResponse httpResponse =
                                 (msg instanceof FullHttpResponse)
@@ -874,6 +1967,11 @@ public class StreamingAsyncHttpClient {
 
                     Tracer.getInstance().unregisterFromThread();
 
+                    // The call failed before we got the response headers (e.g. the connection was reset or the call
+                    //      timed out), so count it against the downstream address.
+                    if (!responseReceivedHolder.heldObject)
+                        recordCallOutcomeForOutlierEjection(pool, false);
+
                     if (cause instanceof Errors.NativeIoException) {
                         // NativeIoExceptions are often setup to not have stack traces which is bad for debugging.
                         //      Wrap it in a NativeIoExceptionWrapper that maps to a 503 since this is likely a busted
@@ -981,20 +2079,8 @@ public class StreamingAsyncHttpClient {
         if (isSecureHttpsCall) {
             // SSL call. Make sure we add the SSL handler if necessary.
             if (!registeredHandlerNames.contains(SSL_HANDLER_NAME)) {
-                if (clientSslCtx == null) {
-                    if (relaxedHttpsValidation) {
-                        clientSslCtx =
-                            SslContextBuilder.forClient().trustManager(InsecureTrustManagerFactory.INSTANCE).build();
-                    }
-                    else {
-                        TrustManagerFactory tmf =
-                            TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-                        tmf.init((KeyStore) null);
-                        clientSslCtx = SslContextBuilder.forClient().trustManager(tmf).build();
-                    }
-                }
-
-                p.addAfter(DOWNSTREAM_CALL_TIMEOUT_HANDLER_NAME, SSL_HANDLER_NAME, clientSslCtx.newHandler(ch.alloc()));
+                p.addAfter(DOWNSTREAM_CALL_TIMEOUT_HANDLER_NAME, SSL_HANDLER_NAME,
+                           getOrCreateClientSslContext(relaxedHttpsValidation).newHandler(ch.alloc()));
             }
         }
         else {
@@ -1154,6 +2240,29 @@ public class StreamingAsyncHttpClient {
             p.addLast(handlerName, handler);
     }
 
+    /**
+     * Reports the outcome of a downstream call to {@link #outlierEjectionTracker}. A call counts as a failure if it
+     * errored out before the response headers arrived or if the response was a 5xx.
+     */
+    protected void recordCallOutcomeForOutlierEjection(ChannelPool pool, boolean success) {
+        if (!(pool instanceof ProxyRouterChannelPool))
+            return;
+
+        InetSocketAddress remoteAddress = ((ProxyRouterChannelPool) pool).remoteAddress;
+        if (success)
+            outlierEjectionTracker.recordSuccess(remoteAddress);
+        else
+            outlierEjectionTracker.recordFailure(remoteAddress);
+    }
+
+    /**
+     * @return The downstream address the given pool connects to, or null if it's not one of our {@link
+     * ProxyRouterChannelPool}s.
+     */
+    protected InetSocketAddress getRemoteAddressForPool(ChannelPool pool) {
+        return (pool instanceof ProxyRouterChannelPool) ? ((ProxyRouterChannelPool) pool).remoteAddress : null;
+    }
+
     protected static void releaseChannelBackToPoolIfCallIsActive(Channel ch, ChannelPool pool,
                                                                  ObjectHolder<Boolean> callActiveHolder,
                                                                  String contextReason,
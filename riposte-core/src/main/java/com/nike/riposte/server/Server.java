@@ -14,6 +14,10 @@ import java.io.IOException;
 import java.security.cert.CertificateException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.Channel;
@@ -125,16 +129,22 @@ public class Server {
                 serverConfig.riposteUnhandledErrorHandler(),
                 serverConfig.requestContentValidationService(), serverConfig.defaultRequestContentDeserializer(),
                 new ResponseSender(
-                    serverConfig.defaultResponseContentSerializer(), serverConfig.errorResponseBodySerializer()
+                    serverConfig.defaultResponseContentSerializer(), serverConfig.errorResponseBodySerializer(),
+                    serverConfig.responseCache(), serverConfig.entityTagGenerator(),
+                    serverConfig.staticResponseHeaders()
                 ),
                 serverConfig.metricsListener(),
                 serverConfig.defaultCompletableFutureTimeoutInMillisForNonblockingEndpoints(),
                 serverConfig.accessLogger(), serverConfig.pipelineCreateHooks(),
                 serverConfig.requestSecurityValidator(), serverConfig.workerChannelIdleTimeoutMillis(),
-                serverConfig.proxyRouterConnectTimeoutMillis(), serverConfig.incompleteHttpCallTimeoutMillis(),
+                serverConfig.proxyRouterConnectTimeoutMillis(), serverConfig.isProxyRouterSharesWorkerEventLoops(),
+                serverConfig.proxyRouterHostnameResolver(), serverConfig.proxyRouterConnectionPoolConfig(),
+                serverConfig.proxyRouterConnectionPoolMetrics(), serverConfig.proxyRouterOutlierEjectionConfig(),
+                serverConfig.incompleteHttpCallTimeoutMillis(),
                 serverConfig.maxOpenIncomingServerChannels(), serverConfig.isDebugChannelLifecycleLoggingEnabled(),
                 serverConfig.userIdHeaderKeys(), serverConfig.responseCompressionThresholdBytes(),
-                serverConfig.httpRequestDecoderConfig()
+                serverConfig.adaptiveCompressionPolicy(), serverConfig.httpRequestDecoderConfig(),
+                serverConfig.requestDeadlineConfig()
             );
         }
 
@@ -159,6 +169,11 @@ public class Server {
                       .sync()
                       .channel();
 
+        // Warm up the downstream connections for proxy/router endpoints before the post startup hooks run, since
+        //      that's where service registration hooks (e.g. Eureka) tell the world this server is ready for traffic.
+        if (channelInitializer instanceof HttpChannelInitializer)
+            warmUpProxyRouterConnections((HttpChannelInitializer) channelInitializer, workerGroup);
+
         // execute post startup hooks
         if (serverConfig.postServerStartupHooks() != null) {
             for (PostServerStartupHook hook : serverConfig.postServerStartupHooks()) {
@@ -186,6 +201,26 @@ public class Server {
         });
     }
 
+    protected void warmUpProxyRouterConnections(HttpChannelInitializer httpChannelInitializer,
+                                                EventLoopGroup workerGroup) throws InterruptedException {
+        CompletableFuture<Void> warmupFuture = httpChannelInitializer.warmUpProxyRouterConnections(
+            serverConfig.proxyRouterWarmupTargets(), workerGroup
+        );
+
+        try {
+            warmupFuture.get(serverConfig.proxyRouterWarmupTimeoutMillis(), TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException ex) {
+            logger.warn(
+                "Timed out waiting for downstream connection warmup to finish - server startup will continue anyway. "
+                + "proxy_router_warmup_timeout_millis={}", serverConfig.proxyRouterWarmupTimeoutMillis()
+            );
+        }
+        catch (ExecutionException ex) {
+            logger.warn("Downstream connection warmup failed - server startup will continue anyway.", ex.getCause());
+        }
+    }
+
     public void shutdown() throws InterruptedException {
         try {
             logger.info("Shutting down Riposte...");
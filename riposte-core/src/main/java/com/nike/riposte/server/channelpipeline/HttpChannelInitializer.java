@@ -2,9 +2,15 @@ package com.nike.riposte.server.channelpipeline;
 
 import com.nike.internal.util.StringUtils;
 import com.nike.riposte.client.asynchttp.netty.StreamingAsyncHttpClient;
+import com.nike.riposte.client.dns.CachingHostnameResolver;
+import com.nike.riposte.client.pool.DownstreamConnectionPoolConfig;
+import com.nike.riposte.client.pool.DownstreamConnectionPoolMetrics;
+import com.nike.riposte.client.pool.DownstreamOutlierEjectionConfig;
+import com.nike.riposte.client.pool.DownstreamWarmupTarget;
 import com.nike.riposte.metrics.MetricsListener;
 import com.nike.riposte.server.config.ServerConfig;
 import com.nike.riposte.server.config.ServerConfig.HttpRequestDecoderConfig;
+import com.nike.riposte.server.config.ServerConfig.RequestDeadlineConfig;
 import com.nike.riposte.server.error.exception.DownstreamIdleChannelTimeoutException;
 import com.nike.riposte.server.error.handler.RiposteErrorHandler;
 import com.nike.riposte.server.error.handler.RiposteUnhandledErrorHandler;
@@ -28,6 +34,7 @@ import com.nike.riposte.server.handler.RequestFilterHandler;
 import com.nike.riposte.server.handler.RequestHasBeenHandledVerificationHandler;
 import com.nike.riposte.server.handler.RequestInfoSetterHandler;
 import com.nike.riposte.server.handler.RequestStateCleanerHandler;
+import com.nike.riposte.server.handler.ResponseCacheHandler;
 import com.nike.riposte.server.handler.ResponseFilterHandler;
 import com.nike.riposte.server.handler.ResponseSenderHandler;
 import com.nike.riposte.server.handler.RoutingHandler;
@@ -36,8 +43,10 @@ import com.nike.riposte.server.handler.SmartHttpContentCompressor;
 import com.nike.riposte.server.handler.SmartHttpContentDecompressor;
 import com.nike.riposte.server.hooks.PipelineCreateHook;
 import com.nike.riposte.server.http.Endpoint;
+import com.nike.riposte.server.http.ProxyRouterEndpoint;
 import com.nike.riposte.server.http.RequestInfo;
 import com.nike.riposte.server.http.ResponseSender;
+import com.nike.riposte.server.http.compression.AdaptiveCompressionPolicy;
 import com.nike.riposte.server.http.filter.RequestAndResponseFilter;
 import com.nike.riposte.server.logging.AccessLogger;
 
@@ -49,11 +58,13 @@ import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.channel.socket.SocketChannel;
@@ -149,6 +160,11 @@ public class HttpChannelInitializer extends ChannelInitializer<SocketChannel> {
      * The name of the {@link RequestFilterHandler} after security handler in the pipeline.
      */
     public static final String REQUEST_FILTER_AFTER_SECURITY_HANDLER_NAME = "AfterSecurityRequestFilterHandler";
+
+    /**
+     * The name of the {@link ResponseCacheHandler} handler in the pipeline.
+     */
+    public static final String RESPONSE_CACHE_HANDLER_NAME = "ResponseCacheHandler";
     /**
      * The name of the {@link RoutingHandler} handler in the pipeline.
      */
@@ -231,13 +247,16 @@ public class HttpChannelInitializer extends ChannelInitializer<SocketChannel> {
     private final ChannelGroup openChannelsGroup;
     private final boolean debugChannelLifecycleLoggingEnabled;
     private final int responseCompressionThresholdBytes;
+    private final AdaptiveCompressionPolicy adaptiveCompressionPolicy;
     private final HttpRequestDecoderConfig httpRequestDecoderConfig;
+    private final RequestDeadlineConfig requestDeadlineConfig;
 
     private final StreamingAsyncHttpClient streamingAsyncHttpClientForProxyRouterEndpoints;
 
     private final RequestFilterHandler beforeSecurityRequestFilterHandler;
     private final RequestFilterHandler afterSecurityRequestFilterHandler;
     private final ResponseFilterHandler cachedResponseFilterHandler;
+    private final ResponseCacheHandler cachedResponseCacheHandler;
 
     private final List<String> userIdHeaderKeys;
 
@@ -299,6 +318,26 @@ public class HttpChannelInitializer extends ChannelInitializer<SocketChannel> {
      *     service before giving up and throwing a connection timeout exception. Set this to 0 to disable connection
      *     timeouts entirely, which is REALLY DEFINITELY NOT RECOMMENDED and you do so at your own risk. See {@link
      *     ServerConfig#proxyRouterConnectTimeoutMillis()}
+     * @param proxyRouterSharesWorkerEventLoops
+     *     Whether proxy/router endpoints should register their downstream connections on the incoming channel's worker
+     *     event loop (with per-event-loop connection pools) rather than a separate event loop group. See {@link
+     *     ServerConfig#isProxyRouterSharesWorkerEventLoops()}.
+     * @param proxyRouterHostnameResolver
+     *     The resolver proxy/router endpoints should use to resolve downstream hostnames without blocking. Can be null -
+     *     if it is null then {@link CachingHostnameResolver#getDefaultInstance()} will be used. See {@link
+     *     ServerConfig#proxyRouterHostnameResolver()}.
+     * @param proxyRouterConnectionPoolConfig
+     *     The size, acquire timeout, and eviction settings for the per-host downstream connection pools used by
+     *     proxy/router endpoints. Can be null - if it is null then {@link DownstreamConnectionPoolConfig#DEFAULT_IMPL}
+     *     will be used. See {@link ServerConfig#proxyRouterConnectionPoolConfig()}.
+     * @param proxyRouterConnectionPoolMetrics
+     *     Where the downstream connection pools used by proxy/router endpoints register their stats. Can be null - if
+     *     it is null then {@link DownstreamConnectionPoolMetrics#getDefaultInstance()} will be used. See {@link
+     *     ServerConfig#proxyRouterConnectionPoolMetrics()}.
+     * @param proxyRouterOutlierEjectionConfig
+     *     The settings for ejecting individual downstream IP addresses that keep failing proxy/router calls. Can be
+     *     null - if it is null then {@link DownstreamOutlierEjectionConfig#DEFAULT_IMPL} will be used. See {@link
+     *     ServerConfig#proxyRouterOutlierEjectionConfig()}.
      * @param incompleteHttpCallTimeoutMillis
      *     The amount of idle time in milliseconds that the server should wait before throwing an
      *     incomplete-http-call-timeout when the request has been started (we've received at least one chunk of the
@@ -315,6 +354,17 @@ public class HttpChannelInitializer extends ChannelInitializer<SocketChannel> {
      *     active/inactive/closed/etc)
      * @param userIdHeaderKeys
      *     The list of header keys that are considered "user ID header keys" for the purpose of distributed tracing.
+     * @param responseCompressionThresholdBytes
+     *     The size threshold (in bytes) above which response payloads are eligible for compression. See {@link
+     *     ServerConfig#responseCompressionThresholdBytes()}.
+     * @param adaptiveCompressionPolicy
+     *     The policy used to pick the compression level for each response and to memoize compressed variants. Can be
+     *     null - if it is null then all responses are compressed at a fixed level. See {@link
+     *     ServerConfig#adaptiveCompressionPolicy()}.
+     * @param requestDeadlineConfig
+     *     Determines each request's deadline and how it's propagated to downstream calls. Can be null - if it is null
+     *     then {@link RequestDeadlineConfig#DEFAULT_IMPL} will be used (no deadlines). See {@link
+     *     ServerConfig#requestDeadlineConfig()}.
      */
     public HttpChannelInitializer(SslContext sslCtx,
                                   int maxRequestSizeInBytes,
@@ -333,12 +383,19 @@ public class HttpChannelInitializer extends ChannelInitializer<SocketChannel> {
                                   RequestSecurityValidator requestSecurityValidator,
                                   long workerChannelIdleTimeoutMillis,
                                   long proxyRouterConnectTimeoutMillis,
+                                  boolean proxyRouterSharesWorkerEventLoops,
+                                  CachingHostnameResolver proxyRouterHostnameResolver,
+                                  DownstreamConnectionPoolConfig proxyRouterConnectionPoolConfig,
+                                  DownstreamConnectionPoolMetrics proxyRouterConnectionPoolMetrics,
+                                  DownstreamOutlierEjectionConfig proxyRouterOutlierEjectionConfig,
                                   long incompleteHttpCallTimeoutMillis,
                                   int maxOpenChannelsThreshold,
                                   boolean debugChannelLifecycleLoggingEnabled,
                                   List<String> userIdHeaderKeys,
                                   int responseCompressionThresholdBytes,
-                                  HttpRequestDecoderConfig httpRequestDecoderConfig) {
+                                  AdaptiveCompressionPolicy adaptiveCompressionPolicy,
+                                  HttpRequestDecoderConfig httpRequestDecoderConfig,
+                                  RequestDeadlineConfig requestDeadlineConfig) {
         if (endpoints == null || endpoints.isEmpty())
             throw new IllegalArgumentException("endpoints cannot be empty");
 
@@ -396,7 +453,9 @@ public class HttpChannelInitializer extends ChannelInitializer<SocketChannel> {
         this.debugChannelLifecycleLoggingEnabled = debugChannelLifecycleLoggingEnabled;
 
         this.streamingAsyncHttpClientForProxyRouterEndpoints = new StreamingAsyncHttpClient(
-            workerChannelIdleTimeoutMillis, proxyRouterConnectTimeoutMillis, debugChannelLifecycleLoggingEnabled
+            workerChannelIdleTimeoutMillis, proxyRouterConnectTimeoutMillis, debugChannelLifecycleLoggingEnabled,
+            proxyRouterSharesWorkerEventLoops, proxyRouterHostnameResolver, proxyRouterConnectionPoolConfig,
+            proxyRouterConnectionPoolMetrics, proxyRouterOutlierEjectionConfig
         );
 
         boolean hasReqResFilters = requestAndResponseFilters != null && !requestAndResponseFilters.isEmpty();
@@ -421,9 +480,54 @@ public class HttpChannelInitializer extends ChannelInitializer<SocketChannel> {
         }
 
         cachedResponseFilterHandler = (hasReqResFilters) ? new ResponseFilterHandler(requestAndResponseFilters) : null;
+        // The response cache is owned by the ResponseSender since that's where responses are stored after they've
+        //      been serialized.
+        cachedResponseCacheHandler = (responseSender.getResponseCache() == null)
+                                     ? null
+                                     : new ResponseCacheHandler(responseSender.getResponseCache());
         this.userIdHeaderKeys = userIdHeaderKeys;
         this.responseCompressionThresholdBytes = responseCompressionThresholdBytes;
+        this.adaptiveCompressionPolicy = adaptiveCompressionPolicy;
         this.httpRequestDecoderConfig = httpRequestDecoderConfig;
+        this.requestDeadlineConfig = requestDeadlineConfig;
+    }
+
+    /**
+     * Opens the downstream connections for the given warmup targets plus any targets declared by this instance's
+     * {@link ProxyRouterEndpoint}s (via {@link ProxyRouterEndpoint#downstreamWarmupTargets()}), and keeps them topped
+     * up while the given worker group is running. See {@link StreamingAsyncHttpClient#warmUpConnections(Collection,
+     * EventLoopGroup, long)} for details.
+     *
+     * @param serverConfigWarmupTargets The warmup targets from {@link ServerConfig#proxyRouterWarmupTargets()}. Can be
+     * null.
+     * @param workerGroup The server's worker event loop group.
+     * @return A future that completes when the initial warmup has finished. This future never completes exceptionally.
+     */
+    public CompletableFuture<Void> warmUpProxyRouterConnections(
+        Collection<DownstreamWarmupTarget> serverConfigWarmupTargets, EventLoopGroup workerGroup
+    ) {
+        List<DownstreamWarmupTarget> warmupTargets = new ArrayList<>();
+        if (serverConfigWarmupTargets != null)
+            warmupTargets.addAll(serverConfigWarmupTargets);
+
+        if (endpoints != null) {
+            for (Endpoint<?> endpoint : endpoints) {
+                if (endpoint instanceof ProxyRouterEndpoint) {
+                    Collection<DownstreamWarmupTarget> endpointTargets =
+                        ((ProxyRouterEndpoint) endpoint).downstreamWarmupTargets();
+                    if (endpointTargets != null)
+                        warmupTargets.addAll(endpointTargets);
+                }
+            }
+        }
+
+        if (warmupTargets.isEmpty())
+            return CompletableFuture.completedFuture(null);
+
+        logger.info("Warming up downstream connections for proxy/router endpoints. warmup_targets={}", warmupTargets);
+        return streamingAsyncHttpClientForProxyRouterEndpoints.warmUpConnections(
+            warmupTargets, workerGroup, StreamingAsyncHttpClient.DEFAULT_WARM_CONNECTION_MAINTENANCE_INTERVAL_MILLIS
+        );
     }
 
     @Override
@@ -472,7 +576,7 @@ public class HttpChannelInitializer extends ChannelInitializer<SocketChannel> {
         //          request/response/size threshold). This must be added after HttpServerCodec so that it can process
         //          after the request on the incoming pipeline and before the response on the outbound pipeline.
         p.addLast(SMART_HTTP_CONTENT_COMPRESSOR_HANDLER_NAME,
-                  new SmartHttpContentCompressor(responseCompressionThresholdBytes));
+                  new SmartHttpContentCompressor(responseCompressionThresholdBytes, adaptiveCompressionPolicy));
 
         // INBOUND - Add the "before security" RequestFilterHandler before security and even before routing
         //      (if we have any filters to apply). This is here before RoutingHandler so that it can intercept requests
@@ -490,7 +594,8 @@ public class HttpChannelInitializer extends ChannelInitializer<SocketChannel> {
         p.addLast(SMART_HTTP_CONTENT_DECOMPRESSOR_HANDLER_NAME, new SmartHttpContentDecompressor());
 
         // INBOUND - Add RequestInfoSetterHandler to populate our RequestInfo's content.
-        p.addLast(REQUEST_INFO_SETTER_HANDLER_NAME, new RequestInfoSetterHandler(maxRequestSizeInBytes));
+        p.addLast(REQUEST_INFO_SETTER_HANDLER_NAME,
+                  new RequestInfoSetterHandler(maxRequestSizeInBytes, requestDeadlineConfig));
         // INBOUND - Add OpenChannelLimitHandler to limit the number of open incoming server channels, but only if
         //           maxOpenChannelsThreshold is not -1.
         if (maxOpenChannelsThreshold != -1) {
@@ -505,6 +610,12 @@ public class HttpChannelInitializer extends ChannelInitializer<SocketChannel> {
         if (afterSecurityRequestFilterHandler != null)
             p.addLast(REQUEST_FILTER_AFTER_SECURITY_HANDLER_NAME, afterSecurityRequestFilterHandler);
 
+        // INBOUND - Add the ResponseCacheHandler to serve cached responses for endpoints that want response caching
+        //           (if the server has a response cache). This comes before deserialization so that cache hits skip
+        //           all the expensive work.
+        if (cachedResponseCacheHandler != null)
+            p.addLast(RESPONSE_CACHE_HANDLER_NAME, cachedResponseCacheHandler);
+
         // INBOUND - Now that the request state knows which endpoint will be called we can try to deserialize the
         //           request content (if desired by the endpoint)
         p.addLast(REQUEST_CONTENT_DESERIALIZER_HANDLER_NAME,
@@ -518,7 +629,8 @@ public class HttpChannelInitializer extends ChannelInitializer<SocketChannel> {
         // INBOUND - Add NonblockingEndpointExecutionHandler to perform execution of async/nonblocking endpoints
         p.addLast(NONBLOCKING_ENDPOINT_EXECUTION_HANDLER_NAME,
                   new NonblockingEndpointExecutionHandler(longRunningTaskExecutor,
-                                                          defaultCompletableFutureTimeoutMillis));
+                                                          defaultCompletableFutureTimeoutMillis,
+                                                          responseSender.getEntityTagGenerator()));
 
         // INBOUND - Add ProxyRouterEndpointExecutionHandler to perform execution of proxy routing endpoints
         p.addLast(PROXY_ROUTER_ENDPOINT_EXECUTION_HANDLER_NAME,
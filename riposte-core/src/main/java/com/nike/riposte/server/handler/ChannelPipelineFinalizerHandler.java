@@ -1,8 +1,10 @@
 package com.nike.riposte.server.handler;
 
+import com.nike.riposte.client.asynchttp.netty.StreamingAsyncHttpClient;
 import com.nike.riposte.metrics.MetricsListener;
 import com.nike.riposte.server.channelpipeline.ChannelAttributes;
 import com.nike.riposte.server.channelpipeline.message.LastOutboundMessage;
+import com.nike.riposte.server.error.exception.CallerDisconnectedException;
 import com.nike.riposte.server.error.handler.ErrorResponseBody;
 import com.nike.riposte.server.handler.base.BaseInboundHandlerWithTracingAndMdcSupport;
 import com.nike.riposte.server.handler.base.PipelineContinuationBehavior;
@@ -13,7 +15,10 @@ import com.nike.riposte.server.http.ResponseInfo;
 import com.nike.riposte.server.http.ResponseSender;
 import com.nike.riposte.server.http.impl.RequestInfoImpl;
 import com.nike.riposte.server.logging.AccessLogger;
+import com.nike.riposte.server.metrics.RequestCancellationMetrics;
 import com.nike.riposte.server.metrics.ServerMetricsEvent;
+import com.nike.riposte.util.CancellableTaskExecutor;
+import com.nike.riposte.util.HttpUtils;
 import com.nike.wingtips.Span;
 import com.nike.wingtips.Tracer;
 
@@ -22,6 +27,8 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.CompletableFuture;
+
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
@@ -54,6 +61,8 @@ public class ChannelPipelineFinalizerHandler extends BaseInboundHandlerWithTraci
     private final long workerChannelIdleTimeoutMillis;
     private static final Throwable ARTIFICIAL_SERVER_WORKER_CHANNEL_CLOSED_EXCEPTION =
         new RuntimeException("Server worker channel closed");
+    private static final Throwable CALLER_DISCONNECTED_EXCEPTION = new CallerDisconnectedException();
+    protected RequestCancellationMetrics requestCancellationMetrics = RequestCancellationMetrics.getDefaultInstance();
 
     /**
      * @param exceptionHandlingHandler
@@ -306,6 +315,10 @@ public class ChannelPipelineFinalizerHandler extends BaseInboundHandlerWithTraci
                 ).run();
             }
 
+            // Nobody is waiting for the response any more, so stop any endpoint work that's still going.
+            if (responseNotFullySent)
+                cancelOutstandingEndpointWork(httpState, proxyRouterState, ctx);
+
             // Make sure access logging is handled
             if (!httpState.isAccessLogCompletedOrScheduled() && accessLogger != null) {
                 httpState.setAccessLogCompletedOrScheduled(true);
@@ -326,7 +339,13 @@ public class ChannelPipelineFinalizerHandler extends BaseInboundHandlerWithTraci
             if (requestInfo != null)
                 requestInfo.releaseAllResources();
 
-            releaseProxyRouterStateResources(proxyRouterState, ctx);
+            // Release any ByteBuf response content that will now never be sent.
+            HttpUtils.releaseUnsentResponseContent(responseInfo);
+
+            releaseProxyRouterStateResources(
+                proxyRouterState, ctx,
+                (responseNotFullySent) ? CALLER_DISCONNECTED_EXCEPTION : ARTIFICIAL_SERVER_WORKER_CHANNEL_CLOSED_EXCEPTION
+            );
         }
         catch(Throwable t) {
             runnableWithTracingAndMdc(
@@ -353,12 +372,63 @@ public class ChannelPipelineFinalizerHandler extends BaseInboundHandlerWithTraci
      */
     protected void releaseProxyRouterStateResources(ProxyRouterProcessingState proxyRouterState,
                                                     ChannelHandlerContext ctx) {
+        releaseProxyRouterStateResources(proxyRouterState, ctx, ARTIFICIAL_SERVER_WORKER_CHANNEL_CLOSED_EXCEPTION);
+    }
+
+    /**
+     * Same as {@link #releaseProxyRouterStateResources(ProxyRouterProcessingState, ChannelHandlerContext)}, but uses
+     * the given reason when cancelling the request streaming and the downstream call.
+     */
+    protected void releaseProxyRouterStateResources(ProxyRouterProcessingState proxyRouterState,
+                                                    ChannelHandlerContext ctx,
+                                                    Throwable reason) {
         if (proxyRouterState != null) {
-            proxyRouterState.cancelRequestStreaming(
-                ARTIFICIAL_SERVER_WORKER_CHANNEL_CLOSED_EXCEPTION,
-                ctx
-            );
-            proxyRouterState.cancelDownstreamRequest(ARTIFICIAL_SERVER_WORKER_CHANNEL_CLOSED_EXCEPTION);
+            proxyRouterState.cancelRequestStreaming(reason, ctx);
+            proxyRouterState.cancelDownstreamRequest(reason);
+        }
+    }
+
+    /**
+     * Cancels the endpoint work that's still outstanding for a request whose caller disconnected before the response
+     * was sent. The endpoint's future is completed exceptionally with a {@link CallerDisconnectedException} - if the
+     * request's pre-endpoint work hasn't finished yet then this also means the endpoint is never executed - and the
+     * tasks the endpoint started on the long running task executor are cancelled (see {@link
+     * CancellableTaskExecutor}). Proxied downstream calls are closed separately by {@link
+     * #releaseProxyRouterStateResources(ProxyRouterProcessingState, ChannelHandlerContext, Throwable)}, and are
+     * counted here if they're still active.
+     */
+    protected void cancelOutstandingEndpointWork(HttpProcessingState httpState,
+                                                 ProxyRouterProcessingState proxyRouterState,
+                                                 ChannelHandlerContext ctx) {
+        CompletableFuture<?> endpointFuture = httpState.getEndpointExecutionFuture();
+        if (endpointFuture != null && !endpointFuture.isDone()) {
+            CompletableFuture<Void> preEndpointWork = httpState.getPreEndpointExecutionWorkChain();
+            boolean endpointExecutionSkipped = preEndpointWork != null && !preEndpointWork.isDone();
+            if (endpointFuture.completeExceptionally(CALLER_DISCONNECTED_EXCEPTION)) {
+                CancellableTaskExecutor taskExecutor = httpState.getEndpointTaskExecutor();
+                int[] cancelledTasks = (taskExecutor == null) ? new int[2] : taskExecutor.cancelAll();
+                requestCancellationMetrics.recordCancelledRequest(
+                    endpointExecutionSkipped, cancelledTasks[0], cancelledTasks[1]
+                );
+
+                runnableWithTracingAndMdc(
+                    () -> logger.info("Cancelled the endpoint work for a request whose caller disconnected. "
+                                      + "endpoint_execution_skipped={}, skipped_tasks={}, interrupted_tasks={}",
+                                      endpointExecutionSkipped, cancelledTasks[0], cancelledTasks[1]),
+                    ctx
+                ).run();
+            }
+        }
+
+        CompletableFuture<StreamingAsyncHttpClient.StreamingChannel> streamingChannelFuture =
+            (proxyRouterState == null) ? null : proxyRouterState.getStreamingChannelCompletableFuture();
+        if (streamingChannelFuture != null) {
+            // Registered before releaseProxyRouterStateResources() closes the call, so the call is still active here
+            //      if it hadn't finished.
+            streamingChannelFuture.whenComplete((sc, error) -> {
+                if (sc != null && sc.isDownstreamCallActive())
+                    requestCancellationMetrics.recordCancelledDownstreamCall();
+            });
         }
     }
 }
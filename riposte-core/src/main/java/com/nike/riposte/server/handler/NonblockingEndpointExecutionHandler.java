@@ -2,14 +2,24 @@ package com.nike.riposte.server.handler;
 
 import com.nike.riposte.server.channelpipeline.ChannelAttributes;
 import com.nike.riposte.server.channelpipeline.message.LastOutboundMessageSendFullResponseInfo;
+import com.nike.riposte.server.channelpipeline.message.OutboundMessageSendHeadersChunkFromResponseInfo;
 import com.nike.riposte.server.error.exception.NonblockingEndpointCompletableFutureTimedOut;
+import com.nike.riposte.server.error.exception.RequestDeadlineExceededException;
 import com.nike.riposte.server.handler.base.BaseInboundHandlerWithTracingAndMdcSupport;
 import com.nike.riposte.server.handler.base.PipelineContinuationBehavior;
 import com.nike.riposte.server.http.Endpoint;
 import com.nike.riposte.server.http.HttpProcessingState;
 import com.nike.riposte.server.http.NonblockingEndpoint;
+import com.nike.riposte.server.http.RequestDeadline;
 import com.nike.riposte.server.http.RequestInfo;
+import com.nike.riposte.server.http.ResponseChunkPublisher;
 import com.nike.riposte.server.http.ResponseInfo;
+import com.nike.riposte.server.http.cache.EntityTagGenerator;
+import com.nike.riposte.server.http.cache.ResponseCache;
+import com.nike.riposte.server.http.cache.ResponseCachingOptions;
+import com.nike.riposte.server.http.impl.ChunkedResponseInfo;
+import com.nike.riposte.util.CancellableTaskExecutor;
+import com.nike.riposte.util.HttpUtils;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,7 +29,11 @@ import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.LastHttpContent;
 import io.netty.util.concurrent.EventExecutor;
 import io.netty.util.concurrent.ScheduledFuture;
@@ -27,6 +41,8 @@ import io.netty.util.concurrent.ScheduledFuture;
 import static com.nike.riposte.util.AsyncNettyHelper.executeOnlyIfChannelIsActive;
 import static com.nike.riposte.util.AsyncNettyHelper.functionWithTracingAndMdc;
 import static com.nike.riposte.util.AsyncNettyHelper.runnableWithTracingAndMdc;
+import static io.netty.handler.codec.http.HttpHeaders.Names.ETAG;
+import static io.netty.handler.codec.http.HttpHeaders.Names.IF_NONE_MATCH;
 
 /**
  * Inspects the current channel state's {@link HttpProcessingState#getEndpointForExecution()} to see if it is a {@link
@@ -39,6 +55,15 @@ import static com.nike.riposte.util.AsyncNettyHelper.runnableWithTracingAndMdc;
  * HttpProcessingState#getEndpointForExecution()} has been populated. It should also come after {@link
  * RequestContentDeserializerHandler} and {@link RequestContentValidationHandler} to make sure the {@link RequestInfo}
  * is fully setup before executing the endpoint.
+ * <p/>
+ * Endpoints normally return full responses. The one exception is a {@link ChunkedResponseInfo} with a {@link
+ * ResponseChunkPublisher} attached (see {@link ChunkedResponseInfo#getResponseChunkPublisher()}) - in that case the
+ * headers chunk is fired down the pipeline and {@link com.nike.riposte.server.http.ResponseSender} takes care of
+ * pulling the payload chunks from the publisher as the channel is able to accept them.
+ * <p/>
+ * For GET and HEAD requests the endpoint's {@link Endpoint#currentEntityTag(RequestInfo)} hook is consulted before
+ * the endpoint is executed. If the request's {@code If-None-Match} header matches the tag then a {@code 304 Not
+ * Modified} is returned without executing the endpoint, otherwise the tag is used as the response's {@code ETag}.
  */
 @SuppressWarnings("WeakerAccess")
 public class NonblockingEndpointExecutionHandler extends BaseInboundHandlerWithTracingAndMdcSupport {
@@ -46,14 +71,29 @@ public class NonblockingEndpointExecutionHandler extends BaseInboundHandlerWithT
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
     private final Executor longRunningTaskExecutor;
     private final long defaultCompletableFutureTimeoutMillis;
+    private final EntityTagGenerator entityTagGenerator;
 
     public NonblockingEndpointExecutionHandler(Executor longRunningTaskExecutor,
                                                long defaultCompletableFutureTimeoutMillis) {
+        this(longRunningTaskExecutor, defaultCompletableFutureTimeoutMillis, null);
+    }
+
+    /**
+     * @param longRunningTaskExecutor The executor that is passed to the endpoints. Cannot be null.
+     * @param defaultCompletableFutureTimeoutMillis The default amount of time to wait for an endpoint's future to
+     * complete before timing it out.
+     * @param entityTagGenerator The {@link EntityTagGenerator} to record {@code 304 Not Modified} responses with when
+     * an endpoint's {@link Endpoint#currentEntityTag(RequestInfo)} matches the request. May be null.
+     */
+    public NonblockingEndpointExecutionHandler(Executor longRunningTaskExecutor,
+                                               long defaultCompletableFutureTimeoutMillis,
+                                               EntityTagGenerator entityTagGenerator) {
         if (longRunningTaskExecutor == null)
             throw new IllegalArgumentException("longRunningTaskExecutor cannot be null");
 
         this.longRunningTaskExecutor = longRunningTaskExecutor;
         this.defaultCompletableFutureTimeoutMillis = defaultCompletableFutureTimeoutMillis;
+        this.entityTagGenerator = entityTagGenerator;
     }
 
     protected boolean shouldHandleDoChannelReadMessage(Object msg, Endpoint<?> endpoint) {
@@ -80,14 +120,23 @@ public class NonblockingEndpointExecutionHandler extends BaseInboundHandlerWithT
                 //      CompletableFuture for the endpoint call to only execute if the pre-endpoint-execution
                 //      validation/work chain is successful.
                 RequestInfo<?> requestInfo = state.getRequestInfo();
+                // The endpoint gets a wrapper around the long running task executor so that the tasks it starts for
+                //      this request can be cancelled if the caller disconnects (see ChannelPipelineFinalizerHandler).
+                CancellableTaskExecutor endpointTaskExecutor = new CancellableTaskExecutor(longRunningTaskExecutor);
                 @SuppressWarnings("unchecked")
                 CompletableFuture<ResponseInfo<?>> responseFuture = state
                     .getPreEndpointExecutionWorkChain()
                     .thenCompose(functionWithTracingAndMdc(
-                        aVoid -> (CompletableFuture<ResponseInfo<?>>)nonblockingEndpoint.execute(
-                            requestInfo, longRunningTaskExecutor, ctx
-                        ), ctx)
-                    );
+                        aVoid -> {
+                            // Don't bother starting the endpoint if the caller's deadline is already too close.
+                            throwIfRequestDeadlineIsTooClose(state);
+                            return executeEndpointUnlessNotModified(
+                                nonblockingEndpoint, requestInfo, endpointTaskExecutor, ctx
+                            );
+                        },
+                        ctx
+                    ));
+                state.setEndpointExecution(responseFuture, endpointTaskExecutor);
 
                 // Register an on-completion callback so we can be notified when the CompletableFuture finishes.
                 responseFuture.whenComplete((responseInfo, throwable) -> {
@@ -98,10 +147,15 @@ public class NonblockingEndpointExecutionHandler extends BaseInboundHandlerWithT
                 });
 
                 // Also schedule a timeout check with our Netty event loop to make sure we kill the
-                //      CompletableFuture if it goes on too long.
-                long timeoutValueToUse = (nonblockingEndpoint.completableFutureTimeoutOverrideMillis() == null)
-                                         ? defaultCompletableFutureTimeoutMillis
-                                         : nonblockingEndpoint.completableFutureTimeoutOverrideMillis();
+                //      CompletableFuture if it goes on too long. The timeout is capped at the time left before the
+                //      request's deadline (if it has one).
+                long configuredTimeoutValue = (nonblockingEndpoint.completableFutureTimeoutOverrideMillis() == null)
+                                              ? defaultCompletableFutureTimeoutMillis
+                                              : nonblockingEndpoint.completableFutureTimeoutOverrideMillis();
+                RequestDeadline requestDeadline = state.getRequestDeadline();
+                long timeoutValueToUse = (requestDeadline == null)
+                                         ? configuredTimeoutValue
+                                         : requestDeadline.capTimeoutMillis(configuredTimeoutValue);
                 ScheduledFuture<?> responseTimeoutScheduledFuture = ctx.channel().eventLoop().schedule(() -> {
                     if (!responseFuture.isDone()) {
                         runnableWithTracingAndMdc(
@@ -146,6 +200,80 @@ public class NonblockingEndpointExecutionHandler extends BaseInboundHandlerWithT
         return PipelineContinuationBehavior.CONTINUE;
     }
 
+    /**
+     * Throws a {@link RequestDeadlineExceededException} if the given request's deadline is too close for the endpoint
+     * to be started. Does nothing if the request doesn't have a deadline.
+     */
+    protected void throwIfRequestDeadlineIsTooClose(HttpProcessingState state) {
+        RequestDeadline requestDeadline = state.getRequestDeadline();
+        RequestDeadlineExceededException deadlineExceeded =
+            (requestDeadline == null) ? null : requestDeadline.exceededExceptionIfTooClose();
+        if (deadlineExceeded != null)
+            throw deadlineExceeded;
+    }
+
+    /**
+     * Executes the given endpoint, unless the endpoint's {@link Endpoint#currentEntityTag(RequestInfo)} matches the
+     * request's {@code If-None-Match} header, in which case a {@code 304 Not Modified} is returned without ever
+     * executing the endpoint.
+     */
+    protected CompletableFuture<ResponseInfo<?>> executeEndpointUnlessNotModified(NonblockingEndpoint endpoint,
+                                                                                  RequestInfo<?> requestInfo,
+                                                                                  ChannelHandlerContext ctx) {
+        return executeEndpointUnlessNotModified(endpoint, requestInfo, longRunningTaskExecutor, ctx);
+    }
+
+    /**
+     * Same as {@link #executeEndpointUnlessNotModified(NonblockingEndpoint, RequestInfo, ChannelHandlerContext)}, but
+     * passes the given executor to the endpoint.
+     */
+    @SuppressWarnings("unchecked")
+    protected CompletableFuture<ResponseInfo<?>> executeEndpointUnlessNotModified(NonblockingEndpoint endpoint,
+                                                                                  RequestInfo<?> requestInfo,
+                                                                                  Executor executor,
+                                                                                  ChannelHandlerContext ctx) {
+        String entityTag = getCurrentEntityTagIfApplicable(endpoint, requestInfo);
+        if (entityTag == null)
+            return (CompletableFuture<ResponseInfo<?>>) endpoint.execute(requestInfo, executor, ctx);
+
+        HttpHeaders requestHeaders = requestInfo.getHeaders();
+        String ifNoneMatch = (requestHeaders == null) ? null : requestHeaders.get(IF_NONE_MATCH);
+        if (EntityTagGenerator.isIfNoneMatchSatisfiedBy(ifNoneMatch, entityTag)) {
+            if (entityTagGenerator != null)
+                entityTagGenerator.recordNotModifiedResponse(0);
+
+            return CompletableFuture.completedFuture(
+                ResponseInfo.newBuilder()
+                            .withHttpStatusCode(HttpResponseStatus.NOT_MODIFIED.code())
+                            .withHeaders(new DefaultHttpHeaders().set(ETAG, entityTag))
+                            .build()
+            );
+        }
+
+        CompletableFuture<ResponseInfo<?>> responseFuture =
+            (CompletableFuture<ResponseInfo<?>>) endpoint.execute(requestInfo, executor, ctx);
+
+        return responseFuture.thenApply(responseInfo -> {
+            if (responseInfo != null && !responseInfo.getHeaders().contains(ETAG))
+                responseInfo.getHeaders().set(ETAG, entityTag);
+
+            return responseInfo;
+        });
+    }
+
+    /**
+     * @return The endpoint's {@link Endpoint#currentEntityTag(RequestInfo)} converted to an {@code ETag} header value,
+     * or null if this isn't a GET or HEAD request or the endpoint doesn't know its current entity tag.
+     */
+    protected String getCurrentEntityTagIfApplicable(Endpoint<?> endpoint, RequestInfo<?> requestInfo) {
+        HttpMethod method = requestInfo.getMethod();
+        if (!HttpMethod.GET.equals(method) && !HttpMethod.HEAD.equals(method))
+            return null;
+
+        String versionTag = endpoint.currentEntityTag(requestInfo);
+        return (versionTag == null) ? null : EntityTagGenerator.toEntityTag(versionTag);
+    }
+
     @Override
     protected boolean argsAreEligibleForLinkingAndUnlinkingDistributedTracingInfo(
         HandlerMethodToExecute methodToExecute, ChannelHandlerContext ctx, Object msgOrEvt, Throwable cause
@@ -157,17 +285,19 @@ public class NonblockingEndpointExecutionHandler extends BaseInboundHandlerWithT
     protected void asyncCallback(ChannelHandlerContext ctx, ResponseInfo<?> responseInfo) {
         HttpProcessingState state = ChannelAttributes.getHttpProcessingStateForChannel(ctx).get();
 
-        if (responseInfo.isChunkedResponse()) {
-            // Whoops, chunked responses are not allowed for this endpoint type.
+        if (responseInfo.isChunkedResponse() && !isStreamingResponseWithPublisher(responseInfo)) {
+            // Whoops, chunked responses are not allowed for this endpoint type unless they have a publisher to pull
+            //      the payload from.
             asyncErrorCallback(
                 ctx,
-                new Exception("NonblockingEndpoint execution resulted in a chunked ResponseInfo, when only full "
-                              + "ResponseInfos are allowed. offending_endpoint_class=" +
+                new Exception("NonblockingEndpoint execution resulted in a chunked ResponseInfo without a "
+                              + "ResponseChunkPublisher, when only full ResponseInfos or chunked ResponseInfos with a "
+                              + "ResponseChunkPublisher are allowed. offending_endpoint_class=" +
                               state.getEndpointForExecution().getClass().getName())
             );
         }
         else {
-            executeOnlyIfChannelIsActive(
+            boolean channelIsActive = executeOnlyIfChannelIsActive(
                 ctx, "NonblockingEndpointExecutionHandler-asyncCallback",
                 () -> {
                     // We have to set the ResponseInfo on the state and fire the event while in the
@@ -183,22 +313,75 @@ public class NonblockingEndpointExecutionHandler extends BaseInboundHandlerWithT
                     }
                 }
             );
+
+            // The caller is gone, so a streaming response's publisher will never be pulled from and any ByteBuf
+            //      content will never be sent. Let them clean up.
+            if (!channelIsActive) {
+                if (isStreamingResponseWithPublisher(responseInfo)) {
+                    ((ChunkedResponseInfo) responseInfo).getResponseChunkPublisher().cancel(new IllegalStateException(
+                        "The channel was closed before the endpoint's streaming response could be sent."
+                    ));
+                }
+                else
+                    HttpUtils.releaseUnsentResponseContent(responseInfo);
+            }
         }
     }
 
+    protected boolean isStreamingResponseWithPublisher(ResponseInfo<?> responseInfo) {
+        return (responseInfo instanceof ChunkedResponseInfo)
+               && ((ChunkedResponseInfo) responseInfo).getResponseChunkPublisher() != null;
+    }
+
     protected void setResponseInfoAndActivatePipelineForResponse(HttpProcessingState state,
                                                                  ResponseInfo<?> responseInfo,
                                                                  ChannelHandlerContext ctx) {
         if (state.isRequestHandled()) {
             logger.warn("The request has already been handled, likely due to an error, so "
                         + "the endpoint's response will be ignored.");
+
+            // If the endpoint gave us a publisher then it needs to know we won't be pulling anything from it so it can
+            //      clean up after itself.
+            if (isStreamingResponseWithPublisher(responseInfo)) {
+                ((ChunkedResponseInfo) responseInfo).getResponseChunkPublisher().cancel(new IllegalStateException(
+                    "The request has already been handled - ignoring the endpoint's streaming response."
+                ));
+            }
+            else
+                HttpUtils.releaseUnsentResponseContent(responseInfo);
         }
         else {
+            captureResponseCacheHeaders(state, responseInfo);
             state.setResponseInfo(responseInfo);
-            ctx.fireChannelRead(LastOutboundMessageSendFullResponseInfo.INSTANCE);
+            if (responseInfo.isChunkedResponse()) {
+                // A streaming response. Kick off the headers chunk - ResponseSender will pull the payload from the
+                //      publisher after the headers are sent.
+                ctx.fireChannelRead(OutboundMessageSendHeadersChunkFromResponseInfo.INSTANCE);
+            }
+            else
+                ctx.fireChannelRead(LastOutboundMessageSendFullResponseInfo.INSTANCE);
         }
     }
 
+    /**
+     * If the request missed in the response cache (see {@link HttpProcessingState#getResponseCacheKey()}) then this
+     * adds the request headers that are part of the cache key to the response's {@code Vary} header, and takes a copy
+     * of the endpoint's response headers for the cache now, before response filters or the response sender add any
+     * per-request headers to them.
+     */
+    protected void captureResponseCacheHeaders(HttpProcessingState state, ResponseInfo<?> responseInfo) {
+        if (state.getResponseCacheKey() == null)
+            return;
+
+        Endpoint<?> endpoint = state.getEndpointForExecution();
+        ResponseCachingOptions options = (endpoint == null) ? null : endpoint.responseCachingOptions();
+        if (options != null)
+            ResponseCache.addToVaryHeader(responseInfo.getHeaders(), options.getVaryHeaderNames());
+
+        if (!responseInfo.isChunkedResponse())
+            state.setResponseCacheHeaders(new DefaultHttpHeaders().add(responseInfo.getHeaders()));
+    }
+
     protected void asyncErrorCallback(ChannelHandlerContext ctx, Throwable error) {
         executeOnlyIfChannelIsActive(
             ctx, "NonblockingEndpointExecutionHandler-asyncErrorCallback",
@@ -7,6 +7,7 @@ import com.nike.riposte.server.http.ResponseInfo;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelOutboundHandlerAdapter;
 import io.netty.channel.ChannelPromise;
+import io.netty.channel.FileRegion;
 import io.netty.handler.codec.http.HttpContent;
 import io.netty.handler.codec.http.HttpResponse;
 
@@ -39,18 +40,24 @@ public class ProcessFinalResponseOutputHandler extends ChannelOutboundHandlerAda
         }
 
         // Deal with the final outbound body content
-        if (msg instanceof HttpContent) {
-            HttpProcessingState state = ChannelAttributes.getHttpProcessingStateForChannel(ctx).get();
-            if (state != null && state.getResponseInfo() != null) {
-                ResponseInfo<?> responseInfo = state.getResponseInfo();
-                long contentBytes = ((HttpContent) msg).content().readableBytes();
-                if (responseInfo.getFinalContentLength() == null)
-                    responseInfo.setFinalContentLength(contentBytes);
-                else
-                    responseInfo.setFinalContentLength(responseInfo.getFinalContentLength() + contentBytes);
-            }
-        }
+        if (msg instanceof HttpContent)
+            addToFinalContentLength(ctx, ((HttpContent) msg).content().readableBytes());
+
+        // Zero-copy file payloads are written as FileRegions rather than HttpContent.
+        if (msg instanceof FileRegion)
+            addToFinalContentLength(ctx, ((FileRegion) msg).count());
 
         super.write(ctx, msg, promise);
     }
+
+    protected void addToFinalContentLength(ChannelHandlerContext ctx, long contentBytes) {
+        HttpProcessingState state = ChannelAttributes.getHttpProcessingStateForChannel(ctx).get();
+        if (state != null && state.getResponseInfo() != null) {
+            ResponseInfo<?> responseInfo = state.getResponseInfo();
+            if (responseInfo.getFinalContentLength() == null)
+                responseInfo.setFinalContentLength(contentBytes);
+            else
+                responseInfo.setFinalContentLength(responseInfo.getFinalContentLength() + contentBytes);
+        }
+    }
 }
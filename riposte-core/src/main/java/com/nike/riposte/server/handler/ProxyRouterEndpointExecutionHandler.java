@@ -12,6 +12,7 @@ import com.nike.riposte.server.channelpipeline.ChannelAttributes;
 import com.nike.riposte.server.channelpipeline.message.LastOutboundMessageSendLastContentChunk;
 import com.nike.riposte.server.channelpipeline.message.OutboundMessageSendContentChunk;
 import com.nike.riposte.server.channelpipeline.message.OutboundMessageSendHeadersChunkFromResponseInfo;
+import com.nike.riposte.server.error.exception.RequestDeadlineExceededException;
 import com.nike.riposte.server.handler.base.BaseInboundHandlerWithTracingAndMdcSupport;
 import com.nike.riposte.server.handler.base.PipelineContinuationBehavior;
 import com.nike.riposte.server.http.Endpoint;
@@ -19,10 +20,12 @@ import com.nike.riposte.server.http.HttpProcessingState;
 import com.nike.riposte.server.http.ProxyRouterEndpoint;
 import com.nike.riposte.server.http.ProxyRouterEndpoint.DownstreamRequestFirstChunkInfo;
 import com.nike.riposte.server.http.ProxyRouterProcessingState;
+import com.nike.riposte.server.http.RequestDeadline;
 import com.nike.riposte.server.http.RequestInfo;
 import com.nike.riposte.server.http.ResponseInfo;
 import com.nike.riposte.server.http.impl.RiposteInternalRequestInfo;
 import com.nike.riposte.util.AsyncNettyHelper;
+import com.nike.riposte.util.CancellableTaskExecutor;
 import com.nike.riposte.util.HttpUtils;
 import com.nike.wingtips.Span;
 
@@ -34,8 +37,11 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
@@ -48,6 +54,7 @@ import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.LastHttpContent;
 import io.netty.util.Attribute;
 import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
 
 import static com.nike.fastbreak.CircuitBreakerForHttpStatusCode.getDefaultHttpStatusCodeCircuitBreakerForKey;
 import static com.nike.riposte.util.AsyncNettyHelper.executeOnlyIfChannelIsActive;
@@ -75,6 +82,14 @@ public class ProxyRouterEndpointExecutionHandler extends BaseInboundHandlerWithT
     public static final String DOWNSTREAM_CALL_CONNECTION_SETUP_TIME_NANOS_REQUEST_ATTR_KEY =
         ProxyRouterEndpointExecutionHandler.class + "-ProxyRouterDownstreamConnectionSetupTimeNanos";
 
+    /**
+     * The default per-host circuit breakers (already adapted to take {@link HttpResponse}s), keyed by downstream host.
+     * A new instance of this handler is created for every channel, so this is static to make sure every proxied call
+     * to the same host reuses the same breaker instance rather than allocating a new adapter for each call.
+     */
+    protected static final ConcurrentMap<String, CircuitBreaker<HttpResponse>> DEFAULT_CIRCUIT_BREAKERS_BY_HOST =
+        new ConcurrentHashMap<>();
+
     public ProxyRouterEndpointExecutionHandler(Executor longRunningTaskExecutor,
                                                StreamingAsyncHttpClient streamingAsyncHttpClient,
                                                long defaultCompletableFutureTimeoutMillis) {
@@ -125,13 +140,17 @@ public class ProxyRouterEndpointExecutionHandler extends BaseInboundHandlerWithT
                 // We're supposed to start streaming. There may be pre-endpoint-execution validation logic or other work
                 //      that needs to happen before the endpoint is executed, so set up the CompletableFuture for the
                 //      endpoint call to only execute if the pre-endpoint-execution validation/work chain is successful.
+                //      The endpoint gets a wrapper around the long running task executor so that the tasks it starts
+                //      for this request can be cancelled if the caller disconnects.
+                CancellableTaskExecutor endpointTaskExecutor = new CancellableTaskExecutor(longRunningTaskExecutor);
                 CompletableFuture<DownstreamRequestFirstChunkInfo> firstChunkFuture =
                     state.getPreEndpointExecutionWorkChain()
                          .thenCompose(functionWithTracingAndMdc(
                              aVoid -> endpointProxyRouter
-                                 .getDownstreamRequestFirstChunkInfo(requestInfo, longRunningTaskExecutor, ctx),
+                                 .getDownstreamRequestFirstChunkInfo(requestInfo, endpointTaskExecutor, ctx),
                              ctx)
                          );
+                state.setEndpointExecution(firstChunkFuture, endpointTaskExecutor);
 
                 Long endpointTimeoutOverride = endpointProxyRouter.completableFutureTimeoutOverrideMillis();
                 long callTimeoutValueToUse = (endpointTimeoutOverride == null)
@@ -141,16 +160,29 @@ public class ProxyRouterEndpointExecutionHandler extends BaseInboundHandlerWithT
                 // When the first chunk is ready, stream it downstream and set up what happens afterward.
                 firstChunkFuture.whenComplete((downstreamRequestFirstChunkInfo, throwable) -> {
 
+                    // Fail fast if the caller's deadline is too close for the downstream call to be worth making.
+                    //      That's not the downstream host's fault, so the circuit breaker isn't involved.
+                    RequestDeadline requestDeadline = state.getRequestDeadline();
+                    RequestDeadlineExceededException deadlineExceeded =
+                        (throwable != null || requestDeadline == null)
+                        ? null
+                        : requestDeadline.exceededExceptionIfTooClose();
+
                     Optional<ManualModeTask<HttpResponse>> circuitBreakerManualTask =
-                        getCircuitBreaker(downstreamRequestFirstChunkInfo, ctx).map(CircuitBreaker::newManualModeTask);
+                        (deadlineExceeded != null)
+                        ? Optional.empty()
+                        : getCircuitBreaker(downstreamRequestFirstChunkInfo, ctx).map(CircuitBreaker::newManualModeTask);
 
-                    StreamingCallback callback = new StreamingCallbackForCtx(
+                    StreamingCallbackForCtx callback = new StreamingCallbackForCtx(
                         ctx, circuitBreakerManualTask, endpointProxyRouter, requestInfo, proxyRouterState
                     );
                     if (throwable != null) {
                         // Something blew up trying to determine the first chunk info.
                         callback.unrecoverableErrorOccurred(throwable, true);
                     }
+                    else if (deadlineExceeded != null) {
+                        callback.unrecoverableErrorOccurred(deadlineExceeded, true);
+                    }
                     else if (!ctx.channel().isOpen()) {
                         // The channel was closed for some reason before we were able to start streaming.
                         String errorMsg = "The channel from the original caller was closed before we could begin the "
@@ -190,6 +222,14 @@ public class ProxyRouterEndpointExecutionHandler extends BaseInboundHandlerWithT
                                 boolean performSubSpanAroundDownstreamCall = downstreamRequestFirstChunkInfo.performSubSpanAroundDownstreamCall;
                                 boolean addTracingHeadersToDownstreamCall = downstreamRequestFirstChunkInfo.addTracingHeadersToDownstreamCall;
 
+                                // Forward the caller's remaining budget downstream and don't wait on the downstream
+                                //      call for longer than the caller will wait for us.
+                                long downstreamCallTimeoutMillis = callTimeoutValueToUse;
+                                if (requestDeadline != null) {
+                                    requestDeadline.setRemainingBudgetHeader(downstreamRequestFirstChunk.headers());
+                                    downstreamCallTimeoutMillis = requestDeadline.capTimeoutMillis(callTimeoutValueToUse);
+                                }
+
                                 // Tell the proxyRouterState about the streaming callback so that
                                 //      callback.unrecoverableErrorOccurred(...) can be called in the case of an error
                                 //      on subsequent chunks.
@@ -201,9 +241,12 @@ public class ProxyRouterEndpointExecutionHandler extends BaseInboundHandlerWithT
                                 CompletableFuture<StreamingChannel> streamingChannel =
                                     streamingAsyncHttpClient.streamDownstreamCall(
                                         downstreamHost, downstreamPort, downstreamRequestFirstChunk, isSecureHttpsCall,
-                                        relaxedHttpsValidation, callback, callTimeoutValueToUse,
+                                        relaxedHttpsValidation, callback, downstreamCallTimeoutMillis,
                                             performSubSpanAroundDownstreamCall, addTracingHeadersToDownstreamCall,
-                                            ctx
+                                            ctx, downstreamRequestFirstChunkInfo.hedgingPolicy,
+                                            downstreamRequestFirstChunkInfo.retryPolicy,
+                                            downstreamRequestFirstChunkInfo.routingKey,
+                                            downstreamRequestFirstChunkInfo.microCache
                                     );
 
                                 // Tell the streaming channel future what to do when it completes.
@@ -212,6 +255,11 @@ public class ProxyRouterEndpointExecutionHandler extends BaseInboundHandlerWithT
                                         // Successfully connected and sent the first chunk. We can now safely let
                                         //      the remaining content chunks through for streaming.
                                         proxyRouterState.triggerChunkProcessing(sc);
+
+                                        // The downstream call's timeout handler only fires when the call goes idle,
+                                        //      so also end the call when the caller's deadline passes.
+                                        if (requestDeadline != null)
+                                            scheduleDownstreamCallDeadline(sc, callback, requestDeadline);
                                     }
                                     else {
                                         // Something blew up while connecting to the downstream server.
@@ -252,6 +300,31 @@ public class ProxyRouterEndpointExecutionHandler extends BaseInboundHandlerWithT
         return PipelineContinuationBehavior.CONTINUE;
     }
 
+    /**
+     * Schedules a timer on the given {@link StreamingChannel}'s event loop that fails the downstream call with a {@link
+     * RequestDeadlineExceededException} if it's still active when the given deadline passes. A downstream system that
+     * keeps trickling data back never looks idle, so the downstream call timeout alone can't enforce the deadline.
+     * The timer is cancelled by the callback once the downstream response finishes or fails.
+     */
+    protected static void scheduleDownstreamCallDeadline(
+        StreamingChannel sc, StreamingCallbackForCtx callback, RequestDeadline requestDeadline
+    ) {
+        ScheduledFuture<?> deadlineTimer = sc.getChannel().eventLoop().schedule(
+            () -> {
+                if (!sc.isDownstreamCallActive())
+                    return;
+
+                RequestDeadlineExceededException deadlineExceeded =
+                    new RequestDeadlineExceededException(requestDeadline.getRemainingMillis());
+                sc.closeChannelDueToUnrecoverableError(deadlineExceeded);
+                callback.unrecoverableErrorOccurred(deadlineExceeded, true);
+            },
+            Math.max(1, requestDeadline.getRemainingMillis()),
+            TimeUnit.MILLISECONDS
+        );
+        callback.setDownstreamCallDeadlineTimer(deadlineTimer);
+    }
+
     protected void registerChunkStreamingAction(
         ProxyRouterProcessingState proxyRouterState,
         HttpContent msgContent,
@@ -456,15 +529,25 @@ public class ProxyRouterEndpointExecutionHandler extends BaseInboundHandlerWithT
             return downstreamReqFirstChunkInfo.customCircuitBreaker;
 
         // No custom circuit breaker. Use the default for the given request's host.
-        EventLoop nettyEventLoop = ctx.channel().eventLoop();
+        String host = downstreamReqFirstChunkInfo.host;
+        CircuitBreaker<HttpResponse> circuitBreaker = DEFAULT_CIRCUIT_BREAKERS_BY_HOST.get(host);
+        if (circuitBreaker == null) {
+            EventLoop nettyEventLoop = ctx.channel().eventLoop();
+            circuitBreaker = DEFAULT_CIRCUIT_BREAKERS_BY_HOST.computeIfAbsent(
+                host, key -> createDefaultCircuitBreakerForHost(key, nettyEventLoop)
+            );
+        }
+
+        return Optional.of(circuitBreaker);
+    }
+
+    protected CircuitBreaker<HttpResponse> createDefaultCircuitBreakerForHost(String host, EventLoop nettyEventLoop) {
         CircuitBreaker<Integer> defaultStatusCodeCircuitBreaker = getDefaultHttpStatusCodeCircuitBreakerForKey(
-            downstreamReqFirstChunkInfo.host, Optional.ofNullable(nettyEventLoop), Optional.ofNullable(nettyEventLoop)
+            host, Optional.ofNullable(nettyEventLoop), Optional.ofNullable(nettyEventLoop)
         );
-        return Optional.of(
-            new CircuitBreakerDelegate<>(
-                defaultStatusCodeCircuitBreaker,
-                httpResponse -> (httpResponse == null ? null : httpResponse.getStatus().code())
-            )
+        return new CircuitBreakerDelegate<>(
+            defaultStatusCodeCircuitBreaker,
+            httpResponse -> (httpResponse == null ? null : httpResponse.getStatus().code())
         );
     }
 
@@ -489,6 +572,7 @@ public class ProxyRouterEndpointExecutionHandler extends BaseInboundHandlerWithT
         private boolean lastChunkSent = false;
         private boolean downstreamCallTimeSet = false;
         private boolean cancelStreamingToOriginalCaller = false;
+        private volatile ScheduledFuture<?> downstreamCallDeadlineTimer;
 
         private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
@@ -536,6 +620,21 @@ public class ProxyRouterEndpointExecutionHandler extends BaseInboundHandlerWithT
             }
         }
 
+        protected void setDownstreamCallDeadlineTimer(ScheduledFuture<?> downstreamCallDeadlineTimer) {
+            this.downstreamCallDeadlineTimer = downstreamCallDeadlineTimer;
+            // The response may have finished before the timer was handed to us.
+            if (lastChunkSent || cancelStreamingToOriginalCaller)
+                cancelDownstreamCallDeadlineTimer();
+        }
+
+        protected void cancelDownstreamCallDeadlineTimer() {
+            ScheduledFuture<?> timer = downstreamCallDeadlineTimer;
+            if (timer != null) {
+                timer.cancel(false);
+                downstreamCallDeadlineTimer = null;
+            }
+        }
+
         protected void setDownstreamCallTimeOnRequestAttributesIfNotAlreadyDone() {
             if (downstreamCallTimeSet)
                 return;
@@ -553,6 +652,7 @@ public class ProxyRouterEndpointExecutionHandler extends BaseInboundHandlerWithT
         @Override
         public void cancelStreamingToOriginalCaller() {
             this.cancelStreamingToOriginalCaller = true;
+            cancelDownstreamCallDeadlineTimer();
         }
 
         @Override
@@ -723,8 +823,10 @@ public class ProxyRouterEndpointExecutionHandler extends BaseInboundHandlerWithT
                 // We haven't already sent a last chunk to the user, which means no error response has occurred.
                 //      Therefore the in-progress response is still the downstream call's response, and we are free to
                 //      send this response chunk from the downstream call back to the original caller.
-                if (contentChunk instanceof LastHttpContent) 
+                if (contentChunk instanceof LastHttpContent) {
                     lastChunkSent = true;
+                    cancelDownstreamCallDeadlineTimer();
+                }
 
                 ctx.fireChannelRead(contentChunkToSend);
             }
@@ -739,6 +841,7 @@ public class ProxyRouterEndpointExecutionHandler extends BaseInboundHandlerWithT
             //      system can still successfully send a full response even though the request wasn't fully sent.
             proxyRouterProcessingState.cancelRequestStreaming(error, ctx);
 
+            cancelDownstreamCallDeadlineTimer();
             setDownstreamCallTimeOnRequestAttributesIfNotAlreadyDone();
 
             EventExecutor executor = ctx.executor();
@@ -1,10 +1,12 @@
 package com.nike.riposte.server.handler;
 
 import com.nike.riposte.server.channelpipeline.ChannelAttributes;
+import com.nike.riposte.server.config.ServerConfig.RequestDeadlineConfig;
 import com.nike.riposte.server.error.exception.RequestTooBigException;
 import com.nike.riposte.server.handler.base.BaseInboundHandlerWithTracingAndMdcSupport;
 import com.nike.riposte.server.handler.base.PipelineContinuationBehavior;
 import com.nike.riposte.server.http.HttpProcessingState;
+import com.nike.riposte.server.http.RequestDeadline;
 import com.nike.riposte.server.http.RequestInfo;
 import com.nike.riposte.server.http.impl.RequestInfoImpl;
 
@@ -32,6 +34,9 @@ import static com.nike.riposte.util.HttpUtils.isMaxRequestSizeValidationDisabled
  * The request size is tracked and if it exceeds the configured global or a given endpoint's override, an exception
  * will be thrown.
  *
+ * The request's deadline (if it has one based on the {@link RequestDeadlineConfig}) is also determined here when the
+ * {@link HttpRequest} arrives, and stored via {@link HttpProcessingState#setRequestDeadline(RequestDeadline)}.
+ *
  * @author Nic Munroe
  */
 public class RequestInfoSetterHandler extends BaseInboundHandlerWithTracingAndMdcSupport {
@@ -40,9 +45,23 @@ public class RequestInfoSetterHandler extends BaseInboundHandlerWithTracingAndMd
 
     protected final RiposteHandlerInternalUtil handlerUtils = RiposteHandlerInternalUtil.DEFAULT_IMPL;
     protected final int globalConfiguredMaxRequestSizeInBytes;
+    protected final RequestDeadlineConfig requestDeadlineConfig;
 
     public RequestInfoSetterHandler(int globalConfiguredMaxRequestSizeInBytes) {
+        this(globalConfiguredMaxRequestSizeInBytes, null);
+    }
+
+    /**
+     * @param globalConfiguredMaxRequestSizeInBytes The max request size for endpoints that don't override it.
+     * @param requestDeadlineConfig The config that determines request deadlines. May be null, in which case {@link
+     * RequestDeadlineConfig#DEFAULT_IMPL} is used (no deadlines).
+     */
+    public RequestInfoSetterHandler(int globalConfiguredMaxRequestSizeInBytes,
+                                    RequestDeadlineConfig requestDeadlineConfig) {
         this.globalConfiguredMaxRequestSizeInBytes = globalConfiguredMaxRequestSizeInBytes;
+        this.requestDeadlineConfig = (requestDeadlineConfig == null)
+                                     ? RequestDeadlineConfig.DEFAULT_IMPL
+                                     : requestDeadlineConfig;
     }
 
     @Override
@@ -66,6 +85,15 @@ public class RequestInfoSetterHandler extends BaseInboundHandlerWithTracingAndMd
                 handlerUtils.createRequestInfoFromNettyHttpRequestAndHandleStateSetupIfNecessary(
                     (HttpRequest)msg, state
                 );
+
+                if (state.getRequestDeadline() == null) {
+                    Long requestStartTimeNanos = state.getRequestStartTimeNanos();
+                    state.setRequestDeadline(RequestDeadline.fromRequest(
+                        ((HttpRequest) msg).headers(),
+                        (requestStartTimeNanos == null) ? System.nanoTime() : requestStartTimeNanos,
+                        requestDeadlineConfig
+                    ));
+                }
             }
             else if (msg instanceof HttpContent) {
                 HttpContent httpContentMsg = (HttpContent) msg;
@@ -0,0 +1,143 @@
+package com.nike.riposte.server.handler;
+
+import com.nike.riposte.server.channelpipeline.ChannelAttributes;
+import com.nike.riposte.server.channelpipeline.message.LastOutboundMessageSendFullResponseInfo;
+import com.nike.riposte.server.handler.base.BaseInboundHandlerWithTracingAndMdcSupport;
+import com.nike.riposte.server.handler.base.PipelineContinuationBehavior;
+import com.nike.riposte.server.http.Endpoint;
+import com.nike.riposte.server.http.HttpProcessingState;
+import com.nike.riposte.server.http.RequestInfo;
+import com.nike.riposte.server.http.ResponseInfo;
+import com.nike.riposte.server.http.cache.ResponseCache;
+import com.nike.riposte.server.http.cache.ResponseCachingOptions;
+
+import java.util.concurrent.CompletableFuture;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.LastHttpContent;
+
+import static io.netty.handler.codec.http.HttpHeaders.Names.ACCEPT_ENCODING;
+
+/**
+ * Serves responses from the {@link ResponseCache} for endpoints that opt in via {@link
+ * Endpoint#responseCachingOptions()}. This handler sits after security validation and the after-security request
+ * filters but before request content deserialization, so a cache hit skips deserialization, endpoint execution, and
+ * response serialization while still being subject to security and filters.
+ *
+ * <p>On a hit the cached response is set on the {@link HttpProcessingState} and a {@link
+ * LastOutboundMessageSendFullResponseInfo} is fired down the pipeline, exactly like a short-circuiting request filter.
+ * On a miss for a GET request the cache key is recorded via {@link HttpProcessingState#setResponseCacheKey(String)} so
+ * that {@link com.nike.riposte.server.http.ResponseSender} can store the response once it has been serialized.
+ */
+@ChannelHandler.Sharable
+@SuppressWarnings("WeakerAccess")
+public class ResponseCacheHandler extends BaseInboundHandlerWithTracingAndMdcSupport {
+
+    protected final ResponseCache responseCache;
+
+    public ResponseCacheHandler(ResponseCache responseCache) {
+        if (responseCache == null)
+            throw new IllegalArgumentException("responseCache cannot be null");
+
+        this.responseCache = responseCache;
+    }
+
+    @Override
+    public PipelineContinuationBehavior doChannelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        // We only do something when the last chunk of content has arrived.
+        if (!(msg instanceof LastHttpContent))
+            return PipelineContinuationBehavior.CONTINUE;
+
+        HttpProcessingState state = ChannelAttributes.getHttpProcessingStateForChannel(ctx).get();
+        Endpoint<?> endpoint = state.getEndpointForExecution();
+        if (endpoint == null || state.isRequestHandled())
+            return PipelineContinuationBehavior.CONTINUE;
+
+        ResponseCachingOptions options = endpoint.responseCachingOptions();
+        if (options == null)
+            return PipelineContinuationBehavior.CONTINUE;
+
+        RequestInfo<?> requestInfo = state.getRequestInfo();
+        HttpMethod method = requestInfo.getMethod();
+        boolean isGet = HttpMethod.GET.equals(method);
+        if (!isGet && !HttpMethod.HEAD.equals(method))
+            return PipelineContinuationBehavior.CONTINUE;
+
+        String cacheKey = ResponseCache.generateCacheKey(endpoint, requestInfo, options);
+
+        // Don't serve a cached response until any asynchronous pre-endpoint work (e.g. security validation) has
+        //      finished successfully - let the endpoint handler deal with it like it normally would.
+        ResponseInfo<ByteBuf> cachedResponse = (isPreEndpointExecutionWorkCompletedSuccessfully(state))
+                                               ? responseCache.getCachedResponse(cacheKey, isGzipAccepted(requestInfo))
+                                               : null;
+
+        if (cachedResponse == null) {
+            // Only GET responses have a payload worth storing.
+            if (isGet)
+                state.setResponseCacheKey(cacheKey);
+
+            return PipelineContinuationBehavior.CONTINUE;
+        }
+
+        // Cache hit. Set the cached response on the state, fire the event that will get it sent to the caller, and
+        //      stop this event from going any further.
+        state.setResponseInfo(cachedResponse);
+        ctx.fireChannelRead(LastOutboundMessageSendFullResponseInfo.INSTANCE);
+        return PipelineContinuationBehavior.DO_NOT_FIRE_CONTINUE_EVENT;
+    }
+
+    protected boolean isPreEndpointExecutionWorkCompletedSuccessfully(HttpProcessingState state) {
+        CompletableFuture<Void> preEndpointWork = state.getPreEndpointExecutionWorkChain();
+        return preEndpointWork.isDone() && !preEndpointWork.isCompletedExceptionally();
+    }
+
+    /**
+     * @return true if the request's {@code Accept-Encoding} header includes gzip (or {@code *}) without a zero
+     * q-value, false otherwise.
+     */
+    protected boolean isGzipAccepted(RequestInfo<?> requestInfo) {
+        String acceptEncoding = requestInfo.getHeaders().get(ACCEPT_ENCODING);
+        if (acceptEncoding == null)
+            return false;
+
+        boolean wildcardAccepted = false;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+            boolean isGzip = "gzip".equalsIgnoreCase(name);
+            if (!isGzip && !"*".equals(name))
+                continue;
+
+            boolean rejected = false;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=") || param.startsWith("Q=")) {
+                    try {
+                        rejected = Double.parseDouble(param.substring(2).trim()) <= 0;
+                    }
+                    catch (NumberFormatException ex) {
+                        rejected = true;
+                    }
+                }
+            }
+
+            // An explicit gzip coding wins over the wildcard.
+            if (isGzip)
+                return !rejected;
+
+            wildcardAccepted = !rejected;
+        }
+
+        return wildcardAccepted;
+    }
+
+    @Override
+    protected boolean argsAreEligibleForLinkingAndUnlinkingDistributedTracingInfo(
+        HandlerMethodToExecute methodToExecute, ChannelHandlerContext ctx, Object msgOrEvt, Throwable cause
+    ) {
+        return (msgOrEvt instanceof LastHttpContent);
+    }
+}
@@ -5,51 +5,105 @@ import com.nike.riposte.server.http.Endpoint;
 import com.nike.riposte.server.http.HttpProcessingState;
 import com.nike.riposte.server.http.ProxyRouterEndpoint;
 import com.nike.riposte.server.http.ResponseInfo;
+import com.nike.riposte.server.http.compression.AdaptiveCompressionPolicy;
+import com.nike.riposte.server.http.impl.FileResponseInfo;
 
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
 import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.compression.ZlibCodecFactory;
+import io.netty.handler.codec.compression.ZlibWrapper;
+import io.netty.handler.codec.http.HttpContent;
 import io.netty.handler.codec.http.HttpContentCompressor;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpObject;
 import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_ENCODING;
 
 /**
  * Extension of {@link HttpContentCompressor} that is smart about whether it compresses responses or not. See the {@link
  * #write(ChannelHandlerContext, Object, ChannelPromise)} method for the specific rules, but in short compression is
  * only allowed if the following criteria are met:
  * <ul>
- *     <li>The total length of the raw content being sent must be greater than {@link #responseSizeThresholdBytes}</li>
  *     <li>
- *         The response must be a full response (i.e. the output message must be both a {@link HttpResponse} *and* a
- *         {@link LastHttpContent}). This is necessary because otherwise there's no way to tell what the total length of
- *         the raw content is.
- *         TODO: Should we allow streamed responses by looking for a Content-Length header and trusting it?
+ *         The total length of the raw content being sent must be greater than {@link #responseSizeThresholdBytes}.
+ *         For full responses (i.e. the output message is both a {@link HttpResponse} *and* a {@link LastHttpContent})
+ *         this is the actual size of the content. For chunked (streamed) responses the size is taken from the
+ *         Content-Length header if the endpoint declared one, otherwise the size is unknown and assumed to be large
+ *         enough to be worth compressing - see {@link #isResponseSizeAboveThreshold(HttpResponse, ResponseInfo)}.
  *     </li>
  *     <li>
  *         The endpoint must allow it (i.e. the endpoint cannot be a {@link ProxyRouterEndpoint} - see
  *         {@link #endpointAllowsCompression(Endpoint)}).
  *     </li>
  *     <li>
- *         The response info must be available in the state and must allow it - see {@link
- *         ResponseInfo#isPreventCompressedOutput()}
+ *         The response info must allow it - see {@link ResponseInfo#isPreventCompressedOutput()}. {@link
+ *         FileResponseInfo}s are never compressed since they may be sent via zero-copy file regions that bypass this
+ *         handler, and their Range responses must describe the raw file bytes.
  *     </li>
  * </ul>
  * Compression is prevented in all other cases.
  *
+ * <p>Chunked responses are compressed chunk by chunk as they stream through this handler. The compressor sync-flushes
+ * after each chunk, so every chunk the endpoint sends results in a compressed chunk on the wire straight away (i.e.
+ * streaming latency is preserved) while the compression dictionary is still shared across the whole response.
+ *
+ * <p>If an {@link AdaptiveCompressionPolicy} is supplied then it picks the compression level for each response based
+ * on how busy this channel's event loop is and how big the response is (including skipping compression entirely when
+ * the event loop is saturated), full response bodies that are served repeatedly are sent from a memoized compressed
+ * variant rather than being compressed again, and the bytes in, bytes out, and time spent compressing are recorded
+ * with the policy so they can be exported as metrics. Without a policy every response is compressed at the fixed
+ * compression level passed into the constructor.
+ *
  * @author Nic Munroe
  */
 public class SmartHttpContentCompressor extends HttpContentCompressor {
 
+    private static final int DEFAULT_WINDOW_BITS = 15;
+    private static final int DEFAULT_MEM_LEVEL = 8;
+
     private boolean allowCompressionForThisRequest = false;
+    private boolean compressingCurrentResponse = false;
+    private ChannelHandlerContext ctx;
     private final long responseSizeThresholdBytes;
+    private final int windowBits;
+    private final int memLevel;
+    protected final AdaptiveCompressionPolicy compressionPolicy;
 
     public SmartHttpContentCompressor(int responseSizeThresholdBytes) {
+        this(responseSizeThresholdBytes, null);
+    }
+
+    /**
+     * @param responseSizeThresholdBytes Responses must be larger than this to be compressed.
+     * @param compressionPolicy The policy that picks the compression level for each response and memoizes compressed
+     * variants - may be null, in which case the default compression level is always used.
+     */
+    public SmartHttpContentCompressor(int responseSizeThresholdBytes, AdaptiveCompressionPolicy compressionPolicy) {
         this.responseSizeThresholdBytes = responseSizeThresholdBytes;
+        this.windowBits = DEFAULT_WINDOW_BITS;
+        this.memLevel = DEFAULT_MEM_LEVEL;
+        this.compressionPolicy = compressionPolicy;
     }
 
     @SuppressWarnings("unused")
     public SmartHttpContentCompressor(int compressionLevel, int responseSizeThresholdBytes) {
         super(compressionLevel);
         this.responseSizeThresholdBytes = responseSizeThresholdBytes;
+        this.windowBits = DEFAULT_WINDOW_BITS;
+        this.memLevel = DEFAULT_MEM_LEVEL;
+        this.compressionPolicy = null;
     }
 
     @SuppressWarnings("unused")
@@ -57,14 +111,115 @@ public class SmartHttpContentCompressor extends HttpContentCompressor {
                                       int responseSizeThresholdBytes) {
         super(compressionLevel, windowBits, memLevel);
         this.responseSizeThresholdBytes = responseSizeThresholdBytes;
+        this.windowBits = windowBits;
+        this.memLevel = memLevel;
+        this.compressionPolicy = null;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        this.ctx = ctx;
+        super.handlerAdded(ctx);
     }
 
     @Override
     protected Result beginEncode(HttpResponse headers, String acceptEncoding) throws Exception {
-        if (allowCompressionForThisRequest)
+        if (!allowCompressionForThisRequest)
+            return null;
+
+        // Without a policy the superclass does everything we need. Note that the superclass's encoder shares the real
+        //      channel's config, so the compressed output is allocated from the real channel's allocator.
+        if (compressionPolicy == null)
             return super.beginEncode(headers, acceptEncoding);
 
-        return null;
+        // This mirrors what the superclass does, but with a compression level chosen by the policy and support for
+        //      memoized variants.
+        if (headers.headers().get(CONTENT_ENCODING) != null)
+            return null;
+
+        ZlibWrapper wrapper = determineWrapper(acceptEncoding);
+        if (wrapper == null)
+            return null;
+
+        String targetContentEncoding = (wrapper == ZlibWrapper.GZIP) ? "gzip" : "deflate";
+        ByteBuf fullBody = (headers instanceof LastHttpContent) ? ((LastHttpContent) headers).content() : null;
+
+        if (fullBody != null) {
+            ByteBuf memoizedVariant = compressionPolicy.getMemoizedVariant(targetContentEncoding, fullBody);
+            if (memoizedVariant != null) {
+                compressionPolicy.recordCompressedResponse();
+                compressingCurrentResponse = true;
+                return new Result(targetContentEncoding, newContentEncoder(new MemoizedVariantWriter(memoizedVariant)));
+            }
+        }
+
+        long responseSize = (fullBody != null) ? fullBody.readableBytes() : HttpHeaders.getContentLength(headers, -1);
+        int compressionLevel = compressionPolicy.compressionLevelFor(currentEventLoopPendingTasks(), responseSize);
+        if (compressionLevel <= 0) {
+            compressionPolicy.recordSkippedUnderLoad();
+            return null;
+        }
+
+        compressionPolicy.recordCompressedResponse();
+        compressingCurrentResponse = true;
+        ChannelHandler zlibEncoder = ZlibCodecFactory.newZlibEncoder(wrapper, compressionLevel, windowBits, memLevel);
+        if (fullBody != null && compressionPolicy.shouldMemoize(targetContentEncoding, fullBody)) {
+            byte[] uncompressedBody = new byte[fullBody.readableBytes()];
+            fullBody.getBytes(fullBody.readerIndex(), uncompressedBody);
+            // Outbound messages flow from the last handler to the first, so the recorder sees the compressed output.
+            return new Result(
+                targetContentEncoding,
+                newContentEncoder(new CompressedVariantRecorder(targetContentEncoding, uncompressedBody), zlibEncoder)
+            );
+        }
+
+        return new Result(targetContentEncoding, newContentEncoder(zlibEncoder));
+    }
+
+    protected EmbeddedChannel newContentEncoder(ChannelHandler... handlers) {
+        // Share the real channel's config (and therefore its allocator) the same way the superclass does.
+        return new EmbeddedChannel(ctx.channel().metadata().hasDisconnect(), ctx.channel().config(), handlers);
+    }
+
+    /**
+     * @return The number of tasks waiting to be run by the event loop this handler runs on, which is used as the
+     * measure of how busy the event loop is. Returns 0 if the event loop doesn't expose its pending task count.
+     */
+    protected int currentEventLoopPendingTasks() {
+        EventExecutor executor = ctx.executor();
+        if (executor instanceof SingleThreadEventExecutor)
+            return ((SingleThreadEventExecutor) executor).pendingTasks();
+
+        return 0;
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, HttpObject msg, List<Object> out) throws Exception {
+        if (compressionPolicy == null) {
+            super.encode(ctx, msg, out);
+            return;
+        }
+
+        if (msg instanceof HttpResponse)
+            compressingCurrentResponse = false;
+
+        // The content is consumed by the compressor, so we need to grab its size up front.
+        int uncompressedByteCount = (msg instanceof HttpContent) ? ((HttpContent) msg).content().readableBytes() : 0;
+        int outStartIndex = out.size();
+        long startTimeNanos = System.nanoTime();
+
+        super.encode(ctx, msg, out);
+
+        if (compressingCurrentResponse) {
+            long elapsedNanos = System.nanoTime() - startTimeNanos;
+            long compressedByteCount = 0;
+            for (int i = outStartIndex; i < out.size(); i++) {
+                Object encoded = out.get(i);
+                if (encoded instanceof HttpContent)
+                    compressedByteCount += ((HttpContent) encoded).content().readableBytes();
+            }
+            compressionPolicy.recordCompression(uncompressedByteCount, compressedByteCount, elapsedNanos);
+        }
     }
 
     @Override
@@ -74,15 +229,17 @@ public class SmartHttpContentCompressor extends HttpContentCompressor {
 
         allowCompressionForThisRequest = false;
 
-        if (state != null) {
-            // We only want to allow compression if the endpoint being hit is *not* a ProxyRouterEndpoint, the response is full, and the response size
-            // is greater than the threshold
-            boolean isFull = msg instanceof HttpResponse && msg instanceof LastHttpContent;
+        if (state != null && msg instanceof HttpResponse) {
+            // We only want to allow compression if the endpoint being hit is *not* a ProxyRouterEndpoint, the
+            //      response info allows it, and the response size is (or is declared/expected to be) greater than the
+            //      threshold.
+            ResponseInfo<?> responseInfo = state.getResponseInfo();
             boolean endpointAllowed = endpointAllowsCompression(state.getEndpointForExecution());
-            boolean responseInfoAllowed =
-                state.getResponseInfo() == null || !state.getResponseInfo().isPreventCompressedOutput();
-            if (isFull && endpointAllowed && responseInfoAllowed
-                && ((LastHttpContent) msg).content().readableBytes() > responseSizeThresholdBytes) {
+            boolean responseInfoAllowed = responseInfo == null
+                                          || (!responseInfo.isPreventCompressedOutput()
+                                              && !(responseInfo instanceof FileResponseInfo));
+            if (endpointAllowed && responseInfoAllowed
+                && isResponseSizeAboveThreshold((HttpResponse) msg, responseInfo)) {
                 allowCompressionForThisRequest = true;
             }
         }
@@ -90,6 +247,25 @@ public class SmartHttpContentCompressor extends HttpContentCompressor {
         super.write(ctx, msg, promise);
     }
 
+    /**
+     * @param msg The first outbound message of the response (i.e. the one containing the headers).
+     * @param responseInfo The response info for the response - may be null.
+     * @return true if the total size of the raw response content is greater than {@link #responseSizeThresholdBytes}.
+     * For full responses this is based on the actual content. For chunked responses it is based on the Content-Length
+     * header if one was declared, and if not then the size is unknown and assumed to be above the threshold. Messages
+     * that are not full responses and don't belong to a chunked {@link ResponseInfo} always return false.
+     */
+    protected boolean isResponseSizeAboveThreshold(HttpResponse msg, ResponseInfo<?> responseInfo) {
+        if (msg instanceof LastHttpContent)
+            return ((LastHttpContent) msg).content().readableBytes() > responseSizeThresholdBytes;
+
+        if (responseInfo == null || !responseInfo.isChunkedResponse())
+            return false;
+
+        long declaredContentLength = HttpHeaders.getContentLength(msg, -1);
+        return declaredContentLength < 0 || declaredContentLength > responseSizeThresholdBytes;
+    }
+
     @SuppressWarnings("WeakerAccess")
     protected boolean endpointAllowsCompression(Endpoint<?> endpoint) {
         if (endpoint == null)
@@ -101,4 +277,60 @@ public class SmartHttpContentCompressor extends HttpContentCompressor {
 
         return true;
     }
+
+    /**
+     * Sends a memoized compressed variant in place of the (identical) uncompressed body written to it.
+     */
+    protected static class MemoizedVariantWriter extends ChannelOutboundHandlerAdapter {
+
+        private final ByteBuf memoizedVariant;
+        private boolean written = false;
+
+        protected MemoizedVariantWriter(ByteBuf memoizedVariant) {
+            this.memoizedVariant = memoizedVariant;
+        }
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            ReferenceCountUtil.release(msg);
+            if (written) {
+                promise.setSuccess();
+                return;
+            }
+
+            written = true;
+            ctx.write(memoizedVariant, promise);
+        }
+    }
+
+    /**
+     * Captures the complete compressed output of a full response body (including the trailer written when the
+     * compressor is closed) and memoizes it with the {@link #compressionPolicy}.
+     */
+    protected class CompressedVariantRecorder extends ChannelOutboundHandlerAdapter {
+
+        private final String contentEncoding;
+        private final byte[] uncompressedBody;
+        private final ByteArrayOutputStream compressedBody = new ByteArrayOutputStream();
+
+        protected CompressedVariantRecorder(String contentEncoding, byte[] uncompressedBody) {
+            this.contentEncoding = contentEncoding;
+            this.uncompressedBody = uncompressedBody;
+        }
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            if (msg instanceof ByteBuf) {
+                ByteBuf buf = (ByteBuf) msg;
+                buf.getBytes(buf.readerIndex(), compressedBody, buf.readableBytes());
+            }
+            ctx.write(msg, promise);
+        }
+
+        @Override
+        public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+            compressionPolicy.memoizeVariant(contentEncoding, uncompressedBody, compressedBody.toByteArray());
+            ctx.close(promise);
+        }
+    }
 }
@@ -0,0 +1,153 @@
+package com.nike.riposte.server.http;
+
+import com.nike.riposte.util.CancellableTaskExecutor;
+import com.nike.riposte.util.VirtualThreadSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.netty.channel.ChannelHandlerContext;
+
+import static com.nike.riposte.util.AsyncNettyHelper.runnableWithTracingAndMdc;
+
+/**
+ * A {@link StandardEndpoint} for plain blocking code. Instead of building a {@link CompletableFuture} you implement
+ * {@link #executeBlocking(RequestInfo, ChannelHandlerContext)}, which is free to sleep, make blocking downstream calls,
+ * query a database, etc - it's never called on a Netty worker I/O thread.
+ * <p/>
+ * On JDK 21+ each request runs on its own virtual thread (see {@link VirtualThreadSupport}), so blocking is cheap and
+ * the thread count doesn't grow with the number of concurrent requests. On older JVMs each request runs on the {@code
+ * longRunningTaskExecutor} instead, exactly as if a {@link StandardEndpoint} had passed it to {@link
+ * CompletableFuture#supplyAsync(java.util.function.Supplier, Executor)}. Override {@link
+ * #getBlockingTaskExecutor(Executor)} if you want something else. Either way the request's distributed tracing and MDC
+ * info are attached to the thread while {@link #executeBlocking(RequestInfo, ChannelHandlerContext)} runs, the
+ * execution is interrupted if the caller disconnects, and {@link #completableFutureTimeoutOverrideMillis()} still
+ * applies.
+ * <p/>
+ * Executions are recorded in {@link #getBlockingEndpointMetrics()}. Virtual thread executions that are slow to start
+ * are also logged at WARN (at most once every {@link #SLOW_START_WARNING_INTERVAL_MILLIS} per endpoint) - see {@link
+ * BlockingEndpointMetrics} for what a slow start can and can't tell you. Avoid blocking inside {@code synchronized}
+ * blocks in {@link #executeBlocking(RequestInfo, ChannelHandlerContext)}, since that pins the virtual thread to its
+ * carrier.
+ */
+@SuppressWarnings("WeakerAccess")
+public abstract class BlockingEndpoint<I, O> extends StandardEndpoint<I, O> {
+
+    /**
+     * The minimum time between two slow start warnings logged by the same endpoint.
+     */
+    public static final long SLOW_START_WARNING_INTERVAL_MILLIS = 60_000;
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    protected final AtomicLong lastSlowStartWarningNanos =
+        new AtomicLong(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(SLOW_START_WARNING_INTERVAL_MILLIS));
+
+    /**
+     * This is where the logic for the endpoint goes. Called on a virtual thread (JDK 21+) or a {@code
+     * longRunningTaskExecutor} thread, with the request's distributed tracing and MDC info attached. Any exception
+     * thrown here is handled exactly like an exception from a {@link StandardEndpoint}'s {@link CompletableFuture}.
+     */
+    protected abstract ResponseInfo<O> executeBlocking(RequestInfo<I> request, ChannelHandlerContext ctx)
+        throws Exception;
+
+    /**
+     * Runs {@link #executeBlocking(RequestInfo, ChannelHandlerContext)} on the executor returned by {@link
+     * #getBlockingTaskExecutor(Executor)}. Implement {@link #executeBlocking(RequestInfo, ChannelHandlerContext)}
+     * instead of overriding this.
+     */
+    @Override
+    public final CompletableFuture<ResponseInfo<O>> execute(RequestInfo<I> request, Executor longRunningTaskExecutor,
+                                                            ChannelHandlerContext ctx) {
+        CompletableFuture<ResponseInfo<O>> responseFuture = new CompletableFuture<>();
+        BlockingEndpointMetrics metrics = getBlockingEndpointMetrics();
+        long submittedNanos = System.nanoTime();
+
+        Runnable task = runnableWithTracingAndMdc(() -> {
+            long startDelayNanos = System.nanoTime() - submittedNanos;
+            boolean onVirtualThread = VirtualThreadSupport.isVirtualThread(Thread.currentThread());
+            if (metrics.recordStarted(startDelayNanos, onVirtualThread) && onVirtualThread
+                && shouldLogSlowStartWarning(System.nanoTime())) {
+                logger.warn("A blocking endpoint execution waited {} milliseconds for a virtual thread carrier "
+                            + "(slow start threshold is {} milliseconds, {} slow starts so far). The carriers are "
+                            + "either all busy running CPU-bound work, saturated by a burst of requests, or pinned by "
+                            + "virtual threads blocking inside synchronized blocks or native calls - run with "
+                            + "-Djdk.tracePinnedThreads=short to rule out pinning.",
+                            TimeUnit.NANOSECONDS.toMillis(startDelayNanos), metrics.getSlowStartThresholdMillis(),
+                            metrics.getSlowStartCount());
+            }
+
+            boolean succeeded = false;
+            try {
+                responseFuture.complete(executeBlocking(request, ctx));
+                succeeded = true;
+            }
+            catch (Throwable t) {
+                responseFuture.completeExceptionally(t);
+            }
+            finally {
+                metrics.recordFinished(succeeded);
+            }
+        }, ctx);
+
+        metrics.recordSubmitted();
+        try {
+            getBlockingTaskExecutor(longRunningTaskExecutor).execute(task);
+        }
+        catch (Throwable t) {
+            metrics.recordRejected();
+            responseFuture.completeExceptionally(t);
+        }
+
+        return responseFuture;
+    }
+
+    /**
+     * Rate limits the slow start warning so a sustained slowdown doesn't flood the logs - the full count is always in
+     * {@link BlockingEndpointMetrics#getSlowStartCount()}.
+     *
+     * @param nowNanos The current {@link System#nanoTime()}.
+     * @return true if no slow start warning was logged by this endpoint in the last {@link
+     * #SLOW_START_WARNING_INTERVAL_MILLIS}, in which case the caller should log one now.
+     */
+    protected boolean shouldLogSlowStartWarning(long nowNanos) {
+        long lastWarningNanos = lastSlowStartWarningNanos.get();
+        if (nowNanos - lastWarningNanos < TimeUnit.MILLISECONDS.toNanos(SLOW_START_WARNING_INTERVAL_MILLIS))
+            return false;
+
+        // Only one of several racing executions gets to log.
+        return lastSlowStartWarningNanos.compareAndSet(lastWarningNanos, nowNanos);
+    }
+
+    /**
+     * @param longRunningTaskExecutor The executor that was passed into {@link #execute(RequestInfo, Executor,
+     * ChannelHandlerContext)}.
+     * @return The executor to run {@link #executeBlocking(RequestInfo, ChannelHandlerContext)} on. Defaults to {@link
+     * VirtualThreadSupport#getVirtualThreadPerTaskExecutor()} (still tracked by the request's {@link
+     * CancellableTaskExecutor} so it's interrupted if the caller disconnects), or the given {@code
+     * longRunningTaskExecutor} if the JVM doesn't support virtual threads.
+     */
+    protected Executor getBlockingTaskExecutor(Executor longRunningTaskExecutor) {
+        Executor virtualThreadExecutor = VirtualThreadSupport.getVirtualThreadPerTaskExecutor();
+        if (virtualThreadExecutor == null)
+            return longRunningTaskExecutor;
+
+        if (longRunningTaskExecutor instanceof CancellableTaskExecutor)
+            return ((CancellableTaskExecutor) longRunningTaskExecutor).withDelegate(virtualThreadExecutor);
+
+        return virtualThreadExecutor;
+    }
+
+    /**
+     * @return The metrics to record this endpoint's executions in. Defaults to {@link
+     * BlockingEndpointMetrics#getDefaultInstance()}.
+     */
+    protected BlockingEndpointMetrics getBlockingEndpointMetrics() {
+        return BlockingEndpointMetrics.getDefaultInstance();
+    }
+}
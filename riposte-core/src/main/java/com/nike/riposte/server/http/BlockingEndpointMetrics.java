@@ -0,0 +1,168 @@
+package com.nike.riposte.server.http;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the executions of {@link BlockingEndpoint}s: how many were submitted, how many are running right now, how
+ * many ran on virtual threads, how they finished, and how long they waited to start. The getters can be registered as
+ * metrics gauges.
+ *
+ * <p>Executions that wait longer than {@link #getSlowStartThresholdMillis()} to start are counted by {@link
+ * #getSlowStartCount()}. This is a start-delay heuristic, not a pinning detector: a slow start only means no carrier
+ * thread (or executor thread) was free in time. Carrier-thread pinning causes that - a virtual thread that blocks
+ * inside a {@code synchronized} block or a native call holds on to its carrier - but so do carriers that are saturated
+ * by CPU-bound work, bursts of requests larger than the carrier pool can start promptly, and long GC pauses. A rising
+ * slow start count on virtual threads is a reason to look, not a diagnosis; run with {@code
+ * -Djdk.tracePinnedThreads=short} (or record the {@code jdk.VirtualThreadPinned} JFR event) and check CPU usage to
+ * tell the causes apart.
+ *
+ * <p>Most apps should use the shared {@link #getDefaultInstance()}.
+ */
+@SuppressWarnings("WeakerAccess")
+public class BlockingEndpointMetrics {
+
+    public static final long DEFAULT_SLOW_START_THRESHOLD_MILLIS = 100;
+
+    protected final long slowStartThresholdNanos;
+
+    protected final LongAdder submittedCount = new LongAdder();
+    protected final LongAdder rejectedCount = new LongAdder();
+    protected final LongAdder startedCount = new LongAdder();
+    protected final LongAdder inFlightCount = new LongAdder();
+    protected final LongAdder virtualThreadExecutionCount = new LongAdder();
+    protected final LongAdder succeededCount = new LongAdder();
+    protected final LongAdder failedCount = new LongAdder();
+    protected final LongAdder totalStartDelayNanos = new LongAdder();
+    protected final AtomicLong maxStartDelayNanos = new AtomicLong();
+    protected final LongAdder slowStartCount = new LongAdder();
+
+    private static class DefaultInstanceHolder {
+        private static final BlockingEndpointMetrics INSTANCE =
+            new BlockingEndpointMetrics(DEFAULT_SLOW_START_THRESHOLD_MILLIS);
+    }
+
+    /**
+     * @param slowStartThresholdMillis Executions that wait longer than this to start are counted as slow starts. Must
+     * be greater than 0.
+     */
+    public BlockingEndpointMetrics(long slowStartThresholdMillis) {
+        if (slowStartThresholdMillis <= 0)
+            throw new IllegalArgumentException("slowStartThresholdMillis must be greater than 0. "
+                                               + "slowStartThresholdMillis=" + slowStartThresholdMillis);
+
+        this.slowStartThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowStartThresholdMillis);
+    }
+
+    /**
+     * @return The shared default instance.
+     */
+    public static BlockingEndpointMetrics getDefaultInstance() {
+        return DefaultInstanceHolder.INSTANCE;
+    }
+
+    public void recordSubmitted() {
+        submittedCount.increment();
+    }
+
+    /**
+     * Records an execution that couldn't be submitted because the executor rejected it.
+     */
+    public void recordRejected() {
+        rejectedCount.increment();
+    }
+
+    /**
+     * Records an execution that's starting.
+     *
+     * @param startDelayNanos How long the execution waited to start after it was submitted.
+     * @param onVirtualThread True if the execution is running on a virtual thread.
+     * @return true if the execution was a slow start (see {@link #getSlowStartThresholdMillis()}).
+     */
+    public boolean recordStarted(long startDelayNanos, boolean onVirtualThread) {
+        startedCount.increment();
+        inFlightCount.increment();
+        if (onVirtualThread)
+            virtualThreadExecutionCount.increment();
+
+        totalStartDelayNanos.add(startDelayNanos);
+        maxStartDelayNanos.accumulateAndGet(startDelayNanos, Math::max);
+        if (startDelayNanos <= slowStartThresholdNanos)
+            return false;
+
+        slowStartCount.increment();
+        return true;
+    }
+
+    /**
+     * Records an execution that has finished.
+     *
+     * @param succeeded True if the endpoint returned a response, false if it threw an exception.
+     */
+    public void recordFinished(boolean succeeded) {
+        inFlightCount.decrement();
+        if (succeeded)
+            succeededCount.increment();
+        else
+            failedCount.increment();
+    }
+
+    public long getSlowStartThresholdMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(slowStartThresholdNanos);
+    }
+
+    public long getSubmittedCount() {
+        return submittedCount.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    /**
+     * @return The number of executions that are running right now.
+     */
+    public long getInFlightCount() {
+        return inFlightCount.sum();
+    }
+
+    public long getVirtualThreadExecutionCount() {
+        return virtualThreadExecutionCount.sum();
+    }
+
+    public long getSucceededCount() {
+        return succeededCount.sum();
+    }
+
+    public long getFailedCount() {
+        return failedCount.sum();
+    }
+
+    /**
+     * @return The number of executions that have started. This is less than {@link #getSubmittedCount()} by the number
+     * of executions that are still waiting to start, were rejected, or were dropped because the caller disconnected.
+     */
+    public long getStartedCount() {
+        return startedCount.sum();
+    }
+
+    /**
+     * @return The average time executions waited to start, or 0 if none have started.
+     */
+    public double getAverageStartDelayMillis() {
+        long started = getStartedCount();
+        return (started == 0) ? 0 : ((double) totalStartDelayNanos.sum()) / started / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public long getMaxStartDelayMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxStartDelayNanos.get());
+    }
+
+    /**
+     * @return The number of executions that waited longer than {@link #getSlowStartThresholdMillis()} to start.
+     */
+    public long getSlowStartCount() {
+        return slowStartCount.sum();
+    }
+}
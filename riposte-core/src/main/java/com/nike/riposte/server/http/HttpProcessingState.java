@@ -1,5 +1,7 @@
 package com.nike.riposte.server.http;
 
+import com.nike.riposte.util.CancellableTaskExecutor;
+import com.nike.riposte.util.HttpUtils;
 import com.nike.wingtips.Span;
 
 import java.time.Instant;
@@ -10,6 +12,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 import io.netty.channel.ChannelFuture;
+import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpResponse;
 
 /**
@@ -39,6 +42,11 @@ public class HttpProcessingState implements ProcessingState {
     private boolean accessLogCompletedOrScheduled = false;
     private boolean requestMetricsRecordedOrScheduled = false;
     private CompletableFuture<Void> preEndpointExecutionWorkChain = COMPLETED_VOID_FUTURE;
+    private String responseCacheKey;
+    private HttpHeaders responseCacheHeaders;
+    private CompletableFuture<?> endpointExecutionFuture;
+    private CancellableTaskExecutor endpointTaskExecutor;
+    private RequestDeadline requestDeadline;
 
     public HttpProcessingState() {
         // Default constructor - do nothing
@@ -61,12 +69,19 @@ public class HttpProcessingState implements ProcessingState {
         this.accessLogCompletedOrScheduled = copyMe.isAccessLogCompletedOrScheduled();
         this.requestMetricsRecordedOrScheduled = copyMe.isRequestMetricsRecordedOrScheduled();
         this.preEndpointExecutionWorkChain = copyMe.preEndpointExecutionWorkChain;
+        this.responseCacheKey = copyMe.getResponseCacheKey();
+        this.responseCacheHeaders = copyMe.getResponseCacheHeaders();
+        this.endpointExecutionFuture = copyMe.getEndpointExecutionFuture();
+        this.endpointTaskExecutor = copyMe.getEndpointTaskExecutor();
+        this.requestDeadline = copyMe.getRequestDeadline();
     }
 
     public void cleanStateForNewRequest() {
         if (requestInfo != null)
             requestInfo.releaseAllResources();
 
+        HttpUtils.releaseUnsentResponseContent(responseInfo);
+
         requestInfo = null;
         responseInfo = null;
         actualResponseObject = null;
@@ -83,6 +98,11 @@ public class HttpProcessingState implements ProcessingState {
         accessLogCompletedOrScheduled = false;
         requestMetricsRecordedOrScheduled = false;
         preEndpointExecutionWorkChain = COMPLETED_VOID_FUTURE;
+        responseCacheKey = null;
+        responseCacheHeaders = null;
+        endpointExecutionFuture = null;
+        endpointTaskExecutor = null;
+        requestDeadline = null;
     }
 
     public RequestInfo<?> getRequestInfo() {
@@ -115,9 +135,24 @@ public class HttpProcessingState implements ProcessingState {
     }
 
     public void setResponseInfo(ResponseInfo<?> responseInfo) {
+        // If an unsent response is being replaced (e.g. by an error response) then nothing will ever send its content,
+        //      so release it now unless the replacement is reusing it.
+        if (this.responseInfo != null && this.responseInfo != responseInfo
+            && !isSameFullResponseContent(this.responseInfo, responseInfo)
+        ) {
+            HttpUtils.releaseUnsentResponseContent(this.responseInfo);
+        }
+
         this.responseInfo = responseInfo;
     }
 
+    private static boolean isSameFullResponseContent(ResponseInfo<?> orig, ResponseInfo<?> replacement) {
+        if (replacement == null || orig.isChunkedResponse() || replacement.isChunkedResponse())
+            return false;
+
+        return orig.getContentForFullResponse() == replacement.getContentForFullResponse();
+    }
+
     public boolean isResponseSendingStarted() {
         //noinspection SimplifiableIfStatement
         if (responseInfo == null)
@@ -253,4 +288,65 @@ public class HttpProcessingState implements ProcessingState {
     public CompletableFuture<Void> getPreEndpointExecutionWorkChain() {
         return preEndpointExecutionWorkChain;
     }
+
+    /**
+     * @return The {@link com.nike.riposte.server.http.cache.ResponseCache} key for this request if the request missed
+     * in the response cache and its response should be stored there once serialized, or null if the response should
+     * not be cached.
+     */
+    public String getResponseCacheKey() {
+        return responseCacheKey;
+    }
+
+    public void setResponseCacheKey(String responseCacheKey) {
+        this.responseCacheKey = responseCacheKey;
+    }
+
+    /**
+     * @return A copy of the response headers as the endpoint set them, captured when the endpoint completed (before
+     * response filters or the response sender could add per-request headers), for storing in the {@link
+     * com.nike.riposte.server.http.cache.ResponseCache}. Null if the response should not be cached.
+     */
+    public HttpHeaders getResponseCacheHeaders() {
+        return responseCacheHeaders;
+    }
+
+    public void setResponseCacheHeaders(HttpHeaders responseCacheHeaders) {
+        this.responseCacheHeaders = responseCacheHeaders;
+    }
+
+    /**
+     * @return The future for the endpoint's work on this request (including any pre-endpoint work), or null if no
+     * endpoint has started work on it. If the caller disconnects before the response is sent this is completed
+     * exceptionally with a {@link com.nike.riposte.server.error.exception.CallerDisconnectedException}.
+     */
+    public CompletableFuture<?> getEndpointExecutionFuture() {
+        return endpointExecutionFuture;
+    }
+
+    /**
+     * @return The executor that was passed to the endpoint in place of the server's long running task executor, so the
+     * endpoint's outstanding tasks can be cancelled if the caller disconnects. May be null.
+     */
+    public CancellableTaskExecutor getEndpointTaskExecutor() {
+        return endpointTaskExecutor;
+    }
+
+    public void setEndpointExecution(CompletableFuture<?> endpointExecutionFuture,
+                                     CancellableTaskExecutor endpointTaskExecutor) {
+        this.endpointExecutionFuture = endpointExecutionFuture;
+        this.endpointTaskExecutor = endpointTaskExecutor;
+    }
+
+    /**
+     * @return The deadline for this request (see {@link
+     * com.nike.riposte.server.config.ServerConfig#requestDeadlineConfig()}), or null if the request doesn't have one.
+     */
+    public RequestDeadline getRequestDeadline() {
+        return requestDeadline;
+    }
+
+    public void setRequestDeadline(RequestDeadline requestDeadline) {
+        this.requestDeadline = requestDeadline;
+    }
 }
@@ -1,9 +1,15 @@
 package com.nike.riposte.server.http;
 
 import com.nike.fastbreak.CircuitBreaker;
+import com.nike.riposte.client.asynchttp.netty.ProxyResponseMicroCache;
+import com.nike.riposte.client.hedging.HedgingPolicy;
+import com.nike.riposte.client.pool.DownstreamWarmupTarget;
+import com.nike.riposte.client.retry.RetryPolicy;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
@@ -73,6 +79,20 @@ public abstract class ProxyRouterEndpoint implements Endpoint {
         // Do nothing by default
     }
 
+    /**
+     * The downstream {@code host:port} targets this endpoint is known to call, which the server will open connections
+     * to when it starts up (before any {@code PostServerStartupHook}s run, and then kept topped up while the server is
+     * running), so that the first requests to this endpoint don't pay for downstream connection setup. These are
+     * combined with any targets from {@code ServerConfig#proxyRouterWarmupTargets()}. See {@link
+     * DownstreamWarmupTarget} for details.
+     * <p/>
+     * By default this returns an empty collection. Override this method if this endpoint always calls the same
+     * downstream host(s).
+     */
+    public Collection<DownstreamWarmupTarget> downstreamWarmupTargets() {
+        return Collections.emptyList();
+    }
+
     /**
      * Proxy router endpoints don't generally do anything with content, so return null by default.
      */
@@ -189,6 +209,29 @@ public abstract class ProxyRouterEndpoint implements Endpoint {
          * Set this to false if you do not want the standard tracing headers to be added to your downstream call
          */
         public boolean addTracingHeadersToDownstreamCall = true;
+        /**
+         * The policy to use for hedging the downstream call, or null if the call should not be hedged. Only bodiless
+         * requests with an idempotent HTTP method are hedged - see {@link HedgingPolicy} for details.
+         */
+        public HedgingPolicy hedgingPolicy = null;
+        /**
+         * The policy to use for retrying the downstream call when it fails in a way that's known to be safe to retry,
+         * or null if the call should not be retried. Hedged calls are not retried - see {@link RetryPolicy} for
+         * details.
+         */
+        public RetryPolicy retryPolicy = null;
+        /**
+         * The key used to pick which of the downstream host's resolved IP addresses the call goes to, or null to let
+         * the normal address balancing pick one. Calls with the same routing key go to the same address (as long as it
+         * isn't ejected or overloaded), which is useful when the downstream service keeps per-key in-memory caches.
+         */
+        public String routingKey = null;
+        /**
+         * The micro-cache to serve the downstream call from (and record its response into), or null if the call should
+         * not be cached. Only bodiless GET requests are cached, according to the downstream service's {@code
+         * Cache-Control} header - see {@link ProxyResponseMicroCache} for details.
+         */
+        public ProxyResponseMicroCache microCache = null;
 
         /**
          * Creates a new instance with the given values, and defaults {@link #customCircuitBreaker} to {@link
@@ -262,6 +305,51 @@ public abstract class ProxyRouterEndpoint implements Endpoint {
             this.addTracingHeadersToDownstreamCall = addTracingHeadersToDownstreamCall;
             return this;
         }
+
+        /**
+         * Pass in a {@link HedgingPolicy} if you want the downstream call to be hedged when it's slow to respond.
+         * Defaults to null (no hedging). The policy should be shared by all the calls it applies to, since it tracks
+         * their latency and hedge budget.
+         */
+        public DownstreamRequestFirstChunkInfo withHedgingPolicy(HedgingPolicy hedgingPolicy) {
+            this.hedgingPolicy = hedgingPolicy;
+            return this;
+        }
+
+        /**
+         * Pass in a {@link RetryPolicy} if you want the downstream call to be retried when it fails before the
+         * downstream service could have acted on it (e.g. connection refused or a stale pooled connection). Defaults to
+         * null (no retries). The policy should be shared by all the calls it applies to, since it tracks their retry
+         * budget.
+         */
+        public DownstreamRequestFirstChunkInfo withRetryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Pass in a routing key (e.g. a path param or header value from the request) if you want all the calls with
+         * the same key to go to the same one of the downstream host's resolved IP addresses, for example to improve the
+         * hit rate of a downstream service's per-key in-memory caches. The address is picked with a consistent hash
+         * ring over the host's resolved IPs, so only a small fraction of the keys move when the DNS results change, and
+         * an address that's carrying much more than its share of the outstanding calls spills over to the next address
+         * on the ring. Defaults to null (normal address balancing).
+         */
+        public DownstreamRequestFirstChunkInfo withRoutingKey(String routingKey) {
+            this.routingKey = routingKey;
+            return this;
+        }
+
+        /**
+         * Pass in a {@link ProxyResponseMicroCache} if you want GET responses that the downstream service marks as
+         * cacheable to be served from memory for a short time, so that bursts of identical requests don't all go
+         * downstream. Expired entries are served stale while a single background call refreshes them. Defaults to null
+         * (no caching). The cache should be shared by all the calls it applies to.
+         */
+        public DownstreamRequestFirstChunkInfo withMicroCache(ProxyResponseMicroCache microCache) {
+            this.microCache = microCache;
+            return this;
+        }
     }
 
     /**
@@ -0,0 +1,146 @@
+package com.nike.riposte.server.http;
+
+import com.nike.riposte.server.config.ServerConfig.RequestDeadlineConfig;
+import com.nike.riposte.server.error.exception.RequestDeadlineExceededException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import io.netty.handler.codec.http.HttpHeaders;
+
+/**
+ * The deadline for a single request, i.e. the point in time after which the caller is no longer interested in the
+ * response. Created from the request and the server's {@link RequestDeadlineConfig} by {@link
+ * #fromRequest(HttpHeaders, long, RequestDeadlineConfig)}, and stored on the request's {@link HttpProcessingState}
+ * (see {@link HttpProcessingState#getRequestDeadline()}). Endpoint execution and downstream calls use it to cap their
+ * timeouts at the remaining budget ({@link #capTimeoutMillis(long)}), forward the remaining budget downstream ({@link
+ * #getHeaderName()}), and fail fast when the deadline is too close ({@link #exceededExceptionIfTooClose()}).
+ */
+@SuppressWarnings("WeakerAccess")
+public class RequestDeadline {
+
+    protected final long deadlineNanos;
+    protected final long minimumRemainingBudgetMillis;
+    protected final String headerName;
+    protected final LongSupplier nanoClock;
+
+    /**
+     * @param deadlineNanos The deadline, in terms of {@link System#nanoTime()}.
+     * @param minimumRemainingBudgetMillis The minimum amount of time that must be left before the deadline for new work
+     * to be started.
+     * @param headerName The name of the header the remaining budget should be forwarded to downstream calls in. May be
+     * null, in which case the remaining budget isn't forwarded.
+     */
+    public RequestDeadline(long deadlineNanos, long minimumRemainingBudgetMillis, String headerName) {
+        this(deadlineNanos, minimumRemainingBudgetMillis, headerName, System::nanoTime);
+    }
+
+    protected RequestDeadline(long deadlineNanos, long minimumRemainingBudgetMillis, String headerName,
+                              LongSupplier nanoClock) {
+        if (minimumRemainingBudgetMillis < 0)
+            throw new IllegalArgumentException("minimumRemainingBudgetMillis cannot be negative");
+
+        this.deadlineNanos = deadlineNanos;
+        this.minimumRemainingBudgetMillis = minimumRemainingBudgetMillis;
+        this.headerName = headerName;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * @param requestHeaders The headers of the request.
+     * @param requestStartTimeNanos When the request arrived, in terms of {@link System#nanoTime()}.
+     * @param config The server's deadline config. May be null, in which case {@link RequestDeadlineConfig#DEFAULT_IMPL}
+     * is used.
+     * @return The deadline for the request based on the given config, or null if the request doesn't have a deadline.
+     */
+    public static RequestDeadline fromRequest(HttpHeaders requestHeaders, long requestStartTimeNanos,
+                                              RequestDeadlineConfig config) {
+        if (config == null)
+            config = RequestDeadlineConfig.DEFAULT_IMPL;
+
+        String headerName = config.deadlineHeaderName();
+        long budgetMillis = (headerName == null || requestHeaders == null)
+                            ? 0
+                            : parseBudgetMillis(requestHeaders.get(headerName));
+        if (budgetMillis <= 0)
+            budgetMillis = config.defaultDeadlineMillis();
+
+        if (budgetMillis <= 0)
+            return null;
+
+        return new RequestDeadline(
+            requestStartTimeNanos + TimeUnit.MILLISECONDS.toNanos(budgetMillis), config.minimumRemainingBudgetMillis(),
+            headerName
+        );
+    }
+
+    /**
+     * @return The given header value as a number of milliseconds, or 0 if it's missing or isn't a positive integer.
+     */
+    protected static long parseBudgetMillis(String headerValue) {
+        if (headerValue == null)
+            return 0;
+
+        try {
+            return Math.max(0, Long.parseLong(headerValue.trim()));
+        }
+        catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return The deadline, in terms of {@link System#nanoTime()}.
+     */
+    public long getDeadlineNanos() {
+        return deadlineNanos;
+    }
+
+    public long getMinimumRemainingBudgetMillis() {
+        return minimumRemainingBudgetMillis;
+    }
+
+    /**
+     * @return The name of the header the remaining budget should be forwarded to downstream calls in, or null if it
+     * shouldn't be forwarded.
+     */
+    public String getHeaderName() {
+        return headerName;
+    }
+
+    /**
+     * @return The number of milliseconds left before the deadline - this is negative if the deadline has passed.
+     */
+    public long getRemainingMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(deadlineNanos - nanoClock.getAsLong());
+    }
+
+    /**
+     * @return A {@link RequestDeadlineExceededException} if less than {@link #getMinimumRemainingBudgetMillis()} is
+     * left before the deadline, or null if there's enough time left to start new work.
+     */
+    public RequestDeadlineExceededException exceededExceptionIfTooClose() {
+        long remainingMillis = getRemainingMillis();
+        if (remainingMillis < minimumRemainingBudgetMillis || remainingMillis <= 0)
+            return new RequestDeadlineExceededException(remainingMillis);
+
+        return null;
+    }
+
+    /**
+     * @return The smaller of the given timeout and the time left before the deadline (but never less than 1
+     * millisecond, so a timeout is always scheduled in the future).
+     */
+    public long capTimeoutMillis(long timeoutMillis) {
+        return Math.max(1, Math.min(timeoutMillis, getRemainingMillis()));
+    }
+
+    /**
+     * Sets the time left before the deadline on the given headers in the {@link #getHeaderName()} header. Does nothing
+     * if {@link #getHeaderName()} is null.
+     */
+    public void setRemainingBudgetHeader(HttpHeaders headers) {
+        if (headerName != null)
+            headers.set(headerName, String.valueOf(Math.max(0, getRemainingMillis())));
+    }
+}
@@ -2,10 +2,19 @@ package com.nike.riposte.server.http;
 
 import com.nike.riposte.server.channelpipeline.ChannelAttributes;
 import com.nike.riposte.server.channelpipeline.message.ChunkedOutboundMessage;
+import com.nike.riposte.server.channelpipeline.message.LastOutboundMessageSendLastContentChunk;
 import com.nike.riposte.server.channelpipeline.message.OutboundMessageSendContentChunk;
 import com.nike.riposte.server.channelpipeline.message.OutboundMessageSendHeadersChunkFromResponseInfo;
 import com.nike.riposte.server.error.handler.ErrorResponseBody;
 import com.nike.riposte.server.error.handler.ErrorResponseBodySerializer;
+import com.nike.riposte.server.http.cache.EntityTagGenerator;
+import com.nike.riposte.server.http.cache.ResponseCache;
+import com.nike.riposte.server.http.cache.ResponseCachingOptions;
+import com.nike.riposte.server.http.header.ContentTypeHeaderCache;
+import com.nike.riposte.server.http.header.ContentTypeHeaderCache.ParsedContentType;
+import com.nike.riposte.server.http.header.StaticResponseHeaders;
+import com.nike.riposte.server.http.impl.ChunkedResponseInfo;
+import com.nike.riposte.server.http.impl.FileResponseInfo;
 import com.nike.riposte.util.ErrorContractSerializerHelper;
 import com.nike.riposte.util.HttpUtils;
 import com.nike.wingtips.Span;
@@ -20,9 +29,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.charset.Charset;
+import java.util.Date;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -31,9 +42,13 @@ import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.DefaultFileRegion;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpContent;
 import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderDateFormat;
 import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpMessage;
 import io.netty.handler.codec.http.HttpMethod;
@@ -43,15 +58,25 @@ import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.LastHttpContent;
 import io.netty.handler.codec.http.cookie.Cookie;
 import io.netty.handler.codec.http.cookie.ServerCookieEncoder;
+import io.netty.handler.ssl.SslHandler;
 import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.EventExecutor;
 
 import static com.nike.riposte.util.AsyncNettyHelper.consumerWithTracingAndMdc;
 import static com.nike.riposte.util.AsyncNettyHelper.runnableWithTracingAndMdc;
 import static com.nike.riposte.util.AsyncNettyHelper.supplierWithTracingAndMdc;
+import static io.netty.handler.codec.http.HttpHeaders.Names.ACCEPT_RANGES;
 import static io.netty.handler.codec.http.HttpHeaders.Names.CONNECTION;
 import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_LENGTH;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_RANGE;
 import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_TYPE;
+import static io.netty.handler.codec.http.HttpHeaders.Names.ETAG;
+import static io.netty.handler.codec.http.HttpHeaders.Names.IF_NONE_MATCH;
+import static io.netty.handler.codec.http.HttpHeaders.Names.IF_RANGE;
+import static io.netty.handler.codec.http.HttpHeaders.Names.LAST_MODIFIED;
+import static io.netty.handler.codec.http.HttpHeaders.Names.RANGE;
 import static io.netty.handler.codec.http.HttpHeaders.Names.TRANSFER_ENCODING;
+import static io.netty.handler.codec.http.HttpHeaders.Values.BYTES;
 import static io.netty.handler.codec.http.HttpHeaders.Values.CHUNKED;
 import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 
@@ -66,6 +91,19 @@ import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
  * com.fasterxml.jackson.databind.ObjectMapper)}. Error responses should call {@link
  * #sendErrorResponse(io.netty.channel.ChannelHandlerContext, RequestInfo, ResponseInfo)}. Chunked responses should call
  * {@link #sendResponseChunk(ChannelHandlerContext, RequestInfo, ResponseInfo, ChunkedOutboundMessage)}.
+ * <p/>
+ * Chunked responses that have a {@link ResponseChunkPublisher} (see {@link
+ * ChunkedResponseInfo#getResponseChunkPublisher()}) are driven by this class - after each chunk is written the next
+ * chunk is pulled from the publisher, but only if the channel is writable (otherwise we wait until the previous chunk
+ * has been flushed). This keeps the amount of outstanding response data bounded no matter how fast the publisher can
+ * produce it or how slow the client is to consume it.
+ * <p/>
+ * {@link FileResponseInfo} responses get {@code Range} request handling, and on plaintext channels their payload is
+ * written as a zero-copy {@link DefaultFileRegion} rather than pulled through the publisher.
+ * <p/>
+ * If an {@link EntityTagGenerator} is supplied then full {@code 200} responses to GET requests get an {@code ETag}
+ * header computed from their serialized payload (unless the endpoint set one), and are converted to a payload-less
+ * {@code 304 Not Modified} when the request's {@code If-None-Match} header matches.
  *
  * @author Nic Munroe
  */
@@ -75,9 +113,19 @@ public class ResponseSender {
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
     private final ObjectMapper defaultResponseContentSerializer;
     private final ErrorResponseBodySerializer errorResponseBodySerializer;
+    private final ResponseCache responseCache;
+    private final EntityTagGenerator entityTagGenerator;
+    private final StaticResponseHeaders serverStaticResponseHeaders;
+    protected final ContentTypeHeaderCache contentTypeHeaderCache = ContentTypeHeaderCache.getDefaultInstance();
 
     public static final int DEFAULT_HTTP_STATUS_CODE = HttpResponseStatus.OK.code();
 
+    // Pre-encoded header names and values that are set on (nearly) every response.
+    protected static final CharSequence CONNECTION_HEADER_NAME = HttpHeaders.newEntity(CONNECTION);
+    protected static final CharSequence CONTENT_LENGTH_HEADER_NAME = HttpHeaders.newEntity(CONTENT_LENGTH);
+    protected static final CharSequence KEEP_ALIVE_HEADER_VALUE = HttpHeaders.newEntity(HttpHeaders.Values.KEEP_ALIVE);
+    protected static final CharSequence CLOSE_HEADER_VALUE = HttpHeaders.newEntity(HttpHeaders.Values.CLOSE);
+
     private static final String HORRIBLE_EXPLOSION_DEFAULT_RESPONSE =
         "{\"error_id\":\"%UUID%\",\"errors\":[{\"code\":10,\"message\":\"An error occurred while fulfilling the request\"}]}";
 
@@ -97,6 +145,34 @@ public class ResponseSender {
 
     public ResponseSender(ObjectMapper defaultResponseContentSerializer,
                           ErrorResponseBodySerializer errorResponseBodySerializer) {
+        this(defaultResponseContentSerializer, errorResponseBodySerializer, null, null);
+    }
+
+    public ResponseSender(ObjectMapper defaultResponseContentSerializer,
+                          ErrorResponseBodySerializer errorResponseBodySerializer,
+                          ResponseCache responseCache,
+                          EntityTagGenerator entityTagGenerator) {
+        this(defaultResponseContentSerializer, errorResponseBodySerializer, responseCache, entityTagGenerator, null);
+    }
+
+    /**
+     * @param defaultResponseContentSerializer The serializer to use for response content when the endpoint doesn't
+     * specify one. May be null - a new no-arg {@link ObjectMapper} will be used if this is null.
+     * @param errorResponseBodySerializer The serializer to use for error response bodies. May be null - {@link
+     * ErrorContractSerializerHelper#SMART_ERROR_SERIALIZER} will be used if this is null.
+     * @param responseCache The {@link ResponseCache} that serialized responses should be stored in for endpoints that
+     * opt in to response caching. May be null if response caching is not desired.
+     * @param entityTagGenerator The {@link EntityTagGenerator} to use for adding {@code ETag} headers to full {@code
+     * 200} responses to GET requests and converting them to {@code 304 Not Modified} when the request's {@code
+     * If-None-Match} header matches. May be null if automatic {@code ETag}s are not desired.
+     * @param serverStaticResponseHeaders The server-wide {@link StaticResponseHeaders} to add to every response other
+     * than those from {@link ProxyRouterEndpoint}s. May be null if no server-wide static headers are desired.
+     */
+    public ResponseSender(ObjectMapper defaultResponseContentSerializer,
+                          ErrorResponseBodySerializer errorResponseBodySerializer,
+                          ResponseCache responseCache,
+                          EntityTagGenerator entityTagGenerator,
+                          StaticResponseHeaders serverStaticResponseHeaders) {
         if (defaultResponseContentSerializer == null) {
             logger.info("No defaultResponseContentSerializer specified - using a new no-arg ObjectMapper as the "
                         + "default response serializer");
@@ -111,6 +187,33 @@ public class ResponseSender {
 
         this.defaultResponseContentSerializer = defaultResponseContentSerializer;
         this.errorResponseBodySerializer = errorResponseBodySerializer;
+        this.responseCache = responseCache;
+        this.entityTagGenerator = entityTagGenerator;
+        this.serverStaticResponseHeaders = serverStaticResponseHeaders;
+    }
+
+    /**
+     * @return The {@link ResponseCache} that serialized responses are stored in for endpoints that opt in to response
+     * caching, or null if response caching is disabled.
+     */
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * @return The {@link EntityTagGenerator} used for automatic {@code ETag}s and {@code 304 Not Modified} responses,
+     * or null if automatic {@code ETag}s are disabled.
+     */
+    public EntityTagGenerator getEntityTagGenerator() {
+        return entityTagGenerator;
+    }
+
+    /**
+     * @return The server-wide {@link StaticResponseHeaders} added to every non-proxy response, or null if there are
+     * none.
+     */
+    public StaticResponseHeaders getServerStaticResponseHeaders() {
+        return serverStaticResponseHeaders;
     }
 
     protected String serializeOutputToString(Object output, ObjectMapper serializer, ResponseInfo<?> responseInfo,
@@ -163,6 +266,14 @@ public class ResponseSender {
      * OutboundMessageSendHeadersChunkFromResponseInfo} or else an {@link IllegalStateException} will be thrown.
      * Similarly if it is *not* the first chunk, then msg must be a {@link OutboundMessageSendContentChunk} or else an
      * {@link IllegalStateException} will be thrown.
+     * <p/>
+     * If the response has a {@link ResponseChunkPublisher} (see {@link
+     * ChunkedResponseInfo#getResponseChunkPublisher()}) then after the chunk is written the next chunk will be pulled
+     * from the publisher once the channel can accept it, and sent via this same method. Each chunk pulled from the
+     * publisher is also fired further down the pipeline via {@link ChannelHandlerContext#fireChannelRead(Object)} after
+     * it is written, exactly as if it had been fired down the pipeline by an endpoint handler, so that the handlers
+     * after the response sender see the {@link com.nike.riposte.server.channelpipeline.message.LastOutboundMessage}
+     * and can finalize the request.
      */
     public void sendResponseChunk(ChannelHandlerContext ctx, RequestInfo<?> requestInfo, ResponseInfo<?> responseInfo,
                                   ChunkedOutboundMessage msg) {
@@ -184,6 +295,8 @@ public class ResponseSender {
             return;
         }
 
+        ChannelFuture writeFuture;
+        boolean fileSentViaZeroCopy = false;
         if (!responseInfo.isResponseSendingStarted()) {
             // This is the first chunk.
             if (msg == null || !(msg instanceof OutboundMessageSendHeadersChunkFromResponseInfo)) {
@@ -193,7 +306,15 @@ public class ResponseSender {
                     + "OutboundMessageSendHeadersChunkFromResponseInfo, instead received: " + msgClass);
             }
 
-            sendFirstChunk(ctx, requestInfo, responseInfo, null);
+            writeFuture = sendFirstChunk(ctx, requestInfo, responseInfo, null);
+
+            if (responseInfo instanceof FileResponseInfo
+                && !isContentAlwaysEmpty(requestInfo, responseInfo)
+                && isZeroCopyFileTransferAllowed(ctx, (FileResponseInfo) responseInfo)
+            ) {
+                writeFuture = writeFileRegion(ctx, (FileResponseInfo) responseInfo);
+                fileSentViaZeroCopy = true;
+            }
         }
         else {
             // This is not the first chunk.
@@ -204,13 +325,186 @@ public class ResponseSender {
                     + "OutboundMessageSendContentChunk, instead received: " + msgClass);
             }
 
-            writeChunk(
+            writeFuture = writeChunk(
                 ctx, ((OutboundMessageSendContentChunk) msg).contentChunk, requestInfo, responseInfo,
                 ChannelAttributes.getHttpProcessingStateForChannel(ctx).get()
             );
         }
 
         ctx.flush();
+
+        // If the payload comes from a publisher then it's our job to ask for the next chunk.
+        ResponseChunkPublisher publisher = extractResponseChunkPublisher(responseInfo);
+        if (publisher != null && !responseInfo.isResponseSendingLastChunkSent()) {
+            if (isContentAlwaysEmpty(requestInfo, responseInfo)) {
+                // This response is not allowed to have a payload (HEAD request, 204 response, etc), so tell the
+                //      publisher we don't need anything from it and finish the response.
+                publisher.cancel(new IllegalStateException(
+                    "The response is not allowed to contain a payload per the HTTP specification."
+                ));
+                ctx.executor().execute(
+                    () -> sendChunkFromPublisher(ctx, requestInfo, responseInfo, publisher, null, null)
+                );
+            }
+            else if (fileSentViaZeroCopy) {
+                // The entire payload has already been written via the FileRegion, so all that's left is the last chunk.
+                ctx.executor().execute(
+                    () -> sendChunkFromPublisher(ctx, requestInfo, responseInfo, publisher, null, null)
+                );
+            }
+            else {
+                pullNextChunkFromPublisherWhenChannelIsWritable(ctx, requestInfo, responseInfo, publisher, writeFuture);
+            }
+        }
+    }
+
+    /**
+     * @return true if the given file response can be sent by handing the file directly to the socket via a {@link
+     * DefaultFileRegion} (zero-copy), false if it must be streamed through the pipeline in chunks. Zero-copy is not
+     * possible when SSL/TLS is in use since the bytes must be encrypted, and is pointless when there's no payload.
+     */
+    protected boolean isZeroCopyFileTransferAllowed(ChannelHandlerContext ctx, FileResponseInfo responseInfo) {
+        return responseInfo.getRangeLength() > 0 && ctx.pipeline().get(SslHandler.class) == null;
+    }
+
+    /**
+     * Writes the payload of the given file response as a {@link DefaultFileRegion}. The headers must already have been
+     * written, and the last chunk must still be written after this to finish the response.
+     */
+    protected ChannelFuture writeFileRegion(ChannelHandlerContext ctx, FileResponseInfo responseInfo) {
+        responseInfo.setUncompressedRawContentLength(
+            responseInfo.getUncompressedRawContentLength() + responseInfo.getRangeLength()
+        );
+
+        ChannelFuture writeFuture = ctx.write(
+            new DefaultFileRegion(responseInfo.getFile(), responseInfo.getRangeStart(), responseInfo.getRangeLength())
+        );
+        writeFuture.addListener(logOnWriteErrorOperationListener(ctx));
+        writeFuture.addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+        return writeFuture;
+    }
+
+    protected ResponseChunkPublisher extractResponseChunkPublisher(ResponseInfo<?> responseInfo) {
+        if (responseInfo instanceof ChunkedResponseInfo)
+            return ((ChunkedResponseInfo) responseInfo).getResponseChunkPublisher();
+
+        return null;
+    }
+
+    /**
+     * Pulls the next chunk from the given publisher immediately if the channel is writable or the previous write has
+     * already finished, otherwise waits for the previous write to finish before pulling the next chunk. This is what
+     * provides backpressure for publisher-driven responses - a slow client means we stop asking the publisher for
+     * more data.
+     */
+    protected void pullNextChunkFromPublisherWhenChannelIsWritable(
+        ChannelHandlerContext ctx, RequestInfo<?> requestInfo, ResponseInfo<?> responseInfo,
+        ResponseChunkPublisher publisher, ChannelFuture previousWriteFuture
+    ) {
+        if (ctx.channel().isWritable() || previousWriteFuture.isDone()) {
+            pullNextChunkFromPublisher(ctx, requestInfo, responseInfo, publisher);
+            return;
+        }
+
+        // The outbound buffer is full. Wait until the previous chunk has been flushed before asking for more.
+        previousWriteFuture.addListener(future -> {
+            if (future.isSuccess())
+                pullNextChunkFromPublisher(ctx, requestInfo, responseInfo, publisher);
+            else
+                sendChunkFromPublisher(ctx, requestInfo, responseInfo, publisher, null, future.cause());
+        });
+    }
+
+    protected void pullNextChunkFromPublisher(
+        ChannelHandlerContext ctx, RequestInfo<?> requestInfo, ResponseInfo<?> responseInfo,
+        ResponseChunkPublisher publisher
+    ) {
+        CompletableFuture<ByteBuf> nextChunkFuture;
+        try {
+            nextChunkFuture = publisher.nextChunk();
+            if (nextChunkFuture == null)
+                throw new NullPointerException("ResponseChunkPublisher.nextChunk() returned a null CompletableFuture.");
+        }
+        catch (Throwable t) {
+            nextChunkFuture = new CompletableFuture<>();
+            nextChunkFuture.completeExceptionally(t);
+        }
+
+        // Sending the chunk must happen on the channel's event loop. We always schedule it rather than running it
+        //      directly when we're already on the event loop - a publisher that completes its futures immediately would
+        //      otherwise recurse through sendResponseChunk() once per chunk and blow the stack on large payloads.
+        EventExecutor executor = ctx.executor();
+        nextChunkFuture.whenComplete(
+            (chunk, error) -> executor.execute(
+                () -> sendChunkFromPublisher(ctx, requestInfo, responseInfo, publisher, chunk, error)
+            )
+        );
+    }
+
+    /**
+     * Sends the given chunk that came from the given publisher. A null chunk indicates the publisher is done and the
+     * last chunk should be sent. A non-null error indicates the payload could not be completed - since the headers have
+     * already been sent at that point there's nothing we can do except close the channel so the caller knows the
+     * response is broken.
+     */
+    protected void sendChunkFromPublisher(
+        ChannelHandlerContext ctx, RequestInfo<?> requestInfo, ResponseInfo<?> responseInfo,
+        ResponseChunkPublisher publisher, ByteBuf chunk, Throwable error
+    ) {
+        if (responseInfo.isResponseSendingLastChunkSent() || !ctx.channel().isActive()) {
+            // The response is already finished (or can no longer be finished), so this chunk is useless. Release it
+            //      so we don't leak memory and let the publisher know it can stop.
+            if (chunk != null)
+                ReferenceCountUtil.safeRelease(chunk);
+
+            publisher.cancel(
+                (error != null)
+                ? error
+                : new IllegalStateException("The channel was closed or the response was already completed before the "
+                                            + "streaming response payload was finished.")
+            );
+            return;
+        }
+
+        if (error != null) {
+            if (chunk != null)
+                ReferenceCountUtil.safeRelease(chunk);
+
+            runnableWithTracingAndMdc(
+                () -> logger.warn(
+                    "The response payload publisher failed after a partial response was sent to the caller. The "
+                    + "caller will be left with an incomplete response, so the channel will be closed. "
+                    + "publisher_error=\"{}\"", error.toString()
+                ),
+                ctx
+            ).run();
+            publisher.cancel(error);
+            ctx.close();
+            return;
+        }
+
+        OutboundMessageSendContentChunk msg = (chunk == null)
+                                              ? new LastOutboundMessageSendLastContentChunk(
+                                                  LastHttpContent.EMPTY_LAST_CONTENT
+                                              )
+                                              : new OutboundMessageSendContentChunk(new DefaultHttpContent(chunk));
+
+        try {
+            sendResponseChunk(ctx, requestInfo, responseInfo, msg);
+        }
+        catch (Throwable t) {
+            runnableWithTracingAndMdc(
+                () -> logger.error("An unexpected error occurred while sending a streaming response chunk. Closing "
+                                   + "the channel.", t),
+                ctx
+            ).run();
+            publisher.cancel(t);
+            ctx.close();
+            return;
+        }
+
+        // Let the rest of the pipeline see the chunk, exactly as if it had been fired by an endpoint handler.
+        ctx.fireChannelRead(msg);
     }
 
     /**
@@ -264,8 +558,17 @@ public class ResponseSender {
         ctx.flush();
     }
 
-    protected void sendFirstChunk(ChannelHandlerContext ctx, RequestInfo<?> requestInfo, ResponseInfo<?> responseInfo,
-                                  ObjectMapper serializer) {
+    protected ChannelFuture sendFirstChunk(ChannelHandlerContext ctx, RequestInfo<?> requestInfo,
+                                           ResponseInfo<?> responseInfo, ObjectMapper serializer) {
+        HttpProcessingState state = ChannelAttributes.getHttpProcessingStateForChannel(ctx).get();
+
+        // If this response may end up in the response cache then use the headers as the endpoint set them (captured
+        //      when the endpoint completed), not the current ones - response filters and sanitizing may have added
+        //      per-request headers like the trace ID since then.
+        HttpHeaders headersForResponseCache = (isResponseCacheCandidate(state, responseInfo))
+                                              ? state.getResponseCacheHeaders()
+                                              : null;
+
         // Sanitize the responseInfo
         sanitizeResponseInfo(responseInfo, requestInfo, serializer, ctx);
 
@@ -275,14 +578,107 @@ public class ResponseSender {
             responseInfo, requestInfo, serializer, ctx
         );
 
+        String entityTag = null;
+        if (isAutoEntityTagCandidate(requestInfo, responseInfo, actualResponseObject)) {
+            entityTag = responseInfo.getHeaders().get(ETAG);
+            if (entityTag == null) {
+                entityTag = entityTagGenerator.generateEntityTag(((FullHttpResponse) actualResponseObject).content());
+                responseInfo.getHeaders().set(ETAG, entityTag);
+                // Cache hits will then come with their ETag already calculated.
+                if (headersForResponseCache != null)
+                    headersForResponseCache.set(ETAG, entityTag);
+            }
+        }
+
+        if (headersForResponseCache != null && actualResponseObject instanceof FullHttpResponse) {
+            storeInResponseCache(
+                state, responseInfo, headersForResponseCache, ((FullHttpResponse) actualResponseObject).content(), ctx
+            );
+        }
+
+        if (entityTag != null
+            && EntityTagGenerator.isIfNoneMatchSatisfiedBy(getRequestHeader(requestInfo, IF_NONE_MATCH), entityTag)
+        ) {
+            actualResponseObject = convertToNotModifiedResponse(responseInfo, (FullHttpResponse) actualResponseObject);
+        }
+
         synchronizeAndSetupResponseInfoAndFirstChunk(responseInfo, actualResponseObject, requestInfo, ctx);
 
         // Set the actual response object on the state before sending it through the outbound pipeline
-        HttpProcessingState state = ChannelAttributes.getHttpProcessingStateForChannel(ctx).get();
         if (state != null)
             state.setActualResponseObject(actualResponseObject);
 
-        writeChunk(ctx, actualResponseObject, requestInfo, responseInfo, state);
+        return writeChunk(ctx, actualResponseObject, requestInfo, responseInfo, state);
+    }
+
+    /**
+     * @return true if the {@link #entityTagGenerator} is enabled and the given response is a full {@code 200} response
+     * with a payload for a GET request, and should therefore get an {@code ETag} and be subject to {@code
+     * If-None-Match}.
+     */
+    protected boolean isAutoEntityTagCandidate(RequestInfo<?> requestInfo,
+                                               ResponseInfo<?> responseInfo,
+                                               HttpResponse actualResponseObject) {
+        return entityTagGenerator != null
+               && actualResponseObject instanceof FullHttpResponse
+               && ((FullHttpResponse) actualResponseObject).content().isReadable()
+               && HttpMethod.GET.equals(requestInfo.getMethod())
+               && responseInfo.getHttpStatusCodeWithDefault(DEFAULT_HTTP_STATUS_CODE) == HttpResponseStatus.OK.code();
+    }
+
+    protected String getRequestHeader(RequestInfo<?> requestInfo, String headerName) {
+        HttpHeaders requestHeaders = requestInfo.getHeaders();
+        return (requestHeaders == null) ? null : requestHeaders.get(headerName);
+    }
+
+    /**
+     * Replaces the given full response with a payload-less {@code 304 Not Modified}, releasing the payload and
+     * recording how many bytes were saved with the {@link #entityTagGenerator}. The {@code Content-Length} header is
+     * set to the size of the payload that would have been sent, as allowed for {@code 304} responses by
+     * <a href="https://tools.ietf.org/html/rfc7230#section-3.3.2">RFC 7230 Section 3.3.2</a>.
+     */
+    protected HttpResponse convertToNotModifiedResponse(ResponseInfo<?> responseInfo, FullHttpResponse fullResponse) {
+        int bytesSaved = fullResponse.content().readableBytes();
+        ReferenceCountUtil.safeRelease(fullResponse);
+
+        responseInfo.setHttpStatusCode(HttpResponseStatus.NOT_MODIFIED.code());
+        responseInfo.getHeaders().set(CONTENT_LENGTH, bytesSaved);
+        entityTagGenerator.recordNotModifiedResponse(bytesSaved);
+
+        return new DefaultFullHttpResponse(HTTP_1_1, HttpResponseStatus.NOT_MODIFIED);
+    }
+
+    /**
+     * @return true if the given response is for a request that missed in the {@link #responseCache} (see {@link
+     * HttpProcessingState#getResponseCacheKey()}) and could therefore be stored in it once serialized. Responses that
+     * didn't come from the endpoint (e.g. error responses) have no {@link HttpProcessingState#getResponseCacheHeaders()}
+     * and are never stored.
+     */
+    protected boolean isResponseCacheCandidate(HttpProcessingState state, ResponseInfo<?> responseInfo) {
+        return responseCache != null
+               && state != null
+               && state.getResponseCacheKey() != null
+               && state.getResponseCacheHeaders() != null
+               && !responseInfo.isChunkedResponse();
+    }
+
+    protected void storeInResponseCache(HttpProcessingState state,
+                                        ResponseInfo<?> responseInfo,
+                                        HttpHeaders headersToCache,
+                                        ByteBuf serializedBody,
+                                        ChannelHandlerContext ctx) {
+        try {
+            Endpoint<?> endpoint = state.getEndpointForExecution();
+            ResponseCachingOptions options = (endpoint == null) ? null : endpoint.responseCachingOptions();
+            if (options != null)
+                responseCache.put(state.getResponseCacheKey(), options, responseInfo, headersToCache, serializedBody);
+        }
+        catch (Throwable t) {
+            // A caching problem should never prevent the response from being sent.
+            runnableWithTracingAndMdc(
+                () -> logger.warn("Unable to store response in the response cache.", t), ctx
+            ).run();
+        }
     }
 
     protected void sanitizeResponseInfo(
@@ -296,16 +692,20 @@ public class ResponseSender {
             responseInfo.setHttpStatusCode(DEFAULT_HTTP_STATUS_CODE);
         }
 
+        // File responses need their range, status code, and content-length sorted out before anything else looks at
+        //      them.
+        if (responseInfo instanceof FileResponseInfo)
+            prepareFileResponseInfo((FileResponseInfo) responseInfo, requestInfo);
+
         // Determine and set responseInfo's charset and mime type fields if they are not already set (note this does
         //      not by itself affect any headers, so it is safe even for proxied responses).
         determineAndSetCharsetAndMimeTypeForResponseInfoIfNecessary(responseInfo);
 
-        // Set the content type header, but only for full responses. We *don't* do this for chunked responses because
-        //      at the moment chunked responses can only come from ProxyRouterEndpoints, and we should not be guessing
-        //      what the downstream system's content type will be if they didn't specify one.
-        // TODO: If we ever have the ability to specify chunked responses that *aren't* ProxyRouterEndpoints, then this
-        //      may need to be adjusted to only omit proxy calls rather than blindly triggering on isChunkedResponse().
-        if (!responseInfo.isChunkedResponse()) {
+        // Set the content type header, but only for full responses or publisher-driven chunked responses. We *don't*
+        //      do this for other chunked responses because those come from ProxyRouterEndpoints, and we should not be
+        //      guessing what the downstream system's content type will be if they didn't specify one.
+        boolean isPublisherDrivenResponse = extractResponseChunkPublisher(responseInfo) != null;
+        if (!responseInfo.isChunkedResponse() || isPublisherDrivenResponse) {
             // NOTE: This is ok even if the response doesn't have a body (may even be desired for things like HEAD
             //      requests where there's no body but you want to tell the caller what the content-type would be).
             responseInfo.getHeaders().set(CONTENT_TYPE, buildContentTypeHeader(responseInfo));
@@ -329,6 +729,16 @@ public class ResponseSender {
             responseInfo.getHeaders().set(TraceHeaders.TRACE_ID, traceId);
         }
 
+        // Publisher-driven chunked responses don't know their content-length up front (unless the endpoint told us),
+        //      so they need chunked transfer-encoding in order for the caller to know where the payload ends.
+        if (isPublisherDrivenResponse
+            && !responseInfo.getHeaders().contains(CONTENT_LENGTH)
+            && !isContentAlwaysEmpty(requestInfo, responseInfo)
+            && !responseInfo.getHeaders().contains(TRANSFER_ENCODING, CHUNKED, true)
+        ) {
+            responseInfo.getHeaders().add(TRANSFER_ENCODING, CHUNKED);
+        }
+
         // Do some RFC conforming and helpful calculation/sanitization regarding transfer-encoding and content-length
         //      headers. We only do this for non-chunked responses as we don't want to modify anything passing through
         //      when it's a ProxyRouterEndpoint response.
@@ -355,7 +765,15 @@ public class ResponseSender {
                         //      on responseInfo. That way the endpoints can use the same logic as they would for a GET
                         //      request, including specifying non-serialized payload, and we'll calculate the
                         //      content-length for them the same way we would have for the GET request.
-                        if (responseInfo.getHeaders().get(CONTENT_LENGTH) == null) {
+                        if (responseInfo.getHeaders().get(CONTENT_LENGTH) == null
+                            && origResponseContent instanceof ByteBuf
+                        ) {
+                            // The content is already bytes, so no need to serialize anything.
+                            responseInfo.getHeaders().set(
+                                CONTENT_LENGTH, ((ByteBuf) origResponseContent).readableBytes()
+                            );
+                        }
+                        else if (responseInfo.getHeaders().get(CONTENT_LENGTH) == null) {
                             // No explicit content-length header, and responseInfo did contain some content. Serialize
                             //      that content the same way as what would have been done for a non-HEAD/304 request
                             //      and use the resulting size-in-bytes for the content-length header.
@@ -386,6 +804,11 @@ public class ResponseSender {
                             requestInfo.getMethod(), responseInfo.getHttpStatusCode()
                         );
                     }
+
+                    // ByteBuf content is owned by us once the endpoint hands it off, and it's not going to be sent, so
+                    //      it must be released.
+                    if (origResponseContent instanceof ByteBuf && ((ByteBuf) origResponseContent).refCnt() > 0)
+                        ReferenceCountUtil.safeRelease(origResponseContent);
                 }
             }
 
@@ -401,6 +824,144 @@ public class ResponseSender {
         }
     }
 
+    /**
+     * Sets up the headers, status code, and payload range for the given file response. {@code Accept-Ranges} and
+     * {@code Last-Modified} are added (unless already specified), and if this is a GET request for a 200 response with
+     * a single-range {@code Range} header (and the {@code If-Range} header, if any, matches the response's strong
+     * {@code ETag} or {@code Last-Modified}) then the response is converted to a {@code 206 Partial Content} for that
+     * range, or a {@code 416 Range Not Satisfiable} if the range is outside the file. Multi-range and malformed {@code
+     * Range} headers are ignored and the full file is sent, which is allowed by
+     * <a href="https://tools.ietf.org/html/rfc7233#section-3.1">RFC 7233 Section 3.1</a>. Finally the {@code
+     * Content-Length} header is set to the number of bytes that will be sent.
+     */
+    protected void prepareFileResponseInfo(FileResponseInfo responseInfo, RequestInfo<?> requestInfo) {
+        HttpHeaders responseHeaders = responseInfo.getHeaders();
+        long fileLength = responseInfo.getFileLength();
+
+        if (!responseHeaders.contains(ACCEPT_RANGES))
+            responseHeaders.set(ACCEPT_RANGES, BYTES);
+
+        if (!responseHeaders.contains(LAST_MODIFIED)) {
+            responseHeaders.set(
+                LAST_MODIFIED, HttpHeaderDateFormat.get().format(new Date(responseInfo.getFileLastModifiedMillis()))
+            );
+        }
+
+        HttpHeaders requestHeaders = requestInfo.getHeaders();
+        String rangeHeader = (requestHeaders == null) ? null : requestHeaders.get(RANGE);
+        if (rangeHeader != null
+            && HttpMethod.GET.equals(requestInfo.getMethod())
+            && responseInfo.getHttpStatusCode() == HttpResponseStatus.OK.code()
+            && isIfRangeSatisfied(requestHeaders.get(IF_RANGE), responseHeaders)
+        ) {
+            ByteRange range = parseSingleByteRange(rangeHeader, fileLength);
+            if (range == ByteRange.UNSATISFIABLE) {
+                responseInfo.setHttpStatusCode(HttpResponseStatus.REQUESTED_RANGE_NOT_SATISFIABLE.code());
+                responseInfo.setRange(0, 0);
+                responseHeaders.set(CONTENT_RANGE, "bytes */" + fileLength);
+            }
+            else if (range != null) {
+                responseInfo.setHttpStatusCode(HttpResponseStatus.PARTIAL_CONTENT.code());
+                responseInfo.setRange(range.start, range.length);
+                responseHeaders.set(
+                    CONTENT_RANGE, "bytes " + range.start + "-" + (range.start + range.length - 1) + "/" + fileLength
+                );
+            }
+        }
+
+        responseHeaders.set(CONTENT_LENGTH, responseInfo.getRangeLength());
+    }
+
+    /**
+     * @return true if the given {@code If-Range} request header value is null (i.e. the range request is
+     * unconditional), or if it exactly matches the response's strong {@code ETag} or its {@code Last-Modified} date. See
+     * <a href="https://tools.ietf.org/html/rfc7233#section-3.2">RFC 7233 Section 3.2</a>.
+     */
+    protected boolean isIfRangeSatisfied(String ifRangeHeader, HttpHeaders responseHeaders) {
+        if (ifRangeHeader == null)
+            return true;
+
+        ifRangeHeader = ifRangeHeader.trim();
+        if (ifRangeHeader.startsWith("\"") || ifRangeHeader.startsWith("W/")) {
+            // It's an entity tag. Weak entity tags are never allowed to match for If-Range.
+            String etag = responseHeaders.get(ETAG);
+            return etag != null && !etag.startsWith("W/") && etag.equals(ifRangeHeader);
+        }
+
+        return ifRangeHeader.equals(responseHeaders.get(LAST_MODIFIED));
+    }
+
+    /**
+     * Parses the given {@code Range} request header value for a resource of the given length.
+     *
+     * @return The requested range if the header specifies a single satisfiable byte range, {@link
+     * ByteRange#UNSATISFIABLE} if it specifies a single byte range that lies outside the resource, or null if the
+     * header is malformed or specifies multiple ranges (in which case it should be ignored).
+     */
+    protected static ByteRange parseSingleByteRange(String rangeHeader, long resourceLength) {
+        String prefix = "bytes=";
+        if (rangeHeader.length() <= prefix.length() || !rangeHeader.regionMatches(true, 0, prefix, 0, prefix.length()))
+            return null;
+
+        String rangeSpec = rangeHeader.substring(prefix.length()).trim();
+        int dashIndex = rangeSpec.indexOf('-');
+        if (dashIndex < 0 || rangeSpec.indexOf(',') >= 0)
+            return null;
+
+        String firstPosStr = rangeSpec.substring(0, dashIndex).trim();
+        String lastPosStr = rangeSpec.substring(dashIndex + 1).trim();
+        try {
+            if (firstPosStr.isEmpty()) {
+                // Suffix range, e.g. "bytes=-500" for the last 500 bytes.
+                long suffixLength = parseNonNegativeLong(lastPosStr);
+                if (suffixLength == 0 || resourceLength == 0)
+                    return ByteRange.UNSATISFIABLE;
+
+                long length = Math.min(suffixLength, resourceLength);
+                return new ByteRange(resourceLength - length, length);
+            }
+
+            long firstPos = parseNonNegativeLong(firstPosStr);
+            long lastPos = (lastPosStr.isEmpty()) ? Long.MAX_VALUE : parseNonNegativeLong(lastPosStr);
+            if (lastPos < firstPos)
+                return null;
+
+            if (firstPos >= resourceLength)
+                return ByteRange.UNSATISFIABLE;
+
+            lastPos = Math.min(lastPos, resourceLength - 1);
+            return new ByteRange(firstPos, lastPos - firstPos + 1);
+        }
+        catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    private static long parseNonNegativeLong(String str) {
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c < '0' || c > '9')
+                throw new NumberFormatException("Not a non-negative integer: " + str);
+        }
+
+        return Long.parseLong(str);
+    }
+
+    /**
+     * A single byte range of a resource, as parsed from a {@code Range} request header.
+     */
+    protected static class ByteRange {
+        public static final ByteRange UNSATISFIABLE = new ByteRange(-1, -1);
+
+        public final long start;
+        public final long length;
+
+        public ByteRange(long start, long length) {
+            this.start = start;
+            this.length = length;
+        }
+    }
+
     protected void removeTransferEncodingChunked(HttpHeaders headers) {
         if (headers.contains(TRANSFER_ENCODING, CHUNKED, true)) {
             List<String> transferEncodingsMinusChunked =
@@ -457,11 +1018,15 @@ public class ResponseSender {
         ObjectMapper serializer,
         ChannelHandlerContext ctx
     ) {
-        // If the content is a raw byte array then use it as-is via a wrapped ByteBuf. Otherwise serialize it to a
-        //      string using the provided serializer.
+        // If the content is a raw byte array then use it as-is via a wrapped ByteBuf. If it's already a ByteBuf (e.g. a
+        //      CompositeByteBuf of pre-encoded bytes) then it is used directly - no copy, and ownership passes to
+        //      whoever sends the returned ByteBuf. Otherwise serialize it to a string using the provided serializer.
         if (content instanceof byte[]) {
             return Unpooled.wrappedBuffer((byte[]) content);
         }
+        else if (content instanceof ByteBuf) {
+            return (ByteBuf) content;
+        }
         else {
             return Unpooled.copiedBuffer(
                 serializeOutputToString(content, serializer, responseInfo, ctx),
@@ -480,12 +1045,12 @@ public class ResponseSender {
         //      yet have the Netty actualResponseObject, so we'll do it here.
         if (responseInfo.isForceConnectionCloseAfterResponseSent()) {
             // We'll be closing the connection after this response is sent, so send the appropriate Connection header.
-            responseInfo.getHeaders().set(CONNECTION, HttpHeaders.Values.CLOSE);
+            responseInfo.getHeaders().set(CONNECTION_HEADER_NAME, CLOSE_HEADER_VALUE);
         }
         else if (requestInfo.isKeepAliveRequested()) {
             // Set keep alive header as per
             //      http://www.w3.org/Protocols/HTTP/1.1/draft-ietf-http-v11-spec-01.html#Connection
-            responseInfo.getHeaders().set(CONNECTION, HttpHeaders.Values.KEEP_ALIVE);
+            responseInfo.getHeaders().set(CONNECTION_HEADER_NAME, KEEP_ALIVE_HEADER_VALUE);
             
             // Add/override the 'Content-Length' header only for a keep-alive connection, and only if we know for sure
             //      what the content length will/should be (i.e. actualResponseObject must be a LastHttpContent
@@ -501,7 +1066,7 @@ public class ResponseSender {
                     // Not allowed to lie about content-length or not explicitly specified in responseInfo, so set it
                     //      to whatever the response actually contains.
                     responseInfo.getHeaders().set(
-                        CONTENT_LENGTH, ((LastHttpContent) actualResponseObject).content().readableBytes()
+                        CONTENT_LENGTH_HEADER_NAME, ((LastHttpContent) actualResponseObject).content().readableBytes()
                     );
                 }
             }
@@ -511,6 +1076,9 @@ public class ResponseSender {
         //      (copy from responseInfo into actualResponseObject)
         actualResponseObject.headers().add(responseInfo.getHeaders());
 
+        // Add any precomputed static headers that weren't explicitly set on the responseInfo.
+        applyStaticResponseHeaders(actualResponseObject.headers(), ctx);
+
         // Add cookies (if any)
         Set<Cookie> cookies = responseInfo.getCookies();
         if (cookies != null && !cookies.isEmpty()) {
@@ -520,6 +1088,25 @@ public class ResponseSender {
         }
     }
 
+    /**
+     * Adds the endpoint's {@link Endpoint#staticResponseHeaders()} followed by the server-wide {@link
+     * #serverStaticResponseHeaders} to the given response headers. Server-wide static headers are not added to
+     * responses from {@link ProxyRouterEndpoint}s since those pass the downstream response through as-is.
+     */
+    protected void applyStaticResponseHeaders(HttpHeaders responseHeaders, ChannelHandlerContext ctx) {
+        HttpProcessingState state = ChannelAttributes.getHttpProcessingStateForChannel(ctx).get();
+        Endpoint<?> endpoint = (state == null) ? null : state.getEndpointForExecution();
+
+        if (endpoint != null) {
+            StaticResponseHeaders endpointStaticResponseHeaders = endpoint.staticResponseHeaders();
+            if (endpointStaticResponseHeaders != null)
+                endpointStaticResponseHeaders.applyTo(responseHeaders);
+        }
+
+        if (serverStaticResponseHeaders != null && !(endpoint instanceof ProxyRouterEndpoint))
+            serverStaticResponseHeaders.applyTo(responseHeaders);
+    }
+
     /**
      * Copied from {@link io.netty.handler.codec.http.HttpObjectDecoder#isContentAlwaysEmpty(HttpMessage)} in Netty
      * version 4.0.36-Final, and adjusted to include HEAD requests which are also *not* allowed to have a response
@@ -642,8 +1229,8 @@ public class ResponseSender {
         }
     }
 
-    protected void writeChunk(ChannelHandlerContext ctx, HttpObject chunkToWrite, RequestInfo requestInfo,
-                              ResponseInfo<?> responseInfo, HttpProcessingState state) {
+    protected ChannelFuture writeChunk(ChannelHandlerContext ctx, HttpObject chunkToWrite, RequestInfo requestInfo,
+                                       ResponseInfo<?> responseInfo, HttpProcessingState state) {
         if (responseInfo.getUncompressedRawContentLength() == null) {
             // This is the first chunk being sent for this response. Initialize the uncompressed raw content length
             //      value to 0 so we can add to it as we find content.
@@ -712,6 +1299,8 @@ public class ResponseSender {
         }
         else
             writeFuture.addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+
+        return writeFuture;
     }
 
     /**
@@ -819,15 +1408,22 @@ public class ResponseSender {
             return def;
 
         String contentTypeHeader = headers.get(HttpHeaders.Names.CONTENT_TYPE);
-        if (contentTypeHeader == null || contentTypeHeader.trim().length() == 0)
+        if (contentTypeHeader == null)
             return def;
 
-        if (contentTypeHeader.contains(";"))
-            contentTypeHeader = contentTypeHeader.substring(0, contentTypeHeader.indexOf(";"));
+        ParsedContentType parsedContentType = contentTypeHeaderCache.parse(contentTypeHeader);
+        if (parsedContentType.mimeTypeString == null)
+            return def;
 
-        return contentTypeHeader.trim();
+        return parsedContentType.mimeTypeString;
     }
 
+    /**
+     * @return The Content-Type header value for the given response, based on its {@link
+     * ResponseInfo#getDesiredContentWriterMimeType()} and {@link ResponseInfo#getDesiredContentWriterEncoding()}. The
+     * default implementation pulls the value from {@link ContentTypeHeaderCache#getContentTypeHeaderValue(String,
+     * Charset)} rather than building a new string for every response.
+     */
     protected String buildContentTypeHeader(ResponseInfo<?> responseInfo) {
         if (responseInfo.getDesiredContentWriterEncoding() == null)
             throw new IllegalArgumentException("responseInfo.getDesiredContentWriterEncoding() cannot be null");
@@ -835,7 +1431,8 @@ public class ResponseSender {
         if (responseInfo.getDesiredContentWriterMimeType() == null)
             throw new IllegalArgumentException("responseInfo.getDesiredContentWriterMimeType() cannot be null");
 
-        return responseInfo.getDesiredContentWriterMimeType() + "; charset="
-               + responseInfo.getDesiredContentWriterEncoding().name();
+        return contentTypeHeaderCache.getContentTypeHeaderValue(
+            responseInfo.getDesiredContentWriterMimeType(), responseInfo.getDesiredContentWriterEncoding()
+        ).toString();
     }
 }
@@ -0,0 +1,171 @@
+package com.nike.riposte.util;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Wraps the long running task executor for a single request so that the request's outstanding tasks can be cancelled
+ * if the caller disconnects (see {@link #cancelAll()}). Tasks that haven't started yet are dropped when they come off
+ * the queue, and tasks that are running are interrupted. Once cancelled, any new tasks are rejected with a {@link
+ * RejectedExecutionException}.
+ *
+ * <p>Unlike wrapping tasks in a {@link java.util.concurrent.FutureTask}, exceptions thrown by a task still propagate
+ * to the underlying executor exactly as they would without this wrapper. A task is only ever interrupted while it's
+ * running, so an interrupt never leaks to whatever the underlying executor's thread runs next.
+ */
+@SuppressWarnings("WeakerAccess")
+public class CancellableTaskExecutor implements Executor {
+
+    protected final Executor delegate;
+    protected final Set<TrackedTask> outstandingTasks = ConcurrentHashMap.newKeySet();
+    protected volatile boolean cancelled = false;
+
+    /**
+     * @param delegate The executor to run the tasks on. Cannot be null.
+     */
+    public CancellableTaskExecutor(Executor delegate) {
+        if (delegate == null)
+            throw new IllegalArgumentException("delegate cannot be null");
+
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        execute(command, delegate);
+    }
+
+    /**
+     * @return An executor that runs tasks on the given executor instead of the {@link #delegate}, but still tracks them
+     * here so that {@link #cancelAll()} cancels them along with the rest of the request's tasks. Cannot be null.
+     */
+    public Executor withDelegate(Executor otherDelegate) {
+        if (otherDelegate == null)
+            throw new IllegalArgumentException("otherDelegate cannot be null");
+
+        return command -> execute(command, otherDelegate);
+    }
+
+    protected void execute(Runnable command, Executor executor) {
+        if (cancelled)
+            throw new RejectedExecutionException("The request this task belongs to has been cancelled.");
+
+        TrackedTask task = new TrackedTask(command);
+        outstandingTasks.add(task);
+        if (cancelled) {
+            // cancelAll() ran after the check above, and may have missed this task.
+            outstandingTasks.remove(task);
+            throw new RejectedExecutionException("The request this task belongs to has been cancelled.");
+        }
+
+        try {
+            executor.execute(task);
+        }
+        catch (Throwable t) {
+            outstandingTasks.remove(task);
+            throw t;
+        }
+    }
+
+    /**
+     * Cancels all the outstanding tasks, and rejects any new ones.
+     *
+     * @return The number of tasks that were dropped before they started (index 0) and the number of tasks that were
+     * interrupted while running (index 1).
+     */
+    public int[] cancelAll() {
+        cancelled = true;
+        int skipped = 0;
+        int interrupted = 0;
+        for (TrackedTask task : outstandingTasks) {
+            switch (task.cancel()) {
+                case TrackedTask.QUEUED:
+                    skipped++;
+                    break;
+                case TrackedTask.RUNNING:
+                    interrupted++;
+                    break;
+                default:
+                    // The task finished (or was already cancelled) in the meantime - nothing to count.
+            }
+        }
+        outstandingTasks.clear();
+        return new int[]{skipped, interrupted};
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return The executor this wraps.
+     */
+    public Executor getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * A task handed to the {@link #delegate} executor that can be cancelled before or while it runs.
+     */
+    protected class TrackedTask implements Runnable {
+        protected static final int QUEUED = 0;
+        protected static final int RUNNING = 1;
+        protected static final int DONE = 2;
+        protected static final int CANCELLED = 3;
+
+        protected final Runnable command;
+        // Both guarded by synchronizing on this.
+        protected int state = QUEUED;
+        protected Thread runner;
+        protected boolean interruptedByCancel = false;
+
+        protected TrackedTask(Runnable command) {
+            this.command = command;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (state != QUEUED)
+                    return;
+
+                state = RUNNING;
+                runner = Thread.currentThread();
+            }
+
+            try {
+                command.run();
+            }
+            finally {
+                boolean clearInterrupt;
+                synchronized (this) {
+                    state = DONE;
+                    runner = null;
+                    clearInterrupt = interruptedByCancel;
+                }
+                outstandingTasks.remove(this);
+
+                // Don't leave our interrupt behind for the next task on this thread.
+                if (clearInterrupt)
+                    Thread.interrupted();
+            }
+        }
+
+        /**
+         * @return The state the task was in when it was cancelled.
+         */
+        protected synchronized int cancel() {
+            int previousState = state;
+            if (state == QUEUED) {
+                state = CANCELLED;
+            }
+            else if (state == RUNNING) {
+                interruptedByCancel = true;
+                runner.interrupt();
+            }
+            return previousState;
+        }
+    }
+}
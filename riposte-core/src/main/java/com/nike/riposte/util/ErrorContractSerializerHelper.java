@@ -1,11 +1,17 @@
 package com.nike.riposte.util;
 
+import com.nike.backstopper.model.DefaultErrorContractDTO;
+import com.nike.backstopper.model.DefaultErrorDTO;
 import com.nike.backstopper.model.util.JsonUtilWithDefaultErrorContractDTOSupport;
+import com.nike.riposte.server.error.handler.ErrorResponseBody;
 import com.nike.riposte.server.error.handler.ErrorResponseBodySerializer;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 /**
  * Helper class for error contract serializers.
  */
@@ -14,7 +20,13 @@ public class ErrorContractSerializerHelper {
 
     public static final ObjectMapper SMART_ERROR_MAPPER = generateErrorContractObjectMapper(true, true);
     public static final ErrorResponseBodySerializer SMART_ERROR_SERIALIZER =
-        asErrorResponseBodySerializer(SMART_ERROR_MAPPER);
+        asCachingErrorResponseBodySerializer(SMART_ERROR_MAPPER);
+
+    /**
+     * The max number of distinct error lists a serializer returned by {@link
+     * #asCachingErrorResponseBodySerializer(ObjectMapper)} will cache before clearing its cache and starting over.
+     */
+    public static final int MAX_CACHED_ERROR_BODIES = 1024;
 
     public static ObjectMapper generateErrorContractObjectMapper(boolean excludeEmptyMetadataFromJson,
                                                                  boolean serializeErrorCodeFieldAsIntegerIfPossible) {
@@ -47,4 +59,77 @@ public class ErrorContractSerializerHelper {
             }
         };
     }
+
+    /**
+     * Same as {@link #asErrorResponseBodySerializer(ObjectMapper)}, except that the serialized {@code errors} array of
+     * {@link DefaultErrorContractDTO} bodies is cached when none of the errors have any metadata. Framework errors
+     * like 404s and 405s are the same for every request apart from the {@code error_id}, so under a flood of them
+     * this avoids running the full Jackson serialization for every response. Bodies that are not {@link
+     * DefaultErrorContractDTO}s, or that have errors with metadata, are serialized normally.
+     */
+    public static ErrorResponseBodySerializer asCachingErrorResponseBodySerializer(ObjectMapper objectMapper) {
+        return new CachingErrorResponseBodySerializer(objectMapper, MAX_CACHED_ERROR_BODIES);
+    }
+
+    protected static class CachingErrorResponseBodySerializer implements ErrorResponseBodySerializer {
+
+        protected final ObjectMapper objectMapper;
+        protected final ErrorResponseBodySerializer delegate;
+        protected final int maxCachedErrorBodies;
+        protected final ConcurrentMap<String, String> errorsKeyToSerializedErrorsArray = new ConcurrentHashMap<>();
+
+        protected CachingErrorResponseBodySerializer(ObjectMapper objectMapper, int maxCachedErrorBodies) {
+            this.objectMapper = objectMapper;
+            this.delegate = asErrorResponseBodySerializer(objectMapper);
+            this.maxCachedErrorBodies = maxCachedErrorBodies;
+        }
+
+        @Override
+        public String serializeErrorResponseBodyToString(ErrorResponseBody errorResponseBody) {
+            Object body = (errorResponseBody == null) ? null : errorResponseBody.bodyToSerialize();
+            if (!(body instanceof DefaultErrorContractDTO))
+                return delegate.serializeErrorResponseBodyToString(errorResponseBody);
+
+            DefaultErrorContractDTO contract = (DefaultErrorContractDTO) body;
+            String errorsKey = generateCacheKeyForErrors(contract);
+            if (errorsKey == null || contract.error_id == null)
+                return delegate.serializeErrorResponseBodyToString(errorResponseBody);
+
+            try {
+                String serializedErrors = errorsKeyToSerializedErrorsArray.get(errorsKey);
+                if (serializedErrors == null) {
+                    serializedErrors = objectMapper.writeValueAsString(contract.errors);
+                    if (errorsKeyToSerializedErrorsArray.size() >= maxCachedErrorBodies)
+                        errorsKeyToSerializedErrorsArray.clear();
+                    errorsKeyToSerializedErrorsArray.put(errorsKey, serializedErrors);
+                }
+
+                return "{\"error_id\":" + objectMapper.writeValueAsString(contract.error_id)
+                       + ",\"errors\":" + serializedErrors + "}";
+            }
+            catch (JsonProcessingException e) {
+                throw new RuntimeException("An error occurred while serializing an ErrorResponseBody to a string", e);
+            }
+        }
+
+        /**
+         * @return A key that uniquely identifies the given contract's errors, or null if the errors can't be cached
+         * (e.g. one of them has metadata, which may be specific to the request).
+         */
+        protected String generateCacheKeyForErrors(DefaultErrorContractDTO contract) {
+            if (contract.errors == null || contract.errors.isEmpty())
+                return null;
+
+            StringBuilder sb = new StringBuilder();
+            for (DefaultErrorDTO error : contract.errors) {
+                if (error.metadata != null && !error.metadata.isEmpty())
+                    return null;
+
+                // Codes and messages come from the project's ApiErrors rather than the request, so a separator is safe.
+                sb.append(error.code).append('\u0000').append(error.message).append('\u0000');
+            }
+
+            return sb.toString();
+        }
+    }
 }
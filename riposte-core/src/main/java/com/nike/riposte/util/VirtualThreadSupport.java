@@ -0,0 +1,98 @@
+package com.nike.riposte.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Gives access to JDK 21+ virtual threads without requiring them - Riposte is built for (and runs on) Java 8, so
+ * everything here is looked up reflectively, and falls back gracefully when it's not available. Use {@link
+ * #isVirtualThreadSupported()} to see which case you're in.
+ */
+@SuppressWarnings("WeakerAccess")
+public class VirtualThreadSupport {
+
+    private static final Logger logger = LoggerFactory.getLogger(VirtualThreadSupport.class);
+
+    /**
+     * The name prefix for the threads created by {@link #getVirtualThreadPerTaskExecutor()}. Each thread's name ends
+     * with a counter.
+     */
+    public static final String VIRTUAL_THREAD_NAME_PREFIX = "riposte-virtual-";
+
+    private static final Method IS_VIRTUAL_METHOD = findIsVirtualMethod();
+
+    private static class ExecutorHolder {
+        private static final ExecutorService INSTANCE = createVirtualThreadPerTaskExecutor();
+    }
+
+    // Intentionally private - all access should be through the static methods.
+    private VirtualThreadSupport() {
+        // Do nothing
+    }
+
+    /**
+     * @return true if the JVM supports virtual threads (JDK 21+), false otherwise.
+     */
+    public static boolean isVirtualThreadSupported() {
+        return getVirtualThreadPerTaskExecutor() != null;
+    }
+
+    /**
+     * @return A shared executor that runs each task on a new virtual thread, or null if the JVM doesn't support virtual
+     * threads.
+     */
+    public static Executor getVirtualThreadPerTaskExecutor() {
+        return ExecutorHolder.INSTANCE;
+    }
+
+    /**
+     * @return true if the given thread is a virtual thread, false if it isn't (which is always the case if the JVM
+     * doesn't support virtual threads).
+     */
+    public static boolean isVirtualThread(Thread thread) {
+        if (IS_VIRTUAL_METHOD == null || thread == null)
+            return false;
+
+        try {
+            return (Boolean) IS_VIRTUAL_METHOD.invoke(thread);
+        }
+        catch (ReflectiveOperationException ex) {
+            return false;
+        }
+    }
+
+    private static Method findIsVirtualMethod() {
+        try {
+            return Thread.class.getMethod("isVirtual");
+        }
+        catch (NoSuchMethodException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Does the equivalent of {@code
+     * Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(VIRTUAL_THREAD_NAME_PREFIX, 0).factory())}.
+     */
+    private static ExecutorService createVirtualThreadPerTaskExecutor() {
+        try {
+            Class<?> ofVirtualClass = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = ofVirtualClass.getMethod("name", String.class, long.class)
+                                    .invoke(builder, VIRTUAL_THREAD_NAME_PREFIX, 0L);
+            ThreadFactory threadFactory = (ThreadFactory) ofVirtualClass.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                                                    .invoke(null, threadFactory);
+        }
+        catch (ReflectiveOperationException | LinkageError ex) {
+            logger.debug("Virtual threads are not supported by this JVM (JDK 21+ is required).");
+            return null;
+        }
+    }
+}
@@ -0,0 +1,482 @@
+package com.nike.riposte.client.asynchttp.netty;
+
+import com.nike.fastbreak.CircuitBreaker;
+import com.nike.fastbreak.CircuitBreaker.ManualModeTask;
+import com.nike.fastbreak.exception.CircuitBreakerOpenException;
+import com.nike.riposte.client.asynchttp.netty.StreamingAsyncHttpClient.StreamingCallback;
+import com.nike.riposte.client.asynchttp.netty.StreamingAsyncHttpClient.StreamingChannel;
+import com.nike.riposte.client.hedging.HedgingPolicy;
+import com.nike.riposte.client.retry.RetryPolicy;
+import com.nike.riposte.server.channelpipeline.ChannelAttributes;
+import com.nike.riposte.server.error.exception.DownstreamRequestTimeoutException;
+import com.nike.riposte.server.error.exception.DownstreamResponseTooLargeException;
+import com.nike.riposte.server.error.exception.RequestDeadlineExceededException;
+import com.nike.riposte.server.http.HttpProcessingState;
+import com.nike.riposte.server.http.RequestDeadline;
+
+import com.tngtech.java.junit.dataprovider.DataProvider;
+import com.tngtech.java.junit.dataprovider.DataProviderRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.EventLoop;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.Attribute;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+/**
+ * Tests the functionality of {@link AsyncHttpClientHelper}.
+ */
+@RunWith(DataProviderRunner.class)
+public class AsyncHttpClientHelperTest {
+
+    private StreamingAsyncHttpClient clientMock;
+    private AsyncHttpClientHelper helper;
+    private ChannelHandlerContext ctxMock;
+    private Attribute<HttpProcessingState> stateAttrMock;
+    private HttpProcessingState stateMock;
+    private CompletableFuture<StreamingChannel> streamingChannelFuture;
+    private StreamingChannel streamingChannelMock;
+    private CircuitBreaker<HttpResponse> circuitBreakerMock;
+    private ManualModeTask<HttpResponse> cbManualTaskMock;
+    private EventLoop eventLoopMock;
+    private ScheduledFuture<?> timerMock;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void beforeMethod() {
+        clientMock = mock(StreamingAsyncHttpClient.class);
+        helper = new AsyncHttpClientHelper(clientMock, true);
+
+        ctxMock = mock(ChannelHandlerContext.class);
+        Channel channelMock = mock(Channel.class);
+        doReturn(channelMock).when(ctxMock).channel();
+        eventLoopMock = mock(EventLoop.class);
+        doReturn(eventLoopMock).when(channelMock).eventLoop();
+        timerMock = mock(ScheduledFuture.class);
+        doReturn(timerMock).when(eventLoopMock).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+        stateAttrMock = mock(Attribute.class);
+        doReturn(stateAttrMock).when(channelMock).attr(ChannelAttributes.HTTP_PROCESSING_STATE_ATTRIBUTE_KEY);
+        stateMock = mock(HttpProcessingState.class);
+        doReturn(stateMock).when(stateAttrMock).get();
+
+        streamingChannelFuture = new CompletableFuture<>();
+        doReturn(streamingChannelFuture).when(clientMock).streamDownstreamCall(
+            anyString(), anyInt(), any(HttpRequest.class), anyBoolean(), anyBoolean(), any(StreamingCallback.class),
+            anyLong(), anyBoolean(), anyBoolean(), any(ChannelHandlerContext.class), any(HedgingPolicy.class),
+            any(RetryPolicy.class)
+        );
+        streamingChannelMock = mock(StreamingChannel.class);
+        doReturn(mock(ChannelFuture.class)).when(streamingChannelMock).streamChunk(any(HttpContent.class));
+
+        circuitBreakerMock = mock(CircuitBreaker.class);
+        cbManualTaskMock = mock(ManualModeTask.class);
+        doReturn(cbManualTaskMock).when(circuitBreakerMock).newManualModeTask();
+    }
+
+    private RequestBuilderWrapper requestWithCircuitBreakerMock(String url, HttpMethod method) {
+        return helper.getRequestBuilder(url, method, Optional.of(circuitBreakerMock), false);
+    }
+
+    private StreamingCallback verifyStreamDownstreamCall(String host, int port, boolean isHttps, long timeoutMillis,
+                                                         HttpRequest expectedRequest) {
+        ArgumentCaptor<HttpRequest> requestCaptor = ArgumentCaptor.forClass(HttpRequest.class);
+        ArgumentCaptor<StreamingCallback> callbackCaptor = ArgumentCaptor.forClass(StreamingCallback.class);
+        verify(clientMock).streamDownstreamCall(
+            eq(host), eq(port), requestCaptor.capture(), eq(isHttps), eq(false), callbackCaptor.capture(),
+            eq(timeoutMillis), eq(true), eq(true), eq(ctxMock), any(HedgingPolicy.class), any(RetryPolicy.class)
+        );
+        if (expectedRequest != null) {
+            assertThat(requestCaptor.getValue().getMethod()).isEqualTo(expectedRequest.getMethod());
+            assertThat(requestCaptor.getValue().getUri()).isEqualTo(expectedRequest.getUri());
+        }
+        return callbackCaptor.getValue();
+    }
+
+    @Test
+    public void constructor_throws_IllegalArgumentException_if_client_is_null() {
+        // when
+        Throwable ex = catchThrowable(() -> new AsyncHttpClientHelper(null, true));
+
+        // then
+        assertThat(ex).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void default_constructor_creates_client_and_performs_subspans() {
+        // when
+        AsyncHttpClientHelper defaultHelper = new AsyncHttpClientHelper();
+
+        // then
+        assertThat(defaultHelper.streamingAsyncHttpClient).isNotNull();
+        assertThat(defaultHelper.performSubSpanAroundDownstreamCalls).isTrue();
+    }
+
+    @Test
+    public void default_constructors_share_the_default_client() {
+        // when
+        AsyncHttpClientHelper defaultHelper = new AsyncHttpClientHelper();
+        AsyncHttpClientHelper noSubSpanHelper = new AsyncHttpClientHelper(false);
+
+        // then
+        assertThat(defaultHelper.streamingAsyncHttpClient)
+            .isSameAs(noSubSpanHelper.streamingAsyncHttpClient)
+            .isSameAs(AsyncHttpClientHelper.getDefaultStreamingAsyncHttpClient());
+    }
+
+    @DataProvider(value = {
+        "0",
+        "-1"
+    })
+    @Test
+    public void setMaxResponseSizeBytes_throws_IllegalArgumentException_if_not_positive(long badValue) {
+        // when
+        Throwable ex = catchThrowable(() -> helper.setMaxResponseSizeBytes(badValue));
+
+        // then
+        assertThat(ex).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void executeAsyncHttpRequest_throws_IllegalStateException_if_state_is_null() {
+        // given
+        doReturn(null).when(stateAttrMock).get();
+
+        // when
+        Throwable ex = catchThrowable(() -> helper.executeAsyncHttpRequest(
+            helper.getRequestBuilder("http://foo.com", HttpMethod.GET), response -> null, ctxMock
+        ));
+
+        // then
+        assertThat(ex).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void executeAsyncHttpRequest_streams_request_and_completes_future_with_handled_aggregated_response() {
+        // given
+        RequestBuilderWrapper request = requestWithCircuitBreakerMock("https://foo.com:8443/bar?baz=1",
+                                                                      HttpMethod.POST).setBody("request body");
+        HttpRequest expectedRequest = request.createInitialRequestChunk();
+
+        // when
+        CompletableFuture<String> result = helper.executeAsyncHttpRequest(
+            request,
+            response -> response.getStatus().code() + " " + response.headers().get("foo") + " "
+                        + response.content().toString(StandardCharsets.UTF_8) + " "
+                        + response.trailingHeaders().get("x-trailer"),
+            ctxMock
+        );
+
+        // then
+        verify(cbManualTaskMock).throwExceptionIfCircuitBreakerIsOpen();
+        StreamingCallback callback = verifyStreamDownstreamCall(
+            "foo.com", 8443, true, AsyncHttpClientHelper.DEFAULT_REQUEST_TIMEOUT_MILLIS, expectedRequest
+        );
+        verifyZeroInteractions(streamingChannelMock);
+
+        // and when
+        streamingChannelFuture.complete(streamingChannelMock);
+
+        // then
+        ArgumentCaptor<HttpContent> lastChunkCaptor = ArgumentCaptor.forClass(HttpContent.class);
+        verify(streamingChannelMock).streamChunk(lastChunkCaptor.capture());
+        assertThat(lastChunkCaptor.getValue()).isInstanceOf(LastHttpContent.class);
+        assertThat(lastChunkCaptor.getValue().content().toString(StandardCharsets.UTF_8)).isEqualTo("request body");
+
+        // and when
+        HttpResponse responseFirstChunk = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.CREATED);
+        responseFirstChunk.headers().set("foo", "bar");
+        LastHttpContent responseLastChunk =
+            new DefaultLastHttpContent(Unpooled.copiedBuffer("body", StandardCharsets.UTF_8));
+        responseLastChunk.trailingHeaders().set("x-trailer", "yes");
+        callback.messageReceived(responseFirstChunk);
+        callback.messageReceived(new DefaultHttpContent(Unpooled.copiedBuffer("response ", StandardCharsets.UTF_8)));
+        callback.messageReceived(responseLastChunk);
+
+        // then
+        assertThat(result.join()).isEqualTo("201 bar response body yes");
+        ArgumentCaptor<HttpResponse> cbEventCaptor = ArgumentCaptor.forClass(HttpResponse.class);
+        verify(cbManualTaskMock).handleEvent(cbEventCaptor.capture());
+        assertThat(cbEventCaptor.getValue()).isInstanceOf(FullHttpResponse.class);
+        assertThat(cbEventCaptor.getValue().getStatus()).isEqualTo(HttpResponseStatus.CREATED);
+    }
+
+    @Test
+    public void executeAsyncHttpRequest_sends_empty_last_chunk_for_bodiless_request() {
+        // given
+        RequestBuilderWrapper request = requestWithCircuitBreakerMock("http://foo.com/bar", HttpMethod.GET);
+
+        // when
+        helper.executeAsyncHttpRequest(request, response -> null, ctxMock);
+        streamingChannelFuture.complete(streamingChannelMock);
+
+        // then
+        verifyStreamDownstreamCall("foo.com", 80, false, AsyncHttpClientHelper.DEFAULT_REQUEST_TIMEOUT_MILLIS, null);
+        verify(streamingChannelMock).streamChunk(LastHttpContent.EMPTY_LAST_CONTENT);
+    }
+
+    @DataProvider(value = {
+        "0      |   null    |   58000",
+        "1234   |   null    |   1234",
+        "1234   |   500     |   500",
+        "0      |   60000   |   58000"
+    }, splitBy = "\\|")
+    @Test
+    public void executeAsyncHttpRequest_uses_request_timeout_capped_by_request_deadline(
+        long requestTimeoutMillis, Long remainingBudgetMillis, long expectedTimeoutMillis
+    ) {
+        // given
+        RequestDeadline deadlineMock = null;
+        if (remainingBudgetMillis != null) {
+            deadlineMock = mock(RequestDeadline.class);
+            doReturn(remainingBudgetMillis).when(deadlineMock).getRemainingMillis();
+            doReturn(Math.min(58000, remainingBudgetMillis)).when(deadlineMock).capTimeoutMillis(58000);
+            doReturn(Math.min(1234, remainingBudgetMillis)).when(deadlineMock).capTimeoutMillis(1234);
+        }
+        doReturn(deadlineMock).when(stateMock).getRequestDeadline();
+        RequestBuilderWrapper request = requestWithCircuitBreakerMock("http://foo.com/bar", HttpMethod.GET)
+            .setRequestTimeoutMillis(requestTimeoutMillis);
+
+        // when
+        helper.executeAsyncHttpRequest(request, response -> null, ctxMock);
+
+        // then
+        verifyStreamDownstreamCall("foo.com", 80, false, expectedTimeoutMillis, null);
+        if (deadlineMock != null)
+            verify(deadlineMock).setRemainingBudgetHeader(request.getHeaders());
+    }
+
+    @Test
+    public void executeAsyncHttpRequest_fails_fast_if_request_deadline_is_too_close() {
+        // given
+        RequestDeadline deadline = new RequestDeadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(2), 5, null);
+        doReturn(deadline).when(stateMock).getRequestDeadline();
+
+        // when
+        CompletableFuture<String> result = helper.executeAsyncHttpRequest(
+            requestWithCircuitBreakerMock("http://foo.com/bar", HttpMethod.GET), response -> "foo", ctxMock
+        );
+
+        // then
+        assertThat(catchThrowable(result::join)).hasCauseInstanceOf(RequestDeadlineExceededException.class);
+        verifyZeroInteractions(clientMock, circuitBreakerMock);
+    }
+
+    @Test
+    public void executeAsyncHttpRequest_fails_fast_if_circuit_breaker_is_open() {
+        // given
+        CircuitBreakerOpenException cbOpenEx = new CircuitBreakerOpenException("foo", "kaboom");
+        doThrow(cbOpenEx).when(cbManualTaskMock).throwExceptionIfCircuitBreakerIsOpen();
+
+        // when
+        CompletableFuture<String> result = helper.executeAsyncHttpRequest(
+            requestWithCircuitBreakerMock("http://foo.com/bar", HttpMethod.GET), response -> "foo", ctxMock
+        );
+
+        // then
+        assertThat(catchThrowable(result::join)).hasCause(cbOpenEx);
+        verifyZeroInteractions(clientMock);
+    }
+
+    @Test
+    public void executeAsyncHttpRequest_fails_future_and_notifies_circuit_breaker_if_call_cannot_be_made() {
+        // given
+        RuntimeException connectEx = new RuntimeException("kaboom");
+
+        // when
+        CompletableFuture<String> result = helper.executeAsyncHttpRequest(
+            requestWithCircuitBreakerMock("http://foo.com/bar", HttpMethod.GET), response -> "foo", ctxMock
+        );
+        streamingChannelFuture.completeExceptionally(connectEx);
+
+        // then
+        assertThat(catchThrowable(result::join)).hasCause(connectEx);
+        verify(cbManualTaskMock).handleException(connectEx);
+        verify(cbManualTaskMock, never()).handleEvent(any(HttpResponse.class));
+    }
+
+    @Test
+    public void executeAsyncHttpRequest_uses_first_outcome_only_and_fails_future_if_handler_throws() {
+        // given
+        RuntimeException handlerEx = new RuntimeException("kaboom");
+        CompletableFuture<String> result = helper.executeAsyncHttpRequest(
+            requestWithCircuitBreakerMock("http://foo.com/bar", HttpMethod.GET),
+            response -> { throw handlerEx; },
+            ctxMock
+        );
+        StreamingCallback callback = verifyStreamDownstreamCall(
+            "foo.com", 80, false, AsyncHttpClientHelper.DEFAULT_REQUEST_TIMEOUT_MILLIS, null
+        );
+
+        // when
+        callback.messageReceived(new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK));
+        callback.messageReceived(LastHttpContent.EMPTY_LAST_CONTENT);
+        callback.unrecoverableErrorOccurred(new RuntimeException("too late"), true);
+
+        // then
+        assertThat(catchThrowable(result::join)).hasCause(handlerEx);
+        verify(cbManualTaskMock).handleEvent(any(HttpResponse.class));
+        verify(cbManualTaskMock, never()).handleException(any(Throwable.class));
+    }
+
+    private Runnable verifyRequestTimeoutTimerScheduled(long timeoutMillis) {
+        ArgumentCaptor<Runnable> timerTaskCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(eventLoopMock).schedule(timerTaskCaptor.capture(), eq(timeoutMillis), eq(TimeUnit.MILLISECONDS));
+        return timerTaskCaptor.getValue();
+    }
+
+    @Test
+    public void executeAsyncHttpRequest_fails_the_call_and_closes_the_channel_when_the_total_request_timeout_passes() {
+        // given
+        RequestBuilderWrapper request = requestWithCircuitBreakerMock("http://foo.com/bar", HttpMethod.GET)
+            .setRequestTimeoutMillis(1234);
+        CompletableFuture<String> result = helper.executeAsyncHttpRequest(request, response -> "foo", ctxMock);
+        Runnable timerTask = verifyRequestTimeoutTimerScheduled(1234);
+        StreamingCallback callback = verifyStreamDownstreamCall("foo.com", 80, false, 1234, null);
+        streamingChannelFuture.complete(streamingChannelMock);
+        // The downstream system is still sending data, so the call never goes idle.
+        callback.messageReceived(new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK));
+        callback.messageReceived(new DefaultHttpContent(Unpooled.copiedBuffer("trickle", StandardCharsets.UTF_8)));
+
+        // when
+        timerTask.run();
+
+        // then
+        Throwable ex = catchThrowable(result::join);
+        assertThat(ex).hasCauseInstanceOf(DownstreamRequestTimeoutException.class);
+        assertThat(((DownstreamRequestTimeoutException) ex.getCause()).timeoutValueMillis).isEqualTo(1234);
+        verify(cbManualTaskMock).handleException(ex.getCause());
+        verify(streamingChannelMock).closeChannelDueToUnrecoverableError(ex.getCause());
+    }
+
+    @Test
+    public void executeAsyncHttpRequest_does_not_send_the_rest_of_the_request_if_it_timed_out_before_the_channel_was_ready() {
+        // given
+        CompletableFuture<String> result = helper.executeAsyncHttpRequest(
+            requestWithCircuitBreakerMock("http://foo.com/bar", HttpMethod.GET), response -> "foo", ctxMock
+        );
+        verifyRequestTimeoutTimerScheduled(AsyncHttpClientHelper.DEFAULT_REQUEST_TIMEOUT_MILLIS).run();
+
+        // when
+        streamingChannelFuture.complete(streamingChannelMock);
+
+        // then
+        Throwable ex = catchThrowable(result::join);
+        assertThat(ex).hasCauseInstanceOf(DownstreamRequestTimeoutException.class);
+        verify(streamingChannelMock).closeChannelDueToUnrecoverableError(ex.getCause());
+        verify(streamingChannelMock, never()).streamChunk(any(HttpContent.class));
+    }
+
+    @Test
+    public void executeAsyncHttpRequest_cancels_the_request_timeout_timer_when_the_call_completes() {
+        // given
+        helper.executeAsyncHttpRequest(
+            requestWithCircuitBreakerMock("http://foo.com/bar", HttpMethod.GET), response -> "foo", ctxMock
+        );
+        StreamingCallback callback = verifyStreamDownstreamCall(
+            "foo.com", 80, false, AsyncHttpClientHelper.DEFAULT_REQUEST_TIMEOUT_MILLIS, null
+        );
+        verify(timerMock, never()).cancel(anyBoolean());
+
+        // when
+        callback.messageReceived(new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK));
+        callback.messageReceived(LastHttpContent.EMPTY_LAST_CONTENT);
+
+        // then
+        verify(timerMock).cancel(false);
+    }
+
+    @DataProvider(value = {
+        "true",
+        "false"
+    })
+    @Test
+    public void executeAsyncHttpRequest_fails_the_call_and_closes_the_channel_if_the_response_is_too_large(
+        boolean sendContentLengthHeader
+    ) {
+        // given
+        helper.setMaxResponseSizeBytes(10);
+        CompletableFuture<String> result = helper.executeAsyncHttpRequest(
+            requestWithCircuitBreakerMock("http://foo.com/bar", HttpMethod.GET), response -> "foo", ctxMock
+        );
+        StreamingCallback callback = verifyStreamDownstreamCall(
+            "foo.com", 80, false, AsyncHttpClientHelper.DEFAULT_REQUEST_TIMEOUT_MILLIS, null
+        );
+        streamingChannelFuture.complete(streamingChannelMock);
+        HttpResponse responseFirstChunk = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        if (sendContentLengthHeader)
+            responseFirstChunk.headers().set(HttpHeaders.Names.CONTENT_LENGTH, "11");
+
+        // when
+        callback.messageReceived(responseFirstChunk);
+        callback.messageReceived(new DefaultHttpContent(Unpooled.copiedBuffer("123456", StandardCharsets.UTF_8)));
+        callback.messageReceived(new DefaultLastHttpContent(Unpooled.copiedBuffer("78901", StandardCharsets.UTF_8)));
+
+        // then
+        Throwable ex = catchThrowable(result::join);
+        assertThat(ex).hasCauseInstanceOf(DownstreamResponseTooLargeException.class);
+        assertThat(((DownstreamResponseTooLargeException) ex.getCause()).maxResponseSizeBytes).isEqualTo(10);
+        verify(streamingChannelMock).closeChannelDueToUnrecoverableError(ex.getCause());
+        verify(cbManualTaskMock, never()).handleEvent(any(HttpResponse.class));
+    }
+
+    @Test
+    public void getCircuitBreaker_returns_empty_if_disabled_custom_if_specified_or_shared_default_for_host() {
+        // given
+        RequestBuilderWrapper disabled =
+            helper.getRequestBuilder("http://foo.com", HttpMethod.GET, Optional.of(circuitBreakerMock), true);
+        RequestBuilderWrapper custom = requestWithCircuitBreakerMock("http://foo.com", HttpMethod.GET);
+        RequestBuilderWrapper default1 = helper.getRequestBuilder("http://default-cb-host.com/a", HttpMethod.GET);
+        RequestBuilderWrapper default2 = helper.getRequestBuilder("https://default-cb-host.com/b", HttpMethod.PUT);
+
+        // when
+        Optional<CircuitBreaker<HttpResponse>> disabledResult = helper.getCircuitBreaker(disabled);
+        Optional<CircuitBreaker<HttpResponse>> customResult = helper.getCircuitBreaker(custom);
+        Optional<CircuitBreaker<HttpResponse>> default1Result = helper.getCircuitBreaker(default1);
+        Optional<CircuitBreaker<HttpResponse>> default2Result = helper.getCircuitBreaker(default2);
+
+        // then
+        assertThat(disabledResult).isEmpty();
+        assertThat(customResult).contains(circuitBreakerMock);
+        assertThat(default1Result).isPresent();
+        assertThat(default2Result.get()).isSameAs(default1Result.get());
+    }
+}
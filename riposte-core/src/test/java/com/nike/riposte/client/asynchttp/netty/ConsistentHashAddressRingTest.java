@@ -0,0 +1,169 @@
+package com.nike.riposte.client.asynchttp.netty;
+
+import com.tngtech.java.junit.dataprovider.DataProvider;
+import com.tngtech.java.junit.dataprovider.DataProviderRunner;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * Tests the functionality of {@link ConsistentHashAddressRing}.
+ */
+@RunWith(DataProviderRunner.class)
+public class ConsistentHashAddressRingTest {
+
+    private static final int NUM_KEYS = 10000;
+
+    private static InetAddress ip(String ip) {
+        try {
+            return InetAddress.getByName(ip);
+        }
+        catch (UnknownHostException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static final InetAddress[] THREE_IPS = {ip("10.0.0.1"), ip("10.0.0.2"), ip("10.0.0.3")};
+    private static final InetAddress[] FOUR_IPS = {ip("10.0.0.1"), ip("10.0.0.2"), ip("10.0.0.3"), ip("10.0.0.4")};
+
+    private Map<String, InetAddress> chooseForAllKeys(ConsistentHashAddressRing ring, InetAddress[] candidates) {
+        Map<String, InetAddress> result = new HashMap<>();
+        for (int i = 0; i < NUM_KEYS; i++) {
+            String key = "key-" + i;
+            result.put(key, ring.chooseAddress(key, candidates, ip -> 0));
+        }
+        return result;
+    }
+
+    @DataProvider(value = {
+        "0  |   1.25",
+        "100|   0.99"
+    }, splitBy = "\\|")
+    @Test
+    public void constructor_throws_IllegalArgumentException_for_invalid_args(int virtualNodes, double loadFactor) {
+        // when
+        Throwable ex = catchThrowable(() -> new ConsistentHashAddressRing(virtualNodes, loadFactor));
+
+        // then
+        assertThat(ex).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void same_key_always_goes_to_the_same_address_and_keys_are_spread_across_all_addresses() {
+        // given
+        ConsistentHashAddressRing ring = new ConsistentHashAddressRing();
+        ring.updateMembers(THREE_IPS);
+
+        // when
+        Map<String, InetAddress> firstChoices = chooseForAllKeys(ring, THREE_IPS);
+        Map<String, InetAddress> secondChoices = chooseForAllKeys(ring, THREE_IPS);
+
+        // then
+        assertThat(secondChoices).isEqualTo(firstChoices);
+        for (InetAddress address : THREE_IPS) {
+            long keysForAddress = firstChoices.values().stream().filter(address::equals).count();
+            assertThat(keysForAddress).isBetween((long) (NUM_KEYS * 0.2), (long) (NUM_KEYS * 0.47));
+        }
+    }
+
+    @Test
+    public void adding_an_address_only_moves_keys_to_the_new_address() {
+        // given
+        ConsistentHashAddressRing ring = new ConsistentHashAddressRing();
+        ring.updateMembers(THREE_IPS);
+        Map<String, InetAddress> before = chooseForAllKeys(ring, THREE_IPS);
+
+        // when
+        ring.updateMembers(FOUR_IPS);
+        Map<String, InetAddress> after = chooseForAllKeys(ring, FOUR_IPS);
+
+        // then
+        int movedKeys = 0;
+        for (Map.Entry<String, InetAddress> entry : before.entrySet()) {
+            InetAddress newAddress = after.get(entry.getKey());
+            if (!newAddress.equals(entry.getValue())) {
+                movedKeys++;
+                assertThat(newAddress).isEqualTo(FOUR_IPS[3]);
+            }
+        }
+        assertThat(movedKeys).isBetween((int) (NUM_KEYS * 0.15), (int) (NUM_KEYS * 0.35));
+        assertThat(ring.getMembers()).containsOnly(FOUR_IPS);
+
+        // and when
+        ring.updateMembers(THREE_IPS);
+
+        // then
+        assertThat(chooseForAllKeys(ring, THREE_IPS)).isEqualTo(before);
+        assertThat(ring.ring).hasSize(3 * ConsistentHashAddressRing.DEFAULT_VIRTUAL_NODES_PER_ADDRESS);
+    }
+
+    @Test
+    public void updateMembers_does_nothing_when_the_addresses_have_not_changed() {
+        // given
+        ConsistentHashAddressRing ring = new ConsistentHashAddressRing();
+        ring.updateMembers(THREE_IPS);
+        Object ringBefore = ring.ring;
+
+        // when
+        ring.updateMembers(new InetAddress[]{THREE_IPS[2], THREE_IPS[0], THREE_IPS[1]});
+
+        // then
+        assertThat(ring.ring).isSameAs(ringBefore);
+    }
+
+    @Test
+    public void keys_for_an_address_that_is_not_a_candidate_move_to_the_next_address_on_the_ring() {
+        // given
+        ConsistentHashAddressRing ring = new ConsistentHashAddressRing();
+        ring.updateMembers(THREE_IPS);
+        Map<String, InetAddress> before = chooseForAllKeys(ring, THREE_IPS);
+        InetAddress[] withoutFirst = {THREE_IPS[1], THREE_IPS[2]};
+
+        // when
+        Map<String, InetAddress> after = chooseForAllKeys(ring, withoutFirst);
+
+        // then
+        for (Map.Entry<String, InetAddress> entry : before.entrySet()) {
+            if (!entry.getValue().equals(THREE_IPS[0]))
+                assertThat(after.get(entry.getKey())).isEqualTo(entry.getValue());
+            else
+                assertThat(after.get(entry.getKey())).isIn((Object[]) withoutFirst);
+        }
+    }
+
+    @Test
+    public void overloaded_address_spills_over_to_the_next_address_on_the_ring() {
+        // given
+        ConsistentHashAddressRing ring = new ConsistentHashAddressRing();
+        ring.updateMembers(THREE_IPS);
+        String key = "hot-key";
+        InetAddress preferred = ring.chooseAddress(key, THREE_IPS, ip -> 0);
+
+        // when
+        InetAddress chosenWhenOverloaded = ring.chooseAddress(key, THREE_IPS, ip -> ip.equals(preferred) ? 10 : 0);
+        InetAddress chosenWhenEvenlyLoaded = ring.chooseAddress(key, THREE_IPS, ip -> 10);
+
+        // then
+        assertThat(chosenWhenOverloaded).isNotEqualTo(preferred);
+        assertThat(chosenWhenEvenlyLoaded).isEqualTo(preferred);
+    }
+
+    @Test
+    public void chooseAddress_returns_the_only_candidate_or_the_first_candidate_when_the_ring_is_empty() {
+        // given
+        ConsistentHashAddressRing ring = new ConsistentHashAddressRing();
+
+        // expect
+        assertThat(ring.chooseAddress("foo", THREE_IPS, ip -> 0)).isEqualTo(THREE_IPS[0]);
+        ring.updateMembers(THREE_IPS);
+        assertThat(ring.chooseAddress("foo", new InetAddress[]{THREE_IPS[1]}, ip -> 0)).isEqualTo(THREE_IPS[1]);
+    }
+}
@@ -0,0 +1,308 @@
+package com.nike.riposte.client.asynchttp.netty;
+
+import com.nike.riposte.client.asynchttp.netty.HedgedDownstreamCall.HedgedStreamingChannel;
+import com.nike.riposte.client.asynchttp.netty.StreamingAsyncHttpClient.StreamingCallback;
+import com.nike.riposte.client.asynchttp.netty.StreamingAsyncHttpClient.StreamingChannel;
+import com.nike.riposte.client.hedging.HedgingPolicy;
+import com.nike.riposte.server.channelpipeline.ChannelAttributes;
+import com.nike.riposte.server.http.HttpProcessingState;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.Attribute;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the functionality of {@link HedgedDownstreamCall}.
+ */
+public class HedgedDownstreamCallTest {
+
+    private static final String HOST = "foo.com";
+    private static final int PORT = 8080;
+
+    private StreamingAsyncHttpClient clientMock;
+    private StreamingCallback callbackMock;
+    private ChannelHandlerContext ctxMock;
+    private EventExecutor executorMock;
+    private ScheduledFuture<?> hedgeTimerMock;
+    private HttpRequest request;
+    private CompletableFuture<StreamingChannel> primaryFuture;
+    private CompletableFuture<StreamingChannel> hedgeFuture;
+    private StreamingChannel primaryChannelMock;
+    private StreamingChannel hedgeChannelMock;
+    private InetSocketAddress primaryAddress;
+    private HttpResponse response;
+
+    @Before
+    public void beforeMethod() {
+        clientMock = mock(StreamingAsyncHttpClient.class);
+        callbackMock = mock(StreamingCallback.class);
+        request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/foo");
+        response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+
+        ctxMock = mock(ChannelHandlerContext.class);
+        Channel inboundChannelMock = mock(Channel.class);
+        doReturn(inboundChannelMock).when(ctxMock).channel();
+        @SuppressWarnings("unchecked")
+        Attribute<HttpProcessingState> stateAttrMock = mock(Attribute.class);
+        doReturn(stateAttrMock).when(inboundChannelMock).attr(ChannelAttributes.HTTP_PROCESSING_STATE_ATTRIBUTE_KEY);
+        doReturn(mock(HttpProcessingState.class)).when(stateAttrMock).get();
+        executorMock = mock(EventExecutor.class);
+        hedgeTimerMock = mock(ScheduledFuture.class);
+        doReturn(executorMock).when(ctxMock).executor();
+        doReturn(hedgeTimerMock).when(executorMock).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+
+        primaryFuture = new CompletableFuture<>();
+        hedgeFuture = new CompletableFuture<>();
+        when(clientMock.doStreamDownstreamCall(
+            anyString(), anyInt(), any(HttpRequest.class), anyBoolean(), anyBoolean(), any(StreamingCallback.class),
+            anyLong(), anyBoolean(), anyBoolean(), any(ChannelHandlerContext.class), any(InetSocketAddress.class),
+            any(String.class)
+        )).thenReturn(primaryFuture, hedgeFuture);
+
+        primaryAddress = new InetSocketAddress("127.0.0.1", PORT);
+        primaryChannelMock = mockStreamingChannel(primaryAddress);
+        hedgeChannelMock = mockStreamingChannel(new InetSocketAddress("127.0.0.2", PORT));
+    }
+
+    private StreamingChannel mockStreamingChannel(InetSocketAddress remoteAddress) {
+        StreamingChannel scMock = mock(StreamingChannel.class);
+        Channel channelMock = mock(Channel.class);
+        doReturn(remoteAddress).when(channelMock).remoteAddress();
+        doReturn(channelMock).when(scMock).getChannel();
+        doReturn(true).when(scMock).isDownstreamCallActive();
+        doReturn(mock(ChannelFuture.class)).when(scMock).streamChunk(any(HttpContent.class));
+        return scMock;
+    }
+
+    private HedgingPolicy policyWithBudgetForOneHedge() {
+        return HedgingPolicy.newBuilder().withBudgetPercent(100).withMaxBudgetBurst(1).build();
+    }
+
+    private HedgedDownstreamCall hedgedCall(HedgingPolicy policy) {
+        return new HedgedDownstreamCall(
+            clientMock, policy, HOST, PORT, request, false, false, callbackMock, 1000, false, true, ctxMock, null
+        );
+    }
+
+    private List<StreamingCallback> captureAttemptCallbacks(int numAttempts, List<InetSocketAddress> addressesToAvoid) {
+        ArgumentCaptor<StreamingCallback> callbackCaptor = ArgumentCaptor.forClass(StreamingCallback.class);
+        ArgumentCaptor<InetSocketAddress> addressCaptor = ArgumentCaptor.forClass(InetSocketAddress.class);
+        verify(clientMock, times(numAttempts)).doStreamDownstreamCall(
+            eq(HOST), eq(PORT), any(HttpRequest.class), anyBoolean(), anyBoolean(), callbackCaptor.capture(),
+            anyLong(), anyBoolean(), anyBoolean(), eq(ctxMock), addressCaptor.capture(), any(String.class)
+        );
+        if (addressesToAvoid != null)
+            addressesToAvoid.addAll(addressCaptor.getAllValues());
+        return callbackCaptor.getAllValues();
+    }
+
+    private Runnable captureHedgeTimerTask() {
+        ArgumentCaptor<Runnable> taskCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(executorMock).schedule(taskCaptor.capture(), anyLong(), eq(TimeUnit.NANOSECONDS));
+        return taskCaptor.getValue();
+    }
+
+    @Test
+    public void start_returns_a_HedgedStreamingChannel_and_finishes_the_bodiless_request_once_the_primary_connects() {
+        // given
+        HedgedDownstreamCall call = hedgedCall(policyWithBudgetForOneHedge());
+
+        // when
+        CompletableFuture<StreamingChannel> result = call.start();
+
+        // then
+        assertThat(result).isNotDone();
+
+        // and when
+        primaryFuture.complete(primaryChannelMock);
+
+        // then
+        assertThat(result.join()).isInstanceOf(HedgedStreamingChannel.class);
+        verify(primaryChannelMock).streamChunk(LastHttpContent.EMPTY_LAST_CONTENT);
+        captureHedgeTimerTask();
+        assertThat(call.hedgingPolicy.getEligibleCallCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void primary_response_before_the_hedge_delay_wins_and_cancels_the_hedge_timer() {
+        // given
+        HedgingPolicy policy = policyWithBudgetForOneHedge();
+        HedgedDownstreamCall call = hedgedCall(policy);
+        call.start();
+        primaryFuture.complete(primaryChannelMock);
+        StreamingCallback primaryCallback = captureAttemptCallbacks(1, null).get(0);
+
+        // when
+        primaryCallback.messageReceived(response);
+
+        // then
+        verify(callbackMock).messageReceived(response);
+        verify(hedgeTimerMock).cancel(false);
+
+        // and when
+        captureHedgeTimerTask().run();
+
+        // then
+        captureAttemptCallbacks(1, null);
+        assertThat(policy.getHedgeCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void hedge_goes_to_a_different_address_and_the_first_response_wins() {
+        // given
+        HedgingPolicy policy = policyWithBudgetForOneHedge();
+        HedgedDownstreamCall call = hedgedCall(policy);
+        call.start();
+        primaryFuture.complete(primaryChannelMock);
+
+        // when
+        captureHedgeTimerTask().run();
+        hedgeFuture.complete(hedgeChannelMock);
+
+        // then
+        List<InetSocketAddress> addressesToAvoid = new ArrayList<>();
+        List<StreamingCallback> attemptCallbacks = captureAttemptCallbacks(2, addressesToAvoid);
+        assertThat(addressesToAvoid).containsExactly(null, primaryAddress);
+        assertThat(call.hedgeRequestChunk).isNotSameAs(request);
+        assertThat(call.hedgeRequestChunk.getUri()).isEqualTo(request.getUri());
+        verify(hedgeChannelMock).streamChunk(LastHttpContent.EMPTY_LAST_CONTENT);
+
+        // and when
+        HttpObject lateChunkFromPrimary = mock(HttpContent.class);
+        attemptCallbacks.get(1).messageReceived(response);
+        attemptCallbacks.get(0).messageReceived(lateChunkFromPrimary);
+
+        // then
+        verify(callbackMock).messageReceived(response);
+        verify(callbackMock, never()).messageReceived(lateChunkFromPrimary);
+        verify(primaryChannelMock).abandonDownstreamCall(false);
+        verify(hedgeChannelMock, never()).abandonDownstreamCall(anyBoolean());
+        assertThat(policy.getHedgeCount()).isEqualTo(1);
+        assertThat(policy.getHedgeWinCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void hedge_is_not_sent_when_the_budget_is_exhausted() {
+        // given
+        HedgingPolicy policy = HedgingPolicy.newBuilder().withBudgetPercent(0).build();
+        HedgedDownstreamCall call = hedgedCall(policy);
+        call.start();
+        primaryFuture.complete(primaryChannelMock);
+
+        // when
+        captureHedgeTimerTask().run();
+
+        // then
+        captureAttemptCallbacks(1, null);
+        assertThat(policy.getBudgetExhaustedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void error_from_one_call_is_ignored_while_the_other_call_is_still_in_flight() {
+        // given
+        HedgedDownstreamCall call = hedgedCall(policyWithBudgetForOneHedge());
+        call.start();
+        primaryFuture.complete(primaryChannelMock);
+        captureHedgeTimerTask().run();
+        List<StreamingCallback> attemptCallbacks = captureAttemptCallbacks(2, null);
+        Throwable primaryError = new RuntimeException("primary kaboom");
+        Throwable hedgeError = new RuntimeException("hedge kaboom");
+
+        // when
+        attemptCallbacks.get(0).unrecoverableErrorOccurred(primaryError, true);
+
+        // then
+        verifyZeroInteractions(callbackMock);
+
+        // and when
+        attemptCallbacks.get(1).unrecoverableErrorOccurred(hedgeError, true);
+
+        // then
+        verify(callbackMock).unrecoverableErrorOccurred(hedgeError, true);
+    }
+
+    @Test
+    public void hedge_that_connects_after_the_primary_wins_is_abandoned() {
+        // given
+        HedgedDownstreamCall call = hedgedCall(policyWithBudgetForOneHedge());
+        call.start();
+        primaryFuture.complete(primaryChannelMock);
+        captureHedgeTimerTask().run();
+        captureAttemptCallbacks(2, null).get(0).messageReceived(response);
+
+        // when
+        hedgeFuture.complete(hedgeChannelMock);
+
+        // then
+        verify(hedgeChannelMock).abandonDownstreamCall(false);
+        verify(hedgeChannelMock, never()).streamChunk(any(HttpContent.class));
+    }
+
+    @Test
+    public void HedgedStreamingChannel_ignores_chunks_and_closes_every_call() {
+        // given
+        HedgedDownstreamCall call = hedgedCall(policyWithBudgetForOneHedge());
+        CompletableFuture<StreamingChannel> result = call.start();
+        primaryFuture.complete(primaryChannelMock);
+        captureHedgeTimerTask().run();
+        hedgeFuture.complete(hedgeChannelMock);
+        StreamingChannel hedgedChannel = result.join();
+        HttpContent chunkMock = mock(HttpContent.class);
+        Throwable cause = new RuntimeException("kaboom");
+
+        // when
+        hedgedChannel.streamChunk(chunkMock);
+
+        // then
+        verify(chunkMock).release();
+        verify(primaryChannelMock, never()).streamChunk(chunkMock);
+        verify(hedgeChannelMock, never()).streamChunk(chunkMock);
+        assertThat(hedgedChannel.isDownstreamCallActive()).isTrue();
+        assertThat(hedgedChannel.getChannel()).isSameAs(primaryChannelMock.getChannel());
+
+        // and when
+        hedgedChannel.closeChannelDueToUnrecoverableError(cause);
+
+        // then
+        verify(primaryChannelMock).closeChannelDueToUnrecoverableError(cause);
+        verify(hedgeChannelMock).closeChannelDueToUnrecoverableError(cause);
+    }
+}
@@ -0,0 +1,253 @@
+package com.nike.riposte.client.asynchttp.netty;
+
+import com.tngtech.java.junit.dataprovider.DataProvider;
+import com.tngtech.java.junit.dataprovider.DataProviderRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.nike.riposte.client.asynchttp.netty.LeastOutstandingRequestsAddressBalancer.DEFAULT_DECAY_TIME_NANOS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * Tests the functionality of {@link LeastOutstandingRequestsAddressBalancer}.
+ */
+@RunWith(DataProviderRunner.class)
+public class LeastOutstandingRequestsAddressBalancerTest {
+
+    private static final int PORT = 8080;
+
+    private LeastOutstandingRequestsAddressBalancer balancer;
+    private InetAddress ipA;
+    private InetAddress ipB;
+    private InetSocketAddress addressA;
+    private InetSocketAddress addressB;
+
+    @Before
+    public void beforeMethod() throws UnknownHostException {
+        balancer = new LeastOutstandingRequestsAddressBalancer();
+        ipA = InetAddress.getByName("10.0.0.1");
+        ipB = InetAddress.getByName("10.0.0.2");
+        addressA = new InetSocketAddress(ipA, PORT);
+        addressB = new InetSocketAddress(ipB, PORT);
+    }
+
+    private void chooseManyTimesAndVerifyAlwaysChosen(InetSocketAddress expected) {
+        for (int i = 0; i < 100; i++) {
+            assertThat(balancer.chooseAddress(new InetAddress[]{ipA, ipB}, PORT)).isEqualTo(expected);
+        }
+    }
+
+    @DataProvider(value = {
+        "0",
+        "-1"
+    })
+    @Test
+    public void constructor_throws_IllegalArgumentException_for_non_positive_decay_time(long decayTimeNanos) {
+        // when
+        Throwable ex = catchThrowable(() -> new LeastOutstandingRequestsAddressBalancer(decayTimeNanos));
+
+        // then
+        assertThat(ex).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @DataProvider(value = {
+        "0",
+        "-1"
+    })
+    @Test
+    public void constructor_throws_IllegalArgumentException_for_non_positive_idle_stats_ttl(long idleStatsTtlNanos) {
+        // when
+        Throwable ex = catchThrowable(
+            () -> new LeastOutstandingRequestsAddressBalancer(DEFAULT_DECAY_TIME_NANOS, idleStatsTtlNanos)
+        );
+
+        // then
+        assertThat(ex).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void chooseAddress_returns_the_only_address_when_there_is_only_one() {
+        // expect
+        assertThat(balancer.chooseAddress(new InetAddress[]{ipA}, PORT)).isEqualTo(addressA);
+    }
+
+    @Test
+    public void chooseAddress_spreads_calls_across_all_addresses_when_there_is_no_load() throws UnknownHostException {
+        // given
+        InetAddress[] ips = new InetAddress[]{ipA, ipB, InetAddress.getByName("10.0.0.3")};
+        Set<InetSocketAddress> chosen = new HashSet<>();
+
+        // when
+        for (int i = 0; i < 500; i++) {
+            chosen.add(balancer.chooseAddress(ips, PORT));
+        }
+
+        // then
+        assertThat(chosen).hasSize(3);
+    }
+
+    @Test
+    public void chooseAddress_prefers_the_address_with_fewer_outstanding_calls_when_there_are_no_latency_samples() {
+        // given
+        balancer.callStarted(addressA);
+
+        // expect
+        chooseManyTimesAndVerifyAlwaysChosen(addressB);
+        assertThat(balancer.getOutstandingCalls(addressA)).isEqualTo(1);
+        assertThat(balancer.getOutstandingCalls(addressB)).isEqualTo(0);
+    }
+
+    @Test
+    public void chooseAddress_prefers_the_lower_latency_address_when_outstanding_calls_are_equal() {
+        // given
+        balancer.callStarted(addressA);
+        balancer.callFinished(addressA, TimeUnit.MILLISECONDS.toNanos(500));
+        balancer.callStarted(addressB);
+        balancer.callFinished(addressB, TimeUnit.MILLISECONDS.toNanos(5));
+
+        // expect
+        chooseManyTimesAndVerifyAlwaysChosen(addressB);
+    }
+
+    @Test
+    public void chooseAddress_weighs_latency_by_outstanding_calls() {
+        // given
+        balancer.callStarted(addressA);
+        balancer.callFinished(addressA, TimeUnit.MILLISECONDS.toNanos(10));
+        balancer.callStarted(addressB);
+        balancer.callFinished(addressB, TimeUnit.MILLISECONDS.toNanos(20));
+        // A is faster, but has 3 calls in flight: 10ms * 4 > 20ms * 1.
+        balancer.callStarted(addressA);
+        balancer.callStarted(addressA);
+        balancer.callStarted(addressA);
+
+        // expect
+        chooseManyTimesAndVerifyAlwaysChosen(addressB);
+    }
+
+    @Test
+    public void callFinished_with_negative_latency_decrements_outstanding_calls_without_recording_a_sample() {
+        // given
+        balancer.callStarted(addressA);
+
+        // when
+        balancer.callFinished(addressA, -1);
+
+        // then
+        assertThat(balancer.getOutstandingCalls(addressA)).isEqualTo(0);
+        assertThat(balancer.getLatencyEwmaNanos(addressA)).isEqualTo(0);
+    }
+
+    @Test
+    public void callFailed_records_at_least_the_failure_penalty() {
+        // given
+        balancer.callStarted(addressA);
+
+        // when
+        balancer.callFailed(addressA, 1);
+
+        // then
+        assertThat(balancer.getOutstandingCalls(addressA)).isEqualTo(0);
+        assertThat(balancer.getLatencyEwmaNanos(addressA))
+            .isGreaterThan(LeastOutstandingRequestsAddressBalancer.FAILURE_PENALTY_NANOS * 0.99);
+    }
+
+    @Test
+    public void latency_ewma_jumps_to_spikes_and_blends_lower_samples() {
+        // given
+        long fast = TimeUnit.MILLISECONDS.toNanos(10);
+        long slow = TimeUnit.MILLISECONDS.toNanos(1000);
+        balancer.callStarted(addressA);
+        balancer.callFinished(addressA, fast);
+
+        // when
+        balancer.callStarted(addressA);
+        balancer.callFinished(addressA, slow);
+
+        // then
+        assertThat(balancer.getLatencyEwmaNanos(addressA)).isGreaterThan(slow * 0.99);
+
+        // and when
+        balancer.callStarted(addressA);
+        balancer.callFinished(addressA, fast);
+
+        // then
+        assertThat(balancer.getLatencyEwmaNanos(addressA)).isGreaterThan(fast).isLessThanOrEqualTo(slow);
+    }
+
+    @Test
+    public void latency_ewma_decays_over_time_without_new_samples() throws InterruptedException {
+        // given
+        balancer = new LeastOutstandingRequestsAddressBalancer(TimeUnit.MILLISECONDS.toNanos(10));
+        balancer.callStarted(addressA);
+        balancer.callFailed(addressA, 0);
+
+        // when
+        Thread.sleep(200);
+
+        // then
+        assertThat(balancer.getLatencyEwmaNanos(addressA))
+            .isLessThan(LeastOutstandingRequestsAddressBalancer.FAILURE_PENALTY_NANOS / 1000);
+    }
+
+    @Test
+    public void pruneIdleStats_drops_only_addresses_that_have_been_idle_for_the_ttl() {
+        // given
+        long ttl = TimeUnit.SECONDS.toNanos(30);
+        balancer = new LeastOutstandingRequestsAddressBalancer(DEFAULT_DECAY_TIME_NANOS, ttl);
+        balancer.callStarted(addressA);
+        balancer.callFinished(addressA, 1000);
+        balancer.callStarted(addressB);
+        long now = System.nanoTime();
+
+        // when
+        balancer.pruneIdleStats(now);
+
+        // then
+        assertThat(balancer.getTrackedAddressCount()).isEqualTo(2);
+
+        // and when
+        balancer.pruneIdleStats(now + ttl);
+
+        // then
+        // B still has an outstanding call, so it's kept no matter how long ago the call started.
+        assertThat(balancer.getTrackedAddressCount()).isEqualTo(1);
+        assertThat(balancer.getLatencyEwmaNanos(addressA)).isEqualTo(0);
+        assertThat(balancer.getOutstandingCalls(addressB)).isEqualTo(1);
+    }
+
+    @Test
+    public void callStarted_uses_a_fresh_entry_if_the_existing_one_was_dropped_concurrently() {
+        // given
+        balancer.callStarted(addressA);
+        balancer.callFinished(addressA, 1000);
+        LeastOutstandingRequestsAddressBalancer.AddressStats droppedStats = balancer.statsByAddress.get(addressA);
+        // Simulate a prune that has retired the entry but not yet removed it from the map.
+        assertThat(droppedStats.retireIfIdle(System.nanoTime() + DEFAULT_DECAY_TIME_NANOS * 100,
+                                             DEFAULT_DECAY_TIME_NANOS)).isTrue();
+
+        // when
+        balancer.callStarted(addressA);
+
+        // then
+        assertThat(balancer.statsByAddress.get(addressA)).isNotSameAs(droppedStats);
+        assertThat(droppedStats.outstandingCalls.get()).isEqualTo(0);
+        assertThat(balancer.getOutstandingCalls(addressA)).isEqualTo(1);
+
+        // and when
+        balancer.callFinished(addressA, 1000);
+
+        // then
+        assertThat(balancer.getOutstandingCalls(addressA)).isEqualTo(0);
+    }
+}
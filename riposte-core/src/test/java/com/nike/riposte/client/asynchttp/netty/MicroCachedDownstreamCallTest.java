@@ -0,0 +1,299 @@
+package com.nike.riposte.client.asynchttp.netty;
+
+import com.nike.riposte.client.asynchttp.netty.MicroCachedDownstreamCall.CachedResponseStreamingChannel;
+import com.nike.riposte.client.asynchttp.netty.StreamingAsyncHttpClient.StreamingCallback;
+import com.nike.riposte.client.asynchttp.netty.StreamingAsyncHttpClient.StreamingChannel;
+import com.nike.riposte.client.hedging.HedgingPolicy;
+import com.nike.riposte.client.retry.RetryPolicy;
+import com.nike.riposte.server.channelpipeline.ChannelAttributes;
+import com.nike.riposte.server.http.HttpProcessingState;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.Attribute;
+import io.netty.util.concurrent.EventExecutor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the functionality of {@link MicroCachedDownstreamCall}.
+ */
+public class MicroCachedDownstreamCallTest {
+
+    private static final String HOST = "foo.com";
+    private static final int PORT = 8080;
+
+    private AtomicLong now;
+    private ProxyResponseMicroCache cache;
+    private StreamingAsyncHttpClient clientMock;
+    private StreamingCallback callbackMock;
+    private ChannelHandlerContext ctxMock;
+    private Channel inboundChannelMock;
+    private EventExecutor executorMock;
+    private CompletableFuture<StreamingChannel> downstreamFuture;
+    private CompletableFuture<StreamingChannel> refreshFuture;
+    private StreamingChannel refreshChannelMock;
+    private List<Object> receivedMessages;
+
+    @Before
+    public void beforeMethod() {
+        now = new AtomicLong(1000000);
+        cache = new ProxyResponseMicroCache(10, 1000, 10000, 10000, 5000, null, now::get);
+        clientMock = mock(StreamingAsyncHttpClient.class);
+
+        // Keep a copy of what the callback receives, since the chunks are released once they've been passed along.
+        receivedMessages = new ArrayList<>();
+        callbackMock = mock(StreamingCallback.class);
+        doAnswer(invocation -> {
+            Object msg = invocation.getArguments()[0];
+            receivedMessages.add(
+                (msg instanceof HttpContent) ? ((HttpContent) msg).content().toString(StandardCharsets.UTF_8) : msg
+            );
+            return null;
+        }).when(callbackMock).messageReceived(any(HttpObject.class));
+
+        ctxMock = mock(ChannelHandlerContext.class);
+        inboundChannelMock = mock(Channel.class);
+        doReturn(inboundChannelMock).when(ctxMock).channel();
+        doReturn(mock(ChannelFuture.class)).when(inboundChannelMock).newSucceededFuture();
+        @SuppressWarnings("unchecked")
+        Attribute<HttpProcessingState> stateAttrMock = mock(Attribute.class);
+        doReturn(stateAttrMock).when(inboundChannelMock).attr(ChannelAttributes.HTTP_PROCESSING_STATE_ATTRIBUTE_KEY);
+        doReturn(mock(HttpProcessingState.class)).when(stateAttrMock).get();
+        executorMock = mock(EventExecutor.class);
+        doReturn(executorMock).when(ctxMock).executor();
+
+        downstreamFuture = new CompletableFuture<>();
+        when(clientMock.streamDownstreamCall(
+            anyString(), anyInt(), any(HttpRequest.class), anyBoolean(), anyBoolean(), any(StreamingCallback.class),
+            anyLong(), anyBoolean(), anyBoolean(), any(ChannelHandlerContext.class), any(HedgingPolicy.class),
+            any(RetryPolicy.class), any(String.class)
+        )).thenReturn(downstreamFuture);
+
+        refreshFuture = new CompletableFuture<>();
+        when(clientMock.doStreamDownstreamCall(
+            anyString(), anyInt(), any(HttpRequest.class), anyBoolean(), anyBoolean(), any(StreamingCallback.class),
+            anyLong(), anyBoolean(), anyBoolean(), any(ChannelHandlerContext.class), any(InetSocketAddress.class),
+            any(String.class)
+        )).thenReturn(refreshFuture);
+        refreshChannelMock = mock(StreamingChannel.class);
+        doReturn(mock(ChannelFuture.class)).when(refreshChannelMock).streamChunk(any(HttpContent.class));
+    }
+
+    private static HttpRequest getRequest() {
+        return new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/bar");
+    }
+
+    private static HttpResponse cacheableResponse(String cacheControl) {
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        response.headers().set(HttpHeaders.Names.CACHE_CONTROL, cacheControl);
+        return response;
+    }
+
+    private static LastHttpContent lastChunk(String body) {
+        return new DefaultLastHttpContent(Unpooled.copiedBuffer(body, StandardCharsets.UTF_8));
+    }
+
+    private MicroCachedDownstreamCall cachedCall() {
+        return new MicroCachedDownstreamCall(
+            clientMock, cache, HOST, PORT, getRequest(), false, false, callbackMock, 1000, true, true, ctxMock, null,
+            null, null
+        );
+    }
+
+    private StreamingCallback captureDownstreamCallback() {
+        ArgumentCaptor<StreamingCallback> callbackCaptor = ArgumentCaptor.forClass(StreamingCallback.class);
+        verify(clientMock).streamDownstreamCall(
+            eq(HOST), eq(PORT), any(HttpRequest.class), eq(false), eq(false), callbackCaptor.capture(), eq(1000L),
+            eq(true), eq(true), eq(ctxMock), any(HedgingPolicy.class), any(RetryPolicy.class), any(String.class)
+        );
+        return callbackCaptor.getValue();
+    }
+
+    private StreamingCallback captureRefreshCallback() {
+        ArgumentCaptor<StreamingCallback> callbackCaptor = ArgumentCaptor.forClass(StreamingCallback.class);
+        verify(clientMock).doStreamDownstreamCall(
+            eq(HOST), eq(PORT), any(HttpRequest.class), eq(false), eq(false), callbackCaptor.capture(), eq(1000L),
+            eq(false), eq(true), eq(ctxMock), any(InetSocketAddress.class), any(String.class)
+        );
+        return callbackCaptor.getValue();
+    }
+
+    private void runReplayTask() {
+        ArgumentCaptor<Runnable> taskCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(executorMock).execute(taskCaptor.capture());
+        taskCaptor.getValue().run();
+    }
+
+    private void primeCache(String cacheControl, String body) {
+        cachedCall().start();
+        StreamingCallback downstreamCallback = captureDownstreamCallback();
+        downstreamCallback.messageReceived(cacheableResponse(cacheControl));
+        LastHttpContent chunk = lastChunk(body);
+        downstreamCallback.messageReceived(chunk);
+        chunk.release();
+        receivedMessages.clear();
+    }
+
+    @Test
+    public void miss_makes_the_downstream_call_and_records_the_response_while_passing_it_along() {
+        // given
+        HttpResponse response = cacheableResponse("max-age=5");
+        LastHttpContent chunk = lastChunk("hello");
+
+        // when
+        CompletableFuture<StreamingChannel> result = cachedCall().start();
+        downstreamFuture.complete(refreshChannelMock);
+        StreamingCallback downstreamCallback = captureDownstreamCallback();
+        downstreamCallback.messageReceived(response);
+        downstreamCallback.messageReceived(chunk);
+
+        // then
+        assertThat(result.join()).isSameAs(refreshChannelMock);
+        assertThat(receivedMessages).containsExactly(response, "hello");
+        assertThat(cache.getMissCount()).isEqualTo(1);
+        assertThat(cache.getStoreCount()).isEqualTo(1);
+        assertThat(chunk.refCnt()).isEqualTo(1);
+        chunk.release();
+    }
+
+    @Test
+    public void hit_replays_the_cached_response_without_calling_downstream() {
+        // given
+        primeCache("max-age=5", "hello");
+        now.addAndGet(2000);
+
+        // when
+        CompletableFuture<StreamingChannel> result = cachedCall().start();
+
+        // then
+        StreamingChannel sc = result.join();
+        assertThat(sc).isInstanceOf(CachedResponseStreamingChannel.class);
+        assertThat(sc.isDownstreamCallActive()).isFalse();
+        assertThat(receivedMessages).isEmpty();
+
+        // and when
+        runReplayTask();
+
+        // then
+        assertThat(receivedMessages).hasSize(2);
+        HttpResponse replayedResponse = (HttpResponse) receivedMessages.get(0);
+        assertThat(replayedResponse.getStatus()).isEqualTo(HttpResponseStatus.OK);
+        assertThat(replayedResponse.headers().get(HttpHeaders.Names.AGE)).isEqualTo("2");
+        assertThat(receivedMessages.get(1)).isEqualTo("hello");
+        verify(clientMock).streamDownstreamCall(
+            anyString(), anyInt(), any(HttpRequest.class), anyBoolean(), anyBoolean(), any(StreamingCallback.class),
+            anyLong(), anyBoolean(), anyBoolean(), any(ChannelHandlerContext.class), any(HedgingPolicy.class),
+            any(RetryPolicy.class), any(String.class)
+        );
+        verify(clientMock, never()).doStreamDownstreamCall(
+            anyString(), anyInt(), any(HttpRequest.class), anyBoolean(), anyBoolean(), any(StreamingCallback.class),
+            anyLong(), anyBoolean(), anyBoolean(), any(ChannelHandlerContext.class), any(InetSocketAddress.class),
+            any(String.class)
+        );
+        assertThat(cache.getHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void CachedResponseStreamingChannel_releases_and_ignores_streamed_chunks() {
+        // given
+        StreamingChannel sc = new CachedResponseStreamingChannel(inboundChannelMock);
+        ByteBuf content = Unpooled.copiedBuffer("foo", StandardCharsets.UTF_8);
+
+        // when
+        sc.streamChunk(new DefaultLastHttpContent(content));
+        sc.closeChannelDueToUnrecoverableError(new RuntimeException("kaboom"));
+
+        // then
+        assertThat(content.refCnt()).isEqualTo(0);
+        verify(inboundChannelMock, never()).close();
+    }
+
+    @Test
+    public void stale_hits_are_served_while_a_single_background_refresh_updates_the_entry() {
+        // given
+        primeCache("max-age=1, stale-while-revalidate=5", "old");
+        now.addAndGet(2000);
+
+        // when
+        cachedCall().start();
+        cachedCall().start();
+
+        // then
+        assertThat(cache.getStaleHitCount()).isEqualTo(2);
+        assertThat(cache.getRefreshCount()).isEqualTo(1);
+        StreamingCallback refreshCallback = captureRefreshCallback();
+
+        // and when
+        refreshFuture.complete(refreshChannelMock);
+        refreshCallback.messageReceived(cacheableResponse("max-age=5"));
+        LastHttpContent refreshedChunk = lastChunk("new");
+        refreshCallback.messageReceived(refreshedChunk);
+        refreshedChunk.release();
+        cachedCall().start();
+        ArgumentCaptor<Runnable> taskCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(executorMock, times(3)).execute(taskCaptor.capture());
+        taskCaptor.getValue().run();
+
+        // then
+        verify(refreshChannelMock).streamChunk(LastHttpContent.EMPTY_LAST_CONTENT);
+        assertThat(receivedMessages.get(1)).isEqualTo("new");
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(cache.getRefreshCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void failed_refresh_lets_the_next_stale_hit_try_again() {
+        // given
+        primeCache("max-age=1, stale-while-revalidate=5", "old");
+        now.addAndGet(2000);
+        cachedCall().start();
+        StreamingCallback refreshCallback = captureRefreshCallback();
+
+        // when
+        refreshCallback.unrecoverableErrorOccurred(new RuntimeException("kaboom"), true);
+        cachedCall().start();
+
+        // then
+        assertThat(cache.getRefreshCount()).isEqualTo(2);
+    }
+}
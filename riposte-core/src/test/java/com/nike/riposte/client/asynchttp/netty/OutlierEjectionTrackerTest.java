@@ -0,0 +1,217 @@
+package com.nike.riposte.client.asynchttp.netty;
+
+import com.nike.riposte.client.pool.DownstreamConnectionPoolMetrics;
+import com.nike.riposte.client.pool.DownstreamOutlierEjectionConfig;
+
+import com.tngtech.java.junit.dataprovider.DataProvider;
+import com.tngtech.java.junit.dataprovider.DataProviderRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests the functionality of {@link OutlierEjectionTracker}.
+ */
+@RunWith(DataProviderRunner.class)
+public class OutlierEjectionTrackerTest {
+
+    private static final int PORT = 8080;
+
+    private DownstreamConnectionPoolMetrics metrics;
+    private InetAddress ipA;
+    private InetAddress ipB;
+    private InetAddress ipC;
+    private InetSocketAddress addressA;
+    private InetSocketAddress addressB;
+    private InetSocketAddress addressC;
+
+    @Before
+    public void beforeMethod() throws UnknownHostException {
+        metrics = new DownstreamConnectionPoolMetrics();
+        ipA = InetAddress.getByAddress("foo.com", new byte[]{10, 0, 0, 1});
+        ipB = InetAddress.getByAddress("foo.com", new byte[]{10, 0, 0, 2});
+        ipC = InetAddress.getByAddress("foo.com", new byte[]{10, 0, 0, 3});
+        addressA = new InetSocketAddress(ipA, PORT);
+        addressB = new InetSocketAddress(ipB, PORT);
+        addressC = new InetSocketAddress(ipC, PORT);
+    }
+
+    private OutlierEjectionTracker tracker(int consecutiveFailures, long baseEjectionMillis, long maxEjectionMillis,
+                                           int maxEjectedPercent) {
+        return new OutlierEjectionTracker(new DownstreamOutlierEjectionConfig() {
+            @Override
+            public int consecutiveFailuresToEject() {
+                return consecutiveFailures;
+            }
+
+            @Override
+            public long baseEjectionTimeMillis() {
+                return baseEjectionMillis;
+            }
+
+            @Override
+            public long maxEjectionTimeMillis() {
+                return maxEjectionMillis;
+            }
+
+            @Override
+            public int maxEjectedPercent() {
+                return maxEjectedPercent;
+            }
+        }, metrics);
+    }
+
+    private void recordFailures(OutlierEjectionTracker tracker, InetSocketAddress address, int numFailures) {
+        for (int i = 0; i < numFailures; i++) {
+            tracker.recordFailure(address);
+        }
+    }
+
+    @Test
+    public void constructor_uses_defaults_for_null_args() {
+        // when
+        OutlierEjectionTracker tracker = new OutlierEjectionTracker(null, null);
+
+        // then
+        assertThat(tracker.config).isSameAs(DownstreamOutlierEjectionConfig.DEFAULT_IMPL);
+        assertThat(tracker.metrics).isSameAs(DownstreamConnectionPoolMetrics.getDefaultInstance());
+        assertThat(tracker.isEnabled()).isTrue();
+    }
+
+    @Test
+    public void address_is_ejected_after_consecutive_failures_and_filtered_out() {
+        // given
+        OutlierEjectionTracker tracker = tracker(3, 60000, 60000, 50);
+
+        // when
+        recordFailures(tracker, addressA, 2);
+
+        // then
+        assertThat(tracker.isEjected(addressA)).isFalse();
+
+        // and when
+        tracker.recordFailure(addressA);
+
+        // then
+        assertThat(tracker.isEjected(addressA)).isTrue();
+        assertThat(tracker.filterEjected(new InetAddress[]{ipA, ipB, ipC}, PORT)).containsExactly(ipB, ipC);
+        assertThat(metrics.getEjectedAddressCount("foo.com:" + PORT)).isEqualTo(1);
+        assertThat(metrics.getEjectionCount("foo.com:" + PORT)).isEqualTo(1);
+    }
+
+    @Test
+    public void recordSuccess_resets_the_consecutive_failure_count() {
+        // given
+        OutlierEjectionTracker tracker = tracker(3, 60000, 60000, 50);
+        recordFailures(tracker, addressA, 2);
+
+        // when
+        tracker.recordSuccess(addressA);
+        recordFailures(tracker, addressA, 2);
+
+        // then
+        assertThat(tracker.isEjected(addressA)).isFalse();
+    }
+
+    @Test
+    public void filterEjected_returns_the_same_array_when_nothing_is_ejected() {
+        // given
+        OutlierEjectionTracker tracker = tracker(3, 60000, 60000, 50);
+        InetAddress[] ips = new InetAddress[]{ipA, ipB};
+
+        // expect
+        assertThat(tracker.filterEjected(ips, PORT)).isSameAs(ips);
+    }
+
+    @DataProvider(value = {
+        "50     |   2",
+        "100    |   3"
+    }, splitBy = "\\|")
+    @Test
+    public void filterEjected_ignores_ejections_when_too_many_addresses_are_ejected(int maxEjectedPercent,
+                                                                                    int numAddressesToEject) {
+        // given
+        OutlierEjectionTracker tracker = tracker(1, 60000, 60000, maxEjectedPercent);
+        InetSocketAddress[] addresses = new InetSocketAddress[]{addressA, addressB, addressC};
+        for (int i = 0; i < numAddressesToEject; i++) {
+            tracker.recordFailure(addresses[i]);
+        }
+        InetAddress[] ips = new InetAddress[]{ipA, ipB, ipC};
+
+        // expect
+        assertThat(tracker.filterEjected(ips, PORT)).isSameAs(ips);
+        assertThat(metrics.getEjectedAddressCount("foo.com:" + PORT)).isEqualTo(numAddressesToEject);
+    }
+
+    @Test
+    public void ejection_expires_and_repeat_ejections_back_off() throws InterruptedException {
+        // given
+        OutlierEjectionTracker tracker = tracker(1, 100, 60000, 50);
+        tracker.recordFailure(addressA);
+        Thread.sleep(150);
+        assertThat(tracker.isEjected(addressA)).isFalse();
+
+        // when
+        tracker.recordFailure(addressA);
+        Thread.sleep(150);
+
+        // then
+        // The second ejection lasts twice as long as the first, so it hasn't run out yet.
+        assertThat(tracker.isEjected(addressA)).isTrue();
+        assertThat(metrics.getEjectionCount("foo.com:" + PORT)).isEqualTo(2);
+    }
+
+    @Test
+    public void recordSuccess_after_an_ejection_expires_resets_the_backoff() throws InterruptedException {
+        // given
+        OutlierEjectionTracker tracker = tracker(1, 100, 60000, 50);
+        tracker.recordFailure(addressA);
+        Thread.sleep(150);
+
+        // when
+        tracker.recordSuccess(addressA);
+        tracker.recordFailure(addressA);
+        Thread.sleep(150);
+
+        // then
+        assertThat(tracker.isEjected(addressA)).isFalse();
+    }
+
+    @Test
+    public void failures_while_ejected_are_ignored() {
+        // given
+        OutlierEjectionTracker tracker = tracker(1, 60000, 60000, 50);
+        tracker.recordFailure(addressA);
+
+        // when
+        recordFailures(tracker, addressA, 5);
+
+        // then
+        assertThat(metrics.getEjectionCount("foo.com:" + PORT)).isEqualTo(1);
+    }
+
+    @DataProvider(value = {
+        "0",
+        "-1"
+    })
+    @Test
+    public void nothing_is_ejected_when_consecutiveFailuresToEject_is_not_positive(int consecutiveFailures) {
+        // given
+        OutlierEjectionTracker tracker = tracker(consecutiveFailures, 60000, 60000, 50);
+
+        // when
+        recordFailures(tracker, addressA, 10);
+
+        // then
+        assertThat(tracker.isEnabled()).isFalse();
+        assertThat(tracker.isEjected(addressA)).isFalse();
+        assertThat(metrics.getEjectionCount("foo.com:" + PORT)).isEqualTo(0);
+    }
+}
@@ -0,0 +1,328 @@
+package com.nike.riposte.client.asynchttp.netty;
+
+import com.nike.riposte.client.asynchttp.netty.ProxyResponseMicroCache.CachedResponse;
+import com.nike.riposte.client.asynchttp.netty.ProxyResponseMicroCache.ResponseRecorder;
+
+import com.tngtech.java.junit.dataprovider.DataProvider;
+import com.tngtech.java.junit.dataprovider.DataProviderRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * Tests the functionality of {@link ProxyResponseMicroCache}.
+ */
+@RunWith(DataProviderRunner.class)
+public class ProxyResponseMicroCacheTest {
+
+    private static final String BASE_KEY = "http://foo.com:8080/bar";
+
+    private AtomicLong now;
+    private ProxyResponseMicroCache cache;
+
+    @Before
+    public void beforeMethod() {
+        now = new AtomicLong(1000000);
+        cache = cacheWithLimits(10, 100, 1000);
+    }
+
+    private ProxyResponseMicroCache cacheWithLimits(int maxEntries, int maxEntryBodyBytes, long maxTotalBodyBytes) {
+        return new ProxyResponseMicroCache(maxEntries, maxEntryBodyBytes, maxTotalBodyBytes, 10000, 5000, null,
+                                           now::get);
+    }
+
+    private static HttpResponse response(HttpResponseStatus status, String cacheControl) {
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, status);
+        if (cacheControl != null)
+            response.headers().set(HttpHeaders.Names.CACHE_CONTROL, cacheControl);
+        return response;
+    }
+
+    private static ByteBuf bytes(String value) {
+        return Unpooled.copiedBuffer(value, StandardCharsets.UTF_8);
+    }
+
+    private boolean recordResponse(ProxyResponseMicroCache cache, String baseKey, HttpHeaders requestHeaders,
+                                   HttpResponse response, String... chunks) {
+        ResponseRecorder recorder = cache.newRecorder(baseKey, requestHeaders);
+        recorder.record(response);
+        boolean stored = false;
+        for (int i = 0; i < chunks.length; i++) {
+            Object chunk = (i == chunks.length - 1)
+                           ? new DefaultLastHttpContent(bytes(chunks[i]))
+                           : new DefaultHttpContent(bytes(chunks[i]));
+            stored = recorder.record(chunk);
+        }
+        return stored;
+    }
+
+    private static String body(CachedResponse entry) {
+        ByteBuf body = entry.retainedBody();
+        try {
+            return body.toString(StandardCharsets.UTF_8);
+        }
+        finally {
+            body.release();
+        }
+    }
+
+    @Test
+    public void builder_uses_defaults() {
+        // when
+        ProxyResponseMicroCache cache = ProxyResponseMicroCache.newBuilder().build();
+
+        // then
+        assertThat(cache.maxEntries).isEqualTo(ProxyResponseMicroCache.DEFAULT_MAX_ENTRIES);
+        assertThat(cache.maxEntryBodyBytes).isEqualTo(ProxyResponseMicroCache.DEFAULT_MAX_ENTRY_BODY_BYTES);
+        assertThat(cache.maxTotalBodyBytes).isEqualTo(ProxyResponseMicroCache.DEFAULT_MAX_TOTAL_BODY_BYTES);
+        assertThat(cache.maxTtlMillis).isEqualTo(ProxyResponseMicroCache.DEFAULT_MAX_TTL_MILLIS);
+        assertThat(cache.defaultStaleWhileRevalidateMillis)
+            .isEqualTo(ProxyResponseMicroCache.DEFAULT_STALE_WHILE_REVALIDATE_MILLIS);
+    }
+
+    @DataProvider(value = {
+        "0  |   10  |   100 |   1000    |   0",
+        "10 |   0   |   100 |   1000    |   0",
+        "10 |   10  |   9   |   1000    |   0",
+        "10 |   10  |   100 |   0       |   0",
+        "10 |   10  |   100 |   1000    |   -1"
+    }, splitBy = "\\|")
+    @Test
+    public void constructor_throws_IllegalArgumentException_for_invalid_args(
+        int maxEntries, int maxEntryBodyBytes, long maxTotalBodyBytes, long maxTtlMillis, long swrMillis
+    ) {
+        // when
+        Throwable ex = catchThrowable(() -> new ProxyResponseMicroCache(
+            maxEntries, maxEntryBodyBytes, maxTotalBodyBytes, maxTtlMillis, swrMillis, null, null
+        ));
+
+        // then
+        assertThat(ex).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @DataProvider(value = {
+        "GET    |   null            |   null        |   0   |   true",
+        "HEAD   |   null            |   null        |   0   |   false",
+        "POST   |   null            |   null        |   0   |   false",
+        "GET    |   Basic abc123    |   null        |   0   |   false",
+        "GET    |   null            |   no-cache    |   0   |   false",
+        "GET    |   null            |   No-Store    |   0   |   false",
+        "GET    |   null            |   max-age=0   |   0   |   true",
+        "GET    |   null            |   null        |   42  |   false"
+    }, splitBy = "\\|")
+    @Test
+    public void isCacheableRequest_works_as_expected(
+        String method, String authorization, String cacheControl, int contentLength, boolean expected
+    ) {
+        // given
+        HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.valueOf(method), "/bar");
+        if (authorization != null)
+            request.headers().set(HttpHeaders.Names.AUTHORIZATION, authorization);
+        if (cacheControl != null)
+            request.headers().set(HttpHeaders.Names.CACHE_CONTROL, cacheControl);
+        if (contentLength > 0)
+            HttpHeaders.setContentLength(request, contentLength);
+
+        // expect
+        assertThat(cache.isCacheableRequest(request)).isEqualTo(expected);
+    }
+
+    @DataProvider(value = {
+        "200    |   max-age=5                       |   5000",
+        "200    |   public, max-age=5, s-maxage=2   |   2000",
+        "200    |   max-age=60                      |   10000",
+        "200    |   max-age=0                       |   0",
+        "200    |   max-age=foo                     |   0",
+        "200    |   null                            |   0",
+        "200    |   max-age=5, no-cache             |   0",
+        "200    |   no-store, max-age=5             |   0",
+        "200    |   private, max-age=5              |   0",
+        "404    |   max-age=5                       |   0",
+        "500    |   max-age=5                       |   0"
+    }, splitBy = "\\|")
+    @Test
+    public void freshnessMillis_honors_downstream_cache_control(int status, String cacheControl, long expected) {
+        // expect
+        assertThat(cache.freshnessMillis(response(HttpResponseStatus.valueOf(status), cacheControl)))
+            .isEqualTo(expected);
+    }
+
+    @Test
+    public void freshnessMillis_returns_0_for_responses_with_cookies_or_vary_star() {
+        // given
+        HttpResponse withCookie = response(HttpResponseStatus.OK, "max-age=5");
+        withCookie.headers().set(HttpHeaders.Names.SET_COOKIE, "foo=bar");
+        HttpResponse withVaryStar = response(HttpResponseStatus.OK, "max-age=5");
+        withVaryStar.headers().set(HttpHeaders.Names.VARY, "*");
+
+        // expect
+        assertThat(cache.freshnessMillis(withCookie)).isEqualTo(0);
+        assertThat(cache.freshnessMillis(withVaryStar)).isEqualTo(0);
+    }
+
+    @Test
+    public void recorded_response_is_served_fresh_then_stale_then_expires() {
+        // given
+        HttpResponse response = response(HttpResponseStatus.OK, "max-age=2, stale-while-revalidate=3");
+        response.headers().set("X-Foo", "bar");
+
+        // when
+        boolean stored = recordResponse(cache, BASE_KEY, HttpHeaders.EMPTY_HEADERS, response, "hello ", "world");
+
+        // then
+        assertThat(stored).isTrue();
+        assertThat(cache.getStoreCount()).isEqualTo(1);
+        assertThat(cache.getEntryCount()).isEqualTo(1);
+        assertThat(cache.getTotalBodyBytes()).isEqualTo(11);
+        CachedResponse entry = cache.lookup(BASE_KEY, HttpHeaders.EMPTY_HEADERS);
+        assertThat(entry.isFresh(now.get())).isTrue();
+        assertThat(body(entry)).isEqualTo("hello world");
+
+        // and when
+        now.addAndGet(3000);
+        HttpResponse servedResponse = entry.newResponse(now.get());
+
+        // then
+        assertThat(cache.lookup(BASE_KEY, HttpHeaders.EMPTY_HEADERS)).isSameAs(entry);
+        assertThat(entry.isFresh(now.get())).isFalse();
+        assertThat(servedResponse.headers().get("X-Foo")).isEqualTo("bar");
+        assertThat(servedResponse.headers().get(HttpHeaders.Names.AGE)).isEqualTo("3");
+
+        // and when
+        now.addAndGet(2000);
+
+        // then
+        assertThat(cache.lookup(BASE_KEY, HttpHeaders.EMPTY_HEADERS)).isNull();
+        assertThat(cache.getEntryCount()).isEqualTo(0);
+        assertThat(cache.getTotalBodyBytes()).isEqualTo(0);
+        assertThat(entry.retainedBody()).isNull();
+        assertThat(entry.body.refCnt()).isEqualTo(0);
+    }
+
+    @Test
+    public void responses_are_keyed_by_the_request_headers_named_by_vary() {
+        // given
+        HttpHeaders englishHeaders = new DefaultHttpHeaders().set("Accept-Language", "en");
+        HttpHeaders frenchHeaders = new DefaultHttpHeaders().set("Accept-Language", "fr");
+        HttpResponse englishResponse = response(HttpResponseStatus.OK, "max-age=5");
+        englishResponse.headers().set(HttpHeaders.Names.VARY, "Accept-Language");
+        HttpResponse frenchResponse = response(HttpResponseStatus.OK, "max-age=5");
+        frenchResponse.headers().set(HttpHeaders.Names.VARY, "Accept-Language");
+
+        // when
+        recordResponse(cache, BASE_KEY, englishHeaders, englishResponse, "hello");
+        recordResponse(cache, BASE_KEY, frenchHeaders, frenchResponse, "bonjour");
+
+        // then
+        assertThat(body(cache.lookup(BASE_KEY, englishHeaders))).isEqualTo("hello");
+        assertThat(body(cache.lookup(BASE_KEY, frenchHeaders))).isEqualTo("bonjour");
+        assertThat(cache.lookup(BASE_KEY, HttpHeaders.EMPTY_HEADERS)).isNull();
+    }
+
+    @Test
+    public void replacing_an_entry_releases_the_old_body() {
+        // given
+        recordResponse(cache, BASE_KEY, HttpHeaders.EMPTY_HEADERS, response(HttpResponseStatus.OK, "max-age=5"),
+                       "first");
+        CachedResponse first = cache.lookup(BASE_KEY, HttpHeaders.EMPTY_HEADERS);
+
+        // when
+        recordResponse(cache, BASE_KEY, HttpHeaders.EMPTY_HEADERS, response(HttpResponseStatus.OK, "max-age=5"),
+                       "second!");
+
+        // then
+        assertThat(first.body.refCnt()).isEqualTo(0);
+        assertThat(body(cache.lookup(BASE_KEY, HttpHeaders.EMPTY_HEADERS))).isEqualTo("second!");
+        assertThat(cache.getEntryCount()).isEqualTo(1);
+        assertThat(cache.getTotalBodyBytes()).isEqualTo(7);
+    }
+
+    @Test
+    public void uncacheable_and_oversized_responses_are_not_stored() {
+        // when
+        boolean uncacheableStored = recordResponse(
+            cache, BASE_KEY, HttpHeaders.EMPTY_HEADERS, response(HttpResponseStatus.OK, "no-store"), "foo"
+        );
+        ResponseRecorder oversizedRecorder = cache.newRecorder(BASE_KEY + "/big", HttpHeaders.EMPTY_HEADERS);
+        oversizedRecorder.record(response(HttpResponseStatus.OK, "max-age=5"));
+        oversizedRecorder.record(new DefaultHttpContent(Unpooled.wrappedBuffer(new byte[60])));
+        boolean oversizedStored =
+            oversizedRecorder.record(new DefaultLastHttpContent(Unpooled.wrappedBuffer(new byte[60])));
+
+        // then
+        assertThat(uncacheableStored).isFalse();
+        assertThat(oversizedStored).isFalse();
+        assertThat(oversizedRecorder.body).isNull();
+        assertThat(cache.getEntryCount()).isEqualTo(0);
+        assertThat(cache.getStoreCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void store_sweeps_expired_entries_when_full_and_rejects_the_new_entry_if_still_full() {
+        // given
+        ProxyResponseMicroCache cache = cacheWithLimits(2, 100, 1000);
+        recordResponse(cache, BASE_KEY + "/1", HttpHeaders.EMPTY_HEADERS,
+                       response(HttpResponseStatus.OK, "max-age=1, stale-while-revalidate=0"), "one");
+        recordResponse(cache, BASE_KEY + "/2", HttpHeaders.EMPTY_HEADERS,
+                       response(HttpResponseStatus.OK, "max-age=5"), "two");
+
+        // when
+        boolean thirdStoredWhileFull = recordResponse(cache, BASE_KEY + "/3", HttpHeaders.EMPTY_HEADERS,
+                                                      response(HttpResponseStatus.OK, "max-age=5"), "three");
+
+        // then
+        assertThat(thirdStoredWhileFull).isFalse();
+        assertThat(cache.getStoreRejectedCount()).isEqualTo(1);
+
+        // and when
+        now.addAndGet(1000);
+        boolean thirdStoredAfterFirstExpired = recordResponse(cache, BASE_KEY + "/3", HttpHeaders.EMPTY_HEADERS,
+                                                              response(HttpResponseStatus.OK, "max-age=5"), "three");
+
+        // then
+        assertThat(thirdStoredAfterFirstExpired).isTrue();
+        assertThat(cache.lookup(BASE_KEY + "/1", HttpHeaders.EMPTY_HEADERS)).isNull();
+        assertThat(body(cache.lookup(BASE_KEY + "/3", HttpHeaders.EMPTY_HEADERS))).isEqualTo("three");
+        assertThat(cache.getEntryCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void abandoned_recorder_releases_what_it_recorded_and_ignores_the_rest() {
+        // given
+        ResponseRecorder recorder = cache.newRecorder(BASE_KEY, HttpHeaders.EMPTY_HEADERS);
+        recorder.record(response(HttpResponseStatus.OK, "max-age=5"));
+        recorder.record(new DefaultHttpContent(bytes("foo")));
+        ByteBuf recordedBody = recorder.body;
+
+        // when
+        recorder.abandon();
+        boolean stored = recorder.record(LastHttpContent.EMPTY_LAST_CONTENT);
+
+        // then
+        assertThat(stored).isFalse();
+        assertThat(recordedBody.refCnt()).isEqualTo(0);
+        assertThat(cache.getEntryCount()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,113 @@
+package com.nike.riposte.client.asynchttp.netty;
+
+import com.tngtech.java.junit.dataprovider.DataProvider;
+import com.tngtech.java.junit.dataprovider.DataProviderRunner;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.LastHttpContent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * Tests the functionality of {@link RequestBuilderWrapper}.
+ */
+@RunWith(DataProviderRunner.class)
+public class RequestBuilderWrapperTest {
+
+    private RequestBuilderWrapper wrapper(String url, String httpMethod) {
+        return new RequestBuilderWrapper(url, httpMethod, Optional.empty(), false);
+    }
+
+    @DataProvider(value = {
+        "http://foo.com                 |   foo.com     |   80      |   false   |   /",
+        "http://foo.com/bar?baz=1       |   foo.com     |   80      |   false   |   /bar?baz=1",
+        "https://foo.com/bar            |   foo.com     |   443     |   true    |   /bar",
+        "HTTPS://foo.com:8443/b%20r     |   foo.com     |   8443    |   true    |   /b%20r",
+        "http://127.0.0.1:8080/bar?a=b  |   127.0.0.1   |   8080    |   false   |   /bar?a=b"
+    }, splitBy = "\\|")
+    @Test
+    public void setUrl_parses_host_port_scheme_and_uri_from_url(
+        String url, String expectedHost, int expectedPort, boolean expectedIsHttps, String expectedUri
+    ) {
+        // when
+        RequestBuilderWrapper wrapper = wrapper(url, "GET");
+
+        // then
+        assertThat(wrapper.getUrl()).isEqualTo(url);
+        assertThat(wrapper.host).isEqualTo(expectedHost);
+        assertThat(wrapper.port).isEqualTo(expectedPort);
+        assertThat(wrapper.isHttps).isEqualTo(expectedIsHttps);
+        assertThat(wrapper.uri).isEqualTo(expectedUri);
+    }
+
+    @DataProvider(value = {
+        "null",
+        "/no/scheme",
+        "ftp://foo.com/bar",
+        "http:///no-host",
+        "not a url"
+    })
+    @Test
+    public void setUrl_throws_IllegalArgumentException_for_unsupported_urls(String url) {
+        // when
+        Throwable ex = catchThrowable(() -> wrapper(url, "GET"));
+
+        // then
+        assertThat(ex).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void setRequestTimeoutMillis_throws_IllegalArgumentException_if_negative() {
+        // when
+        Throwable ex = catchThrowable(() -> wrapper("http://foo.com", "GET").setRequestTimeoutMillis(-1));
+
+        // then
+        assertThat(ex).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void createInitialRequestChunk_and_createLastRequestChunk_build_bodiless_request_without_content_length() {
+        // given
+        RequestBuilderWrapper wrapper = wrapper("http://foo.com/bar?baz=1", "DELETE")
+            .setHeader("foo", "bar")
+            .addHeader("foo", "bar2");
+
+        // when
+        HttpRequest firstChunk = wrapper.createInitialRequestChunk();
+        LastHttpContent lastChunk = wrapper.createLastRequestChunk();
+
+        // then
+        assertThat(firstChunk).isNotInstanceOf(LastHttpContent.class);
+        assertThat(firstChunk.getMethod()).isEqualTo(HttpMethod.DELETE);
+        assertThat(firstChunk.getUri()).isEqualTo("/bar?baz=1");
+        assertThat(firstChunk.headers().getAll("foo")).containsExactly("bar", "bar2");
+        assertThat(firstChunk.headers().contains(HttpHeaders.Names.CONTENT_LENGTH)).isFalse();
+        assertThat(lastChunk).isSameAs(LastHttpContent.EMPTY_LAST_CONTENT);
+    }
+
+    @Test
+    public void createInitialRequestChunk_and_createLastRequestChunk_include_body_and_content_length() {
+        // given
+        String body = "some body é";
+        RequestBuilderWrapper wrapper = wrapper("http://foo.com/bar", "POST").setBody(body);
+        byte[] bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+
+        // when
+        HttpRequest firstChunk = wrapper.createInitialRequestChunk();
+        LastHttpContent lastChunk = wrapper.createLastRequestChunk();
+
+        // then
+        assertThat(wrapper.getBody()).isEqualTo(bodyBytes);
+        assertThat(HttpHeaders.getContentLength(firstChunk)).isEqualTo(bodyBytes.length);
+        assertThat(lastChunk.content().toString(StandardCharsets.UTF_8)).isEqualTo(body);
+    }
+}
@@ -0,0 +1,363 @@
+package com.nike.riposte.client.asynchttp.netty;
+
+import com.nike.riposte.client.asynchttp.netty.RetryingDownstreamCall.RetryingStreamingChannel;
+import com.nike.riposte.client.asynchttp.netty.StreamingAsyncHttpClient.StreamingCallback;
+import com.nike.riposte.client.asynchttp.netty.StreamingAsyncHttpClient.StreamingChannel;
+import com.nike.riposte.client.retry.RetryPolicy;
+import com.nike.riposte.server.channelpipeline.ChannelAttributes;
+import com.nike.riposte.server.error.exception.DownstreamChannelClosedUnexpectedlyException;
+import com.nike.riposte.server.error.exception.DownstreamIdleChannelTimeoutException;
+import com.nike.riposte.server.error.exception.DownstreamRequestNotSentException;
+import com.nike.riposte.server.http.HttpProcessingState;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.Attribute;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the functionality of {@link RetryingDownstreamCall}.
+ */
+public class RetryingDownstreamCallTest {
+
+    private static final String HOST = "foo.com";
+    private static final int PORT = 8080;
+
+    private StreamingAsyncHttpClient clientMock;
+    private StreamingCallback callbackMock;
+    private ChannelHandlerContext ctxMock;
+    private EventExecutor executorMock;
+    private ScheduledFuture<?> retryTimerMock;
+    private HttpRequest getRequest;
+    private CompletableFuture<StreamingChannel> firstFuture;
+    private CompletableFuture<StreamingChannel> retryFuture;
+    private StreamingChannel firstChannelMock;
+    private StreamingChannel retryChannelMock;
+    private InetSocketAddress firstAddress;
+    private HttpResponse response;
+
+    @Before
+    public void beforeMethod() {
+        clientMock = mock(StreamingAsyncHttpClient.class);
+        callbackMock = mock(StreamingCallback.class);
+        getRequest = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/foo");
+        response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+
+        ctxMock = mock(ChannelHandlerContext.class);
+        Channel inboundChannelMock = mock(Channel.class);
+        doReturn(inboundChannelMock).when(ctxMock).channel();
+        @SuppressWarnings("unchecked")
+        Attribute<HttpProcessingState> stateAttrMock = mock(Attribute.class);
+        doReturn(stateAttrMock).when(inboundChannelMock).attr(ChannelAttributes.HTTP_PROCESSING_STATE_ATTRIBUTE_KEY);
+        doReturn(mock(HttpProcessingState.class)).when(stateAttrMock).get();
+        executorMock = mock(EventExecutor.class);
+        retryTimerMock = mock(ScheduledFuture.class);
+        doReturn(executorMock).when(ctxMock).executor();
+        doReturn(retryTimerMock).when(executorMock).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+
+        firstFuture = new CompletableFuture<>();
+        retryFuture = new CompletableFuture<>();
+        when(clientMock.doStreamDownstreamCall(
+            anyString(), anyInt(), any(HttpRequest.class), anyBoolean(), anyBoolean(), any(StreamingCallback.class),
+            anyLong(), anyBoolean(), anyBoolean(), any(ChannelHandlerContext.class), any(InetSocketAddress.class),
+            any(String.class)
+        )).thenReturn(firstFuture, retryFuture);
+
+        firstAddress = new InetSocketAddress("127.0.0.1", PORT);
+        firstChannelMock = mockStreamingChannel(firstAddress);
+        retryChannelMock = mockStreamingChannel(new InetSocketAddress("127.0.0.2", PORT));
+    }
+
+    private StreamingChannel mockStreamingChannel(InetSocketAddress remoteAddress) {
+        StreamingChannel scMock = mock(StreamingChannel.class);
+        Channel channelMock = mock(Channel.class);
+        doReturn(remoteAddress).when(channelMock).remoteAddress();
+        doReturn(channelMock).when(scMock).getChannel();
+        doReturn(true).when(scMock).isDownstreamCallActive();
+        doReturn(mock(ChannelFuture.class)).when(scMock).streamChunk(any(HttpContent.class));
+        return scMock;
+    }
+
+    private RetryPolicy policyWithBudgetForOneRetry() {
+        return RetryPolicy.newBuilder().withMaxRetries(1).withBudgetPercent(100).withMaxBudgetBurst(1).build();
+    }
+
+    private RetryingDownstreamCall retryingCall(RetryPolicy policy, HttpRequest request) {
+        return new RetryingDownstreamCall(
+            clientMock, policy, HOST, PORT, request, false, false, callbackMock, 1000, false, true, ctxMock, null
+        );
+    }
+
+    private List<StreamingCallback> captureAttemptCallbacks(int numAttempts, List<InetSocketAddress> addressesToAvoid) {
+        ArgumentCaptor<StreamingCallback> callbackCaptor = ArgumentCaptor.forClass(StreamingCallback.class);
+        ArgumentCaptor<InetSocketAddress> addressCaptor = ArgumentCaptor.forClass(InetSocketAddress.class);
+        verify(clientMock, times(numAttempts)).doStreamDownstreamCall(
+            eq(HOST), eq(PORT), any(HttpRequest.class), anyBoolean(), anyBoolean(), callbackCaptor.capture(),
+            anyLong(), anyBoolean(), anyBoolean(), eq(ctxMock), addressCaptor.capture(), any(String.class)
+        );
+        if (addressesToAvoid != null)
+            addressesToAvoid.addAll(addressCaptor.getAllValues());
+        return callbackCaptor.getAllValues();
+    }
+
+    private Runnable captureRetryTimerTask() {
+        ArgumentCaptor<Runnable> taskCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(executorMock).schedule(taskCaptor.capture(), anyLong(), eq(TimeUnit.MILLISECONDS));
+        return taskCaptor.getValue();
+    }
+
+    private HttpRequest postRequestWithBody() {
+        HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/foo");
+        HttpHeaders.setContentLength(request, 42);
+        return request;
+    }
+
+    @Test
+    public void connect_failure_is_retried_against_a_different_address_for_any_http_method() {
+        // given
+        RetryPolicy policy = policyWithBudgetForOneRetry();
+        RetryingDownstreamCall call = retryingCall(policy, postRequestWithBody());
+        CompletableFuture<StreamingChannel> result = call.start();
+
+        // when
+        firstFuture.completeExceptionally(
+            new DownstreamRequestNotSentException("kaboom", new ConnectException("nope"), firstAddress)
+        );
+
+        // then
+        assertThat(result).isNotDone();
+        captureAttemptCallbacks(1, null);
+
+        // and when
+        captureRetryTimerTask().run();
+        retryFuture.complete(retryChannelMock);
+
+        // then
+        List<InetSocketAddress> addressesToAvoid = new ArrayList<>();
+        captureAttemptCallbacks(2, addressesToAvoid);
+        assertThat(addressesToAvoid).containsExactly(null, firstAddress);
+        assertThat(result.join()).isSameAs(retryChannelMock);
+        verify(retryChannelMock, never()).streamChunk(any(HttpContent.class));
+        assertThat(policy.getCallCount()).isEqualTo(1);
+        assertThat(policy.getRetryCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void failure_that_is_not_known_to_be_safe_to_retry_fails_the_result_without_retrying() {
+        // given
+        RetryingDownstreamCall call = retryingCall(policyWithBudgetForOneRetry(), getRequest);
+        CompletableFuture<StreamingChannel> result = call.start();
+        Throwable error = new RuntimeException("kaboom");
+
+        // when
+        firstFuture.completeExceptionally(error);
+
+        // then
+        assertThat(result).isCompletedExceptionally();
+        assertThat(result.handle((sc, t) -> t).join()).isSameAs(error);
+        verifyZeroInteractions(executorMock);
+        verifyZeroInteractions(callbackMock);
+    }
+
+    @Test
+    public void connect_failure_fails_the_result_when_the_retry_budget_is_exhausted() {
+        // given
+        RetryPolicy policy = RetryPolicy.newBuilder().withBudgetPercent(0).withMaxBudgetBurst(1).build();
+        policy.tryAcquireRetry(1);
+        RetryingDownstreamCall call = retryingCall(policy, getRequest);
+        CompletableFuture<StreamingChannel> result = call.start();
+        Throwable error = new DownstreamRequestNotSentException("kaboom", null, firstAddress);
+
+        // when
+        firstFuture.completeExceptionally(error);
+
+        // then
+        assertThat(result.handle((sc, t) -> t).join()).isSameAs(error);
+        verifyZeroInteractions(executorMock);
+        assertThat(policy.getBudgetExhaustedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void bodiless_idempotent_call_is_retried_when_the_connection_closes_before_the_response_starts() {
+        // given
+        RetryingDownstreamCall call = retryingCall(policyWithBudgetForOneRetry(), getRequest);
+        CompletableFuture<StreamingChannel> result = call.start();
+        firstFuture.complete(firstChannelMock);
+        StreamingCallback firstCallback = captureAttemptCallbacks(1, null).get(0);
+
+        // then
+        assertThat(result.join()).isInstanceOf(RetryingStreamingChannel.class);
+        verify(firstChannelMock).streamChunk(LastHttpContent.EMPTY_LAST_CONTENT);
+
+        // and when
+        firstCallback.unrecoverableErrorOccurred(new DownstreamChannelClosedUnexpectedlyException(mock(Channel.class)),
+                                                 true);
+
+        // then
+        verifyZeroInteractions(callbackMock);
+        assertThat(result.join().isDownstreamCallActive()).isTrue();
+
+        // and when
+        captureRetryTimerTask().run();
+        retryFuture.complete(retryChannelMock);
+        List<InetSocketAddress> addressesToAvoid = new ArrayList<>();
+        StreamingCallback retryCallback = captureAttemptCallbacks(2, addressesToAvoid).get(1);
+        retryCallback.messageReceived(response);
+        firstCallback.unrecoverableErrorOccurred(new RuntimeException("late error from the first call"), true);
+
+        // then
+        assertThat(addressesToAvoid).containsExactly(null, firstAddress);
+        verify(retryChannelMock).streamChunk(LastHttpContent.EMPTY_LAST_CONTENT);
+        verify(callbackMock).messageReceived(response);
+        verify(callbackMock, never()).unrecoverableErrorOccurred(any(Throwable.class), anyBoolean());
+        assertThat(result.join().getChannel()).isSameAs(retryChannelMock.getChannel());
+    }
+
+    @Test
+    public void error_after_the_response_started_is_passed_along() {
+        // given
+        RetryingDownstreamCall call = retryingCall(policyWithBudgetForOneRetry(), getRequest);
+        call.start();
+        firstFuture.complete(firstChannelMock);
+        StreamingCallback firstCallback = captureAttemptCallbacks(1, null).get(0);
+        firstCallback.messageReceived(response);
+        Throwable error = new DownstreamChannelClosedUnexpectedlyException(mock(Channel.class));
+
+        // when
+        firstCallback.unrecoverableErrorOccurred(error, true);
+
+        // then
+        verify(callbackMock).unrecoverableErrorOccurred(error, true);
+        verifyZeroInteractions(executorMock);
+    }
+
+    @Test
+    public void timeout_is_not_retried() {
+        // given
+        RetryingDownstreamCall call = retryingCall(policyWithBudgetForOneRetry(), getRequest);
+        call.start();
+        firstFuture.complete(firstChannelMock);
+        Throwable error = new DownstreamIdleChannelTimeoutException(1000, mock(Channel.class));
+
+        // when
+        captureAttemptCallbacks(1, null).get(0).unrecoverableErrorOccurred(error, true);
+
+        // then
+        verify(callbackMock).unrecoverableErrorOccurred(error, true);
+        verifyZeroInteractions(executorMock);
+    }
+
+    @Test
+    public void request_with_a_body_is_not_retried_after_it_was_sent() {
+        // given
+        RetryingDownstreamCall call = retryingCall(policyWithBudgetForOneRetry(), postRequestWithBody());
+        CompletableFuture<StreamingChannel> result = call.start();
+        firstFuture.complete(firstChannelMock);
+        Throwable error = new DownstreamChannelClosedUnexpectedlyException(mock(Channel.class));
+
+        // when
+        captureAttemptCallbacks(1, null).get(0).unrecoverableErrorOccurred(error, true);
+
+        // then
+        assertThat(result.join()).isSameAs(firstChannelMock);
+        verify(firstChannelMock, never()).streamChunk(any(HttpContent.class));
+        verify(callbackMock).unrecoverableErrorOccurred(error, true);
+        verifyZeroInteractions(executorMock);
+    }
+
+    @Test
+    public void error_that_arrives_before_the_connection_future_completes_is_handled_once_it_does() {
+        // given
+        RetryingDownstreamCall call = retryingCall(policyWithBudgetForOneRetry(), getRequest);
+        call.start();
+        StreamingCallback firstCallback = captureAttemptCallbacks(1, null).get(0);
+
+        // when
+        firstCallback.unrecoverableErrorOccurred(new DownstreamChannelClosedUnexpectedlyException(mock(Channel.class)),
+                                                 true);
+
+        // then
+        verifyZeroInteractions(executorMock);
+
+        // and when
+        firstFuture.complete(firstChannelMock);
+
+        // then
+        captureRetryTimerTask();
+        verifyZeroInteractions(callbackMock);
+    }
+
+    @Test
+    public void RetryingStreamingChannel_ignores_chunks_and_closing_it_cancels_a_pending_retry() {
+        // given
+        RetryingDownstreamCall call = retryingCall(policyWithBudgetForOneRetry(), getRequest);
+        CompletableFuture<StreamingChannel> result = call.start();
+        firstFuture.complete(firstChannelMock);
+        StreamingChannel retryingChannel = result.join();
+        HttpContent chunk = new DefaultLastHttpContent(Unpooled.copiedBuffer(new byte[]{1}));
+        Throwable cause = new RuntimeException("kaboom");
+
+        // when
+        retryingChannel.streamChunk(chunk);
+
+        // then
+        assertThat(chunk.refCnt()).isEqualTo(0);
+        verify(firstChannelMock, never()).streamChunk(chunk);
+
+        // and when
+        captureAttemptCallbacks(1, null).get(0).unrecoverableErrorOccurred(
+            new DownstreamChannelClosedUnexpectedlyException(mock(Channel.class)), true
+        );
+        retryingChannel.closeChannelDueToUnrecoverableError(cause);
+
+        // then
+        verify(retryTimerMock).cancel(false);
+        verify(firstChannelMock).closeChannelDueToUnrecoverableError(cause);
+
+        // and when
+        captureRetryTimerTask().run();
+
+        // then
+        captureAttemptCallbacks(1, null);
+    }
+}
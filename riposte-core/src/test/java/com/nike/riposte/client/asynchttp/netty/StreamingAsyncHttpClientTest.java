@@ -3,6 +3,12 @@ package com.nike.riposte.client.asynchttp.netty;
 import com.nike.riposte.client.asynchttp.netty.StreamingAsyncHttpClient.ObjectHolder;
 import com.nike.riposte.client.asynchttp.netty.StreamingAsyncHttpClient.StreamingCallback;
 import com.nike.riposte.client.asynchttp.netty.StreamingAsyncHttpClient.StreamingChannel;
+import com.nike.riposte.client.hedging.HedgingPolicy;
+import com.nike.riposte.client.pool.DownstreamConnectionPoolConfig;
+import com.nike.riposte.client.pool.DownstreamConnectionPoolMetrics;
+import com.nike.riposte.client.pool.DownstreamOutlierEjectionConfig;
+import com.nike.riposte.client.pool.DownstreamWarmupTarget;
+import com.nike.riposte.client.retry.RetryPolicy;
 import com.nike.riposte.server.channelpipeline.ChannelAttributes;
 import com.nike.riposte.server.http.HttpProcessingState;
 import com.nike.wingtips.Span;
@@ -11,23 +17,40 @@ import com.tngtech.java.junit.dataprovider.DataProvider;
 import com.tngtech.java.junit.dataprovider.DataProviderRunner;
 
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
 import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpVersion;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.internal.util.reflection.Whitebox;
 
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
 import java.util.Deque;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelPromise;
 import io.netty.channel.EventLoop;
+import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.pool.ChannelPool;
+import io.netty.channel.pool.ChannelPoolMap;
+import io.netty.channel.pool.SimpleChannelPool;
+import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.http.HttpContent;
 import io.netty.handler.codec.http.LastHttpContent;
 import io.netty.util.Attribute;
@@ -36,6 +59,7 @@ import io.netty.util.concurrent.GenericFutureListener;
 
 import static com.nike.riposte.client.asynchttp.netty.StreamingAsyncHttpClient.CHANNEL_IS_BROKEN_ATTR;
 import static io.netty.handler.codec.http.HttpHeaders.Names.HOST;
+import static java.util.Collections.singletonList;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.catchThrowable;
 import static org.mockito.Matchers.any;
@@ -191,6 +215,23 @@ public class StreamingAsyncHttpClientTest {
         verifyNoMoreInteractions(streamChunkChannelPromiseMock);
     }
 
+    @Test
+    public void StreamingChannel_streamChunk_calls_doStreamChunk_immediately_when_already_in_the_channel_event_loop() {
+        // given
+        ChannelFuture doStreamChunkFutureMock = mock(ChannelFuture.class);
+        doReturn(doStreamChunkFutureMock).when(streamingChannelSpy).doStreamChunk(any(HttpContent.class));
+        doReturn(true).when(eventLoopMock).inEventLoop();
+
+        // when
+        ChannelFuture result = streamingChannelSpy.streamChunk(contentChunkMock);
+
+        // then
+        assertThat(result).isSameAs(streamChunkChannelPromiseMock);
+        verify(eventLoopMock, never()).execute(any(Runnable.class));
+        verify(streamingChannelSpy).doStreamChunk(contentChunkMock);
+        verify(doStreamChunkFutureMock).addListener(any(GenericFutureListener.class));
+    }
+
     private Future getFutureForCase(boolean isCanceled, boolean isSuccess, Throwable failureCause) {
         Future futureMock = mock(Future.class);
         doReturn(isCanceled).when(futureMock).isCancelled();
@@ -354,6 +395,23 @@ public class StreamingAsyncHttpClientTest {
         verify(streamingChannelSpy).doCloseChannelDueToUnrecoverableError(unrecoverableError);
     }
 
+    @Test
+    public void StreamingChannel_closeChannelDueToUnrecoverableError_calls_the_do_method_immediately_when_already_in_the_channel_event_loop() {
+        // given
+        Throwable unrecoverableError = new RuntimeException("kaboom");
+        streamingChannelSpy.channelClosedDueToUnrecoverableError = false;
+        streamingChannelSpy.callActiveHolder.heldObject = true;
+        doReturn(true).when(eventLoopMock).inEventLoop();
+
+        // when
+        streamingChannelSpy.closeChannelDueToUnrecoverableError(unrecoverableError);
+
+        // then
+        assertThat(streamingChannelSpy.channelClosedDueToUnrecoverableError).isTrue();
+        verify(eventLoopMock, never()).execute(any(Runnable.class));
+        verify(streamingChannelSpy).doCloseChannelDueToUnrecoverableError(unrecoverableError);
+    }
+
     @DataProvider(value = {
             "true   |   true",
             "false  |   false",
@@ -443,6 +501,562 @@ public class StreamingAsyncHttpClientTest {
         assertThat(request.headers().get(HOST)).isEqualTo(expectedHostHeader);
     }
 
+    @Test
+    public void getPooledChannelFuture_with_ctx_uses_a_pool_per_inbound_event_loop_when_sharing_inbound_event_loop() {
+        // given
+        StreamingAsyncHttpClient client = new StreamingAsyncHttpClient(200, 200, false, true);
+        NioEventLoopGroup workerGroup = new NioEventLoopGroup(2);
+        try {
+            EventLoop eventLoop = workerGroup.next();
+            EventLoop otherEventLoop = workerGroup.next();
+            ChannelHandlerContext ctx = mockChannelHandlerContextWithInboundChannel(NioSocketChannel.class, eventLoop);
+            ChannelHandlerContext sameLoopCtx =
+                mockChannelHandlerContextWithInboundChannel(NioSocketChannel.class, eventLoop);
+            ChannelHandlerContext otherLoopCtx =
+                mockChannelHandlerContextWithInboundChannel(NioSocketChannel.class, otherEventLoop);
+
+            // when
+            ChannelPool pool = client.getPooledChannelFuture("localhost", 8080, ctx);
+            ChannelPool sameLoopPool = client.getPooledChannelFuture("localhost", 8080, sameLoopCtx);
+            ChannelPool otherLoopPool = client.getPooledChannelFuture("localhost", 8080, otherLoopCtx);
+
+            // then
+            assertThat(otherEventLoop).isNotSameAs(eventLoop);
+            assertThat(pool).isNotNull();
+            assertThat(sameLoopPool).isSameAs(pool);
+            assertThat(otherLoopPool).isNotNull().isNotSameAs(pool);
+        }
+        finally {
+            workerGroup.shutdownGracefully();
+        }
+    }
+
+    @DataProvider(value = {
+            "true   |   false",
+            "false  |   true"
+    }, splitBy = "\\|")
+    @Test
+    public void getPooledChannelFuture_with_ctx_falls_back_to_shared_pool_map_when_not_sharing_or_transport_is_unknown(
+        boolean shareInboundEventLoop, boolean useNioChannel
+    ) {
+        // given
+        StreamingAsyncHttpClient clientSpy = spy(new StreamingAsyncHttpClient(200, 200, false, shareInboundEventLoop));
+        ChannelPool fallbackPoolMock = mock(ChannelPool.class);
+        ChannelPoolMap<InetSocketAddress, SimpleChannelPool> fallbackPoolMapMock = mock(ChannelPoolMap.class);
+        doReturn(fallbackPoolMock).when(fallbackPoolMapMock).get(any(InetSocketAddress.class));
+        doReturn(fallbackPoolMapMock).when(clientSpy).getPoolMap();
+        Class<? extends Channel> channelClass = (useNioChannel) ? NioSocketChannel.class : Channel.class;
+        ChannelHandlerContext ctx = mockChannelHandlerContextWithInboundChannel(channelClass, null);
+
+        // when
+        ChannelPool result = clientSpy.getPooledChannelFuture("localhost", 8080, ctx);
+
+        // then
+        assertThat(result).isSameAs(fallbackPoolMock);
+        verify(clientSpy, never()).getPoolMapForEventLoop(any(EventLoop.class), any());
+    }
+
+    @Test
+    public void createPoolMap_creates_bounded_pools_and_registers_them_with_connection_pool_metrics() {
+        // given
+        DownstreamConnectionPoolMetrics poolMetrics = new DownstreamConnectionPoolMetrics();
+        StreamingAsyncHttpClient client = new StreamingAsyncHttpClient(
+            200, 200, false, false, null, DownstreamConnectionPoolConfig.DEFAULT_IMPL, poolMetrics
+        );
+        NioEventLoopGroup eventLoopGroup = new NioEventLoopGroup(1);
+        try {
+            ChannelPoolMap<InetSocketAddress, SimpleChannelPool> poolMap =
+                client.createPoolMap(eventLoopGroup, NioSocketChannel.class);
+
+            // when
+            SimpleChannelPool pool = poolMap.get(new InetSocketAddress("localhost", 8080));
+
+            // then
+            assertThat(pool).isInstanceOf(StreamingAsyncHttpClient.ProxyRouterChannelPool.class);
+            assertThat(poolMetrics.getHosts()).containsExactly("localhost:8080");
+            assertThat(poolMetrics.getActiveConnectionCount("localhost:8080")).isEqualTo(0);
+        }
+        finally {
+            eventLoopGroup.shutdownGracefully();
+        }
+    }
+
+    @Test
+    public void constructor_uses_connection_pool_config_idle_timeout_when_it_is_not_negative() {
+        // given
+        DownstreamConnectionPoolConfig poolConfig = new DownstreamConnectionPoolConfig() {
+            @Override
+            public long idleConnectionTimeoutMillis() {
+                return 4242;
+            }
+        };
+
+        // when
+        StreamingAsyncHttpClient withConfigIdleTimeout =
+            new StreamingAsyncHttpClient(200, 200, false, false, null, poolConfig, null);
+        StreamingAsyncHttpClient withDefaultIdleTimeout =
+            new StreamingAsyncHttpClient(200, 200, false, false, null, null, null);
+
+        // then
+        assertThat(Whitebox.getInternalState(withConfigIdleTimeout, "idleChannelTimeoutMillis")).isEqualTo(4242L);
+        assertThat(Whitebox.getInternalState(withDefaultIdleTimeout, "idleChannelTimeoutMillis")).isEqualTo(200L);
+    }
+
+    @Test
+    public void ProxyRouterChannelPool_bounds_connections_times_out_pending_acquires_and_tracks_stats()
+        throws Exception {
+        // given
+        DownstreamConnectionPoolConfig poolConfig = new DownstreamConnectionPoolConfig() {
+            @Override
+            public int maxConnectionsPerPool() {
+                return 1;
+            }
+
+            @Override
+            public long acquireTimeoutMillis() {
+                return 50;
+            }
+        };
+        StreamingAsyncHttpClient client = new StreamingAsyncHttpClient(
+            0, 1000, false, false, null, poolConfig, new DownstreamConnectionPoolMetrics()
+        );
+        NioEventLoopGroup eventLoopGroup = new NioEventLoopGroup(1);
+        try (ServerSocket downstreamServer = new ServerSocket(0)) {
+            InetSocketAddress downstreamAddress =
+                new InetSocketAddress("localhost", downstreamServer.getLocalPort());
+            StreamingAsyncHttpClient.ProxyRouterChannelPool pool =
+                (StreamingAsyncHttpClient.ProxyRouterChannelPool) client
+                    .createPoolMap(eventLoopGroup, NioSocketChannel.class)
+                    .get(downstreamAddress);
+
+            // when
+            Channel firstChannel = awaitAcquireAndStats(pool.acquire()).getNow();
+            Future<Channel> secondAcquire = awaitAcquireAndStats(pool.acquire());
+
+            // then
+            assertThat(secondAcquire.isSuccess()).isFalse();
+            assertThat(secondAcquire.cause()).isInstanceOf(TimeoutException.class);
+            assertThat(pool.getActiveConnectionCount()).isEqualTo(1);
+            assertThat(pool.getPendingAcquireCount()).isEqualTo(0);
+            assertThat(pool.getAcquireCount()).isEqualTo(2);
+            assertThat(pool.getAcquireFailureCount()).isEqualTo(1);
+            assertThat(pool.getConnectCount()).isEqualTo(1);
+            assertThat(pool.getTotalConnectNanos()).isGreaterThan(0);
+            assertThat(pool.getMaxAcquireNanos()).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(50));
+
+            // and when
+            pool.release(firstChannel).sync();
+            Channel reacquiredChannel = awaitAcquireAndStats(pool.acquire()).getNow();
+
+            // then
+            assertThat(reacquiredChannel).isSameAs(firstChannel);
+            assertThat(pool.getConnectCount()).isEqualTo(1);
+            assertThat(pool.getActiveConnectionCount()).isEqualTo(1);
+            assertThat(pool.getIdleConnectionCount()).isEqualTo(0);
+
+            // and when
+            pool.release(reacquiredChannel).sync();
+
+            // then
+            assertThat(pool.getActiveConnectionCount()).isEqualTo(0);
+            assertThat(pool.getIdleConnectionCount()).isEqualTo(1);
+        }
+        finally {
+            eventLoopGroup.shutdownGracefully();
+        }
+    }
+
+    @Test
+    public void ProxyRouterChannelPool_closes_channels_that_are_past_their_max_lifetime_when_released()
+        throws Exception {
+        // given
+        DownstreamConnectionPoolConfig poolConfig = new DownstreamConnectionPoolConfig() {
+            @Override
+            public long maxConnectionLifetimeMillis() {
+                return 1;
+            }
+        };
+        StreamingAsyncHttpClient client = new StreamingAsyncHttpClient(
+            0, 1000, false, false, null, poolConfig, new DownstreamConnectionPoolMetrics()
+        );
+        NioEventLoopGroup eventLoopGroup = new NioEventLoopGroup(1);
+        try (ServerSocket downstreamServer = new ServerSocket(0)) {
+            StreamingAsyncHttpClient.ProxyRouterChannelPool pool =
+                (StreamingAsyncHttpClient.ProxyRouterChannelPool) client
+                    .createPoolMap(eventLoopGroup, NioSocketChannel.class)
+                    .get(new InetSocketAddress("localhost", downstreamServer.getLocalPort()));
+            Channel channel = awaitAcquireAndStats(pool.acquire()).getNow();
+            Thread.sleep(10);
+
+            // when
+            pool.release(channel).await();
+            channel.closeFuture().await(1000);
+
+            // then
+            assertThat(channel.isOpen()).isFalse();
+            assertThat(pool.getMaxLifetimeEvictionCount()).isEqualTo(1);
+            assertThat(pool.getActiveConnectionCount()).isEqualTo(0);
+            assertThat(pool.getIdleConnectionCount()).isEqualTo(0);
+        }
+        finally {
+            eventLoopGroup.shutdownGracefully();
+        }
+    }
+
+    @Test
+    public void ProxyRouterChannelPool_reports_downstream_call_acquires_and_releases_to_the_address_balancer()
+        throws Exception {
+        // given
+        StreamingAsyncHttpClient client = new StreamingAsyncHttpClient(
+            0, 1000, false, false, null, null, new DownstreamConnectionPoolMetrics()
+        );
+        LeastOutstandingRequestsAddressBalancer balancer =
+            (LeastOutstandingRequestsAddressBalancer) Whitebox.getInternalState(client, "addressBalancer");
+        NioEventLoopGroup eventLoopGroup = new NioEventLoopGroup(1);
+        try (ServerSocket downstreamServer = new ServerSocket(0)) {
+            InetSocketAddress downstreamAddress = new InetSocketAddress("127.0.0.1", downstreamServer.getLocalPort());
+            StreamingAsyncHttpClient.ProxyRouterChannelPool pool =
+                (StreamingAsyncHttpClient.ProxyRouterChannelPool) client
+                    .createPoolMap(eventLoopGroup, NioSocketChannel.class)
+                    .get(downstreamAddress);
+
+            // when
+            Channel channel = awaitAcquireAndStats(pool.acquireForDownstreamCall()).getNow();
+
+            // then
+            assertThat(balancer.getOutstandingCalls(downstreamAddress)).isEqualTo(1);
+            assertThat(balancer.getLatencyEwmaNanos(downstreamAddress)).isEqualTo(0);
+
+            // and when
+            pool.release(channel).sync();
+
+            // then
+            assertThat(balancer.getOutstandingCalls(downstreamAddress)).isEqualTo(0);
+            assertThat(balancer.getLatencyEwmaNanos(downstreamAddress)).isGreaterThan(0);
+        }
+        finally {
+            eventLoopGroup.shutdownGracefully();
+        }
+    }
+
+    @Test
+    public void ProxyRouterChannelPool_does_not_report_plain_acquires_to_the_address_balancer() throws Exception {
+        // given
+        StreamingAsyncHttpClient client = new StreamingAsyncHttpClient(
+            0, 1000, false, false, null, null, new DownstreamConnectionPoolMetrics()
+        );
+        LeastOutstandingRequestsAddressBalancer balancer =
+            (LeastOutstandingRequestsAddressBalancer) Whitebox.getInternalState(client, "addressBalancer");
+        NioEventLoopGroup eventLoopGroup = new NioEventLoopGroup(1);
+        try (ServerSocket downstreamServer = new ServerSocket(0)) {
+            InetSocketAddress downstreamAddress = new InetSocketAddress("127.0.0.1", downstreamServer.getLocalPort());
+            SimpleChannelPool pool =
+                client.createPoolMap(eventLoopGroup, NioSocketChannel.class).get(downstreamAddress);
+
+            // when
+            Channel channel = awaitAcquireAndStats(pool.acquire()).getNow();
+
+            // then
+            assertThat(balancer.getOutstandingCalls(downstreamAddress)).isEqualTo(0);
+
+            // and when
+            pool.release(channel).sync();
+
+            // then
+            assertThat(balancer.getOutstandingCalls(downstreamAddress)).isEqualTo(0);
+            assertThat(balancer.getLatencyEwmaNanos(downstreamAddress)).isEqualTo(0);
+        }
+        finally {
+            eventLoopGroup.shutdownGracefully();
+        }
+    }
+
+    @Test
+    public void connect_failures_and_5xx_responses_eject_addresses_from_chooseAddress() throws Exception {
+        // given
+        DownstreamConnectionPoolMetrics metrics = new DownstreamConnectionPoolMetrics();
+        StreamingAsyncHttpClient client = new StreamingAsyncHttpClient(
+            0, 1000, false, false, null, null, metrics, new DownstreamOutlierEjectionConfig() {
+                @Override
+                public int consecutiveFailuresToEject() {
+                    return 2;
+                }
+            }
+        );
+        int closedPort;
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            closedPort = serverSocket.getLocalPort();
+        }
+        InetAddress badIp = InetAddress.getByName("127.0.0.1");
+        InetAddress goodIp = InetAddress.getByName("127.0.0.2");
+        InetSocketAddress badAddress = new InetSocketAddress(badIp, closedPort);
+        NioEventLoopGroup eventLoopGroup = new NioEventLoopGroup(1);
+        try {
+            SimpleChannelPool pool = client.createPoolMap(eventLoopGroup, NioSocketChannel.class).get(badAddress);
+
+            // when
+            Future<Channel> failedAcquire = pool.acquire().await();
+            client.recordCallOutcomeForOutlierEjection(pool, false);
+
+            // then
+            assertThat(failedAcquire.isSuccess()).isFalse();
+            for (int i = 0; i < 100; i++) {
+                assertThat(client.chooseAddress(new InetAddress[]{badIp, goodIp}, closedPort).getAddress())
+                    .isEqualTo(goodIp);
+            }
+            String hostKey = badAddress.getHostString() + ":" + closedPort;
+            assertThat(metrics.getEjectedAddressCount(hostKey)).isEqualTo(1);
+            assertThat(metrics.getEjectionCount(hostKey)).isEqualTo(1);
+        }
+        finally {
+            eventLoopGroup.shutdownGracefully();
+        }
+    }
+
+    @Test
+    public void chooseAddress_avoids_the_given_address_unless_it_is_the_only_choice() throws Exception {
+        // given
+        StreamingAsyncHttpClient client = new StreamingAsyncHttpClient(200, 200, false, false);
+        InetAddress firstIp = InetAddress.getByName("127.0.0.1");
+        InetAddress secondIp = InetAddress.getByName("127.0.0.2");
+        InetSocketAddress addressToAvoid = new InetSocketAddress(firstIp, 8080);
+
+        // expect
+        for (int i = 0; i < 100; i++) {
+            assertThat(client.chooseAddress(new InetAddress[]{firstIp, secondIp}, 8080, addressToAvoid).getAddress())
+                .isEqualTo(secondIp);
+        }
+        assertThat(client.chooseAddress(new InetAddress[]{firstIp}, 8080, addressToAvoid).getAddress())
+            .isEqualTo(firstIp);
+    }
+
+    @Test
+    public void chooseAddress_with_a_routing_key_sticks_to_one_address_per_key_unless_it_is_avoided() throws Exception {
+        // given
+        StreamingAsyncHttpClient client = new StreamingAsyncHttpClient(200, 200, false, false);
+        InetAddress[] ips = {
+            InetAddress.getByName("127.0.0.1"), InetAddress.getByName("127.0.0.2"), InetAddress.getByName("127.0.0.3")
+        };
+        InetSocketAddress preferred = client.chooseAddress("foo.com", ips, 8080, null, "some-key");
+
+        // expect
+        for (int i = 0; i < 100; i++) {
+            assertThat(client.chooseAddress("foo.com", ips, 8080, null, "some-key")).isEqualTo(preferred);
+            assertThat(client.chooseAddress("foo.com", ips, 8080, preferred, "some-key")).isNotEqualTo(preferred);
+        }
+        assertThat(client.chooseAddress("foo.com", ips, 8080, null, null).getPort()).isEqualTo(8080);
+    }
+
+    @Test
+    public void pruneIdleHashRingsIfDue_drops_rings_that_have_not_been_used_for_the_ttl() throws Exception {
+        // given
+        StreamingAsyncHttpClient client = new StreamingAsyncHttpClient(200, 200, false, false);
+        InetAddress[] ips = { InetAddress.getByName("127.0.0.1"), InetAddress.getByName("127.0.0.2") };
+        InetSocketAddress preferred = client.chooseAddress("foo.com", ips, 8080, null, "some-key");
+        ConcurrentMap<String, ConsistentHashAddressRing> rings =
+            (ConcurrentMap<String, ConsistentHashAddressRing>) Whitebox.getInternalState(
+                client, "hashRingsByHostAndPort"
+            );
+        long ringLastUsedNanos = rings.get("foo.com:8080").getLastUsedNanos();
+
+        // when
+        client.pruneIdleHashRingsIfDue(ringLastUsedNanos + StreamingAsyncHttpClient.IDLE_HASH_RING_TTL_NANOS - 1);
+
+        // then
+        assertThat(rings).containsKey("foo.com:8080");
+
+        // and when
+        client.pruneIdleHashRingsIfDue(ringLastUsedNanos + StreamingAsyncHttpClient.IDLE_HASH_RING_TTL_NANOS * 2);
+
+        // then
+        assertThat(rings).isEmpty();
+        // A rebuilt ring sends the key to the same address.
+        assertThat(client.chooseAddress("foo.com", ips, 8080, null, "some-key")).isEqualTo(preferred);
+    }
+
+    @DataProvider(value = {
+        "GET    |   false   |   null    |   true    |   true",
+        "DELETE |   false   |   0       |   true    |   true",
+        "POST   |   false   |   null    |   true    |   false",
+        "GET    |   true    |   null    |   true    |   false",
+        "PUT    |   false   |   42      |   true    |   false",
+        "GET    |   false   |   null    |   false   |   false"
+    }, splitBy = "\\|")
+    @Test
+    public void isHedgeableCall_only_allows_bodiless_idempotent_requests_with_a_policy(
+        String method, boolean chunked, String contentLength, boolean hasPolicy, boolean expected
+    ) {
+        // given
+        StreamingAsyncHttpClient client = new StreamingAsyncHttpClient(200, 200, false, false);
+        HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.valueOf(method), "/foo");
+        if (chunked)
+            HttpHeaders.setTransferEncodingChunked(request);
+        if (contentLength != null)
+            request.headers().set(HttpHeaders.Names.CONTENT_LENGTH, contentLength);
+        HedgingPolicy policy = (hasPolicy) ? HedgingPolicy.newBuilder().build() : null;
+
+        // expect
+        assertThat(client.isHedgeableCall(request, policy)).isEqualTo(expected);
+    }
+
+    @DataProvider(value = {
+        "false  |   true    |   true",
+        "true   |   true    |   false",
+        "false  |   false   |   false"
+    }, splitBy = "\\|")
+    @Test
+    public void isRetryableCall_allows_any_request_with_a_policy_unless_the_first_chunk_carries_content(
+        boolean firstChunkHasContent, boolean hasPolicy, boolean expected
+    ) {
+        // given
+        StreamingAsyncHttpClient client = new StreamingAsyncHttpClient(200, 200, false, false);
+        HttpRequest request = (firstChunkHasContent)
+                              ? new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/foo")
+                              : new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/foo");
+        RetryPolicy policy = (hasPolicy) ? RetryPolicy.newBuilder().build() : null;
+
+        // expect
+        assertThat(client.isRetryableCall(request, policy)).isEqualTo(expected);
+    }
+
+    @Test
+    public void warmup_acquires_are_not_reported_to_the_address_balancer() throws Exception {
+        // given
+        StreamingAsyncHttpClient client = new StreamingAsyncHttpClient(
+            0, 1000, false, false, null, null, new DownstreamConnectionPoolMetrics()
+        );
+        LeastOutstandingRequestsAddressBalancer balancer =
+            (LeastOutstandingRequestsAddressBalancer) Whitebox.getInternalState(client, "addressBalancer");
+        try (ServerSocket downstreamServer = new ServerSocket(0)) {
+            int port = downstreamServer.getLocalPort();
+            InetSocketAddress downstreamAddress = new InetSocketAddress("127.0.0.1", port);
+
+            // when
+            client.warmUpConnections(
+                singletonList(new DownstreamWarmupTarget("127.0.0.1", port, false, 2)), null, 0
+            ).get(5, TimeUnit.SECONDS);
+
+            // then
+            assertThat(balancer.getOutstandingCalls(downstreamAddress)).isEqualTo(0);
+            assertThat(balancer.getLatencyEwmaNanos(downstreamAddress)).isEqualTo(0);
+        }
+    }
+
+    @DataProvider(value = {
+        "false",
+        "true"
+    })
+    @Test
+    public void warmUpConnections_opens_the_minimum_number_of_connections_in_every_pool_for_the_target(
+        boolean shareInboundEventLoop
+    ) throws Exception {
+        // given
+        StreamingAsyncHttpClient client = new StreamingAsyncHttpClient(
+            0, 1000, false, shareInboundEventLoop, null, null, new DownstreamConnectionPoolMetrics()
+        );
+        NioEventLoopGroup workerGroup = new NioEventLoopGroup(2);
+        try (ServerSocket downstreamServer = new ServerSocket(0)) {
+            int port = downstreamServer.getLocalPort();
+            DownstreamWarmupTarget target = new DownstreamWarmupTarget("127.0.0.1", port, false, 2);
+
+            // when
+            client.warmUpConnections(singletonList(target), workerGroup, 0).get(5, TimeUnit.SECONDS);
+
+            // then
+            List<SimpleChannelPool> pools =
+                client.getChannelPoolsForWarmup(new InetSocketAddress("127.0.0.1", port), workerGroup);
+            assertThat(pools).hasSize(shareInboundEventLoop ? 2 : 1);
+            for (SimpleChannelPool pool : pools) {
+                StreamingAsyncHttpClient.ProxyRouterChannelPool proxyRouterPool =
+                    (StreamingAsyncHttpClient.ProxyRouterChannelPool) pool;
+                assertThat(proxyRouterPool.getIdleConnectionCount()).isEqualTo(2);
+                assertThat(proxyRouterPool.getActiveConnectionCount()).isEqualTo(0);
+                assertThat(proxyRouterPool.getConnectCount()).isEqualTo(2);
+            }
+
+            // and when
+            client.warmUpConnections(singletonList(target), workerGroup, 0).get(5, TimeUnit.SECONDS);
+
+            // then
+            for (SimpleChannelPool pool : pools) {
+                StreamingAsyncHttpClient.ProxyRouterChannelPool proxyRouterPool =
+                    (StreamingAsyncHttpClient.ProxyRouterChannelPool) pool;
+                assertThat(proxyRouterPool.getIdleConnectionCount()).isEqualTo(2);
+                assertThat(proxyRouterPool.getConnectCount()).isEqualTo(2);
+            }
+        }
+        finally {
+            workerGroup.shutdownGracefully();
+        }
+    }
+
+    @Test
+    public void warmUpConnections_tops_the_pool_back_up_when_warm_connections_are_closed() throws Exception {
+        // given
+        StreamingAsyncHttpClient client = new StreamingAsyncHttpClient(
+            0, 1000, false, true, null, null, new DownstreamConnectionPoolMetrics()
+        );
+        NioEventLoopGroup workerGroup = new NioEventLoopGroup(1);
+        try (ServerSocket downstreamServer = new ServerSocket(0)) {
+            int port = downstreamServer.getLocalPort();
+            DownstreamWarmupTarget target = new DownstreamWarmupTarget("127.0.0.1", port, false, 2);
+            client.warmUpConnections(singletonList(target), workerGroup, 50).get(5, TimeUnit.SECONDS);
+            StreamingAsyncHttpClient.ProxyRouterChannelPool pool =
+                (StreamingAsyncHttpClient.ProxyRouterChannelPool) client
+                    .getChannelPoolsForWarmup(new InetSocketAddress("127.0.0.1", port), workerGroup).get(0);
+            assertThat(pool.getConnectCount()).isEqualTo(2);
+
+            // when
+            Channel warmChannel = awaitAcquireAndStats(pool.acquire()).getNow();
+            warmChannel.close().sync();
+            pool.release(warmChannel).await();
+
+            // then
+            long deadline = System.currentTimeMillis() + 5000;
+            while (pool.getConnectCount() < 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(pool.getConnectCount()).isEqualTo(3);
+        }
+        finally {
+            workerGroup.shutdownGracefully();
+        }
+    }
+
+    @Test
+    public void prepWarmChannel_does_nothing_for_non_https_targets() {
+        // given
+        StreamingAsyncHttpClient client = new StreamingAsyncHttpClient(200, 200, false);
+        Channel channel = mock(Channel.class);
+
+        // when
+        CompletableFuture<Void> result =
+            client.prepWarmChannel(channel, new DownstreamWarmupTarget("foo", 80, false, 1));
+
+        // then
+        assertThat(result).isCompleted();
+        verifyZeroInteractions(channel);
+    }
+
+    // The pool's stats are updated by a listener on the acquire future, which might run after a plain await() returns.
+    //      Listeners are notified in order, so once our own listener runs the stats listener is guaranteed to be done.
+    private Future<Channel> awaitAcquireAndStats(Future<Channel> acquireFuture) throws InterruptedException {
+        CountDownLatch listenersDone = new CountDownLatch(1);
+        acquireFuture.addListener(future -> listenersDone.countDown());
+        assertThat(listenersDone.await(5, TimeUnit.SECONDS)).isTrue();
+        return acquireFuture;
+    }
+
+    private ChannelHandlerContext mockChannelHandlerContextWithInboundChannel(Class<? extends Channel> channelClass,
+                                                                              EventLoop eventLoop) {
+        ChannelHandlerContext mockContext = mock(ChannelHandlerContext.class);
+        Channel inboundChannel = mock(channelClass);
+        if (eventLoop != null)
+            doReturn(eventLoop).when(inboundChannel).eventLoop();
+        doReturn(inboundChannel).when(mockContext).channel();
+        return mockContext;
+    }
+
     private ChannelHandlerContext mockChannelHandlerContext() {
         ChannelHandlerContext mockContext = mock(ChannelHandlerContext.class);
         when(mockContext.channel()).thenReturn(mock(Channel.class));
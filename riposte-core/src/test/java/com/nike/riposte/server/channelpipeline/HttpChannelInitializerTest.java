@@ -1,9 +1,16 @@
 package com.nike.riposte.server.channelpipeline;
 
 import com.nike.internal.util.Pair;
+import com.nike.riposte.client.asynchttp.netty.OutlierEjectionTracker;
 import com.nike.riposte.client.asynchttp.netty.StreamingAsyncHttpClient;
+import com.nike.riposte.client.dns.CachingHostnameResolver;
+import com.nike.riposte.client.pool.DownstreamConnectionPoolConfig;
+import com.nike.riposte.client.pool.DownstreamConnectionPoolMetrics;
+import com.nike.riposte.client.pool.DownstreamOutlierEjectionConfig;
+import com.nike.riposte.client.pool.DownstreamWarmupTarget;
 import com.nike.riposte.metrics.MetricsListener;
 import com.nike.riposte.server.config.ServerConfig.HttpRequestDecoderConfig;
+import com.nike.riposte.server.config.ServerConfig.RequestDeadlineConfig;
 import com.nike.riposte.server.error.handler.RiposteErrorHandler;
 import com.nike.riposte.server.error.handler.RiposteUnhandledErrorHandler;
 import com.nike.riposte.server.error.validation.RequestSecurityValidator;
@@ -24,6 +31,7 @@ import com.nike.riposte.server.handler.RequestFilterHandler;
 import com.nike.riposte.server.handler.RequestHasBeenHandledVerificationHandler;
 import com.nike.riposte.server.handler.RequestInfoSetterHandler;
 import com.nike.riposte.server.handler.RequestStateCleanerHandler;
+import com.nike.riposte.server.handler.ResponseCacheHandler;
 import com.nike.riposte.server.handler.ResponseFilterHandler;
 import com.nike.riposte.server.handler.ResponseSenderHandler;
 import com.nike.riposte.server.handler.RoutingHandler;
@@ -32,7 +40,11 @@ import com.nike.riposte.server.handler.SmartHttpContentCompressor;
 import com.nike.riposte.server.handler.SmartHttpContentDecompressor;
 import com.nike.riposte.server.hooks.PipelineCreateHook;
 import com.nike.riposte.server.http.Endpoint;
+import com.nike.riposte.server.http.ProxyRouterEndpoint;
 import com.nike.riposte.server.http.ResponseSender;
+import com.nike.riposte.server.http.compression.AdaptiveCompressionPolicy;
+import com.nike.riposte.server.http.cache.EntityTagGenerator;
+import com.nike.riposte.server.http.cache.ResponseCache;
 import com.nike.riposte.server.http.filter.RequestAndResponseFilter;
 import com.nike.riposte.server.logging.AccessLogger;
 import com.nike.riposte.util.Matcher;
@@ -53,6 +65,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -63,6 +76,7 @@ import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelInboundHandler;
 import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.handler.codec.http.HttpMethod;
@@ -81,6 +95,7 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.lessThan;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
@@ -150,20 +165,27 @@ public class HttpChannelInitializerTest {
         RequestSecurityValidator requestSecurityValidator = mock(RequestSecurityValidator.class);
         long workerChannelIdleTimeoutMillis = 121000;
         long proxyRouterConnectTimeoutMillis = 4200;
+        boolean proxyRouterSharesWorkerEventLoops = true;
+        CachingHostnameResolver proxyRouterHostnameResolver = mock(CachingHostnameResolver.class);
+        DownstreamConnectionPoolConfig proxyRouterConnectionPoolConfig = new DownstreamConnectionPoolConfig() {};
+        DownstreamConnectionPoolMetrics proxyRouterConnectionPoolMetrics = new DownstreamConnectionPoolMetrics();
+        DownstreamOutlierEjectionConfig proxyRouterOutlierEjectionConfig = new DownstreamOutlierEjectionConfig() {};
         long incompleteHttpCallTimeoutMillis = 1234;
         int maxOpenChannelsThreshold = 1000;
         boolean debugChannelLifecycleLoggingEnabled = true;
         List<String> userIdHeaderKeys = mock(List.class);
         int responseCompressionThresholdBytes = 5678;
+        AdaptiveCompressionPolicy adaptiveCompressionPolicy = mock(AdaptiveCompressionPolicy.class);
         HttpRequestDecoderConfig httpRequestDecoderConfig = new HttpRequestDecoderConfig() {};
+        RequestDeadlineConfig requestDeadlineConfig = new RequestDeadlineConfig() {};
 
         // when
         HttpChannelInitializer hci = new HttpChannelInitializer(
             sslCtx, maxRequestSizeInBytes, endpoints, reqResFilters, longRunningTaskExecutor, riposteErrorHandler, riposteUnhandledErrorHandler,
             validationService, requestContentDeserializer, responseSender, metricsListener, defaultCompletableFutureTimeoutMillis, accessLogger,
             pipelineCreateHooks, requestSecurityValidator, workerChannelIdleTimeoutMillis, proxyRouterConnectTimeoutMillis,
-            incompleteHttpCallTimeoutMillis, maxOpenChannelsThreshold, debugChannelLifecycleLoggingEnabled, userIdHeaderKeys,
-            responseCompressionThresholdBytes, httpRequestDecoderConfig);
+            proxyRouterSharesWorkerEventLoops, proxyRouterHostnameResolver, proxyRouterConnectionPoolConfig, proxyRouterConnectionPoolMetrics, proxyRouterOutlierEjectionConfig, incompleteHttpCallTimeoutMillis, maxOpenChannelsThreshold, debugChannelLifecycleLoggingEnabled, userIdHeaderKeys,
+            responseCompressionThresholdBytes, adaptiveCompressionPolicy, httpRequestDecoderConfig, requestDeadlineConfig);
 
         // then
         assertThat(extractField(hci, "sslCtx"), is(sslCtx));
@@ -186,12 +208,21 @@ public class HttpChannelInitializerTest {
         assertThat(extractField(hci, "debugChannelLifecycleLoggingEnabled"), is(debugChannelLifecycleLoggingEnabled));
         assertThat(extractField(hci, "userIdHeaderKeys"), is(userIdHeaderKeys));
         assertThat(extractField(hci, "responseCompressionThresholdBytes"), is(responseCompressionThresholdBytes));
+        assertThat(extractField(hci, "adaptiveCompressionPolicy"), is(adaptiveCompressionPolicy));
         assertThat(extractField(hci, "httpRequestDecoderConfig"), is(httpRequestDecoderConfig));
+        assertThat(extractField(hci, "requestDeadlineConfig"), is(requestDeadlineConfig));
 
         StreamingAsyncHttpClient sahc = extractField(hci, "streamingAsyncHttpClientForProxyRouterEndpoints");
         assertThat(extractField(sahc, "idleChannelTimeoutMillis"), is(workerChannelIdleTimeoutMillis));
         assertThat(extractField(sahc, "downstreamConnectionTimeoutMillis"), is((int)proxyRouterConnectTimeoutMillis));
         assertThat(extractField(sahc, "debugChannelLifecycleLoggingEnabled"), is(debugChannelLifecycleLoggingEnabled));
+        assertThat(extractField(sahc, "shareInboundEventLoop"), is(proxyRouterSharesWorkerEventLoops));
+        assertThat(extractField(sahc, "hostnameResolver"), is(proxyRouterHostnameResolver));
+        assertThat(extractField(sahc, "connectionPoolConfig"), is(proxyRouterConnectionPoolConfig));
+        assertThat(extractField(sahc, "connectionPoolMetrics"), is(proxyRouterConnectionPoolMetrics));
+        OutlierEjectionTracker outlierEjectionTracker = extractField(sahc, "outlierEjectionTracker");
+        assertThat(extractField(outlierEjectionTracker, "config"), is(proxyRouterOutlierEjectionConfig));
+        assertThat(extractField(outlierEjectionTracker, "metrics"), is(proxyRouterConnectionPoolMetrics));
 
         RequestFilterHandler beforeSecReqFH = extractField(hci, "beforeSecurityRequestFilterHandler");
         assertThat(extractField(beforeSecReqFH, "filters"), is(Collections.singletonList(beforeSecurityRequestFilter)));
@@ -211,8 +242,8 @@ public class HttpChannelInitializerTest {
         HttpChannelInitializer hci = new HttpChannelInitializer(
             null, 42, Arrays.asList(getMockEndpoint("/some/path")), null, null, mock(RiposteErrorHandler.class), mock(RiposteUnhandledErrorHandler.class),
             null, null, mock(ResponseSender.class), null, 4242L, null,
-            null, null, 121, 42, 321, 100, false, null,
-            123, null);
+            null, null, 121, 42, false, null, null, null, null, 321, 100, false, null,
+            123, null, null, null);
 
         // then
         assertThat(extractField(hci, "sslCtx"), nullValue());
@@ -230,6 +261,10 @@ public class HttpChannelInitializerTest {
         assertThat(extractField(hci, "cachedResponseFilterHandler"), nullValue());
         assertThat(extractField(hci, "userIdHeaderKeys"), nullValue());
         assertThat(extractField(hci, "httpRequestDecoderConfig"), is(HttpRequestDecoderConfig.DEFAULT_IMPL));
+        StreamingAsyncHttpClient sahc = extractField(hci, "streamingAsyncHttpClientForProxyRouterEndpoints");
+        assertThat(extractField(sahc, "hostnameResolver"), is(CachingHostnameResolver.getDefaultInstance()));
+        assertThat(extractField(sahc, "connectionPoolConfig"), is(DownstreamConnectionPoolConfig.DEFAULT_IMPL));
+        assertThat(extractField(sahc, "connectionPoolMetrics"), is(DownstreamConnectionPoolMetrics.getDefaultInstance()));
     }
 
     @Test
@@ -243,8 +278,8 @@ public class HttpChannelInitializerTest {
         HttpChannelInitializer hci = new HttpChannelInitializer(
                 null, 42, Arrays.asList(getMockEndpoint("/some/path")), reqResFilters, null, mock(RiposteErrorHandler.class), mock(RiposteUnhandledErrorHandler.class),
                 null, null, mock(ResponseSender.class), null, 4242L, null,
-                null, null, 121, 42, 321, 100, false, null,
-                123, null);
+                null, null, 121, 42, false, null, null, null, null, 321, 100, false, null,
+                123, null, null, null);
 
         // then
         RequestFilterHandler beforeSecReqFH = extractField(hci, "beforeSecurityRequestFilterHandler");
@@ -267,8 +302,8 @@ public class HttpChannelInitializerTest {
         HttpChannelInitializer hci = new HttpChannelInitializer(
                 null, 42, Arrays.asList(getMockEndpoint("/some/path")), reqResFilters, null, mock(RiposteErrorHandler.class), mock(RiposteUnhandledErrorHandler.class),
                 null, null, mock(ResponseSender.class), null, 4242L, null,
-                null, null, 121, 42, 321, 100, false, null,
-                123, null);
+                null, null, 121, 42, false, null, null, null, null, 321, 100, false, null,
+                123, null, null, null);
 
         // then
         RequestFilterHandler beforeSecReqFH = extractField(hci, "afterSecurityRequestFilterHandler");
@@ -286,8 +321,8 @@ public class HttpChannelInitializerTest {
         new HttpChannelInitializer(
             null, 42, null, null, null, mock(RiposteErrorHandler.class), mock(RiposteUnhandledErrorHandler.class),
             null, null, mock(ResponseSender.class), null, 4242L, null,
-            null, null, 121, 42, 321, 100, false, null,
-            123, null);
+            null, null, 121, 42, false, null, null, null, null, 321, 100, false, null,
+            123, null, null, null);
     }
 
     @Test(expected = IllegalArgumentException.class)
@@ -296,8 +331,8 @@ public class HttpChannelInitializerTest {
         new HttpChannelInitializer(
             null, 42, Collections.emptyList(), null, null, mock(RiposteErrorHandler.class), mock(RiposteUnhandledErrorHandler.class),
             null, null, mock(ResponseSender.class), null, 4242L, null,
-            null, null, 121, 42, 321, 100, false, null,
-            123, null);
+            null, null, 121, 42, false, null, null, null, null, 321, 100, false, null,
+            123, null, null, null);
     }
 
     @Test(expected = IllegalArgumentException.class)
@@ -306,8 +341,8 @@ public class HttpChannelInitializerTest {
         new HttpChannelInitializer(
             null, 42, Arrays.asList(getMockEndpoint("/some/path")), null, null, null, mock(RiposteUnhandledErrorHandler.class),
             null, null, mock(ResponseSender.class), null, 4242L, null,
-            null, null, 121, 42, 321, 100, false, null,
-            123, null);
+            null, null, 121, 42, false, null, null, null, null, 321, 100, false, null,
+            123, null, null, null);
     }
 
     @Test(expected = IllegalArgumentException.class)
@@ -316,8 +351,8 @@ public class HttpChannelInitializerTest {
         new HttpChannelInitializer(
             null, 42, Arrays.asList(getMockEndpoint("/some/path")), null, null, mock(RiposteErrorHandler.class), null,
             null, null, mock(ResponseSender.class), null, 4242L, null,
-            null, null, 121, 42, 321, 100, false, null,
-            123, null);
+            null, null, 121, 42, false, null, null, null, null, 321, 100, false, null,
+            123, null, null, null);
     }
 
     @Test(expected = IllegalArgumentException.class)
@@ -326,8 +361,8 @@ public class HttpChannelInitializerTest {
         new HttpChannelInitializer(
             null, 42, Arrays.asList(getMockEndpoint("/some/path")), null, null, mock(RiposteErrorHandler.class), mock(RiposteUnhandledErrorHandler.class),
             null, null, null, null, 4242L, null,
-            null, null, 121, 42, 321, 100, false, null,
-            123, null);
+            null, null, 121, 42, false, null, null, null, null, 321, 100, false, null,
+            123, null, null, null);
     }
 
     private <T extends ChannelHandler> Pair<Integer, T> findChannelHandler(List<ChannelHandler> channelHandlers, Class<T> classToFind, boolean findLast) {
@@ -360,8 +395,8 @@ public class HttpChannelInitializerTest {
         return new HttpChannelInitializer(
             sslCtx, 42, Arrays.asList(getMockEndpoint("/some/path")), requestAndResponseFilters, null, mock(RiposteErrorHandler.class),
             mock(RiposteUnhandledErrorHandler.class), validationService, null, mock(ResponseSender.class), null, 4242L, null,
-            null, null, workerChannelIdleTimeoutMillis, 4200, 1234, maxOpenChannelsThreshold, debugChannelLifecycleLoggingEnabled,
-            null, 123, null);
+            null, null, workerChannelIdleTimeoutMillis, 4200, false, null, null, null, null, 1234, maxOpenChannelsThreshold, debugChannelLifecycleLoggingEnabled,
+            null, 123, null, null, null);
     }
 
     @Test
@@ -672,6 +707,9 @@ public class HttpChannelInitializerTest {
         long expectedThresholdValue = ((Integer)extractField(hci, "responseCompressionThresholdBytes")).longValue();
         assertThat(extractField(httpContentCompressor.getRight(), "responseSizeThresholdBytes"),
                    is(expectedThresholdValue));
+        // Verify that SmartHttpContentCompressor's compression policy is set to the specified config value.
+        AdaptiveCompressionPolicy expectedCompressionPolicy = extractField(hci, "adaptiveCompressionPolicy");
+        assertThat(extractField(httpContentCompressor.getRight(), "compressionPolicy"), is(expectedCompressionPolicy));
     }
 
     @Test
@@ -786,6 +824,61 @@ public class HttpChannelInitializerTest {
         Assertions.assertThat(afterSecurityRequestFilterHandler.getRight()).isSameAs(afterSecurityCachedHandler);
     }
 
+    @Test
+    public void initChannel_adds_ResponseCacheHandler_after_security_and_after_security_filters_and_before_RequestContentDeserializerHandler_if_ResponseSender_has_a_cache() {
+        // given
+        RequestAndResponseFilter afterSecurityRequestFilter = mock(RequestAndResponseFilter.class);
+        doReturn(false).when(afterSecurityRequestFilter).shouldExecuteBeforeSecurityValidation();
+        ResponseSender responseSenderMock = mock(ResponseSender.class);
+        doReturn(new ResponseCache()).when(responseSenderMock).getResponseCache();
+
+        HttpChannelInitializer hci = new HttpChannelInitializer(
+            null, 42, Arrays.asList(getMockEndpoint("/some/path")), Collections.singletonList(afterSecurityRequestFilter),
+            null, mock(RiposteErrorHandler.class), mock(RiposteUnhandledErrorHandler.class), null, null,
+            responseSenderMock, null, 4242L, null, null, null, 0, 4200, false, null, null, null, null, 1234, -1, false, null, 123, null, null, null);
+
+        // when
+        hci.initChannel(socketChannelMock);
+
+        // then
+        ArgumentCaptor<ChannelHandler> channelHandlerArgumentCaptor = ArgumentCaptor.forClass(ChannelHandler.class);
+        verify(channelPipelineMock, atLeastOnce()).addLast(anyString(), channelHandlerArgumentCaptor.capture());
+        List<ChannelHandler> handlers = channelHandlerArgumentCaptor.getAllValues();
+        Pair<Integer, SecurityValidationHandler> securityValidationHandler = findChannelHandler(handlers, SecurityValidationHandler.class);
+        Pair<Integer, RequestFilterHandler> afterSecurityRequestFilterHandler = findChannelHandler(handlers, RequestFilterHandler.class, true);
+        Pair<Integer, ResponseCacheHandler> responseCacheHandler = findChannelHandler(handlers, ResponseCacheHandler.class);
+        Pair<Integer, RequestContentDeserializerHandler> requestContentDeserializerHandler = findChannelHandler(handlers, RequestContentDeserializerHandler.class);
+
+        assertThat(securityValidationHandler, notNullValue());
+        assertThat(afterSecurityRequestFilterHandler, notNullValue());
+        assertThat(responseCacheHandler, notNullValue());
+        assertThat(requestContentDeserializerHandler, notNullValue());
+
+        Assertions.assertThat(responseCacheHandler.getLeft()).isGreaterThan(securityValidationHandler.getLeft());
+        Assertions.assertThat(responseCacheHandler.getLeft()).isGreaterThan(afterSecurityRequestFilterHandler.getLeft());
+        Assertions.assertThat(responseCacheHandler.getLeft()).isLessThan(requestContentDeserializerHandler.getLeft());
+
+        // and then
+        ResponseCacheHandler cachedHandler = extractField(hci, "cachedResponseCacheHandler");
+        Assertions.assertThat(responseCacheHandler.getRight()).isSameAs(cachedHandler);
+    }
+
+    @Test
+    public void initChannel_does_not_add_ResponseCacheHandler_if_ResponseSender_has_no_cache() {
+        // given
+        HttpChannelInitializer hci = basicHttpChannelInitializerNoUtilityHandlers();
+
+        // when
+        hci.initChannel(socketChannelMock);
+
+        // then
+        ArgumentCaptor<ChannelHandler> channelHandlerArgumentCaptor = ArgumentCaptor.forClass(ChannelHandler.class);
+        verify(channelPipelineMock, atLeastOnce()).addLast(anyString(), channelHandlerArgumentCaptor.capture());
+        List<ChannelHandler> handlers = channelHandlerArgumentCaptor.getAllValues();
+        assertThat(findChannelHandler(handlers, ResponseCacheHandler.class), nullValue());
+        Assertions.assertThat((Object) extractField(hci, "cachedResponseCacheHandler")).isNull();
+    }
+
     @Test
     public void initChannel_adds_RoutingHandler_after_AccessLogStartHandler_and_before_SmartHttpContentDecompressor_and_uses_endpoints_collection() {
         // given
@@ -918,6 +1011,9 @@ public class HttpChannelInitializerTest {
         Whitebox.setInternalState(hci, "validationService", mock(RequestValidator.class));
         Executor expectedLongRunningTaskExecutor = extractField(hci, "longRunningTaskExecutor");
         long expectedDefaultCompletableFutureTimeoutMillis = extractField(hci, "defaultCompletableFutureTimeoutMillis");
+        EntityTagGenerator expectedEntityTagGenerator = new EntityTagGenerator();
+        ResponseSender responseSender = extractField(hci, "responseSender");
+        doReturn(expectedEntityTagGenerator).when(responseSender).getEntityTagGenerator();
 
         // when
         hci.initChannel(socketChannelMock);
@@ -945,6 +1041,8 @@ public class HttpChannelInitializerTest {
         long actualDefaultCompletableFutureTimeoutMillis = (long) Whitebox.getInternalState(nonblockingEndpointExecutionHandler.getRight(), "defaultCompletableFutureTimeoutMillis");
         assertThat(actualLongRunningTaskExecutor, is(expectedLongRunningTaskExecutor));
         assertThat(actualDefaultCompletableFutureTimeoutMillis, is(expectedDefaultCompletableFutureTimeoutMillis));
+        Assertions.assertThat(Whitebox.getInternalState(nonblockingEndpointExecutionHandler.getRight(), "entityTagGenerator"))
+                  .isSameAs(expectedEntityTagGenerator);
     }
 
     @Test
@@ -1160,6 +1258,49 @@ public class HttpChannelInitializerTest {
         hooks.forEach(hook -> verify(hook).executePipelineCreateHook(channelPipelineMock));
     }
 
+    @Test
+    public void warmUpProxyRouterConnections_combines_server_config_and_endpoint_targets() {
+        // given
+        HttpChannelInitializer hci = basicHttpChannelInitializerNoUtilityHandlers();
+        StreamingAsyncHttpClient streamingClientMock = mock(StreamingAsyncHttpClient.class);
+        CompletableFuture<Void> warmupFuture = new CompletableFuture<>();
+        doReturn(warmupFuture).when(streamingClientMock).warmUpConnections(any(), any(), anyLong());
+        Whitebox.setInternalState(hci, "streamingAsyncHttpClientForProxyRouterEndpoints", streamingClientMock);
+
+        DownstreamWarmupTarget configTarget = new DownstreamWarmupTarget("foo", 80, false, 1);
+        DownstreamWarmupTarget endpointTarget = new DownstreamWarmupTarget("bar", 443, true, 2);
+        ProxyRouterEndpoint proxyEndpoint = mock(ProxyRouterEndpoint.class);
+        doReturn(Collections.singletonList(endpointTarget)).when(proxyEndpoint).downstreamWarmupTargets();
+        Whitebox.setInternalState(hci, "endpoints", Arrays.asList(getMockEndpoint("/some/path"), proxyEndpoint));
+        EventLoopGroup workerGroup = mock(EventLoopGroup.class);
+
+        // when
+        CompletableFuture<Void> result =
+            hci.warmUpProxyRouterConnections(Collections.singletonList(configTarget), workerGroup);
+
+        // then
+        Assertions.assertThat(result).isSameAs(warmupFuture);
+        verify(streamingClientMock).warmUpConnections(
+            Arrays.asList(configTarget, endpointTarget), workerGroup,
+            StreamingAsyncHttpClient.DEFAULT_WARM_CONNECTION_MAINTENANCE_INTERVAL_MILLIS
+        );
+    }
+
+    @Test
+    public void warmUpProxyRouterConnections_does_nothing_when_there_are_no_targets() {
+        // given
+        HttpChannelInitializer hci = basicHttpChannelInitializerNoUtilityHandlers();
+        StreamingAsyncHttpClient streamingClientMock = mock(StreamingAsyncHttpClient.class);
+        Whitebox.setInternalState(hci, "streamingAsyncHttpClientForProxyRouterEndpoints", streamingClientMock);
+
+        // when
+        CompletableFuture<Void> result = hci.warmUpProxyRouterConnections(null, mock(EventLoopGroup.class));
+
+        // then
+        Assertions.assertThat(result).isCompleted();
+        verifyNoMoreInteractions(streamingClientMock);
+    }
+
     private List<RequestAndResponseFilter> createRequestAndResponseFilterMock() {
         RequestAndResponseFilter beforeSecurityRequestFilter = mock(RequestAndResponseFilter.class);
         doReturn(true).when(beforeSecurityRequestFilter).shouldExecuteBeforeSecurityValidation();
@@ -0,0 +1,212 @@
+package com.nike.riposte.server.componenttest;
+
+import com.nike.riposte.server.Server;
+import com.nike.riposte.server.config.ServerConfig;
+import com.nike.riposte.server.http.Endpoint;
+import com.nike.riposte.server.http.RequestInfo;
+import com.nike.riposte.server.http.ResponseInfo;
+import com.nike.riposte.server.http.StandardEndpoint;
+import com.nike.riposte.server.http.cache.EntityTagGenerator;
+import com.nike.riposte.server.testutils.ComponentTestUtils;
+import com.nike.riposte.util.Matcher;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpMethod;
+import io.restassured.response.ExtractableResponse;
+import io.restassured.specification.RequestSpecification;
+
+import static io.netty.handler.codec.http.HttpHeaders.Names.ETAG;
+import static io.netty.handler.codec.http.HttpHeaders.Names.IF_NONE_MATCH;
+import static io.restassured.RestAssured.given;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Verifies that a server with an {@link EntityTagGenerator} adds {@code ETag}s to full responses and answers matching
+ * {@code If-None-Match} requests with a payload-less {@code 304 Not Modified}, and that endpoints implementing {@link
+ * Endpoint#currentEntityTag(RequestInfo)} are not executed at all when the caller already has the current version.
+ */
+public class VerifyEntityTagsComponentTest {
+
+    private static Server server;
+    private static EntityTagsTestConfig serverConfig;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        serverConfig = new EntityTagsTestConfig();
+        server = new Server(serverConfig);
+        server.startup();
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Before
+    public void beforeMethod() {
+        VersionedEndpoint.executionCount.set(0);
+    }
+
+    private RequestSpecification baseRequest(String path) {
+        return given()
+            .baseUri("http://127.0.0.1")
+            .port(serverConfig.endpointsPort())
+            .basePath(path)
+            .log().all();
+    }
+
+    @Test
+    public void auto_generated_ETag_is_returned_and_matching_If_None_Match_gets_304_without_payload() {
+        // given
+        long notModifiedCountBefore = serverConfig.entityTagGenerator.getNotModifiedResponseCount();
+        long bytesSavedBefore = serverConfig.entityTagGenerator.getNotModifiedBytesSaved();
+        ExtractableResponse initialResponse = baseRequest(PayloadEndpoint.MATCHING_PATH)
+            .when().get().then().log().headers().extract();
+        String etag = initialResponse.header(ETAG);
+
+        // when
+        ExtractableResponse conditionalResponse = baseRequest(PayloadEndpoint.MATCHING_PATH)
+            .header(IF_NONE_MATCH, "\"something-else\", " + etag)
+            .when().get().then().log().headers().extract();
+
+        // then
+        assertThat(initialResponse.statusCode()).isEqualTo(200);
+        assertThat(initialResponse.asString()).isEqualTo(PayloadEndpoint.PAYLOAD);
+        assertThat(etag).startsWith("W/\"");
+
+        assertThat(conditionalResponse.statusCode()).isEqualTo(304);
+        assertThat(conditionalResponse.asString()).isEmpty();
+        assertThat(conditionalResponse.header(ETAG)).isEqualTo(etag);
+
+        assertThat(serverConfig.entityTagGenerator.getNotModifiedResponseCount() - notModifiedCountBefore)
+            .isEqualTo(1);
+        assertThat(serverConfig.entityTagGenerator.getNotModifiedBytesSaved() - bytesSavedBefore)
+            .isEqualTo(PayloadEndpoint.PAYLOAD.length());
+    }
+
+    @Test
+    public void non_matching_If_None_Match_gets_full_response() {
+        // when
+        ExtractableResponse response = baseRequest(PayloadEndpoint.MATCHING_PATH)
+            .header(IF_NONE_MATCH, "W/\"not-the-current-tag\"")
+            .when().get().then().log().headers().extract();
+
+        // then
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.asString()).isEqualTo(PayloadEndpoint.PAYLOAD);
+        assertThat(response.header(ETAG)).isNotNull();
+    }
+
+    @Test
+    public void endpoint_with_current_entity_tag_is_not_executed_when_If_None_Match_matches() {
+        // when
+        ExtractableResponse response = baseRequest(VersionedEndpoint.MATCHING_PATH)
+            .header(IF_NONE_MATCH, "\"" + VersionedEndpoint.VERSION + "\"")
+            .when().get().then().log().headers().extract();
+
+        // then
+        assertThat(response.statusCode()).isEqualTo(304);
+        assertThat(response.asString()).isEmpty();
+        assertThat(response.header(ETAG)).isEqualTo("\"" + VersionedEndpoint.VERSION + "\"");
+        assertThat(VersionedEndpoint.executionCount.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void endpoint_with_current_entity_tag_is_executed_and_returns_that_ETag_when_If_None_Match_does_not_match() {
+        // when
+        ExtractableResponse response = baseRequest(VersionedEndpoint.MATCHING_PATH)
+            .header(IF_NONE_MATCH, "\"some-old-version\"")
+            .when().get().then().log().headers().extract();
+
+        // then
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.asString()).isEqualTo(VersionedEndpoint.PAYLOAD);
+        assertThat(response.header(ETAG)).isEqualTo("\"" + VersionedEndpoint.VERSION + "\"");
+        assertThat(VersionedEndpoint.executionCount.get()).isEqualTo(1);
+    }
+
+    public static class EntityTagsTestConfig implements ServerConfig {
+        private final Collection<Endpoint<?>> endpoints = Arrays.asList(new PayloadEndpoint(), new VersionedEndpoint());
+        private final EntityTagGenerator entityTagGenerator = new EntityTagGenerator();
+        private final int port;
+
+        public EntityTagsTestConfig() {
+            try {
+                port = ComponentTestUtils.findFreePort();
+            } catch (IOException e) {
+                throw new RuntimeException("Couldn't allocate port", e);
+            }
+        }
+
+        @Override
+        public Collection<Endpoint<?>> appEndpoints() {
+            return endpoints;
+        }
+
+        @Override
+        public EntityTagGenerator entityTagGenerator() {
+            return entityTagGenerator;
+        }
+
+        @Override
+        public int endpointsPort() {
+            return port;
+        }
+    }
+
+    public static class PayloadEndpoint extends StandardEndpoint<Void, String> {
+
+        public static final String MATCHING_PATH = "/payload";
+        public static final String PAYLOAD = "{\"some\":\"payload that clients poll for\"}";
+
+        @Override
+        public CompletableFuture<ResponseInfo<String>> execute(RequestInfo<Void> request,
+                                                               Executor longRunningTaskExecutor,
+                                                               ChannelHandlerContext ctx) {
+            return CompletableFuture.completedFuture(ResponseInfo.newBuilder(PAYLOAD).build());
+        }
+
+        @Override
+        public Matcher requestMatcher() {
+            return Matcher.match(MATCHING_PATH, HttpMethod.GET);
+        }
+    }
+
+    public static class VersionedEndpoint extends StandardEndpoint<Void, String> {
+
+        public static final String MATCHING_PATH = "/versioned";
+        public static final String VERSION = "v42";
+        public static final String PAYLOAD = "expensive payload";
+        public static final AtomicInteger executionCount = new AtomicInteger(0);
+
+        @Override
+        public String currentEntityTag(RequestInfo<?> request) {
+            return VERSION;
+        }
+
+        @Override
+        public CompletableFuture<ResponseInfo<String>> execute(RequestInfo<Void> request,
+                                                               Executor longRunningTaskExecutor,
+                                                               ChannelHandlerContext ctx) {
+            executionCount.incrementAndGet();
+            return CompletableFuture.completedFuture(ResponseInfo.newBuilder(PAYLOAD).build());
+        }
+
+        @Override
+        public Matcher requestMatcher() {
+            return Matcher.match(MATCHING_PATH, HttpMethod.GET);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.nike.riposte.server.componenttest;
+
+import com.nike.riposte.server.Server;
+import com.nike.riposte.server.config.ServerConfig;
+import com.nike.riposte.server.http.Endpoint;
+import com.nike.riposte.server.http.RequestInfo;
+import com.nike.riposte.server.http.ResponseInfo;
+import com.nike.riposte.server.http.StandardEndpoint;
+import com.nike.riposte.server.testutils.ComponentTestUtils;
+import com.nike.riposte.util.Matcher;
+
+import com.tngtech.java.junit.dataprovider.DataProvider;
+import com.tngtech.java.junit.dataprovider.DataProviderRunner;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.restassured.config.RestAssuredConfig;
+import io.restassured.config.SSLConfig;
+import io.restassured.response.ExtractableResponse;
+import io.restassured.specification.RequestSpecification;
+
+import static io.netty.handler.codec.http.HttpHeaders.Names.ACCEPT_RANGES;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_LENGTH;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_RANGE;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_TYPE;
+import static io.netty.handler.codec.http.HttpHeaders.Names.IF_RANGE;
+import static io.netty.handler.codec.http.HttpHeaders.Names.LAST_MODIFIED;
+import static io.netty.handler.codec.http.HttpHeaders.Names.RANGE;
+import static io.netty.handler.codec.http.HttpHeaders.Names.TRANSFER_ENCODING;
+import static io.restassured.RestAssured.given;
+import static java.util.Collections.singleton;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Verifies that {@link com.nike.riposte.server.http.impl.FileResponseInfo} responses are sent correctly (including
+ * {@code Range} requests), both on plaintext channels where zero-copy is used and on SSL channels where the file is
+ * streamed in chunks.
+ */
+@RunWith(DataProviderRunner.class)
+public class VerifyFileResponsesComponentTest {
+
+    private static final int FILE_LENGTH = 300 * 1024 + 17;
+
+    private static File file;
+    private static byte[] fileBytes;
+    private static Server plaintextServer;
+    private static FileResponsesTestConfig plaintextServerConfig;
+    private static Server sslServer;
+    private static FileResponsesTestConfig sslServerConfig;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        fileBytes = new byte[FILE_LENGTH];
+        for (int i = 0; i < fileBytes.length; i++) {
+            fileBytes[i] = (byte) (i % 251);
+        }
+        file = File.createTempFile("VerifyFileResponsesComponentTest", ".bin");
+        file.deleteOnExit();
+        Files.write(file.toPath(), fileBytes);
+
+        plaintextServerConfig = new FileResponsesTestConfig(false);
+        plaintextServer = new Server(plaintextServerConfig);
+        plaintextServer.startup();
+
+        sslServerConfig = new FileResponsesTestConfig(true);
+        sslServer = new Server(sslServerConfig);
+        sslServer.startup();
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        plaintextServer.shutdown();
+        sslServer.shutdown();
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    private RequestSpecification baseRequest(boolean useSsl) {
+        RequestSpecification spec = given();
+        if (useSsl) {
+            return spec.config(RestAssuredConfig.newConfig().sslConfig(new SSLConfig().relaxedHTTPSValidation()))
+                       .baseUri("https://127.0.0.1")
+                       .port(sslServerConfig.endpointsSslPort())
+                       .basePath(FileEndpoint.MATCHING_PATH);
+        }
+
+        return spec.baseUri("http://127.0.0.1")
+                   .port(plaintextServerConfig.endpointsPort())
+                   .basePath(FileEndpoint.MATCHING_PATH);
+    }
+
+    @DataProvider(value = {
+        "false",
+        "true"
+    })
+    @Test
+    public void full_file_is_returned_when_no_range_is_requested(boolean useSsl) {
+        // when
+        ExtractableResponse response = baseRequest(useSsl).when().get().then().extract();
+
+        // then
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.header(CONTENT_LENGTH)).isEqualTo(String.valueOf(FILE_LENGTH));
+        assertThat(response.header(TRANSFER_ENCODING)).isNull();
+        assertThat(response.header(ACCEPT_RANGES)).isEqualTo("bytes");
+        assertThat(response.header(LAST_MODIFIED)).isNotNull();
+        assertThat(response.header(CONTENT_TYPE)).startsWith("application/octet-stream");
+        assertThat(response.asByteArray()).isEqualTo(fileBytes);
+    }
+
+    @DataProvider(value = {
+        "false  |   bytes=0-99          |   0       |   100",
+        "true   |   bytes=0-99          |   0       |   100",
+        "false  |   bytes=100000-       |   100000  |   207217",
+        "true   |   bytes=100000-       |   100000  |   207217",
+        "false  |   bytes=-500          |   306717  |   500",
+        "true   |   bytes=-500          |   306717  |   500"
+    }, splitBy = "\\|")
+    @Test
+    public void partial_content_is_returned_for_single_range_request(
+        boolean useSsl, String rangeHeader, int expectedStart, int expectedLength
+    ) {
+        // when
+        ExtractableResponse response = baseRequest(useSsl).header(RANGE, rangeHeader).when().get().then().extract();
+
+        // then
+        assertThat(response.statusCode()).isEqualTo(206);
+        assertThat(response.header(CONTENT_LENGTH)).isEqualTo(String.valueOf(expectedLength));
+        assertThat(response.header(CONTENT_RANGE)).isEqualTo(
+            "bytes " + expectedStart + "-" + (expectedStart + expectedLength - 1) + "/" + FILE_LENGTH
+        );
+        assertThat(response.asByteArray())
+            .isEqualTo(Arrays.copyOfRange(fileBytes, expectedStart, expectedStart + expectedLength));
+    }
+
+    @DataProvider(value = {
+        "false",
+        "true"
+    })
+    @Test
+    public void range_not_satisfiable_is_returned_for_range_past_end_of_file(boolean useSsl) {
+        // when
+        ExtractableResponse response =
+            baseRequest(useSsl).header(RANGE, "bytes=" + FILE_LENGTH + "-").when().get().then().extract();
+
+        // then
+        assertThat(response.statusCode()).isEqualTo(416);
+        assertThat(response.header(CONTENT_RANGE)).isEqualTo("bytes */" + FILE_LENGTH);
+        assertThat(response.asByteArray()).isEmpty();
+    }
+
+    @Test
+    public void range_is_honored_only_when_If_Range_matches_Last_Modified() {
+        // given
+        String lastModified = baseRequest(false).when().head().then().extract().header(LAST_MODIFIED);
+
+        // when
+        ExtractableResponse matching = baseRequest(false).header(RANGE, "bytes=0-9")
+                                                         .header(IF_RANGE, lastModified)
+                                                         .when().get().then().extract();
+        ExtractableResponse notMatching = baseRequest(false).header(RANGE, "bytes=0-9")
+                                                            .header(IF_RANGE, "Thu, 01 Jan 1970 00:00:00 GMT")
+                                                            .when().get().then().extract();
+
+        // then
+        assertThat(matching.statusCode()).isEqualTo(206);
+        assertThat(matching.asByteArray()).isEqualTo(Arrays.copyOfRange(fileBytes, 0, 10));
+        assertThat(notMatching.statusCode()).isEqualTo(200);
+        assertThat(notMatching.asByteArray()).isEqualTo(fileBytes);
+    }
+
+    @DataProvider(value = {
+        "false",
+        "true"
+    })
+    @Test
+    public void HEAD_request_returns_headers_without_payload(boolean useSsl) {
+        // when
+        ExtractableResponse response = baseRequest(useSsl).when().head().then().extract();
+
+        // then
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.header(CONTENT_LENGTH)).isEqualTo(String.valueOf(FILE_LENGTH));
+        assertThat(response.asByteArray()).isEmpty();
+    }
+
+    public static class FileResponsesTestConfig implements ServerConfig {
+        private final Collection<Endpoint<?>> endpoints = singleton(new FileEndpoint());
+        private final boolean useSsl;
+        private final int port;
+
+        public FileResponsesTestConfig(boolean useSsl) {
+            this.useSsl = useSsl;
+            try {
+                port = ComponentTestUtils.findFreePort();
+            } catch (IOException e) {
+                throw new RuntimeException("Couldn't allocate port", e);
+            }
+        }
+
+        @Override
+        public Collection<Endpoint<?>> appEndpoints() {
+            return endpoints;
+        }
+
+        @Override
+        public boolean isEndpointsUseSsl() {
+            return useSsl;
+        }
+
+        @Override
+        public int endpointsPort() {
+            return port;
+        }
+
+        @Override
+        public int endpointsSslPort() {
+            return port;
+        }
+    }
+
+    public static class FileEndpoint extends StandardEndpoint<Void, Void> {
+
+        public static final String MATCHING_PATH = "/file";
+
+        @Override
+        public CompletableFuture<ResponseInfo<Void>> execute(RequestInfo<Void> request,
+                                                             Executor longRunningTaskExecutor,
+                                                             ChannelHandlerContext ctx) {
+            return CompletableFuture.completedFuture(ResponseInfo.newFileResponseBuilder(file).build());
+        }
+
+        @Override
+        public Matcher requestMatcher() {
+            return Matcher.match(MATCHING_PATH);
+        }
+    }
+}
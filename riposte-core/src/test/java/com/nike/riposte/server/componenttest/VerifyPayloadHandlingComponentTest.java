@@ -18,9 +18,13 @@ import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 
+import com.tngtech.java.junit.dataprovider.DataProvider;
+import com.tngtech.java.junit.dataprovider.DataProviderRunner;
+
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.junit.runner.RunWith;
 
 import java.io.IOException;
 import java.io.Serializable;
@@ -30,13 +34,19 @@ import java.util.Random;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.DefaultHttpHeaders;
 import io.netty.handler.codec.http.HttpMethod;
 import io.netty.util.CharsetUtil;
 import io.restassured.response.ExtractableResponse;
 
+import static io.netty.handler.codec.http.HttpHeaders.Names.ACCEPT_ENCODING;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_LENGTH;
 import static io.restassured.RestAssured.given;
 import static java.util.Collections.singleton;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -47,6 +57,7 @@ import static org.assertj.core.api.Assertions.assertThat;
  *
  * @author Nic Munroe
  */
+@RunWith(DataProviderRunner.class)
 public class VerifyPayloadHandlingComponentTest {
 
     private static final String RESPONSE_PAYLOAD_HASH_HEADER_KEY = "response-hash";
@@ -108,6 +119,62 @@ public class VerifyPayloadHandlingComponentTest {
         assertThat(actualHash).isEqualTo(expectedHash);
     }
 
+    @DataProvider(value = {
+        "identity",
+        "gzip"
+    })
+    @Test
+    public void verify_ByteBuf_response_payload_is_sent_as_is_and_released(String acceptEncoding) throws Exception {
+
+        ExtractableResponse response =
+            given()
+                .baseUri("http://127.0.0.1")
+                .port(serverConfig.endpointsPort())
+                .basePath(ByteBufPayloadReturner.MATCHING_PATH)
+                .header(ACCEPT_ENCODING, acceptEncoding)
+                .log().all()
+            .when()
+                .post()
+            .then()
+                .log().headers()
+                .statusCode(200)
+                .extract();
+
+        byte[] responsePayload = response.asByteArray();
+        String expectedHash = response.header(RESPONSE_PAYLOAD_HASH_HEADER_KEY);
+        String actualHash = getHashForPayload(responsePayload);
+        assertThat(actualHash).isEqualTo(expectedHash);
+
+        // The server owns the endpoint's ByteBuf and must release it once it has been written.
+        ByteBuf sentByteBuf = ByteBufPayloadReturner.lastResponsePayload.get();
+        long timeoutAt = System.currentTimeMillis() + 5000;
+        while (sentByteBuf.refCnt() > 0 && System.currentTimeMillis() < timeoutAt) {
+            Thread.sleep(10);
+        }
+        assertThat(sentByteBuf.refCnt()).isEqualTo(0);
+    }
+
+    @Test
+    public void verify_ByteBuf_response_payload_is_released_for_HEAD_request() throws Exception {
+
+        ExtractableResponse response =
+            given()
+                .baseUri("http://127.0.0.1")
+                .port(serverConfig.endpointsPort())
+                .basePath(ByteBufPayloadReturner.MATCHING_PATH)
+                .log().all()
+            .when()
+                .head()
+            .then()
+                .log().headers()
+                .statusCode(200)
+                .extract();
+
+        assertThat(response.asByteArray()).isEmpty();
+        assertThat(response.header(CONTENT_LENGTH)).isEqualTo(String.valueOf(ByteBufPayloadReturner.PAYLOAD_SIZE));
+        assertThat(ByteBufPayloadReturner.lastResponsePayload.get().refCnt()).isEqualTo(0);
+    }
+
     @Test
     public void verify_CharSequence_response_payload_is_sent_as_is_with_no_modifications() throws IOException, InterruptedException {
 
@@ -312,6 +379,7 @@ public class VerifyPayloadHandlingComponentTest {
 
             endpoints = Arrays.asList(
                 new ByteArrayPayloadReturner(),
+                new ByteBufPayloadReturner(),
                 new CharSequencePayloadReturner(),
                 new SerializableObjectPayloadReturner(),
                 new VoidTypeDeserializer(),
@@ -413,6 +481,41 @@ public class VerifyPayloadHandlingComponentTest {
         }
     }
 
+    public static class ByteBufPayloadReturner extends StandardEndpoint<String, ByteBuf> {
+
+        public static final String MATCHING_PATH = "/byteBuf";
+        public static final int PAYLOAD_SIZE = 15000;
+        public static final AtomicReference<ByteBuf> lastResponsePayload = new AtomicReference<>();
+
+        @Override
+        public CompletableFuture<ResponseInfo<ByteBuf>> execute(RequestInfo<String> request, Executor longRunningTaskExecutor, ChannelHandlerContext ctx) {
+            byte[] responsePayload = generateRandomBytes(PAYLOAD_SIZE);
+            String responsePayloadHash = getHashForPayload(responsePayload);
+
+            // Split the payload across several pooled buffers to make sure composite buffers are sent without copying.
+            CompositeByteBuf composite = ByteBufAllocator.DEFAULT.compositeBuffer();
+            int componentSize = PAYLOAD_SIZE / 3;
+            for (int offset = 0; offset < PAYLOAD_SIZE; offset += componentSize) {
+                int length = Math.min(componentSize, PAYLOAD_SIZE - offset);
+                composite.addComponent(ByteBufAllocator.DEFAULT.buffer(length).writeBytes(responsePayload, offset, length));
+            }
+            composite.writerIndex(PAYLOAD_SIZE);
+            lastResponsePayload.set(composite);
+
+            return CompletableFuture.completedFuture(
+                ResponseInfo.newBuilder((ByteBuf) composite)
+                            .withDesiredContentWriterMimeType("application/octet-stream")
+                            .withHeaders(new DefaultHttpHeaders().add(RESPONSE_PAYLOAD_HASH_HEADER_KEY, responsePayloadHash))
+                            .build()
+            );
+        }
+
+        @Override
+        public Matcher requestMatcher() {
+            return Matcher.match(MATCHING_PATH, HttpMethod.POST, HttpMethod.HEAD);
+        }
+    }
+
     public static class CharSequencePayloadReturner extends StandardEndpoint<String, CharSequence> {
 
         public static final String MATCHING_PATH = "/charSequence";
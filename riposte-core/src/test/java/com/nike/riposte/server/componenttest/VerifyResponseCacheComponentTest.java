@@ -0,0 +1,286 @@
+package com.nike.riposte.server.componenttest;
+
+import com.nike.riposte.server.Server;
+import com.nike.riposte.server.config.ServerConfig;
+import com.nike.riposte.server.http.Endpoint;
+import com.nike.riposte.server.http.RequestInfo;
+import com.nike.riposte.server.http.ResponseInfo;
+import com.nike.riposte.server.http.StandardEndpoint;
+import com.nike.riposte.server.http.cache.ResponseCache;
+import com.nike.riposte.server.http.cache.ResponseCachingOptions;
+import com.nike.riposte.server.http.filter.RequestAndResponseFilter;
+import com.nike.riposte.server.testutils.ComponentTestUtils;
+import com.nike.riposte.util.Matcher;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.restassured.config.DecoderConfig;
+import io.restassured.config.RestAssuredConfig;
+import io.restassured.response.ExtractableResponse;
+
+import static io.netty.handler.codec.http.HttpHeaders.Names.ACCEPT_ENCODING;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_ENCODING;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_LENGTH;
+import static io.netty.handler.codec.http.HttpHeaders.Names.VARY;
+import static io.restassured.RestAssured.given;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Verifies that endpoints which opt in to response caching via {@link Endpoint#responseCachingOptions()} are only
+ * executed once per cache key, and that cached responses are served correctly for GET and HEAD requests both with
+ * and without gzip.
+ */
+public class VerifyResponseCacheComponentTest {
+
+    private static Server server;
+    private static ResponseCacheTestConfig serverConfig;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        serverConfig = new ResponseCacheTestConfig();
+        server = new Server(serverConfig);
+        server.startup();
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Before
+    public void beforeMethod() {
+        serverConfig.responseCache.clear();
+        CachedEndpoint.executionCount.set(0);
+        RequestIdResponseFilter.filteredResponseCount.set(0);
+    }
+
+    private ExtractableResponse doRequest(HttpMethod method, String queryValue, String acceptEncoding) {
+        // RestAssured adds its own Accept-Encoding values unless we turn off its content decoders.
+        RestAssuredConfig config = ("gzip".equals(acceptEncoding))
+                                   ? RestAssuredConfig.config()
+                                   : RestAssuredConfig.config().decoderConfig(
+                                       DecoderConfig.decoderConfig().noContentDecoders()
+                                   );
+        return given()
+            .config(config)
+            .baseUri("http://127.0.0.1")
+            .port(serverConfig.endpointsPort())
+            .basePath(CachedEndpoint.MATCHING_PATH)
+            .queryParam("foo", queryValue)
+            .header(ACCEPT_ENCODING, acceptEncoding)
+            .log().all()
+            .when()
+            .request(method.name())
+            .then()
+            .log().headers()
+            .extract();
+    }
+
+    @Test
+    public void second_GET_request_is_served_from_the_cache_without_executing_the_endpoint() {
+        // when
+        ExtractableResponse first = doRequest(HttpMethod.GET, "bar", "identity");
+        ExtractableResponse second = doRequest(HttpMethod.GET, "bar", "identity");
+
+        // then
+        assertThat(first.statusCode()).isEqualTo(200);
+        assertThat(second.statusCode()).isEqualTo(200);
+        assertThat(second.asString()).isEqualTo(first.asString());
+        assertThat(second.asString()).isEqualTo(CachedEndpoint.expectedPayload("bar", 1));
+        assertThat(second.header(CONTENT_LENGTH)).isEqualTo(first.header(CONTENT_LENGTH));
+        assertThat(second.header(CachedEndpoint.CUSTOM_HEADER_KEY)).isEqualTo(CachedEndpoint.CUSTOM_HEADER_VALUE);
+        assertThat(first.headers().getValues(VARY)).contains(CachedEndpoint.VARY_HEADER_KEY);
+        assertThat(CachedEndpoint.executionCount.get()).isEqualTo(1);
+        assertThat(serverConfig.responseCache.getHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void cache_hits_do_not_replay_headers_added_by_response_filters() {
+        // when
+        ExtractableResponse first = doRequest(HttpMethod.GET, "bar", "identity");
+        ExtractableResponse second = doRequest(HttpMethod.GET, "bar", "identity");
+
+        // then
+        assertThat(first.headers().getValues(RequestIdResponseFilter.HEADER_KEY)).containsExactly("request-1");
+        assertThat(second.headers().getValues(RequestIdResponseFilter.HEADER_KEY)).containsExactly("request-2");
+        assertThat(second.header(CachedEndpoint.CUSTOM_HEADER_KEY)).isEqualTo(CachedEndpoint.CUSTOM_HEADER_VALUE);
+        assertThat(CachedEndpoint.executionCount.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void requests_with_different_query_params_are_cached_separately() {
+        // when
+        ExtractableResponse first = doRequest(HttpMethod.GET, "bar", "identity");
+        ExtractableResponse second = doRequest(HttpMethod.GET, "baz", "identity");
+
+        // then
+        assertThat(first.asString()).isEqualTo(CachedEndpoint.expectedPayload("bar", 1));
+        assertThat(second.asString()).isEqualTo(CachedEndpoint.expectedPayload("baz", 2));
+        assertThat(CachedEndpoint.executionCount.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void cached_gzip_variant_is_served_to_callers_that_accept_gzip() {
+        // given
+        doRequest(HttpMethod.GET, "bar", "identity");
+
+        // when
+        ExtractableResponse response = doRequest(HttpMethod.GET, "bar", "gzip");
+        ExtractableResponse identityResponse = doRequest(HttpMethod.GET, "bar", "identity");
+
+        // then
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.header(CONTENT_ENCODING)).isEqualTo("gzip");
+        assertThat(response.headers().getValues(VARY))
+            .containsExactly(CachedEndpoint.VARY_HEADER_KEY, ACCEPT_ENCODING);
+        assertThat(identityResponse.header(CONTENT_ENCODING)).isNull();
+        assertThat(identityResponse.headers().getValues(VARY))
+            .containsExactly(CachedEndpoint.VARY_HEADER_KEY, ACCEPT_ENCODING);
+        // RestAssured transparently decompresses the payload for us.
+        assertThat(response.asString()).isEqualTo(CachedEndpoint.expectedPayload("bar", 1));
+        assertThat(CachedEndpoint.executionCount.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void HEAD_request_is_served_from_the_cache_without_a_payload() {
+        // given
+        ExtractableResponse getResponse = doRequest(HttpMethod.GET, "bar", "identity");
+
+        // when
+        ExtractableResponse headResponse = doRequest(HttpMethod.HEAD, "bar", "identity");
+
+        // then
+        assertThat(headResponse.statusCode()).isEqualTo(200);
+        assertThat(headResponse.asString()).isEmpty();
+        assertThat(headResponse.header(CONTENT_LENGTH)).isEqualTo(getResponse.header(CONTENT_LENGTH));
+        assertThat(CachedEndpoint.executionCount.get()).isEqualTo(1);
+    }
+
+    public static class ResponseCacheTestConfig implements ServerConfig {
+        private final Collection<Endpoint<?>> endpoints = singleton(new CachedEndpoint());
+        // Compress gzip variants on the event loop so they're ready for the very next request.
+        private final ResponseCache responseCache = new ResponseCache(
+            ResponseCache.DEFAULT_MAX_ENTRIES, ResponseCache.DEFAULT_MAX_TOTAL_BYTES, Runnable::run
+        );
+        private final List<RequestAndResponseFilter> requestAndResponseFilters =
+            singletonList(new RequestIdResponseFilter());
+        private final int port;
+
+        public ResponseCacheTestConfig() {
+            try {
+                port = ComponentTestUtils.findFreePort();
+            } catch (IOException e) {
+                throw new RuntimeException("Couldn't allocate port", e);
+            }
+        }
+
+        @Override
+        public Collection<Endpoint<?>> appEndpoints() {
+            return endpoints;
+        }
+
+        @Override
+        public ResponseCache responseCache() {
+            return responseCache;
+        }
+
+        @Override
+        public List<RequestAndResponseFilter> requestAndResponseFilters() {
+            return requestAndResponseFilters;
+        }
+
+        @Override
+        public int endpointsPort() {
+            return port;
+        }
+    }
+
+    public static class CachedEndpoint extends StandardEndpoint<Void, String> {
+
+        public static final String MATCHING_PATH = "/cached";
+        public static final String CUSTOM_HEADER_KEY = "X-Custom-Header";
+        public static final String CUSTOM_HEADER_VALUE = "custom-value";
+        public static final String VARY_HEADER_KEY = "X-Tenant";
+        public static final AtomicInteger executionCount = new AtomicInteger(0);
+
+        private static final ResponseCachingOptions CACHING_OPTIONS =
+            new ResponseCachingOptions(60_000, Collections.singletonList(VARY_HEADER_KEY), true);
+
+        public static String expectedPayload(String queryValue, int executionNumber) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 100; i++) {
+                sb.append("cached-payload-").append(queryValue).append('-').append(executionNumber).append('\n');
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public CompletableFuture<ResponseInfo<String>> execute(RequestInfo<Void> request,
+                                                               Executor longRunningTaskExecutor,
+                                                               ChannelHandlerContext ctx) {
+            int executionNumber = executionCount.incrementAndGet();
+            String payload = expectedPayload(request.getQueryParamSingle("foo"), executionNumber);
+            return CompletableFuture.completedFuture(
+                ResponseInfo.newBuilder(payload)
+                            .withHeaders(new DefaultHttpHeaders()
+                                             .set(CUSTOM_HEADER_KEY, CUSTOM_HEADER_VALUE))
+                            .withDesiredContentWriterMimeType("text/plain")
+                            .build()
+            );
+        }
+
+        @Override
+        public Matcher requestMatcher() {
+            return Matcher.match(MATCHING_PATH, HttpMethod.GET, HttpMethod.HEAD);
+        }
+
+        @Override
+        public ResponseCachingOptions responseCachingOptions() {
+            return CACHING_OPTIONS;
+        }
+    }
+
+    /**
+     * Adds a header that's different for every response, like a request ID would be.
+     */
+    public static class RequestIdResponseFilter implements RequestAndResponseFilter {
+
+        public static final String HEADER_KEY = "X-Request-Id";
+        public static final AtomicInteger filteredResponseCount = new AtomicInteger(0);
+
+        @Override
+        public <T> RequestInfo<T> filterRequestFirstChunkNoPayload(RequestInfo<T> currentRequestInfo,
+                                                                   ChannelHandlerContext ctx) {
+            return currentRequestInfo;
+        }
+
+        @Override
+        public <T> RequestInfo<T> filterRequestLastChunkWithFullPayload(RequestInfo<T> currentRequestInfo,
+                                                                        ChannelHandlerContext ctx) {
+            return currentRequestInfo;
+        }
+
+        @Override
+        public <T> ResponseInfo<T> filterResponse(ResponseInfo<T> currentResponseInfo, RequestInfo<?> requestInfo,
+                                                  ChannelHandlerContext ctx) {
+            currentResponseInfo.getHeaders().add(HEADER_KEY, "request-" + filteredResponseCount.incrementAndGet());
+            return currentResponseInfo;
+        }
+    }
+}
@@ -4,6 +4,7 @@ import com.nike.riposte.server.Server;
 import com.nike.riposte.server.config.ServerConfig;
 import com.nike.riposte.server.http.Endpoint;
 import com.nike.riposte.server.http.RequestInfo;
+import com.nike.riposte.server.http.ResponseChunkPublisher;
 import com.nike.riposte.server.http.ResponseInfo;
 import com.nike.riposte.server.http.StandardEndpoint;
 import com.nike.riposte.server.testutils.ComponentTestUtils;
@@ -21,20 +22,24 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.util.CharsetUtil;
 
 import static com.nike.riposte.server.testutils.ComponentTestUtils.generatePayload;
 import static com.nike.riposte.server.testutils.ComponentTestUtils.request;
 import static io.netty.handler.codec.http.HttpHeaders.Names.ACCEPT_ENCODING;
 import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_ENCODING;
-import static java.util.Collections.singletonList;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_LENGTH;
 import static org.assertj.core.api.Assertions.assertThat;
 
 /**
@@ -136,6 +141,52 @@ public class VerifySmartHttpContentCompressorComponentTest {
 
     }
 
+    @DataProvider(value = {
+        "GZIP       |   499     |   false   |   false",
+        "GZIP       |   500     |   false   |   false",
+        "GZIP       |   501     |   false   |   true",
+        "GZIP       |   499     |   true    |   true",
+        "DEFLATE    |   499     |   true    |   true",
+        "IDENTITY   |   499     |   true    |   false",
+        "GZIP       |   5000    |   true    |   true",
+        "DEFLATE    |   5000    |   true    |   true",
+        "IDENTITY   |   5000    |   true    |   false"
+    }, splitBy = "\\|")
+    @Test
+    public void streamed_response_should_be_compressed_based_on_declared_length_and_accept_encoding_header(
+        CompressionType compressionType, int uncompressedPayloadSize, boolean unknownLength, boolean expectCompressed
+    ) throws Exception {
+        // given
+        NettyHttpClientRequestBuilder request = request()
+            .withMethod(HttpMethod.GET)
+            .withUri(StreamingEndpoint.MATCHING_PATH)
+            .withHeader(ACCEPT_ENCODING, compressionType.contentEncodingHeaderValue)
+            .withHeader(BasicEndpoint.DESIRED_UNCOMPRESSED_PAYLOAD_SIZE_HEADER_KEY, uncompressedPayloadSize)
+            .withHeader(StreamingEndpoint.UNKNOWN_LENGTH_HEADER_KEY, unknownLength);
+
+        // when
+        NettyHttpClientResponse serverResponse = request.execute(serverConfig.endpointsPort(),
+                                                                 incompleteCallTimeoutMillis);
+
+        // then
+        assertThat(serverResponse.statusCode).isEqualTo(HttpResponseStatus.OK.code());
+
+        String contentEncodingHeader = serverResponse.headers.get(CONTENT_ENCODING);
+        String decompressedPayload;
+
+        if (expectCompressed) {
+            assertThat(contentEncodingHeader).isEqualTo(compressionType.contentEncodingHeaderValue);
+            decompressedPayload = compressionType.decompress(serverResponse.payloadBytes);
+        }
+        else {
+            assertThat(contentEncodingHeader).isNull();
+            decompressedPayload = serverResponse.payload;
+        }
+
+        assertThat(decompressedPayload).hasSize(uncompressedPayloadSize);
+        assertThat(decompressedPayload).startsWith(StreamingEndpoint.RESPONSE_PAYLOAD_PREFIX);
+    }
+
     private static String generatePayloadOfSizeInBytes(String prefix, int length) {
         return prefix + generatePayload(length - prefix.length());
     }
@@ -168,8 +219,60 @@ public class VerifySmartHttpContentCompressorComponentTest {
         }
     }
 
+    private static class StreamingEndpoint extends StandardEndpoint<Void, Void> {
+
+        public static final String MATCHING_PATH = "/streamingEndpoint";
+        public static final String RESPONSE_PAYLOAD_PREFIX = "streaming-endpoint-" + UUID.randomUUID().toString();
+        public static final String UNKNOWN_LENGTH_HEADER_KEY = "unknown-length";
+        public static final int CHUNK_SIZE = 100;
+
+        @Override
+        public CompletableFuture<ResponseInfo<Void>> execute(RequestInfo<Void> request,
+                                                             Executor longRunningTaskExecutor,
+                                                             ChannelHandlerContext ctx) {
+            int payloadSize =
+                Integer.parseInt(request.getHeaders().get(BasicEndpoint.DESIRED_UNCOMPRESSED_PAYLOAD_SIZE_HEADER_KEY));
+            boolean unknownLength = "true".equals(request.getHeaders().get(UNKNOWN_LENGTH_HEADER_KEY));
+            ByteBuf payload = Unpooled.copiedBuffer(
+                generatePayloadOfSizeInBytes(RESPONSE_PAYLOAD_PREFIX, payloadSize), CharsetUtil.UTF_8
+            );
+
+            ResponseChunkPublisher publisher = new ResponseChunkPublisher() {
+                @Override
+                public CompletableFuture<ByteBuf> nextChunk() {
+                    if (!payload.isReadable()) {
+                        payload.release();
+                        return CompletableFuture.completedFuture(null);
+                    }
+
+                    ByteBuf chunk = payload.readBytes(Math.min(CHUNK_SIZE, payload.readableBytes()));
+                    return CompletableFuture.supplyAsync(() -> chunk, longRunningTaskExecutor);
+                }
+
+                @Override
+                public void cancel(Throwable reason) {
+                    if (payload.refCnt() > 0)
+                        payload.release();
+                }
+            };
+
+            ResponseInfo<Void> responseInfo = ResponseInfo.newChunkedResponseBuilder()
+                                                          .withResponseChunkPublisher(publisher)
+                                                          .build();
+            if (!unknownLength)
+                responseInfo.getHeaders().set(CONTENT_LENGTH, payloadSize);
+
+            return CompletableFuture.completedFuture(responseInfo);
+        }
+
+        @Override
+        public Matcher requestMatcher() {
+            return Matcher.match(MATCHING_PATH, HttpMethod.GET);
+        }
+    }
+
     public static class ResponsePayloadCompressionServerConfig implements ServerConfig {
-        private final Collection<Endpoint<?>> endpoints = singletonList(new BasicEndpoint());
+        private final Collection<Endpoint<?>> endpoints = Arrays.asList(new BasicEndpoint(), new StreamingEndpoint());
 
         private final int port;
 
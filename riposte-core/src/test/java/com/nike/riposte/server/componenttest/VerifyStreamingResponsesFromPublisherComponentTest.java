@@ -0,0 +1,296 @@
+package com.nike.riposte.server.componenttest;
+
+import com.nike.riposte.server.Server;
+import com.nike.riposte.server.config.ServerConfig;
+import com.nike.riposte.server.http.Endpoint;
+import com.nike.riposte.server.http.RequestInfo;
+import com.nike.riposte.server.http.ResponseChunkPublisher;
+import com.nike.riposte.server.http.ResponseInfo;
+import com.nike.riposte.server.http.StandardEndpoint;
+import com.nike.riposte.server.testutils.ComponentTestUtils;
+import com.nike.riposte.util.Matcher;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.CharsetUtil;
+import io.restassured.response.ExtractableResponse;
+
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_TYPE;
+import static io.netty.handler.codec.http.HttpHeaders.Names.TRANSFER_ENCODING;
+import static io.restassured.RestAssured.given;
+import static java.util.Collections.singleton;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * Verifies that {@link com.nike.riposte.server.http.NonblockingEndpoint}s can stream responses by returning a {@link
+ * com.nike.riposte.server.http.impl.ChunkedResponseInfo} with a {@link ResponseChunkPublisher}, and that the publisher
+ * is only pulled from as fast as the caller can consume the response.
+ */
+public class VerifyStreamingResponsesFromPublisherComponentTest {
+
+    private static Server server;
+    private static ServerConfig serverConfig;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        serverConfig = new StreamingResponsesTestConfig();
+        server = new Server(serverConfig);
+        server.startup();
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    private ExtractableResponse callStreamingEndpoint(int numChunks, int chunkSize, Integer failAfterChunk) {
+        return given()
+                .baseUri("http://127.0.0.1")
+                .port(serverConfig.endpointsPort())
+                .basePath(StreamingEndpoint.MATCHING_PATH)
+                .queryParam("numChunks", numChunks)
+                .queryParam("chunkSize", chunkSize)
+                .queryParam("failAfterChunk", (failAfterChunk == null) ? -1 : failAfterChunk)
+            .when()
+                .get()
+            .then()
+                .extract();
+    }
+
+    @Test
+    public void streaming_endpoint_sends_all_chunks_from_publisher() {
+        // given
+        int numChunks = 100;
+        int chunkSize = 1000;
+
+        // when
+        ExtractableResponse response = callStreamingEndpoint(numChunks, chunkSize, null);
+
+        // then
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.header(TRANSFER_ENCODING)).isEqualToIgnoringCase("chunked");
+        assertThat(response.header(CONTENT_TYPE)).isEqualTo("text/plain; charset=UTF-8");
+        assertThat(response.asString()).isEqualTo(CountingPublisher.expectedPayload(numChunks, chunkSize));
+        CountingPublisher publisher = StreamingEndpoint.lastPublisher.get();
+        assertThat(publisher.chunksPublished.get()).isEqualTo(numChunks);
+        assertThat(publisher.cancelReason.get()).isNull();
+    }
+
+    @Test
+    public void streaming_endpoint_works_with_empty_payload() {
+        // when
+        ExtractableResponse response = callStreamingEndpoint(0, 1000, null);
+
+        // then
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.asString()).isEmpty();
+    }
+
+    @Test
+    public void streaming_endpoint_does_not_pull_from_publisher_for_HEAD_request() throws InterruptedException {
+        // when
+        ExtractableResponse response =
+            given()
+                .baseUri("http://127.0.0.1")
+                .port(serverConfig.endpointsPort())
+                .basePath(StreamingEndpoint.MATCHING_PATH)
+                .queryParam("numChunks", 10)
+                .queryParam("chunkSize", 1000)
+            .when()
+                .head()
+            .then()
+                .extract();
+
+        // then
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.asString()).isEmpty();
+        // The response headers are flushed before the publisher is cancelled, so wait for the cancel to happen.
+        CountingPublisher publisher = StreamingEndpoint.lastPublisher.get();
+        assertThat(publisher.cancelled.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(publisher.chunksPublished.get()).isEqualTo(0);
+        assertThat(publisher.cancelReason.get()).isNotNull();
+    }
+
+    @Test
+    public void streaming_endpoint_closes_connection_if_publisher_fails_mid_stream() {
+        // when
+        Throwable ex = catchThrowable(() -> callStreamingEndpoint(10, 1000, 5).asString());
+
+        // then
+        assertThat(ex).isNotNull();
+        CountingPublisher publisher = StreamingEndpoint.lastPublisher.get();
+        assertThat(publisher.cancelReason.get()).hasMessage("intentional test failure");
+    }
+
+    @Test
+    public void streaming_endpoint_stops_pulling_from_publisher_when_caller_stops_reading() throws Exception {
+        // given
+        int numChunks = 10000;
+        int chunkSize = 16 * 1024;
+        StreamingEndpoint.lastPublisher.set(null);
+
+        try (Socket socket = new Socket()) {
+            socket.setReceiveBufferSize(4096);
+            socket.connect(new InetSocketAddress("127.0.0.1", serverConfig.endpointsPort()));
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET " + StreamingEndpoint.MATCHING_PATH + "?numChunks=" + numChunks + "&chunkSize=" + chunkSize
+                       + " HTTP/1.1\r\nHost: 127.0.0.1\r\n\r\n").getBytes(CharsetUtil.US_ASCII));
+            out.flush();
+
+            // Read the start of the response so we know streaming has begun, then stop reading.
+            InputStream in = socket.getInputStream();
+            assertThat(in.read()).isNotEqualTo(-1);
+
+            // when
+            Thread.sleep(1000);
+
+            // then
+            CountingPublisher publisher = StreamingEndpoint.lastPublisher.get();
+            int chunksPublishedWhileCallerWasNotReading = publisher.chunksPublished.get();
+            Thread.sleep(250);
+            assertThat(publisher.chunksPublished.get()).isEqualTo(chunksPublishedWhileCallerWasNotReading);
+            assertThat(chunksPublishedWhileCallerWasNotReading).isLessThan(numChunks);
+        }
+
+        // and when the caller goes away, the publisher is cancelled.
+        CountingPublisher publisher = StreamingEndpoint.lastPublisher.get();
+        assertThat(publisher.cancelled.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(publisher.cancelReason.get()).isNotNull();
+        assertThat(publisher.chunksPublished.get()).isLessThan(numChunks);
+    }
+
+    public static class StreamingResponsesTestConfig implements ServerConfig {
+        private final Collection<Endpoint<?>> endpoints = singleton(new StreamingEndpoint());
+        private final int port;
+
+        public StreamingResponsesTestConfig() {
+            try {
+                port = ComponentTestUtils.findFreePort();
+            } catch (IOException e) {
+                throw new RuntimeException("Couldn't allocate port", e);
+            }
+        }
+
+        @Override
+        public Collection<Endpoint<?>> appEndpoints() {
+            return endpoints;
+        }
+
+        @Override
+        public int endpointsPort() {
+            return port;
+        }
+    }
+
+    public static class StreamingEndpoint extends StandardEndpoint<Void, Void> {
+
+        public static final String MATCHING_PATH = "/streaming";
+        public static final AtomicReference<CountingPublisher> lastPublisher = new AtomicReference<>();
+
+        @Override
+        public CompletableFuture<ResponseInfo<Void>> execute(RequestInfo<Void> request,
+                                                             Executor longRunningTaskExecutor,
+                                                             ChannelHandlerContext ctx) {
+            CountingPublisher publisher = new CountingPublisher(
+                Integer.parseInt(request.getQueryParamSingle("numChunks")),
+                Integer.parseInt(request.getQueryParamSingle("chunkSize")),
+                (request.getQueryParamSingle("failAfterChunk") == null)
+                ? -1
+                : Integer.parseInt(request.getQueryParamSingle("failAfterChunk")),
+                longRunningTaskExecutor
+            );
+            lastPublisher.set(publisher);
+
+            return CompletableFuture.completedFuture(
+                ResponseInfo.newChunkedResponseBuilder()
+                            .withDesiredContentWriterMimeType("text/plain")
+                            .withResponseChunkPublisher(publisher)
+                            .build()
+            );
+        }
+
+        @Override
+        public Matcher requestMatcher() {
+            return Matcher.match(MATCHING_PATH);
+        }
+    }
+
+    public static class CountingPublisher implements ResponseChunkPublisher {
+
+        private final int numChunks;
+        private final int chunkSize;
+        private final int failAfterChunk;
+        private final Executor executor;
+        public final AtomicInteger chunksPublished = new AtomicInteger(0);
+        public final AtomicReference<Throwable> cancelReason = new AtomicReference<>();
+        public final CountDownLatch cancelled = new CountDownLatch(1);
+
+        public CountingPublisher(int numChunks, int chunkSize, int failAfterChunk, Executor executor) {
+            this.numChunks = numChunks;
+            this.chunkSize = chunkSize;
+            this.failAfterChunk = failAfterChunk;
+            this.executor = executor;
+        }
+
+        public static String expectedPayload(int numChunks, int chunkSize) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < numChunks; i++) {
+                sb.append(chunkString(i, chunkSize));
+            }
+            return sb.toString();
+        }
+
+        private static String chunkString(int chunkIndex, int chunkSize) {
+            char[] chars = new char[chunkSize];
+            Arrays.fill(chars, (char) ('a' + (chunkIndex % 26)));
+            return new String(chars);
+        }
+
+        @Override
+        public CompletableFuture<ByteBuf> nextChunk() {
+            int chunkIndex = chunksPublished.get();
+            if (chunkIndex >= numChunks)
+                return CompletableFuture.completedFuture(null);
+
+            if (chunkIndex == failAfterChunk) {
+                CompletableFuture<ByteBuf> failure = new CompletableFuture<>();
+                failure.completeExceptionally(new RuntimeException("intentional test failure"));
+                return failure;
+            }
+
+            chunksPublished.incrementAndGet();
+            ByteBuf chunk = Unpooled.copiedBuffer(chunkString(chunkIndex, chunkSize), CharsetUtil.UTF_8);
+            // Alternate between completing on another thread and completing immediately to exercise both paths.
+            if (chunkIndex % 2 == 0)
+                return CompletableFuture.supplyAsync(() -> chunk, executor);
+
+            return CompletableFuture.completedFuture(chunk);
+        }
+
+        @Override
+        public void cancel(Throwable reason) {
+            cancelReason.compareAndSet(null, reason);
+            cancelled.countDown();
+        }
+    }
+}
@@ -1,8 +1,10 @@
 package com.nike.riposte.server.handler;
 
+import com.nike.riposte.client.asynchttp.netty.StreamingAsyncHttpClient.StreamingChannel;
 import com.nike.riposte.metrics.MetricsListener;
 import com.nike.riposte.server.channelpipeline.ChannelAttributes;
 import com.nike.riposte.server.channelpipeline.message.LastOutboundMessage;
+import com.nike.riposte.server.error.exception.CallerDisconnectedException;
 import com.nike.riposte.server.error.handler.ErrorResponseBody;
 import com.nike.riposte.server.handler.base.PipelineContinuationBehavior;
 import com.nike.riposte.server.http.HttpProcessingState;
@@ -11,7 +13,9 @@ import com.nike.riposte.server.http.RequestInfo;
 import com.nike.riposte.server.http.ResponseInfo;
 import com.nike.riposte.server.http.ResponseSender;
 import com.nike.riposte.server.logging.AccessLogger;
+import com.nike.riposte.server.metrics.RequestCancellationMetrics;
 import com.nike.riposte.server.metrics.ServerMetricsEvent;
+import com.nike.riposte.util.CancellableTaskExecutor;
 import com.nike.wingtips.Span;
 import com.nike.wingtips.Tracer;
 
@@ -29,6 +33,7 @@ import org.slf4j.Logger;
 
 import java.util.Deque;
 import java.util.LinkedList;
+import java.util.concurrent.CompletableFuture;
 
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
@@ -46,6 +51,8 @@ import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyObject;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
@@ -401,6 +408,75 @@ public class ChannelPipelineFinalizerHandlerTest {
         Assertions.assertThat(result).isEqualTo(PipelineContinuationBehavior.CONTINUE);
     }
 
+    @DataProvider(value = {
+        "true",
+        "false"
+    })
+    @Test
+    public void doChannelInactive_cancels_outstanding_endpoint_work_if_caller_disconnects_before_response_is_sent(
+        boolean preEndpointWorkDone
+    ) throws Exception {
+        // given
+        RequestCancellationMetrics cancellationMetricsMock = mock(RequestCancellationMetrics.class);
+        Whitebox.setInternalState(handler, "requestCancellationMetrics", cancellationMetricsMock);
+        doReturn(false).when(responseInfoMock).isResponseSendingLastChunkSent();
+        if (!preEndpointWorkDone)
+            state.addPreEndpointExecutionWorkChainSegment(aVoid -> new CompletableFuture<>());
+        CompletableFuture<?> endpointFuture = new CompletableFuture<>();
+        CancellableTaskExecutor taskExecutorMock = mock(CancellableTaskExecutor.class);
+        doReturn(new int[]{2, 1}).when(taskExecutorMock).cancelAll();
+        state.setEndpointExecution(endpointFuture, taskExecutorMock);
+        CompletableFuture<StreamingChannel> streamingChannelFuture = new CompletableFuture<>();
+        doReturn(streamingChannelFuture).when(proxyRouterStateMock).getStreamingChannelCompletableFuture();
+        StreamingChannel streamingChannelMock = mock(StreamingChannel.class);
+        doReturn(true).when(streamingChannelMock).isDownstreamCallActive();
+
+        // when
+        PipelineContinuationBehavior result = handler.doChannelInactive(ctxMock);
+
+        // then
+        Assertions.assertThat(endpointFuture).isCompletedExceptionally();
+        Throwable cause = Assertions.catchThrowable(endpointFuture::join);
+        Assertions.assertThat(cause.getCause()).isInstanceOf(CallerDisconnectedException.class);
+        verify(taskExecutorMock).cancelAll();
+        verify(cancellationMetricsMock).recordCancelledRequest(!preEndpointWorkDone, 2, 1);
+        verify(proxyRouterStateMock).cancelDownstreamRequest(any(CallerDisconnectedException.class));
+        Assertions.assertThat(result).isEqualTo(PipelineContinuationBehavior.CONTINUE);
+
+        // and when
+        streamingChannelFuture.complete(streamingChannelMock);
+
+        // then
+        verify(cancellationMetricsMock).recordCancelledDownstreamCall();
+    }
+
+    @DataProvider(value = {
+        "true   |   false",
+        "false  |   true"
+    }, splitBy = "\\|")
+    @Test
+    public void doChannelInactive_does_not_cancel_endpoint_work_if_response_was_sent_or_endpoint_work_is_done(
+        boolean responseSendingCompleted, boolean endpointFutureDone
+    ) throws Exception {
+        // given
+        RequestCancellationMetrics cancellationMetricsMock = mock(RequestCancellationMetrics.class);
+        Whitebox.setInternalState(handler, "requestCancellationMetrics", cancellationMetricsMock);
+        doReturn(responseSendingCompleted).when(responseInfoMock).isResponseSendingLastChunkSent();
+        CompletableFuture<?> endpointFuture = (endpointFutureDone)
+                                              ? CompletableFuture.completedFuture(null)
+                                              : new CompletableFuture<>();
+        CancellableTaskExecutor taskExecutorMock = mock(CancellableTaskExecutor.class);
+        state.setEndpointExecution(endpointFuture, taskExecutorMock);
+
+        // when
+        handler.doChannelInactive(ctxMock);
+
+        // then
+        Assertions.assertThat(endpointFuture.isCompletedExceptionally()).isFalse();
+        verify(taskExecutorMock, never()).cancelAll();
+        verify(cancellationMetricsMock, never()).recordCancelledRequest(anyBoolean(), anyInt(), anyInt());
+    }
+
     @DataProvider(value = {
         "true",
         "false"
@@ -2,15 +2,21 @@ package com.nike.riposte.server.handler;
 
 import com.nike.riposte.server.channelpipeline.ChannelAttributes;
 import com.nike.riposte.server.channelpipeline.message.LastOutboundMessageSendFullResponseInfo;
+import com.nike.riposte.server.channelpipeline.message.OutboundMessageSendHeadersChunkFromResponseInfo;
+import com.nike.riposte.server.error.exception.RequestDeadlineExceededException;
 import com.nike.riposte.server.handler.base.PipelineContinuationBehavior;
 import com.nike.riposte.server.http.Endpoint;
 import com.nike.riposte.server.http.HttpProcessingState;
 import com.nike.riposte.server.http.NonblockingEndpoint;
 import com.nike.riposte.server.http.ProxyRouterProcessingState;
+import com.nike.riposte.server.http.RequestDeadline;
 import com.nike.riposte.server.http.RequestInfo;
+import com.nike.riposte.server.http.ResponseChunkPublisher;
 import com.nike.riposte.server.http.ResponseInfo;
 import com.nike.riposte.server.http.StandardEndpoint;
+import com.nike.riposte.server.http.cache.EntityTagGenerator;
 import com.nike.riposte.server.http.impl.RequestInfoImpl;
+import com.nike.riposte.util.CancellableTaskExecutor;
 import com.nike.riposte.util.asynchelperwrapper.BiConsumerWithTracingAndMdcSupport;
 import com.nike.riposte.util.asynchelperwrapper.RunnableWithTracingAndMdcSupport;
 
@@ -25,15 +31,24 @@ import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.EventLoop;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.LastHttpContent;
 import io.netty.util.Attribute;
+import io.netty.util.CharsetUtil;
 import io.netty.util.concurrent.EventExecutor;
 import io.netty.util.concurrent.ScheduledFuture;
 
+import static io.netty.handler.codec.http.HttpHeaders.Names.ETAG;
+import static io.netty.handler.codec.http.HttpHeaders.Names.IF_NONE_MATCH;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doAnswer;
@@ -135,7 +150,14 @@ public class NonblockingEndpointExecutionHandlerTest {
         PipelineContinuationBehavior result = handlerSpy.doChannelRead(ctxMock, msg);
 
         // then
-        verify(endpointMock).execute(requestInfo, longRunningTaskExecutorMock, ctxMock);
+        ArgumentCaptor<Executor> executorArgCaptor = ArgumentCaptor.forClass(Executor.class);
+        verify(endpointMock).execute(eq(requestInfo), executorArgCaptor.capture(), eq(ctxMock));
+        assertThat(executorArgCaptor.getValue()).isInstanceOf(CancellableTaskExecutor.class);
+        assertThat(((CancellableTaskExecutor) executorArgCaptor.getValue()).getDelegate())
+            .isSameAs(longRunningTaskExecutorMock);
+        verify(stateMock).setEndpointExecution(
+            futureThatWillBeAttachedToSpy, (CancellableTaskExecutor) executorArgCaptor.getValue()
+        );
         // The 2nd whenComplete is for cancelling the timeout check if the response finishes before the timeout
         verify(futureThatWillBeAttachedToSpy, times(2)).whenComplete(any(BiConsumerWithTracingAndMdcSupport.class));
         verify(eventLoopMock).schedule(any(RunnableWithTracingAndMdcSupport.class), any(Long.class), eq(TimeUnit.MILLISECONDS));
@@ -212,6 +234,39 @@ public class NonblockingEndpointExecutionHandlerTest {
         verify(eventLoopMock).schedule(any(RunnableWithTracingAndMdcSupport.class), eq(endpointValue), eq(TimeUnit.MILLISECONDS));
     }
 
+    @Test
+    public void doChannelRead_caps_timeout_at_time_left_before_request_deadline() throws Exception {
+        // given
+        long remainingMillis = defaultCompletableFutureTimeoutMillis / 2;
+        RequestDeadline deadline = new RequestDeadline(
+            System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(remainingMillis), 5, null
+        );
+        doReturn(deadline).when(stateMock).getRequestDeadline();
+
+        // when
+        handlerSpy.doChannelRead(ctxMock, msg);
+
+        // then
+        ArgumentCaptor<Long> timeoutCaptor = ArgumentCaptor.forClass(Long.class);
+        verify(eventLoopMock).schedule(any(RunnableWithTracingAndMdcSupport.class), timeoutCaptor.capture(), eq(TimeUnit.MILLISECONDS));
+        assertThat(timeoutCaptor.getValue()).isBetween(1L, remainingMillis);
+    }
+
+    @Test
+    public void doChannelRead_fails_fast_without_executing_endpoint_if_request_deadline_is_too_close() throws Exception {
+        // given
+        doReturn(new RequestDeadline(System.nanoTime(), 5, null)).when(stateMock).getRequestDeadline();
+
+        // when
+        handlerSpy.doChannelRead(ctxMock, msg);
+
+        // then
+        verify(endpointMock, never()).execute(any(RequestInfo.class), any(Executor.class), any(ChannelHandlerContext.class));
+        assertThat(futureThatWillBeAttachedToSpy).isCompletedExceptionally();
+        Throwable ex = catchThrowable(futureThatWillBeAttachedToSpy::join);
+        assertThat(ex.getCause()).isInstanceOf(RequestDeadlineExceededException.class);
+    }
+
     private BiConsumer<ResponseInfo<?>, Throwable> extractContinuationLogic() throws Exception {
         handlerSpy.doChannelRead(ctxMock, msg);
         ArgumentCaptor<BiConsumer> completionLogicArgumentCaptor = ArgumentCaptor.forClass(BiConsumer.class);
@@ -402,7 +457,7 @@ public class NonblockingEndpointExecutionHandlerTest {
     }
 
     @Test
-    public void asyncCallback_calls_asyncErrorCallback_if_responseInfo_is_chunked() {
+    public void asyncCallback_calls_asyncErrorCallback_if_responseInfo_is_chunked_without_a_publisher() {
         // given
         ResponseInfo<?> responseInfo = ResponseInfo.newChunkedResponseBuilder().build();
 
@@ -417,11 +472,47 @@ public class NonblockingEndpointExecutionHandlerTest {
         ArgumentCaptor<Throwable> exceptionArgCaptor = ArgumentCaptor.forClass(Throwable.class);
         verify(handlerSpy).asyncErrorCallback(eq(ctxMock), exceptionArgCaptor.capture());
         Throwable exArg = exceptionArgCaptor.getValue();
-        assertThat(exArg).hasMessage("NonblockingEndpoint execution resulted in a chunked ResponseInfo, when only full "
-                                     + "ResponseInfos are allowed. offending_endpoint_class=" +
+        assertThat(exArg).hasMessage("NonblockingEndpoint execution resulted in a chunked ResponseInfo without a "
+                                     + "ResponseChunkPublisher, when only full ResponseInfos or chunked ResponseInfos "
+                                     + "with a ResponseChunkPublisher are allowed. offending_endpoint_class=" +
                                      stateMock.getEndpointForExecution().getClass().getName());
     }
 
+    @Test
+    public void asyncCallback_calls_setResponseInfoAndActivatePipelineForResponse_if_responseInfo_is_chunked_with_a_publisher() {
+        // given
+        ResponseInfo<?> responseInfo = ResponseInfo.newChunkedResponseBuilder()
+                                                   .withResponseChunkPublisher(mock(ResponseChunkPublisher.class))
+                                                   .build();
+
+        // when
+        handlerSpy.asyncCallback(ctxMock, responseInfo);
+
+        // then
+        verify(handlerSpy).setResponseInfoAndActivatePipelineForResponse(stateMock, responseInfo, ctxMock);
+        verify(handlerSpy, never()).asyncErrorCallback(any(ChannelHandlerContext.class), any(Throwable.class));
+    }
+
+    @Test
+    public void asyncCallback_cancels_publisher_if_channel_is_inactive() {
+        // given
+        ResponseChunkPublisher publisherMock = mock(ResponseChunkPublisher.class);
+        ResponseInfo<?> responseInfo = ResponseInfo.newChunkedResponseBuilder()
+                                                   .withResponseChunkPublisher(publisherMock)
+                                                   .build();
+        doReturn(false).when(channelMock).isActive();
+
+        // when
+        handlerSpy.asyncCallback(ctxMock, responseInfo);
+
+        // then
+        verify(handlerSpy, never()).setResponseInfoAndActivatePipelineForResponse(
+            any(HttpProcessingState.class), any(ResponseInfo.class), any(ChannelHandlerContext.class)
+        );
+        verify(publisherMock).cancel(any(Throwable.class));
+        verify(publisherMock, never()).nextChunk();
+    }
+
     @Test
     public void setResponseInfoAndActivatePipelineForResponse_sets_responseInfo_on_state_and_fires_channelRead_event_on_ctx() {
         // given
@@ -435,6 +526,41 @@ public class NonblockingEndpointExecutionHandlerTest {
         verify(ctxMock).fireChannelRead(LastOutboundMessageSendFullResponseInfo.INSTANCE);
     }
 
+    @Test
+    public void setResponseInfoAndActivatePipelineForResponse_fires_headers_chunk_event_for_chunked_response_with_publisher() {
+        // given
+        ResponseChunkPublisher publisherMock = mock(ResponseChunkPublisher.class);
+        ResponseInfo<?> responseInfo = ResponseInfo.newChunkedResponseBuilder()
+                                                   .withResponseChunkPublisher(publisherMock)
+                                                   .build();
+
+        // when
+        handlerSpy.setResponseInfoAndActivatePipelineForResponse(stateMock, responseInfo, ctxMock);
+
+        // then
+        verify(stateMock).setResponseInfo(responseInfo);
+        verify(ctxMock).fireChannelRead(OutboundMessageSendHeadersChunkFromResponseInfo.INSTANCE);
+        verifyZeroInteractions(publisherMock);
+    }
+
+    @Test
+    public void setResponseInfoAndActivatePipelineForResponse_cancels_publisher_if_request_already_handled() {
+        // given
+        ResponseChunkPublisher publisherMock = mock(ResponseChunkPublisher.class);
+        ResponseInfo<?> responseInfo = ResponseInfo.newChunkedResponseBuilder()
+                                                   .withResponseChunkPublisher(publisherMock)
+                                                   .build();
+        doReturn(true).when(stateMock).isRequestHandled();
+
+        // when
+        handlerSpy.setResponseInfoAndActivatePipelineForResponse(stateMock, responseInfo, ctxMock);
+
+        // then
+        verify(stateMock, never()).setResponseInfo(any(ResponseInfo.class));
+        verify(ctxMock, never()).fireChannelRead(any(Object.class));
+        verify(publisherMock).cancel(any(Throwable.class));
+    }
+
     @Test
     public void setResponseInfoAndActivatePipelineForResponse_does_not_set_responseInfo_or_fire_channelRead_event_if_request_already_handled() {
         // given
@@ -449,6 +575,38 @@ public class NonblockingEndpointExecutionHandlerTest {
         verify(ctxMock, never()).fireChannelRead(any(Object.class));
     }
 
+    @Test
+    public void setResponseInfoAndActivatePipelineForResponse_releases_ByteBuf_content_if_request_already_handled() {
+        // given
+        ByteBuf content = Unpooled.copiedBuffer("foo", CharsetUtil.UTF_8);
+        ResponseInfo<?> responseInfo = ResponseInfo.newBuilder(content).build();
+        doReturn(true).when(stateMock).isRequestHandled();
+
+        // when
+        handlerSpy.setResponseInfoAndActivatePipelineForResponse(stateMock, responseInfo, ctxMock);
+
+        // then
+        verify(stateMock, never()).setResponseInfo(any(ResponseInfo.class));
+        assertThat(content.refCnt()).isEqualTo(0);
+    }
+
+    @Test
+    public void asyncCallback_releases_ByteBuf_content_if_channel_is_inactive() {
+        // given
+        ByteBuf content = Unpooled.copiedBuffer("foo", CharsetUtil.UTF_8);
+        ResponseInfo<?> responseInfo = ResponseInfo.newBuilder(content).build();
+        doReturn(false).when(channelMock).isActive();
+
+        // when
+        handlerSpy.asyncCallback(ctxMock, responseInfo);
+
+        // then
+        verify(handlerSpy, never()).setResponseInfoAndActivatePipelineForResponse(
+            any(HttpProcessingState.class), any(ResponseInfo.class), any(ChannelHandlerContext.class)
+        );
+        assertThat(content.refCnt()).isEqualTo(0);
+    }
+
     @Test
     public void asyncErrorCallback_fires_exceptionCaught_event_on_ctx() {
         // given
@@ -474,4 +632,98 @@ public class NonblockingEndpointExecutionHandlerTest {
         verify(ctxMock, times(0)).fireExceptionCaught(any(Throwable.class));
     }
 
+    private RequestInfo<?> conditionalRequestInfoMock(HttpMethod method, String ifNoneMatch) {
+        RequestInfo<?> requestInfoMock = mock(RequestInfo.class);
+        HttpHeaders headers = new DefaultHttpHeaders();
+        if (ifNoneMatch != null)
+            headers.set(IF_NONE_MATCH, ifNoneMatch);
+        doReturn(method).when(requestInfoMock).getMethod();
+        doReturn(headers).when(requestInfoMock).getHeaders();
+        return requestInfoMock;
+    }
+
+    @Test
+    public void executeEndpointUnlessNotModified_returns_304_without_executing_endpoint_if_current_entity_tag_matches() throws Exception {
+        // given
+        EntityTagGenerator entityTagGenerator = new EntityTagGenerator();
+        NonblockingEndpointExecutionHandler handler = new NonblockingEndpointExecutionHandler(
+            longRunningTaskExecutorMock, defaultCompletableFutureTimeoutMillis, entityTagGenerator
+        );
+        RequestInfo request = conditionalRequestInfoMock(HttpMethod.GET, "\"v1\", \"v2\"");
+        doReturn("v2").when(endpointMock).currentEntityTag(request);
+
+        // when
+        CompletableFuture<ResponseInfo<?>> result = handler.executeEndpointUnlessNotModified(endpointMock, request, ctxMock);
+
+        // then
+        ResponseInfo<?> responseInfo = result.get();
+        assertThat(responseInfo.getHttpStatusCode()).isEqualTo(304);
+        assertThat(responseInfo.getHeaders().get(ETAG)).isEqualTo("\"v2\"");
+        assertThat(responseInfo.getContentForFullResponse()).isNull();
+        verify(endpointMock, never()).execute(any(RequestInfo.class), any(Executor.class), any(ChannelHandlerContext.class));
+        assertThat(entityTagGenerator.getNotModifiedResponseCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void executeEndpointUnlessNotModified_executes_endpoint_and_sets_ETag_if_current_entity_tag_does_not_match() throws Exception {
+        // given
+        RequestInfo request = conditionalRequestInfoMock(HttpMethod.GET, "\"v1\"");
+        doReturn("W/\"v2\"").when(endpointMock).currentEntityTag(request);
+        ResponseInfo<?> endpointResponse = ResponseInfo.newBuilder("foo").build();
+
+        // when
+        CompletableFuture<ResponseInfo<?>> result = handlerSpy.executeEndpointUnlessNotModified(endpointMock, request, ctxMock);
+        responseFuture.complete(endpointResponse);
+
+        // then
+        verify(endpointMock).execute(request, longRunningTaskExecutorMock, ctxMock);
+        assertThat(result.get()).isSameAs(endpointResponse);
+        assertThat(endpointResponse.getHeaders().get(ETAG)).isEqualTo("W/\"v2\"");
+    }
+
+    @Test
+    public void executeEndpointUnlessNotModified_does_not_override_ETag_set_by_endpoint() throws Exception {
+        // given
+        RequestInfo request = conditionalRequestInfoMock(HttpMethod.GET, null);
+        doReturn("v2").when(endpointMock).currentEntityTag(request);
+        ResponseInfo<?> endpointResponse = ResponseInfo.newBuilder("foo")
+                                                       .withHeaders(new DefaultHttpHeaders().set(ETAG, "\"custom\""))
+                                                       .build();
+
+        // when
+        CompletableFuture<ResponseInfo<?>> result = handlerSpy.executeEndpointUnlessNotModified(endpointMock, request, ctxMock);
+        responseFuture.complete(endpointResponse);
+
+        // then
+        assertThat(result.get().getHeaders().get(ETAG)).isEqualTo("\"custom\"");
+    }
+
+    @Test
+    public void executeEndpointUnlessNotModified_ignores_current_entity_tag_for_non_GET_or_HEAD_requests() {
+        // given
+        RequestInfo request = conditionalRequestInfoMock(HttpMethod.POST, "\"v2\"");
+        doReturn("v2").when(endpointMock).currentEntityTag(request);
+
+        // when
+        CompletableFuture<ResponseInfo<?>> result = handlerSpy.executeEndpointUnlessNotModified(endpointMock, request, ctxMock);
+
+        // then
+        assertThat(result).isSameAs(responseFuture);
+        verify(endpointMock, never()).currentEntityTag(any(RequestInfo.class));
+        verify(endpointMock).execute(request, longRunningTaskExecutorMock, ctxMock);
+    }
+
+    @Test
+    public void executeEndpointUnlessNotModified_executes_endpoint_as_normal_if_endpoint_has_no_current_entity_tag() {
+        // given
+        RequestInfo request = conditionalRequestInfoMock(HttpMethod.GET, "*");
+
+        // when
+        CompletableFuture<ResponseInfo<?>> result = handlerSpy.executeEndpointUnlessNotModified(endpointMock, request, ctxMock);
+
+        // then
+        assertThat(result).isSameAs(responseFuture);
+        verify(endpointMock).execute(request, longRunningTaskExecutorMock, ctxMock);
+    }
+
 }
\ No newline at end of file
@@ -12,6 +12,7 @@ import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPromise;
+import io.netty.channel.FileRegion;
 import io.netty.handler.codec.http.HttpContent;
 import io.netty.handler.codec.http.HttpResponse;
 import io.netty.util.Attribute;
@@ -156,4 +157,21 @@ public class ProcessFinalResponseOutputHandlerTest {
         // then
         assertThat(responseInfo.getFinalContentLength()).isNull();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void write_adds_to_finalContentLength_if_msg_is_FileRegion() throws Exception {
+        // given
+        FileRegion msgMock = mock(FileRegion.class);
+        long regionBytes = (long)(Math.random() * 10000);
+        doReturn(regionBytes).when(msgMock).count();
+
+        long initialFinalContentLengthValue = (long)(Math.random() * 10000);
+        responseInfo.setFinalContentLength(initialFinalContentLengthValue);
+
+        // when
+        handler.write(ctxMock, msgMock, promiseMock);
+
+        // then
+        assertThat(responseInfo.getFinalContentLength()).isEqualTo(initialFinalContentLengthValue + regionBytes);
+    }
+}
@@ -0,0 +1,143 @@
+package com.nike.riposte.server.handler;
+
+import com.nike.riposte.client.asynchttp.netty.StreamingAsyncHttpClient.StreamingChannel;
+import com.nike.riposte.server.error.exception.RequestDeadlineExceededException;
+import com.nike.riposte.server.handler.ProxyRouterEndpointExecutionHandler.StreamingCallbackForCtx;
+import com.nike.riposte.server.http.ProxyRouterEndpoint;
+import com.nike.riposte.server.http.ProxyRouterProcessingState;
+import com.nike.riposte.server.http.RequestDeadline;
+import com.nike.riposte.server.http.RequestInfo;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests the downstream call deadline functionality of {@link ProxyRouterEndpointExecutionHandler}.
+ */
+public class ProxyRouterEndpointExecutionHandlerTest {
+
+    private StreamingChannel streamingChannelMock;
+    private EventLoop eventLoopMock;
+    private ScheduledFuture<?> timerMock;
+    private StreamingCallbackForCtx callbackMock;
+    private RequestDeadline requestDeadlineMock;
+
+    @Before
+    public void beforeMethod() {
+        streamingChannelMock = mock(StreamingChannel.class);
+        Channel channelMock = mock(Channel.class);
+        eventLoopMock = mock(EventLoop.class);
+        timerMock = mock(ScheduledFuture.class);
+        callbackMock = mock(StreamingCallbackForCtx.class);
+        requestDeadlineMock = mock(RequestDeadline.class);
+
+        doReturn(channelMock).when(streamingChannelMock).getChannel();
+        doReturn(eventLoopMock).when(channelMock).eventLoop();
+        doReturn(timerMock).when(eventLoopMock).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+    }
+
+    private Runnable scheduleDeadlineAndCaptureTimerTask(long remainingMillis) {
+        doReturn(remainingMillis).when(requestDeadlineMock).getRemainingMillis();
+        ProxyRouterEndpointExecutionHandler.scheduleDownstreamCallDeadline(
+            streamingChannelMock, callbackMock, requestDeadlineMock
+        );
+
+        ArgumentCaptor<Runnable> taskCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(eventLoopMock).schedule(taskCaptor.capture(), eq(Math.max(1, remainingMillis)),
+                                       eq(TimeUnit.MILLISECONDS));
+        verify(callbackMock).setDownstreamCallDeadlineTimer(timerMock);
+        return taskCaptor.getValue();
+    }
+
+    @Test
+    public void scheduleDownstreamCallDeadline_fails_the_call_with_RequestDeadlineExceededException_when_the_timer_fires_while_the_call_is_active() {
+        // given
+        Runnable timerTask = scheduleDeadlineAndCaptureTimerTask(250);
+        doReturn(true).when(streamingChannelMock).isDownstreamCallActive();
+        doReturn(-5L).when(requestDeadlineMock).getRemainingMillis();
+
+        // when
+        timerTask.run();
+
+        // then
+        ArgumentCaptor<Throwable> closeCauseCaptor = ArgumentCaptor.forClass(Throwable.class);
+        verify(streamingChannelMock).closeChannelDueToUnrecoverableError(closeCauseCaptor.capture());
+        assertThat(closeCauseCaptor.getValue()).isInstanceOf(RequestDeadlineExceededException.class);
+        assertThat(((RequestDeadlineExceededException) closeCauseCaptor.getValue()).remainingBudgetMillis)
+            .isEqualTo(-5L);
+        verify(callbackMock).unrecoverableErrorOccurred(closeCauseCaptor.getValue(), true);
+    }
+
+    @Test
+    public void scheduleDownstreamCallDeadline_does_nothing_when_the_timer_fires_after_the_call_finished() {
+        // given
+        Runnable timerTask = scheduleDeadlineAndCaptureTimerTask(250);
+        doReturn(false).when(streamingChannelMock).isDownstreamCallActive();
+
+        // when
+        timerTask.run();
+
+        // then
+        verify(streamingChannelMock, never()).closeChannelDueToUnrecoverableError(any(Throwable.class));
+        verify(callbackMock, never()).unrecoverableErrorOccurred(any(Throwable.class), anyBoolean());
+    }
+
+    @Test
+    public void scheduleDownstreamCallDeadline_schedules_at_least_1_millisecond_out_when_the_deadline_has_passed() {
+        // expect
+        scheduleDeadlineAndCaptureTimerTask(-10);
+    }
+
+    private StreamingCallbackForCtx realCallback() {
+        return new StreamingCallbackForCtx(
+            mock(ChannelHandlerContext.class), Optional.empty(), mock(ProxyRouterEndpoint.class),
+            mock(RequestInfo.class), mock(ProxyRouterProcessingState.class)
+        );
+    }
+
+    @Test
+    public void StreamingCallbackForCtx_cancels_the_deadline_timer_when_streaming_to_the_caller_is_cancelled() {
+        // given
+        StreamingCallbackForCtx callback = realCallback();
+        callback.setDownstreamCallDeadlineTimer(timerMock);
+        verify(timerMock, never()).cancel(anyBoolean());
+
+        // when
+        callback.cancelStreamingToOriginalCaller();
+
+        // then
+        verify(timerMock).cancel(false);
+    }
+
+    @Test
+    public void StreamingCallbackForCtx_cancels_the_deadline_timer_immediately_if_streaming_was_already_cancelled() {
+        // given
+        StreamingCallbackForCtx callback = realCallback();
+        callback.cancelStreamingToOriginalCaller();
+
+        // when
+        callback.setDownstreamCallDeadlineTimer(timerMock);
+
+        // then
+        verify(timerMock).cancel(false);
+    }
+}
@@ -1,11 +1,13 @@
 package com.nike.riposte.server.handler;
 
 import com.nike.riposte.server.channelpipeline.ChannelAttributes;
+import com.nike.riposte.server.config.ServerConfig.RequestDeadlineConfig;
 import com.nike.riposte.server.error.exception.InvalidHttpRequestException;
 import com.nike.riposte.server.error.exception.RequestTooBigException;
 import com.nike.riposte.server.handler.base.PipelineContinuationBehavior;
 import com.nike.riposte.server.http.Endpoint;
 import com.nike.riposte.server.http.HttpProcessingState;
+import com.nike.riposte.server.http.RequestDeadline;
 import com.nike.riposte.server.http.RequestInfo;
 
 import com.tngtech.java.junit.dataprovider.DataProvider;
@@ -17,6 +19,8 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 
+import java.util.concurrent.TimeUnit;
+
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
@@ -131,6 +135,48 @@ public class RequestInfoSetterHandlerTest {
         assertThat(result).isEqualTo(PipelineContinuationBehavior.CONTINUE);
     }
 
+    @DataProvider(value = {
+        "5000   |   true",
+        "null   |   false",
+        "foo    |   false"
+    }, splitBy = "\\|")
+    @Test
+    public void doChannelRead_sets_RequestDeadline_on_state_from_the_deadline_header_if_msg_is_HttpRequest(
+        String headerValue, boolean expectDeadline
+    ) {
+        // given
+        RequestDeadlineConfig deadlineConfig = new RequestDeadlineConfig() {
+            @Override
+            public String deadlineHeaderName() {
+                return "X-Request-Timeout-Millis";
+            }
+        };
+        handler = new RequestInfoSetterHandler(maxRequestSizeInBytes, deadlineConfig);
+        HttpRequest msgMock = mock(HttpRequest.class);
+        HttpHeaders headers = new DefaultHttpHeaders();
+        if (headerValue != null)
+            headers.set("X-Request-Timeout-Millis", headerValue);
+        doReturn(headers).when(msgMock).headers();
+        long requestStartTimeNanos = System.nanoTime();
+        doReturn(requestStartTimeNanos).when(stateMock).getRequestStartTimeNanos();
+
+        // when
+        handler.doChannelRead(ctxMock, msgMock);
+
+        // then
+        ArgumentCaptor<RequestDeadline> deadlineArgumentCaptor = ArgumentCaptor.forClass(RequestDeadline.class);
+        verify(stateMock).setRequestDeadline(deadlineArgumentCaptor.capture());
+        RequestDeadline deadline = deadlineArgumentCaptor.getValue();
+        if (expectDeadline) {
+            assertThat(deadline.getDeadlineNanos())
+                .isEqualTo(requestStartTimeNanos + TimeUnit.MILLISECONDS.toNanos(Long.parseLong(headerValue)));
+            assertThat(deadline.getHeaderName()).isEqualTo("X-Request-Timeout-Millis");
+        }
+        else {
+            assertThat(deadline).isNull();
+        }
+    }
+
     @Test
     public void doChannelRead_checks_for_fully_send_responses_but_does_nothing_else_if_msg_is_not_HttpRequest_or_HttpContent() {
         // given
@@ -0,0 +1,256 @@
+package com.nike.riposte.server.handler;
+
+import com.nike.riposte.server.channelpipeline.ChannelAttributes;
+import com.nike.riposte.server.channelpipeline.message.LastOutboundMessageSendFullResponseInfo;
+import com.nike.riposte.server.handler.base.PipelineContinuationBehavior;
+import com.nike.riposte.server.http.Endpoint;
+import com.nike.riposte.server.http.HttpProcessingState;
+import com.nike.riposte.server.http.RequestInfo;
+import com.nike.riposte.server.http.ResponseInfo;
+import com.nike.riposte.server.http.cache.ResponseCache;
+import com.nike.riposte.server.http.cache.ResponseCachingOptions;
+
+import com.tngtech.java.junit.dataprovider.DataProvider;
+import com.tngtech.java.junit.dataprovider.DataProviderRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CompletableFuture;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.util.Attribute;
+import io.netty.util.CharsetUtil;
+
+import static com.nike.riposte.server.handler.base.BaseInboundHandlerWithTracingAndMdcSupport.HandlerMethodToExecute.DO_CHANNEL_READ;
+import static com.nike.riposte.server.handler.base.PipelineContinuationBehavior.CONTINUE;
+import static com.nike.riposte.server.handler.base.PipelineContinuationBehavior.DO_NOT_FIRE_CONTINUE_EVENT;
+import static io.netty.handler.codec.http.HttpHeaders.Names.ACCEPT_ENCODING;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests the functionality of {@link ResponseCacheHandler}.
+ */
+@RunWith(DataProviderRunner.class)
+public class ResponseCacheHandlerTest {
+
+    private ResponseCache responseCache;
+    private ResponseCacheHandler handler;
+    private ResponseCachingOptions options;
+
+    private ChannelHandlerContext ctxMock;
+    private HttpProcessingState state;
+    private Endpoint<?> endpointMock;
+    private RequestInfo<?> requestInfoMock;
+    private HttpHeaders requestHeaders;
+    private LastHttpContent lastChunkMsgMock;
+
+    @Before
+    public void beforeMethod() {
+        responseCache = new ResponseCache();
+        handler = new ResponseCacheHandler(responseCache);
+        options = new ResponseCachingOptions(60_000, null, true);
+
+        Channel channelMock = mock(Channel.class);
+        ctxMock = mock(ChannelHandlerContext.class);
+        @SuppressWarnings("unchecked")
+        Attribute<HttpProcessingState> stateAttributeMock = mock(Attribute.class);
+        state = new HttpProcessingState();
+
+        doReturn(channelMock).when(ctxMock).channel();
+        doReturn(stateAttributeMock).when(channelMock).attr(ChannelAttributes.HTTP_PROCESSING_STATE_ATTRIBUTE_KEY);
+        doReturn(state).when(stateAttributeMock).get();
+
+        endpointMock = mock(Endpoint.class);
+        doReturn(options).when(endpointMock).responseCachingOptions();
+        state.setEndpointForExecution(endpointMock, "/foo");
+
+        requestHeaders = new DefaultHttpHeaders();
+        requestInfoMock = mock(RequestInfo.class);
+        doReturn(HttpMethod.GET).when(requestInfoMock).getMethod();
+        doReturn("/foo").when(requestInfoMock).getPath();
+        doReturn(new QueryStringDecoder("/foo?bar=1")).when(requestInfoMock).getQueryParams();
+        doReturn(requestHeaders).when(requestInfoMock).getHeaders();
+        state.setRequestInfo(requestInfoMock);
+
+        lastChunkMsgMock = mock(LastHttpContent.class);
+    }
+
+    private String cacheKey() {
+        return ResponseCache.generateCacheKey(endpointMock, requestInfoMock, options);
+    }
+
+    private void storeCachedResponse(String payload) {
+        ResponseInfo<?> responseInfo = ResponseInfo.newBuilder().withHttpStatusCode(200).build();
+        ByteBuf body = Unpooled.copiedBuffer(payload, CharsetUtil.UTF_8);
+        responseCache.put(cacheKey(), options, responseInfo, new DefaultHttpHeaders(), body);
+        body.release();
+    }
+
+    @Test
+    public void constructor_throws_IllegalArgumentException_if_passed_null_cache() {
+        // when
+        Throwable ex = catchThrowable(() -> new ResponseCacheHandler(null));
+
+        // then
+        assertThat(ex).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void doChannelRead_serves_cached_response_on_hit() throws Exception {
+        // given
+        storeCachedResponse("cached payload");
+
+        // when
+        PipelineContinuationBehavior result = handler.doChannelRead(ctxMock, lastChunkMsgMock);
+
+        // then
+        assertThat(result).isEqualTo(DO_NOT_FIRE_CONTINUE_EVENT);
+        verify(ctxMock).fireChannelRead(LastOutboundMessageSendFullResponseInfo.INSTANCE);
+        ByteBuf content = (ByteBuf) state.getResponseInfo().getContentForFullResponse();
+        assertThat(content.toString(CharsetUtil.UTF_8)).isEqualTo("cached payload");
+        assertThat(state.getResponseCacheKey()).isNull();
+        assertThat(responseCache.getHitCount()).isEqualTo(1);
+        content.release();
+    }
+
+    @Test
+    public void doChannelRead_records_cache_key_and_continues_on_miss_for_GET_request() throws Exception {
+        // when
+        PipelineContinuationBehavior result = handler.doChannelRead(ctxMock, lastChunkMsgMock);
+
+        // then
+        assertThat(result).isEqualTo(CONTINUE);
+        assertThat(state.getResponseCacheKey()).isEqualTo(cacheKey());
+        assertThat(state.getResponseInfo()).isNull();
+        assertThat(responseCache.getMissCount()).isEqualTo(1);
+        verify(ctxMock, never()).fireChannelRead(any());
+    }
+
+    @Test
+    public void doChannelRead_does_not_record_cache_key_on_miss_for_HEAD_request() throws Exception {
+        // given
+        doReturn(HttpMethod.HEAD).when(requestInfoMock).getMethod();
+
+        // when
+        PipelineContinuationBehavior result = handler.doChannelRead(ctxMock, lastChunkMsgMock);
+
+        // then
+        assertThat(result).isEqualTo(CONTINUE);
+        assertThat(state.getResponseCacheKey()).isNull();
+    }
+
+    @Test
+    public void doChannelRead_does_nothing_for_non_cacheable_methods() throws Exception {
+        // given
+        doReturn(HttpMethod.POST).when(requestInfoMock).getMethod();
+        storeCachedResponse("cached payload");
+
+        // when
+        PipelineContinuationBehavior result = handler.doChannelRead(ctxMock, lastChunkMsgMock);
+
+        // then
+        assertThat(result).isEqualTo(CONTINUE);
+        assertThat(state.getResponseInfo()).isNull();
+        assertThat(state.getResponseCacheKey()).isNull();
+        assertThat(responseCache.getHitCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void doChannelRead_does_nothing_if_endpoint_does_not_want_caching() throws Exception {
+        // given
+        storeCachedResponse("cached payload");
+        doReturn(null).when(endpointMock).responseCachingOptions();
+
+        // when
+        PipelineContinuationBehavior result = handler.doChannelRead(ctxMock, lastChunkMsgMock);
+
+        // then
+        assertThat(result).isEqualTo(CONTINUE);
+        assertThat(state.getResponseInfo()).isNull();
+        assertThat(state.getResponseCacheKey()).isNull();
+    }
+
+    @Test
+    public void doChannelRead_does_nothing_for_non_last_chunk_messages() throws Exception {
+        // given
+        storeCachedResponse("cached payload");
+
+        // when
+        PipelineContinuationBehavior result = handler.doChannelRead(ctxMock, mock(HttpRequest.class));
+
+        // then
+        assertThat(result).isEqualTo(CONTINUE);
+        assertThat(state.getResponseInfo()).isNull();
+        assertThat(responseCache.getHitCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void doChannelRead_does_not_serve_hit_while_pre_endpoint_work_is_unfinished() throws Exception {
+        // given
+        storeCachedResponse("cached payload");
+        CompletableFuture<Void> unfinishedSecurityWork = new CompletableFuture<>();
+        state.addPreEndpointExecutionWorkChainSegment(aVoid -> unfinishedSecurityWork);
+
+        // when
+        PipelineContinuationBehavior result = handler.doChannelRead(ctxMock, lastChunkMsgMock);
+
+        // then
+        assertThat(result).isEqualTo(CONTINUE);
+        assertThat(state.getResponseInfo()).isNull();
+        assertThat(state.getResponseCacheKey()).isEqualTo(cacheKey());
+        assertThat(responseCache.getHitCount()).isEqualTo(0);
+    }
+
+    @DataProvider(value = {
+        "null                   |   false",
+        "gzip                   |   true",
+        "GZIP, deflate          |   true",
+        "deflate                |   false",
+        "gzip;q=0               |   false",
+        "gzip; q=0.5            |   true",
+        "*                      |   true",
+        "gzip;q=0, *            |   false",
+        "*;q=0                  |   false"
+    }, splitBy = "\\|")
+    @Test
+    public void isGzipAccepted_works_as_expected(String acceptEncoding, boolean expectedResult) {
+        // given
+        if (acceptEncoding != null)
+            requestHeaders.set(ACCEPT_ENCODING, acceptEncoding);
+
+        // expect
+        assertThat(handler.isGzipAccepted(requestInfoMock)).isEqualTo(expectedResult);
+    }
+
+    @DataProvider(value = {
+        "true",
+        "false"
+    })
+    @Test
+    public void argsAreEligibleForLinkingAndUnlinkingDistributedTracingInfo_only_for_last_chunk(boolean isLastChunk) {
+        // given
+        Object msg = (isLastChunk) ? lastChunkMsgMock : mock(HttpRequest.class);
+
+        // expect
+        assertThat(handler.argsAreEligibleForLinkingAndUnlinkingDistributedTracingInfo(DO_CHANNEL_READ, ctxMock, msg,
+                                                                                          null))
+            .isEqualTo(isLastChunk);
+    }
+}
@@ -0,0 +1,431 @@
+package com.nike.riposte.server.handler;
+
+import com.nike.riposte.server.channelpipeline.ChannelAttributes;
+import com.nike.riposte.server.http.Endpoint;
+import com.nike.riposte.server.http.HttpProcessingState;
+import com.nike.riposte.server.http.ProxyRouterEndpoint;
+import com.nike.riposte.server.http.ResponseInfo;
+import com.nike.riposte.server.http.compression.AdaptiveCompressionPolicy;
+
+import com.tngtech.java.junit.dataprovider.DataProvider;
+import com.tngtech.java.junit.dataprovider.DataProviderRunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.CharsetUtil;
+
+import static io.netty.handler.codec.http.HttpHeaders.Names.ACCEPT_ENCODING;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_ENCODING;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_LENGTH;
+import static io.netty.handler.codec.http.HttpHeaders.Names.TRANSFER_ENCODING;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests the functionality of {@link SmartHttpContentCompressor}.
+ */
+@RunWith(DataProviderRunner.class)
+public class SmartHttpContentCompressorTest {
+
+    private static final int THRESHOLD = 100;
+
+    private SmartHttpContentCompressor compressor;
+    private EmbeddedChannel channel;
+    private HttpProcessingState state;
+
+    @Before
+    public void beforeMethod() {
+        setupChannel(new SmartHttpContentCompressor(THRESHOLD));
+    }
+
+    private void setupChannel(SmartHttpContentCompressor compressor) {
+        this.compressor = compressor;
+        channel = new EmbeddedChannel(compressor);
+        state = new HttpProcessingState();
+        channel.attr(ChannelAttributes.HTTP_PROCESSING_STATE_ATTRIBUTE_KEY).set(state);
+    }
+
+    @After
+    public void afterMethod() {
+        channel.finish();
+        Object leftover;
+        while ((leftover = channel.readOutbound()) != null) {
+            if (leftover instanceof HttpContent)
+                ((HttpContent) leftover).release();
+        }
+    }
+
+    private void receiveRequest(String acceptEncoding) {
+        DefaultHttpRequest request = new DefaultHttpRequest(HTTP_1_1, HttpMethod.GET, "/foo");
+        if (acceptEncoding != null)
+            request.headers().set(ACCEPT_ENCODING, acceptEncoding);
+        channel.writeInbound(request);
+        channel.readInbound();
+    }
+
+    private static String payloadOfSize(int size) {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < size) {
+            sb.append("some-repetitive-payload-");
+        }
+        return sb.substring(0, size);
+    }
+
+    private static String gunzip(byte[] bytes) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), CharsetUtil.UTF_8);
+        }
+    }
+
+    private HttpResponse sendFullResponse(String payload, ByteArrayOutputStream body) {
+        channel.writeOutbound(
+            new DefaultFullHttpResponse(HTTP_1_1, OK, Unpooled.copiedBuffer(payload, CharsetUtil.UTF_8))
+        );
+        HttpResponse response = (HttpResponse) channel.readOutbound();
+        if (response instanceof HttpContent)
+            readContentInto((HttpContent) response, body);
+        Object next;
+        while ((next = channel.readOutbound()) != null) {
+            readContentInto((HttpContent) next, body);
+        }
+        return response;
+    }
+
+    private static void readContentInto(HttpContent content, ByteArrayOutputStream out) {
+        ByteBuf buf = content.content();
+        byte[] bytes = new byte[buf.readableBytes()];
+        buf.readBytes(bytes);
+        out.write(bytes, 0, bytes.length);
+        content.release();
+    }
+
+    @DataProvider(value = {
+        "99     |   false",
+        "100    |   false",
+        "101    |   true"
+    }, splitBy = "\\|")
+    @Test
+    public void full_response_is_compressed_based_on_payload_size(int payloadSize, boolean expectCompressed)
+        throws IOException {
+        // given
+        state.setResponseInfo(ResponseInfo.newBuilder().build());
+        receiveRequest("gzip");
+        String payload = payloadOfSize(payloadSize);
+
+        // when
+        channel.writeOutbound(
+            new DefaultFullHttpResponse(HTTP_1_1, OK, Unpooled.copiedBuffer(payload, CharsetUtil.UTF_8))
+        );
+
+        // then
+        HttpResponse response = (HttpResponse) channel.readOutbound();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if (response instanceof HttpContent)
+            readContentInto((HttpContent) response, body);
+        Object next;
+        while ((next = channel.readOutbound()) != null) {
+            readContentInto((HttpContent) next, body);
+        }
+
+        if (expectCompressed) {
+            assertThat(response.headers().get(CONTENT_ENCODING)).isEqualTo("gzip");
+            assertThat(gunzip(body.toByteArray())).isEqualTo(payload);
+        }
+        else {
+            assertThat(response.headers().get(CONTENT_ENCODING)).isNull();
+            assertThat(new String(body.toByteArray(), CharsetUtil.UTF_8)).isEqualTo(payload);
+        }
+    }
+
+    @Test
+    public void chunked_response_without_declared_length_is_compressed_chunk_by_chunk() throws IOException {
+        // given
+        state.setResponseInfo(ResponseInfo.newChunkedResponseBuilder().build());
+        receiveRequest("gzip");
+        String firstChunk = payloadOfSize(50);
+        String secondChunk = payloadOfSize(70);
+
+        // when
+        channel.writeOutbound(new DefaultHttpResponse(HTTP_1_1, OK));
+        HttpResponse response = (HttpResponse) channel.readOutbound();
+
+        channel.writeOutbound(new DefaultHttpContent(Unpooled.copiedBuffer(firstChunk, CharsetUtil.UTF_8)));
+        HttpContent firstCompressedChunk = (HttpContent) channel.readOutbound();
+        int firstCompressedChunkSize = firstCompressedChunk.content().readableBytes();
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        readContentInto(firstCompressedChunk, body);
+        channel.writeOutbound(new DefaultHttpContent(Unpooled.copiedBuffer(secondChunk, CharsetUtil.UTF_8)));
+        channel.writeOutbound(LastHttpContent.EMPTY_LAST_CONTENT);
+        Object next;
+        while ((next = channel.readOutbound()) != null) {
+            readContentInto((HttpContent) next, body);
+        }
+
+        // then
+        assertThat(response.headers().get(CONTENT_ENCODING)).isEqualTo("gzip");
+        assertThat(response.headers().get(TRANSFER_ENCODING)).isEqualToIgnoringCase("chunked");
+        // Each chunk is flushed through the compressor as soon as it's written rather than being held back.
+        assertThat(firstCompressedChunkSize).isGreaterThan(0);
+        assertThat(gunzip(body.toByteArray())).isEqualTo(firstChunk + secondChunk);
+    }
+
+    @DataProvider(value = {
+        "100    |   false",
+        "101    |   true"
+    }, splitBy = "\\|")
+    @Test
+    public void chunked_response_with_declared_length_is_compressed_based_on_declared_length(
+        int declaredLength, boolean expectCompressed
+    ) {
+        // given
+        state.setResponseInfo(ResponseInfo.newChunkedResponseBuilder().build());
+        receiveRequest("gzip");
+        HttpResponse firstChunk = new DefaultHttpResponse(HTTP_1_1, OK);
+        firstChunk.headers().set(CONTENT_LENGTH, declaredLength);
+
+        // when
+        channel.writeOutbound(firstChunk);
+
+        // then
+        HttpResponse response = (HttpResponse) channel.readOutbound();
+        assertThat(response.headers().get(CONTENT_ENCODING)).isEqualTo((expectCompressed) ? "gzip" : null);
+        assertThat(response.headers().contains(CONTENT_LENGTH)).isEqualTo(!expectCompressed);
+    }
+
+    private enum ChunkedResponseExclusionScenario {
+        PROXY_ENDPOINT(true, false, false, "gzip"),
+        PREVENT_COMPRESSED_OUTPUT(false, true, false, "gzip"),
+        FILE_RESPONSE(false, false, true, "gzip"),
+        CALLER_DOES_NOT_ACCEPT_COMPRESSION(false, false, false, null);
+
+        public final boolean proxyEndpoint;
+        public final boolean preventCompressedOutput;
+        public final boolean fileResponse;
+        public final String acceptEncoding;
+
+        ChunkedResponseExclusionScenario(boolean proxyEndpoint, boolean preventCompressedOutput, boolean fileResponse,
+                                         String acceptEncoding) {
+            this.proxyEndpoint = proxyEndpoint;
+            this.preventCompressedOutput = preventCompressedOutput;
+            this.fileResponse = fileResponse;
+            this.acceptEncoding = acceptEncoding;
+        }
+    }
+
+    @DataProvider(value = {
+        "PROXY_ENDPOINT",
+        "PREVENT_COMPRESSED_OUTPUT",
+        "FILE_RESPONSE",
+        "CALLER_DOES_NOT_ACCEPT_COMPRESSION"
+    })
+    @Test
+    public void chunked_response_is_not_compressed_when_excluded(ChunkedResponseExclusionScenario scenario)
+        throws IOException {
+        // given
+        if (scenario.proxyEndpoint)
+            state.setEndpointForExecution(mock(ProxyRouterEndpoint.class), "/foo");
+        else
+            state.setEndpointForExecution(mock(Endpoint.class), "/foo");
+
+        if (scenario.fileResponse) {
+            File file = File.createTempFile("SmartHttpContentCompressorTest", ".txt");
+            file.deleteOnExit();
+            state.setResponseInfo(ResponseInfo.newFileResponseBuilder(file).build());
+        }
+        else {
+            state.setResponseInfo(
+                ResponseInfo.newChunkedResponseBuilder()
+                            .withPreventCompressedOutput(scenario.preventCompressedOutput)
+                            .build()
+            );
+        }
+        receiveRequest(scenario.acceptEncoding);
+
+        // when
+        channel.writeOutbound(new DefaultHttpResponse(HTTP_1_1, OK));
+        channel.writeOutbound(new DefaultLastHttpContent(Unpooled.copiedBuffer(payloadOfSize(500),
+                                                                               CharsetUtil.UTF_8)));
+
+        // then
+        HttpResponse response = (HttpResponse) channel.readOutbound();
+        assertThat(response.headers().get(CONTENT_ENCODING)).isNull();
+        LastHttpContent lastChunk = (LastHttpContent) channel.readOutbound();
+        assertThat(lastChunk.content().readableBytes()).isEqualTo(500);
+        lastChunk.release();
+    }
+
+    @Test
+    public void non_full_response_without_chunked_ResponseInfo_is_not_compressed() {
+        // given
+        receiveRequest("gzip");
+
+        // when
+        channel.writeOutbound(new DefaultHttpResponse(HTTP_1_1, OK));
+
+        // then
+        HttpResponse response = (HttpResponse) channel.readOutbound();
+        assertThat(response.headers().get(CONTENT_ENCODING)).isNull();
+    }
+
+    private static class PolicyTrackingCompressor extends SmartHttpContentCompressor {
+        public int pendingTasks = 0;
+
+        PolicyTrackingCompressor(AdaptiveCompressionPolicy compressionPolicy) {
+            super(THRESHOLD, compressionPolicy);
+        }
+
+        @Override
+        protected int currentEventLoopPendingTasks() {
+            return pendingTasks;
+        }
+    }
+
+    private static class RecordingPolicy extends AdaptiveCompressionPolicy {
+        public final List<Long> responseSizes = new ArrayList<>();
+        public final List<Integer> pendingTasks = new ArrayList<>();
+
+        @Override
+        public int compressionLevelFor(int eventLoopPendingTasks, long responseSizeBytes) {
+            pendingTasks.add(eventLoopPendingTasks);
+            responseSizes.add(responseSizeBytes);
+            return super.compressionLevelFor(eventLoopPendingTasks, responseSizeBytes);
+        }
+    }
+
+    @Test
+    public void compressor_with_policy_compresses_and_records_stats() throws IOException {
+        // given
+        RecordingPolicy policy = new RecordingPolicy();
+        setupChannel(new PolicyTrackingCompressor(policy));
+        state.setResponseInfo(ResponseInfo.newBuilder().build());
+        receiveRequest("gzip");
+        String payload = payloadOfSize(5000);
+
+        // when
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        HttpResponse response = sendFullResponse(payload, body);
+
+        // then
+        assertThat(response.headers().get(CONTENT_ENCODING)).isEqualTo("gzip");
+        assertThat(gunzip(body.toByteArray())).isEqualTo(payload);
+        assertThat(policy.responseSizes).containsExactly(5000L);
+        assertThat(policy.getCompressedResponseCount()).isEqualTo(1);
+        assertThat(policy.getUncompressedBytes()).isEqualTo(5000);
+        assertThat(policy.getCompressedBytes()).isEqualTo(body.size());
+        assertThat(policy.getCompressionRatio()).isLessThan(1.0);
+        assertThat(policy.getCompressionNanos()).isGreaterThan(0);
+    }
+
+    @Test
+    public void compressor_with_policy_passes_unknown_size_for_chunked_response_without_declared_length() {
+        // given
+        RecordingPolicy policy = new RecordingPolicy();
+        PolicyTrackingCompressor trackingCompressor = new PolicyTrackingCompressor(policy);
+        trackingCompressor.pendingTasks = 3;
+        setupChannel(trackingCompressor);
+        state.setResponseInfo(ResponseInfo.newChunkedResponseBuilder().build());
+        receiveRequest("gzip");
+
+        // when
+        channel.writeOutbound(new DefaultHttpResponse(HTTP_1_1, OK));
+
+        // then
+        HttpResponse response = (HttpResponse) channel.readOutbound();
+        assertThat(response.headers().get(CONTENT_ENCODING)).isEqualTo("gzip");
+        assertThat(policy.responseSizes).containsExactly(-1L);
+        assertThat(policy.pendingTasks).containsExactly(3);
+    }
+
+    @Test
+    public void compressor_with_policy_skips_compression_when_event_loop_is_saturated() {
+        // given
+        AdaptiveCompressionPolicy policy = new AdaptiveCompressionPolicy();
+        PolicyTrackingCompressor trackingCompressor = new PolicyTrackingCompressor(policy);
+        trackingCompressor.pendingTasks = AdaptiveCompressionPolicy.DEFAULT_SATURATED_PENDING_TASKS_THRESHOLD;
+        setupChannel(trackingCompressor);
+        state.setResponseInfo(ResponseInfo.newBuilder().build());
+        receiveRequest("gzip");
+        String payload = payloadOfSize(5000);
+
+        // when
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        HttpResponse response = sendFullResponse(payload, body);
+
+        // then
+        assertThat(response.headers().get(CONTENT_ENCODING)).isNull();
+        assertThat(new String(body.toByteArray(), CharsetUtil.UTF_8)).isEqualTo(payload);
+        assertThat(policy.getSkippedUnderLoadCount()).isEqualTo(1);
+        assertThat(policy.getCompressedResponseCount()).isEqualTo(0);
+    }
+
+    @DataProvider(value = {
+        "gzip",
+        "deflate"
+    })
+    @Test
+    public void compressor_with_policy_reuses_memoized_variant_for_repeated_identical_bodies(String encoding)
+        throws IOException {
+        // given
+        AdaptiveCompressionPolicy policy = new AdaptiveCompressionPolicy();
+        setupChannel(new PolicyTrackingCompressor(policy));
+        state.setResponseInfo(ResponseInfo.newBuilder().build());
+        String payload = payloadOfSize(5000);
+        List<byte[]> responseBodies = new ArrayList<>();
+
+        // when
+        for (int i = 0; i < 4; i++) {
+            receiveRequest(encoding);
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            HttpResponse response = sendFullResponse(payload, body);
+            assertThat(response.headers().get(CONTENT_ENCODING)).isEqualTo(encoding);
+            responseBodies.add(body.toByteArray());
+        }
+
+        // then
+        // The first response marks the body as a candidate, the second one is memoized, and the rest use the memo.
+        assertThat(policy.getMemoizedVariantCount()).isEqualTo(1);
+        assertThat(policy.getMemoizedVariantHitCount()).isEqualTo(2);
+        assertThat(policy.getCompressedResponseCount()).isEqualTo(4);
+        assertThat(responseBodies.get(2)).isEqualTo(responseBodies.get(1));
+        assertThat(responseBodies.get(3)).isEqualTo(responseBodies.get(1));
+        if ("gzip".equals(encoding)) {
+            for (byte[] responseBody : responseBodies) {
+                assertThat(gunzip(responseBody)).isEqualTo(payload);
+            }
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.nike.riposte.server.http;
+
+import com.nike.riposte.server.channelpipeline.ChannelAttributes;
+import com.nike.riposte.util.CancellableTaskExecutor;
+import com.nike.riposte.util.Matcher;
+import com.nike.riposte.util.VirtualThreadSupport;
+import com.nike.wingtips.Span;
+import com.nike.wingtips.Tracer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.MDC;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.Attribute;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests the functionality of {@link BlockingEndpoint}.
+ */
+public class BlockingEndpointTest {
+
+    private ChannelHandlerContext ctxMock;
+    private HttpProcessingState state;
+    private RequestInfo<String> requestMock;
+    private BlockingEndpointMetrics metrics;
+    private List<Runnable> longRunningTasks;
+    private Executor longRunningTaskExecutor;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void beforeMethod() {
+        ctxMock = mock(ChannelHandlerContext.class);
+        Channel channelMock = mock(Channel.class);
+        Attribute<HttpProcessingState> stateAttrMock = mock(Attribute.class);
+        state = new HttpProcessingState();
+        doReturn(channelMock).when(ctxMock).channel();
+        doReturn(stateAttrMock).when(channelMock).attr(ChannelAttributes.HTTP_PROCESSING_STATE_ATTRIBUTE_KEY);
+        doReturn(state).when(stateAttrMock).get();
+
+        requestMock = mock(RequestInfo.class);
+        metrics = new BlockingEndpointMetrics(BlockingEndpointMetrics.DEFAULT_SLOW_START_THRESHOLD_MILLIS);
+        longRunningTasks = new ArrayList<>();
+        longRunningTaskExecutor = longRunningTasks::add;
+    }
+
+    @After
+    public void afterMethod() {
+        MDC.clear();
+        Tracer.getInstance().unregisterFromThread();
+    }
+
+    private class TestBlockingEndpoint extends BlockingEndpoint<String, String> {
+
+        private final ResponseInfo<String> response = ResponseInfo.newBuilder("response").build();
+        private Exception exceptionToThrow;
+        private Span spanDuringExecution;
+        private String mdcValueDuringExecution;
+
+        @Override
+        public Matcher requestMatcher() {
+            return null;
+        }
+
+        @Override
+        protected ResponseInfo<String> executeBlocking(RequestInfo<String> request, ChannelHandlerContext ctx)
+            throws Exception {
+            spanDuringExecution = Tracer.getInstance().getCurrentSpan();
+            mdcValueDuringExecution = MDC.get("foo");
+            if (exceptionToThrow != null)
+                throw exceptionToThrow;
+
+            return response;
+        }
+
+        @Override
+        protected Executor getBlockingTaskExecutor(Executor longRunningTaskExecutor) {
+            // The default is tested separately - run everything on the given executor so the tests can control it.
+            return longRunningTaskExecutor;
+        }
+
+        @Override
+        protected BlockingEndpointMetrics getBlockingEndpointMetrics() {
+            return metrics;
+        }
+    }
+
+    @Test
+    public void constructor_infers_inputType_from_BlockingEndpoint_type_arguments() {
+        // when
+        TestBlockingEndpoint endpoint = new TestBlockingEndpoint();
+
+        // then
+        assertThat(endpoint.inputType).isEqualTo(String.class);
+        assertThat(endpoint.requestContentType().getType()).isEqualTo(String.class);
+    }
+
+    @Test
+    public void execute_runs_executeBlocking_on_the_executor_with_tracing_and_mdc_attached() {
+        // given
+        Tracer.getInstance().startRequestWithRootSpan("overallReqSpan");
+        Deque<Span> spanStack = Tracer.getInstance().getCurrentSpanStackCopy();
+        Map<String, String> mdcInfo = Collections.singletonMap("foo", "bar");
+        state.setDistributedTraceStack(spanStack);
+        state.setLoggerMdcContextMap(mdcInfo);
+        Tracer.getInstance().unregisterFromThread();
+        TestBlockingEndpoint endpoint = new TestBlockingEndpoint();
+
+        // when
+        CompletableFuture<ResponseInfo<String>> result = endpoint.execute(requestMock, longRunningTaskExecutor, ctxMock);
+
+        // then
+        assertThat(result).isNotDone();
+        assertThat(longRunningTasks).hasSize(1);
+        assertThat(metrics.getSubmittedCount()).isEqualTo(1);
+        assertThat(metrics.getStartedCount()).isEqualTo(0);
+
+        // and when
+        longRunningTasks.get(0).run();
+
+        // then
+        assertThat(result.join()).isSameAs(endpoint.response);
+        assertThat(endpoint.spanDuringExecution).isEqualTo(spanStack.peek());
+        assertThat(endpoint.mdcValueDuringExecution).isEqualTo("bar");
+        assertThat(Tracer.getInstance().getCurrentSpan()).isNull();
+        assertThat(MDC.get("foo")).isNull();
+        assertThat(metrics.getStartedCount()).isEqualTo(1);
+        assertThat(metrics.getSucceededCount()).isEqualTo(1);
+        assertThat(metrics.getInFlightCount()).isEqualTo(0);
+        assertThat(metrics.getVirtualThreadExecutionCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void execute_completes_future_exceptionally_if_executeBlocking_throws() {
+        // given
+        TestBlockingEndpoint endpoint = new TestBlockingEndpoint();
+        endpoint.exceptionToThrow = new Exception("kaboom");
+
+        // when
+        CompletableFuture<ResponseInfo<String>> result = endpoint.execute(requestMock, longRunningTaskExecutor, ctxMock);
+        longRunningTasks.get(0).run();
+
+        // then
+        Throwable ex = catchThrowable(result::join);
+        assertThat(ex).hasCause(endpoint.exceptionToThrow);
+        assertThat(metrics.getFailedCount()).isEqualTo(1);
+        assertThat(metrics.getInFlightCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void execute_completes_future_exceptionally_if_the_executor_rejects_the_task() {
+        // given
+        TestBlockingEndpoint endpoint = new TestBlockingEndpoint();
+        RejectedExecutionException rejectedEx = new RejectedExecutionException("cancelled");
+
+        // when
+        CompletableFuture<ResponseInfo<String>> result =
+            endpoint.execute(requestMock, task -> { throw rejectedEx; }, ctxMock);
+
+        // then
+        Throwable ex = catchThrowable(result::join);
+        assertThat(ex).hasCause(rejectedEx);
+        assertThat(metrics.getRejectedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void getBlockingTaskExecutor_uses_virtual_threads_if_supported_and_longRunningTaskExecutor_otherwise() {
+        // given
+        BlockingEndpoint<String, String> endpoint = new BlockingEndpoint<String, String>() {
+            @Override
+            public Matcher requestMatcher() {
+                return null;
+            }
+
+            @Override
+            protected ResponseInfo<String> executeBlocking(RequestInfo<String> request, ChannelHandlerContext ctx) {
+                return null;
+            }
+        };
+        CancellableTaskExecutor cancellableExecutor = new CancellableTaskExecutor(longRunningTaskExecutor);
+
+        // when
+        Executor plainResult = endpoint.getBlockingTaskExecutor(longRunningTaskExecutor);
+        Executor cancellableResult = endpoint.getBlockingTaskExecutor(cancellableExecutor);
+
+        // then
+        assertThat(endpoint.getBlockingEndpointMetrics()).isSameAs(BlockingEndpointMetrics.getDefaultInstance());
+        if (VirtualThreadSupport.isVirtualThreadSupported()) {
+            assertThat(plainResult).isSameAs(VirtualThreadSupport.getVirtualThreadPerTaskExecutor());
+            assertThat(cancellableResult).isNotSameAs(cancellableExecutor);
+        }
+        else {
+            assertThat(plainResult).isSameAs(longRunningTaskExecutor);
+            assertThat(cancellableResult).isSameAs(cancellableExecutor);
+        }
+    }
+
+    @Test
+    public void shouldLogSlowStartWarning_allows_one_warning_per_interval() {
+        // given
+        TestBlockingEndpoint endpoint = new TestBlockingEndpoint();
+        long now = System.nanoTime();
+        long intervalNanos = TimeUnit.MILLISECONDS.toNanos(BlockingEndpoint.SLOW_START_WARNING_INTERVAL_MILLIS);
+
+        // expect
+        assertThat(endpoint.shouldLogSlowStartWarning(now)).isTrue();
+        assertThat(endpoint.shouldLogSlowStartWarning(now + 1)).isFalse();
+        assertThat(endpoint.shouldLogSlowStartWarning(now + intervalNanos - 1)).isFalse();
+        assertThat(endpoint.shouldLogSlowStartWarning(now + intervalNanos)).isTrue();
+        assertThat(endpoint.shouldLogSlowStartWarning(now + intervalNanos + 1)).isFalse();
+    }
+
+    @Test
+    public void metrics_count_executions_that_wait_longer_than_the_threshold_to_start_as_slow_starts() {
+        // when
+        boolean fastStart = metrics.recordStarted(TimeUnit.MILLISECONDS.toNanos(10), true);
+        boolean slowStart = metrics.recordStarted(TimeUnit.MILLISECONDS.toNanos(300), true);
+
+        // then
+        assertThat(fastStart).isFalse();
+        assertThat(slowStart).isTrue();
+        assertThat(metrics.getSlowStartCount()).isEqualTo(1);
+        assertThat(metrics.getMaxStartDelayMillis()).isEqualTo(300);
+        assertThat(metrics.getAverageStartDelayMillis()).isEqualTo(155);
+        assertThat(metrics.getVirtualThreadExecutionCount()).isEqualTo(2);
+        assertThat(metrics.getInFlightCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void metrics_constructor_throws_IllegalArgumentException_if_threshold_is_not_positive() {
+        // when
+        Throwable ex = catchThrowable(() -> new BlockingEndpointMetrics(0));
+
+        // then
+        assertThat(ex).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,90 @@
+package com.nike.riposte.server.http;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests the functionality of {@link HttpProcessingState}
+ */
+public class HttpProcessingStateTest {
+
+    private HttpProcessingState state;
+    private ByteBuf content;
+
+    @Before
+    public void beforeMethod() {
+        state = new HttpProcessingState();
+        content = Unpooled.copiedBuffer("some content", CharsetUtil.UTF_8);
+    }
+
+    @Test
+    public void setResponseInfo_releases_ByteBuf_content_of_replaced_unsent_response() {
+        // given
+        state.setResponseInfo(ResponseInfo.newBuilder(content).build());
+
+        // when
+        state.setResponseInfo(ResponseInfo.newBuilder("error").build());
+
+        // then
+        assertThat(content.refCnt()).isEqualTo(0);
+    }
+
+    @Test
+    public void setResponseInfo_does_not_release_ByteBuf_content_if_replacement_reuses_it() {
+        // given
+        state.setResponseInfo(ResponseInfo.newBuilder(content).build());
+
+        // when
+        state.setResponseInfo(ResponseInfo.newBuilder(content).withHttpStatusCode(201).build());
+
+        // then
+        assertThat(content.refCnt()).isEqualTo(1);
+    }
+
+    @Test
+    public void setResponseInfo_does_not_release_ByteBuf_content_if_response_sending_started() {
+        // given
+        ResponseInfo<ByteBuf> orig = ResponseInfo.newBuilder(content).build();
+        state.setResponseInfo(orig);
+        orig.setResponseSendingStarted(true);
+
+        // when
+        state.setResponseInfo(ResponseInfo.newBuilder("error").build());
+
+        // then
+        assertThat(content.refCnt()).isEqualTo(1);
+    }
+
+    @Test
+    public void setResponseInfo_does_not_release_ByteBuf_content_when_same_instance_is_set_again() {
+        // given
+        ResponseInfo<ByteBuf> orig = ResponseInfo.newBuilder(content).build();
+        state.setResponseInfo(orig);
+
+        // when
+        state.setResponseInfo(orig);
+
+        // then
+        assertThat(content.refCnt()).isEqualTo(1);
+        assertThat(state.getResponseInfo()).isSameAs(orig);
+    }
+
+    @Test
+    public void cleanStateForNewRequest_releases_ByteBuf_content_of_unsent_response() {
+        // given
+        state.setResponseInfo(ResponseInfo.newBuilder(content).build());
+
+        // when
+        state.cleanStateForNewRequest();
+
+        // then
+        assertThat(content.refCnt()).isEqualTo(0);
+        assertThat(state.getResponseInfo()).isNull();
+    }
+}
@@ -51,6 +51,11 @@ public class ProxyRouterEndpointTest {
         assertThat(defaultImpl.requestContentType()).isNull();
     }
 
+    @Test
+    public void downstreamWarmupTargets_returnsEmptyCollection() {
+        assertThat(defaultImpl.downstreamWarmupTargets()).isEmpty();
+    }
+
     @Test
     public void downstreamRequestFirstChunkInfo_constructorSetsValuesAsExpected() {
         // given
@@ -0,0 +1,196 @@
+package com.nike.riposte.server.http;
+
+import com.nike.riposte.server.config.ServerConfig.RequestDeadlineConfig;
+import com.nike.riposte.server.error.exception.RequestDeadlineExceededException;
+
+import com.tngtech.java.junit.dataprovider.DataProvider;
+import com.tngtech.java.junit.dataprovider.DataProviderRunner;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaders;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * Tests the functionality of {@link RequestDeadline}.
+ */
+@RunWith(DataProviderRunner.class)
+public class RequestDeadlineTest {
+
+    private static final String HEADER_NAME = "X-Request-Timeout-Millis";
+
+    private final AtomicLong nowNanos = new AtomicLong(TimeUnit.SECONDS.toNanos(1000));
+
+    private RequestDeadline deadlineInMillis(long millisFromNow, long minimumRemainingBudgetMillis) {
+        return new RequestDeadline(
+            nowNanos.get() + TimeUnit.MILLISECONDS.toNanos(millisFromNow), minimumRemainingBudgetMillis, HEADER_NAME,
+            nowNanos::get
+        );
+    }
+
+    private RequestDeadlineConfig config(String headerName, long defaultDeadlineMillis) {
+        return new RequestDeadlineConfig() {
+            @Override
+            public String deadlineHeaderName() {
+                return headerName;
+            }
+
+            @Override
+            public long defaultDeadlineMillis() {
+                return defaultDeadlineMillis;
+            }
+        };
+    }
+
+    @Test
+    public void constructor_throws_IllegalArgumentException_if_minimumRemainingBudgetMillis_is_negative() {
+        // when
+        Throwable ex = catchThrowable(() -> new RequestDeadline(42, -1, null));
+
+        // then
+        assertThat(ex).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @DataProvider(value = {
+        // header value | default deadline | expected budget (-1 means no deadline)
+        "1500           |   0               |   1500",
+        " 1500          |   0               |   1500",
+        "1500           |   3000            |   1500",
+        "null           |   3000            |   3000",
+        "0              |   3000            |   3000",
+        "-5             |   3000            |   3000",
+        "not-a-number   |   3000            |   3000",
+        "null           |   0               |   -1",
+        "not-a-number   |   0               |   -1"
+    }, splitBy = "\\|")
+    @Test
+    public void fromRequest_uses_header_value_or_falls_back_to_default_deadline(
+        String headerValue, long defaultDeadlineMillis, long expectedBudgetMillis
+    ) {
+        // given
+        HttpHeaders headers = new DefaultHttpHeaders();
+        if (headerValue != null)
+            headers.set(HEADER_NAME, headerValue);
+        long requestStartTimeNanos = 424242;
+
+        // when
+        RequestDeadline deadline = RequestDeadline.fromRequest(
+            headers, requestStartTimeNanos, config(HEADER_NAME, defaultDeadlineMillis)
+        );
+
+        // then
+        if (expectedBudgetMillis == -1) {
+            assertThat(deadline).isNull();
+        }
+        else {
+            assertThat(deadline.getDeadlineNanos())
+                .isEqualTo(requestStartTimeNanos + TimeUnit.MILLISECONDS.toNanos(expectedBudgetMillis));
+            assertThat(deadline.getHeaderName()).isEqualTo(HEADER_NAME);
+            assertThat(deadline.getMinimumRemainingBudgetMillis())
+                .isEqualTo(RequestDeadlineConfig.DEFAULT_IMPL.minimumRemainingBudgetMillis());
+        }
+    }
+
+    @Test
+    public void fromRequest_ignores_header_if_config_has_no_header_name_and_returns_null_for_null_config() {
+        // given
+        HttpHeaders headers = new DefaultHttpHeaders().set(HEADER_NAME, "1500");
+
+        // expect
+        assertThat(RequestDeadline.fromRequest(headers, 0, config(null, 0))).isNull();
+        assertThat(RequestDeadline.fromRequest(headers, 0, null)).isNull();
+    }
+
+    @Test
+    public void getRemainingMillis_counts_down_as_time_passes() {
+        // given
+        RequestDeadline deadline = deadlineInMillis(100, 5);
+
+        // expect
+        assertThat(deadline.getRemainingMillis()).isEqualTo(100);
+        nowNanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(60));
+        assertThat(deadline.getRemainingMillis()).isEqualTo(40);
+        nowNanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(60));
+        assertThat(deadline.getRemainingMillis()).isEqualTo(-20);
+    }
+
+    @DataProvider(value = {
+        "100    |   5   |   false",
+        "5      |   5   |   false",
+        "4      |   5   |   true",
+        "0      |   0   |   true",
+        "-10    |   0   |   true"
+    }, splitBy = "\\|")
+    @Test
+    public void exceededExceptionIfTooClose_returns_exception_only_if_less_than_minimum_budget_is_left(
+        long remainingMillis, long minimumRemainingBudgetMillis, boolean expectException
+    ) {
+        // given
+        RequestDeadline deadline = deadlineInMillis(remainingMillis, minimumRemainingBudgetMillis);
+
+        // when
+        RequestDeadlineExceededException result = deadline.exceededExceptionIfTooClose();
+
+        // then
+        if (expectException)
+            assertThat(result.remainingBudgetMillis).isEqualTo(remainingMillis);
+        else
+            assertThat(result).isNull();
+    }
+
+    @DataProvider(value = {
+        "1000   |   300     |   300",
+        "200    |   300     |   200",
+        "1000   |   -50     |   1"
+    }, splitBy = "\\|")
+    @Test
+    public void capTimeoutMillis_returns_smaller_of_timeout_and_remaining_budget_but_at_least_1(
+        long timeoutMillis, long remainingMillis, long expectedResult
+    ) {
+        // given
+        RequestDeadline deadline = deadlineInMillis(remainingMillis, 5);
+
+        // expect
+        assertThat(deadline.capTimeoutMillis(timeoutMillis)).isEqualTo(expectedResult);
+    }
+
+    @Test
+    public void setRemainingBudgetHeader_sets_remaining_budget_in_header_but_never_negative() {
+        // given
+        RequestDeadline deadline = deadlineInMillis(250, 5);
+        HttpHeaders headers = new DefaultHttpHeaders();
+
+        // when
+        deadline.setRemainingBudgetHeader(headers);
+
+        // then
+        assertThat(headers.get(HEADER_NAME)).isEqualTo("250");
+
+        // and when
+        nowNanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        deadline.setRemainingBudgetHeader(headers);
+
+        // then
+        assertThat(headers.get(HEADER_NAME)).isEqualTo("0");
+    }
+
+    @Test
+    public void setRemainingBudgetHeader_does_nothing_if_header_name_is_null() {
+        // given
+        RequestDeadline deadline = new RequestDeadline(nowNanos.get(), 5, null, nowNanos::get);
+        HttpHeaders headers = new DefaultHttpHeaders();
+
+        // when
+        deadline.setRemainingBudgetHeader(headers);
+
+        // then
+        assertThat(headers.isEmpty()).isTrue();
+    }
+}
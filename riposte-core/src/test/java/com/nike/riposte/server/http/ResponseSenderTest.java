@@ -1,23 +1,37 @@
 package com.nike.riposte.server.http;
 
+import com.nike.riposte.server.http.ResponseSender.ByteRange;
+import com.nike.riposte.server.http.cache.EntityTagGenerator;
+import com.nike.riposte.server.http.header.StaticResponseHeaders;
+import com.nike.riposte.server.http.impl.FileResponseInfo;
 import com.nike.riposte.server.http.impl.FullResponseInfo;
 import com.nike.riposte.server.testutils.TestUtil;
+import com.google.common.collect.ImmutableMap;
 import com.tngtech.java.junit.dataprovider.DataProvider;
 import com.tngtech.java.junit.dataprovider.DataProviderRunner;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.DefaultHttpHeaders;
 import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpVersion;
 import io.netty.handler.codec.http.cookie.Cookie;
 import io.netty.handler.codec.http.cookie.DefaultCookie;
+import io.netty.util.CharsetUtil;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 
+import java.io.File;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
@@ -31,6 +45,9 @@ import static org.mockito.Mockito.when;
 @RunWith(DataProviderRunner.class)
 public class ResponseSenderTest {
 
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     ResponseSender responseSender;
     ChannelHandlerContext ctx;
     ResponseInfo<?> responseInfo;
@@ -94,6 +111,323 @@ public class ResponseSenderTest {
         }
     }
 
+    @DataProvider(value = {
+        "bytes=0-499        |   0       |   500",
+        "bytes=500-999      |   500     |   500",
+        "bytes=500-5000     |   500     |   500",
+        "bytes=500-         |   500     |   500",
+        "bytes=-100         |   900     |   100",
+        "bytes=-5000        |   0       |   1000",
+        "BYTES= 999-999     |   999     |   1"
+    }, splitBy = "\\|")
+    @Test
+    public void parseSingleByteRange_returns_satisfiable_ranges(String header, long expectedStart, long expectedLength) {
+        // when
+        ByteRange range = ResponseSender.parseSingleByteRange(header, 1000);
+
+        // then
+        assertThat(range).isNotNull();
+        assertThat(range.start).isEqualTo(expectedStart);
+        assertThat(range.length).isEqualTo(expectedLength);
+    }
+
+    @DataProvider(value = {
+        "bytes=1000-",
+        "bytes=1000-2000",
+        "bytes=-0"
+    })
+    @Test
+    public void parseSingleByteRange_returns_UNSATISFIABLE_for_ranges_outside_resource(String header) {
+        // expect
+        assertThat(ResponseSender.parseSingleByteRange(header, 1000)).isSameAs(ByteRange.UNSATISFIABLE);
+    }
+
+    @DataProvider(value = {
+        "bytes=",
+        "bytes=-",
+        "bytes=abc-def",
+        "bytes=5-1",
+        "bytes=0-1,5-10",
+        "items=0-10",
+        "bytes=+1-10",
+        "bytes=99999999999999999999-"
+    }, splitBy = "\\|")
+    @Test
+    public void parseSingleByteRange_returns_null_for_malformed_or_multi_range_headers(String header) {
+        // expect
+        assertThat(ResponseSender.parseSingleByteRange(header, 1000)).isNull();
+    }
+
+    @DataProvider(value = {
+        "null                               |   true",
+        "\"abc\"                            |   true",
+        "\"xyz\"                            |   false",
+        "W/\"abc\"                          |   false",
+        "Thu, 01 Jan 2015 00:00:00 GMT      |   true",
+        "Fri, 02 Jan 2015 00:00:00 GMT      |   false"
+    }, splitBy = "\\|")
+    @Test
+    public void isIfRangeSatisfied_works_as_expected(String ifRange, boolean expected) {
+        // given
+        HttpHeaders responseHeaders = new DefaultHttpHeaders()
+            .set(HttpHeaders.Names.ETAG, "\"abc\"")
+            .set(HttpHeaders.Names.LAST_MODIFIED, "Thu, 01 Jan 2015 00:00:00 GMT");
+
+        // expect
+        assertThat(responseSender.isIfRangeSatisfied(ifRange, responseHeaders)).isEqualTo(expected);
+    }
+
+    private FileResponseInfo createFileResponseInfo(int fileLength) throws Exception {
+        File file = tempFolder.newFile();
+        Files.write(file.toPath(), new byte[fileLength]);
+        return ResponseInfo.newFileResponseBuilder(file).withHttpStatusCode(200).build();
+    }
+
+    @Test
+    public void prepareFileResponseInfo_sets_headers_for_full_file_when_no_range_requested() throws Exception {
+        // given
+        FileResponseInfo fileResponseInfo = createFileResponseInfo(1000);
+        when(requestInfo.getMethod()).thenReturn(HttpMethod.GET);
+
+        // when
+        responseSender.prepareFileResponseInfo(fileResponseInfo, requestInfo);
+
+        // then
+        assertThat(fileResponseInfo.getHttpStatusCode()).isEqualTo(200);
+        assertThat(fileResponseInfo.getRangeStart()).isEqualTo(0);
+        assertThat(fileResponseInfo.getRangeLength()).isEqualTo(1000);
+        assertThat(fileResponseInfo.getHeaders().get(HttpHeaders.Names.CONTENT_LENGTH)).isEqualTo("1000");
+        assertThat(fileResponseInfo.getHeaders().get(HttpHeaders.Names.ACCEPT_RANGES)).isEqualTo("bytes");
+        assertThat(fileResponseInfo.getHeaders().get(HttpHeaders.Names.LAST_MODIFIED)).isNotNull();
+        assertThat(fileResponseInfo.getHeaders().contains(HttpHeaders.Names.CONTENT_RANGE)).isFalse();
+    }
+
+    @Test
+    public void prepareFileResponseInfo_converts_to_206_for_satisfiable_range() throws Exception {
+        // given
+        FileResponseInfo fileResponseInfo = createFileResponseInfo(1000);
+        when(requestInfo.getMethod()).thenReturn(HttpMethod.GET);
+        httpHeaders.set(HttpHeaders.Names.RANGE, "bytes=100-199");
+
+        // when
+        responseSender.prepareFileResponseInfo(fileResponseInfo, requestInfo);
+
+        // then
+        assertThat(fileResponseInfo.getHttpStatusCode()).isEqualTo(206);
+        assertThat(fileResponseInfo.getRangeStart()).isEqualTo(100);
+        assertThat(fileResponseInfo.getRangeLength()).isEqualTo(100);
+        assertThat(fileResponseInfo.getHeaders().get(HttpHeaders.Names.CONTENT_LENGTH)).isEqualTo("100");
+        assertThat(fileResponseInfo.getHeaders().get(HttpHeaders.Names.CONTENT_RANGE)).isEqualTo("bytes 100-199/1000");
+    }
+
+    @Test
+    public void prepareFileResponseInfo_converts_to_416_for_unsatisfiable_range() throws Exception {
+        // given
+        FileResponseInfo fileResponseInfo = createFileResponseInfo(1000);
+        when(requestInfo.getMethod()).thenReturn(HttpMethod.GET);
+        httpHeaders.set(HttpHeaders.Names.RANGE, "bytes=1000-");
+
+        // when
+        responseSender.prepareFileResponseInfo(fileResponseInfo, requestInfo);
+
+        // then
+        assertThat(fileResponseInfo.getHttpStatusCode()).isEqualTo(416);
+        assertThat(fileResponseInfo.getRangeLength()).isEqualTo(0);
+        assertThat(fileResponseInfo.getHeaders().get(HttpHeaders.Names.CONTENT_LENGTH)).isEqualTo("0");
+        assertThat(fileResponseInfo.getHeaders().get(HttpHeaders.Names.CONTENT_RANGE)).isEqualTo("bytes */1000");
+    }
+
+    @DataProvider(value = {
+        "GET    |   404 |   null",
+        "POST   |   200 |   null",
+        "GET    |   200 |   \"does-not-match\""
+    }, splitBy = "\\|")
+    @Test
+    public void prepareFileResponseInfo_ignores_range_when_not_applicable(
+        String method, int statusCode, String ifRange
+    ) throws Exception {
+        // given
+        FileResponseInfo fileResponseInfo = createFileResponseInfo(1000);
+        fileResponseInfo.setHttpStatusCode(statusCode);
+        when(requestInfo.getMethod()).thenReturn(HttpMethod.valueOf(method));
+        httpHeaders.set(HttpHeaders.Names.RANGE, "bytes=100-199");
+        if (ifRange != null)
+            httpHeaders.set(HttpHeaders.Names.IF_RANGE, ifRange);
+
+        // when
+        responseSender.prepareFileResponseInfo(fileResponseInfo, requestInfo);
+
+        // then
+        assertThat(fileResponseInfo.getHttpStatusCode()).isEqualTo(statusCode);
+        assertThat(fileResponseInfo.getRangeLength()).isEqualTo(1000);
+        assertThat(fileResponseInfo.getHeaders().contains(HttpHeaders.Names.CONTENT_RANGE)).isFalse();
+    }
+
+    @Test
+    public void serializeOutputToByteBufForResponse_uses_ByteBuf_content_as_is() {
+        // given
+        CompositeByteBuf content = Unpooled.compositeBuffer();
+        content.addComponent(Unpooled.copiedBuffer("foo", CharsetUtil.UTF_8));
+        content.addComponent(Unpooled.copiedBuffer("bar", CharsetUtil.UTF_8));
+        content.writerIndex(6);
+
+        // when
+        ByteBuf result = responseSender.serializeOutputToByteBufForResponse(content, responseInfo, null, ctx);
+
+        // then
+        assertThat(result).isSameAs(content);
+        assertThat(result.refCnt()).isEqualTo(1);
+        assertThat(result.toString(CharsetUtil.UTF_8)).isEqualTo("foobar");
+        content.release();
+    }
+
+    @DataProvider(value = {
+        "HEAD   |   200 |   true",
+        "GET    |   204 |   false",
+        "GET    |   304 |   true"
+    }, splitBy = "\\|")
+    @Test
+    public void sanitizeResponseInfo_releases_ByteBuf_content_when_payload_is_not_allowed(
+        String method, int statusCode, boolean expectContentLengthHeader
+    ) {
+        // given
+        ByteBuf content = Unpooled.copiedBuffer("some content", CharsetUtil.UTF_8);
+        ResponseInfo<ByteBuf> byteBufResponseInfo = ResponseInfo.newBuilder(content)
+                                                                .withHttpStatusCode(statusCode)
+                                                                .build();
+        when(requestInfo.getMethod()).thenReturn(HttpMethod.valueOf(method));
+
+        // when
+        responseSender.sanitizeResponseInfo(byteBufResponseInfo, requestInfo, null, ctx);
+
+        // then
+        assertThat(content.refCnt()).isEqualTo(0);
+        assertThat(byteBufResponseInfo.getContentForFullResponse()).isNull();
+        if (expectContentLengthHeader) {
+            assertThat(byteBufResponseInfo.getHeaders().get(HttpHeaders.Names.CONTENT_LENGTH))
+                .isEqualTo(String.valueOf("some content".length()));
+        }
+        else
+            assertThat(byteBufResponseInfo.getHeaders().contains(HttpHeaders.Names.CONTENT_LENGTH)).isFalse();
+    }
+
+    @DataProvider(value = {
+        "true   |   GET     |   200 |   true    |   true",
+        "false  |   GET     |   200 |   true    |   false",
+        "true   |   HEAD    |   200 |   true    |   false",
+        "true   |   POST    |   200 |   true    |   false",
+        "true   |   GET     |   201 |   true    |   false",
+        "true   |   GET     |   200 |   false   |   false"
+    }, splitBy = "\\|")
+    @Test
+    public void isAutoEntityTagCandidate_works_as_expected(
+        boolean hasGenerator, String method, int statusCode, boolean hasContent, boolean expectedResult
+    ) {
+        // given
+        ResponseSender sender = new ResponseSender(null, null, null, (hasGenerator) ? new EntityTagGenerator() : null);
+        when(requestInfo.getMethod()).thenReturn(HttpMethod.valueOf(method));
+        responseInfo.setHttpStatusCode(statusCode);
+        ByteBuf content = (hasContent) ? Unpooled.copiedBuffer("foo", CharsetUtil.UTF_8) : Unpooled.EMPTY_BUFFER;
+        HttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, content);
+
+        // expect
+        assertThat(sender.isAutoEntityTagCandidate(requestInfo, responseInfo, response)).isEqualTo(expectedResult);
+    }
+
+    @Test
+    public void convertToNotModifiedResponse_releases_payload_and_records_bytes_saved() {
+        // given
+        EntityTagGenerator entityTagGenerator = new EntityTagGenerator();
+        ResponseSender sender = new ResponseSender(null, null, null, entityTagGenerator);
+        ByteBuf content = Unpooled.copiedBuffer("some content", CharsetUtil.UTF_8);
+        DefaultFullHttpResponse fullResponse =
+            new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, content);
+        responseInfo.setHttpStatusCode(200);
+
+        // when
+        HttpResponse result = sender.convertToNotModifiedResponse(responseInfo, fullResponse);
+
+        // then
+        assertThat(result.getStatus()).isEqualTo(HttpResponseStatus.NOT_MODIFIED);
+        assertThat(((DefaultFullHttpResponse) result).content().readableBytes()).isEqualTo(0);
+        assertThat(content.refCnt()).isEqualTo(0);
+        assertThat(responseInfo.getHttpStatusCode()).isEqualTo(304);
+        assertThat(responseInfo.getHeaders().get(HttpHeaders.Names.CONTENT_LENGTH))
+            .isEqualTo(String.valueOf("some content".length()));
+        assertThat(entityTagGenerator.getNotModifiedResponseCount()).isEqualTo(1);
+        assertThat(entityTagGenerator.getNotModifiedBytesSaved()).isEqualTo("some content".length());
+    }
+
+    @DataProvider(value = {
+        "false  |   false",
+        "false  |   true",
+        "true   |   false",
+        "true   |   true"
+    }, splitBy = "\\|")
+    @Test
+    public void synchronizeAndSetupResponseInfoAndFirstChunk_adds_endpoint_and_server_static_headers(
+        boolean isProxyEndpoint, boolean endpointHasStaticHeaders
+    ) {
+        // given
+        TestUtil.ChannelHandlerContextMocks mocks = TestUtil.mockChannelHandlerContext();
+        Endpoint<?> endpoint = (isProxyEndpoint) ? mock(ProxyRouterEndpoint.class) : mock(StandardEndpoint.class);
+        when(mocks.mockHttpProcessingState.getEndpointForExecution()).thenReturn((Endpoint) endpoint);
+        if (endpointHasStaticHeaders) {
+            when(endpoint.staticResponseHeaders()).thenReturn(
+                new StaticResponseHeaders(ImmutableMap.of("X-Endpoint", "endpoint", "X-Shared", "from-endpoint"), false)
+            );
+        }
+        ResponseSender sender = new ResponseSender(
+            null, null, null, null,
+            new StaticResponseHeaders(ImmutableMap.of("X-Server", "server", "X-Shared", "from-server"), true)
+        );
+        responseInfo.getHeaders().set("X-Server", "from-response-info");
+        actualResponseObject = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+
+        // when
+        sender.synchronizeAndSetupResponseInfoAndFirstChunk(responseInfo, actualResponseObject, requestInfo,
+                                                            mocks.mockContext);
+
+        // then
+        HttpHeaders headers = actualResponseObject.headers();
+        assertThat(headers.getAll("X-Server")).containsExactly("from-response-info");
+        assertThat(headers.get("X-Endpoint")).isEqualTo((endpointHasStaticHeaders) ? "endpoint" : null);
+        if (endpointHasStaticHeaders)
+            assertThat(headers.getAll("X-Shared")).containsExactly("from-endpoint");
+        else
+            assertThat(headers.get("X-Shared")).isEqualTo((isProxyEndpoint) ? null : "from-server");
+        assertThat(headers.contains(HttpHeaders.Names.DATE)).isEqualTo(!isProxyEndpoint);
+    }
+
+    @Test
+    public void sanitizeResponseInfo_uses_cached_content_type_header_value_by_default() {
+        // when
+        responseSender.sanitizeResponseInfo(responseInfo, requestInfo, null, ctx);
+
+        // then
+        assertThat(responseInfo.getHeaders().get(HttpHeaders.Names.CONTENT_TYPE))
+            .isEqualTo("application/json; charset=UTF-8");
+        assertThat(responseSender.buildContentTypeHeader(responseInfo))
+            .isSameAs(responseSender.buildContentTypeHeader(responseInfo));
+    }
+
+    @Test
+    public void sanitizeResponseInfo_honors_overridden_buildContentTypeHeader() {
+        // given
+        responseSender = new ResponseSender(null, null) {
+            @Override
+            protected String buildContentTypeHeader(ResponseInfo<?> responseInfo) {
+                return "application/custom";
+            }
+        };
+
+        // when
+        responseSender.sanitizeResponseInfo(responseInfo, requestInfo, null, ctx);
+
+        // then
+        assertThat(responseInfo.getHeaders().get(HttpHeaders.Names.CONTENT_TYPE)).isEqualTo("application/custom");
+    }
+
     private Set<Cookie> createCookies(int numberOfCookies) {
         if (numberOfCookies < 0) {
             return null;
@@ -0,0 +1,196 @@
+package com.nike.riposte.util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * Tests the functionality of {@link CancellableTaskExecutor}.
+ */
+public class CancellableTaskExecutorTest {
+
+    private ExecutorService realExecutor;
+
+    @After
+    public void afterMethod() {
+        if (realExecutor != null)
+            realExecutor.shutdownNow();
+    }
+
+    @Test
+    public void constructor_throws_IllegalArgumentException_if_delegate_is_null() {
+        // when
+        Throwable ex = catchThrowable(() -> new CancellableTaskExecutor(null));
+
+        // then
+        assertThat(ex).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void execute_runs_tasks_on_the_delegate() {
+        // given
+        List<Runnable> delegatedTasks = new ArrayList<>();
+        CancellableTaskExecutor executor = new CancellableTaskExecutor(delegatedTasks::add);
+        AtomicInteger runCount = new AtomicInteger();
+
+        // when
+        executor.execute(runCount::incrementAndGet);
+        delegatedTasks.forEach(Runnable::run);
+
+        // then
+        assertThat(delegatedTasks).hasSize(1);
+        assertThat(runCount.get()).isEqualTo(1);
+        assertThat(executor.getDelegate()).isNotNull();
+        assertThat(executor.isCancelled()).isFalse();
+    }
+
+    @Test
+    public void withDelegate_runs_tasks_on_the_other_executor_but_cancelAll_still_cancels_them() {
+        // given
+        List<Runnable> delegatedTasks = new ArrayList<>();
+        List<Runnable> otherTasks = new ArrayList<>();
+        CancellableTaskExecutor executor = new CancellableTaskExecutor(delegatedTasks::add);
+        Executor otherExecutor = executor.withDelegate(otherTasks::add);
+        AtomicInteger runCount = new AtomicInteger();
+        otherExecutor.execute(runCount::incrementAndGet);
+
+        // when
+        int[] result = executor.cancelAll();
+        otherTasks.forEach(Runnable::run);
+        Throwable ex = catchThrowable(() -> otherExecutor.execute(runCount::incrementAndGet));
+
+        // then
+        assertThat(delegatedTasks).isEmpty();
+        assertThat(otherTasks).hasSize(1);
+        assertThat(result).containsExactly(1, 0);
+        assertThat(runCount.get()).isEqualTo(0);
+        assertThat(ex).isInstanceOf(RejectedExecutionException.class);
+    }
+
+    @Test
+    public void withDelegate_throws_IllegalArgumentException_if_other_delegate_is_null() {
+        // when
+        Throwable ex = catchThrowable(() -> new CancellableTaskExecutor(task -> {}).withDelegate(null));
+
+        // then
+        assertThat(ex).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void cancelAll_skips_tasks_that_have_not_started_and_rejects_new_tasks() {
+        // given
+        List<Runnable> delegatedTasks = new ArrayList<>();
+        CancellableTaskExecutor executor = new CancellableTaskExecutor(delegatedTasks::add);
+        AtomicInteger runCount = new AtomicInteger();
+        executor.execute(runCount::incrementAndGet);
+        executor.execute(runCount::incrementAndGet);
+
+        // when
+        int[] result = executor.cancelAll();
+        delegatedTasks.forEach(Runnable::run);
+        Throwable ex = catchThrowable(() -> executor.execute(runCount::incrementAndGet));
+
+        // then
+        assertThat(result).containsExactly(2, 0);
+        assertThat(runCount.get()).isEqualTo(0);
+        assertThat(ex).isInstanceOf(RejectedExecutionException.class);
+        assertThat(executor.isCancelled()).isTrue();
+    }
+
+    @Test
+    public void cancelAll_does_not_count_tasks_that_already_finished() {
+        // given
+        List<Runnable> delegatedTasks = new ArrayList<>();
+        CancellableTaskExecutor executor = new CancellableTaskExecutor(delegatedTasks::add);
+        executor.execute(() -> {});
+        delegatedTasks.forEach(Runnable::run);
+
+        // when
+        int[] result = executor.cancelAll();
+
+        // then
+        assertThat(result).containsExactly(0, 0);
+    }
+
+    @Test
+    public void cancelAll_interrupts_running_tasks_and_does_not_leave_the_interrupt_on_the_thread()
+        throws InterruptedException {
+        // given
+        realExecutor = Executors.newSingleThreadExecutor();
+        CancellableTaskExecutor executor = new CancellableTaskExecutor(realExecutor);
+        CountDownLatch taskStarted = new CountDownLatch(1);
+        CountDownLatch taskInterrupted = new CountDownLatch(1);
+        executor.execute(() -> {
+            taskStarted.countDown();
+            try {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+            }
+            catch (InterruptedException e) {
+                taskInterrupted.countDown();
+            }
+        });
+        assertThat(taskStarted.await(10, TimeUnit.SECONDS)).isTrue();
+
+        // when
+        int[] result = executor.cancelAll();
+
+        // then
+        assertThat(result).containsExactly(0, 1);
+        assertThat(taskInterrupted.await(10, TimeUnit.SECONDS)).isTrue();
+
+        // and when
+        AtomicBoolean nextTaskSawInterrupt = new AtomicBoolean(true);
+        CountDownLatch nextTaskDone = new CountDownLatch(1);
+        realExecutor.execute(() -> {
+            nextTaskSawInterrupt.set(Thread.currentThread().isInterrupted());
+            nextTaskDone.countDown();
+        });
+
+        // then
+        assertThat(nextTaskDone.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(nextTaskSawInterrupt.get()).isFalse();
+    }
+
+    @Test
+    public void exceptions_thrown_by_tasks_propagate_to_the_delegate() {
+        // given
+        List<Runnable> delegatedTasks = new ArrayList<>();
+        CancellableTaskExecutor executor = new CancellableTaskExecutor(delegatedTasks::add);
+        RuntimeException taskEx = new RuntimeException("kaboom");
+        executor.execute(() -> { throw taskEx; });
+
+        // when
+        Throwable ex = catchThrowable(() -> delegatedTasks.get(0).run());
+
+        // then
+        assertThat(ex).isSameAs(taskEx);
+        assertThat(executor.cancelAll()).containsExactly(0, 0);
+    }
+
+    @Test
+    public void execute_forgets_the_task_if_the_delegate_rejects_it() {
+        // given
+        RejectedExecutionException delegateEx = new RejectedExecutionException("full");
+        CancellableTaskExecutor executor = new CancellableTaskExecutor(task -> { throw delegateEx; });
+
+        // when
+        Throwable ex = catchThrowable(() -> executor.execute(() -> {}));
+
+        // then
+        assertThat(ex).isSameAs(delegateEx);
+        assertThat(executor.cancelAll()).containsExactly(0, 0);
+    }
+}
@@ -1,5 +1,10 @@
 package com.nike.riposte.util;
 
+import com.nike.backstopper.apierror.ApiError;
+import com.nike.backstopper.apierror.ApiErrorWithMetadata;
+import com.nike.backstopper.apierror.sample.SampleCoreApiError;
+import com.nike.backstopper.model.DefaultErrorContractDTO;
+import com.nike.internal.util.Pair;
 import com.nike.riposte.server.error.handler.ErrorResponseBody;
 import com.nike.riposte.server.error.handler.ErrorResponseBodySerializer;
 
@@ -11,9 +16,14 @@ import com.tngtech.java.junit.dataprovider.DataProviderRunner;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 import java.util.function.Supplier;
 
+import static com.nike.riposte.util.ErrorContractSerializerHelper.SMART_ERROR_MAPPER;
+import static com.nike.riposte.util.ErrorContractSerializerHelper.asCachingErrorResponseBodySerializer;
 import static com.nike.riposte.util.ErrorContractSerializerHelper.asErrorResponseBodySerializer;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.catchThrowable;
@@ -124,4 +134,94 @@ public class ErrorContractSerializerHelperTest {
             .hasCause(jsonProcessingExceptionMock);
     }
 
-}
\ No newline at end of file
+    private ErrorResponseBody errorResponseBodyFor(Object bodyToSerialize) {
+        ErrorResponseBody errorResponseBodyMock = mock(ErrorResponseBody.class);
+        doReturn(bodyToSerialize).when(errorResponseBodyMock).bodyToSerialize();
+        return errorResponseBodyMock;
+    }
+
+    private enum ErrorListScenario {
+        SINGLE_ERROR_WITHOUT_METADATA(Collections.singletonList(SampleCoreApiError.NOT_FOUND), true),
+        MULTIPLE_ERRORS_WITHOUT_METADATA(
+            Arrays.asList(SampleCoreApiError.MALFORMED_REQUEST, SampleCoreApiError.TYPE_CONVERSION_ERROR), true
+        ),
+        ERROR_WITH_METADATA(
+            Collections.singletonList(
+                new ApiErrorWithMetadata(SampleCoreApiError.MALFORMED_REQUEST, Pair.of("cause", "some \"cause\""))
+            ),
+            false
+        );
+
+        public final List<ApiError> apiErrors;
+        public final boolean expectCached;
+
+        ErrorListScenario(List<ApiError> apiErrors, boolean expectCached) {
+            this.apiErrors = apiErrors;
+            this.expectCached = expectCached;
+        }
+    }
+
+    @DataProvider(value = {
+        "SINGLE_ERROR_WITHOUT_METADATA",
+        "MULTIPLE_ERRORS_WITHOUT_METADATA",
+        "ERROR_WITH_METADATA"
+    })
+    @Test
+    public void asCachingErrorResponseBodySerializer_produces_same_output_as_non_caching_serializer(
+        ErrorListScenario scenario
+    ) {
+        // given
+        ErrorResponseBodySerializer nonCachingSerializer = asErrorResponseBodySerializer(SMART_ERROR_MAPPER);
+        ErrorResponseBodySerializer cachingSerializer = asCachingErrorResponseBodySerializer(SMART_ERROR_MAPPER);
+        ErrorResponseBody firstBody = errorResponseBodyFor(
+            new DefaultErrorContractDTO(UUID.randomUUID().toString(), scenario.apiErrors)
+        );
+        ErrorResponseBody secondBody = errorResponseBodyFor(
+            new DefaultErrorContractDTO(UUID.randomUUID().toString(), scenario.apiErrors)
+        );
+
+        // when
+        String firstResult = cachingSerializer.serializeErrorResponseBodyToString(firstBody);
+        String secondResult = cachingSerializer.serializeErrorResponseBodyToString(secondBody);
+
+        // then
+        assertThat(firstResult).isEqualTo(nonCachingSerializer.serializeErrorResponseBodyToString(firstBody));
+        assertThat(secondResult).isEqualTo(nonCachingSerializer.serializeErrorResponseBodyToString(secondBody));
+        assertThat(
+            ((ErrorContractSerializerHelper.CachingErrorResponseBodySerializer) cachingSerializer)
+                .errorsKeyToSerializedErrorsArray
+        ).hasSize((scenario.expectCached) ? 1 : 0);
+    }
+
+    @DataProvider(value = {
+        "NULL_INSTANCE",
+        "NULL_BODY_TO_SERIALIZE"
+    })
+    @Test
+    public void asCachingErrorResponseBodySerializer_returns_serializer_that_returns_null_when_it_is_supposed_to(
+        ErrorResponseBodyScenario scenario
+    ) {
+        // given
+        ErrorResponseBodySerializer serializer = asCachingErrorResponseBodySerializer(SMART_ERROR_MAPPER);
+
+        // expect
+        assertThat(serializer.serializeErrorResponseBodyToString(scenario.generateErrorResponseBody())).isNull();
+    }
+
+    @Test
+    public void asCachingErrorResponseBodySerializer_serializes_non_contract_bodies_normally() {
+        // given
+        ErrorResponseBodySerializer serializer = asCachingErrorResponseBodySerializer(SMART_ERROR_MAPPER);
+        ErrorResponseBody body = errorResponseBodyFor(Collections.singletonMap("foo", "bar"));
+
+        // expect
+        assertThat(serializer.serializeErrorResponseBodyToString(body)).isEqualTo("{\"foo\":\"bar\"}");
+    }
+
+    @Test
+    public void SMART_ERROR_SERIALIZER_is_a_caching_serializer() {
+        // expect
+        assertThat(ErrorContractSerializerHelper.SMART_ERROR_SERIALIZER)
+            .isInstanceOf(ErrorContractSerializerHelper.CachingErrorResponseBodySerializer.class);
+    }
+}
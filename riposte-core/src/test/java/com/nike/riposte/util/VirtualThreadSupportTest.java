@@ -0,0 +1,43 @@
+package com.nike.riposte.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests the functionality of {@link VirtualThreadSupport}. The build runs on Java 8, but these tests pass on any JVM.
+ */
+public class VirtualThreadSupportTest {
+
+    @Test
+    public void platform_threads_are_never_virtual() {
+        // expect
+        assertThat(VirtualThreadSupport.isVirtualThread(Thread.currentThread())).isFalse();
+        assertThat(VirtualThreadSupport.isVirtualThread(null)).isFalse();
+    }
+
+    @Test
+    public void getVirtualThreadPerTaskExecutor_runs_tasks_on_named_virtual_threads_if_supported() {
+        // given
+        Executor executor = VirtualThreadSupport.getVirtualThreadPerTaskExecutor();
+        boolean supported = System.getProperty("java.specification.version").matches("\\d{2,}")
+                            && Integer.parseInt(System.getProperty("java.specification.version")) >= 21;
+
+        // expect
+        assertThat(VirtualThreadSupport.isVirtualThreadSupported()).isEqualTo(supported);
+        if (!supported) {
+            assertThat(executor).isNull();
+            return;
+        }
+
+        // and when
+        Thread taskThread = CompletableFuture.supplyAsync(Thread::currentThread, executor).join();
+
+        // then
+        assertThat(VirtualThreadSupport.isVirtualThread(taskThread)).isTrue();
+        assertThat(taskThread.getName()).startsWith(VirtualThreadSupport.VIRTUAL_THREAD_NAME_PREFIX);
+    }
+}
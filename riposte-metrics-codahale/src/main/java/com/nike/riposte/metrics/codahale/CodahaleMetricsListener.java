@@ -1,6 +1,8 @@
 package com.nike.riposte.metrics.codahale;
 
 import com.nike.internal.util.StringUtils;
+import com.nike.riposte.client.dns.CachingHostnameResolver;
+import com.nike.riposte.client.pool.DownstreamConnectionPoolMetrics;
 import com.nike.riposte.metrics.MetricsListener;
 import com.nike.riposte.metrics.codahale.impl.EndpointMetricsHandlerDefaultImpl;
 import com.nike.riposte.server.config.ServerConfig;
@@ -9,6 +11,9 @@ import com.nike.riposte.server.http.HttpProcessingState;
 import com.nike.riposte.server.http.RequestInfo;
 import com.nike.riposte.server.http.ResponseInfo;
 import com.nike.riposte.server.http.ResponseSender;
+import com.nike.riposte.server.http.cache.EntityTagGenerator;
+import com.nike.riposte.server.http.cache.ResponseCache;
+import com.nike.riposte.server.http.compression.AdaptiveCompressionPolicy;
 import com.nike.riposte.server.metrics.ServerMetricsEvent;
 
 import com.codahale.metrics.Counter;
@@ -31,10 +36,44 @@ import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerCo
 import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerConfigMetricNames.ENDPOINTS;
 import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerConfigMetricNames.MAX_REQUEST_SIZE_IN_BYTES;
 import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerConfigMetricNames.WORKER_THREADS;
+import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.COMPRESSED_RESPONSES;
+import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.COMPRESSION_MEMOIZED_VARIANT_HITS;
+import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.COMPRESSION_NANOS_PER_BYTE;
+import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.COMPRESSION_RATIO;
+import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.COMPRESSION_SKIPPED_UNDER_LOAD;
+import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.DOWNSTREAM_POOL_ACQUIRE_FAILURES;
+import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.DOWNSTREAM_POOL_ACTIVE_CONNECTIONS;
+import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.DOWNSTREAM_POOL_AVG_ACQUIRE_NANOS;
+import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.DOWNSTREAM_POOL_AVG_CONNECT_NANOS;
+import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.DOWNSTREAM_POOL_CONNECT_FAILURES;
+import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.DOWNSTREAM_POOL_EJECTED_ADDRESSES;
+import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.DOWNSTREAM_POOL_EJECTIONS;
+import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.DOWNSTREAM_POOL_IDLE_CONNECTIONS;
+import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.DOWNSTREAM_POOL_MAX_ACQUIRE_NANOS;
+import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.DOWNSTREAM_POOL_MAX_LIFETIME_EVICTIONS;
+import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.DOWNSTREAM_POOL_PENDING_ACQUIRES;
 import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.FAILED_REQUESTS;
+import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.HOSTNAME_RESOLVER_AVG_LOOKUP_NANOS;
+import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.HOSTNAME_RESOLVER_CACHE_HITS;
+import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.HOSTNAME_RESOLVER_CACHE_HIT_RATIO;
+import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.HOSTNAME_RESOLVER_CACHE_MISSES;
+import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.HOSTNAME_RESOLVER_LOOKUPS;
+import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.HOSTNAME_RESOLVER_LOOKUP_FAILURES;
+import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.HOSTNAME_RESOLVER_MAX_LOOKUP_NANOS;
+import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.HOSTNAME_RESOLVER_NEGATIVE_HITS;
+import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.HOSTNAME_RESOLVER_STALE_HITS;
+import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.HOSTNAME_RESOLVER_STALE_SERVED_ON_ERROR;
 import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.INFLIGHT_REQUESTS;
+import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.NOT_MODIFIED_BYTES_SAVED;
+import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.NOT_MODIFIED_RESPONSES;
 import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.PROCESSED_REQUESTS;
 import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.REQUEST_SIZES;
+import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.RESPONSE_CACHE_ENTRIES;
+import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.RESPONSE_CACHE_EVICTIONS;
+import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.RESPONSE_CACHE_EXPIRATIONS;
+import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.RESPONSE_CACHE_HITS;
+import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.RESPONSE_CACHE_MISSES;
+import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.RESPONSE_CACHE_SIZE_BYTES;
 import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.RESPONSE_SIZES;
 import static com.nike.riposte.metrics.codahale.CodahaleMetricsListener.ServerStatisticsMetricNames.RESPONSE_WRITE_FAILED;
 
@@ -169,14 +208,38 @@ public class CodahaleMetricsListener implements MetricsListener {
     /**
      * Initialize the endpoint and server config metrics. Note that the server config values will not be added if
      * {@link #includeServerConfigMetrics} is false, however {@link
-     * EndpointMetricsHandler#setupEndpointsMetrics(ServerConfig, MetricRegistry)} will always be called.
+     * EndpointMetricsHandler#setupEndpointsMetrics(ServerConfig, MetricRegistry)} will always be called. If the config
+     * has a {@link ServerConfig#responseCache()} then gauges for its hit/miss/eviction stats will be added as well, and
+     * if it has a {@link ServerConfig#entityTagGenerator()} then gauges for its {@code 304 Not Modified} stats will be
+     * added. Similarly, gauges for a {@link ServerConfig#adaptiveCompressionPolicy()}'s compression stats will be added
+     * if there is one.
      *
      * @param config The {@link ServerConfig} that contains the endpoints and server config values.
      */
     public void initEndpointAndServerConfigMetrics(ServerConfig config) {
         if (includeServerConfigMetrics)
             addServerConfigMetrics(config);
-        
+
+        ResponseCache responseCache = config.responseCache();
+        if (responseCache != null)
+            addResponseCacheMetrics(responseCache);
+
+        EntityTagGenerator entityTagGenerator = config.entityTagGenerator();
+        if (entityTagGenerator != null)
+            addEntityTagMetrics(entityTagGenerator);
+
+        AdaptiveCompressionPolicy compressionPolicy = config.adaptiveCompressionPolicy();
+        if (compressionPolicy != null)
+            addAdaptiveCompressionMetrics(compressionPolicy);
+
+        CachingHostnameResolver hostnameResolver = config.proxyRouterHostnameResolver();
+        if (hostnameResolver != null)
+            addHostnameResolverMetrics(hostnameResolver);
+
+        DownstreamConnectionPoolMetrics connectionPoolMetrics = config.proxyRouterConnectionPoolMetrics();
+        if (connectionPoolMetrics != null)
+            addDownstreamConnectionPoolMetrics(connectionPoolMetrics);
+
         endpointMetricsHandler.setupEndpointsMetrics(config, metricsCollector.getMetricRegistry());
     }
 
@@ -212,6 +275,187 @@ public class CodahaleMetricsListener implements MetricsListener {
         );
     }
 
+    /**
+     * Adds gauges that expose the given {@link ResponseCache}'s stats.
+     */
+    protected void addResponseCacheMetrics(ResponseCache responseCache) {
+        metricsCollector.registerNamedMetric(serverStatsMetricNamingStrategy.nameFor(RESPONSE_CACHE_HITS),
+                                             (Gauge<Long>)responseCache::getHitCount);
+
+        metricsCollector.registerNamedMetric(serverStatsMetricNamingStrategy.nameFor(RESPONSE_CACHE_MISSES),
+                                             (Gauge<Long>)responseCache::getMissCount);
+
+        metricsCollector.registerNamedMetric(serverStatsMetricNamingStrategy.nameFor(RESPONSE_CACHE_EVICTIONS),
+                                             (Gauge<Long>)responseCache::getEvictionCount);
+
+        metricsCollector.registerNamedMetric(serverStatsMetricNamingStrategy.nameFor(RESPONSE_CACHE_EXPIRATIONS),
+                                             (Gauge<Long>)responseCache::getExpirationCount);
+
+        metricsCollector.registerNamedMetric(serverStatsMetricNamingStrategy.nameFor(RESPONSE_CACHE_ENTRIES),
+                                             (Gauge<Integer>)responseCache::getEntryCount);
+
+        metricsCollector.registerNamedMetric(serverStatsMetricNamingStrategy.nameFor(RESPONSE_CACHE_SIZE_BYTES),
+                                             (Gauge<Long>)responseCache::getTotalBytes);
+    }
+
+    /**
+     * Adds gauges that expose how many {@code 304 Not Modified} responses the given {@link EntityTagGenerator} has
+     * recorded, and how many response body bytes they saved.
+     */
+    protected void addEntityTagMetrics(EntityTagGenerator entityTagGenerator) {
+        metricsCollector.registerNamedMetric(serverStatsMetricNamingStrategy.nameFor(NOT_MODIFIED_RESPONSES),
+                                             (Gauge<Long>)entityTagGenerator::getNotModifiedResponseCount);
+
+        metricsCollector.registerNamedMetric(serverStatsMetricNamingStrategy.nameFor(NOT_MODIFIED_BYTES_SAVED),
+                                             (Gauge<Long>)entityTagGenerator::getNotModifiedBytesSaved);
+    }
+
+    /**
+     * Adds gauges that expose the given {@link AdaptiveCompressionPolicy}'s stats - how many responses were compressed,
+     * the overall compression ratio, the average CPU cost per input byte, how often a memoized compressed variant was
+     * reused, and how many responses were sent uncompressed because the event loop was saturated.
+     */
+    protected void addAdaptiveCompressionMetrics(AdaptiveCompressionPolicy compressionPolicy) {
+        metricsCollector.registerNamedMetric(serverStatsMetricNamingStrategy.nameFor(COMPRESSED_RESPONSES),
+                                             (Gauge<Long>)compressionPolicy::getCompressedResponseCount);
+
+        metricsCollector.registerNamedMetric(serverStatsMetricNamingStrategy.nameFor(COMPRESSION_RATIO),
+                                             (Gauge<Double>)compressionPolicy::getCompressionRatio);
+
+        metricsCollector.registerNamedMetric(serverStatsMetricNamingStrategy.nameFor(COMPRESSION_NANOS_PER_BYTE),
+                                             (Gauge<Double>)compressionPolicy::getCompressionNanosPerByte);
+
+        metricsCollector.registerNamedMetric(
+            serverStatsMetricNamingStrategy.nameFor(COMPRESSION_MEMOIZED_VARIANT_HITS),
+            (Gauge<Long>)compressionPolicy::getMemoizedVariantHitCount
+        );
+
+        metricsCollector.registerNamedMetric(serverStatsMetricNamingStrategy.nameFor(COMPRESSION_SKIPPED_UNDER_LOAD),
+                                             (Gauge<Long>)compressionPolicy::getSkippedUnderLoadCount);
+    }
+
+    /**
+     * Adds gauges that expose the given {@link CachingHostnameResolver}'s stats - cache hits/misses and hit ratio,
+     * stale and negative cache hits, how often stale addresses were served because a refresh failed, and how long the
+     * underlying name service lookups take.
+     */
+    protected void addHostnameResolverMetrics(CachingHostnameResolver hostnameResolver) {
+        metricsCollector.registerNamedMetric(serverStatsMetricNamingStrategy.nameFor(HOSTNAME_RESOLVER_CACHE_HITS),
+                                             (Gauge<Long>)hostnameResolver::getCacheHitCount);
+
+        metricsCollector.registerNamedMetric(serverStatsMetricNamingStrategy.nameFor(HOSTNAME_RESOLVER_CACHE_MISSES),
+                                             (Gauge<Long>)hostnameResolver::getCacheMissCount);
+
+        metricsCollector.registerNamedMetric(
+            serverStatsMetricNamingStrategy.nameFor(HOSTNAME_RESOLVER_CACHE_HIT_RATIO),
+            (Gauge<Double>)hostnameResolver::getCacheHitRatio
+        );
+
+        metricsCollector.registerNamedMetric(serverStatsMetricNamingStrategy.nameFor(HOSTNAME_RESOLVER_STALE_HITS),
+                                             (Gauge<Long>)hostnameResolver::getStaleHitCount);
+
+        metricsCollector.registerNamedMetric(serverStatsMetricNamingStrategy.nameFor(HOSTNAME_RESOLVER_NEGATIVE_HITS),
+                                             (Gauge<Long>)hostnameResolver::getNegativeHitCount);
+
+        metricsCollector.registerNamedMetric(
+            serverStatsMetricNamingStrategy.nameFor(HOSTNAME_RESOLVER_STALE_SERVED_ON_ERROR),
+            (Gauge<Long>)hostnameResolver::getStaleServedOnErrorCount
+        );
+
+        metricsCollector.registerNamedMetric(serverStatsMetricNamingStrategy.nameFor(HOSTNAME_RESOLVER_LOOKUPS),
+                                             (Gauge<Long>)hostnameResolver::getNameServiceLookupCount);
+
+        metricsCollector.registerNamedMetric(
+            serverStatsMetricNamingStrategy.nameFor(HOSTNAME_RESOLVER_LOOKUP_FAILURES),
+            (Gauge<Long>)hostnameResolver::getNameServiceLookupFailureCount
+        );
+
+        metricsCollector.registerNamedMetric(
+            serverStatsMetricNamingStrategy.nameFor(HOSTNAME_RESOLVER_AVG_LOOKUP_NANOS),
+            (Gauge<Double>)hostnameResolver::getAverageLookupNanos
+        );
+
+        metricsCollector.registerNamedMetric(
+            serverStatsMetricNamingStrategy.nameFor(HOSTNAME_RESOLVER_MAX_LOOKUP_NANOS),
+            (Gauge<Long>)hostnameResolver::getMaxLookupNanos
+        );
+    }
+
+    /**
+     * Registers a listener with the given {@link DownstreamConnectionPoolMetrics} that adds a set of per-host gauges
+     * (active, idle, and pending counts, acquire latency and failures, connect time and failures, max lifetime
+     * evictions, and outlier ejections) for each downstream host as soon as proxy/router endpoints create a connection
+     * pool for it. The gauge names are the normal server stats metric name with the downstream {@code host:port}
+     * appended.
+     */
+    protected void addDownstreamConnectionPoolMetrics(DownstreamConnectionPoolMetrics connectionPoolMetrics) {
+        connectionPoolMetrics.addNewHostListener(
+            hostKey -> addDownstreamConnectionPoolMetricsForHost(connectionPoolMetrics, hostKey)
+        );
+    }
+
+    protected void addDownstreamConnectionPoolMetricsForHost(DownstreamConnectionPoolMetrics connectionPoolMetrics,
+                                                             String hostKey) {
+        metricsCollector.registerNamedMetric(
+            downstreamPoolMetricName(DOWNSTREAM_POOL_ACTIVE_CONNECTIONS, hostKey),
+            (Gauge<Integer>)() -> connectionPoolMetrics.getActiveConnectionCount(hostKey)
+        );
+
+        metricsCollector.registerNamedMetric(
+            downstreamPoolMetricName(DOWNSTREAM_POOL_IDLE_CONNECTIONS, hostKey),
+            (Gauge<Integer>)() -> connectionPoolMetrics.getIdleConnectionCount(hostKey)
+        );
+
+        metricsCollector.registerNamedMetric(
+            downstreamPoolMetricName(DOWNSTREAM_POOL_PENDING_ACQUIRES, hostKey),
+            (Gauge<Integer>)() -> connectionPoolMetrics.getPendingAcquireCount(hostKey)
+        );
+
+        metricsCollector.registerNamedMetric(
+            downstreamPoolMetricName(DOWNSTREAM_POOL_ACQUIRE_FAILURES, hostKey),
+            (Gauge<Long>)() -> connectionPoolMetrics.getAcquireFailureCount(hostKey)
+        );
+
+        metricsCollector.registerNamedMetric(
+            downstreamPoolMetricName(DOWNSTREAM_POOL_AVG_ACQUIRE_NANOS, hostKey),
+            (Gauge<Long>)() -> connectionPoolMetrics.getAverageAcquireNanos(hostKey)
+        );
+
+        metricsCollector.registerNamedMetric(
+            downstreamPoolMetricName(DOWNSTREAM_POOL_MAX_ACQUIRE_NANOS, hostKey),
+            (Gauge<Long>)() -> connectionPoolMetrics.getMaxAcquireNanos(hostKey)
+        );
+
+        metricsCollector.registerNamedMetric(
+            downstreamPoolMetricName(DOWNSTREAM_POOL_CONNECT_FAILURES, hostKey),
+            (Gauge<Long>)() -> connectionPoolMetrics.getConnectFailureCount(hostKey)
+        );
+
+        metricsCollector.registerNamedMetric(
+            downstreamPoolMetricName(DOWNSTREAM_POOL_AVG_CONNECT_NANOS, hostKey),
+            (Gauge<Long>)() -> connectionPoolMetrics.getAverageConnectNanos(hostKey)
+        );
+
+        metricsCollector.registerNamedMetric(
+            downstreamPoolMetricName(DOWNSTREAM_POOL_MAX_LIFETIME_EVICTIONS, hostKey),
+            (Gauge<Long>)() -> connectionPoolMetrics.getMaxLifetimeEvictionCount(hostKey)
+        );
+
+        metricsCollector.registerNamedMetric(
+            downstreamPoolMetricName(DOWNSTREAM_POOL_EJECTED_ADDRESSES, hostKey),
+            (Gauge<Integer>)() -> connectionPoolMetrics.getEjectedAddressCount(hostKey)
+        );
+
+        metricsCollector.registerNamedMetric(
+            downstreamPoolMetricName(DOWNSTREAM_POOL_EJECTIONS, hostKey),
+            (Gauge<Long>)() -> connectionPoolMetrics.getEjectionCount(hostKey)
+        );
+    }
+
+    protected String downstreamPoolMetricName(ServerStatisticsMetricNames metricNameEnum, String hostKey) {
+        return name(serverStatsMetricNamingStrategy.nameFor(metricNameEnum), hostKey.replace(".", "-"));
+    }
+
     /**
      * Adds metrics related to the given ServerConfig - usually gauges so you can inspect how the ServerConfig was setup.
      * Usually not needed - better to log this info on startup.
@@ -378,7 +622,41 @@ public class CodahaleMetricsListener implements MetricsListener {
         FAILED_REQUESTS,
         RESPONSE_WRITE_FAILED,
         REQUEST_SIZES,
-        RESPONSE_SIZES
+        RESPONSE_SIZES,
+        RESPONSE_CACHE_HITS,
+        RESPONSE_CACHE_MISSES,
+        RESPONSE_CACHE_EVICTIONS,
+        RESPONSE_CACHE_EXPIRATIONS,
+        RESPONSE_CACHE_ENTRIES,
+        RESPONSE_CACHE_SIZE_BYTES,
+        NOT_MODIFIED_RESPONSES,
+        NOT_MODIFIED_BYTES_SAVED,
+        COMPRESSED_RESPONSES,
+        COMPRESSION_RATIO,
+        COMPRESSION_NANOS_PER_BYTE,
+        COMPRESSION_MEMOIZED_VARIANT_HITS,
+        COMPRESSION_SKIPPED_UNDER_LOAD,
+        HOSTNAME_RESOLVER_CACHE_HITS,
+        HOSTNAME_RESOLVER_CACHE_MISSES,
+        HOSTNAME_RESOLVER_CACHE_HIT_RATIO,
+        HOSTNAME_RESOLVER_STALE_HITS,
+        HOSTNAME_RESOLVER_NEGATIVE_HITS,
+        HOSTNAME_RESOLVER_STALE_SERVED_ON_ERROR,
+        HOSTNAME_RESOLVER_LOOKUPS,
+        HOSTNAME_RESOLVER_LOOKUP_FAILURES,
+        HOSTNAME_RESOLVER_AVG_LOOKUP_NANOS,
+        HOSTNAME_RESOLVER_MAX_LOOKUP_NANOS,
+        DOWNSTREAM_POOL_ACTIVE_CONNECTIONS,
+        DOWNSTREAM_POOL_IDLE_CONNECTIONS,
+        DOWNSTREAM_POOL_PENDING_ACQUIRES,
+        DOWNSTREAM_POOL_ACQUIRE_FAILURES,
+        DOWNSTREAM_POOL_AVG_ACQUIRE_NANOS,
+        DOWNSTREAM_POOL_MAX_ACQUIRE_NANOS,
+        DOWNSTREAM_POOL_CONNECT_FAILURES,
+        DOWNSTREAM_POOL_AVG_CONNECT_NANOS,
+        DOWNSTREAM_POOL_MAX_LIFETIME_EVICTIONS,
+        DOWNSTREAM_POOL_EJECTED_ADDRESSES,
+        DOWNSTREAM_POOL_EJECTIONS
     }
 
     public enum ServerConfigMetricNames {
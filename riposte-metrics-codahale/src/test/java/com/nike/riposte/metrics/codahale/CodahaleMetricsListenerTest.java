@@ -1,5 +1,7 @@
 package com.nike.riposte.metrics.codahale;
 
+import com.nike.riposte.client.dns.CachingHostnameResolver;
+import com.nike.riposte.client.pool.DownstreamConnectionPoolMetrics;
 import com.nike.riposte.metrics.codahale.CodahaleMetricsListener.Builder;
 import com.nike.riposte.metrics.codahale.CodahaleMetricsListener.DefaultMetricNamingStrategy;
 import com.nike.riposte.metrics.codahale.CodahaleMetricsListener.MetricNamingStrategy;
@@ -13,6 +15,9 @@ import com.nike.riposte.server.http.RequestInfo;
 import com.nike.riposte.server.http.ResponseInfo;
 import com.nike.riposte.server.http.ResponseSender;
 import com.nike.riposte.server.http.StandardEndpoint;
+import com.nike.riposte.server.http.cache.EntityTagGenerator;
+import com.nike.riposte.server.http.cache.ResponseCache;
+import com.nike.riposte.server.http.compression.AdaptiveCompressionPolicy;
 import com.nike.riposte.server.metrics.ServerMetricsEvent;
 import com.nike.riposte.util.Matcher;
 
@@ -33,6 +38,8 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.internal.util.reflection.Whitebox;
 import org.slf4j.Logger;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
@@ -449,6 +456,206 @@ public class CodahaleMetricsListenerTest {
         verify(endpointMetricsHandlerMock).setupEndpointsMetrics(serverConfig, metricRegistryMock);
     }
 
+    @Test
+    public void initEndpointAndServerConfigMetrics_adds_response_cache_gauges_if_server_has_a_response_cache() {
+        // given
+        setupMetricRegistryAndCodahaleMetricsCollector();
+        CodahaleMetricsListener instance = CodahaleMetricsListener.newBuilder(cmcMock)
+                                                                  .withEndpointMetricsHandler(endpointMetricsHandlerMock)
+                                                                  .build();
+        ResponseCache responseCache = new ResponseCache();
+        ServerConfig configWithCache = new ServerConfig() {
+            @Override
+            public Collection<Endpoint<?>> appEndpoints() {
+                return serverConfig.appEndpoints();
+            }
+
+            @Override
+            public ResponseCache responseCache() {
+                return responseCache;
+            }
+        };
+        responseCache.getCachedResponse("notCached", false);
+
+        // when
+        instance.initEndpointAndServerConfigMetrics(configWithCache);
+
+        // then
+        String prefix = CodahaleMetricsListener.class.getSimpleName();
+        assertThat(registeredGauges.get(name(prefix, "response_cache_hits")).getValue()).isEqualTo(0L);
+        assertThat(registeredGauges.get(name(prefix, "response_cache_misses")).getValue()).isEqualTo(1L);
+        assertThat(registeredGauges.get(name(prefix, "response_cache_evictions")).getValue()).isEqualTo(0L);
+        assertThat(registeredGauges.get(name(prefix, "response_cache_expirations")).getValue()).isEqualTo(0L);
+        assertThat(registeredGauges.get(name(prefix, "response_cache_entries")).getValue()).isEqualTo(0);
+        assertThat(registeredGauges.get(name(prefix, "response_cache_size_bytes")).getValue()).isEqualTo(0L);
+    }
+
+    @Test
+    public void initEndpointAndServerConfigMetrics_adds_not_modified_gauges_if_server_has_an_entity_tag_generator() {
+        // given
+        setupMetricRegistryAndCodahaleMetricsCollector();
+        CodahaleMetricsListener instance = CodahaleMetricsListener.newBuilder(cmcMock)
+                                                                  .withEndpointMetricsHandler(endpointMetricsHandlerMock)
+                                                                  .build();
+        EntityTagGenerator entityTagGenerator = new EntityTagGenerator();
+        ServerConfig configWithEntityTagGenerator = new ServerConfig() {
+            @Override
+            public Collection<Endpoint<?>> appEndpoints() {
+                return serverConfig.appEndpoints();
+            }
+
+            @Override
+            public EntityTagGenerator entityTagGenerator() {
+                return entityTagGenerator;
+            }
+        };
+        entityTagGenerator.recordNotModifiedResponse(1234);
+
+        // when
+        instance.initEndpointAndServerConfigMetrics(configWithEntityTagGenerator);
+
+        // then
+        String prefix = CodahaleMetricsListener.class.getSimpleName();
+        assertThat(registeredGauges.get(name(prefix, "not_modified_responses")).getValue()).isEqualTo(1L);
+        assertThat(registeredGauges.get(name(prefix, "not_modified_bytes_saved")).getValue()).isEqualTo(1234L);
+    }
+
+    @Test
+    public void initEndpointAndServerConfigMetrics_adds_compression_gauges_if_server_has_an_adaptive_compression_policy() {
+        // given
+        setupMetricRegistryAndCodahaleMetricsCollector();
+        CodahaleMetricsListener instance = CodahaleMetricsListener.newBuilder(cmcMock)
+                                                                  .withEndpointMetricsHandler(endpointMetricsHandlerMock)
+                                                                  .build();
+        AdaptiveCompressionPolicy compressionPolicy = new AdaptiveCompressionPolicy();
+        ServerConfig configWithCompressionPolicy = new ServerConfig() {
+            @Override
+            public Collection<Endpoint<?>> appEndpoints() {
+                return serverConfig.appEndpoints();
+            }
+
+            @Override
+            public AdaptiveCompressionPolicy adaptiveCompressionPolicy() {
+                return compressionPolicy;
+            }
+        };
+        compressionPolicy.recordCompressedResponse();
+        compressionPolicy.recordCompression(1000, 250, 2000);
+        compressionPolicy.recordSkippedUnderLoad();
+
+        // when
+        instance.initEndpointAndServerConfigMetrics(configWithCompressionPolicy);
+
+        // then
+        String prefix = CodahaleMetricsListener.class.getSimpleName();
+        assertThat(registeredGauges.get(name(prefix, "compressed_responses")).getValue()).isEqualTo(1L);
+        assertThat(registeredGauges.get(name(prefix, "compression_ratio")).getValue()).isEqualTo(0.25);
+        assertThat(registeredGauges.get(name(prefix, "compression_nanos_per_byte")).getValue()).isEqualTo(2.0);
+        assertThat(registeredGauges.get(name(prefix, "compression_memoized_variant_hits")).getValue()).isEqualTo(0L);
+        assertThat(registeredGauges.get(name(prefix, "compression_skipped_under_load")).getValue()).isEqualTo(1L);
+    }
+
+    @Test
+    public void initEndpointAndServerConfigMetrics_adds_hostname_resolver_gauges_if_server_has_a_proxy_router_hostname_resolver()
+        throws UnknownHostException {
+        // given
+        setupMetricRegistryAndCodahaleMetricsCollector();
+        CodahaleMetricsListener instance = CodahaleMetricsListener.newBuilder(cmcMock)
+                                                                  .withEndpointMetricsHandler(endpointMetricsHandlerMock)
+                                                                  .build();
+        CachingHostnameResolver hostnameResolver = new CachingHostnameResolver(
+            host -> new InetAddress[]{ InetAddress.getLoopbackAddress() }, Runnable::run, 60000, 5000, 60000
+        );
+        ServerConfig configWithHostnameResolver = new ServerConfig() {
+            @Override
+            public Collection<Endpoint<?>> appEndpoints() {
+                return serverConfig.appEndpoints();
+            }
+
+            @Override
+            public CachingHostnameResolver proxyRouterHostnameResolver() {
+                return hostnameResolver;
+            }
+        };
+        hostnameResolver.resolveAllBlocking("foo");
+        hostnameResolver.resolveAllBlocking("foo");
+
+        // when
+        instance.initEndpointAndServerConfigMetrics(configWithHostnameResolver);
+
+        // then
+        String prefix = CodahaleMetricsListener.class.getSimpleName();
+        assertThat(registeredGauges.get(name(prefix, "hostname_resolver_cache_hits")).getValue()).isEqualTo(1L);
+        assertThat(registeredGauges.get(name(prefix, "hostname_resolver_cache_misses")).getValue()).isEqualTo(1L);
+        assertThat(registeredGauges.get(name(prefix, "hostname_resolver_cache_hit_ratio")).getValue()).isEqualTo(0.5);
+        assertThat(registeredGauges.get(name(prefix, "hostname_resolver_lookups")).getValue()).isEqualTo(1L);
+        assertThat(registeredGauges.get(name(prefix, "hostname_resolver_lookup_failures")).getValue()).isEqualTo(0L);
+        assertThat(registeredGauges.get(name(prefix, "hostname_resolver_stale_hits")).getValue()).isEqualTo(0L);
+        assertThat(registeredGauges.get(name(prefix, "hostname_resolver_negative_hits")).getValue()).isEqualTo(0L);
+        assertThat(registeredGauges.get(name(prefix, "hostname_resolver_stale_served_on_error")).getValue())
+            .isEqualTo(0L);
+        assertThat(registeredGauges).containsKey(name(prefix, "hostname_resolver_avg_lookup_nanos"));
+        assertThat(registeredGauges).containsKey(name(prefix, "hostname_resolver_max_lookup_nanos"));
+    }
+
+    @Test
+    public void initEndpointAndServerConfigMetrics_adds_per_host_downstream_connection_pool_gauges_as_hosts_show_up() {
+        // given
+        setupMetricRegistryAndCodahaleMetricsCollector();
+        CodahaleMetricsListener instance = CodahaleMetricsListener.newBuilder(cmcMock)
+                                                                  .withEndpointMetricsHandler(endpointMetricsHandlerMock)
+                                                                  .build();
+        DownstreamConnectionPoolMetrics poolMetrics = new DownstreamConnectionPoolMetrics();
+        DownstreamConnectionPoolMetrics.PoolStats existingPool = mock(DownstreamConnectionPoolMetrics.PoolStats.class);
+        doReturn(3).when(existingPool).getActiveConnectionCount();
+        poolMetrics.registerPool("foo.com:443", existingPool);
+        DownstreamConnectionPoolMetrics.EjectionStats ejectionStats =
+            mock(DownstreamConnectionPoolMetrics.EjectionStats.class);
+        doReturn(2).when(ejectionStats).getEjectedAddressCount();
+        poolMetrics.registerEjectionStats("foo.com:443", ejectionStats);
+        ServerConfig configWithPoolMetrics = new ServerConfig() {
+            @Override
+            public Collection<Endpoint<?>> appEndpoints() {
+                return serverConfig.appEndpoints();
+            }
+
+            @Override
+            public DownstreamConnectionPoolMetrics proxyRouterConnectionPoolMetrics() {
+                return poolMetrics;
+            }
+        };
+
+        // when
+        instance.initEndpointAndServerConfigMetrics(configWithPoolMetrics);
+        DownstreamConnectionPoolMetrics.PoolStats newPool = mock(DownstreamConnectionPoolMetrics.PoolStats.class);
+        doReturn(5).when(newPool).getPendingAcquireCount();
+        poolMetrics.registerPool("bar.com:80", newPool);
+
+        // then
+        String prefix = CodahaleMetricsListener.class.getSimpleName();
+        assertThat(registeredGauges.get(name(prefix, "downstream_pool_active_connections", "foo-com:443")).getValue())
+            .isEqualTo(3);
+        assertThat(registeredGauges.get(name(prefix, "downstream_pool_pending_acquires", "bar-com:80")).getValue())
+            .isEqualTo(5);
+        assertThat(registeredGauges.get(name(prefix, "downstream_pool_ejected_addresses", "foo-com:443")).getValue())
+            .isEqualTo(2);
+        for (String hostKey : Arrays.asList("foo-com:443", "bar-com:80")) {
+            assertThat(registeredGauges).containsKeys(
+                name(prefix, "downstream_pool_active_connections", hostKey),
+                name(prefix, "downstream_pool_idle_connections", hostKey),
+                name(prefix, "downstream_pool_pending_acquires", hostKey),
+                name(prefix, "downstream_pool_acquire_failures", hostKey),
+                name(prefix, "downstream_pool_avg_acquire_nanos", hostKey),
+                name(prefix, "downstream_pool_max_acquire_nanos", hostKey),
+                name(prefix, "downstream_pool_connect_failures", hostKey),
+                name(prefix, "downstream_pool_avg_connect_nanos", hostKey),
+                name(prefix, "downstream_pool_max_lifetime_evictions", hostKey),
+                name(prefix, "downstream_pool_ejected_addresses", hostKey),
+                name(prefix, "downstream_pool_ejections", hostKey)
+            );
+        }
+    }
+
     @Test
     public void onEvent_works_as_expected_for_REQUEST_RECEIVED() {
         // given
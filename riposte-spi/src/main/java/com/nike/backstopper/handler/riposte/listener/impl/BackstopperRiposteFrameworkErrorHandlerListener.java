@@ -15,6 +15,8 @@ import com.nike.internal.util.Pair;
 import com.nike.internal.util.StringUtils;
 import com.nike.riposte.server.error.exception.DownstreamChannelClosedUnexpectedlyException;
 import com.nike.riposte.server.error.exception.DownstreamIdleChannelTimeoutException;
+import com.nike.riposte.server.error.exception.DownstreamRequestTimeoutException;
+import com.nike.riposte.server.error.exception.DownstreamResponseTooLargeException;
 import com.nike.riposte.server.error.exception.Forbidden403Exception;
 import com.nike.riposte.server.error.exception.HostnameResolutionException;
 import com.nike.riposte.server.error.exception.IncompleteHttpCallTimeoutException;
@@ -28,6 +30,7 @@ import com.nike.riposte.server.error.exception.NonblockingEndpointCompletableFut
 import com.nike.riposte.server.error.exception.PathNotFound404Exception;
 import com.nike.riposte.server.error.exception.PathParameterMatchingException;
 import com.nike.riposte.server.error.exception.RequestContentDeserializationException;
+import com.nike.riposte.server.error.exception.RequestDeadlineExceededException;
 import com.nike.riposte.server.error.exception.RequestTooBigException;
 import com.nike.riposte.server.error.exception.TooManyOpenChannelsException;
 import com.nike.riposte.server.error.exception.Unauthorized401Exception;
@@ -76,6 +79,10 @@ public class BackstopperRiposteFrameworkErrorHandlerListener implements ApiExcep
 
     protected final ProjectApiErrors projectApiErrors;
 
+    // Routing errors can show up in floods (e.g. 404 scans), so their resolved errors are computed once up front.
+    protected final SortedApiErrorSet NOT_FOUND_API_ERRORS;
+    protected final SortedApiErrorSet METHOD_NOT_ALLOWED_API_ERRORS;
+
     @Inject
     public BackstopperRiposteFrameworkErrorHandlerListener(ProjectApiErrors projectApiErrors) {
         if (projectApiErrors == null)
@@ -83,6 +90,9 @@ public class BackstopperRiposteFrameworkErrorHandlerListener implements ApiExcep
 
         this.projectApiErrors = projectApiErrors;
 
+        NOT_FOUND_API_ERRORS = singletonError(projectApiErrors.getNotFoundApiError());
+        METHOD_NOT_ALLOWED_API_ERRORS = singletonError(projectApiErrors.getMethodNotAllowedApiError());
+
         CIRCUIT_BREAKER_GENERIC_API_ERROR =
             new ApiErrorBase(projectApiErrors.getTemporaryServiceProblemApiError(), "CIRCUIT_BREAKER");
         CIRCUIT_BREAKER_OPEN_API_ERROR =
@@ -112,6 +122,21 @@ public class BackstopperRiposteFrameworkErrorHandlerListener implements ApiExcep
     @Override
     public ApiExceptionHandlerListenerResult shouldHandleException(Throwable ex) {
 
+        // Check the routing errors first since they're the most common by far when a server is being scanned or hit by
+        //      a misbehaving client.
+        if (ex instanceof PathNotFound404Exception) {
+            return ApiExceptionHandlerListenerResult.handleResponse(NOT_FOUND_API_ERRORS);
+        }
+
+        if (ex instanceof MethodNotAllowed405Exception) {
+            MethodNotAllowed405Exception theEx = (MethodNotAllowed405Exception) ex;
+            return ApiExceptionHandlerListenerResult.handleResponse(
+                METHOD_NOT_ALLOWED_API_ERRORS,
+                Arrays.asList(Pair.of("incoming_request_path", theEx.requestPath),
+                              Pair.of("incoming_request_method", theEx.requestMethod))
+            );
+        }
+
         if (ex instanceof CircuitBreakerException) {
             CircuitBreakerException cbe = ((CircuitBreakerException) ex);
 
@@ -131,6 +156,16 @@ public class BackstopperRiposteFrameworkErrorHandlerListener implements ApiExcep
             );
         }
 
+        if (ex instanceof RequestDeadlineExceededException) {
+            return ApiExceptionHandlerListenerResult.handleResponse(
+                singletonError(projectApiErrors.getTemporaryServiceProblemApiError()),
+                singletonList(Pair.of(
+                    "request_deadline_remaining_millis",
+                    String.valueOf(((RequestDeadlineExceededException) ex).remainingBudgetMillis)
+                ))
+            );
+        }
+
         if (ex instanceof DownstreamIdleChannelTimeoutException) {
             DownstreamIdleChannelTimeoutException idleEx = (DownstreamIdleChannelTimeoutException) ex;
             return ApiExceptionHandlerListenerResult.handleResponse(
@@ -142,6 +177,26 @@ public class BackstopperRiposteFrameworkErrorHandlerListener implements ApiExcep
             );
         }
 
+        if (ex instanceof DownstreamRequestTimeoutException) {
+            return ApiExceptionHandlerListenerResult.handleResponse(
+                singletonError(projectApiErrors.getTemporaryServiceProblemApiError()),
+                singletonList(Pair.of(
+                    "async_downstream_request_timeout_value_millis",
+                    String.valueOf(((DownstreamRequestTimeoutException) ex).timeoutValueMillis)
+                ))
+            );
+        }
+
+        if (ex instanceof DownstreamResponseTooLargeException) {
+            return ApiExceptionHandlerListenerResult.handleResponse(
+                singletonError(projectApiErrors.getTemporaryServiceProblemApiError()),
+                singletonList(Pair.of(
+                    "async_downstream_max_response_size_bytes",
+                    String.valueOf(((DownstreamResponseTooLargeException) ex).maxResponseSizeBytes)
+                ))
+            );
+        }
+
         if (ex instanceof DownstreamChannelClosedUnexpectedlyException) {
             DownstreamChannelClosedUnexpectedlyException dsClosedEx = (DownstreamChannelClosedUnexpectedlyException) ex;
             return ApiExceptionHandlerListenerResult.handleResponse(
@@ -206,21 +261,6 @@ public class BackstopperRiposteFrameworkErrorHandlerListener implements ApiExcep
             );
         }
 
-        if (ex instanceof PathNotFound404Exception) {
-            return ApiExceptionHandlerListenerResult.handleResponse(
-                singletonError(projectApiErrors.getNotFoundApiError())
-            );
-        }
-
-        if (ex instanceof MethodNotAllowed405Exception) {
-            MethodNotAllowed405Exception theEx = (MethodNotAllowed405Exception) ex;
-            return ApiExceptionHandlerListenerResult.handleResponse(
-                singletonError(projectApiErrors.getMethodNotAllowedApiError()),
-                Arrays.asList(Pair.of("incoming_request_path", theEx.requestPath),
-                              Pair.of("incoming_request_method", theEx.requestMethod))
-            );
-        }
-
         if (ex instanceof Unauthorized401Exception) {
             Unauthorized401Exception theEx = (Unauthorized401Exception) ex;
             List<Pair<String, String>> extraDetails = withBaseExceptionMessage(
@@ -0,0 +1,484 @@
+package com.nike.riposte.client.dns;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * A non-blocking hostname resolver with a per-host TTL cache, used by Riposte's downstream HTTP clients (the proxy
+ * router's {@code StreamingAsyncHttpClient} and {@code AsyncHttpClientHelper}) so that they never call the blocking
+ * {@link InetAddress#getAllByName(String)} on an event loop or request thread for a host that has been seen recently.
+ *
+ * <p>Behavior of {@link #resolveAll(String)}:
+ * <ul>
+ *     <li>
+ *         Cache hit - the cached addresses are returned in an already-completed future. No threads are involved.
+ *     </li>
+ *     <li>
+ *         Cache hit that is close to expiring (past {@link #refreshAheadRatio} of the TTL) - the cached addresses are
+ *         returned immediately and a background refresh is kicked off so hot hosts never see a cache miss.
+ *     </li>
+ *     <li>
+ *         Expired entry that is still within the max-stale window - the stale addresses are returned immediately and a
+ *         background refresh is kicked off.
+ *     </li>
+ *     <li>
+ *         Cache miss - the lookup is performed on {@link #resolutionExecutor} and the returned future completes when it
+ *         finishes. Concurrent misses for the same host share a single lookup.
+ *     </li>
+ *     <li>
+ *         Failed lookups are cached for {@link #negativeTtlMillis} so a broken host doesn't cause a flood of lookups.
+ *         If a <b>refresh</b> fails and the host has previously resolved addresses that are still within the
+ *         max-stale window, then those stale addresses keep being served (stale-on-error) rather than failing calls
+ *         because of a DNS hiccup.
+ *     </li>
+ * </ul>
+ *
+ * <p>The actual lookups are delegated to a {@link NameService}, which defaults to {@link NameService#SYSTEM} (i.e.
+ * {@link InetAddress#getAllByName(String)}, which honors the JVM's own DNS settings and {@code /etc/hosts}). Pass in
+ * a stub {@link NameService} for tests.
+ *
+ * <p>The arrays returned by this class are shared with the cache - callers must not modify them.
+ *
+ * <p>Most apps should use the shared {@link #getDefaultInstance()}. Resolution latency and cache hit/miss counts are
+ * exposed via the various {@code get*Count()} methods so they can be reported as metrics.
+ */
+@SuppressWarnings("WeakerAccess")
+public class CachingHostnameResolver {
+
+    /**
+     * Performs the actual (potentially blocking) hostname lookups for a {@link CachingHostnameResolver}.
+     */
+    @FunctionalInterface
+    public interface NameService {
+
+        /**
+         * A {@link NameService} that uses {@link InetAddress#getAllByName(String)}.
+         */
+        NameService SYSTEM = InetAddress::getAllByName;
+
+        /**
+         * @param hostname The hostname to look up.
+         * @return All the IP addresses for the given hostname. Should never be null or empty.
+         * @throws UnknownHostException if the hostname could not be resolved.
+         */
+        InetAddress[] lookupAllHostAddresses(String hostname) throws UnknownHostException;
+    }
+
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    public static final long DEFAULT_NEGATIVE_TTL_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    public static final long DEFAULT_MAX_STALE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    public static final double DEFAULT_REFRESH_AHEAD_RATIO = 0.8;
+    public static final int DEFAULT_MAX_CACHED_HOSTS = 10_000;
+    /**
+     * The max number of threads in the {@link #getDefaultInstance()}'s lookup pool.
+     */
+    public static final int DEFAULT_RESOLUTION_EXECUTOR_THREADS = 8;
+    /**
+     * The max number of lookups that can be queued up waiting for a {@link #getDefaultInstance()} pool thread. Misses
+     * for hosts that arrive while the queue is full fail with an {@link UnknownHostException}.
+     */
+    public static final int DEFAULT_RESOLUTION_EXECUTOR_QUEUE_SIZE = 1024;
+
+    private static final Logger logger = LoggerFactory.getLogger(CachingHostnameResolver.class);
+
+    protected final NameService nameService;
+    protected final Executor resolutionExecutor;
+    protected final long ttlMillis;
+    protected final long negativeTtlMillis;
+    protected final long maxStaleMillis;
+    protected final double refreshAheadRatio;
+    protected final int maxCachedHosts;
+    protected final LongSupplier currentTimeMillisSupplier;
+
+    protected final ConcurrentMap<String, CacheEntry> cache = new ConcurrentHashMap<>();
+    protected final ConcurrentMap<String, CompletableFuture<InetAddress[]>> inFlightLookups =
+        new ConcurrentHashMap<>();
+
+    protected final LongAdder cacheHitCount = new LongAdder();
+    protected final LongAdder staleHitCount = new LongAdder();
+    protected final LongAdder negativeHitCount = new LongAdder();
+    protected final LongAdder cacheMissCount = new LongAdder();
+    protected final LongAdder lookupCount = new LongAdder();
+    protected final LongAdder lookupFailureCount = new LongAdder();
+    protected final LongAdder staleServedOnErrorCount = new LongAdder();
+    protected final LongAdder totalLookupNanos = new LongAdder();
+    protected final AtomicLong maxLookupNanos = new AtomicLong();
+
+    /**
+     * Creates an instance with the default TTLs that looks up hosts with {@link NameService#SYSTEM} on the given
+     * executor.
+     *
+     * @param resolutionExecutor The executor that lookups should run on. Lookups can block, so this should never be
+     * a Netty event loop. Cannot be null.
+     */
+    public CachingHostnameResolver(Executor resolutionExecutor) {
+        this(NameService.SYSTEM, resolutionExecutor, DEFAULT_TTL_MILLIS, DEFAULT_NEGATIVE_TTL_MILLIS,
+             DEFAULT_MAX_STALE_MILLIS);
+    }
+
+    /**
+     * @param nameService The {@link NameService} that performs the actual lookups. Cannot be null.
+     * @param resolutionExecutor The executor that lookups should run on. Lookups can block, so this should never be
+     * a Netty event loop. Cannot be null.
+     * @param ttlMillis How long successfully resolved addresses are considered fresh. Must be greater than 0.
+     * @param negativeTtlMillis How long a failed lookup is remembered before the host is looked up again. Can be 0
+     * to disable negative caching.
+     * @param maxStaleMillis How long past {@code ttlMillis} the last successfully resolved addresses can still be
+     * served while a refresh is in progress or after a refresh has failed. Can be 0 to disable stale serving.
+     */
+    public CachingHostnameResolver(NameService nameService, Executor resolutionExecutor, long ttlMillis,
+                                   long negativeTtlMillis, long maxStaleMillis) {
+        this(nameService, resolutionExecutor, ttlMillis, negativeTtlMillis, maxStaleMillis,
+             DEFAULT_REFRESH_AHEAD_RATIO, DEFAULT_MAX_CACHED_HOSTS, System::currentTimeMillis);
+    }
+
+    protected CachingHostnameResolver(NameService nameService, Executor resolutionExecutor, long ttlMillis,
+                                      long negativeTtlMillis, long maxStaleMillis, double refreshAheadRatio,
+                                      int maxCachedHosts, LongSupplier currentTimeMillisSupplier) {
+        if (nameService == null)
+            throw new IllegalArgumentException("nameService cannot be null");
+
+        if (resolutionExecutor == null)
+            throw new IllegalArgumentException("resolutionExecutor cannot be null");
+
+        if (ttlMillis <= 0)
+            throw new IllegalArgumentException("ttlMillis must be greater than 0");
+
+        if (negativeTtlMillis < 0 || maxStaleMillis < 0)
+            throw new IllegalArgumentException("negativeTtlMillis and maxStaleMillis cannot be negative");
+
+        if (refreshAheadRatio <= 0 || refreshAheadRatio > 1)
+            throw new IllegalArgumentException("refreshAheadRatio must be greater than 0 and less than or equal to 1");
+
+        this.nameService = nameService;
+        this.resolutionExecutor = resolutionExecutor;
+        this.ttlMillis = ttlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+        this.maxStaleMillis = maxStaleMillis;
+        this.refreshAheadRatio = refreshAheadRatio;
+        this.maxCachedHosts = maxCachedHosts;
+        this.currentTimeMillisSupplier = currentTimeMillisSupplier;
+    }
+
+    private static class DefaultInstanceHolder {
+        private static final CachingHostnameResolver INSTANCE =
+            new CachingHostnameResolver(newDefaultResolutionExecutor());
+
+        private static Executor newDefaultResolutionExecutor() {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                DEFAULT_RESOLUTION_EXECUTOR_THREADS, DEFAULT_RESOLUTION_EXECUTOR_THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(DEFAULT_RESOLUTION_EXECUTOR_QUEUE_SIZE),
+                new DefaultThreadFactory("riposteHostnameResolver", true)
+            );
+            // Lookups are rare once the cache is warm, so don't keep idle threads around.
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+    }
+
+    /**
+     * @return The shared default instance, which uses the default TTLs and looks up hosts with {@link
+     * NameService#SYSTEM} on a pool of at most {@link #DEFAULT_RESOLUTION_EXECUTOR_THREADS} daemon threads with a
+     * queue bounded at {@link #DEFAULT_RESOLUTION_EXECUTOR_QUEUE_SIZE} lookups (there is at most one in-flight lookup
+     * per host).
+     */
+    public static CachingHostnameResolver getDefaultInstance() {
+        return DefaultInstanceHolder.INSTANCE;
+    }
+
+    /**
+     * @param hostname The hostname to resolve.
+     * @return A future that will be completed with all the IP addresses for the given hostname, or completed
+     * exceptionally with an {@link UnknownHostException} if it could not be resolved. When the hostname is cached
+     * (the usual case) the returned future will already be complete. The returned array must not be modified.
+     */
+    public CompletableFuture<InetAddress[]> resolveAll(String hostname) {
+        long now = currentTimeMillisSupplier.getAsLong();
+        CacheEntry entry = cache.get(hostname);
+
+        if (entry != null) {
+            if (entry.addresses != null) {
+                if (now < entry.expiresAtMillis) {
+                    cacheHitCount.increment();
+                    if (now >= entry.refreshAtMillis)
+                        startLookup(hostname);
+
+                    return CompletableFuture.completedFuture(entry.addresses);
+                }
+
+                if (now < entry.staleUntilMillis) {
+                    staleHitCount.increment();
+                    startLookup(hostname);
+                    return CompletableFuture.completedFuture(entry.addresses);
+                }
+            }
+            else if (now < entry.expiresAtMillis) {
+                negativeHitCount.increment();
+                CompletableFuture<InetAddress[]> result = new CompletableFuture<>();
+                result.completeExceptionally(entry.failure);
+                return result;
+            }
+        }
+
+        cacheMissCount.increment();
+        return startLookup(hostname);
+    }
+
+    /**
+     * Blocking version of {@link #resolveAll(String)} for callers that have to return addresses synchronously (e.g. a
+     * third party client's synchronous name resolver hook). This only blocks on a cache miss.
+     *
+     * @param hostname The hostname to resolve.
+     * @return All the IP addresses for the given hostname. The returned array must not be modified.
+     * @throws UnknownHostException if the hostname could not be resolved.
+     */
+    public InetAddress[] resolveAllBlocking(String hostname) throws UnknownHostException {
+        CompletableFuture<InetAddress[]> future = resolveAll(hostname);
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw unknownHostException(hostname, e);
+        }
+        catch (ExecutionException e) {
+            throw unknownHostException(hostname, e.getCause());
+        }
+    }
+
+    protected CompletableFuture<InetAddress[]> startLookup(String hostname) {
+        CompletableFuture<InetAddress[]> existingLookup = inFlightLookups.get(hostname);
+        if (existingLookup != null)
+            return existingLookup;
+
+        CompletableFuture<InetAddress[]> lookupFuture = new CompletableFuture<>();
+        existingLookup = inFlightLookups.putIfAbsent(hostname, lookupFuture);
+        if (existingLookup != null)
+            return existingLookup;
+
+        try {
+            resolutionExecutor.execute(() -> doLookup(hostname, lookupFuture));
+        }
+        catch (RejectedExecutionException ex) {
+            inFlightLookups.remove(hostname, lookupFuture);
+            lookupFuture.completeExceptionally(unknownHostException(hostname, ex));
+        }
+
+        return lookupFuture;
+    }
+
+    protected void doLookup(String hostname, CompletableFuture<InetAddress[]> lookupFuture) {
+        long startNanos = System.nanoTime();
+        InetAddress[] addresses = null;
+        UnknownHostException failure = null;
+        try {
+            addresses = nameService.lookupAllHostAddresses(hostname);
+            if (addresses == null || addresses.length == 0)
+                failure = new UnknownHostException("No addresses found for hostname: " + hostname);
+        }
+        catch (UnknownHostException ex) {
+            failure = ex;
+        }
+        catch (Throwable t) {
+            failure = unknownHostException(hostname, t);
+        }
+
+        recordLookupTime(System.nanoTime() - startNanos);
+        lookupCount.increment();
+
+        try {
+            long now = currentTimeMillisSupplier.getAsLong();
+            if (failure == null) {
+                putInCache(hostname, new CacheEntry(
+                    addresses, null, now + (long) (ttlMillis * refreshAheadRatio), now + ttlMillis,
+                    now + ttlMillis + maxStaleMillis
+                ));
+            }
+            else {
+                lookupFailureCount.increment();
+                CacheEntry previous = cache.get(hostname);
+                if (previous != null && previous.addresses != null && now < previous.staleUntilMillis) {
+                    // Stale-on-error: keep serving the last known good addresses, and try again after the negative
+                    //      TTL has passed.
+                    staleServedOnErrorCount.increment();
+                    logger.warn("Hostname lookup failed - serving stale addresses. hostname={}, error={}",
+                                hostname, failure.toString());
+                    addresses = previous.addresses;
+                    failure = null;
+                    long retryAt = Math.min(now + negativeTtlMillis, previous.staleUntilMillis);
+                    putInCache(hostname, new CacheEntry(
+                        previous.addresses, null, retryAt, retryAt, previous.staleUntilMillis
+                    ));
+                }
+                else if (negativeTtlMillis > 0) {
+                    putInCache(hostname, new CacheEntry(null, failure, 0, now + negativeTtlMillis, 0));
+                }
+                else {
+                    cache.remove(hostname);
+                }
+            }
+        }
+        finally {
+            inFlightLookups.remove(hostname, lookupFuture);
+            if (failure == null)
+                lookupFuture.complete(addresses);
+            else
+                lookupFuture.completeExceptionally(failure);
+        }
+    }
+
+    protected void putInCache(String hostname, CacheEntry entry) {
+        if (cache.size() >= maxCachedHosts && !cache.containsKey(hostname)) {
+            // Make room by dropping anything that can no longer be served. If that doesn't free anything up then
+            //      don't cache - we'll still resolve, we just won't remember it.
+            long now = currentTimeMillisSupplier.getAsLong();
+            cache.values().removeIf(e -> now >= Math.max(e.expiresAtMillis, e.staleUntilMillis));
+            if (cache.size() >= maxCachedHosts)
+                return;
+        }
+
+        cache.put(hostname, entry);
+    }
+
+    protected void recordLookupTime(long lookupNanos) {
+        totalLookupNanos.add(lookupNanos);
+        long currentMax = maxLookupNanos.get();
+        while (lookupNanos > currentMax && !maxLookupNanos.compareAndSet(currentMax, lookupNanos)) {
+            currentMax = maxLookupNanos.get();
+        }
+    }
+
+    protected static UnknownHostException unknownHostException(String hostname, Throwable cause) {
+        if (cause instanceof UnknownHostException)
+            return (UnknownHostException) cause;
+
+        UnknownHostException ex = new UnknownHostException("Unable to resolve hostname: " + hostname);
+        ex.initCause(cause);
+        return ex;
+    }
+
+    /**
+     * Removes all cached entries.
+     */
+    public void clearCache() {
+        cache.clear();
+    }
+
+    /**
+     * @return The number of lookups served from a fresh cache entry.
+     */
+    public long getCacheHitCount() {
+        return cacheHitCount.sum();
+    }
+
+    /**
+     * @return The number of lookups served from an expired (but still within the max-stale window) cache entry while
+     * it was being refreshed.
+     */
+    public long getStaleHitCount() {
+        return staleHitCount.sum();
+    }
+
+    /**
+     * @return The number of lookups that failed immediately because of a cached lookup failure.
+     */
+    public long getNegativeHitCount() {
+        return negativeHitCount.sum();
+    }
+
+    /**
+     * @return The number of lookups that had to wait for the {@link NameService}.
+     */
+    public long getCacheMissCount() {
+        return cacheMissCount.sum();
+    }
+
+    /**
+     * @return The ratio of lookups that were served from the cache (fresh, stale, or negative) to all lookups, or 0 if
+     * there haven't been any lookups yet.
+     */
+    public double getCacheHitRatio() {
+        long hits = getCacheHitCount() + getStaleHitCount() + getNegativeHitCount();
+        long total = hits + getCacheMissCount();
+        return (total == 0) ? 0 : ((double) hits) / total;
+    }
+
+    /**
+     * @return The number of lookups performed against the {@link NameService} (both for cache misses and background
+     * refreshes).
+     */
+    public long getNameServiceLookupCount() {
+        return lookupCount.sum();
+    }
+
+    /**
+     * @return The number of lookups against the {@link NameService} that failed.
+     */
+    public long getNameServiceLookupFailureCount() {
+        return lookupFailureCount.sum();
+    }
+
+    /**
+     * @return The number of times a refresh failed and the last known good addresses were kept instead.
+     */
+    public long getStaleServedOnErrorCount() {
+        return staleServedOnErrorCount.sum();
+    }
+
+    /**
+     * @return The average time in nanoseconds spent in the {@link NameService} per lookup, or 0 if there haven't been
+     * any lookups yet.
+     */
+    public double getAverageLookupNanos() {
+        long lookups = getNameServiceLookupCount();
+        return (lookups == 0) ? 0 : ((double) totalLookupNanos.sum()) / lookups;
+    }
+
+    /**
+     * @return The longest time in nanoseconds spent in the {@link NameService} for a single lookup.
+     */
+    public long getMaxLookupNanos() {
+        return maxLookupNanos.get();
+    }
+
+    /**
+     * @return The number of hosts currently in the cache.
+     */
+    public int getCachedHostCount() {
+        return cache.size();
+    }
+
+    protected static class CacheEntry {
+        public final InetAddress[] addresses;
+        public final UnknownHostException failure;
+        public final long refreshAtMillis;
+        public final long expiresAtMillis;
+        public final long staleUntilMillis;
+
+        protected CacheEntry(InetAddress[] addresses, UnknownHostException failure, long refreshAtMillis,
+                             long expiresAtMillis, long staleUntilMillis) {
+            this.addresses = addresses;
+            this.failure = failure;
+            this.refreshAtMillis = refreshAtMillis;
+            this.expiresAtMillis = expiresAtMillis;
+            this.staleUntilMillis = staleUntilMillis;
+        }
+    }
+}
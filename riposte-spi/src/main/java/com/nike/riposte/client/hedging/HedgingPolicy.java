@@ -0,0 +1,400 @@
+package com.nike.riposte.client.hedging;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opt-in request hedging for idempotent downstream calls. When a hedged call hasn't received the start of its response
+ * within {@link #getHedgeDelayMillis(String)} (the {@link #hedgeDelayPercentile} of recent response latency for the
+ * same {@code host:port}), a second copy of the request is sent to a different address for the same host. Whichever
+ * call starts responding first wins, and the other one is cancelled. This trims the long tail caused by a single slow
+ * downstream instance at the cost of some extra downstream load.
+ *
+ * <p>The extra load is capped by a hedge budget: every hedge-eligible call earns {@link #budgetPercent} percent of a
+ * hedge, and every hedge spends one whole hedge, so over time no more than {@link #budgetPercent} percent of calls are
+ * hedged. At most {@link #maxBudgetBurst} unspent hedges can be banked. The budget starts out empty.
+ *
+ * <p>Only idempotent HTTP methods are hedged (see {@link #HEDGEABLE_HTTP_METHODS}). A single policy is meant to be
+ * shared by all the calls it applies to (it's what tracks the latency and budget), and this class is thread safe.
+ * Attach it to proxy/router calls via {@code DownstreamRequestFirstChunkInfo#withHedgingPolicy(HedgingPolicy)}, or to
+ * {@code AsyncHttpClientHelper} calls via {@code RequestBuilderWrapper#setHedgingPolicy(HedgingPolicy)}. The stat
+ * getters ({@link #getHedgeRate()}, {@link #getHedgeWinCount()}, etc) can be registered as metrics gauges.
+ */
+@SuppressWarnings("WeakerAccess")
+public class HedgingPolicy {
+
+    /**
+     * The HTTP methods that are safe to send twice, and are therefore the only ones that will be hedged.
+     */
+    public static final Set<String> HEDGEABLE_HTTP_METHODS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+        "GET", "HEAD", "OPTIONS", "PUT", "DELETE", "TRACE"
+    )));
+
+    public static final double DEFAULT_HEDGE_DELAY_PERCENTILE = 95;
+    public static final long DEFAULT_MIN_HEDGE_DELAY_MILLIS = 10;
+    public static final long DEFAULT_MAX_HEDGE_DELAY_MILLIS = 1000;
+    public static final int DEFAULT_MIN_SAMPLES_FOR_PERCENTILE = 100;
+    public static final long DEFAULT_LATENCY_WINDOW_MILLIS = 60 * 1000;
+    public static final double DEFAULT_BUDGET_PERCENT = 5;
+    public static final int DEFAULT_MAX_BUDGET_BURST = 10;
+
+    /**
+     * The budget is tracked in thousandths of a hedge so fractional budget percentages don't get rounded away.
+     */
+    protected static final long MILLI_HEDGES_PER_HEDGE = 1000;
+
+    public final double hedgeDelayPercentile;
+    public final long minHedgeDelayMillis;
+    public final long maxHedgeDelayMillis;
+    public final int minSamplesForPercentile;
+    public final long latencyWindowMillis;
+    public final double budgetPercent;
+    public final int maxBudgetBurst;
+
+    protected final long budgetMilliHedgesPerCall;
+    protected final long maxBudgetMilliHedges;
+    protected final AtomicLong budgetMilliHedges = new AtomicLong();
+    protected final ConcurrentMap<String, LatencyHistogram> latencyByHost = new ConcurrentHashMap<>();
+
+    protected final LongAdder eligibleCallCount = new LongAdder();
+    protected final LongAdder hedgeCount = new LongAdder();
+    protected final LongAdder hedgeWinCount = new LongAdder();
+    protected final LongAdder budgetExhaustedCount = new LongAdder();
+
+    /**
+     * Use {@link #newBuilder()} to create instances rather than calling this constructor directly.
+     *
+     * @param hedgeDelayPercentile The latency percentile (greater than 0, less than 100) a call must exceed before it
+     * is hedged.
+     * @param minHedgeDelayMillis The lower bound for the hedge delay, so a very fast host isn't hedged on every hiccup.
+     * Cannot be negative.
+     * @param maxHedgeDelayMillis The upper bound for the hedge delay. This is also the delay that's used until a host
+     * has {@code minSamplesForPercentile} latency samples. Cannot be less than {@code minHedgeDelayMillis}.
+     * @param minSamplesForPercentile The number of latency samples a host needs before its percentile is trusted.
+     * Cannot be negative.
+     * @param latencyWindowMillis How long latency samples are remembered for. The percentile is calculated over the
+     * samples from the current and previous windows. Must be greater than 0.
+     * @param budgetPercent The maximum percentage of hedge-eligible calls that can be hedged. Must be between 0 and
+     * 100.
+     * @param maxBudgetBurst The maximum number of unspent hedges that can be banked. Must be greater than 0.
+     */
+    public HedgingPolicy(double hedgeDelayPercentile, long minHedgeDelayMillis, long maxHedgeDelayMillis,
+                         int minSamplesForPercentile, long latencyWindowMillis, double budgetPercent,
+                         int maxBudgetBurst) {
+        if (hedgeDelayPercentile <= 0 || hedgeDelayPercentile >= 100)
+            throw new IllegalArgumentException("hedgeDelayPercentile must be greater than 0 and less than 100. "
+                                               + "hedgeDelayPercentile=" + hedgeDelayPercentile);
+
+        if (minHedgeDelayMillis < 0)
+            throw new IllegalArgumentException("minHedgeDelayMillis cannot be negative. minHedgeDelayMillis="
+                                               + minHedgeDelayMillis);
+
+        if (maxHedgeDelayMillis < minHedgeDelayMillis)
+            throw new IllegalArgumentException("maxHedgeDelayMillis cannot be less than minHedgeDelayMillis. "
+                                               + "minHedgeDelayMillis=" + minHedgeDelayMillis
+                                               + ", maxHedgeDelayMillis=" + maxHedgeDelayMillis);
+
+        if (minSamplesForPercentile < 0)
+            throw new IllegalArgumentException("minSamplesForPercentile cannot be negative. minSamplesForPercentile="
+                                               + minSamplesForPercentile);
+
+        if (latencyWindowMillis <= 0)
+            throw new IllegalArgumentException("latencyWindowMillis must be greater than 0. latencyWindowMillis="
+                                               + latencyWindowMillis);
+
+        if (budgetPercent < 0 || budgetPercent > 100)
+            throw new IllegalArgumentException("budgetPercent must be between 0 and 100. budgetPercent="
+                                               + budgetPercent);
+
+        if (maxBudgetBurst < 1)
+            throw new IllegalArgumentException("maxBudgetBurst must be greater than 0. maxBudgetBurst="
+                                               + maxBudgetBurst);
+
+        this.hedgeDelayPercentile = hedgeDelayPercentile;
+        this.minHedgeDelayMillis = minHedgeDelayMillis;
+        this.maxHedgeDelayMillis = maxHedgeDelayMillis;
+        this.minSamplesForPercentile = minSamplesForPercentile;
+        this.latencyWindowMillis = latencyWindowMillis;
+        this.budgetPercent = budgetPercent;
+        this.maxBudgetBurst = maxBudgetBurst;
+        this.budgetMilliHedgesPerCall = Math.round(budgetPercent * MILLI_HEDGES_PER_HEDGE / 100);
+        this.maxBudgetMilliHedges = maxBudgetBurst * MILLI_HEDGES_PER_HEDGE;
+    }
+
+    /**
+     * @return A new builder with all the values set to their defaults.
+     */
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * @return true if calls with the given HTTP method can be hedged, false otherwise.
+     */
+    public boolean isHedgeableHttpMethod(String httpMethod) {
+        return httpMethod != null && HEDGEABLE_HTTP_METHODS.contains(httpMethod.toUpperCase());
+    }
+
+    /**
+     * Call this once for every hedge-eligible call when it starts. It counts the call and adds its share to the hedge
+     * budget.
+     */
+    public void onEligibleCallStarted() {
+        eligibleCallCount.increment();
+        if (budgetMilliHedgesPerCall > 0) {
+            budgetMilliHedges.accumulateAndGet(
+                budgetMilliHedgesPerCall, (current, deposit) -> Math.min(current + deposit, maxBudgetMilliHedges)
+            );
+        }
+    }
+
+    /**
+     * Spends one hedge from the budget if there's enough left.
+     *
+     * @return true if the hedge can be sent (in which case it has been counted), false if the budget is exhausted.
+     */
+    public boolean tryAcquireHedge() {
+        long current = budgetMilliHedges.get();
+        while (current >= MILLI_HEDGES_PER_HEDGE) {
+            if (budgetMilliHedges.compareAndSet(current, current - MILLI_HEDGES_PER_HEDGE)) {
+                hedgeCount.increment();
+                return true;
+            }
+            current = budgetMilliHedges.get();
+        }
+
+        budgetExhaustedCount.increment();
+        return false;
+    }
+
+    /**
+     * Call this when a hedge beats the call it was hedging.
+     */
+    public void onHedgeWon() {
+        hedgeWinCount.increment();
+    }
+
+    /**
+     * Records the time it took a call to the given host to start responding.
+     *
+     * @param hostKey The {@code host:port} that was called.
+     * @param latencyNanos The time in nanoseconds between the start of the call and the start of the response.
+     */
+    public void recordLatency(String hostKey, long latencyNanos) {
+        LatencyHistogram histogram = latencyByHost.get(hostKey);
+        if (histogram == null)
+            histogram = latencyByHost.computeIfAbsent(hostKey, key -> new LatencyHistogram(latencyWindowMillis));
+
+        histogram.record(latencyNanos);
+    }
+
+    /**
+     * @param hostKey The {@code host:port} being called.
+     * @return How long to wait in milliseconds for a call to the given host to start responding before hedging it:
+     * the {@link #hedgeDelayPercentile} of the host's recent latency, clamped between {@link #minHedgeDelayMillis}
+     * and {@link #maxHedgeDelayMillis}. If the host doesn't have {@link #minSamplesForPercentile} recent samples yet
+     * then {@link #maxHedgeDelayMillis} is used.
+     */
+    public long getHedgeDelayMillis(String hostKey) {
+        LatencyHistogram histogram = latencyByHost.get(hostKey);
+        if (histogram == null)
+            return maxHedgeDelayMillis;
+
+        long percentileNanos = histogram.percentileNanos(hedgeDelayPercentile, minSamplesForPercentile);
+        if (percentileNanos < 0)
+            return maxHedgeDelayMillis;
+
+        long percentileMillis = TimeUnit.NANOSECONDS.toMillis(percentileNanos);
+        return Math.max(minHedgeDelayMillis, Math.min(maxHedgeDelayMillis, percentileMillis));
+    }
+
+    /**
+     * @return The total number of hedge-eligible calls.
+     */
+    public long getEligibleCallCount() {
+        return eligibleCallCount.sum();
+    }
+
+    /**
+     * @return The total number of hedges sent.
+     */
+    public long getHedgeCount() {
+        return hedgeCount.sum();
+    }
+
+    /**
+     * @return The total number of hedges that started responding before the call they were hedging.
+     */
+    public long getHedgeWinCount() {
+        return hedgeWinCount.sum();
+    }
+
+    /**
+     * @return The total number of times a call was due to be hedged but the hedge budget was exhausted.
+     */
+    public long getBudgetExhaustedCount() {
+        return budgetExhaustedCount.sum();
+    }
+
+    /**
+     * @return The fraction (between 0 and 1) of hedge-eligible calls that were hedged.
+     */
+    public double getHedgeRate() {
+        long eligible = getEligibleCallCount();
+        return (eligible == 0) ? 0 : ((double) getHedgeCount()) / eligible;
+    }
+
+    /**
+     * A lock-free latency histogram with logarithmic buckets (each bucket is about 19% wider than the last), so
+     * percentiles are accurate to within a bucket. Samples are kept for two rotating windows of the given length.
+     */
+    protected static class LatencyHistogram {
+        protected static final long[] BUCKET_UPPER_BOUNDS_NANOS = generateBucketUpperBounds();
+
+        protected final long windowNanos;
+        protected volatile AtomicLongArray currentWindow = new AtomicLongArray(BUCKET_UPPER_BOUNDS_NANOS.length + 1);
+        protected volatile AtomicLongArray previousWindow = new AtomicLongArray(BUCKET_UPPER_BOUNDS_NANOS.length + 1);
+        protected volatile long currentWindowStartNanos = System.nanoTime();
+
+        protected LatencyHistogram(long windowMillis) {
+            this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        }
+
+        protected static long[] generateBucketUpperBounds() {
+            // 100 microseconds up to about 26 seconds, growing by a factor of 2^(1/4) per bucket. Anything slower
+            //      goes in an overflow bucket.
+            long[] bounds = new long[72];
+            for (int i = 0; i < bounds.length; i++) {
+                bounds[i] = (long) (TimeUnit.MICROSECONDS.toNanos(100) * Math.pow(2, (i + 1) / 4.0));
+            }
+            return bounds;
+        }
+
+        protected void record(long latencyNanos) {
+            rotateIfNecessary(System.nanoTime());
+            int bucket = Arrays.binarySearch(BUCKET_UPPER_BOUNDS_NANOS, Math.max(0, latencyNanos));
+            if (bucket < 0)
+                bucket = -(bucket + 1);
+            currentWindow.incrementAndGet(bucket);
+        }
+
+        /**
+         * @return The upper bound in nanoseconds of the bucket holding the given percentile, or -1 if there are fewer
+         * than the given minimum number of samples.
+         */
+        protected long percentileNanos(double percentile, int minSamples) {
+            rotateIfNecessary(System.nanoTime());
+            AtomicLongArray current = currentWindow;
+            AtomicLongArray previous = previousWindow;
+
+            long[] counts = new long[current.length()];
+            long total = 0;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = current.get(i) + previous.get(i);
+                total += counts[i];
+            }
+
+            if (total == 0 || total < minSamples)
+                return -1;
+
+            long rank = (long) Math.ceil(total * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return (i < BUCKET_UPPER_BOUNDS_NANOS.length)
+                           ? BUCKET_UPPER_BOUNDS_NANOS[i]
+                           : Long.MAX_VALUE;
+                }
+            }
+
+            return Long.MAX_VALUE;
+        }
+
+        protected void rotateIfNecessary(long nowNanos) {
+            if (nowNanos - currentWindowStartNanos < windowNanos)
+                return;
+
+            synchronized (this) {
+                long elapsed = nowNanos - currentWindowStartNanos;
+                if (elapsed < windowNanos)
+                    return;
+
+                // If more than one whole window went by without any activity then the current window is stale too.
+                previousWindow = (elapsed < 2 * windowNanos)
+                                 ? currentWindow
+                                 : new AtomicLongArray(BUCKET_UPPER_BOUNDS_NANOS.length + 1);
+                currentWindow = new AtomicLongArray(BUCKET_UPPER_BOUNDS_NANOS.length + 1);
+                currentWindowStartNanos = nowNanos;
+            }
+        }
+    }
+
+    /**
+     * Builder for {@link HedgingPolicy}. All values default to the {@code DEFAULT_*} constants in {@link
+     * HedgingPolicy}.
+     */
+    public static final class Builder {
+
+        private double hedgeDelayPercentile = DEFAULT_HEDGE_DELAY_PERCENTILE;
+        private long minHedgeDelayMillis = DEFAULT_MIN_HEDGE_DELAY_MILLIS;
+        private long maxHedgeDelayMillis = DEFAULT_MAX_HEDGE_DELAY_MILLIS;
+        private int minSamplesForPercentile = DEFAULT_MIN_SAMPLES_FOR_PERCENTILE;
+        private long latencyWindowMillis = DEFAULT_LATENCY_WINDOW_MILLIS;
+        private double budgetPercent = DEFAULT_BUDGET_PERCENT;
+        private int maxBudgetBurst = DEFAULT_MAX_BUDGET_BURST;
+
+        private Builder() {
+        }
+
+        public Builder withHedgeDelayPercentile(double hedgeDelayPercentile) {
+            this.hedgeDelayPercentile = hedgeDelayPercentile;
+            return this;
+        }
+
+        public Builder withMinHedgeDelayMillis(long minHedgeDelayMillis) {
+            this.minHedgeDelayMillis = minHedgeDelayMillis;
+            return this;
+        }
+
+        public Builder withMaxHedgeDelayMillis(long maxHedgeDelayMillis) {
+            this.maxHedgeDelayMillis = maxHedgeDelayMillis;
+            return this;
+        }
+
+        public Builder withMinSamplesForPercentile(int minSamplesForPercentile) {
+            this.minSamplesForPercentile = minSamplesForPercentile;
+            return this;
+        }
+
+        public Builder withLatencyWindowMillis(long latencyWindowMillis) {
+            this.latencyWindowMillis = latencyWindowMillis;
+            return this;
+        }
+
+        public Builder withBudgetPercent(double budgetPercent) {
+            this.budgetPercent = budgetPercent;
+            return this;
+        }
+
+        public Builder withMaxBudgetBurst(int maxBudgetBurst) {
+            this.maxBudgetBurst = maxBudgetBurst;
+            return this;
+        }
+
+        public HedgingPolicy build() {
+            return new HedgingPolicy(
+                hedgeDelayPercentile, minHedgeDelayMillis, maxHedgeDelayMillis, minSamplesForPercentile,
+                latencyWindowMillis, budgetPercent, maxBudgetBurst
+            );
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.nike.riposte.client.pool;
+
+/**
+ * Config options for the downstream connection pools used by proxy/router endpoints. A downstream {@code host:port}
+ * doesn't get a single pool - it gets one pool per resolved IP address, and if {@code
+ * ServerConfig#isProxyRouterSharesWorkerEventLoops()} is on then one pool per resolved IP address per worker event
+ * loop. The limits here apply to each of those pools individually, so the most connections the server can open to a
+ * single {@code host:port} is {@link #maxConnectionsPerPool()} times the number of IP addresses the host resolves to
+ * (times the number of worker event loops if they're shared). Size the limits with that in mind.
+ *
+ * <p>The defaults keep the historical behavior of unbounded pools with no acquire timeout. It's highly recommended
+ * that you set {@link #maxConnectionsPerPool()} and {@link #acquireTimeoutMillis()} to something sensible for your
+ * downstream services - otherwise a slow downstream service can cause the server to open thousands of connections to
+ * it.
+ */
+public interface DownstreamConnectionPoolConfig {
+
+    /**
+     * Statically accessible implementation of the {@link DownstreamConnectionPoolConfig} interface that returns the
+     * default values.
+     */
+    DownstreamConnectionPoolConfig DEFAULT_IMPL = new DownstreamConnectionPoolConfig() {};
+
+    /**
+     * Defaults to {@link Integer#MAX_VALUE} (effectively unbounded).
+     *
+     * @return The maximum number of connections (in use and idle) that a single pool can have open at once. Once this
+     * limit is reached, further acquires wait in a queue for a connection to be released. This is not a limit for the
+     * downstream host as a whole - see the class javadocs.
+     */
+    default int maxConnectionsPerPool() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Defaults to {@link Integer#MAX_VALUE} (effectively unbounded).
+     *
+     * @return The maximum number of acquires that can be waiting for a connection when a pool is at {@link
+     * #maxConnectionsPerPool()}. Acquires beyond this limit fail immediately. Like {@link #maxConnectionsPerPool()}
+     * this applies to each pool individually.
+     */
+    default int maxPendingAcquiresPerPool() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Defaults to 0 (no timeout).
+     *
+     * @return The maximum amount of time in milliseconds an acquire can wait in the pending queue for a connection to
+     * be released before it fails. A value less than or equal to 0 means pending acquires wait indefinitely (the
+     * downstream connect timeout still applies once a connection is actually being opened).
+     */
+    default long acquireTimeoutMillis() {
+        return 0;
+    }
+
+    /**
+     * Defaults to -1, which means the server's {@code ServerConfig#workerChannelIdleTimeoutMillis()} is used.
+     *
+     * @return The amount of time in milliseconds a connection can sit idle in a pool before it is closed. A value of 0
+     * disables idle eviction. A negative value means the server's worker channel idle timeout is used.
+     */
+    default long idleConnectionTimeoutMillis() {
+        return -1;
+    }
+
+    /**
+     * Defaults to 0 (no max lifetime).
+     *
+     * @return The maximum amount of time in milliseconds a connection can live before it is closed instead of being
+     * reused. This is checked when a connection is released back to the pool and when it is pulled out of the pool for
+     * reuse, so a connection is never closed in the middle of a call. This is useful to make sure new downstream
+     * instances (e.g. behind a DNS name or load balancer) eventually receive traffic. A value less than or equal to 0
+     * means connections can live forever.
+     */
+    default long maxConnectionLifetimeMillis() {
+        return 0;
+    }
+}
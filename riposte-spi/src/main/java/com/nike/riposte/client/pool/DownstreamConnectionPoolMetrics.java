@@ -0,0 +1,281 @@
+package com.nike.riposte.client.pool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Collects the stats for the downstream connection pools used by proxy/router endpoints so they can be reported as
+ * metrics. Pools register themselves via {@link #registerPool(String, PoolStats)} when they're created, keyed by
+ * {@code host:port}. A single host can end up with several pools (one per resolved IP address, and one per worker
+ * event loop if {@code ServerConfig#isProxyRouterSharesWorkerEventLoops()} is on), so the per-host getters in this
+ * class aggregate across all the pools for that host.
+ *
+ * <p>Pools are created lazily as downstream hosts are called, so metrics reporters that want per-host metrics should
+ * use {@link #addNewHostListener(Consumer)} to find out about new hosts as they show up.
+ *
+ * <p>Most apps should use the shared {@link #getDefaultInstance()}.
+ */
+@SuppressWarnings("WeakerAccess")
+public class DownstreamConnectionPoolMetrics {
+
+    /**
+     * The live stats for a single downstream connection pool. Implementations must be thread safe.
+     */
+    public interface PoolStats {
+        /**
+         * @return The number of connections currently checked out of the pool for a downstream call.
+         */
+        int getActiveConnectionCount();
+
+        /**
+         * @return The number of connections currently sitting in the pool waiting to be reused.
+         */
+        int getIdleConnectionCount();
+
+        /**
+         * @return The number of acquires that are waiting for a connection (either waiting in the pending queue or
+         * waiting for a new connection to be established).
+         */
+        int getPendingAcquireCount();
+
+        /**
+         * @return The total number of completed acquires (successful or not).
+         */
+        long getAcquireCount();
+
+        /**
+         * @return The total number of acquires that failed (connect failures, acquire timeouts, too many pending
+         * acquires, etc).
+         */
+        long getAcquireFailureCount();
+
+        /**
+         * @return The sum of the time in nanoseconds taken by all completed acquires.
+         */
+        long getTotalAcquireNanos();
+
+        /**
+         * @return The longest time in nanoseconds any single acquire has taken.
+         */
+        long getMaxAcquireNanos();
+
+        /**
+         * @return The total number of new connections that were successfully established.
+         */
+        long getConnectCount();
+
+        /**
+         * @return The total number of attempts to establish a new connection that failed.
+         */
+        long getConnectFailureCount();
+
+        /**
+         * @return The sum of the time in nanoseconds taken to establish all successful new connections.
+         */
+        long getTotalConnectNanos();
+
+        /**
+         * @return The total number of connections that were closed because they hit their max lifetime.
+         */
+        long getMaxLifetimeEvictionCount();
+    }
+
+    /**
+     * The live outlier ejection stats for the addresses of a single downstream host (see {@code
+     * DownstreamOutlierEjectionConfig}). Implementations must be thread safe.
+     */
+    public interface EjectionStats {
+        /**
+         * @return The number of the host's addresses that are currently ejected.
+         */
+        int getEjectedAddressCount();
+
+        /**
+         * @return The total number of times any of the host's addresses have been ejected.
+         */
+        long getEjectionCount();
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(DownstreamConnectionPoolMetrics.class);
+
+    protected final ConcurrentMap<String, List<PoolStats>> poolsByHost = new ConcurrentHashMap<>();
+    protected final ConcurrentMap<String, List<EjectionStats>> ejectionStatsByHost = new ConcurrentHashMap<>();
+    protected final List<Consumer<String>> newHostListeners = new CopyOnWriteArrayList<>();
+
+    private static class DefaultInstanceHolder {
+        private static final DownstreamConnectionPoolMetrics INSTANCE = new DownstreamConnectionPoolMetrics();
+    }
+
+    /**
+     * @return The shared default instance.
+     */
+    public static DownstreamConnectionPoolMetrics getDefaultInstance() {
+        return DefaultInstanceHolder.INSTANCE;
+    }
+
+    /**
+     * Registers the given pool's stats under the given host. Any {@link #addNewHostListener(Consumer) new host
+     * listeners} will be notified if this is the first pool for the host.
+     *
+     * @param hostKey The {@code host:port} the pool connects to.
+     * @param pool The stats for the pool.
+     */
+    public void registerPool(String hostKey, PoolStats pool) {
+        if (hostKey == null)
+            throw new IllegalArgumentException("hostKey cannot be null");
+
+        if (pool == null)
+            throw new IllegalArgumentException("pool cannot be null");
+
+        // Pools are only created the first time a downstream address is called, so synchronizing here is cheap, and
+        //      it guarantees each listener hears about each host exactly once (see addNewHostListener()).
+        synchronized (this) {
+            List<PoolStats> pools = poolsByHost.get(hostKey);
+            if (pools == null) {
+                pools = new CopyOnWriteArrayList<>();
+                pools.add(pool);
+                poolsByHost.put(hostKey, pools);
+                for (Consumer<String> listener : newHostListeners) {
+                    notifyNewHostListener(listener, hostKey);
+                }
+            }
+            else {
+                pools.add(pool);
+            }
+        }
+    }
+
+    /**
+     * Registers the given outlier ejection stats under the given host. Unlike {@link #registerPool(String, PoolStats)}
+     * this does not notify new host listeners - the host's pools are registered as soon as the host is called.
+     *
+     * @param hostKey The {@code host:port} the ejection stats are for.
+     * @param ejectionStats The ejection stats for the host.
+     */
+    public void registerEjectionStats(String hostKey, EjectionStats ejectionStats) {
+        if (hostKey == null)
+            throw new IllegalArgumentException("hostKey cannot be null");
+
+        if (ejectionStats == null)
+            throw new IllegalArgumentException("ejectionStats cannot be null");
+
+        ejectionStatsByHost.computeIfAbsent(hostKey, key -> new CopyOnWriteArrayList<>()).add(ejectionStats);
+    }
+
+    /**
+     * Adds a listener that will be called with the {@code host:port} key whenever the first pool for a new host is
+     * registered. The listener is called immediately for any hosts that are already known.
+     *
+     * @param listener The listener to notify about new hosts.
+     */
+    public synchronized void addNewHostListener(Consumer<String> listener) {
+        if (listener == null)
+            throw new IllegalArgumentException("listener cannot be null");
+
+        newHostListeners.add(listener);
+        poolsByHost.keySet().forEach(hostKey -> notifyNewHostListener(listener, hostKey));
+    }
+
+    protected void notifyNewHostListener(Consumer<String> listener, String hostKey) {
+        try {
+            listener.accept(hostKey);
+        }
+        catch (Throwable t) {
+            // Pools are registered while a downstream call is being set up - a broken metrics listener must not fail
+            //      the call.
+            logger.error("A DownstreamConnectionPoolMetrics new host listener threw an exception. host={}", hostKey, t);
+        }
+    }
+
+    /**
+     * @return The {@code host:port} keys of all the hosts that have at least one registered pool.
+     */
+    public Set<String> getHosts() {
+        return Collections.unmodifiableSet(poolsByHost.keySet());
+    }
+
+    public int getActiveConnectionCount(String hostKey) {
+        return (int) sum(hostKey, PoolStats::getActiveConnectionCount);
+    }
+
+    public int getIdleConnectionCount(String hostKey) {
+        return (int) sum(hostKey, PoolStats::getIdleConnectionCount);
+    }
+
+    public int getPendingAcquireCount(String hostKey) {
+        return (int) sum(hostKey, PoolStats::getPendingAcquireCount);
+    }
+
+    public long getAcquireFailureCount(String hostKey) {
+        return sum(hostKey, PoolStats::getAcquireFailureCount);
+    }
+
+    public long getAverageAcquireNanos(String hostKey) {
+        long count = sum(hostKey, PoolStats::getAcquireCount);
+        return (count == 0) ? 0 : sum(hostKey, PoolStats::getTotalAcquireNanos) / count;
+    }
+
+    public long getMaxAcquireNanos(String hostKey) {
+        long max = 0;
+        for (PoolStats pool : poolsForHost(hostKey)) {
+            max = Math.max(max, pool.getMaxAcquireNanos());
+        }
+        return max;
+    }
+
+    public long getConnectFailureCount(String hostKey) {
+        return sum(hostKey, PoolStats::getConnectFailureCount);
+    }
+
+    public long getAverageConnectNanos(String hostKey) {
+        long count = sum(hostKey, PoolStats::getConnectCount);
+        return (count == 0) ? 0 : sum(hostKey, PoolStats::getTotalConnectNanos) / count;
+    }
+
+    public long getMaxLifetimeEvictionCount(String hostKey) {
+        return sum(hostKey, PoolStats::getMaxLifetimeEvictionCount);
+    }
+
+    public int getEjectedAddressCount(String hostKey) {
+        int total = 0;
+        for (EjectionStats stats : ejectionStatsForHost(hostKey)) {
+            total += stats.getEjectedAddressCount();
+        }
+        return total;
+    }
+
+    public long getEjectionCount(String hostKey) {
+        long total = 0;
+        for (EjectionStats stats : ejectionStatsForHost(hostKey)) {
+            total += stats.getEjectionCount();
+        }
+        return total;
+    }
+
+    protected List<EjectionStats> ejectionStatsForHost(String hostKey) {
+        List<EjectionStats> stats = ejectionStatsByHost.get(hostKey);
+        return (stats == null) ? Collections.emptyList() : stats;
+    }
+
+    protected List<PoolStats> poolsForHost(String hostKey) {
+        List<PoolStats> pools = poolsByHost.get(hostKey);
+        return (pools == null) ? Collections.emptyList() : pools;
+    }
+
+    protected long sum(String hostKey, ToLongFunction<PoolStats> statExtractor) {
+        long total = 0;
+        for (PoolStats pool : poolsForHost(hostKey)) {
+            total += statExtractor.applyAsLong(pool);
+        }
+        return total;
+    }
+}
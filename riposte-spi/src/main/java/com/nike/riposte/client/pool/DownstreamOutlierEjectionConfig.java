@@ -0,0 +1,62 @@
+package com.nike.riposte.client.pool;
+
+/**
+ * Config options for the per-address outlier ejection done by proxy/router endpoints. A downstream host's DNS name
+ * can resolve to several IP addresses (e.g. several instances behind the name). Each address's health is tracked
+ * separately, and an address that fails {@link #consecutiveFailuresToEject()} calls in a row (connect failures, errors
+ * during the call, or 5xx responses) is ejected: no new calls are sent to it until its ejection time runs out. The
+ * ejection time starts at {@link #baseEjectionTimeMillis()} and doubles every time the same address is ejected again
+ * without a successful call in between, up to {@link #maxEjectionTimeMillis()}.
+ *
+ * <p>This is complementary to the per-host circuit breaker: the circuit breaker protects the host as a whole, while
+ * outlier ejection routes around one bad instance so the circuit breaker isn't tripped for everyone.
+ */
+public interface DownstreamOutlierEjectionConfig {
+
+    /**
+     * Statically accessible implementation of the {@link DownstreamOutlierEjectionConfig} interface that returns the
+     * default values.
+     */
+    DownstreamOutlierEjectionConfig DEFAULT_IMPL = new DownstreamOutlierEjectionConfig() {};
+
+    /**
+     * Defaults to 5.
+     *
+     * @return The number of consecutive failed calls to a single address that will cause it to be ejected. A value
+     * less than or equal to 0 disables outlier ejection.
+     */
+    default int consecutiveFailuresToEject() {
+        return 5;
+    }
+
+    /**
+     * Defaults to 30 seconds.
+     *
+     * @return The amount of time in milliseconds an address is ejected for the first time it is ejected.
+     */
+    default long baseEjectionTimeMillis() {
+        return 30 * 1000;
+    }
+
+    /**
+     * Defaults to 5 minutes.
+     *
+     * @return The maximum amount of time in milliseconds an address can be ejected for, no matter how many times in a
+     * row it has been ejected.
+     */
+    default long maxEjectionTimeMillis() {
+        return 5 * 60 * 1000;
+    }
+
+    /**
+     * Defaults to 50.
+     *
+     * @return The maximum percentage of a host's addresses that can be ejected at the same time. If more of a host's
+     * addresses than this are ejected (or all of them are) then the ejections are ignored and calls are spread across
+     * all the addresses as if none were ejected - at that point the host as a whole is unhealthy, which is left to the
+     * per-host circuit breaker.
+     */
+    default int maxEjectedPercent() {
+        return 50;
+    }
+}
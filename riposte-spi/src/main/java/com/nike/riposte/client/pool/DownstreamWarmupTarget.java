@@ -0,0 +1,76 @@
+package com.nike.riposte.client.pool;
+
+/**
+ * Describes a downstream {@code host:port} that proxy/router endpoints will call, and how many connections to it
+ * should be opened ahead of time. Warmup targets are opened after the server binds its port but before any {@code
+ * PostServerStartupHook}s run (which is where service registration hooks like Eureka mark the instance as up), so the
+ * first requests the server receives don't pay for downstream connection setup (and TLS handshakes for HTTPS targets).
+ * The pools for warmup targets are then periodically topped back up to {@link #minWarmConnections} for as long as the
+ * server is running. Connections are opened to every IP address the {@link #host} resolves to.
+ *
+ * <p>Warmup targets can be declared via {@code ServerConfig#proxyRouterWarmupTargets()} or by individual {@code
+ * ProxyRouterEndpoint}s via {@code ProxyRouterEndpoint#downstreamWarmupTargets()}.
+ */
+@SuppressWarnings("WeakerAccess")
+public class DownstreamWarmupTarget {
+
+    public final String host;
+    public final int port;
+    public final boolean isHttps;
+    public final boolean relaxedHttpsValidation;
+    public final int minWarmConnections;
+
+    /**
+     * Creates a new instance with {@link #relaxedHttpsValidation} set to false.
+     *
+     * @param host The downstream host. Cannot be null or blank.
+     * @param port The downstream port. Must be between 1 and 65535.
+     * @param isHttps Whether the downstream calls will use HTTPS - if true the TLS handshake is done during warmup.
+     * @param minWarmConnections The minimum number of connections to keep open to this target. Must be greater than 0.
+     * There is a separate pool for each IP address the host resolves to (and for each worker event loop if {@code
+     * ServerConfig#isProxyRouterSharesWorkerEventLoops()} is on), and this minimum applies to each of those pools.
+     */
+    public DownstreamWarmupTarget(String host, int port, boolean isHttps, int minWarmConnections) {
+        this(host, port, isHttps, false, minWarmConnections);
+    }
+
+    /**
+     * @param host The downstream host. Cannot be null or blank.
+     * @param port The downstream port. Must be between 1 and 65535.
+     * @param isHttps Whether the downstream calls will use HTTPS - if true the TLS handshake is done during warmup.
+     * @param relaxedHttpsValidation Whether the HTTPS certificate validation should be relaxed for this target. This
+     * should match what the proxy/router endpoint uses for its calls. Ignored if {@code isHttps} is false.
+     * @param minWarmConnections The minimum number of connections to keep open to this target. Must be greater than 0.
+     * There is a separate pool for each IP address the host resolves to (and for each worker event loop if {@code
+     * ServerConfig#isProxyRouterSharesWorkerEventLoops()} is on), and this minimum applies to each of those pools.
+     */
+    public DownstreamWarmupTarget(String host, int port, boolean isHttps, boolean relaxedHttpsValidation,
+                                  int minWarmConnections) {
+        if (host == null || host.trim().isEmpty())
+            throw new IllegalArgumentException("host cannot be null or blank");
+
+        if (port < 1 || port > 65535)
+            throw new IllegalArgumentException("port must be between 1 and 65535. port=" + port);
+
+        if (minWarmConnections < 1)
+            throw new IllegalArgumentException("minWarmConnections must be greater than 0. minWarmConnections="
+                                               + minWarmConnections);
+
+        this.host = host;
+        this.port = port;
+        this.isHttps = isHttps;
+        this.relaxedHttpsValidation = relaxedHttpsValidation;
+        this.minWarmConnections = minWarmConnections;
+    }
+
+    @Override
+    public String toString() {
+        return "DownstreamWarmupTarget{" +
+               "host='" + host + '\'' +
+               ", port=" + port +
+               ", isHttps=" + isHttps +
+               ", relaxedHttpsValidation=" + relaxedHttpsValidation +
+               ", minWarmConnections=" + minWarmConnections +
+               '}';
+    }
+}
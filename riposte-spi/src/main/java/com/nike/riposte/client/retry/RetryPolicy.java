@@ -0,0 +1,250 @@
+package com.nike.riposte.client.retry;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opt-in automatic retries for downstream calls that fail in a way that's known to be safe to retry - i.e. before the
+ * downstream service could have acted on the request. Connection failures (e.g. connection refused) and failures
+ * writing the start of the request to a stale pooled connection are retried for any HTTP method. A connection that's
+ * reset after the request was sent but before any of the response arrived is only retried for idempotent HTTP methods
+ * (see {@link #IDEMPOTENT_HTTP_METHODS}) whose request body can be sent again. Each retry goes to a different address
+ * for the same host when there is one, after a jittered exponential backoff (see {@link #computeBackoffMillis(int)}).
+ *
+ * <p>Retries are capped by a retry budget so a struggling downstream service doesn't get hit with a retry storm: every
+ * call earns {@link #budgetPercent} percent of a retry, and every retry spends one whole retry, so over time no more
+ * than {@link #budgetPercent} percent of calls are retried. At most {@link #maxBudgetBurst} unspent retries can be
+ * banked. Unlike {@code HedgingPolicy}, the budget starts out full, so the first failures after startup can be retried
+ * before any budget has been earned.
+ *
+ * <p>A single policy is meant to be shared by all the calls it applies to (it's what tracks the budget), and this class
+ * is thread safe. Attach it to proxy/router calls via {@code DownstreamRequestFirstChunkInfo#withRetryPolicy(
+ * RetryPolicy)}, or to {@code AsyncHttpClientHelper} calls via {@code RequestBuilderWrapper#setRetryPolicy(
+ * RetryPolicy)}. The stat getters ({@link #getRetryCount()}, {@link #getBudgetExhaustedCount()}, etc) can be
+ * registered as metrics gauges.
+ */
+@SuppressWarnings("WeakerAccess")
+public class RetryPolicy {
+
+    /**
+     * The HTTP methods that are safe to retry even if the downstream service might have received the request.
+     */
+    public static final Set<String> IDEMPOTENT_HTTP_METHODS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+        "GET", "HEAD", "OPTIONS", "PUT", "DELETE", "TRACE"
+    )));
+
+    public static final int DEFAULT_MAX_RETRIES = 2;
+    public static final long DEFAULT_BASE_BACKOFF_MILLIS = 10;
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 200;
+    public static final double DEFAULT_BUDGET_PERCENT = 10;
+    public static final int DEFAULT_MAX_BUDGET_BURST = 10;
+
+    /**
+     * The budget is tracked in thousandths of a retry so fractional budget percentages don't get rounded away.
+     */
+    protected static final long MILLI_RETRIES_PER_RETRY = 1000;
+
+    public final int maxRetries;
+    public final long baseBackoffMillis;
+    public final long maxBackoffMillis;
+    public final double budgetPercent;
+    public final int maxBudgetBurst;
+
+    protected final long budgetMilliRetriesPerCall;
+    protected final long maxBudgetMilliRetries;
+    protected final AtomicLong budgetMilliRetries;
+
+    protected final LongAdder callCount = new LongAdder();
+    protected final LongAdder retryCount = new LongAdder();
+    protected final LongAdder budgetExhaustedCount = new LongAdder();
+
+    /**
+     * Use {@link #newBuilder()} to create instances rather than calling this constructor directly.
+     *
+     * @param maxRetries The maximum number of times a single call will be retried. Cannot be negative.
+     * @param baseBackoffMillis The backoff cap for the first retry - see {@link #computeBackoffMillis(int)}. Cannot be
+     * negative.
+     * @param maxBackoffMillis The backoff cap for any retry. Cannot be less than {@code baseBackoffMillis}.
+     * @param budgetPercent The maximum percentage of calls that can be retried. Must be between 0 and 100.
+     * @param maxBudgetBurst The maximum number of unspent retries that can be banked. Must be greater than 0.
+     */
+    public RetryPolicy(int maxRetries, long baseBackoffMillis, long maxBackoffMillis, double budgetPercent,
+                       int maxBudgetBurst) {
+        if (maxRetries < 0)
+            throw new IllegalArgumentException("maxRetries cannot be negative. maxRetries=" + maxRetries);
+
+        if (baseBackoffMillis < 0)
+            throw new IllegalArgumentException("baseBackoffMillis cannot be negative. baseBackoffMillis="
+                                               + baseBackoffMillis);
+
+        if (maxBackoffMillis < baseBackoffMillis)
+            throw new IllegalArgumentException("maxBackoffMillis cannot be less than baseBackoffMillis. "
+                                               + "baseBackoffMillis=" + baseBackoffMillis
+                                               + ", maxBackoffMillis=" + maxBackoffMillis);
+
+        if (budgetPercent < 0 || budgetPercent > 100)
+            throw new IllegalArgumentException("budgetPercent must be between 0 and 100. budgetPercent="
+                                               + budgetPercent);
+
+        if (maxBudgetBurst < 1)
+            throw new IllegalArgumentException("maxBudgetBurst must be greater than 0. maxBudgetBurst="
+                                               + maxBudgetBurst);
+
+        this.maxRetries = maxRetries;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.budgetPercent = budgetPercent;
+        this.maxBudgetBurst = maxBudgetBurst;
+        this.budgetMilliRetriesPerCall = Math.round(budgetPercent * MILLI_RETRIES_PER_RETRY / 100);
+        this.maxBudgetMilliRetries = maxBudgetBurst * MILLI_RETRIES_PER_RETRY;
+        this.budgetMilliRetries = new AtomicLong(maxBudgetMilliRetries);
+    }
+
+    /**
+     * @return A new builder with all the values set to their defaults.
+     */
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * @return true if calls with the given HTTP method can be retried after the request may have reached the
+     * downstream service, false otherwise.
+     */
+    public boolean isIdempotentHttpMethod(String httpMethod) {
+        return httpMethod != null && IDEMPOTENT_HTTP_METHODS.contains(httpMethod.toUpperCase());
+    }
+
+    /**
+     * Call this once for every call that uses this policy when it starts (not for its retries). It counts the call and
+     * adds its share to the retry budget.
+     */
+    public void onCallStarted() {
+        callCount.increment();
+        if (budgetMilliRetriesPerCall > 0) {
+            budgetMilliRetries.accumulateAndGet(
+                budgetMilliRetriesPerCall, (current, deposit) -> Math.min(current + deposit, maxBudgetMilliRetries)
+            );
+        }
+    }
+
+    /**
+     * Checks whether the given retry is allowed, and if so spends one retry from the budget.
+     *
+     * @param retryNumber The retry that's about to be made - 1 for the first retry of a call, 2 for the second, etc.
+     * @return true if the retry can be made (in which case it has been counted), false if the call has already been
+     * retried {@link #maxRetries} times or the budget is exhausted.
+     */
+    public boolean tryAcquireRetry(int retryNumber) {
+        if (retryNumber > maxRetries)
+            return false;
+
+        long current = budgetMilliRetries.get();
+        while (current >= MILLI_RETRIES_PER_RETRY) {
+            if (budgetMilliRetries.compareAndSet(current, current - MILLI_RETRIES_PER_RETRY)) {
+                retryCount.increment();
+                return true;
+            }
+            current = budgetMilliRetries.get();
+        }
+
+        budgetExhaustedCount.increment();
+        return false;
+    }
+
+    /**
+     * Uses "full jitter": the backoff is a random value between 0 and a cap that starts at {@link #baseBackoffMillis}
+     * and doubles with each retry, up to {@link #maxBackoffMillis}. The randomness keeps a batch of calls that failed
+     * together from being retried together.
+     *
+     * @param retryNumber The retry that's about to be made - 1 for the first retry of a call, 2 for the second, etc.
+     * @return How long to wait in milliseconds before making the given retry.
+     */
+    public long computeBackoffMillis(int retryNumber) {
+        long cap = baseBackoffMillis;
+        for (int i = 1; i < retryNumber && cap < maxBackoffMillis; i++) {
+            cap *= 2;
+        }
+        cap = Math.min(cap, maxBackoffMillis);
+
+        return (cap <= 0) ? 0 : ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    /**
+     * @return The total number of calls that used this policy (not counting retries).
+     */
+    public long getCallCount() {
+        return callCount.sum();
+    }
+
+    /**
+     * @return The total number of retries made.
+     */
+    public long getRetryCount() {
+        return retryCount.sum();
+    }
+
+    /**
+     * @return The total number of times a call could have been retried but the retry budget was exhausted.
+     */
+    public long getBudgetExhaustedCount() {
+        return budgetExhaustedCount.sum();
+    }
+
+    /**
+     * @return The number of retries per call (between 0 and 1 over time, thanks to the budget).
+     */
+    public double getRetryRate() {
+        long calls = getCallCount();
+        return (calls == 0) ? 0 : ((double) getRetryCount()) / calls;
+    }
+
+    /**
+     * Builder for {@link RetryPolicy}. All values default to the {@code DEFAULT_*} constants in {@link RetryPolicy}.
+     */
+    public static final class Builder {
+
+        private int maxRetries = DEFAULT_MAX_RETRIES;
+        private long baseBackoffMillis = DEFAULT_BASE_BACKOFF_MILLIS;
+        private long maxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+        private double budgetPercent = DEFAULT_BUDGET_PERCENT;
+        private int maxBudgetBurst = DEFAULT_MAX_BUDGET_BURST;
+
+        private Builder() {
+        }
+
+        public Builder withMaxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        public Builder withBaseBackoffMillis(long baseBackoffMillis) {
+            this.baseBackoffMillis = baseBackoffMillis;
+            return this;
+        }
+
+        public Builder withMaxBackoffMillis(long maxBackoffMillis) {
+            this.maxBackoffMillis = maxBackoffMillis;
+            return this;
+        }
+
+        public Builder withBudgetPercent(double budgetPercent) {
+            this.budgetPercent = budgetPercent;
+            return this;
+        }
+
+        public Builder withMaxBudgetBurst(int maxBudgetBurst) {
+            this.maxBudgetBurst = maxBudgetBurst;
+            return this;
+        }
+
+        public RetryPolicy build() {
+            return new RetryPolicy(maxRetries, baseBackoffMillis, maxBackoffMillis, budgetPercent, maxBudgetBurst);
+        }
+    }
+}
@@ -7,6 +7,11 @@ import com.nike.backstopper.apierror.sample.SampleProjectApiErrorsBase;
 import com.nike.backstopper.handler.ApiExceptionHandlerUtils;
 import com.nike.backstopper.handler.riposte.config.BackstopperRiposteConfigHelper;
 import com.nike.backstopper.service.riposte.BackstopperRiposteValidatorAdapter;
+import com.nike.riposte.client.dns.CachingHostnameResolver;
+import com.nike.riposte.client.pool.DownstreamConnectionPoolConfig;
+import com.nike.riposte.client.pool.DownstreamConnectionPoolMetrics;
+import com.nike.riposte.client.pool.DownstreamOutlierEjectionConfig;
+import com.nike.riposte.client.pool.DownstreamWarmupTarget;
 import com.nike.riposte.metrics.MetricsListener;
 import com.nike.riposte.server.error.handler.ErrorResponseBodySerializer;
 import com.nike.riposte.server.error.handler.RiposteErrorHandler;
@@ -19,7 +24,11 @@ import com.nike.riposte.server.hooks.PreServerStartupHook;
 import com.nike.riposte.server.hooks.ServerShutdownHook;
 import com.nike.riposte.server.http.Endpoint;
 import com.nike.riposte.server.http.RequestInfo;
+import com.nike.riposte.server.http.cache.EntityTagGenerator;
+import com.nike.riposte.server.http.cache.ResponseCache;
+import com.nike.riposte.server.http.compression.AdaptiveCompressionPolicy;
 import com.nike.riposte.server.http.filter.RequestAndResponseFilter;
+import com.nike.riposte.server.http.header.StaticResponseHeaders;
 import com.nike.riposte.server.logging.AccessLogger;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -347,6 +356,88 @@ public interface ServerConfig {
         return 10 * 1000;
     }
 
+    /**
+     * @return true if proxy/router endpoints should register their downstream connections on the same worker event loop
+     * as the incoming channel that triggered the downstream call, false if downstream connections should use their own
+     * separate event loop group. Defaults to false.
+     *
+     * <p>When this is true the downstream channel pools are kept per worker event loop, and a proxied request (incoming
+     * chunks, downstream writes, downstream response chunks, and the response back to the caller) is handled entirely on
+     * one thread with no cross-thread handoffs. This generally improves latency and throughput for proxy-heavy servers,
+     * at the cost of keeping a separate set of downstream connections for each worker thread (see {@link
+     * #numWorkerThreads()}). If the worker channels aren't a transport the downstream client knows how to share (epoll
+     * or NIO) then the separate event loop group is used as a fallback.
+     *
+     * <p><b>WARNING:</b> the worker event loops will be doing the downstream I/O as well, so never block in a
+     * proxy/router endpoint when this is enabled (you shouldn't anyway).
+     */
+    default boolean isProxyRouterSharesWorkerEventLoops() {
+        return false;
+    }
+
+    /**
+     * @return The {@link CachingHostnameResolver} that proxy/router endpoints should use to resolve downstream
+     * hostnames into IP addresses. Defaults to {@link CachingHostnameResolver#getDefaultInstance()}, which is also
+     * what {@code AsyncHttpClientHelper} uses, so both clients share one cache. If this returns null then the default
+     * instance will be used. The same instance should be returned every time this method is called.
+     */
+    default CachingHostnameResolver proxyRouterHostnameResolver() {
+        return CachingHostnameResolver.getDefaultInstance();
+    }
+
+    /**
+     * @return The {@link DownstreamConnectionPoolConfig} that controls the size, acquire timeout, and connection
+     * eviction of the downstream connection pools used by proxy/router endpoints, or null if you want to use
+     * the default values ({@link DownstreamConnectionPoolConfig#DEFAULT_IMPL}). The defaults are unbounded pools with no
+     * acquire timeout - see the {@link DownstreamConnectionPoolConfig} javadocs for why you probably want to change that.
+     */
+    default DownstreamConnectionPoolConfig proxyRouterConnectionPoolConfig() {
+        return null;
+    }
+
+    /**
+     * @return The {@link DownstreamConnectionPoolMetrics} that the downstream connection pools used by proxy/router
+     * endpoints should register their stats with (active, idle, and pending counts, acquire latency, connect time,
+     * etc), so that metrics listeners can report them per downstream host. Defaults to {@link
+     * DownstreamConnectionPoolMetrics#getDefaultInstance()}. If this returns null then the default instance will be
+     * used. The same instance should be returned every time this method is called.
+     */
+    default DownstreamConnectionPoolMetrics proxyRouterConnectionPoolMetrics() {
+        return DownstreamConnectionPoolMetrics.getDefaultInstance();
+    }
+
+    /**
+     * @return The {@link DownstreamOutlierEjectionConfig} that controls when proxy/router endpoints stop sending calls
+     * to an individual IP address of a downstream host because it keeps failing, or null if you want to use the
+     * default values ({@link DownstreamOutlierEjectionConfig#DEFAULT_IMPL}). Ejection stats are reported per
+     * downstream host via {@link #proxyRouterConnectionPoolMetrics()}.
+     */
+    default DownstreamOutlierEjectionConfig proxyRouterOutlierEjectionConfig() {
+        return null;
+    }
+
+    /**
+     * @return The downstream {@code host:port} targets that proxy/router endpoints should open connections to when the
+     * server starts up, or null if there are none. These are combined with any targets declared by the server's {@code
+     * ProxyRouterEndpoint}s (via {@code ProxyRouterEndpoint#downstreamWarmupTargets()}). Warmup happens after the
+     * server binds its port but before any {@link #postServerStartupHooks()} run, so service registration (e.g. Eureka)
+     * doesn't mark the server as up until its downstream connections are ready. The pools are then kept topped up to
+     * each target's minimum while the server is running. See {@link DownstreamWarmupTarget} for details.
+     */
+    default Collection<DownstreamWarmupTarget> proxyRouterWarmupTargets() {
+        return null;
+    }
+
+    /**
+     * @return The maximum amount of time in milliseconds that server startup will wait for the {@link
+     * #proxyRouterWarmupTargets()} (and endpoint-declared warmup targets) to be warmed up before moving on to the
+     * {@link #postServerStartupHooks()}. Warmup failures and timeouts are logged but do not prevent the server from
+     * starting - the connections will simply be opened on demand as usual. Defaults to 10 seconds.
+     */
+    default long proxyRouterWarmupTimeoutMillis() {
+        return 10 * 1000;
+    }
+
     /**
      * @return The amount of time in milliseconds that the server should wait without receiving a chunk from the caller
      * once the first chunk has been received but before the last chunk has arrived. If a request has been started (we
@@ -412,6 +503,28 @@ public interface ServerConfig {
         return 500;
     }
 
+    /**
+     * @return The {@link AdaptiveCompressionPolicy} that should be used to pick the compression level for each
+     * response based on how busy the event loop is and how big the response is, and to reuse the compressed form of
+     * response bodies that are served repeatedly. This can be null - if it is null then all responses above {@link
+     * #responseCompressionThresholdBytes()} are compressed at the same fixed level and nothing is memoized. The same
+     * instance should be returned every time this method is called.
+     */
+    default AdaptiveCompressionPolicy adaptiveCompressionPolicy() {
+        return null;
+    }
+
+    /**
+     * @return The {@link StaticResponseHeaders} that should be added to every response the server sends (other than
+     * responses from {@link com.nike.riposte.server.http.ProxyRouterEndpoint}s, which are passed through as-is), e.g.
+     * security headers and/or a {@code Date} header. The headers are pre-encoded once so adding them to responses is
+     * cheap, and they never override a header the endpoint set itself. This can be null - if it is null then no
+     * server-wide static headers are added.
+     */
+    default StaticResponseHeaders staticResponseHeaders() {
+        return null;
+    }
+
     /**
      * @return The {@link Executor} that should be used for long running tasks when non-blocking endpoints need to do
      * blocking I/O and there is no nonblocking driver/client, or if the endpoint needs to do serious number crunching
@@ -446,6 +559,27 @@ public interface ServerConfig {
         return null;
     }
 
+    /**
+     * @return The {@link ResponseCache} that should be used to cache the responses of endpoints that opt in via {@link
+     * com.nike.riposte.server.http.Endpoint#responseCachingOptions()}. This can be null - if it is null then no
+     * response caching will be performed regardless of what the endpoints request. The same instance should be
+     * returned every time this method is called.
+     */
+    default ResponseCache responseCache() {
+        return null;
+    }
+
+    /**
+     * @return The {@link EntityTagGenerator} that should be used to automatically add {@code ETag} headers to full
+     * {@code 200} responses to GET requests and answer matching {@code If-None-Match} requests with a {@code 304 Not
+     * Modified}. This can be null - if it is null then no automatic {@code ETag}s will be generated (endpoints that
+     * implement {@link com.nike.riposte.server.http.Endpoint#currentEntityTag(RequestInfo)} still get {@code 304}
+     * handling). The same instance should be returned every time this method is called.
+     */
+    default EntityTagGenerator entityTagGenerator() {
+        return null;
+    }
+
     /**
      * @return A {@link CompletableFuture} that will eventually return the {@link AppInfo} that should be used to do
      * metrics (and anything else that requires this info). You can return null, or the {@link CompletableFuture} can
@@ -540,6 +674,15 @@ public interface ServerConfig {
         return null;
     }
 
+    /**
+     * @return The {@link RequestDeadlineConfig} that determines the per-request deadline (the caller's time budget) and
+     * how it's propagated to downstream calls, or null if you want to use the default values (no deadlines). See the
+     * javadocs for {@link RequestDeadlineConfig} and its methods for more details.
+     */
+    default RequestDeadlineConfig requestDeadlineConfig() {
+        return null;
+    }
+
     /**
      * Config options that will be used when creating the {@link
      * io.netty.handler.codec.http.HttpRequestDecoder#HttpRequestDecoder(int, int, int)} (or
@@ -594,4 +737,70 @@ public interface ServerConfig {
             return 8192;
         }
     }
+
+    /**
+     * Config options for per-request deadlines. A request's deadline is the point in time after which the caller is no
+     * longer interested in the response. It comes from the caller's remaining time budget in the {@link
+     * #deadlineHeaderName()} request header if present, or from {@link #defaultDeadlineMillis()} otherwise. A request
+     * without a deadline behaves exactly as it would without this feature.
+     *
+     * <p>When a request has a deadline:
+     * <ul>
+     *     <li>
+     *         The endpoint's {@link java.util.concurrent.CompletableFuture} timeout (and the proxy/router downstream
+     *         call timeout) is capped at the time remaining before the deadline.
+     *     </li>
+     *     <li>
+     *         The remaining budget is forwarded to proxy/router downstream calls and to {@code AsyncHttpClientHelper}
+     *         calls made with the request's {@link io.netty.channel.ChannelHandlerContext} in the {@link
+     *         #deadlineHeaderName()} header (if it's not null), so downstream services can do the same.
+     *     </li>
+     *     <li>
+     *         If less than {@link #minimumRemainingBudgetMillis()} is left when the endpoint or a downstream call is
+     *         about to start, it fails fast with a {@link
+     *         com.nike.riposte.server.error.exception.RequestDeadlineExceededException} instead of doing work the
+     *         caller has already given up on.
+     *     </li>
+     * </ul>
+     */
+    interface RequestDeadlineConfig {
+
+        /**
+         * Statically accessible implementation of the {@link RequestDeadlineConfig} interface that returns the default
+         * values.
+         */
+        RequestDeadlineConfig DEFAULT_IMPL = new RequestDeadlineConfig() {};
+
+        /**
+         * Defaults to null.
+         *
+         * @return The name of the request header that carries the caller's remaining time budget in milliseconds (e.g.
+         * {@code X-Request-Timeout-Millis}), or null if deadlines shouldn't be read from (or forwarded in) a header.
+         * Header values that aren't positive integers are ignored.
+         */
+        default String deadlineHeaderName() {
+            return null;
+        }
+
+        /**
+         * Defaults to 0.
+         *
+         * @return The deadline in milliseconds (measured from when the request arrived) to use for requests that don't
+         * specify one via {@link #deadlineHeaderName()}. A value less than or equal to 0 means those requests don't
+         * get a deadline.
+         */
+        default long defaultDeadlineMillis() {
+            return 0;
+        }
+
+        /**
+         * Defaults to 5.
+         *
+         * @return The minimum amount of time in milliseconds that must be left before a request's deadline for its
+         * endpoint or a downstream call to be started - if less time is left then it fails fast instead.
+         */
+        default long minimumRemainingBudgetMillis() {
+            return 5;
+        }
+    }
 }
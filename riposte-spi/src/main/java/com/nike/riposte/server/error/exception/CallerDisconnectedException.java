@@ -0,0 +1,13 @@
+package com.nike.riposte.server.error.exception;
+
+/**
+ * Used to cancel the work for a request when the caller closes the connection before the response is sent - the
+ * endpoint's {@link java.util.concurrent.CompletableFuture} is completed exceptionally with this, and any downstream
+ * call for the request is closed with it. There's nobody to send an error response to, so this never results in one.
+ */
+public class CallerDisconnectedException extends RuntimeException {
+
+    public CallerDisconnectedException() {
+        super("The caller closed the connection before the response was sent. The request's work has been cancelled.");
+    }
+}
@@ -0,0 +1,24 @@
+package com.nike.riposte.server.error.exception;
+
+import com.nike.backstopper.exception.WrapperException;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Thrown when a downstream call fails before its request could be sent - e.g. the connection to the downstream system
+ * couldn't be established, or writing the start of the request to a pooled connection failed because the connection
+ * had gone stale. Since the downstream system can't have acted on the request, these failures are always safe to
+ * retry.
+ */
+public class DownstreamRequestNotSentException extends WrapperException {
+
+    /**
+     * The address the call was trying to reach, or null if it's unknown.
+     */
+    public final InetSocketAddress downstreamAddress;
+
+    public DownstreamRequestNotSentException(String message, Throwable cause, InetSocketAddress downstreamAddress) {
+        super(message, cause);
+        this.downstreamAddress = downstreamAddress;
+    }
+}
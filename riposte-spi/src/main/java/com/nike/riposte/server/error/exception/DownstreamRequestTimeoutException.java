@@ -0,0 +1,17 @@
+package com.nike.riposte.server.error.exception;
+
+/**
+ * Thrown when a downstream call doesn't finish within its total request timeout. Unlike {@link
+ * DownstreamIdleChannelTimeoutException} this is not an idle timeout - it's thrown even if the downstream system is
+ * still sending data when the timeout is reached.
+ */
+public class DownstreamRequestTimeoutException extends RuntimeException {
+
+    public final long timeoutValueMillis;
+
+    public DownstreamRequestTimeoutException(long timeoutValueMillis) {
+        super("The downstream call did not complete within its request timeout. "
+              + "downstream_request_timeout_value_millis=" + timeoutValueMillis);
+        this.timeoutValueMillis = timeoutValueMillis;
+    }
+}
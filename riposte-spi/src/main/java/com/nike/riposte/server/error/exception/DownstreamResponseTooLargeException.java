@@ -0,0 +1,16 @@
+package com.nike.riposte.server.error.exception;
+
+/**
+ * Thrown when a downstream call's response body is larger than the maximum size allowed for it to be aggregated in
+ * memory.
+ */
+public class DownstreamResponseTooLargeException extends RuntimeException {
+
+    public final long maxResponseSizeBytes;
+
+    public DownstreamResponseTooLargeException(long maxResponseSizeBytes) {
+        super("The downstream call's response body is larger than allowed. "
+              + "downstream_max_response_size_bytes=" + maxResponseSizeBytes);
+        this.maxResponseSizeBytes = maxResponseSizeBytes;
+    }
+}
@@ -7,7 +7,7 @@ package com.nike.riposte.server.error.exception;
  *
  * @author Nic Munroe
  */
-public class InvalidCharsetInContentTypeHeaderException extends RuntimeException {
+public class InvalidCharsetInContentTypeHeaderException extends StacklessFrameworkException {
 
     public final String invalidContentTypeHeader;
 
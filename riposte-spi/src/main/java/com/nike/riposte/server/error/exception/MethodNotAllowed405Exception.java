@@ -6,7 +6,7 @@ package com.nike.riposte.server.error.exception;
  *
  * @author Nic Munroe
  */
-public class MethodNotAllowed405Exception extends RuntimeException {
+public class MethodNotAllowed405Exception extends StacklessFrameworkException {
 
     public final String requestPath;
     public final String requestMethod;
@@ -3,7 +3,7 @@ package com.nike.riposte.server.error.exception;
 import com.nike.riposte.server.http.Endpoint;
 import com.nike.riposte.server.http.RequestInfo;
 
-public class MissingRequiredContentException extends RuntimeException {
+public class MissingRequiredContentException extends StacklessFrameworkException {
 
     public final String path;
     public final String method;
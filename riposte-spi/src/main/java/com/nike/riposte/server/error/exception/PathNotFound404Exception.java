@@ -6,7 +6,7 @@ package com.nike.riposte.server.error.exception;
  *
  * @author Nic Munroe
  */
-public class PathNotFound404Exception extends RuntimeException {
+public class PathNotFound404Exception extends StacklessFrameworkException {
 
     public PathNotFound404Exception(String message) {
         super(message);
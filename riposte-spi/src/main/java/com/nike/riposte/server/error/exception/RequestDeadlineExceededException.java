@@ -0,0 +1,16 @@
+package com.nike.riposte.server.error.exception;
+
+/**
+ * Thrown when a request's deadline is too close (or has already passed) for an endpoint or downstream call to be
+ * started. Should usually map to a 503 HTTP status code.
+ */
+public class RequestDeadlineExceededException extends RuntimeException {
+
+    public final long remainingBudgetMillis;
+
+    public RequestDeadlineExceededException(long remainingBudgetMillis) {
+        super("The request's deadline is too close for any more work to be done. "
+              + "request_deadline_remaining_millis=" + remainingBudgetMillis);
+        this.remainingBudgetMillis = remainingBudgetMillis;
+    }
+}
@@ -9,7 +9,7 @@ package com.nike.riposte.server.error.exception;
  *
  * @author Nic Munroe
  */
-public class RequestTooBigException extends RuntimeException {
+public class RequestTooBigException extends StacklessFrameworkException {
 
     /**
      * Creates a new instance with no message or cause.
@@ -0,0 +1,57 @@
+package com.nike.riposte.server.error.exception;
+
+/**
+ * Base class for the exceptions Riposte throws when it rejects a request during routing or request validation (e.g.
+ * {@link PathNotFound404Exception}, {@link MethodNotAllowed405Exception}). These are expected, frequent, and
+ * completely described by their type and fields - a 404 scan or a misbehaving client can generate thousands of them
+ * per second, and the stack trace would always point at the same framework code. Filling in the stack trace is by far
+ * the most expensive part of creating an exception, so these exceptions skip it by default.
+ *
+ * <p>If you need stack traces for these exceptions (e.g. while debugging Riposte itself) then set the {@link
+ * #CAPTURE_STACK_TRACES_SYSTEM_PROP_KEY} System property to "true" before the first one is created.
+ */
+@SuppressWarnings("WeakerAccess")
+public abstract class StacklessFrameworkException extends RuntimeException {
+
+    /**
+     * Set this System property to "true" to make {@link StacklessFrameworkException}s capture stack traces like normal
+     * exceptions.
+     */
+    public static final String CAPTURE_STACK_TRACES_SYSTEM_PROP_KEY =
+        "riposte.framework.exceptions.captureStackTraces";
+
+    protected static final boolean CAPTURE_STACK_TRACES =
+        "true".equalsIgnoreCase(System.getProperty(CAPTURE_STACK_TRACES_SYSTEM_PROP_KEY));
+
+    protected StacklessFrameworkException() {
+        super();
+    }
+
+    protected StacklessFrameworkException(String message) {
+        super(message);
+    }
+
+    protected StacklessFrameworkException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    protected StacklessFrameworkException(Throwable cause) {
+        super(cause);
+    }
+
+    /**
+     * @return true if this exception should capture its stack trace. Defaults to the {@link
+     * #CAPTURE_STACK_TRACES_SYSTEM_PROP_KEY} System property value.
+     */
+    protected boolean isCaptureStackTrace() {
+        return CAPTURE_STACK_TRACES;
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        if (isCaptureStackTrace())
+            return super.fillInStackTrace();
+
+        return this;
+    }
+}
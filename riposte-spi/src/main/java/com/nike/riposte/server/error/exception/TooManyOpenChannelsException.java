@@ -10,7 +10,7 @@ import com.nike.riposte.server.config.ServerConfig;
  *
  * @author Nic Munroe
  */
-public class TooManyOpenChannelsException extends RuntimeException {
+public class TooManyOpenChannelsException extends StacklessFrameworkException {
 
     public final int actualOpenChannelsCount;
     public final int maxOpenChannelsLimit;
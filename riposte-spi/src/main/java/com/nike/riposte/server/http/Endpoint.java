@@ -2,6 +2,9 @@ package com.nike.riposte.server.http;
 
 import com.nike.riposte.server.config.ServerConfig;
 import com.nike.riposte.server.error.exception.MissingRequiredContentException;
+import com.nike.riposte.server.http.cache.ResponseCache;
+import com.nike.riposte.server.http.cache.ResponseCachingOptions;
+import com.nike.riposte.server.http.header.StaticResponseHeaders;
 import com.nike.riposte.util.Matcher;
 
 import com.fasterxml.jackson.core.type.TypeReference;
@@ -155,4 +158,45 @@ public interface Endpoint<I> {
     default boolean isDecompressRequestPayloadAllowed(@SuppressWarnings("unused") RequestInfo<?> request) {
         return true;
     }
+
+    /**
+     * @return The {@link ResponseCachingOptions} describing how this endpoint's responses should be cached in the
+     * server's {@link ResponseCache}, or null if this endpoint's responses should never be cached. Caching only takes
+     * effect if the server has a {@link ResponseCache} (see {@link ServerConfig#responseCache()}), and only applies to
+     * GET and HEAD requests that result in full 200 responses without cookies. Cache hits skip request content
+     * deserialization, endpoint execution, and response serialization entirely - only opt in for idempotent endpoints
+     * whose responses depend solely on the request path, query string, and the declared vary headers.
+     */
+    default ResponseCachingOptions responseCachingOptions() {
+        return null;
+    }
+
+    /**
+     * Hook that lets an endpoint cheaply report the version of the resource a GET or HEAD request would return, before
+     * any of the expensive work of building the response is done. If this returns non-null and the request's {@code
+     * If-None-Match} header matches it then a {@code 304 Not Modified} is returned and the endpoint is never executed.
+     * Otherwise the endpoint executes as normal and the returned tag is used as the response's {@code ETag} header
+     * (unless the endpoint sets one itself).
+     *
+     * <p>The returned value can be a full entity tag (e.g. {@code "v42"} or {@code W/"v42"}) or just the version
+     * string (e.g. {@code v42}), in which case it will be quoted for you. This is called after any pre-endpoint work
+     * such as security validation has completed, and may be called on a non-Netty-worker thread, so it must not block.
+     *
+     * @param request The incoming request. The request content may not be deserialized yet.
+     * @return The current entity tag for the resource the request is asking for, or null if it isn't known (the
+     * default).
+     */
+    default String currentEntityTag(@SuppressWarnings("unused") RequestInfo<?> request) {
+        return null;
+    }
+
+    /**
+     * @return The {@link StaticResponseHeaders} that should be added to every response from this endpoint, or null if
+     * there are none (the default). These are applied before the server-wide {@link
+     * ServerConfig#staticResponseHeaders()}, and neither overrides headers set on the {@link ResponseInfo} itself.
+     * The same instance should be returned every time this method is called so the headers are only encoded once.
+     */
+    default StaticResponseHeaders staticResponseHeaders() {
+        return null;
+    }
 }
@@ -0,0 +1,56 @@
+package com.nike.riposte.server.http;
+
+import com.nike.riposte.server.http.impl.ChunkedResponseInfo;
+
+import java.util.concurrent.CompletableFuture;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * A pull-based source of response payload chunks for streaming a response from a {@link NonblockingEndpoint}. Attach
+ * one of these to a {@link ChunkedResponseInfo} (see {@link
+ * ChunkedResponseInfo.ChunkedResponseInfoBuilder#withResponseChunkPublisher(ResponseChunkPublisher)}) and return that
+ * {@link ChunkedResponseInfo} from your endpoint's {@link CompletableFuture} - the response headers will be sent
+ * immediately and then the server will call {@link #nextChunk()} to get each payload chunk in turn.
+ *
+ * <p>The server only asks for the next chunk after the previous one has been written, and only while the channel is
+ * writable (or once the previous chunk has been flushed to the socket if the channel was not writable). This means a
+ * slow client naturally throttles how fast chunks are requested, so very large payloads can be streamed in bounded
+ * memory as long as implementations only produce data when asked.
+ *
+ * <p>{@link #nextChunk()} will never be called concurrently - there is at most one outstanding chunk request at a time.
+ */
+public interface ResponseChunkPublisher {
+
+    /**
+     * Called by the server each time it is ready for another payload chunk. Implementations should perform any
+     * blocking or expensive work asynchronously (i.e. do not block the calling thread - it is usually a Netty worker I/O
+     * thread), completing the returned future when the chunk is ready.
+     *
+     * <p>Complete the returned future with:
+     * <ul>
+     *     <li>A non-null {@link ByteBuf} containing the next chunk of payload. Ownership of the {@link ByteBuf} passes
+     *     to the server, which will release it once it has been written (or if it can no longer be written).</li>
+     *     <li>null to indicate that there is no more payload and the response is complete.</li>
+     *     <li>An exception to indicate that the payload could not be completed. Since the response headers have already
+     *     been sent at this point there is no way to send an error response, so the connection will be closed.</li>
+     * </ul>
+     *
+     * @return A future that will be completed with the next chunk of payload, or with null if there is no more payload.
+     */
+    CompletableFuture<ByteBuf> nextChunk();
+
+    /**
+     * Called by the server if streaming is stopped before this publisher indicated the payload was complete, e.g. due to
+     * the client disconnecting, a write failure, or the response not being allowed to contain a payload (HEAD requests,
+     * 204 responses, etc). Implementations should use this to release any resources they are holding (DB cursors,
+     * file handles, etc). No further calls to {@link #nextChunk()} will be made after this is called. Does nothing by
+     * default.
+     *
+     * @param reason The reason streaming was cancelled - will never be null.
+     */
+    default void cancel(Throwable reason) {
+        // Do nothing by default.
+    }
+
+}
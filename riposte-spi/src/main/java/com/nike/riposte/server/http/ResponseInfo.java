@@ -1,8 +1,10 @@
 package com.nike.riposte.server.http;
 
 import com.nike.riposte.server.http.impl.ChunkedResponseInfo.ChunkedResponseInfoBuilder;
+import com.nike.riposte.server.http.impl.FileResponseInfo.FileResponseInfoBuilder;
 import com.nike.riposte.server.http.impl.FullResponseInfo.FullResponseInfoBuilder;
 
+import java.io.File;
 import java.nio.charset.Charset;
 import java.util.Set;
 
@@ -14,7 +16,7 @@ import io.netty.util.CharsetUtil;
 /**
  * Represents an outgoing response. See the javadocs on the individual methods for details on usage. It's recommended
  * that you use the builders to create instances ({@link #newBuilder()}, {@link #newBuilder(Object)}, and {@link
- * #newChunkedResponseBuilder()}).
+ * #newChunkedResponseBuilder()}, and {@link #newFileResponseBuilder(File)}).
  *
  * @author Nic Munroe
  */
@@ -78,6 +80,11 @@ public interface ResponseInfo<T> {
      * The response content for a *FULL* (not chunked) response. Can be null - if this is null then the response writer
      * will output a blank response body.
      * <p/>
+     * A {@code byte[]} or {@link io.netty.buffer.ByteBuf} (including {@link io.netty.buffer.CompositeByteBuf}) will be
+     * sent as-is without being serialized or copied. Ownership of a {@link io.netty.buffer.ByteBuf} passes to the
+     * server once the response is handed off - it will be released after it is written, or if the response ends up
+     * not being sent (replaced by an error response, the caller disconnects, HEAD requests, etc).
+     * <p/>
      * <b>ALWAYS CHECK {@link #isChunkedResponse()} BEFORE CALLING THIS METHOD!</b> If {@link #isChunkedResponse()} is
      * true then this method will throw an {@link IllegalStateException}.
      */
@@ -281,4 +288,13 @@ public interface ResponseInfo<T> {
         return new ChunkedResponseInfoBuilder();
     }
 
+    /**
+     * @return A new builder for responses whose payload is the contents of the given file. The file will be sent
+     * without ever being loaded onto the heap (zero-copy on plaintext channels), and {@code Range} requests will be
+     * honored automatically. See {@link com.nike.riposte.server.http.impl.FileResponseInfo} for details.
+     */
+    public static FileResponseInfoBuilder newFileResponseBuilder(File file) {
+        return new FileResponseInfoBuilder(file);
+    }
+
 }
@@ -0,0 +1,173 @@
+package com.nike.riposte.server.http.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Generates {@code ETag} response header values from serialized response bodies, and evaluates {@code If-None-Match}
+ * request headers against them so that callers who already have the current representation get a {@code 304 Not
+ * Modified} with no payload instead of the full body. Register an instance with the server via {@link
+ * com.nike.riposte.server.config.ServerConfig#entityTagGenerator()} to turn on automatic {@code ETag}s for full
+ * {@code 200} responses to GET requests.
+ *
+ * <p>The generated tags are based on a fast non-cryptographic 64-bit hash of the body bytes - they are meant to detect
+ * changes, not to resist tampering. The tags are weak (i.e. {@code W/"..."}) since the same tag is used no matter what
+ * content encoding (e.g. gzip) is applied to the body on the way out, and weak comparison is all that {@code
+ * If-None-Match} needs.
+ *
+ * <p>Endpoints that can cheaply tell what version of a resource they're about to return (e.g. from a database row
+ * version or last-modified timestamp) should also implement {@link
+ * com.nike.riposte.server.http.Endpoint#currentEntityTag(com.nike.riposte.server.http.RequestInfo)} - that allows the
+ * {@code 304} to be returned before the endpoint does the expensive work of building the response at all.
+ *
+ * <p>The number of {@code 304} responses sent, and the number of response body bytes that did not need to be sent as a
+ * result, are tracked so they can be exported as metrics. This class is thread safe.
+ */
+@SuppressWarnings("WeakerAccess")
+public class EntityTagGenerator {
+
+    private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME64_3 = 0x165667B19E3779F9L;
+    private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+
+    protected final AtomicLong notModifiedResponseCount = new AtomicLong(0);
+    protected final AtomicLong notModifiedBytesSaved = new AtomicLong(0);
+
+    /**
+     * @param body The serialized response body. Its reader and writer indexes will not be modified.
+     * @return The weak {@code ETag} header value to use for the given response body.
+     */
+    public String generateEntityTag(ByteBuf body) {
+        int length = body.readableBytes();
+        return "W/\"" + Long.toHexString(hash(body)) + "-" + Integer.toHexString(length) + "\"";
+    }
+
+    /**
+     * @return A 64-bit hash of the readable bytes of the given buffer, using the xxHash64 mixing steps (without the
+     * 32-byte stripe loop, which only matters for throughput on very large inputs). This is fast, well distributed, and
+     * not cryptographically secure.
+     */
+    protected long hash(ByteBuf body) {
+        int index = body.readerIndex();
+        int end = body.writerIndex();
+        long h = PRIME64_5 + (end - index);
+
+        for (; index + 8 <= end; index += 8) {
+            long k = body.getLong(index) * PRIME64_2;
+            k = Long.rotateLeft(k, 31) * PRIME64_1;
+            h ^= k;
+            h = Long.rotateLeft(h, 27) * PRIME64_1 + PRIME64_4;
+        }
+
+        for (; index < end; index++) {
+            h ^= (body.getByte(index) & 0xFF) * PRIME64_5;
+            h = Long.rotateLeft(h, 11) * PRIME64_1;
+        }
+
+        h ^= h >>> 33;
+        h *= PRIME64_2;
+        h ^= h >>> 29;
+        h *= PRIME64_3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    /**
+     * Records that a {@code 304 Not Modified} response was sent in place of the full response.
+     *
+     * @param bytesSaved The size of the response body that did not have to be sent, or 0 if it is not known (e.g. the
+     * {@code 304} was decided before the endpoint built the response).
+     */
+    public void recordNotModifiedResponse(long bytesSaved) {
+        notModifiedResponseCount.incrementAndGet();
+        if (bytesSaved > 0)
+            notModifiedBytesSaved.addAndGet(bytesSaved);
+    }
+
+    /**
+     * @return The number of {@code 304 Not Modified} responses that have been sent in place of full responses.
+     */
+    public long getNotModifiedResponseCount() {
+        return notModifiedResponseCount.get();
+    }
+
+    /**
+     * @return The total number of response body bytes that did not have to be sent thanks to {@code 304 Not Modified}
+     * responses. Bodies that were never built (see {@link #recordNotModifiedResponse(long)}) are not included.
+     */
+    public long getNotModifiedBytesSaved() {
+        return notModifiedBytesSaved.get();
+    }
+
+    /**
+     * Converts an endpoint-supplied version tag into an {@code ETag} header value. Values that are already entity tags
+     * (i.e. {@code "..."} or {@code W/"..."}) are returned as-is, anything else is wrapped in double quotes.
+     *
+     * @throws IllegalArgumentException if the given version tag is not already an entity tag and contains a double
+     * quote, since that can't be represented in an entity tag.
+     */
+    public static String toEntityTag(String versionTag) {
+        if (isQuoted(versionTag, 0) || (versionTag.startsWith("W/") && isQuoted(versionTag, 2)))
+            return versionTag;
+
+        if (versionTag.indexOf('"') >= 0)
+            throw new IllegalArgumentException("Version tags cannot contain double quotes: " + versionTag);
+
+        return "\"" + versionTag + "\"";
+    }
+
+    private static boolean isQuoted(String str, int startIndex) {
+        return str.length() >= startIndex + 2
+               && str.charAt(startIndex) == '"'
+               && str.charAt(str.length() - 1) == '"'
+               && str.indexOf('"', startIndex + 1) == str.length() - 1;
+    }
+
+    /**
+     * Evaluates an {@code If-None-Match} request header against the current entity tag of a resource using the weak
+     * comparison function, as described in <a href="https://tools.ietf.org/html/rfc7232#section-3.2">RFC 7232 Section
+     * 3.2</a>.
+     *
+     * @param ifNoneMatchHeader The {@code If-None-Match} request header value. May be null.
+     * @param currentEntityTag The current {@code ETag} of the resource. May be null.
+     * @return true if the header matches the current entity tag (meaning a GET or HEAD request should get a {@code 304
+     * Not Modified}), false if either argument is null or they don't match.
+     */
+    public static boolean isIfNoneMatchSatisfiedBy(String ifNoneMatchHeader, String currentEntityTag) {
+        if (ifNoneMatchHeader == null || currentEntityTag == null)
+            return false;
+
+        String currentOpaqueTag = stripWeakPrefix(currentEntityTag.trim());
+        if ("*".equals(ifNoneMatchHeader.trim()))
+            return true;
+
+        // Entity tags may contain commas, so we have to walk the quoted strings rather than splitting on commas.
+        int index = 0;
+        int length = ifNoneMatchHeader.length();
+        while (index < length) {
+            int openQuote = ifNoneMatchHeader.indexOf('"', index);
+            if (openQuote < 0)
+                return false;
+
+            int closeQuote = ifNoneMatchHeader.indexOf('"', openQuote + 1);
+            if (closeQuote < 0)
+                return false;
+
+            if (currentOpaqueTag.regionMatches(0, ifNoneMatchHeader, openQuote, closeQuote - openQuote + 1)
+                && currentOpaqueTag.length() == closeQuote - openQuote + 1) {
+                return true;
+            }
+
+            index = closeQuote + 1;
+        }
+
+        return false;
+    }
+
+    private static String stripWeakPrefix(String entityTag) {
+        return (entityTag.startsWith("W/")) ? entityTag.substring(2) : entityTag;
+    }
+}
@@ -0,0 +1,605 @@
+package com.nike.riposte.server.http.cache;
+
+import com.nike.riposte.server.http.Endpoint;
+import com.nike.riposte.server.http.RequestInfo;
+import com.nike.riposte.server.http.ResponseInfo;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPOutputStream;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import static io.netty.handler.codec.http.HttpHeaders.Names.ACCEPT_ENCODING;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONNECTION;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_ENCODING;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_LENGTH;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_TYPE;
+import static io.netty.handler.codec.http.HttpHeaders.Names.SET_COOKIE;
+import static io.netty.handler.codec.http.HttpHeaders.Names.TRANSFER_ENCODING;
+import static io.netty.handler.codec.http.HttpHeaders.Names.VARY;
+
+/**
+ * A server-side cache of fully serialized responses for endpoints that opt in via {@link
+ * Endpoint#responseCachingOptions()}. Cache hits are served without deserializing the request, executing the endpoint,
+ * or serializing the response. Register an instance with the server via {@link
+ * com.nike.riposte.server.config.ServerConfig#responseCache()}.
+ *
+ * <p>Only successful (200) full responses without cookies are cached. Each entry holds the response body as an
+ * off-heap {@link ByteBuf} (plus an optional precompressed gzip variant), the response headers, status code, and
+ * content type. Entries expire after the endpoint's {@link ResponseCachingOptions#getTimeToLiveMillis()}, and the
+ * least recently used entries are evicted whenever the cache grows past its max entry count or max total byte size.
+ * Hit, miss, eviction, and expiration counts are tracked so they can be exported as metrics.
+ *
+ * <p>This class is thread safe, and {@link #getCachedResponse(String, boolean)} and {@link #put(String,
+ * ResponseCachingOptions, ResponseInfo, HttpHeaders, ByteBuf)} are called on Netty event loops, so neither takes a
+ * cache-wide lock: entries live in a {@link ConcurrentHashMap}, and eviction is done in batches by whichever thread
+ * finds the cache over its bounds first. Gzip variants are compressed on the {@link #compressionExecutor} after the
+ * entry is stored - hits that arrive before the variant is ready are served the uncompressed body.
+ */
+@SuppressWarnings("WeakerAccess")
+public class ResponseCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 10_000;
+    public static final long DEFAULT_MAX_TOTAL_BYTES = 64L * 1024 * 1024;
+    /**
+     * The number of threads in the {@link #getDefaultCompressionExecutor()} pool.
+     */
+    public static final int DEFAULT_COMPRESSION_EXECUTOR_THREADS = 2;
+    /**
+     * The max number of gzip variants that can be queued up waiting for a {@link #getDefaultCompressionExecutor()}
+     * thread. Entries stored while the queue is full just don't get a gzip variant.
+     */
+    public static final int DEFAULT_COMPRESSION_EXECUTOR_QUEUE_SIZE = 1024;
+
+    // Eviction frees up 1/32 of the cache beyond what's strictly needed.
+    private static final int EVICTION_BATCH_DIVISOR = 32;
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    protected final int maxEntries;
+    protected final long maxTotalBytes;
+    protected final Executor compressionExecutor;
+
+    protected final ConcurrentMap<String, CachedResponse> entries = new ConcurrentHashMap<>();
+    protected final AtomicLong currentTotalBytes = new AtomicLong(0);
+    // Logical clock for LRU ordering - each hit stamps its entry with the next tick.
+    protected final AtomicLong accessClock = new AtomicLong(0);
+    protected final ReentrantLock evictionLock = new ReentrantLock();
+
+    protected final AtomicLong hitCount = new AtomicLong(0);
+    protected final AtomicLong missCount = new AtomicLong(0);
+    protected final AtomicLong evictionCount = new AtomicLong(0);
+    protected final AtomicLong expirationCount = new AtomicLong(0);
+
+    /**
+     * Creates a cache using {@link #DEFAULT_MAX_ENTRIES}, {@link #DEFAULT_MAX_TOTAL_BYTES}, and the {@link
+     * #getDefaultCompressionExecutor()}.
+     */
+    public ResponseCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_TOTAL_BYTES);
+    }
+
+    /**
+     * Creates a cache that compresses gzip variants on the {@link #getDefaultCompressionExecutor()}.
+     *
+     * @param maxEntries The max number of responses to hold at any one time. Must be greater than 0.
+     * @param maxTotalBytes The max number of response body bytes (including gzip variants) to hold at any one time.
+     * Must be greater than 0.
+     */
+    public ResponseCache(int maxEntries, long maxTotalBytes) {
+        this(maxEntries, maxTotalBytes, getDefaultCompressionExecutor());
+    }
+
+    /**
+     * @param maxEntries The max number of responses to hold at any one time. Must be greater than 0.
+     * @param maxTotalBytes The max number of response body bytes (including gzip variants) to hold at any one time.
+     * Must be greater than 0.
+     * @param compressionExecutor The executor that gzip variants are compressed on. This should never be a Netty event
+     * loop. Cannot be null.
+     */
+    public ResponseCache(int maxEntries, long maxTotalBytes, Executor compressionExecutor) {
+        if (maxEntries <= 0)
+            throw new IllegalArgumentException("maxEntries must be greater than 0");
+
+        if (maxTotalBytes <= 0)
+            throw new IllegalArgumentException("maxTotalBytes must be greater than 0");
+
+        if (compressionExecutor == null)
+            throw new IllegalArgumentException("compressionExecutor cannot be null");
+
+        this.maxEntries = maxEntries;
+        this.maxTotalBytes = maxTotalBytes;
+        this.compressionExecutor = compressionExecutor;
+    }
+
+    private static class DefaultCompressionExecutorHolder {
+        private static final Executor INSTANCE = new ThreadPoolExecutor(
+            DEFAULT_COMPRESSION_EXECUTOR_THREADS, DEFAULT_COMPRESSION_EXECUTOR_THREADS, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(DEFAULT_COMPRESSION_EXECUTOR_QUEUE_SIZE),
+            new DefaultThreadFactory("riposteResponseCacheCompressor", true)
+        );
+    }
+
+    /**
+     * @return The shared executor used to compress gzip variants when none is specified: {@link
+     * #DEFAULT_COMPRESSION_EXECUTOR_THREADS} daemon threads with a queue bounded at {@link
+     * #DEFAULT_COMPRESSION_EXECUTOR_QUEUE_SIZE}.
+     */
+    public static Executor getDefaultCompressionExecutor() {
+        return DefaultCompressionExecutorHolder.INSTANCE;
+    }
+
+    /**
+     * @return The cache key for the given request to the given endpoint. The key includes the endpoint class, HTTP
+     * method, path (and therefore any path params), query params (in sorted order so that parameter order doesn't
+     * matter), and the values of the request headers listed in {@link ResponseCachingOptions#getVaryHeaderNames()}.
+     */
+    public static String generateCacheKey(Endpoint<?> endpoint,
+                                          RequestInfo<?> requestInfo,
+                                          ResponseCachingOptions options) {
+        StringBuilder sb = new StringBuilder(128);
+        appendKeyPart(sb, endpoint.getClass().getName());
+        // HEAD requests share GET entries - the server strips the payload from HEAD responses.
+        HttpMethod method = (HttpMethod.HEAD.equals(requestInfo.getMethod())) ? HttpMethod.GET : requestInfo.getMethod();
+        appendKeyPart(sb, String.valueOf(method));
+        appendKeyPart(sb, requestInfo.getPath());
+
+        Map<String, List<String>> queryParams = requestInfo.getQueryParams().parameters();
+        if (!queryParams.isEmpty()) {
+            List<String> queryParamNames = new ArrayList<>(queryParams.keySet());
+            queryParamNames.sort(null);
+            for (String name : queryParamNames) {
+                appendKeyPart(sb, name);
+                for (String value : queryParams.get(name)) {
+                    appendKeyPart(sb, value);
+                }
+            }
+        }
+
+        for (String headerName : options.getVaryHeaderNames()) {
+            sb.append('|');
+            for (String value : requestInfo.getHeaders().getAll(headerName)) {
+                appendKeyPart(sb, value);
+            }
+        }
+
+        return sb.toString();
+    }
+
+    // Length-prefixing each part keeps keys unambiguous no matter what characters the parts contain.
+    private static void appendKeyPart(StringBuilder sb, String part) {
+        sb.append(part.length()).append(':').append(part);
+    }
+
+    /**
+     * Returns a new full {@link ResponseInfo} for the cached response with the given key, or null if there is no
+     * unexpired entry for that key. The returned response's content is a retained read-only-by-convention view of the
+     * cached body, so ownership of that view passes to the caller (the server releases it when the response is sent).
+     *
+     * @param key The cache key (see {@link #generateCacheKey(Endpoint, RequestInfo, ResponseCachingOptions)}).
+     * @param gzipAccepted Whether the caller accepts gzip-encoded responses. If true and the entry's gzip variant is
+     * ready, the returned response will contain the gzipped body with a matching {@code Content-Encoding} header. Every
+     * response from an entry that stores a gzip variant gets {@code Accept-Encoding} in its {@code Vary} header
+     * (whichever variant is served), so downstream caches don't hand one caller's variant to another.
+     */
+    public ResponseInfo<ByteBuf> getCachedResponse(String key, boolean gzipAccepted) {
+        CachedResponse cached = entries.get(key);
+        if (cached != null && cached.isExpired(currentTimeMillis())) {
+            if (removeEntry(key, cached))
+                expirationCount.incrementAndGet();
+            cached = null;
+        }
+
+        boolean servingGzipVariant = (cached != null && gzipAccepted && cached.gzipBody != null);
+        // Null if the entry was evicted by another thread since we looked it up.
+        ByteBuf body = (cached == null) ? null : cached.retainedBody(servingGzipVariant);
+        if (body == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+
+        hitCount.incrementAndGet();
+        cached.lastAccessTick = accessClock.incrementAndGet();
+
+        HttpHeaders headers = new DefaultHttpHeaders().add(cached.headers);
+        if (servingGzipVariant)
+            headers.set(CONTENT_ENCODING, HttpHeaders.Values.GZIP);
+        if (cached.storesGzipVariant)
+            addToVaryHeader(headers, ACCEPT_ENCODING);
+
+        return ResponseInfo.newBuilder(body)
+                           .withHttpStatusCode(cached.httpStatusCode)
+                           .withHeaders(headers)
+                           .withDesiredContentWriterMimeType(cached.mimeType)
+                           .withDesiredContentWriterEncoding(cached.charset)
+                           // The gzip variant is already compressed, so it must not be compressed again.
+                           .withPreventCompressedOutput(servingGzipVariant || cached.preventCompressedOutput)
+                           .build();
+    }
+
+    /**
+     * Merges each of the given header names into the given headers' {@code Vary} header (see {@link
+     * #addToVaryHeader(HttpHeaders, String)}). Endpoints whose cache keys include request headers (see {@link
+     * ResponseCachingOptions#getVaryHeaderNames()}) need those headers listed in {@code Vary} so that downstream caches
+     * key their copies the same way.
+     */
+    public static void addToVaryHeader(HttpHeaders headers, Collection<String> headerNames) {
+        for (String headerName : headerNames) {
+            addToVaryHeader(headers, headerName);
+        }
+    }
+
+    /**
+     * Merges the given header name into the given headers' {@code Vary} header, leaving it alone if it already lists
+     * that header name (case-insensitively) or is {@code *}.
+     */
+    public static void addToVaryHeader(HttpHeaders headers, String headerName) {
+        for (String varyHeader : headers.getAll(VARY)) {
+            for (String fieldName : varyHeader.split(",")) {
+                String trimmed = fieldName.trim();
+                if ("*".equals(trimmed) || headerName.equalsIgnoreCase(trimmed))
+                    return;
+            }
+        }
+
+        headers.add(VARY, headerName);
+    }
+
+    /**
+     * Stores a copy of the given serialized response body (and the relevant parts of the given response) under the
+     * given key. The given body is not modified or released - its readable bytes are copied into an off-heap buffer
+     * owned by this cache. Responses that aren't cacheable (non-200 status, chunked, cookies, or too big to fit in
+     * this cache) are ignored. If the options ask for a gzip variant it is compressed later on the {@link
+     * #compressionExecutor}, so this never compresses on the calling thread.
+     *
+     * @param key The cache key (see {@link #generateCacheKey(Endpoint, RequestInfo, ResponseCachingOptions)}).
+     * @param options The caching options for the endpoint that generated the response.
+     * @param responseInfo The response being sent.
+     * @param headers The response headers to store - these should be the headers as the endpoint set them, before any
+     * per-request headers (e.g. trace IDs) were added.
+     * @param serializedBody The fully serialized response body.
+     * @return true if the response was stored, false if it was not cacheable.
+     */
+    public boolean put(String key,
+                       ResponseCachingOptions options,
+                       ResponseInfo<?> responseInfo,
+                       HttpHeaders headers,
+                       ByteBuf serializedBody) {
+        if (!isCacheable(responseInfo, headers, serializedBody))
+            return false;
+
+        int bodyLength = serializedBody.readableBytes();
+        if (bodyLength > maxTotalBytes)
+            return false;
+
+        ByteBuf body = Unpooled.directBuffer(bodyLength, bodyLength);
+        body.writeBytes(serializedBody, serializedBody.readerIndex(), bodyLength);
+
+        HttpHeaders headersToStore = new DefaultHttpHeaders().add(headers);
+        headersToStore.remove(CONTENT_LENGTH);
+        headersToStore.remove(TRANSFER_ENCODING);
+        headersToStore.remove(CONNECTION);
+        headersToStore.remove(CONTENT_TYPE);
+        addToVaryHeader(headersToStore, options.getVaryHeaderNames());
+
+        boolean storeGzipVariant = options.isStoreGzipVariant() && !responseInfo.isPreventCompressedOutput();
+        CachedResponse cached = new CachedResponse(
+            responseInfo.getHttpStatusCode(), headersToStore, responseInfo.getDesiredContentWriterMimeType(),
+            responseInfo.getDesiredContentWriterEncoding(), responseInfo.isPreventCompressedOutput(), body,
+            storeGzipVariant, currentTimeMillis() + options.getTimeToLiveMillis()
+        );
+        cached.lastAccessTick = accessClock.incrementAndGet();
+
+        currentTotalBytes.addAndGet(cached.sizeInBytes());
+        CachedResponse replaced = entries.put(key, cached);
+        if (replaced != null)
+            currentTotalBytes.addAndGet(-replaced.release());
+
+        if (storeGzipVariant)
+            scheduleGzipVariant(cached);
+
+        evictIfNecessary();
+        return true;
+    }
+
+    /**
+     * Compresses the given entry's body on the {@link #compressionExecutor} and adds the result to the entry as its
+     * gzip variant, if it's smaller than the uncompressed body. Does nothing if the executor rejects the work.
+     */
+    protected void scheduleGzipVariant(CachedResponse cached) {
+        // Hold our own reference so the body can't be freed mid-compression if the entry is evicted.
+        ByteBuf source = cached.body.duplicate().retain();
+        try {
+            compressionExecutor.execute(() -> {
+                ByteBuf gzipBody;
+                try {
+                    gzipBody = gzipIfSmaller(source);
+                }
+                finally {
+                    source.release();
+                }
+
+                if (gzipBody == null)
+                    return;
+
+                if (cached.setGzipBody(gzipBody)) {
+                    currentTotalBytes.addAndGet(gzipBody.capacity());
+                    evictIfNecessary();
+                }
+                else {
+                    // The entry was evicted or replaced while we were compressing.
+                    gzipBody.release();
+                }
+            });
+        }
+        catch (Throwable t) {
+            source.release();
+            logger.debug("Unable to schedule compression of a cached response's gzip variant. Only the uncompressed "
+                         + "variant will be cached.", t);
+        }
+    }
+
+    protected boolean isCacheable(ResponseInfo<?> responseInfo, HttpHeaders headers, ByteBuf serializedBody) {
+        if (responseInfo.isChunkedResponse() || serializedBody == null)
+            return false;
+
+        if (responseInfo.getHttpStatusCode() == null
+            || responseInfo.getHttpStatusCode() != HttpResponseStatus.OK.code()) {
+            return false;
+        }
+
+        if (responseInfo.getCookies() != null && !responseInfo.getCookies().isEmpty())
+            return false;
+
+        // A response that is already content-encoded can't be served (or re-encoded) correctly from the cache.
+        return !headers.contains(SET_COOKIE) && !headers.contains(CONTENT_ENCODING);
+    }
+
+    /**
+     * @return The gzipped version of the given body in a new off-heap buffer, or null if gzipping doesn't make it
+     * smaller. Compresses straight into the returned buffer rather than through an intermediate byte array.
+     */
+    protected ByteBuf gzipIfSmaller(ByteBuf body) {
+        int bodyLength = body.readableBytes();
+        ByteBuf gzipBody = Unpooled.directBuffer(bodyLength / 2 + 32);
+        try {
+            try (GZIPOutputStream gzip = new GZIPOutputStream(new ByteBufOutputStream(gzipBody))) {
+                body.getBytes(body.readerIndex(), gzip, bodyLength);
+            }
+
+            if (gzipBody.readableBytes() >= bodyLength) {
+                gzipBody.release();
+                return null;
+            }
+
+            // Trim the unused capacity since it counts against maxTotalBytes for as long as the entry is cached.
+            gzipBody.capacity(gzipBody.writerIndex());
+            return gzipBody;
+        }
+        catch (IOException ex) {
+            gzipBody.release();
+            logger.warn("Unable to create gzip variant of a cached response. Only the uncompressed variant will be "
+                        + "cached.", ex);
+            return null;
+        }
+    }
+
+    /**
+     * If the cache is over its size bounds, evicts least recently used entries until it's back under them - a little
+     * under, so that a full cache doesn't have to sort its entries on every put. Expired entries found along the way
+     * are counted as expirations rather than evictions. If another thread is already evicting this returns right away,
+     * since that thread will take care of it.
+     */
+    protected void evictIfNecessary() {
+        if (!isOverBounds(maxEntries, maxTotalBytes) || !evictionLock.tryLock())
+            return;
+
+        try {
+            int targetEntries = maxEntries - (maxEntries / EVICTION_BATCH_DIVISOR);
+            long targetTotalBytes = maxTotalBytes - (maxTotalBytes / EVICTION_BATCH_DIVISOR);
+            // Snapshot the access ticks since hits keep updating them while we sort.
+            List<EvictionCandidate> leastRecentlyUsedFirst = new ArrayList<>(entries.size());
+            for (Map.Entry<String, CachedResponse> entry : entries.entrySet()) {
+                leastRecentlyUsedFirst.add(new EvictionCandidate(entry.getKey(), entry.getValue()));
+            }
+            leastRecentlyUsedFirst.sort(Comparator.comparingLong(candidate -> candidate.lastAccessTick));
+
+            long now = currentTimeMillis();
+            for (EvictionCandidate candidate : leastRecentlyUsedFirst) {
+                if (!isOverBounds(targetEntries, targetTotalBytes))
+                    break;
+
+                CachedResponse eldest = candidate.cached;
+                if (!removeEntry(candidate.key, eldest))
+                    continue;
+
+                if (eldest.isExpired(now))
+                    expirationCount.incrementAndGet();
+                else
+                    evictionCount.incrementAndGet();
+            }
+        }
+        finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static class EvictionCandidate {
+        private final String key;
+        private final CachedResponse cached;
+        private final long lastAccessTick;
+
+        private EvictionCandidate(String key, CachedResponse cached) {
+            this.key = key;
+            this.cached = cached;
+            this.lastAccessTick = cached.lastAccessTick;
+        }
+    }
+
+    protected boolean isOverBounds(int entryLimit, long totalBytesLimit) {
+        return entries.size() > entryLimit || currentTotalBytes.get() > totalBytesLimit;
+    }
+
+    /**
+     * Removes (and releases) the given entry if it's still the one stored under the given key.
+     *
+     * @return true if the entry was removed, false if it had already been removed or replaced.
+     */
+    protected boolean removeEntry(String key, CachedResponse cached) {
+        if (!entries.remove(key, cached))
+            return false;
+
+        currentTotalBytes.addAndGet(-cached.release());
+        return true;
+    }
+
+    /**
+     * Removes (and releases) all entries from this cache. Does not reset the hit/miss/eviction/expiration counters.
+     */
+    public void clear() {
+        for (Map.Entry<String, CachedResponse> entry : entries.entrySet()) {
+            removeEntry(entry.getKey(), entry.getValue());
+        }
+    }
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public long getExpirationCount() {
+        return expirationCount.get();
+    }
+
+    public int getEntryCount() {
+        return entries.size();
+    }
+
+    public long getTotalBytes() {
+        return currentTotalBytes.get();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getMaxTotalBytes() {
+        return maxTotalBytes;
+    }
+
+    /**
+     * A single cached response. The body buffers are owned by the cache and released when the entry is evicted,
+     * expired, or replaced. The gzip variant is added after the entry is stored (see {@link
+     * #scheduleGzipVariant(CachedResponse)}), and is null until then.
+     */
+    protected static class CachedResponse {
+        public final int httpStatusCode;
+        public final HttpHeaders headers;
+        public final String mimeType;
+        public final Charset charset;
+        public final boolean preventCompressedOutput;
+        public final ByteBuf body;
+        public final boolean storesGzipVariant;
+        public final long expiresAtMillis;
+        public volatile ByteBuf gzipBody;
+        public volatile long lastAccessTick;
+        protected boolean released = false;
+
+        public CachedResponse(int httpStatusCode, HttpHeaders headers, String mimeType, Charset charset,
+                              boolean preventCompressedOutput, ByteBuf body, boolean storesGzipVariant,
+                              long expiresAtMillis) {
+            this.httpStatusCode = httpStatusCode;
+            this.headers = headers;
+            this.mimeType = mimeType;
+            this.charset = charset;
+            this.preventCompressedOutput = preventCompressedOutput;
+            this.body = body;
+            this.storesGzipVariant = storesGzipVariant;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+
+        public boolean isExpired(long nowMillis) {
+            return nowMillis >= expiresAtMillis;
+        }
+
+        public long sizeInBytes() {
+            ByteBuf gzip = gzipBody;
+            return body.capacity() + ((gzip == null) ? 0 : gzip.capacity());
+        }
+
+        /**
+         * @return A retained duplicate of the gzip variant (if {@code gzipVariant} is true) or the uncompressed body,
+         * or null if this entry has already been released.
+         */
+        public synchronized ByteBuf retainedBody(boolean gzipVariant) {
+            if (released)
+                return null;
+
+            return (gzipVariant) ? gzipBody.duplicate().retain() : body.duplicate().retain();
+        }
+
+        /**
+         * @return true if the gzip variant was added, false if this entry has already been released (in which case the
+         * caller still owns the given buffer).
+         */
+        public synchronized boolean setGzipBody(ByteBuf gzipBody) {
+            if (released)
+                return false;
+
+            this.gzipBody = gzipBody;
+            return true;
+        }
+
+        /**
+         * Releases the body buffers.
+         *
+         * @return The number of bytes released, or 0 if this entry had already been released.
+         */
+        public synchronized long release() {
+            if (released)
+                return 0;
+
+            long size = sizeInBytes();
+            released = true;
+            body.release();
+            if (gzipBody != null)
+                gzipBody.release();
+            return size;
+        }
+    }
+}
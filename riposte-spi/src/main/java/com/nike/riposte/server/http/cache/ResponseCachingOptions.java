@@ -0,0 +1,66 @@
+package com.nike.riposte.server.http.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Describes how (and whether) the responses for an endpoint should be stored in the server's {@link ResponseCache}.
+ * Endpoints opt in to response caching by returning an instance of this class from {@link
+ * com.nike.riposte.server.http.Endpoint#responseCachingOptions()}.
+ *
+ * <p>Cached responses are keyed by endpoint, request path (which includes any path params), query string, and the
+ * values of the request headers returned by {@link #getVaryHeaderNames()}. If your endpoint's response depends on any
+ * other part of the request (e.g. a user ID header) then you <b>must</b> include that header in the vary header names,
+ * otherwise callers may receive responses that were generated for somebody else.
+ */
+@SuppressWarnings("WeakerAccess")
+public class ResponseCachingOptions {
+
+    protected final long timeToLiveMillis;
+    protected final List<String> varyHeaderNames;
+    protected final boolean storeGzipVariant;
+
+    /**
+     * @param timeToLiveMillis How long a cached response should be served before the endpoint is executed again to
+     * refresh it. Must be greater than 0.
+     * @param varyHeaderNames The names of the request headers whose values should be part of the cache key. May be
+     * null or empty if the response does not vary by any request header.
+     * @param storeGzipVariant Pass in true to have a gzip-compressed copy of the response body stored alongside the
+     * uncompressed one, so that callers who accept gzip can be served without compressing the body on every request.
+     */
+    public ResponseCachingOptions(long timeToLiveMillis,
+                                  Collection<String> varyHeaderNames,
+                                  boolean storeGzipVariant) {
+        if (timeToLiveMillis <= 0)
+            throw new IllegalArgumentException("timeToLiveMillis must be greater than 0");
+
+        this.timeToLiveMillis = timeToLiveMillis;
+        this.varyHeaderNames = (varyHeaderNames == null)
+                               ? Collections.emptyList()
+                               : Collections.unmodifiableList(new ArrayList<>(varyHeaderNames));
+        this.storeGzipVariant = storeGzipVariant;
+    }
+
+    /**
+     * @return How long a cached response should be served before the endpoint is executed again to refresh it.
+     */
+    public long getTimeToLiveMillis() {
+        return timeToLiveMillis;
+    }
+
+    /**
+     * @return The names of the request headers whose values are part of the cache key. Never null.
+     */
+    public List<String> getVaryHeaderNames() {
+        return varyHeaderNames;
+    }
+
+    /**
+     * @return true if a gzip-compressed copy of the response body should be stored alongside the uncompressed one.
+     */
+    public boolean isStoreGzipVariant() {
+        return storeGzipVariant;
+    }
+}
@@ -0,0 +1,385 @@
+package com.nike.riposte.server.http.compression;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Decides how hard the server should work to compress each response, and remembers the compressed form of response
+ * bodies that are served over and over so they only need to be compressed once. Register an instance with the server
+ * via {@link com.nike.riposte.server.config.ServerConfig#adaptiveCompressionPolicy()} - without one every response is
+ * compressed at the same fixed level.
+ *
+ * <p>The compression level is picked per response by {@link #compressionLevelFor(int, long)} based on how busy the
+ * event loop handling the response is (measured by the number of tasks waiting in its queue) and how big the response
+ * is:
+ * <ul>
+ *     <li>
+ *         Saturated event loop ({@link #saturatedPendingTasksThreshold} or more pending tasks): no compression at
+ *         all, since spending CPU on compression would only delay everything queued up behind this response.
+ *     </li>
+ *     <li>
+ *         Busy event loop ({@link #busyPendingTasksThreshold} or more pending tasks): the fast {@link
+ *         #busyCompressionLevel}.
+ *     </li>
+ *     <li>
+ *         Idle event loop: the strong {@link #idleCompressionLevel} for responses up to {@link
+ *         #largeResponseSizeBytes}, and the {@link #defaultCompressionLevel} for larger responses or streamed
+ *         responses of unknown size, where the extra CPU per byte adds up.
+ *     </li>
+ * </ul>
+ *
+ * <p>Full response bodies no larger than {@link #maxMemoizedBodySizeBytes} are memoized after they have been seen
+ * twice (seeing a body once only marks it as a candidate, so one-off bodies don't churn the memo). Once memoized, the
+ * stored compressed variant is sent as-is for identical bodies without running the compressor at all. Bodies are
+ * looked up by a fingerprint made from their length and a fixed-size sample of their bytes (see {@link
+ * #memoizationKey(String, ByteBuf)}), so responses that don't hit the memo pay a constant cost rather than a pass over
+ * the whole body. Only a fingerprint match is compared against the full memoized body, so a fingerprint collision can
+ * never cause the wrong variant to be sent. The least recently used variants are evicted once there are more than
+ * {@link #maxMemoizedVariants}.
+ *
+ * <p>The total uncompressed and compressed byte counts and the time spent compressing are tracked so that the
+ * compression ratio and CPU time per byte can be exported as metrics and used to tune the thresholds and levels. This
+ * class is thread safe.
+ */
+@SuppressWarnings("WeakerAccess")
+public class AdaptiveCompressionPolicy {
+
+    public static final int DEFAULT_IDLE_COMPRESSION_LEVEL = 9;
+    public static final int DEFAULT_COMPRESSION_LEVEL = 6;
+    public static final int DEFAULT_BUSY_COMPRESSION_LEVEL = 1;
+    public static final int DEFAULT_BUSY_PENDING_TASKS_THRESHOLD = 16;
+    public static final int DEFAULT_SATURATED_PENDING_TASKS_THRESHOLD = 256;
+    public static final long DEFAULT_LARGE_RESPONSE_SIZE_BYTES = 64 * 1024;
+    public static final int DEFAULT_MAX_MEMOIZED_VARIANTS = 128;
+    public static final int DEFAULT_MAX_MEMOIZED_BODY_SIZE_BYTES = 64 * 1024;
+
+    // The number of bytes at the start and at the end of the body that go into its fingerprint.
+    private static final int FINGERPRINT_EDGE_BYTES = 32;
+    // The number of evenly spaced bytes from the rest of the body that go into its fingerprint.
+    private static final int FINGERPRINT_STRIDED_BYTES = 32;
+
+    protected final int idleCompressionLevel;
+    protected final int defaultCompressionLevel;
+    protected final int busyCompressionLevel;
+    protected final int busyPendingTasksThreshold;
+    protected final int saturatedPendingTasksThreshold;
+    protected final long largeResponseSizeBytes;
+    protected final int maxMemoizedVariants;
+    protected final int maxMemoizedBodySizeBytes;
+
+    // Access-ordered so that the least recently used entries are evicted first.
+    protected final Map<String, MemoizedVariant> memoizedVariants;
+    protected final Map<String, Boolean> memoizationCandidates;
+
+    protected final AtomicLong compressedResponseCount = new AtomicLong(0);
+    protected final AtomicLong uncompressedBytes = new AtomicLong(0);
+    protected final AtomicLong compressedBytes = new AtomicLong(0);
+    protected final AtomicLong compressionNanos = new AtomicLong(0);
+    protected final AtomicLong memoizedVariantHitCount = new AtomicLong(0);
+    protected final AtomicLong skippedUnderLoadCount = new AtomicLong(0);
+
+    /**
+     * Creates a policy using the {@code DEFAULT_*} values.
+     */
+    public AdaptiveCompressionPolicy() {
+        this(DEFAULT_IDLE_COMPRESSION_LEVEL, DEFAULT_COMPRESSION_LEVEL, DEFAULT_BUSY_COMPRESSION_LEVEL,
+             DEFAULT_BUSY_PENDING_TASKS_THRESHOLD, DEFAULT_SATURATED_PENDING_TASKS_THRESHOLD,
+             DEFAULT_LARGE_RESPONSE_SIZE_BYTES, DEFAULT_MAX_MEMOIZED_VARIANTS, DEFAULT_MAX_MEMOIZED_BODY_SIZE_BYTES);
+    }
+
+    /**
+     * @param idleCompressionLevel The compression level (1-9) to use for responses up to {@code
+     * largeResponseSizeBytes} when the event loop is not busy.
+     * @param defaultCompressionLevel The compression level (1-9) to use for larger or unknown-size responses when the
+     * event loop is not busy.
+     * @param busyCompressionLevel The compression level (1-9) to use when the event loop is busy.
+     * @param busyPendingTasksThreshold The number of pending event loop tasks at which the event loop is considered
+     * busy.
+     * @param saturatedPendingTasksThreshold The number of pending event loop tasks at which the event loop is
+     * considered saturated and compression is skipped. Must be greater than or equal to {@code
+     * busyPendingTasksThreshold}.
+     * @param largeResponseSizeBytes Responses larger than this are not given the {@code idleCompressionLevel}.
+     * @param maxMemoizedVariants The max number of compressed variants to memoize. Pass 0 to disable memoization.
+     * @param maxMemoizedBodySizeBytes The max uncompressed body size that is eligible for memoization.
+     */
+    public AdaptiveCompressionPolicy(int idleCompressionLevel,
+                                     int defaultCompressionLevel,
+                                     int busyCompressionLevel,
+                                     int busyPendingTasksThreshold,
+                                     int saturatedPendingTasksThreshold,
+                                     long largeResponseSizeBytes,
+                                     int maxMemoizedVariants,
+                                     int maxMemoizedBodySizeBytes) {
+        verifyCompressionLevel(idleCompressionLevel, "idleCompressionLevel");
+        verifyCompressionLevel(defaultCompressionLevel, "defaultCompressionLevel");
+        verifyCompressionLevel(busyCompressionLevel, "busyCompressionLevel");
+
+        if (busyPendingTasksThreshold < 0)
+            throw new IllegalArgumentException("busyPendingTasksThreshold cannot be negative");
+
+        if (saturatedPendingTasksThreshold < busyPendingTasksThreshold) {
+            throw new IllegalArgumentException(
+                "saturatedPendingTasksThreshold cannot be less than busyPendingTasksThreshold"
+            );
+        }
+
+        if (maxMemoizedVariants < 0)
+            throw new IllegalArgumentException("maxMemoizedVariants cannot be negative");
+
+        this.idleCompressionLevel = idleCompressionLevel;
+        this.defaultCompressionLevel = defaultCompressionLevel;
+        this.busyCompressionLevel = busyCompressionLevel;
+        this.busyPendingTasksThreshold = busyPendingTasksThreshold;
+        this.saturatedPendingTasksThreshold = saturatedPendingTasksThreshold;
+        this.largeResponseSizeBytes = largeResponseSizeBytes;
+        this.maxMemoizedVariants = maxMemoizedVariants;
+        this.maxMemoizedBodySizeBytes = maxMemoizedBodySizeBytes;
+        this.memoizedVariants = newLruMap(maxMemoizedVariants);
+        this.memoizationCandidates = newLruMap(maxMemoizedVariants);
+    }
+
+    private static void verifyCompressionLevel(int compressionLevel, String name) {
+        if (compressionLevel < 1 || compressionLevel > 9)
+            throw new IllegalArgumentException(name + " must be between 1 and 9 (inclusive)");
+    }
+
+    private static <V> Map<String, V> newLruMap(int maxEntries) {
+        return new LinkedHashMap<String, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @param eventLoopPendingTasks The number of tasks waiting in the queue of the event loop that will do the
+     * compression.
+     * @param responseSizeBytes The uncompressed size of the response, or -1 if it is not known (i.e. a streamed
+     * response that didn't declare a Content-Length).
+     * @return The compression level to use for the response, or 0 if the response should not be compressed at all.
+     */
+    public int compressionLevelFor(int eventLoopPendingTasks, long responseSizeBytes) {
+        if (eventLoopPendingTasks >= saturatedPendingTasksThreshold)
+            return 0;
+
+        if (eventLoopPendingTasks >= busyPendingTasksThreshold)
+            return busyCompressionLevel;
+
+        if (responseSizeBytes < 0 || responseSizeBytes > largeResponseSizeBytes)
+            return defaultCompressionLevel;
+
+        return idleCompressionLevel;
+    }
+
+    /**
+     * @return The memo key for the given body: the content encoding, the body length, and a hash of the first and last
+     * {@code FINGERPRINT_EDGE_BYTES} bytes plus {@code FINGERPRINT_STRIDED_BYTES} evenly spaced bytes in between.
+     * Bodies small enough to be covered by that sample are hashed in full. Different bodies can share a key, so callers
+     * must confirm a match against the full body before using a memoized variant.
+     */
+    protected String memoizationKey(String contentEncoding, ByteBuf body) {
+        int start = body.readerIndex();
+        int length = body.readableBytes();
+        int hash = 1;
+        if (length <= (FINGERPRINT_EDGE_BYTES * 2) + FINGERPRINT_STRIDED_BYTES) {
+            for (int i = 0; i < length; i++) {
+                hash = 31 * hash + body.getByte(start + i);
+            }
+        }
+        else {
+            for (int i = 0; i < FINGERPRINT_EDGE_BYTES; i++) {
+                hash = 31 * hash + body.getByte(start + i);
+                hash = 31 * hash + body.getByte(start + length - FINGERPRINT_EDGE_BYTES + i);
+            }
+
+            int stride = length / (FINGERPRINT_STRIDED_BYTES + 1);
+            for (int i = 1; i <= FINGERPRINT_STRIDED_BYTES; i++) {
+                hash = 31 * hash + body.getByte(start + (i * stride));
+            }
+        }
+
+        return contentEncoding + ":" + length + ":" + hash;
+    }
+
+    protected boolean isMemoizationCandidateSize(ByteBuf body) {
+        return maxMemoizedVariants > 0 && body.readableBytes() <= maxMemoizedBodySizeBytes;
+    }
+
+    /**
+     * @param contentEncoding The content encoding that will be used (e.g. gzip).
+     * @param body The full uncompressed response body. Its reader and writer indexes will not be modified.
+     * @return A buffer containing the memoized compressed variant of the given body (including any headers and
+     * trailers of the content encoding), or null if there isn't one. The returned buffer does not need to be released.
+     */
+    public ByteBuf getMemoizedVariant(String contentEncoding, ByteBuf body) {
+        if (!isMemoizationCandidateSize(body))
+            return null;
+
+        String key = memoizationKey(contentEncoding, body);
+        MemoizedVariant variant;
+        synchronized (this) {
+            variant = memoizedVariants.get(key);
+        }
+
+        if (variant == null || !ByteBufUtil.equals(variant.uncompressedBody, body))
+            return null;
+
+        memoizedVariantHitCount.incrementAndGet();
+        return variant.compressedBody.duplicate();
+    }
+
+    /**
+     * @param contentEncoding The content encoding that will be used (e.g. gzip).
+     * @param body The full uncompressed response body. Its reader and writer indexes will not be modified.
+     * @return true if the compressed variant of the given body should be captured and passed to {@link
+     * #memoizeVariant(String, byte[], byte[])} - i.e. the body is small enough and it's not the first time it's been
+     * seen. The first time a body is seen it is only recorded as a candidate and this returns false.
+     */
+    public boolean shouldMemoize(String contentEncoding, ByteBuf body) {
+        if (!isMemoizationCandidateSize(body))
+            return false;
+
+        String key = memoizationKey(contentEncoding, body);
+        synchronized (this) {
+            if (memoizationCandidates.remove(key) != null)
+                return true;
+
+            memoizationCandidates.put(key, Boolean.TRUE);
+            return false;
+        }
+    }
+
+    /**
+     * Stores the compressed variant of the given body so that it can be returned by {@link
+     * #getMemoizedVariant(String, ByteBuf)}.
+     *
+     * @param contentEncoding The content encoding that was used (e.g. gzip).
+     * @param uncompressedBody The full uncompressed response body.
+     * @param compressedBody The complete compressed form of the body (including any headers and trailers of the
+     * content encoding).
+     */
+    public void memoizeVariant(String contentEncoding, byte[] uncompressedBody, byte[] compressedBody) {
+        ByteBuf uncompressed = Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(uncompressedBody));
+        if (!isMemoizationCandidateSize(uncompressed))
+            return;
+
+        MemoizedVariant variant = new MemoizedVariant(
+            uncompressed, Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(compressedBody))
+        );
+        String key = memoizationKey(contentEncoding, uncompressed);
+        synchronized (this) {
+            memoizedVariants.put(key, variant);
+        }
+    }
+
+    /**
+     * Records that part (or all) of a response was compressed.
+     *
+     * @param uncompressedByteCount The number of bytes that went into the compressor.
+     * @param compressedByteCount The number of bytes that came out of the compressor.
+     * @param nanos The time spent compressing, in nanoseconds.
+     */
+    public void recordCompression(long uncompressedByteCount, long compressedByteCount, long nanos) {
+        uncompressedBytes.addAndGet(uncompressedByteCount);
+        compressedBytes.addAndGet(compressedByteCount);
+        compressionNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Records that the compression of a new response was started.
+     */
+    public void recordCompressedResponse() {
+        compressedResponseCount.incrementAndGet();
+    }
+
+    /**
+     * Records that a response that would otherwise have been compressed was sent uncompressed because the event loop
+     * was saturated.
+     */
+    public void recordSkippedUnderLoad() {
+        skippedUnderLoadCount.incrementAndGet();
+    }
+
+    /**
+     * @return The number of responses that have been compressed (including the ones served from a memoized variant).
+     */
+    public long getCompressedResponseCount() {
+        return compressedResponseCount.get();
+    }
+
+    /**
+     * @return The total number of uncompressed bytes that have gone into compressed responses.
+     */
+    public long getUncompressedBytes() {
+        return uncompressedBytes.get();
+    }
+
+    /**
+     * @return The total number of compressed bytes that have been sent in place of {@link #getUncompressedBytes()}.
+     */
+    public long getCompressedBytes() {
+        return compressedBytes.get();
+    }
+
+    /**
+     * @return The total time spent compressing responses, in nanoseconds.
+     */
+    public long getCompressionNanos() {
+        return compressionNanos.get();
+    }
+
+    /**
+     * @return The overall compression ratio (compressed bytes divided by uncompressed bytes - lower is better), or 0 if
+     * nothing has been compressed yet.
+     */
+    public double getCompressionRatio() {
+        long uncompressed = uncompressedBytes.get();
+        return (uncompressed == 0) ? 0 : ((double) compressedBytes.get()) / uncompressed;
+    }
+
+    /**
+     * @return The average time in nanoseconds spent compressing each uncompressed byte, or 0 if nothing has been
+     * compressed yet. Memoized variants cost next to nothing, so a good memo hit rate brings this down.
+     */
+    public double getCompressionNanosPerByte() {
+        long uncompressed = uncompressedBytes.get();
+        return (uncompressed == 0) ? 0 : ((double) compressionNanos.get()) / uncompressed;
+    }
+
+    /**
+     * @return The number of responses that were served from a memoized compressed variant.
+     */
+    public long getMemoizedVariantHitCount() {
+        return memoizedVariantHitCount.get();
+    }
+
+    /**
+     * @return The number of memoized compressed variants currently held.
+     */
+    public synchronized int getMemoizedVariantCount() {
+        return memoizedVariants.size();
+    }
+
+    /**
+     * @return The number of responses that were sent uncompressed because the event loop was saturated.
+     */
+    public long getSkippedUnderLoadCount() {
+        return skippedUnderLoadCount.get();
+    }
+
+    protected static class MemoizedVariant {
+        public final ByteBuf uncompressedBody;
+        public final ByteBuf compressedBody;
+
+        protected MemoizedVariant(ByteBuf uncompressedBody, ByteBuf compressedBody) {
+            this.uncompressedBody = uncompressedBody;
+            this.compressedBody = compressedBody;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.nike.riposte.server.http.header;
+
+import com.nike.riposte.server.http.mimetype.MimeType;
+import com.nike.riposte.server.http.mimetype.MimeTypeParser;
+
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import io.netty.handler.codec.http.HttpHeaders;
+
+/**
+ * A size-bounded interning cache for Content-Type header handling. The same handful of Content-Type header values show
+ * up over and over again on both requests and responses, so rather than re-running regexes and string manipulation
+ * for every request/response we parse each distinct raw header value once (see {@link #parse(String)}) and reuse the
+ * resulting {@link ParsedContentType}. Similarly the outbound Content-Type header value for a given mime type and
+ * charset pair is built once as a pre-encoded Netty header entity (see {@link
+ * #getContentTypeHeaderValue(String, Charset)}) so that setting it on a response and encoding it onto the wire does
+ * not allocate in the common case.
+ *
+ * <p>Each cache is an LRU bounded by {@link #getMaxEntries()}. If a cache fills up (e.g. a misbehaving caller sending
+ * thousands of distinct garbage Content-Type headers) the least recently used entries are evicted, so the handful of
+ * common values stay cached - the cache only exists for performance reasons and a miss is never incorrect, just slower.
+ * The full {@link MimeType} parse is comparatively expensive and rarely needed, so {@link ParsedContentType} only does
+ * it on demand.
+ *
+ * <p>Most callers should use the shared {@link #getDefaultInstance()}.
+ */
+@SuppressWarnings("WeakerAccess")
+public class ContentTypeHeaderCache {
+
+    /**
+     * Regex Pattern for parsing charset from content-type header
+     */
+    public static final Pattern CONTENT_TYPE_CHARSET_EXTRACTOR_PATTERN =
+        Pattern.compile("(?i)\\bcharset=\\s*\"?([^\\s;\"]*)");
+
+    /**
+     * The default max number of entries for each of the caches held by a {@link ContentTypeHeaderCache}.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+    private static final ContentTypeHeaderCache DEFAULT_INSTANCE = new ContentTypeHeaderCache(DEFAULT_MAX_ENTRIES);
+
+    protected final int maxEntries;
+    // Access-ordered LRU maps - always synchronize on the map when using them.
+    protected final Map<String, ParsedContentType> rawHeaderToParsedContentTypeCache;
+    protected final Map<String, ConcurrentMap<Charset, CharSequence>> mimeTypeAndCharsetToHeaderValueCache;
+
+    /**
+     * @param maxEntries The max number of entries to keep in each cache before evicting the least recently used ones.
+     * Must be greater than 0.
+     */
+    public ContentTypeHeaderCache(int maxEntries) {
+        if (maxEntries <= 0)
+            throw new IllegalArgumentException("maxEntries must be greater than 0");
+
+        this.maxEntries = maxEntries;
+        this.rawHeaderToParsedContentTypeCache = newLruMap(maxEntries);
+        this.mimeTypeAndCharsetToHeaderValueCache = newLruMap(maxEntries);
+    }
+
+    private static <V> Map<String, V> newLruMap(int maxEntries) {
+        return new LinkedHashMap<String, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return The default shared {@link ContentTypeHeaderCache} instance.
+     */
+    public static ContentTypeHeaderCache getDefaultInstance() {
+        return DEFAULT_INSTANCE;
+    }
+
+    /**
+     * @return The max number of entries kept in each cache.
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @param rawContentTypeHeader The raw Content-Type header value to parse - may be null.
+     *
+     * @return The {@link ParsedContentType} for the given raw header value, or null if the given header value is null.
+     * This will be pulled from the cache if the header value has been seen before, otherwise it will be parsed and
+     * added to the cache.
+     */
+    public ParsedContentType parse(String rawContentTypeHeader) {
+        if (rawContentTypeHeader == null)
+            return null;
+
+        synchronized (rawHeaderToParsedContentTypeCache) {
+            ParsedContentType result = rawHeaderToParsedContentTypeCache.get(rawContentTypeHeader);
+            if (result != null)
+                return result;
+        }
+
+        // Parse outside the lock. Racing threads may both parse the same value, which is harmless.
+        ParsedContentType result = new ParsedContentType(rawContentTypeHeader);
+        synchronized (rawHeaderToParsedContentTypeCache) {
+            ParsedContentType existing = rawHeaderToParsedContentTypeCache.putIfAbsent(rawContentTypeHeader, result);
+            return (existing == null) ? result : existing;
+        }
+    }
+
+    /**
+     * @param mimeType The mime type for the header value - cannot be null.
+     * @param charset The charset for the header value - cannot be null.
+     *
+     * @return The Content-Type header value for the given mime type and charset, in the form
+     * {@code [mimeType]; charset=[charset.name()]}. The returned {@link CharSequence} is a pre-encoded Netty header
+     * entity (see {@link HttpHeaders#newEntity(String)}) that is cached and reused for future calls with the same mime
+     * type and charset, so it can be set on response headers and written to the wire without any extra allocation or
+     * encoding work.
+     */
+    public CharSequence getContentTypeHeaderValue(String mimeType, Charset charset) {
+        if (mimeType == null)
+            throw new IllegalArgumentException("mimeType cannot be null");
+
+        if (charset == null)
+            throw new IllegalArgumentException("charset cannot be null");
+
+        ConcurrentMap<Charset, CharSequence> charsetToHeaderValue;
+        synchronized (mimeTypeAndCharsetToHeaderValueCache) {
+            charsetToHeaderValue = mimeTypeAndCharsetToHeaderValueCache.get(mimeType);
+            if (charsetToHeaderValue == null) {
+                charsetToHeaderValue = new ConcurrentHashMap<>();
+                mimeTypeAndCharsetToHeaderValueCache.put(mimeType, charsetToHeaderValue);
+            }
+        }
+
+        CharSequence headerValue = charsetToHeaderValue.get(charset);
+        if (headerValue == null) {
+            headerValue = HttpHeaders.newEntity(mimeType + "; charset=" + charset.name());
+            charsetToHeaderValue.putIfAbsent(charset, headerValue);
+        }
+
+        return headerValue;
+    }
+
+    /**
+     * The result of parsing a raw Content-Type header value. This is immutable and safe to share across threads.
+     */
+    public static class ParsedContentType {
+
+        /**
+         * The raw Content-Type header value that was parsed.
+         */
+        public final String rawHeaderValue;
+        /**
+         * The mime type portion of the header value (everything before the first semicolon, trimmed), or null if the
+         * header value was blank.
+         */
+        public final String mimeTypeString;
+        /**
+         * The charset name extracted from the header value via {@link #CONTENT_TYPE_CHARSET_EXTRACTOR_PATTERN}
+         * (trimmed and upper-cased), or null if the header value did not specify a charset.
+         */
+        public final String charsetName;
+        /**
+         * The {@link Charset} for {@link #charsetName}, or null if the header value did not specify a charset *or* if
+         * it specified an invalid one (see {@link #hasInvalidCharset()}).
+         */
+        public final Charset charset;
+
+        @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
+        private volatile Optional<MimeType> mimeType;
+
+        public ParsedContentType(String rawHeaderValue) {
+            this.rawHeaderValue = rawHeaderValue;
+            this.mimeTypeString = extractMimeTypeString(rawHeaderValue);
+            this.charsetName = extractCharsetName(rawHeaderValue);
+            this.charset = (charsetName == null) ? null : charsetForNameOrNull(charsetName);
+        }
+
+        /**
+         * @return The {@link MimeType} produced by {@link MimeTypeParser#parse(CharSequence)} for the raw header value,
+         * or empty if it could not be parsed as an RFC-6838 mime type. Parsed on the first call and reused after that.
+         */
+        @SuppressWarnings("OptionalAssignedToNull")
+        public Optional<MimeType> getMimeType() {
+            Optional<MimeType> result = mimeType;
+            if (result == null) {
+                // Racing threads may both parse it, which is harmless since the result is the same.
+                result = MimeTypeParser.parse(rawHeaderValue);
+                mimeType = result;
+            }
+
+            return result;
+        }
+
+        /**
+         * @return true if the header value specified a charset but it was not a valid/supported {@link Charset}.
+         */
+        public boolean hasInvalidCharset() {
+            return charsetName != null && charset == null;
+        }
+
+        protected static String extractMimeTypeString(String rawHeaderValue) {
+            if (rawHeaderValue.trim().length() == 0)
+                return null;
+
+            int semicolonIndex = rawHeaderValue.indexOf(';');
+            String mimeType = (semicolonIndex >= 0) ? rawHeaderValue.substring(0, semicolonIndex) : rawHeaderValue;
+
+            return mimeType.trim();
+        }
+
+        protected static String extractCharsetName(String rawHeaderValue) {
+            Matcher m = CONTENT_TYPE_CHARSET_EXTRACTOR_PATTERN.matcher(rawHeaderValue);
+            if (m.find())
+                return m.group(1).trim().toUpperCase();
+
+            return null;
+        }
+
+        protected static Charset charsetForNameOrNull(String charsetName) {
+            try {
+                return Charset.forName(charsetName);
+            }
+            catch (Exception ex) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.nike.riposte.server.http.header;
+
+import java.util.Date;
+
+import io.netty.handler.codec.http.HttpHeaderDateFormat;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.util.concurrent.FastThreadLocal;
+
+/**
+ * Caches the value of the HTTP {@code Date} response header so that it is formatted at most once per second per thread
+ * rather than once per response. Each Netty event loop is single threaded, so the per-thread cache is effectively a
+ * per-event-loop cache and needs no synchronization. The cached value is a pre-encoded Netty header entity (see {@link
+ * HttpHeaders#newEntity(String)}) so writing it onto the wire doesn't require any extra encoding work either.
+ *
+ * <p>The {@code Date} header only has one second resolution (see <a
+ * href="https://tools.ietf.org/html/rfc7231#section-7.1.1.2">RFC 7231 Section 7.1.1.2</a>), so refreshing once a
+ * second is exactly as accurate as formatting it for every response.
+ *
+ * <p>Most callers should use the static {@link #currentDateHeaderValue()}.
+ */
+@SuppressWarnings("WeakerAccess")
+public class DateHeaderCache {
+
+    /**
+     * The pre-encoded {@code Date} header name.
+     */
+    public static final CharSequence DATE_HEADER_NAME = HttpHeaders.newEntity(HttpHeaders.Names.DATE);
+
+    private static final FastThreadLocal<DateHeaderCache> PER_THREAD_CACHE = new FastThreadLocal<DateHeaderCache>() {
+        @Override
+        protected DateHeaderCache initialValue() {
+            return new DateHeaderCache();
+        }
+    };
+
+    protected long cachedEpochSecond = Long.MIN_VALUE;
+    protected CharSequence cachedHeaderValue;
+
+    /**
+     * @return The {@code Date} header value for the current time, pulled from the calling thread's cache. The returned
+     * value changes at most once per second.
+     */
+    public static CharSequence currentDateHeaderValue() {
+        return PER_THREAD_CACHE.get().getDateHeaderValue(System.currentTimeMillis());
+    }
+
+    /**
+     * @param epochMillis The current time in milliseconds since the epoch.
+     * @return The {@code Date} header value for the given time. This will be the cached value if the given time falls
+     * within the same second as the last call, otherwise a new value is formatted and cached.
+     */
+    public CharSequence getDateHeaderValue(long epochMillis) {
+        long epochSecond = Math.floorDiv(epochMillis, 1000L);
+        if (epochSecond != cachedEpochSecond || cachedHeaderValue == null) {
+            cachedHeaderValue = HttpHeaders.newEntity(HttpHeaderDateFormat.get().format(new Date(epochSecond * 1000L)));
+            cachedEpochSecond = epochSecond;
+        }
+
+        return cachedHeaderValue;
+    }
+}
@@ -0,0 +1,88 @@
+package com.nike.riposte.server.http.header;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.netty.handler.codec.http.HttpHeaders;
+
+/**
+ * A precomputed block of response headers that never change from one response to the next (e.g. security headers like
+ * {@code X-Content-Type-Options}, or a {@code Server} header). The header names and values are converted once into
+ * pre-encoded Netty header entities (see {@link HttpHeaders#newEntity(String)}), so copying them onto a response with
+ * {@link #applyTo(HttpHeaders)} does no string building, and writing them onto the wire does no per-character encoding.
+ *
+ * <p>Register server-wide static headers via {@link
+ * com.nike.riposte.server.config.ServerConfig#staticResponseHeaders()}, and per-endpoint static headers via {@link
+ * com.nike.riposte.server.http.Endpoint#staticResponseHeaders()}. Static headers never override a header that is
+ * already set on the response, so endpoints can still set a different value for any given response.
+ *
+ * <p>If {@link #isIncludeDateHeader()} is true then a {@code Date} header is added as well, pulled from the
+ * once-per-second per-thread {@link DateHeaderCache}.
+ *
+ * <p>Instances of this class are immutable and safe to share across threads.
+ */
+@SuppressWarnings("WeakerAccess")
+public class StaticResponseHeaders {
+
+    protected final Map<String, String> headers;
+    protected final boolean includeDateHeader;
+    protected final CharSequence[] headerNameEntities;
+    protected final CharSequence[] headerValueEntities;
+
+    /**
+     * @param headers The static header names and values, in the order they should be added to responses. May be null
+     * or empty if you only want the {@code Date} header. Names and values cannot be null.
+     * @param includeDateHeader Pass in true to also add a {@code Date} header for the current time to responses.
+     */
+    public StaticResponseHeaders(Map<String, String> headers, boolean includeDateHeader) {
+        Map<String, String> headersCopy = new LinkedHashMap<>();
+        if (headers != null) {
+            headers.forEach((name, value) -> {
+                if (name == null || value == null)
+                    throw new IllegalArgumentException("Static response header names and values cannot be null");
+
+                headersCopy.put(name, value);
+            });
+        }
+
+        this.headers = Collections.unmodifiableMap(headersCopy);
+        this.includeDateHeader = includeDateHeader;
+        this.headerNameEntities = new CharSequence[headersCopy.size()];
+        this.headerValueEntities = new CharSequence[headersCopy.size()];
+        int i = 0;
+        for (Map.Entry<String, String> header : headersCopy.entrySet()) {
+            headerNameEntities[i] = HttpHeaders.newEntity(header.getKey());
+            headerValueEntities[i] = HttpHeaders.newEntity(header.getValue());
+            i++;
+        }
+    }
+
+    /**
+     * @return The static header names and values. Never null.
+     */
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * @return true if a {@code Date} header should be added to responses along with the static headers.
+     */
+    public boolean isIncludeDateHeader() {
+        return includeDateHeader;
+    }
+
+    /**
+     * Adds this instance's headers (and the {@code Date} header if {@link #isIncludeDateHeader()} is true) to the given
+     * response headers, skipping any header that the given headers already contain.
+     */
+    public void applyTo(HttpHeaders responseHeaders) {
+        for (int i = 0; i < headerNameEntities.length; i++) {
+            if (!responseHeaders.contains(headerNameEntities[i]))
+                responseHeaders.set(headerNameEntities[i], headerValueEntities[i]);
+        }
+
+        if (includeDateHeader && !responseHeaders.contains(DateHeaderCache.DATE_HEADER_NAME))
+            responseHeaders.set(DateHeaderCache.DATE_HEADER_NAME, DateHeaderCache.currentDateHeaderValue());
+    }
+}
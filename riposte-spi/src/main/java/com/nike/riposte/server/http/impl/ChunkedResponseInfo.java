@@ -1,5 +1,7 @@
 package com.nike.riposte.server.http.impl;
 
+import com.nike.riposte.server.http.ResponseChunkPublisher;
+
 import java.nio.charset.Charset;
 import java.util.Set;
 
@@ -16,6 +18,8 @@ import io.netty.handler.codec.http.cookie.Cookie;
 @SuppressWarnings("WeakerAccess")
 public class ChunkedResponseInfo extends BaseResponseInfo<Void> {
 
+    protected ResponseChunkPublisher responseChunkPublisher;
+
     /**
      * The "populate everything" constructor. It's recommended that you use the {@link ChunkedResponseInfoBuilder}
      * instead.
@@ -24,10 +28,26 @@ public class ChunkedResponseInfo extends BaseResponseInfo<Void> {
                                String desiredContentWriterMimeType,
                                Charset desiredContentWriterEncoding,
                                Set<Cookie> cookies,
-                               boolean preventCompressedOutput) {
+                               boolean preventCompressedOutput,
+                               ResponseChunkPublisher responseChunkPublisher) {
 
         super(httpStatusCode, headers, desiredContentWriterMimeType, desiredContentWriterEncoding, cookies,
               preventCompressedOutput);
+        this.responseChunkPublisher = responseChunkPublisher;
+    }
+
+    /**
+     * Same as the "populate everything" constructor, but with no {@link ResponseChunkPublisher}. It's recommended that
+     * you use the {@link ChunkedResponseInfoBuilder} instead.
+     */
+    public ChunkedResponseInfo(Integer httpStatusCode, HttpHeaders headers,
+                               String desiredContentWriterMimeType,
+                               Charset desiredContentWriterEncoding,
+                               Set<Cookie> cookies,
+                               boolean preventCompressedOutput) {
+
+        this(httpStatusCode, headers, desiredContentWriterMimeType, desiredContentWriterEncoding, cookies,
+             preventCompressedOutput, null);
     }
 
     /**
@@ -44,6 +64,24 @@ public class ChunkedResponseInfo extends BaseResponseInfo<Void> {
         return true;
     }
 
+    /**
+     * @return The {@link ResponseChunkPublisher} that the payload of this response should be pulled from, or null if
+     * the payload chunks will be fired down the pipeline by some other means (e.g. proxied responses from a {@code
+     * ProxyRouterEndpoint}). This is what allows a {@link com.nike.riposte.server.http.NonblockingEndpoint} to return a
+     * streaming chunked response.
+     */
+    public ResponseChunkPublisher getResponseChunkPublisher() {
+        return responseChunkPublisher;
+    }
+
+    /**
+     * Sets the {@link ResponseChunkPublisher} that the payload of this response should be pulled from. See {@link
+     * #getResponseChunkPublisher()} for more details.
+     */
+    public void setResponseChunkPublisher(ResponseChunkPublisher responseChunkPublisher) {
+        this.responseChunkPublisher = responseChunkPublisher;
+    }
+
     @Override
     public Void getContentForFullResponse() {
         throw new IllegalStateException(
@@ -64,6 +102,8 @@ public class ChunkedResponseInfo extends BaseResponseInfo<Void> {
      */
     public static final class ChunkedResponseInfoBuilder extends BaseResponseInfoBuilder<Void> {
 
+        private ResponseChunkPublisher responseChunkPublisher;
+
         public ChunkedResponseInfoBuilder() {
         }
 
@@ -103,6 +143,19 @@ public class ChunkedResponseInfo extends BaseResponseInfo<Void> {
             return this;
         }
 
+        /**
+         * Sets the {@link ResponseChunkPublisher} that the response payload will be pulled from. See {@link
+         * ChunkedResponseInfo#getResponseChunkPublisher()} for more details.
+         */
+        public ChunkedResponseInfoBuilder withResponseChunkPublisher(ResponseChunkPublisher responseChunkPublisher) {
+            this.responseChunkPublisher = responseChunkPublisher;
+            return this;
+        }
+
+        public ResponseChunkPublisher getResponseChunkPublisher() {
+            return responseChunkPublisher;
+        }
+
         /**
          * @return A {@link ChunkedResponseInfo} setup with all the values contained in this builder.
          */
@@ -113,7 +166,8 @@ public class ChunkedResponseInfo extends BaseResponseInfo<Void> {
                 getDesiredContentWriterMimeType(),
                 getDesiredContentWriterEncoding(),
                 getCookies(),
-                isPreventCompressedOutput()
+                isPreventCompressedOutput(),
+                getResponseChunkPublisher()
             );
         }
     }
@@ -0,0 +1,209 @@
+package com.nike.riposte.server.http.impl;
+
+import com.nike.riposte.server.http.ResponseChunkPublisher;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * A {@link ResponseChunkPublisher} that reads a region of a file in chunks of {@link #getChunkSize()} bytes. This is
+ * the fallback used for {@link FileResponseInfo} responses when the file can't be handed to the socket directly via
+ * a zero-copy {@link io.netty.channel.FileRegion} (e.g. when the channel is using SSL/TLS and the bytes must pass
+ * through the encryption layer). It behaves much like Netty's {@code ChunkedNioFile}, but since it is a
+ * {@link ResponseChunkPublisher} it is pulled from with the same backpressure rules as any other streaming response.
+ *
+ * <p>The file is not opened until the first chunk is requested, and it is closed as soon as the last chunk has been
+ * read or {@link #cancel(Throwable)} is called.
+ *
+ * <p>{@link #nextChunk()} is called on the Netty event loop, so the file reads themselves are done on {@link
+ * #readExecutor} - a slow disk or a cold page cache would otherwise stall every other connection on that event loop.
+ * By default that's the shared {@link #getDefaultReadExecutor()}, a small bounded pool of daemon threads.
+ */
+@SuppressWarnings("WeakerAccess")
+public class FileChunkPublisher implements ResponseChunkPublisher {
+
+    /**
+     * The default number of bytes to read per chunk.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * The number of threads in the {@link #getDefaultReadExecutor()} pool.
+     */
+    public static final int DEFAULT_READ_EXECUTOR_THREADS = 4;
+
+    /**
+     * The max number of reads that can be queued up waiting for a {@link #getDefaultReadExecutor()} thread. Reads
+     * beyond this are rejected and fail the response rather than queueing without limit.
+     */
+    public static final int DEFAULT_READ_EXECUTOR_QUEUE_SIZE = 1024;
+
+    protected final File file;
+    protected final long startOffset;
+    protected final long endOffsetExclusive;
+    protected final int chunkSize;
+    protected final ByteBufAllocator allocator;
+    protected final Executor readExecutor;
+
+    protected FileChannel fileChannel;
+    protected long nextReadOffset;
+    protected boolean closed = false;
+
+    /**
+     * Creates a new instance that will read {@code length} bytes from the given file starting at {@code startOffset},
+     * {@link #DEFAULT_CHUNK_SIZE} bytes at a time on the {@link #getDefaultReadExecutor()}.
+     */
+    public FileChunkPublisher(File file, long startOffset, long length) {
+        this(file, startOffset, length, DEFAULT_CHUNK_SIZE, ByteBufAllocator.DEFAULT, getDefaultReadExecutor());
+    }
+
+    /**
+     * @param readExecutor The executor that the file reads run on. Reads block, so this should never be a Netty event
+     * loop.
+     */
+    public FileChunkPublisher(File file, long startOffset, long length, int chunkSize, ByteBufAllocator allocator,
+                              Executor readExecutor) {
+        if (file == null)
+            throw new IllegalArgumentException("file cannot be null");
+
+        if (startOffset < 0)
+            throw new IllegalArgumentException("startOffset cannot be negative");
+
+        if (length < 0)
+            throw new IllegalArgumentException("length cannot be negative");
+
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("chunkSize must be greater than 0");
+
+        if (allocator == null)
+            throw new IllegalArgumentException("allocator cannot be null");
+
+        if (readExecutor == null)
+            throw new IllegalArgumentException("readExecutor cannot be null");
+
+        this.file = file;
+        this.startOffset = startOffset;
+        this.endOffsetExclusive = startOffset + length;
+        this.chunkSize = chunkSize;
+        this.allocator = allocator;
+        this.readExecutor = readExecutor;
+        this.nextReadOffset = startOffset;
+    }
+
+    private static class DefaultReadExecutorHolder {
+        private static final Executor INSTANCE = new ThreadPoolExecutor(
+            DEFAULT_READ_EXECUTOR_THREADS, DEFAULT_READ_EXECUTOR_THREADS, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(DEFAULT_READ_EXECUTOR_QUEUE_SIZE),
+            new DefaultThreadFactory("riposteFileChunkReader", true)
+        );
+    }
+
+    /**
+     * @return The shared executor used for file reads when none is specified: {@link #DEFAULT_READ_EXECUTOR_THREADS}
+     * daemon threads with a queue bounded at {@link #DEFAULT_READ_EXECUTOR_QUEUE_SIZE}.
+     */
+    public static Executor getDefaultReadExecutor() {
+        return DefaultReadExecutorHolder.INSTANCE;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    @Override
+    public synchronized CompletableFuture<ByteBuf> nextChunk() {
+        CompletableFuture<ByteBuf> result = new CompletableFuture<>();
+
+        if (closed) {
+            result.completeExceptionally(new IllegalStateException("This FileChunkPublisher has been closed."));
+            return result;
+        }
+
+        if (nextReadOffset >= endOffsetExclusive) {
+            close();
+            result.complete(null);
+            return result;
+        }
+
+        long readOffset = nextReadOffset;
+        int bytesToRead = (int) Math.min(chunkSize, endOffsetExclusive - readOffset);
+        nextReadOffset += bytesToRead;
+        try {
+            readExecutor.execute(() -> readChunk(readOffset, bytesToRead, result));
+        }
+        catch (Throwable t) {
+            close();
+            result.completeExceptionally(t);
+        }
+
+        return result;
+    }
+
+    /**
+     * Reads {@code bytesToRead} bytes starting at {@code readOffset} and completes the given future with them. Runs on
+     * {@link #readExecutor}.
+     */
+    protected synchronized void readChunk(long readOffset, int bytesToRead, CompletableFuture<ByteBuf> result) {
+        if (closed) {
+            result.completeExceptionally(new IllegalStateException("This FileChunkPublisher has been closed."));
+            return;
+        }
+
+        ByteBuf chunk = null;
+        try {
+            if (fileChannel == null)
+                fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+            chunk = allocator.buffer(bytesToRead);
+            fileChannel.position(readOffset);
+            while (chunk.writerIndex() < bytesToRead) {
+                int bytesRead = chunk.writeBytes(fileChannel, bytesToRead - chunk.writerIndex());
+                if (bytesRead < 0) {
+                    throw new IOException(
+                        "Reached the end of the file before the expected number of bytes were read. The file may have "
+                        + "been truncated while it was being sent. file=" + file.getAbsolutePath()
+                    );
+                }
+            }
+        }
+        catch (Throwable t) {
+            if (chunk != null)
+                chunk.release();
+
+            close();
+            result.completeExceptionally(t);
+            return;
+        }
+
+        result.complete(chunk);
+    }
+
+    @Override
+    public synchronized void cancel(Throwable reason) {
+        close();
+    }
+
+    protected void close() {
+        closed = true;
+        if (fileChannel != null) {
+            try {
+                fileChannel.close();
+            }
+            catch (IOException e) {
+                // Nothing useful we can do here.
+            }
+            fileChannel = null;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.nike.riposte.server.http.impl;
+
+import com.nike.riposte.server.http.ResponseChunkPublisher;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.Set;
+
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.cookie.Cookie;
+
+/**
+ * An extension of {@link ChunkedResponseInfo} whose payload is the contents of a {@link File}. The response sender will
+ * take care of the rest:
+ * <ul>
+ *     <li>
+ *         On plaintext channels the file is handed directly to the socket as a zero-copy {@link
+ *         io.netty.channel.DefaultFileRegion} (i.e. {@code sendfile}), so the file contents never touch the heap.
+ *     </li>
+ *     <li>
+ *         On SSL/TLS channels (where the bytes must pass through the encryption layer) the file is streamed in chunks
+ *         via a {@link FileChunkPublisher}, with the same backpressure rules as any other streaming response.
+ *     </li>
+ *     <li>
+ *         Single-range {@code Range} requests (with optional {@code If-Range}) are honored with {@code 206 Partial
+ *         Content} responses, unsatisfiable ranges result in a {@code 416 Range Not Satisfiable}, and {@code
+ *         Accept-Ranges}, {@code Last-Modified}, and {@code Content-Length} headers are populated automatically.
+ *     </li>
+ * </ul>
+ * The file must exist and be readable when this is created. You should use the {@link FileResponseInfoBuilder} (see
+ * {@link com.nike.riposte.server.http.ResponseInfo#newFileResponseBuilder(File)}) to create new instances.
+ */
+@SuppressWarnings("WeakerAccess")
+public class FileResponseInfo extends ChunkedResponseInfo {
+
+    /**
+     * The mime type that will be used if no mime type is specified.
+     */
+    public static final String DEFAULT_FILE_MIME_TYPE = "application/octet-stream";
+
+    protected final File file;
+    protected final long fileLength;
+    protected final long fileLastModifiedMillis;
+    protected long rangeStart;
+    protected long rangeLength;
+    protected FileChunkPublisher defaultFileChunkPublisher;
+
+    /**
+     * The "populate everything" constructor. It's recommended that you use the {@link FileResponseInfoBuilder}
+     * instead.
+     */
+    public FileResponseInfo(File file,
+                            Integer httpStatusCode,
+                            HttpHeaders headers,
+                            String desiredContentWriterMimeType,
+                            Charset desiredContentWriterEncoding,
+                            Set<Cookie> cookies,
+                            boolean preventCompressedOutput) {
+        super(httpStatusCode, headers,
+              (desiredContentWriterMimeType == null) ? DEFAULT_FILE_MIME_TYPE : desiredContentWriterMimeType,
+              desiredContentWriterEncoding, cookies, preventCompressedOutput, null);
+
+        if (file == null)
+            throw new IllegalArgumentException("file cannot be null");
+
+        if (!file.isFile() || !file.canRead())
+            throw new IllegalArgumentException("file must exist and be readable. file=" + file.getAbsolutePath());
+
+        this.file = file;
+        this.fileLength = file.length();
+        this.fileLastModifiedMillis = file.lastModified();
+        this.rangeStart = 0;
+        this.rangeLength = fileLength;
+    }
+
+    /**
+     * @return The file whose contents will be sent as the response payload.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return The length of {@link #getFile()} at the time this instance was created.
+     */
+    public long getFileLength() {
+        return fileLength;
+    }
+
+    /**
+     * @return The last modified timestamp of {@link #getFile()} (in epoch millis) at the time this instance was
+     * created.
+     */
+    public long getFileLastModifiedMillis() {
+        return fileLastModifiedMillis;
+    }
+
+    /**
+     * @return The offset into {@link #getFile()} where the payload starts. This is 0 unless the response sender has
+     * determined this is a partial (range) response.
+     */
+    public long getRangeStart() {
+        return rangeStart;
+    }
+
+    /**
+     * @return The number of bytes of {@link #getFile()} that will be sent, starting at {@link #getRangeStart()}. This is
+     * {@link #getFileLength()} unless the response sender has determined this is a partial (range) response.
+     */
+    public long getRangeLength() {
+        return rangeLength;
+    }
+
+    /**
+     * Sets the region of {@link #getFile()} that will be sent. This is called by the response sender when handling
+     * {@code Range} requests - you normally should not call this yourself.
+     */
+    public void setRange(long rangeStart, long rangeLength) {
+        if (rangeStart < 0 || rangeLength < 0 || rangeStart + rangeLength > fileLength) {
+            throw new IllegalArgumentException(
+                "Invalid range for file. range_start=" + rangeStart + ", range_length=" + rangeLength
+                + ", file_length=" + fileLength
+            );
+        }
+
+        this.rangeStart = rangeStart;
+        this.rangeLength = rangeLength;
+        // Any default publisher that was already created is for the old range.
+        this.defaultFileChunkPublisher = null;
+    }
+
+    /**
+     * @return The {@link ResponseChunkPublisher} explicitly set via {@link
+     * #setResponseChunkPublisher(ResponseChunkPublisher)} if there is one, otherwise a {@link FileChunkPublisher} for
+     * the current {@link #getRangeStart()} and {@link #getRangeLength()}. The file is not opened until the first chunk
+     * is requested, so this is cheap to call even if the publisher ends up not being used (e.g. when the file is sent
+     * via zero-copy instead).
+     */
+    @Override
+    public ResponseChunkPublisher getResponseChunkPublisher() {
+        if (responseChunkPublisher != null)
+            return responseChunkPublisher;
+
+        if (defaultFileChunkPublisher == null)
+            defaultFileChunkPublisher = new FileChunkPublisher(file, rangeStart, rangeLength);
+
+        return defaultFileChunkPublisher;
+    }
+
+    /**
+     * Builder for {@link FileResponseInfo}. Create one of these with {@link
+     * com.nike.riposte.server.http.ResponseInfo#newFileResponseBuilder(File)}.
+     */
+    public static final class FileResponseInfoBuilder extends BaseResponseInfoBuilder<Void> {
+
+        private final File file;
+
+        public FileResponseInfoBuilder(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public FileResponseInfoBuilder withHttpStatusCode(Integer httpStatusCode) {
+            super.withHttpStatusCode(httpStatusCode);
+            return this;
+        }
+
+        @Override
+        public FileResponseInfoBuilder withHeaders(HttpHeaders headers) {
+            super.withHeaders(headers);
+            return this;
+        }
+
+        @Override
+        public FileResponseInfoBuilder withDesiredContentWriterMimeType(String desiredContentWriterMimeType) {
+            super.withDesiredContentWriterMimeType(desiredContentWriterMimeType);
+            return this;
+        }
+
+        @Override
+        public FileResponseInfoBuilder withDesiredContentWriterEncoding(Charset desiredContentWriterEncoding) {
+            super.withDesiredContentWriterEncoding(desiredContentWriterEncoding);
+            return this;
+        }
+
+        @Override
+        public FileResponseInfoBuilder withCookies(Set<Cookie> cookies) {
+            super.withCookies(cookies);
+            return this;
+        }
+
+        @Override
+        public FileResponseInfoBuilder withPreventCompressedOutput(boolean preventCompressedOutput) {
+            super.withPreventCompressedOutput(preventCompressedOutput);
+            return this;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * @return A {@link FileResponseInfo} setup with all the values contained in this builder.
+         */
+        public FileResponseInfo build() {
+            return new FileResponseInfo(
+                getFile(),
+                getHttpStatusCode(),
+                getHeaders(),
+                getDesiredContentWriterMimeType(),
+                getDesiredContentWriterEncoding(),
+                getCookies(),
+                isPreventCompressedOutput()
+            );
+        }
+    }
+
+}
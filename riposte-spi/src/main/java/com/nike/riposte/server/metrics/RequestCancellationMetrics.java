@@ -0,0 +1,90 @@
+package com.nike.riposte.server.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the requests whose work was cancelled because the caller disconnected before the response was sent (see
+ * {@link com.nike.riposte.server.error.exception.CallerDisconnectedException}), along with an estimate of the work
+ * that was saved: endpoints that never had to run because the caller was gone before their pre-endpoint work
+ * finished, tasks that were dropped from the long running task executor's queue before they started, tasks that were
+ * interrupted while running, and downstream calls that were closed before they finished.
+ *
+ * <p>Most apps should use the shared {@link #getDefaultInstance()}.
+ */
+@SuppressWarnings("WeakerAccess")
+public class RequestCancellationMetrics {
+
+    protected final LongAdder cancelledRequestCount = new LongAdder();
+    protected final LongAdder skippedEndpointExecutionCount = new LongAdder();
+    protected final LongAdder skippedTaskCount = new LongAdder();
+    protected final LongAdder interruptedTaskCount = new LongAdder();
+    protected final LongAdder cancelledDownstreamCallCount = new LongAdder();
+
+    private static class DefaultInstanceHolder {
+        private static final RequestCancellationMetrics INSTANCE = new RequestCancellationMetrics();
+    }
+
+    /**
+     * @return The shared default instance.
+     */
+    public static RequestCancellationMetrics getDefaultInstance() {
+        return DefaultInstanceHolder.INSTANCE;
+    }
+
+    /**
+     * Records a request whose endpoint work was cancelled.
+     *
+     * @param endpointExecutionSkipped True if the endpoint was never executed.
+     * @param skippedTasks The number of queued long running tasks that were dropped before they started.
+     * @param interruptedTasks The number of running long running tasks that were interrupted.
+     */
+    public void recordCancelledRequest(boolean endpointExecutionSkipped, int skippedTasks, int interruptedTasks) {
+        cancelledRequestCount.increment();
+        if (endpointExecutionSkipped)
+            skippedEndpointExecutionCount.increment();
+        skippedTaskCount.add(skippedTasks);
+        interruptedTaskCount.add(interruptedTasks);
+    }
+
+    /**
+     * Records a proxied downstream call that was closed because its caller disconnected.
+     */
+    public void recordCancelledDownstreamCall() {
+        cancelledDownstreamCallCount.increment();
+    }
+
+    /**
+     * @return The number of requests whose endpoint work was cancelled because the caller disconnected.
+     */
+    public long getCancelledRequestCount() {
+        return cancelledRequestCount.sum();
+    }
+
+    /**
+     * @return The number of cancelled requests whose endpoint was never executed.
+     */
+    public long getSkippedEndpointExecutionCount() {
+        return skippedEndpointExecutionCount.sum();
+    }
+
+    /**
+     * @return The number of long running tasks that were dropped before they started.
+     */
+    public long getSkippedTaskCount() {
+        return skippedTaskCount.sum();
+    }
+
+    /**
+     * @return The number of long running tasks that were interrupted while running.
+     */
+    public long getInterruptedTaskCount() {
+        return interruptedTaskCount.sum();
+    }
+
+    /**
+     * @return The number of proxied downstream calls that were closed before they finished.
+     */
+    public long getCancelledDownstreamCallCount() {
+        return cancelledDownstreamCallCount.sum();
+    }
+}
@@ -4,6 +4,9 @@ import com.nike.riposte.server.error.exception.InvalidCharsetInContentTypeHeader
 import com.nike.riposte.server.error.exception.PathParameterMatchingException;
 import com.nike.riposte.server.http.Endpoint;
 import com.nike.riposte.server.http.RequestInfo;
+import com.nike.riposte.server.http.ResponseInfo;
+import com.nike.riposte.server.http.header.ContentTypeHeaderCache;
+import com.nike.riposte.server.http.header.ContentTypeHeaderCache.ParsedContentType;
 
 import java.nio.charset.Charset;
 import java.util.Collection;
@@ -12,7 +15,6 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -40,7 +42,7 @@ public class HttpUtils {
      * Regex Pattern for parsing charset from content-type header
      */
     protected static final Pattern CONTENT_TYPE_CHARSET_EXTRACTOR_PATTERN =
-        Pattern.compile("(?i)\\bcharset=\\s*\"?([^\\s;\"]*)");
+        ContentTypeHeaderCache.CONTENT_TYPE_CHARSET_EXTRACTOR_PATTERN;
 
     protected static final AntPathMatcher pathParamExtractor = new AntPathMatcher();
 
@@ -98,20 +100,23 @@ public class HttpUtils {
         if (contentTypeHeader == null)
             return def;
 
-        String charset;
-        Matcher m = CONTENT_TYPE_CHARSET_EXTRACTOR_PATTERN.matcher(contentTypeHeader);
-        if (m.find()) {
-            charset = m.group(1).trim().toUpperCase();
-            try {
-                return Charset.forName(charset);
-            }
-            catch (Exception ex) {
-                throw new InvalidCharsetInContentTypeHeaderException("Invalid charset in Content-Type header", ex,
-                                                                     contentTypeHeader);
-            }
-        }
+        // The parsing is cached since the same few Content-Type header values show up on nearly every request.
+        ParsedContentType parsedContentType = ContentTypeHeaderCache.getDefaultInstance().parse(contentTypeHeader);
+        if (parsedContentType.charsetName == null)
+            return def;
+
+        if (parsedContentType.charset != null)
+            return parsedContentType.charset;
 
-        return def;
+        // The charset is invalid. Redo the lookup to get the real cause for the exception - this is the error case so
+        //      there's no need to be fast.
+        try {
+            return Charset.forName(parsedContentType.charsetName);
+        }
+        catch (Exception ex) {
+            throw new InvalidCharsetInContentTypeHeaderException("Invalid charset in Content-Type header", ex,
+                                                                 contentTypeHeader);
+        }
     }
 
     public static List<HttpContent> extractContentChunks(HttpRequest request) {
@@ -167,6 +172,25 @@ public class HttpUtils {
         return comboBytes;
     }
 
+    /**
+     * Releases the {@link ByteBuf} content of the given full response if it has not been sent (and therefore handed
+     * off to Netty, which releases it after writing). Use this whenever a {@link ResponseInfo} is being discarded,
+     * since a {@link ByteBuf} returned by an endpoint would otherwise leak. Does nothing if the response is null,
+     * chunked, already started sending, has no {@link ByteBuf} content, or the content was already released.
+     *
+     * @return true if content was released, false otherwise.
+     */
+    public static boolean releaseUnsentResponseContent(ResponseInfo<?> responseInfo) {
+        if (responseInfo == null || responseInfo.isChunkedResponse() || responseInfo.isResponseSendingStarted())
+            return false;
+
+        Object content = responseInfo.getContentForFullResponse();
+        if (!(content instanceof ByteBuf) || ((ByteBuf) content).refCnt() <= 0)
+            return false;
+
+        return ((ByteBuf) content).release();
+    }
+
     public static HttpHeaders extractTrailingHeadersIfPossible(HttpRequest request) {
         if (!(request instanceof LastHttpContent))
             return null;
@@ -13,6 +13,8 @@ import com.nike.fastbreak.exception.CircuitBreakerTimeoutException;
 import com.nike.internal.util.Pair;
 import com.nike.riposte.server.error.exception.DownstreamChannelClosedUnexpectedlyException;
 import com.nike.riposte.server.error.exception.DownstreamIdleChannelTimeoutException;
+import com.nike.riposte.server.error.exception.DownstreamRequestTimeoutException;
+import com.nike.riposte.server.error.exception.DownstreamResponseTooLargeException;
 import com.nike.riposte.server.error.exception.Forbidden403Exception;
 import com.nike.riposte.server.error.exception.HostnameResolutionException;
 import com.nike.riposte.server.error.exception.IncompleteHttpCallTimeoutException;
@@ -26,6 +28,7 @@ import com.nike.riposte.server.error.exception.NonblockingEndpointCompletableFut
 import com.nike.riposte.server.error.exception.PathNotFound404Exception;
 import com.nike.riposte.server.error.exception.PathParameterMatchingException;
 import com.nike.riposte.server.error.exception.RequestContentDeserializationException;
+import com.nike.riposte.server.error.exception.RequestDeadlineExceededException;
 import com.nike.riposte.server.error.exception.RequestTooBigException;
 import com.nike.riposte.server.error.exception.TooManyOpenChannelsException;
 import com.nike.riposte.server.error.exception.Unauthorized401Exception;
@@ -124,11 +127,26 @@ public class BackstopperRiposteFrameworkErrorHandlerListenerTest {
         verifyExceptionHandled(new NonblockingEndpointCompletableFutureTimedOut(4242), singletonError(testProjectApiErrors.getTemporaryServiceProblemApiError()));
     }
 
+    @Test
+    public void should_handle_RequestDeadlineExceededException() {
+        verifyExceptionHandled(new RequestDeadlineExceededException(3), singletonError(testProjectApiErrors.getTemporaryServiceProblemApiError()));
+    }
+
     @Test
     public void shouldHandleAsyncDownstreamCallTimedOut() {
         verifyExceptionHandled(new DownstreamIdleChannelTimeoutException(4242, null), singletonError(testProjectApiErrors.getTemporaryServiceProblemApiError()));
     }
 
+    @Test
+    public void should_handle_DownstreamRequestTimeoutException() {
+        verifyExceptionHandled(new DownstreamRequestTimeoutException(4242), singletonError(testProjectApiErrors.getTemporaryServiceProblemApiError()));
+    }
+
+    @Test
+    public void should_handle_DownstreamResponseTooLargeException() {
+        verifyExceptionHandled(new DownstreamResponseTooLargeException(4242), singletonError(testProjectApiErrors.getTemporaryServiceProblemApiError()));
+    }
+
     @Test
     public void should_handle_DownstreamChannelClosedUnexpectedlyException() {
         verifyExceptionHandled(new DownstreamChannelClosedUnexpectedlyException(null), singletonError(testProjectApiErrors.getTemporaryServiceProblemApiError()));
@@ -226,6 +244,20 @@ public class BackstopperRiposteFrameworkErrorHandlerListenerTest {
         verifyExceptionHandled(new PathNotFound404Exception("intentional boom"), singletonError(testProjectApiErrors.getNotFoundApiError()));
     }
 
+    @Test
+    public void routing_exceptions_resolve_to_precomputed_errors() {
+        // when
+        ApiExceptionHandlerListenerResult notFound1 = listener.shouldHandleException(new PathNotFound404Exception("a"));
+        ApiExceptionHandlerListenerResult notFound2 = listener.shouldHandleException(new PathNotFound404Exception("b"));
+        ApiExceptionHandlerListenerResult notAllowed =
+            listener.shouldHandleException(new MethodNotAllowed405Exception("c", "/d", "GET"));
+
+        // then
+        assertThat(notFound1.errors).isEqualTo(listener.NOT_FOUND_API_ERRORS);
+        assertThat(notFound2.errors).isEqualTo(listener.NOT_FOUND_API_ERRORS);
+        assertThat(notAllowed.errors).isEqualTo(listener.METHOD_NOT_ALLOWED_API_ERRORS);
+    }
+
     @Test
     public void shouldHandleMethodNotAllowed405Exception() {
         verifyExceptionHandled(new MethodNotAllowed405Exception("intentional boom", null, null), singletonError(testProjectApiErrors.getMethodNotAllowedApiError()));
@@ -0,0 +1,346 @@
+package com.nike.riposte.client.dns;
+
+import com.nike.riposte.client.dns.CachingHostnameResolver.NameService;
+
+import com.tngtech.java.junit.dataprovider.DataProvider;
+import com.tngtech.java.junit.dataprovider.DataProviderRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * Tests the functionality of {@link CachingHostnameResolver}.
+ */
+@RunWith(DataProviderRunner.class)
+public class CachingHostnameResolverTest {
+
+    private static final long TTL_MILLIS = 1000;
+    private static final long NEGATIVE_TTL_MILLIS = 100;
+    private static final long MAX_STALE_MILLIS = 5000;
+
+    private StubNameService nameService;
+    private List<Runnable> queuedLookups;
+    private Executor queueingExecutor;
+    private AtomicLong currentTimeMillis;
+
+    @Before
+    public void beforeMethod() {
+        nameService = new StubNameService();
+        queuedLookups = new ArrayList<>();
+        queueingExecutor = queuedLookups::add;
+        currentTimeMillis = new AtomicLong(1000000);
+    }
+
+    private CachingHostnameResolver resolver(Executor executor, int maxCachedHosts) {
+        return new CachingHostnameResolver(
+            nameService, executor, TTL_MILLIS, NEGATIVE_TTL_MILLIS, MAX_STALE_MILLIS, 0.8, maxCachedHosts,
+            currentTimeMillis::get
+        );
+    }
+
+    private CachingHostnameResolver resolver(Executor executor) {
+        return resolver(executor, 100);
+    }
+
+    private void runQueuedLookups() {
+        List<Runnable> lookups = new ArrayList<>(queuedLookups);
+        queuedLookups.clear();
+        lookups.forEach(Runnable::run);
+    }
+
+    private static InetAddress address(int lastOctet) throws UnknownHostException {
+        return InetAddress.getByAddress(new byte[]{10, 0, 0, (byte) lastOctet});
+    }
+
+    private static class StubNameService implements NameService {
+        final Map<String, InetAddress[]> hosts = new HashMap<>();
+        final AtomicInteger lookupCount = new AtomicInteger();
+
+        @Override
+        public InetAddress[] lookupAllHostAddresses(String hostname) throws UnknownHostException {
+            lookupCount.incrementAndGet();
+            InetAddress[] result = hosts.get(hostname);
+            if (result == null)
+                throw new UnknownHostException("stub does not know about host: " + hostname);
+
+            return result;
+        }
+    }
+
+    @Test
+    public void resolveAll_looks_up_on_cache_miss_and_serves_from_cache_afterward() throws Exception {
+        // given
+        InetAddress[] addresses = {address(1), address(2)};
+        nameService.hosts.put("foo", addresses);
+        CachingHostnameResolver resolver = resolver(queueingExecutor);
+
+        // when
+        CompletableFuture<InetAddress[]> missFuture = resolver.resolveAll("foo");
+
+        // then
+        assertThat(missFuture).isNotDone();
+        runQueuedLookups();
+        assertThat(missFuture.get()).isSameAs(addresses);
+
+        // and when
+        CompletableFuture<InetAddress[]> hitFuture = resolver.resolveAll("foo");
+
+        // then
+        assertThat(hitFuture.isDone()).isTrue();
+        assertThat(hitFuture.get()).isSameAs(addresses);
+        assertThat(queuedLookups).isEmpty();
+        assertThat(nameService.lookupCount.get()).isEqualTo(1);
+        assertThat(resolver.getCacheMissCount()).isEqualTo(1);
+        assertThat(resolver.getCacheHitCount()).isEqualTo(1);
+        assertThat(resolver.getCacheHitRatio()).isEqualTo(0.5);
+        assertThat(resolver.getNameServiceLookupCount()).isEqualTo(1);
+        assertThat(resolver.getCachedHostCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void resolveAll_shares_a_single_lookup_between_concurrent_misses_for_the_same_host() throws Exception {
+        // given
+        nameService.hosts.put("foo", new InetAddress[]{address(1)});
+        CachingHostnameResolver resolver = resolver(queueingExecutor);
+
+        // when
+        CompletableFuture<InetAddress[]> first = resolver.resolveAll("foo");
+        CompletableFuture<InetAddress[]> second = resolver.resolveAll("foo");
+
+        // then
+        assertThat(second).isSameAs(first);
+        assertThat(queuedLookups).hasSize(1);
+        runQueuedLookups();
+        assertThat(nameService.lookupCount.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void resolveAll_refreshes_in_the_background_when_a_fresh_entry_is_close_to_expiring() throws Exception {
+        // given
+        InetAddress[] original = {address(1)};
+        InetAddress[] refreshed = {address(2)};
+        nameService.hosts.put("foo", original);
+        CachingHostnameResolver resolver = resolver(queueingExecutor);
+        resolver.resolveAll("foo");
+        runQueuedLookups();
+        nameService.hosts.put("foo", refreshed);
+        currentTimeMillis.addAndGet((long) (TTL_MILLIS * 0.9));
+
+        // when
+        CompletableFuture<InetAddress[]> result = resolver.resolveAll("foo");
+
+        // then
+        assertThat(result.getNow(null)).isSameAs(original);
+        assertThat(queuedLookups).hasSize(1);
+        runQueuedLookups();
+        assertThat(resolver.resolveAll("foo").getNow(null)).isSameAs(refreshed);
+        assertThat(resolver.getCacheMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void resolveAll_serves_stale_addresses_while_refreshing_an_expired_entry() throws Exception {
+        // given
+        InetAddress[] original = {address(1)};
+        InetAddress[] refreshed = {address(2)};
+        nameService.hosts.put("foo", original);
+        CachingHostnameResolver resolver = resolver(queueingExecutor);
+        resolver.resolveAll("foo");
+        runQueuedLookups();
+        nameService.hosts.put("foo", refreshed);
+        currentTimeMillis.addAndGet(TTL_MILLIS + 1);
+
+        // when
+        CompletableFuture<InetAddress[]> result = resolver.resolveAll("foo");
+
+        // then
+        assertThat(result.getNow(null)).isSameAs(original);
+        assertThat(resolver.getStaleHitCount()).isEqualTo(1);
+        runQueuedLookups();
+        assertThat(resolver.resolveAll("foo").getNow(null)).isSameAs(refreshed);
+    }
+
+    @Test
+    public void resolveAll_treats_entries_past_the_max_stale_window_as_misses() throws Exception {
+        // given
+        nameService.hosts.put("foo", new InetAddress[]{address(1)});
+        CachingHostnameResolver resolver = resolver(queueingExecutor);
+        resolver.resolveAll("foo");
+        runQueuedLookups();
+        currentTimeMillis.addAndGet(TTL_MILLIS + MAX_STALE_MILLIS);
+
+        // when
+        CompletableFuture<InetAddress[]> result = resolver.resolveAll("foo");
+
+        // then
+        assertThat(result).isNotDone();
+        assertThat(resolver.getCacheMissCount()).isEqualTo(2);
+        assertThat(resolver.getStaleHitCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void resolveAll_caches_failures_for_the_negative_ttl() {
+        // given
+        CachingHostnameResolver resolver = resolver(Runnable::run);
+
+        // when
+        CompletableFuture<InetAddress[]> first = resolver.resolveAll("nope");
+        CompletableFuture<InetAddress[]> second = resolver.resolveAll("nope");
+
+        // then
+        assertThat(first).isCompletedExceptionally();
+        assertThat(second).isCompletedExceptionally();
+        assertThat(catchThrowable(second::join)).hasCauseInstanceOf(UnknownHostException.class);
+        assertThat(nameService.lookupCount.get()).isEqualTo(1);
+        assertThat(resolver.getNegativeHitCount()).isEqualTo(1);
+        assertThat(resolver.getNameServiceLookupFailureCount()).isEqualTo(1);
+
+        // and when
+        currentTimeMillis.addAndGet(NEGATIVE_TTL_MILLIS);
+        resolver.resolveAll("nope");
+
+        // then
+        assertThat(nameService.lookupCount.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void resolveAll_keeps_serving_stale_addresses_when_a_refresh_fails() throws Exception {
+        // given
+        InetAddress[] original = {address(1)};
+        nameService.hosts.put("foo", original);
+        CachingHostnameResolver resolver = resolver(Runnable::run);
+        resolver.resolveAll("foo");
+        nameService.hosts.remove("foo");
+        currentTimeMillis.addAndGet(TTL_MILLIS + 1);
+
+        // when
+        CompletableFuture<InetAddress[]> staleResult = resolver.resolveAll("foo");
+        CompletableFuture<InetAddress[]> resultAfterFailedRefresh = resolver.resolveAll("foo");
+
+        // then
+        assertThat(staleResult.get()).isSameAs(original);
+        assertThat(resultAfterFailedRefresh.get()).isSameAs(original);
+        assertThat(resolver.getStaleServedOnErrorCount()).isEqualTo(1);
+        assertThat(nameService.lookupCount.get()).isEqualTo(2);
+
+        // and when
+        currentTimeMillis.addAndGet(NEGATIVE_TTL_MILLIS);
+        resolver.resolveAll("foo");
+
+        // then
+        assertThat(nameService.lookupCount.get()).isEqualTo(3);
+    }
+
+    @Test
+    public void resolveAllBlocking_returns_addresses_or_throws_UnknownHostException() throws Exception {
+        // given
+        InetAddress[] addresses = {address(1)};
+        nameService.hosts.put("foo", addresses);
+        CachingHostnameResolver resolver = resolver(Runnable::run);
+
+        // expect
+        assertThat(resolver.resolveAllBlocking("foo")).isSameAs(addresses);
+        assertThat(catchThrowable(() -> resolver.resolveAllBlocking("nope")))
+            .isInstanceOf(UnknownHostException.class)
+            .hasMessageContaining("nope");
+    }
+
+    @Test
+    public void resolveAll_fails_the_lookup_if_the_executor_rejects_it() {
+        // given
+        RejectedExecutionException rejection = new RejectedExecutionException("full");
+        CachingHostnameResolver resolver = resolver(task -> { throw rejection; });
+
+        // when
+        CompletableFuture<InetAddress[]> result = resolver.resolveAll("foo");
+
+        // then
+        Throwable ex = catchThrowable(result::join);
+        assertThat(ex).hasCauseInstanceOf(UnknownHostException.class);
+        assertThat(ex.getCause().getCause()).isSameAs(rejection);
+        assertThat(resolver.inFlightLookups).isEmpty();
+    }
+
+    @Test
+    public void resolveAll_does_not_cache_new_hosts_when_the_cache_is_full_of_live_entries() throws Exception {
+        // given
+        nameService.hosts.put("foo", new InetAddress[]{address(1)});
+        nameService.hosts.put("bar", new InetAddress[]{address(2)});
+        CachingHostnameResolver resolver = resolver(Runnable::run, 1);
+        resolver.resolveAll("foo");
+
+        // when
+        CompletableFuture<InetAddress[]> result = resolver.resolveAll("bar");
+
+        // then
+        assertThat(result.get()).containsExactly(address(2));
+        assertThat(resolver.cache.keySet()).containsExactly("foo");
+
+        // and when
+        currentTimeMillis.addAndGet(TTL_MILLIS + MAX_STALE_MILLIS);
+        resolver.resolveAll("bar");
+
+        // then
+        assertThat(resolver.cache.keySet()).containsExactly("bar");
+    }
+
+    @DataProvider(value = {
+        "true   |   false   |   1000    |   0   |   0",
+        "false  |   true    |   1000    |   0   |   0",
+        "false  |   false   |   0       |   0   |   0",
+        "false  |   false   |   1000    |   -1  |   0",
+        "false  |   false   |   1000    |   0   |   -1"
+    }, splitBy = "\\|")
+    @Test
+    public void constructor_throws_IllegalArgumentException_for_invalid_args(
+        boolean nullNameService, boolean nullExecutor, long ttlMillis, long negativeTtlMillis, long maxStaleMillis
+    ) {
+        // when
+        Throwable ex = catchThrowable(() -> new CachingHostnameResolver(
+            (nullNameService) ? null : nameService, (nullExecutor) ? null : queueingExecutor, ttlMillis,
+            negativeTtlMillis, maxStaleMillis
+        ));
+
+        // then
+        assertThat(ex).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void getDefaultInstance_returns_the_same_shared_instance() {
+        // expect
+        assertThat(CachingHostnameResolver.getDefaultInstance())
+            .isNotNull()
+            .isSameAs(CachingHostnameResolver.getDefaultInstance());
+        assertThat(CachingHostnameResolver.getDefaultInstance().nameService).isSameAs(NameService.SYSTEM);
+    }
+
+    @Test
+    public void getDefaultInstance_uses_a_bounded_resolution_executor() {
+        // when
+        Executor executor = CachingHostnameResolver.getDefaultInstance().resolutionExecutor;
+
+        // then
+        assertThat(executor).isInstanceOf(ThreadPoolExecutor.class);
+        ThreadPoolExecutor threadPool = (ThreadPoolExecutor) executor;
+        assertThat(threadPool.getMaximumPoolSize())
+            .isEqualTo(CachingHostnameResolver.DEFAULT_RESOLUTION_EXECUTOR_THREADS);
+        assertThat(threadPool.getQueue().remainingCapacity() + threadPool.getQueue().size())
+            .isEqualTo(CachingHostnameResolver.DEFAULT_RESOLUTION_EXECUTOR_QUEUE_SIZE);
+    }
+}
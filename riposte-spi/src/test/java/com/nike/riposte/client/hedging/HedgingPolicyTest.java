@@ -0,0 +1,219 @@
+package com.nike.riposte.client.hedging;
+
+import com.tngtech.java.junit.dataprovider.DataProvider;
+import com.tngtech.java.junit.dataprovider.DataProviderRunner;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * Tests the functionality of {@link HedgingPolicy}.
+ */
+@RunWith(DataProviderRunner.class)
+public class HedgingPolicyTest {
+
+    private static final String HOST_KEY = "foo.com:8080";
+
+    @Test
+    public void builder_uses_defaults() {
+        // when
+        HedgingPolicy policy = HedgingPolicy.newBuilder().build();
+
+        // then
+        assertThat(policy.hedgeDelayPercentile).isEqualTo(HedgingPolicy.DEFAULT_HEDGE_DELAY_PERCENTILE);
+        assertThat(policy.minHedgeDelayMillis).isEqualTo(HedgingPolicy.DEFAULT_MIN_HEDGE_DELAY_MILLIS);
+        assertThat(policy.maxHedgeDelayMillis).isEqualTo(HedgingPolicy.DEFAULT_MAX_HEDGE_DELAY_MILLIS);
+        assertThat(policy.minSamplesForPercentile).isEqualTo(HedgingPolicy.DEFAULT_MIN_SAMPLES_FOR_PERCENTILE);
+        assertThat(policy.latencyWindowMillis).isEqualTo(HedgingPolicy.DEFAULT_LATENCY_WINDOW_MILLIS);
+        assertThat(policy.budgetPercent).isEqualTo(HedgingPolicy.DEFAULT_BUDGET_PERCENT);
+        assertThat(policy.maxBudgetBurst).isEqualTo(HedgingPolicy.DEFAULT_MAX_BUDGET_BURST);
+    }
+
+    @DataProvider(value = {
+        "0      |   10  |   100 |   0   |   1000    |   5   |   1",
+        "100    |   10  |   100 |   0   |   1000    |   5   |   1",
+        "95     |   -1  |   100 |   0   |   1000    |   5   |   1",
+        "95     |   10  |   9   |   0   |   1000    |   5   |   1",
+        "95     |   10  |   100 |   -1  |   1000    |   5   |   1",
+        "95     |   10  |   100 |   0   |   0       |   5   |   1",
+        "95     |   10  |   100 |   0   |   1000    |   -1  |   1",
+        "95     |   10  |   100 |   0   |   1000    |   101 |   1",
+        "95     |   10  |   100 |   0   |   1000    |   5   |   0"
+    }, splitBy = "\\|")
+    @Test
+    public void constructor_throws_IllegalArgumentException_for_invalid_args(
+        double percentile, long minDelay, long maxDelay, int minSamples, long window, double budgetPercent, int burst
+    ) {
+        // when
+        Throwable ex = catchThrowable(
+            () -> new HedgingPolicy(percentile, minDelay, maxDelay, minSamples, window, budgetPercent, burst)
+        );
+
+        // then
+        assertThat(ex).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @DataProvider(value = {
+        "GET        |   true",
+        "get        |   true",
+        "HEAD       |   true",
+        "OPTIONS    |   true",
+        "PUT        |   true",
+        "DELETE     |   true",
+        "TRACE      |   true",
+        "POST       |   false",
+        "PATCH      |   false",
+        "null       |   false"
+    }, splitBy = "\\|")
+    @Test
+    public void isHedgeableHttpMethod_only_allows_idempotent_methods(String method, boolean expected) {
+        // expect
+        assertThat(HedgingPolicy.newBuilder().build().isHedgeableHttpMethod(method)).isEqualTo(expected);
+    }
+
+    @Test
+    public void budget_starts_empty_and_earns_budgetPercent_of_a_hedge_per_call() {
+        // given
+        HedgingPolicy policy = HedgingPolicy.newBuilder().withBudgetPercent(10).build();
+
+        // expect
+        assertThat(policy.tryAcquireHedge()).isFalse();
+
+        // and when
+        for (int i = 0; i < 9; i++) {
+            policy.onEligibleCallStarted();
+        }
+
+        // then
+        assertThat(policy.tryAcquireHedge()).isFalse();
+
+        // and when
+        policy.onEligibleCallStarted();
+
+        // then
+        assertThat(policy.tryAcquireHedge()).isTrue();
+        assertThat(policy.tryAcquireHedge()).isFalse();
+        assertThat(policy.getEligibleCallCount()).isEqualTo(10);
+        assertThat(policy.getHedgeCount()).isEqualTo(1);
+        assertThat(policy.getBudgetExhaustedCount()).isEqualTo(3);
+        assertThat(policy.getHedgeRate()).isEqualTo(0.1);
+    }
+
+    @Test
+    public void budget_is_capped_at_maxBudgetBurst() {
+        // given
+        HedgingPolicy policy = HedgingPolicy.newBuilder().withBudgetPercent(100).withMaxBudgetBurst(2).build();
+        for (int i = 0; i < 10; i++) {
+            policy.onEligibleCallStarted();
+        }
+
+        // expect
+        assertThat(policy.tryAcquireHedge()).isTrue();
+        assertThat(policy.tryAcquireHedge()).isTrue();
+        assertThat(policy.tryAcquireHedge()).isFalse();
+    }
+
+    @Test
+    public void onHedgeWon_counts_wins() {
+        // given
+        HedgingPolicy policy = HedgingPolicy.newBuilder().build();
+
+        // when
+        policy.onHedgeWon();
+        policy.onHedgeWon();
+
+        // then
+        assertThat(policy.getHedgeWinCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void getHedgeDelayMillis_uses_max_delay_until_there_are_enough_samples() {
+        // given
+        HedgingPolicy policy = HedgingPolicy.newBuilder()
+                                            .withMinSamplesForPercentile(10)
+                                            .withMaxHedgeDelayMillis(500)
+                                            .build();
+
+        // expect
+        assertThat(policy.getHedgeDelayMillis(HOST_KEY)).isEqualTo(500);
+
+        // and when
+        for (int i = 0; i < 9; i++) {
+            policy.recordLatency(HOST_KEY, TimeUnit.MILLISECONDS.toNanos(20));
+        }
+
+        // then
+        assertThat(policy.getHedgeDelayMillis(HOST_KEY)).isEqualTo(500);
+    }
+
+    @Test
+    public void getHedgeDelayMillis_returns_the_percentile_latency_for_the_host() {
+        // given
+        HedgingPolicy policy = HedgingPolicy.newBuilder()
+                                            .withHedgeDelayPercentile(90)
+                                            .withMinSamplesForPercentile(10)
+                                            .withMinHedgeDelayMillis(1)
+                                            .withMaxHedgeDelayMillis(5000)
+                                            .build();
+        for (int i = 0; i < 90; i++) {
+            policy.recordLatency(HOST_KEY, TimeUnit.MILLISECONDS.toNanos(20));
+        }
+        for (int i = 0; i < 10; i++) {
+            policy.recordLatency(HOST_KEY, TimeUnit.MILLISECONDS.toNanos(1000));
+        }
+
+        // when
+        long delay = policy.getHedgeDelayMillis(HOST_KEY);
+
+        // then
+        // The buckets are about 19% wide, so the percentile is the upper bound of the bucket holding 20ms.
+        assertThat(delay).isBetween(20L, 24L);
+        assertThat(policy.getHedgeDelayMillis("other.com:8080")).isEqualTo(5000);
+    }
+
+    @DataProvider(value = {
+        "1      |   50  |   50",
+        "5000   |   50  |   100"
+    }, splitBy = "\\|")
+    @Test
+    public void getHedgeDelayMillis_is_clamped_between_min_and_max(long latencyMillis, long minDelay, long maxDelay) {
+        // given
+        HedgingPolicy policy = HedgingPolicy.newBuilder()
+                                            .withMinSamplesForPercentile(1)
+                                            .withMinHedgeDelayMillis(minDelay)
+                                            .withMaxHedgeDelayMillis(maxDelay)
+                                            .build();
+        policy.recordLatency(HOST_KEY, TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+
+        // when
+        long delay = policy.getHedgeDelayMillis(HOST_KEY);
+
+        // then
+        assertThat(delay).isBetween(minDelay, maxDelay);
+        assertThat(delay).isEqualTo((latencyMillis < minDelay) ? minDelay : maxDelay);
+    }
+
+    @Test
+    public void latency_samples_expire_after_two_windows() throws InterruptedException {
+        // given
+        HedgingPolicy policy = HedgingPolicy.newBuilder()
+                                            .withMinSamplesForPercentile(1)
+                                            .withMinHedgeDelayMillis(1)
+                                            .withMaxHedgeDelayMillis(5000)
+                                            .withLatencyWindowMillis(50)
+                                            .build();
+        policy.recordLatency(HOST_KEY, TimeUnit.MILLISECONDS.toNanos(20));
+        assertThat(policy.getHedgeDelayMillis(HOST_KEY)).isLessThan(5000);
+
+        // when
+        Thread.sleep(150);
+
+        // then
+        assertThat(policy.getHedgeDelayMillis(HOST_KEY)).isEqualTo(5000);
+    }
+}
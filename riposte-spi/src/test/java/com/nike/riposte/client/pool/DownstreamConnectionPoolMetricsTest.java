@@ -0,0 +1,141 @@
+package com.nike.riposte.client.pool;
+
+import com.nike.riposte.client.pool.DownstreamConnectionPoolMetrics.EjectionStats;
+import com.nike.riposte.client.pool.DownstreamConnectionPoolMetrics.PoolStats;
+
+import com.tngtech.java.junit.dataprovider.DataProviderRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests the functionality of {@link DownstreamConnectionPoolMetrics}.
+ */
+@RunWith(DataProviderRunner.class)
+public class DownstreamConnectionPoolMetricsTest {
+
+    private DownstreamConnectionPoolMetrics metrics;
+
+    @Before
+    public void beforeMethod() {
+        metrics = new DownstreamConnectionPoolMetrics();
+    }
+
+    private PoolStats poolStats(int active, int idle, int pending, long acquires, long acquireNanos, long maxAcquire,
+                                long connects, long connectNanos) {
+        PoolStats pool = mock(PoolStats.class);
+        doReturn(active).when(pool).getActiveConnectionCount();
+        doReturn(idle).when(pool).getIdleConnectionCount();
+        doReturn(pending).when(pool).getPendingAcquireCount();
+        doReturn(acquires).when(pool).getAcquireCount();
+        doReturn(1L).when(pool).getAcquireFailureCount();
+        doReturn(acquireNanos).when(pool).getTotalAcquireNanos();
+        doReturn(maxAcquire).when(pool).getMaxAcquireNanos();
+        doReturn(connects).when(pool).getConnectCount();
+        doReturn(2L).when(pool).getConnectFailureCount();
+        doReturn(connectNanos).when(pool).getTotalConnectNanos();
+        doReturn(3L).when(pool).getMaxLifetimeEvictionCount();
+        return pool;
+    }
+
+    @Test
+    public void per_host_getters_aggregate_across_all_pools_for_the_host() {
+        // given
+        metrics.registerPool("foo:80", poolStats(1, 2, 3, 10, 1000, 500, 4, 400));
+        metrics.registerPool("foo:80", poolStats(4, 5, 6, 30, 3000, 700, 0, 0));
+        metrics.registerPool("bar:80", poolStats(100, 100, 100, 100, 100, 100, 100, 100));
+
+        // expect
+        assertThat(metrics.getActiveConnectionCount("foo:80")).isEqualTo(5);
+        assertThat(metrics.getIdleConnectionCount("foo:80")).isEqualTo(7);
+        assertThat(metrics.getPendingAcquireCount("foo:80")).isEqualTo(9);
+        assertThat(metrics.getAcquireFailureCount("foo:80")).isEqualTo(2);
+        assertThat(metrics.getAverageAcquireNanos("foo:80")).isEqualTo(100);
+        assertThat(metrics.getMaxAcquireNanos("foo:80")).isEqualTo(700);
+        assertThat(metrics.getConnectFailureCount("foo:80")).isEqualTo(4);
+        assertThat(metrics.getAverageConnectNanos("foo:80")).isEqualTo(100);
+        assertThat(metrics.getMaxLifetimeEvictionCount("foo:80")).isEqualTo(6);
+    }
+
+    @Test
+    public void per_host_getters_return_zero_for_unknown_hosts() {
+        // expect
+        assertThat(metrics.getActiveConnectionCount("nope:80")).isEqualTo(0);
+        assertThat(metrics.getAverageAcquireNanos("nope:80")).isEqualTo(0);
+        assertThat(metrics.getMaxAcquireNanos("nope:80")).isEqualTo(0);
+        assertThat(metrics.getAverageConnectNanos("nope:80")).isEqualTo(0);
+        assertThat(metrics.getEjectedAddressCount("nope:80")).isEqualTo(0);
+        assertThat(metrics.getEjectionCount("nope:80")).isEqualTo(0);
+    }
+
+    @Test
+    public void ejection_getters_aggregate_across_all_ejection_stats_for_the_host_without_notifying_listeners() {
+        // given
+        List<String> notifiedHosts = new ArrayList<>();
+        metrics.addNewHostListener(notifiedHosts::add);
+        EjectionStats first = mock(EjectionStats.class);
+        doReturn(1).when(first).getEjectedAddressCount();
+        doReturn(4L).when(first).getEjectionCount();
+        EjectionStats second = mock(EjectionStats.class);
+        doReturn(2).when(second).getEjectedAddressCount();
+        doReturn(5L).when(second).getEjectionCount();
+
+        // when
+        metrics.registerEjectionStats("foo:80", first);
+        metrics.registerEjectionStats("foo:80", second);
+
+        // then
+        assertThat(metrics.getEjectedAddressCount("foo:80")).isEqualTo(3);
+        assertThat(metrics.getEjectionCount("foo:80")).isEqualTo(9);
+        assertThat(notifiedHosts).isEmpty();
+    }
+
+    @Test
+    public void new_host_listeners_are_notified_once_per_host_including_hosts_registered_before_the_listener() {
+        // given
+        List<String> notifiedHosts = new ArrayList<>();
+        metrics.registerPool("foo:80", mock(PoolStats.class));
+
+        // when
+        metrics.addNewHostListener(notifiedHosts::add);
+        metrics.registerPool("foo:80", mock(PoolStats.class));
+        metrics.registerPool("bar:80", mock(PoolStats.class));
+        metrics.registerPool("bar:80", mock(PoolStats.class));
+
+        // then
+        assertThat(notifiedHosts).containsExactly("foo:80", "bar:80");
+        assertThat(metrics.getHosts()).containsOnly("foo:80", "bar:80");
+    }
+
+    @Test
+    public void registerPool_and_addNewHostListener_throw_IllegalArgumentException_for_null_args() {
+        // expect
+        assertThat(catchThrowable(() -> metrics.registerPool(null, mock(PoolStats.class))))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThat(catchThrowable(() -> metrics.registerPool("foo:80", null)))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThat(catchThrowable(() -> metrics.addNewHostListener(null)))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThat(catchThrowable(() -> metrics.registerEjectionStats(null, mock(EjectionStats.class))))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThat(catchThrowable(() -> metrics.registerEjectionStats("foo:80", null)))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void getDefaultInstance_returns_the_same_shared_instance() {
+        // expect
+        assertThat(DownstreamConnectionPoolMetrics.getDefaultInstance())
+            .isNotNull()
+            .isSameAs(DownstreamConnectionPoolMetrics.getDefaultInstance());
+    }
+}
@@ -0,0 +1,64 @@
+package com.nike.riposte.client.pool;
+
+import com.tngtech.java.junit.dataprovider.DataProvider;
+import com.tngtech.java.junit.dataprovider.DataProviderRunner;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * Tests the functionality of {@link DownstreamWarmupTarget}.
+ */
+@RunWith(DataProviderRunner.class)
+public class DownstreamWarmupTargetTest {
+
+    @DataProvider(value = {
+        "true   |   true",
+        "true   |   false",
+        "false  |   true",
+        "false  |   false"
+    }, splitBy = "\\|")
+    @Test
+    public void constructor_sets_fields_as_expected(boolean isHttps, boolean relaxedHttpsValidation) {
+        // when
+        DownstreamWarmupTarget target = new DownstreamWarmupTarget("foo", 8443, isHttps, relaxedHttpsValidation, 3);
+
+        // then
+        assertThat(target.host).isEqualTo("foo");
+        assertThat(target.port).isEqualTo(8443);
+        assertThat(target.isHttps).isEqualTo(isHttps);
+        assertThat(target.relaxedHttpsValidation).isEqualTo(relaxedHttpsValidation);
+        assertThat(target.minWarmConnections).isEqualTo(3);
+    }
+
+    @Test
+    public void short_constructor_defaults_relaxedHttpsValidation_to_false() {
+        // when
+        DownstreamWarmupTarget target = new DownstreamWarmupTarget("foo", 443, true, 1);
+
+        // then
+        assertThat(target.relaxedHttpsValidation).isFalse();
+        assertThat(target.isHttps).isTrue();
+    }
+
+    @DataProvider(value = {
+        "null   |   80      |   1",
+        "       |   80      |   1",
+        "foo    |   0       |   1",
+        "foo    |   65536   |   1",
+        "foo    |   80      |   0",
+        "foo    |   80      |   -1"
+    }, splitBy = "\\|")
+    @Test
+    public void constructor_throws_IllegalArgumentException_for_invalid_args(String host, int port,
+                                                                              int minWarmConnections) {
+        // when
+        Throwable ex = catchThrowable(() -> new DownstreamWarmupTarget(host, port, false, minWarmConnections));
+
+        // then
+        assertThat(ex).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,148 @@
+package com.nike.riposte.client.retry;
+
+import com.tngtech.java.junit.dataprovider.DataProvider;
+import com.tngtech.java.junit.dataprovider.DataProviderRunner;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * Tests the functionality of {@link RetryPolicy}.
+ */
+@RunWith(DataProviderRunner.class)
+public class RetryPolicyTest {
+
+    @Test
+    public void builder_uses_defaults() {
+        // when
+        RetryPolicy policy = RetryPolicy.newBuilder().build();
+
+        // then
+        assertThat(policy.maxRetries).isEqualTo(RetryPolicy.DEFAULT_MAX_RETRIES);
+        assertThat(policy.baseBackoffMillis).isEqualTo(RetryPolicy.DEFAULT_BASE_BACKOFF_MILLIS);
+        assertThat(policy.maxBackoffMillis).isEqualTo(RetryPolicy.DEFAULT_MAX_BACKOFF_MILLIS);
+        assertThat(policy.budgetPercent).isEqualTo(RetryPolicy.DEFAULT_BUDGET_PERCENT);
+        assertThat(policy.maxBudgetBurst).isEqualTo(RetryPolicy.DEFAULT_MAX_BUDGET_BURST);
+    }
+
+    @DataProvider(value = {
+        "-1 |   10  |   100 |   10  |   1",
+        "2  |   -1  |   100 |   10  |   1",
+        "2  |   10  |   9   |   10  |   1",
+        "2  |   10  |   100 |   -1  |   1",
+        "2  |   10  |   100 |   101 |   1",
+        "2  |   10  |   100 |   10  |   0"
+    }, splitBy = "\\|")
+    @Test
+    public void constructor_throws_IllegalArgumentException_for_invalid_args(
+        int maxRetries, long baseBackoff, long maxBackoff, double budgetPercent, int burst
+    ) {
+        // when
+        Throwable ex = catchThrowable(() -> new RetryPolicy(maxRetries, baseBackoff, maxBackoff, budgetPercent, burst));
+
+        // then
+        assertThat(ex).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @DataProvider(value = {
+        "GET        |   true",
+        "put        |   true",
+        "DELETE     |   true",
+        "POST       |   false",
+        "PATCH      |   false",
+        "null       |   false"
+    }, splitBy = "\\|")
+    @Test
+    public void isIdempotentHttpMethod_works_as_expected(String method, boolean expected) {
+        // expect
+        assertThat(RetryPolicy.newBuilder().build().isIdempotentHttpMethod(method)).isEqualTo(expected);
+    }
+
+    @Test
+    public void budget_starts_full_and_refills_at_budgetPercent_of_a_retry_per_call() {
+        // given
+        RetryPolicy policy = RetryPolicy.newBuilder().withBudgetPercent(50).withMaxBudgetBurst(2).build();
+
+        // expect
+        assertThat(policy.tryAcquireRetry(1)).isTrue();
+        assertThat(policy.tryAcquireRetry(1)).isTrue();
+        assertThat(policy.tryAcquireRetry(1)).isFalse();
+
+        // and when
+        policy.onCallStarted();
+
+        // then
+        assertThat(policy.tryAcquireRetry(1)).isFalse();
+
+        // and when
+        policy.onCallStarted();
+
+        // then
+        assertThat(policy.tryAcquireRetry(1)).isTrue();
+        assertThat(policy.getCallCount()).isEqualTo(2);
+        assertThat(policy.getRetryCount()).isEqualTo(3);
+        assertThat(policy.getBudgetExhaustedCount()).isEqualTo(2);
+        assertThat(policy.getRetryRate()).isEqualTo(1.5);
+    }
+
+    @Test
+    public void budget_is_capped_at_maxBudgetBurst() {
+        // given
+        RetryPolicy policy = RetryPolicy.newBuilder().withBudgetPercent(100).withMaxBudgetBurst(1).build();
+        for (int i = 0; i < 10; i++) {
+            policy.onCallStarted();
+        }
+
+        // expect
+        assertThat(policy.tryAcquireRetry(1)).isTrue();
+        assertThat(policy.tryAcquireRetry(1)).isFalse();
+    }
+
+    @Test
+    public void tryAcquireRetry_refuses_retries_past_maxRetries_without_spending_budget() {
+        // given
+        RetryPolicy policy = RetryPolicy.newBuilder().withMaxRetries(1).build();
+
+        // expect
+        assertThat(policy.tryAcquireRetry(2)).isFalse();
+        assertThat(policy.getRetryCount()).isEqualTo(0);
+        assertThat(policy.getBudgetExhaustedCount()).isEqualTo(0);
+        assertThat(policy.tryAcquireRetry(1)).isTrue();
+    }
+
+    @DataProvider(value = {
+        "1  |   10",
+        "2  |   20",
+        "3  |   40",
+        "4  |   50",
+        "50 |   50"
+    }, splitBy = "\\|")
+    @Test
+    public void computeBackoffMillis_is_jittered_below_a_doubling_cap(int retryNumber, long expectedCap) {
+        // given
+        RetryPolicy policy = RetryPolicy.newBuilder().withBaseBackoffMillis(10).withMaxBackoffMillis(50).build();
+        long maxSeen = 0;
+
+        // when
+        for (int i = 0; i < 1000; i++) {
+            long backoff = policy.computeBackoffMillis(retryNumber);
+
+            // then
+            assertThat(backoff).isBetween(0L, expectedCap);
+            maxSeen = Math.max(maxSeen, backoff);
+        }
+        assertThat(maxSeen).isGreaterThan(expectedCap / 2);
+    }
+
+    @Test
+    public void computeBackoffMillis_returns_0_when_backoff_is_disabled() {
+        // given
+        RetryPolicy policy = RetryPolicy.newBuilder().withBaseBackoffMillis(0).withMaxBackoffMillis(0).build();
+
+        // expect
+        assertThat(policy.computeBackoffMillis(3)).isEqualTo(0);
+    }
+}
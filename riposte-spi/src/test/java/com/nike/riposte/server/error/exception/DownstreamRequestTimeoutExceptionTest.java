@@ -0,0 +1,25 @@
+package com.nike.riposte.server.error.exception;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Tests the functionality of {@link DownstreamRequestTimeoutException}
+ */
+public class DownstreamRequestTimeoutExceptionTest {
+
+    @Test
+    public void should_honor_constructor_params() {
+        //given
+        long value = 42;
+
+        //when
+        DownstreamRequestTimeoutException ex = new DownstreamRequestTimeoutException(value);
+
+        //then
+        assertThat(ex.timeoutValueMillis, is(value));
+    }
+
+}
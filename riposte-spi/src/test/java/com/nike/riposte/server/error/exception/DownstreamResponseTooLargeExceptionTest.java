@@ -0,0 +1,25 @@
+package com.nike.riposte.server.error.exception;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Tests the functionality of {@link DownstreamResponseTooLargeException}
+ */
+public class DownstreamResponseTooLargeExceptionTest {
+
+    @Test
+    public void should_honor_constructor_params() {
+        //given
+        long value = 42;
+
+        //when
+        DownstreamResponseTooLargeException ex = new DownstreamResponseTooLargeException(value);
+
+        //then
+        assertThat(ex.maxResponseSizeBytes, is(value));
+    }
+
+}
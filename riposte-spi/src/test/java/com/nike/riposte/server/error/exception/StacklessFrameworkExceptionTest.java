@@ -0,0 +1,67 @@
+package com.nike.riposte.server.error.exception;
+
+import com.tngtech.java.junit.dataprovider.DataProvider;
+import com.tngtech.java.junit.dataprovider.DataProviderRunner;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests the functionality of {@link StacklessFrameworkException}.
+ */
+@RunWith(DataProviderRunner.class)
+public class StacklessFrameworkExceptionTest {
+
+    private enum FrameworkExceptionScenario {
+        PATH_NOT_FOUND(() -> new PathNotFound404Exception("foo")),
+        METHOD_NOT_ALLOWED(() -> new MethodNotAllowed405Exception("foo", "/bar", "GET")),
+        REQUEST_TOO_BIG(() -> new RequestTooBigException("foo")),
+        INVALID_CHARSET(() -> new InvalidCharsetInContentTypeHeaderException("foo", null, "text/plain; charset=x")),
+        MISSING_REQUIRED_CONTENT(MissingRequiredContentException::new),
+        TOO_MANY_OPEN_CHANNELS(() -> new TooManyOpenChannelsException(2, 1));
+
+        public final Supplier<StacklessFrameworkException> exceptionSupplier;
+
+        FrameworkExceptionScenario(Supplier<StacklessFrameworkException> exceptionSupplier) {
+            this.exceptionSupplier = exceptionSupplier;
+        }
+    }
+
+    @DataProvider(value = {
+        "PATH_NOT_FOUND",
+        "METHOD_NOT_ALLOWED",
+        "REQUEST_TOO_BIG",
+        "INVALID_CHARSET",
+        "MISSING_REQUIRED_CONTENT",
+        "TOO_MANY_OPEN_CHANNELS"
+    })
+    @Test
+    public void framework_routing_and_validation_exceptions_are_stackless_by_default(
+        FrameworkExceptionScenario scenario
+    ) {
+        // when
+        StacklessFrameworkException ex = scenario.exceptionSupplier.get();
+
+        // then
+        assertThat(ex.getStackTrace()).isEmpty();
+    }
+
+    @Test
+    public void stack_trace_is_captured_when_isCaptureStackTrace_returns_true() {
+        // when
+        StacklessFrameworkException ex = new StacklessFrameworkException("foo") {
+            @Override
+            protected boolean isCaptureStackTrace() {
+                return true;
+            }
+        };
+
+        // then
+        assertThat(ex.getStackTrace()).isNotEmpty();
+        assertThat(ex.getMessage()).isEqualTo("foo");
+    }
+}
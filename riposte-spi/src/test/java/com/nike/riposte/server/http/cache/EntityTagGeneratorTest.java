@@ -0,0 +1,121 @@
+package com.nike.riposte.server.http.cache;
+
+import com.tngtech.java.junit.dataprovider.DataProvider;
+import com.tngtech.java.junit.dataprovider.DataProviderRunner;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * Tests the functionality of {@link EntityTagGenerator}.
+ */
+@RunWith(DataProviderRunner.class)
+public class EntityTagGeneratorTest {
+
+    private final EntityTagGenerator generator = new EntityTagGenerator();
+
+    @Test
+    public void generateEntityTag_returns_same_weak_tag_for_same_bytes_regardless_of_buffer_type() {
+        // given
+        String payload = "{\"some\":\"payload that is longer than eight bytes\"}";
+        ByteBuf heapBuf = Unpooled.copiedBuffer(payload, CharsetUtil.UTF_8);
+        ByteBuf directBuf = Unpooled.directBuffer().writeBytes(payload.getBytes(CharsetUtil.UTF_8));
+        CompositeByteBuf compositeBuf = Unpooled.compositeBuffer();
+        compositeBuf.addComponent(true, Unpooled.copiedBuffer(payload.substring(0, 5), CharsetUtil.UTF_8));
+        compositeBuf.addComponent(true, Unpooled.copiedBuffer(payload.substring(5), CharsetUtil.UTF_8));
+
+        // when
+        String heapTag = generator.generateEntityTag(heapBuf);
+        String directTag = generator.generateEntityTag(directBuf);
+        String compositeTag = generator.generateEntityTag(compositeBuf);
+
+        // then
+        assertThat(heapTag).startsWith("W/\"").endsWith("-" + Integer.toHexString(payload.length()) + "\"");
+        assertThat(directTag).isEqualTo(heapTag);
+        assertThat(compositeTag).isEqualTo(heapTag);
+        assertThat(heapBuf.readerIndex()).isEqualTo(0);
+        assertThat(heapBuf.readableBytes()).isEqualTo(payload.length());
+
+        heapBuf.release();
+        directBuf.release();
+        compositeBuf.release();
+    }
+
+    @DataProvider(value = {
+        "foo        |   fop",
+        "foo        |   foo1",
+        "123456789  |   123456788",
+        "abcdefgh   |   hgfedcba"
+    }, splitBy = "\\|")
+    @Test
+    public void generateEntityTag_returns_different_tags_for_different_bytes(String first, String second) {
+        // given
+        ByteBuf firstBuf = Unpooled.copiedBuffer(first, CharsetUtil.UTF_8);
+        ByteBuf secondBuf = Unpooled.copiedBuffer(second, CharsetUtil.UTF_8);
+
+        // expect
+        assertThat(generator.generateEntityTag(firstBuf)).isNotEqualTo(generator.generateEntityTag(secondBuf));
+
+        firstBuf.release();
+        secondBuf.release();
+    }
+
+    @Test
+    public void recordNotModifiedResponse_tracks_count_and_bytes_saved() {
+        // when
+        generator.recordNotModifiedResponse(100);
+        generator.recordNotModifiedResponse(0);
+        generator.recordNotModifiedResponse(42);
+
+        // then
+        assertThat(generator.getNotModifiedResponseCount()).isEqualTo(3);
+        assertThat(generator.getNotModifiedBytesSaved()).isEqualTo(142);
+    }
+
+    @DataProvider(value = {
+        "v42            |   \"v42\"",
+        "\"v42\"        |   \"v42\"",
+        "W/\"v42\"      |   W/\"v42\"",
+        "W/v42          |   \"W/v42\"",
+        "\"             |   null"
+    }, splitBy = "\\|")
+    @Test
+    public void toEntityTag_works_as_expected(String versionTag, String expectedResult) {
+        // when
+        Throwable ex = catchThrowable(() -> EntityTagGenerator.toEntityTag(versionTag));
+
+        // then
+        if (expectedResult == null)
+            assertThat(ex).isInstanceOf(IllegalArgumentException.class);
+        else
+            assertThat(EntityTagGenerator.toEntityTag(versionTag)).isEqualTo(expectedResult);
+    }
+
+    @DataProvider(value = {
+        "null                       |   \"foo\"     |   false",
+        "\"foo\"                    |   null        |   false",
+        "\"foo\"                    |   \"foo\"     |   true",
+        "W/\"foo\"                  |   \"foo\"     |   true",
+        "\"foo\"                    |   W/\"foo\"   |   true",
+        "\"bar\", W/\"foo\"         |   \"foo\"     |   true",
+        "\"bar\",\"baz\"            |   \"foo\"     |   false",
+        "\"a,b\", \"foo\"           |   \"foo\"     |   true",
+        "\"a,b\"                    |   \"a\"       |   false",
+        "*                          |   \"foo\"     |   true",
+        "\"foox\"                   |   \"foo\"     |   false",
+        "\"foo                      |   \"foo\"     |   false"
+    }, splitBy = "\\|")
+    @Test
+    public void isIfNoneMatchSatisfiedBy_works_as_expected(String ifNoneMatch, String entityTag, boolean expectedResult) {
+        // expect
+        assertThat(EntityTagGenerator.isIfNoneMatchSatisfiedBy(ifNoneMatch, entityTag)).isEqualTo(expectedResult);
+    }
+}
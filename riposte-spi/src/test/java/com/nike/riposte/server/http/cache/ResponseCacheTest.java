@@ -0,0 +1,495 @@
+package com.nike.riposte.server.http.cache;
+
+import com.nike.riposte.server.http.Endpoint;
+import com.nike.riposte.server.http.RequestInfo;
+import com.nike.riposte.server.http.ResponseInfo;
+
+import com.tngtech.java.junit.dataprovider.DataProvider;
+import com.tngtech.java.junit.dataprovider.DataProviderRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.GZIPInputStream;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.handler.codec.http.cookie.DefaultCookie;
+import io.netty.util.CharsetUtil;
+
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_ENCODING;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_LENGTH;
+import static io.netty.handler.codec.http.HttpHeaders.Names.SET_COOKIE;
+import static io.netty.handler.codec.http.HttpHeaders.Names.VARY;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests the functionality of {@link ResponseCache}
+ */
+@RunWith(DataProviderRunner.class)
+public class ResponseCacheTest {
+
+    private static final String PAYLOAD = repeat("some response payload ", 100);
+
+    private long nowMillis;
+    private ResponseCache cache;
+    private ResponseCachingOptions options;
+
+    @Before
+    public void beforeMethod() {
+        nowMillis = 1000;
+        cache = new ClockControlledResponseCache(100, 100_000);
+        options = new ResponseCachingOptions(5000, null, false);
+    }
+
+    private class ClockControlledResponseCache extends ResponseCache {
+        ClockControlledResponseCache(int maxEntries, long maxTotalBytes) {
+            // Compress gzip variants on the calling thread so they're ready as soon as put() returns.
+            this(maxEntries, maxTotalBytes, Runnable::run);
+        }
+
+        ClockControlledResponseCache(int maxEntries, long maxTotalBytes, Executor compressionExecutor) {
+            super(maxEntries, maxTotalBytes, compressionExecutor);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return nowMillis;
+        }
+    }
+
+    private static String repeat(String str, int times) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            sb.append(str);
+        }
+        return sb.toString();
+    }
+
+    private ResponseInfo<?> okResponse() {
+        return ResponseInfo.newBuilder()
+                           .withHttpStatusCode(200)
+                           .withDesiredContentWriterMimeType("text/plain")
+                           .withDesiredContentWriterEncoding(CharsetUtil.UTF_8)
+                           .build();
+    }
+
+    private ByteBuf body(String payload) {
+        return Unpooled.copiedBuffer(payload, CharsetUtil.UTF_8);
+    }
+
+    private RequestInfo<?> request(HttpMethod method, String uri, HttpHeaders headers) {
+        QueryStringDecoder decoder = new QueryStringDecoder(uri);
+        RequestInfo<?> requestInfo = mock(RequestInfo.class);
+        doReturn(method).when(requestInfo).getMethod();
+        doReturn(decoder.path()).when(requestInfo).getPath();
+        doReturn(decoder).when(requestInfo).getQueryParams();
+        doReturn(headers).when(requestInfo).getHeaders();
+        return requestInfo;
+    }
+
+    private static String gunzip(ByteBuf gzipped) throws IOException {
+        byte[] bytes = new byte[gzipped.readableBytes()];
+        gzipped.getBytes(gzipped.readerIndex(), bytes);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        return new String(out.toByteArray(), CharsetUtil.UTF_8);
+    }
+
+    @Test
+    public void generateCacheKey_ignores_query_param_order_and_treats_HEAD_like_GET() {
+        // given
+        Endpoint<?> endpoint = mock(Endpoint.class);
+        HttpHeaders headers = new DefaultHttpHeaders();
+
+        // when
+        String key1 = ResponseCache.generateCacheKey(endpoint, request(HttpMethod.GET, "/foo?a=1&b=2", headers), options);
+        String key2 = ResponseCache.generateCacheKey(endpoint, request(HttpMethod.HEAD, "/foo?b=2&a=1", headers), options);
+        String differentQuery =
+            ResponseCache.generateCacheKey(endpoint, request(HttpMethod.GET, "/foo?a=1&b=3", headers), options);
+        String differentPath =
+            ResponseCache.generateCacheKey(endpoint, request(HttpMethod.GET, "/bar?a=1&b=2", headers), options);
+
+        // then
+        assertThat(key1).isEqualTo(key2);
+        assertThat(differentQuery).isNotEqualTo(key1);
+        assertThat(differentPath).isNotEqualTo(key1);
+    }
+
+    @Test
+    public void generateCacheKey_includes_only_the_declared_vary_headers() {
+        // given
+        Endpoint<?> endpoint = mock(Endpoint.class);
+        ResponseCachingOptions varyOptions =
+            new ResponseCachingOptions(5000, Collections.singletonList("Accept-Language"), false);
+        HttpHeaders english = new DefaultHttpHeaders().set("Accept-Language", "en").set("X-Other", "1");
+        HttpHeaders englishOtherDifferent = new DefaultHttpHeaders().set("Accept-Language", "en").set("X-Other", "2");
+        HttpHeaders french = new DefaultHttpHeaders().set("Accept-Language", "fr");
+
+        // when
+        String englishKey = ResponseCache.generateCacheKey(endpoint, request(HttpMethod.GET, "/foo", english), varyOptions);
+        String englishOtherDifferentKey =
+            ResponseCache.generateCacheKey(endpoint, request(HttpMethod.GET, "/foo", englishOtherDifferent), varyOptions);
+        String frenchKey = ResponseCache.generateCacheKey(endpoint, request(HttpMethod.GET, "/foo", french), varyOptions);
+
+        // then
+        assertThat(englishKey).isEqualTo(englishOtherDifferentKey);
+        assertThat(frenchKey).isNotEqualTo(englishKey);
+    }
+
+    @Test
+    public void put_then_getCachedResponse_returns_a_retained_copy_of_the_body_and_counts_hits_and_misses() {
+        // given
+        ByteBuf origBody = body(PAYLOAD);
+        HttpHeaders headers = new DefaultHttpHeaders().set("foo", "bar").set(CONTENT_LENGTH, 42);
+        assertThat(cache.getCachedResponse("key", false)).isNull();
+
+        // when
+        boolean stored = cache.put("key", options, okResponse(), headers, origBody);
+        ResponseInfo<ByteBuf> result = cache.getCachedResponse("key", false);
+
+        // then
+        assertThat(stored).isTrue();
+        assertThat(origBody.refCnt()).isEqualTo(1);
+        assertThat(result.getHttpStatusCode()).isEqualTo(200);
+        assertThat(result.getHeaders().get("foo")).isEqualTo("bar");
+        assertThat(result.getHeaders().contains(CONTENT_LENGTH)).isFalse();
+        assertThat(result.getDesiredContentWriterMimeType()).isEqualTo("text/plain");
+        assertThat(result.getDesiredContentWriterEncoding()).isEqualTo(CharsetUtil.UTF_8);
+        ByteBuf content = result.getContentForFullResponse();
+        assertThat(content.isDirect()).isTrue();
+        assertThat(content.toString(CharsetUtil.UTF_8)).isEqualTo(PAYLOAD);
+        assertThat(content.refCnt()).isEqualTo(2);
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+        assertThat(cache.getEntryCount()).isEqualTo(1);
+        assertThat(cache.getTotalBytes()).isEqualTo(PAYLOAD.length());
+        content.release();
+    }
+
+    @Test
+    public void getCachedResponse_returns_gzip_variant_only_when_gzip_is_accepted() throws IOException {
+        // given
+        ResponseCachingOptions gzipOptions = new ResponseCachingOptions(5000, null, true);
+        cache.put("key", gzipOptions, okResponse(), new DefaultHttpHeaders(), body(PAYLOAD));
+
+        // when
+        ResponseInfo<ByteBuf> gzipResult = cache.getCachedResponse("key", true);
+        ResponseInfo<ByteBuf> plainResult = cache.getCachedResponse("key", false);
+
+        // then
+        assertThat(gzipResult.getHeaders().get(CONTENT_ENCODING)).isEqualTo("gzip");
+        assertThat(gzipResult.isPreventCompressedOutput()).isTrue();
+        assertThat(gzipResult.getContentForFullResponse().readableBytes()).isLessThan(PAYLOAD.length());
+        assertThat(gunzip(gzipResult.getContentForFullResponse())).isEqualTo(PAYLOAD);
+
+        assertThat(plainResult.getHeaders().contains(CONTENT_ENCODING)).isFalse();
+        assertThat(plainResult.isPreventCompressedOutput()).isFalse();
+        assertThat(plainResult.getContentForFullResponse().toString(CharsetUtil.UTF_8)).isEqualTo(PAYLOAD);
+
+        gzipResult.getContentForFullResponse().release();
+        plainResult.getContentForFullResponse().release();
+    }
+
+    @DataProvider(value = {
+        "null                       |   true    |   Accept-Encoding",
+        "null                       |   false   |   Accept-Encoding",
+        "Origin                     |   true    |   Origin, Accept-Encoding",
+        "Origin                     |   false   |   Origin, Accept-Encoding",
+        "Origin, accept-encoding    |   true    |   Origin, accept-encoding",
+        "*                          |   false   |   *"
+    }, splitBy = "\\|")
+    @Test
+    public void getCachedResponse_adds_Accept_Encoding_to_Vary_for_entries_with_a_gzip_variant(
+        String endpointVaryHeader, boolean gzipAccepted, String expectedVaryHeader
+    ) {
+        // given
+        ResponseCachingOptions gzipOptions = new ResponseCachingOptions(5000, null, true);
+        HttpHeaders headers = new DefaultHttpHeaders();
+        if (endpointVaryHeader != null)
+            headers.set(VARY, endpointVaryHeader);
+        cache.put("key", gzipOptions, okResponse(), headers, body(PAYLOAD));
+
+        // when
+        ResponseInfo<ByteBuf> result = cache.getCachedResponse("key", gzipAccepted);
+
+        // then
+        assertThat(String.join(", ", result.getHeaders().getAll(VARY))).isEqualTo(expectedVaryHeader);
+        result.getContentForFullResponse().release();
+    }
+
+    @Test
+    public void put_compresses_the_gzip_variant_on_the_compression_executor() throws IOException {
+        // given
+        List<Runnable> compressionTasks = new ArrayList<>();
+        cache = new ClockControlledResponseCache(100, 100_000, compressionTasks::add);
+        ResponseCachingOptions gzipOptions = new ResponseCachingOptions(5000, null, true);
+        cache.put("key", gzipOptions, okResponse(), new DefaultHttpHeaders(), body(PAYLOAD));
+
+        // when
+        ResponseInfo<ByteBuf> beforeCompression = cache.getCachedResponse("key", true);
+        compressionTasks.forEach(Runnable::run);
+        ResponseInfo<ByteBuf> afterCompression = cache.getCachedResponse("key", true);
+
+        // then
+        assertThat(compressionTasks).hasSize(1);
+        assertThat(beforeCompression.getHeaders().contains(CONTENT_ENCODING)).isFalse();
+        assertThat(beforeCompression.getHeaders().get(VARY)).isEqualTo("Accept-Encoding");
+        assertThat(beforeCompression.getContentForFullResponse().toString(CharsetUtil.UTF_8)).isEqualTo(PAYLOAD);
+
+        assertThat(afterCompression.getHeaders().get(CONTENT_ENCODING)).isEqualTo("gzip");
+        assertThat(gunzip(afterCompression.getContentForFullResponse())).isEqualTo(PAYLOAD);
+        assertThat(cache.getTotalBytes())
+            .isEqualTo(PAYLOAD.length() + afterCompression.getContentForFullResponse().readableBytes());
+
+        beforeCompression.getContentForFullResponse().release();
+        afterCompression.getContentForFullResponse().release();
+    }
+
+    @Test
+    public void put_caches_only_the_uncompressed_variant_if_the_compression_executor_rejects_the_work() {
+        // given
+        cache = new ClockControlledResponseCache(100, 100_000, task -> {
+            throw new RejectedExecutionException("intentional test exception");
+        });
+        ResponseCachingOptions gzipOptions = new ResponseCachingOptions(5000, null, true);
+
+        // when
+        boolean stored = cache.put("key", gzipOptions, okResponse(), new DefaultHttpHeaders(), body(PAYLOAD));
+        ResponseInfo<ByteBuf> result = cache.getCachedResponse("key", true);
+
+        // then
+        assertThat(stored).isTrue();
+        assertThat(result.getHeaders().contains(CONTENT_ENCODING)).isFalse();
+        assertThat(result.getContentForFullResponse().toString(CharsetUtil.UTF_8)).isEqualTo(PAYLOAD);
+        result.getContentForFullResponse().release();
+        // Only the cache's own reference is left, so the compression task's reference was given back.
+        assertThat(cache.entries.get("key").body.refCnt()).isEqualTo(1);
+    }
+
+    @Test
+    public void gzip_variant_that_finishes_after_its_entry_is_removed_is_released() {
+        // given
+        List<Runnable> compressionTasks = new ArrayList<>();
+        cache = new ClockControlledResponseCache(100, 100_000, compressionTasks::add);
+        cache.put("key", new ResponseCachingOptions(5000, null, true), okResponse(), new DefaultHttpHeaders(),
+                  body(PAYLOAD));
+        ResponseCache.CachedResponse cached = cache.entries.get("key");
+        cache.clear();
+
+        // when
+        compressionTasks.forEach(Runnable::run);
+
+        // then
+        assertThat(cached.body.refCnt()).isEqualTo(0);
+        assertThat(cached.gzipBody).isNull();
+        assertThat(cache.getTotalBytes()).isEqualTo(0);
+        assertThat(cache.getCachedResponse("key", true)).isNull();
+    }
+
+    @DataProvider(value = {
+        "null                       |   Accept-Language",
+        "Origin                     |   Origin, Accept-Language",
+        "Origin, accept-language    |   Origin, accept-language",
+        "*                          |   *"
+    }, splitBy = "\\|")
+    @Test
+    public void put_adds_the_cache_key_vary_headers_to_the_cached_Vary_header(
+        String endpointVaryHeader, String expectedVaryHeader
+    ) {
+        // given
+        ResponseCachingOptions varyOptions =
+            new ResponseCachingOptions(5000, Collections.singletonList("Accept-Language"), false);
+        HttpHeaders headers = new DefaultHttpHeaders();
+        if (endpointVaryHeader != null)
+            headers.set(VARY, endpointVaryHeader);
+        cache.put("key", varyOptions, okResponse(), headers, body(PAYLOAD));
+
+        // when
+        ResponseInfo<ByteBuf> result = cache.getCachedResponse("key", false);
+
+        // then
+        assertThat(String.join(", ", result.getHeaders().getAll(VARY))).isEqualTo(expectedVaryHeader);
+        result.getContentForFullResponse().release();
+    }
+
+    @Test
+    public void getCachedResponse_does_not_add_Vary_for_entries_without_a_gzip_variant() {
+        // given
+        cache.put("key", options, okResponse(), new DefaultHttpHeaders(), body(PAYLOAD));
+
+        // when
+        ResponseInfo<ByteBuf> result = cache.getCachedResponse("key", true);
+
+        // then
+        assertThat(result.getHeaders().contains(CONTENT_ENCODING)).isFalse();
+        assertThat(result.getHeaders().contains(VARY)).isFalse();
+        result.getContentForFullResponse().release();
+    }
+
+    @Test
+    public void getCachedResponse_expires_entries_after_their_ttl() {
+        // given
+        cache.put("key", options, okResponse(), new DefaultHttpHeaders(), body(PAYLOAD));
+        nowMillis += options.getTimeToLiveMillis() - 1;
+        ResponseInfo<ByteBuf> beforeExpiration = cache.getCachedResponse("key", false);
+        beforeExpiration.getContentForFullResponse().release();
+
+        // when
+        nowMillis += 1;
+        ResponseInfo<ByteBuf> afterExpiration = cache.getCachedResponse("key", false);
+
+        // then
+        assertThat(afterExpiration).isNull();
+        assertThat(cache.getExpirationCount()).isEqualTo(1);
+        assertThat(cache.getEntryCount()).isEqualTo(0);
+        assertThat(cache.getTotalBytes()).isEqualTo(0);
+    }
+
+    @Test
+    public void put_evicts_least_recently_used_entries_when_max_entries_is_exceeded() {
+        // given
+        cache = new ClockControlledResponseCache(2, 100_000);
+        cache.put("first", options, okResponse(), new DefaultHttpHeaders(), body("1"));
+        cache.put("second", options, okResponse(), new DefaultHttpHeaders(), body("2"));
+        // Touch "first" so "second" becomes the least recently used.
+        cache.getCachedResponse("first", false).getContentForFullResponse().release();
+
+        // when
+        cache.put("third", options, okResponse(), new DefaultHttpHeaders(), body("3"));
+
+        // then
+        assertThat(cache.getEvictionCount()).isEqualTo(1);
+        assertThat(cache.getEntryCount()).isEqualTo(2);
+        assertThat(cache.getCachedResponse("second", false)).isNull();
+        cache.getCachedResponse("first", false).getContentForFullResponse().release();
+        cache.getCachedResponse("third", false).getContentForFullResponse().release();
+    }
+
+    @Test
+    public void put_evicts_entries_when_max_total_bytes_is_exceeded_and_releases_them() {
+        // given
+        cache = new ClockControlledResponseCache(100, 10);
+        cache.put("first", options, okResponse(), new DefaultHttpHeaders(), body("123456"));
+        ResponseInfo<ByteBuf> firstHit = cache.getCachedResponse("first", false);
+        ByteBuf firstContent = firstHit.getContentForFullResponse();
+
+        // when
+        cache.put("second", options, okResponse(), new DefaultHttpHeaders(), body("789012"));
+
+        // then
+        assertThat(cache.getEvictionCount()).isEqualTo(1);
+        assertThat(cache.getTotalBytes()).isEqualTo(6);
+        // The in-flight hit still holds a reference, so the evicted buffer isn't freed until it's released.
+        assertThat(firstContent.refCnt()).isEqualTo(1);
+        assertThat(firstContent.toString(CharsetUtil.UTF_8)).isEqualTo("123456");
+        firstContent.release();
+        assertThat(firstContent.refCnt()).isEqualTo(0);
+    }
+
+    @Test
+    public void put_does_not_store_bodies_bigger_than_the_whole_cache() {
+        // given
+        cache = new ClockControlledResponseCache(100, 10);
+
+        // when
+        boolean stored = cache.put("key", options, okResponse(), new DefaultHttpHeaders(), body("12345678901"));
+
+        // then
+        assertThat(stored).isFalse();
+        assertThat(cache.getEntryCount()).isEqualTo(0);
+    }
+
+    @DataProvider(value = {
+        "NON_200_STATUS",
+        "COOKIES",
+        "SET_COOKIE_HEADER",
+        "ALREADY_CONTENT_ENCODED",
+        "CHUNKED_RESPONSE"
+    })
+    @Test
+    public void put_does_not_store_uncacheable_responses(UncacheableScenario scenario) {
+        // given
+        ResponseInfo<?> responseInfo = (scenario == UncacheableScenario.CHUNKED_RESPONSE)
+                                       ? ResponseInfo.newChunkedResponseBuilder().withHttpStatusCode(200).build()
+                                       : okResponse();
+        HttpHeaders headers = new DefaultHttpHeaders();
+        switch (scenario) {
+            case NON_200_STATUS:
+                responseInfo.setHttpStatusCode(201);
+                break;
+            case COOKIES:
+                responseInfo.setCookies(Collections.singleton(new DefaultCookie("foo", "bar")));
+                break;
+            case SET_COOKIE_HEADER:
+                headers.set(SET_COOKIE, "foo=bar");
+                break;
+            case ALREADY_CONTENT_ENCODED:
+                headers.set(CONTENT_ENCODING, "gzip");
+                break;
+            default:
+                break;
+        }
+
+        // when
+        boolean stored = cache.put("key", options, responseInfo, headers, body(PAYLOAD));
+
+        // then
+        assertThat(stored).isFalse();
+        assertThat(cache.getEntryCount()).isEqualTo(0);
+    }
+
+    enum UncacheableScenario {
+        NON_200_STATUS, COOKIES, SET_COOKIE_HEADER, ALREADY_CONTENT_ENCODED, CHUNKED_RESPONSE
+    }
+
+    @Test
+    public void clear_releases_all_entries() {
+        // given
+        cache.put("first", options, okResponse(), new DefaultHttpHeaders(), body("1"));
+        ByteBuf cachedBody = cache.entries.get("first").body;
+
+        // when
+        cache.clear();
+
+        // then
+        assertThat(cache.getEntryCount()).isEqualTo(0);
+        assertThat(cache.getTotalBytes()).isEqualTo(0);
+        assertThat(cachedBody.refCnt()).isEqualTo(0);
+    }
+
+    @Test
+    public void constructors_and_options_validate_their_arguments() {
+        // expect
+        assertThat(catchThrowable(() -> new ResponseCache(0, 10))).isInstanceOf(IllegalArgumentException.class);
+        assertThat(catchThrowable(() -> new ResponseCache(10, 0))).isInstanceOf(IllegalArgumentException.class);
+        assertThat(catchThrowable(() -> new ResponseCache(10, 10, null))).isInstanceOf(IllegalArgumentException.class);
+        assertThat(catchThrowable(() -> new ResponseCachingOptions(0, null, false)))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThat(new ResponseCachingOptions(1, Arrays.asList("a", "b"), true).getVaryHeaderNames())
+            .containsExactly("a", "b");
+    }
+}
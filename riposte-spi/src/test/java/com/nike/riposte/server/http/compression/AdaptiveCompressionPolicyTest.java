@@ -0,0 +1,201 @@
+package com.nike.riposte.server.http.compression;
+
+import com.tngtech.java.junit.dataprovider.DataProvider;
+import com.tngtech.java.junit.dataprovider.DataProviderRunner;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * Tests the functionality of {@link AdaptiveCompressionPolicy}.
+ */
+@RunWith(DataProviderRunner.class)
+public class AdaptiveCompressionPolicyTest {
+
+    private final AdaptiveCompressionPolicy policy = new AdaptiveCompressionPolicy(9, 6, 1, 10, 100, 1000, 2, 50);
+
+    @DataProvider(value = {
+        "0      |   10      |   9",
+        "0      |   1000    |   9",
+        "0      |   1001    |   6",
+        "0      |   -1      |   6",
+        "9      |   10      |   9",
+        "10     |   10      |   1",
+        "10     |   -1      |   1",
+        "99     |   1001    |   1",
+        "100    |   10      |   0",
+        "5000   |   -1      |   0"
+    }, splitBy = "\\|")
+    @Test
+    public void compressionLevelFor_works_as_expected(int pendingTasks, long responseSize, int expectedLevel) {
+        // expect
+        assertThat(policy.compressionLevelFor(pendingTasks, responseSize)).isEqualTo(expectedLevel);
+    }
+
+    @DataProvider(value = {
+        "0  |   6   |   1   |   10  |   100",
+        "10 |   6   |   1   |   10  |   100",
+        "9  |   0   |   1   |   10  |   100",
+        "9  |   6   |   -1  |   10  |   100",
+        "9  |   6   |   1   |   -1  |   100",
+        "9  |   6   |   1   |   10  |   9"
+    }, splitBy = "\\|")
+    @Test
+    public void constructor_throws_IllegalArgumentException_for_invalid_args(
+        int idleLevel, int defaultLevel, int busyLevel, int busyThreshold, int saturatedThreshold
+    ) {
+        // when
+        Throwable ex = catchThrowable(
+            () -> new AdaptiveCompressionPolicy(idleLevel, defaultLevel, busyLevel, busyThreshold, saturatedThreshold,
+                                                1000, 2, 50)
+        );
+
+        // then
+        assertThat(ex).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void shouldMemoize_returns_true_only_the_second_time_a_body_is_seen() {
+        // given
+        ByteBuf body = Unpooled.copiedBuffer("some body", CharsetUtil.UTF_8);
+
+        // expect
+        assertThat(policy.shouldMemoize("gzip", body)).isFalse();
+        assertThat(policy.shouldMemoize("deflate", body)).isFalse();
+        assertThat(policy.shouldMemoize("gzip", body)).isTrue();
+        assertThat(body.readerIndex()).isEqualTo(0);
+
+        body.release();
+    }
+
+    @Test
+    public void shouldMemoize_returns_false_for_bodies_that_are_too_big() {
+        // given
+        ByteBuf body = Unpooled.wrappedBuffer(new byte[51]);
+
+        // expect
+        assertThat(policy.shouldMemoize("gzip", body)).isFalse();
+        assertThat(policy.shouldMemoize("gzip", body)).isFalse();
+    }
+
+    @Test
+    public void getMemoizedVariant_returns_memoized_variant_for_identical_body_with_same_encoding() {
+        // given
+        byte[] uncompressed = "some body".getBytes(CharsetUtil.UTF_8);
+        byte[] compressed = "compressed".getBytes(CharsetUtil.UTF_8);
+        policy.memoizeVariant("gzip", uncompressed, compressed);
+        ByteBuf sameBody = Unpooled.copiedBuffer("some body", CharsetUtil.UTF_8);
+        ByteBuf differentBody = Unpooled.copiedBuffer("some bodx", CharsetUtil.UTF_8);
+
+        // when
+        ByteBuf hit = policy.getMemoizedVariant("gzip", sameBody);
+        ByteBuf wrongEncoding = policy.getMemoizedVariant("deflate", sameBody);
+        ByteBuf miss = policy.getMemoizedVariant("gzip", differentBody);
+
+        // then
+        assertThat(hit.toString(CharsetUtil.UTF_8)).isEqualTo("compressed");
+        assertThat(wrongEncoding).isNull();
+        assertThat(miss).isNull();
+        assertThat(policy.getMemoizedVariantHitCount()).isEqualTo(1);
+        assertThat(policy.getMemoizedVariantCount()).isEqualTo(1);
+
+        // Releasing the returned variant must not affect the memoized copy.
+        hit.release();
+        assertThat(policy.getMemoizedVariant("gzip", sameBody).toString(CharsetUtil.UTF_8)).isEqualTo("compressed");
+
+        sameBody.release();
+        differentBody.release();
+    }
+
+    @Test
+    public void getMemoizedVariant_compares_the_full_body_when_bodies_share_a_fingerprint() {
+        // given
+        byte[] uncompressed = new byte[1000];
+        byte[] differentInTheMiddle = new byte[1000];
+        // Not one of the sampled bytes, so both bodies get the same memo key.
+        differentInTheMiddle[501] = 1;
+        AdaptiveCompressionPolicy policy = new AdaptiveCompressionPolicy(9, 6, 1, 10, 100, 1000, 2, 2000);
+        policy.memoizeVariant("gzip", uncompressed, new byte[]{42});
+
+        // when
+        ByteBuf hit = policy.getMemoizedVariant("gzip", Unpooled.wrappedBuffer(uncompressed.clone()));
+        ByteBuf collision = policy.getMemoizedVariant("gzip", Unpooled.wrappedBuffer(differentInTheMiddle));
+
+        // then
+        assertThat(policy.memoizationKey("gzip", Unpooled.wrappedBuffer(differentInTheMiddle)))
+            .isEqualTo(policy.memoizationKey("gzip", Unpooled.wrappedBuffer(uncompressed)));
+        assertThat(hit).isNotNull();
+        assertThat(collision).isNull();
+    }
+
+    @Test
+    public void memoizationKey_differs_for_bodies_that_differ_in_sampled_bytes_or_length() {
+        // given
+        byte[] body = new byte[1000];
+        byte[] differentFirstByte = new byte[1000];
+        differentFirstByte[0] = 1;
+        byte[] differentLastByte = new byte[1000];
+        differentLastByte[999] = 1;
+        byte[] longer = new byte[1001];
+
+        // when
+        String key = policy.memoizationKey("gzip", Unpooled.wrappedBuffer(body));
+
+        // then
+        assertThat(policy.memoizationKey("gzip", Unpooled.wrappedBuffer(differentFirstByte))).isNotEqualTo(key);
+        assertThat(policy.memoizationKey("gzip", Unpooled.wrappedBuffer(differentLastByte))).isNotEqualTo(key);
+        assertThat(policy.memoizationKey("gzip", Unpooled.wrappedBuffer(longer))).isNotEqualTo(key);
+        assertThat(policy.memoizationKey("deflate", Unpooled.wrappedBuffer(body))).isNotEqualTo(key);
+    }
+
+    @Test
+    public void memoized_variants_are_evicted_least_recently_used_first() {
+        // given
+        policy.memoizeVariant("gzip", new byte[]{1}, new byte[]{11});
+        policy.memoizeVariant("gzip", new byte[]{2}, new byte[]{22});
+        // Touch the first one so the second one is the least recently used.
+        assertThat(policy.getMemoizedVariant("gzip", Unpooled.wrappedBuffer(new byte[]{1}))).isNotNull();
+
+        // when
+        policy.memoizeVariant("gzip", new byte[]{3}, new byte[]{33});
+
+        // then
+        assertThat(policy.getMemoizedVariantCount()).isEqualTo(2);
+        assertThat(policy.getMemoizedVariant("gzip", Unpooled.wrappedBuffer(new byte[]{1}))).isNotNull();
+        assertThat(policy.getMemoizedVariant("gzip", Unpooled.wrappedBuffer(new byte[]{2}))).isNull();
+        assertThat(policy.getMemoizedVariant("gzip", Unpooled.wrappedBuffer(new byte[]{3}))).isNotNull();
+    }
+
+    @Test
+    public void compression_stats_are_tracked() {
+        // when
+        policy.recordCompressedResponse();
+        policy.recordCompressedResponse();
+        policy.recordCompression(1000, 200, 5000);
+        policy.recordCompression(1000, 300, 3000);
+        policy.recordSkippedUnderLoad();
+
+        // then
+        assertThat(policy.getCompressedResponseCount()).isEqualTo(2);
+        assertThat(policy.getUncompressedBytes()).isEqualTo(2000);
+        assertThat(policy.getCompressedBytes()).isEqualTo(500);
+        assertThat(policy.getCompressionNanos()).isEqualTo(8000);
+        assertThat(policy.getCompressionRatio()).isEqualTo(0.25);
+        assertThat(policy.getCompressionNanosPerByte()).isEqualTo(4.0);
+        assertThat(policy.getSkippedUnderLoadCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void ratio_and_nanos_per_byte_are_zero_when_nothing_has_been_compressed() {
+        // expect
+        assertThat(policy.getCompressionRatio()).isEqualTo(0);
+        assertThat(policy.getCompressionNanosPerByte()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,214 @@
+package com.nike.riposte.server.http.header;
+
+import com.nike.riposte.server.http.header.ContentTypeHeaderCache.ParsedContentType;
+import com.nike.riposte.server.http.mimetype.MimeType;
+
+import com.tngtech.java.junit.dataprovider.DataProvider;
+import com.tngtech.java.junit.dataprovider.DataProviderRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.Charset;
+import java.util.UUID;
+
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.util.CharsetUtil;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * Tests the functionality of {@link ContentTypeHeaderCache}.
+ */
+@RunWith(DataProviderRunner.class)
+public class ContentTypeHeaderCacheTest {
+
+    private ContentTypeHeaderCache cache;
+
+    @Before
+    public void beforeMethod() {
+        cache = new ContentTypeHeaderCache(10);
+    }
+
+    @Test
+    public void getDefaultInstance_returns_same_instance_with_default_max_entries() {
+        // expect
+        assertThat(ContentTypeHeaderCache.getDefaultInstance()).isSameAs(ContentTypeHeaderCache.getDefaultInstance());
+        assertThat(ContentTypeHeaderCache.getDefaultInstance().getMaxEntries())
+            .isEqualTo(ContentTypeHeaderCache.DEFAULT_MAX_ENTRIES);
+    }
+
+    @Test
+    @DataProvider(value = {
+        "0",
+        "-1"
+    })
+    public void constructor_throws_IllegalArgumentException_if_maxEntries_is_not_positive(int maxEntries) {
+        // when
+        Throwable ex = catchThrowable(() -> new ContentTypeHeaderCache(maxEntries));
+
+        // then
+        assertThat(ex).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void parse_returns_null_for_null_header() {
+        // expect
+        assertThat(cache.parse(null)).isNull();
+    }
+
+    @Test
+    @DataProvider(value = {
+        "application/json                       |   application/json    |   null",
+        "application/json; charset=UTF-8        |   application/json    |   UTF-8",
+        "text/plain;charset=\"us-ascii\"        |   text/plain          |   US-ASCII",
+        "  text/html ; foo=bar; Charset=utf-16  |   text/html           |   UTF-16",
+        "text/text charset=US-ASCII             |   text/text charset=US-ASCII  |   US-ASCII",
+    }, splitBy = "\\|")
+    public void parse_extracts_mime_type_and_charset(
+        String rawHeader, String expectedMimeType, String expectedCharsetName
+    ) {
+        // when
+        ParsedContentType result = cache.parse(rawHeader);
+
+        // then
+        assertThat(result.rawHeaderValue).isEqualTo(rawHeader);
+        assertThat(result.mimeTypeString).isEqualTo(expectedMimeType);
+        assertThat(result.charsetName).isEqualTo(expectedCharsetName);
+        Charset expectedCharset = (expectedCharsetName == null) ? null : Charset.forName(expectedCharsetName);
+        assertThat(result.charset).isEqualTo(expectedCharset);
+        assertThat(result.hasInvalidCharset()).isFalse();
+    }
+
+    @Test
+    public void parse_uses_MimeTypeParser_for_mimeType_field() {
+        // when
+        ParsedContentType result = cache.parse("application/vnd.nike.runningcoach-v3.1+json; charset=UTF-8");
+
+        // then
+        assertThat(result.getMimeType()).isPresent();
+        assertThat(result.getMimeType()).isSameAs(result.getMimeType());
+        MimeType mimeType = result.getMimeType().get();
+        assertThat(mimeType.getType()).isEqualTo(MimeType.Type.APPLICATION);
+        assertThat(mimeType.getSubType().getFacet()).isEqualTo(MimeType.Facet.VENDOR);
+        assertThat(mimeType.getSubType().getName()).isEqualTo("nike.runningcoach-v3.1");
+        assertThat(mimeType.getParameters()).containsEntry("charset", "UTF-8");
+    }
+
+    @Test
+    @DataProvider(value = {
+        "",
+        "   "
+    })
+    public void parse_returns_null_mimeTypeString_for_blank_header(String rawHeader) {
+        // when
+        ParsedContentType result = cache.parse(rawHeader);
+
+        // then
+        assertThat(result.mimeTypeString).isNull();
+        assertThat(result.getMimeType()).isEmpty();
+        assertThat(result.charsetName).isNull();
+    }
+
+    @Test
+    public void parse_flags_invalid_charset() {
+        // when
+        ParsedContentType result = cache.parse("text/text; charset=garbagio");
+
+        // then
+        assertThat(result.charsetName).isEqualTo("GARBAGIO");
+        assertThat(result.charset).isNull();
+        assertThat(result.hasInvalidCharset()).isTrue();
+    }
+
+    @Test
+    public void parse_returns_cached_instance_for_repeat_calls() {
+        // given
+        ParsedContentType first = cache.parse("application/json; charset=UTF-8");
+
+        // when
+        ParsedContentType second = cache.parse(new String("application/json; charset=UTF-8"));
+
+        // then
+        assertThat(second).isSameAs(first);
+    }
+
+    @Test
+    public void parse_cache_evicts_least_recently_used_entries_when_max_entries_is_reached() {
+        // given
+        ParsedContentType hot = cache.parse("application/json");
+        ParsedContentType cold = cache.parse("text/plain");
+
+        // when
+        for (int i = 0; i < cache.getMaxEntries() * 2; i++) {
+            cache.parse("application/" + UUID.randomUUID().toString());
+            // Keep the hot entry recently used.
+            cache.parse("application/json");
+        }
+
+        // then
+        assertThat(cache.rawHeaderToParsedContentTypeCache.size()).isEqualTo(cache.getMaxEntries());
+        assertThat(cache.parse("application/json")).isSameAs(hot);
+        ParsedContentType coldAfterEviction = cache.parse("text/plain");
+        assertThat(coldAfterEviction).isNotSameAs(cold);
+        assertThat(coldAfterEviction.mimeTypeString).isEqualTo(cold.mimeTypeString);
+    }
+
+    @Test
+    public void getContentTypeHeaderValue_builds_expected_header_value_and_caches_it() {
+        // when
+        CharSequence first = cache.getContentTypeHeaderValue("application/json", CharsetUtil.UTF_8);
+        CharSequence second = cache.getContentTypeHeaderValue("application/json", CharsetUtil.UTF_8);
+        CharSequence differentCharset = cache.getContentTypeHeaderValue("application/json", CharsetUtil.US_ASCII);
+
+        // then
+        assertThat(first.toString()).isEqualTo("application/json; charset=UTF-8");
+        assertThat(second).isSameAs(first);
+        assertThat(differentCharset.toString()).isEqualTo("application/json; charset=US-ASCII");
+    }
+
+    @Test
+    public void getContentTypeHeaderValue_result_can_be_used_as_netty_header_value() {
+        // given
+        HttpHeaders headers = new DefaultHttpHeaders();
+
+        // when
+        headers.set(HttpHeaders.Names.CONTENT_TYPE, cache.getContentTypeHeaderValue("text/plain", CharsetUtil.UTF_8));
+
+        // then
+        assertThat(headers.get(HttpHeaders.Names.CONTENT_TYPE)).isEqualTo("text/plain; charset=UTF-8");
+    }
+
+    @Test
+    public void getContentTypeHeaderValue_cache_is_bounded() {
+        // when
+        for (int i = 0; i < cache.getMaxEntries() * 2; i++) {
+            cache.getContentTypeHeaderValue("application/" + UUID.randomUUID().toString(), CharsetUtil.UTF_8);
+        }
+
+        // then
+        assertThat(cache.mimeTypeAndCharsetToHeaderValueCache.size()).isLessThanOrEqualTo(cache.getMaxEntries());
+    }
+
+    @Test
+    @DataProvider(value = {
+        "true   |   false",
+        "false  |   true"
+    }, splitBy = "\\|")
+    public void getContentTypeHeaderValue_throws_IllegalArgumentException_for_null_args(
+        boolean nullMimeType, boolean nullCharset
+    ) {
+        // when
+        Throwable ex = catchThrowable(() -> cache.getContentTypeHeaderValue(
+            (nullMimeType) ? null : "application/json",
+            (nullCharset) ? null : CharsetUtil.UTF_8
+        ));
+
+        // then
+        assertThat(ex).isInstanceOf(IllegalArgumentException.class);
+    }
+
+}
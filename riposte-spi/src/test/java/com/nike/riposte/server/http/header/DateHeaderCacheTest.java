@@ -0,0 +1,59 @@
+package com.nike.riposte.server.http.header;
+
+import org.junit.Test;
+
+import java.util.Date;
+
+import io.netty.handler.codec.http.HttpHeaderDateFormat;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests the functionality of {@link DateHeaderCache}.
+ */
+public class DateHeaderCacheTest {
+
+    @Test
+    public void getDateHeaderValue_reuses_cached_value_within_the_same_second() {
+        // given
+        DateHeaderCache cache = new DateHeaderCache();
+        long startOfSecond = 1500000000000L;
+
+        // when
+        CharSequence first = cache.getDateHeaderValue(startOfSecond);
+        CharSequence sameSecond = cache.getDateHeaderValue(startOfSecond + 999);
+        CharSequence nextSecond = cache.getDateHeaderValue(startOfSecond + 1000);
+
+        // then
+        assertThat(sameSecond).isSameAs(first);
+        assertThat(nextSecond).isNotSameAs(first);
+        assertThat(first.toString()).isEqualTo(HttpHeaderDateFormat.get().format(new Date(startOfSecond)));
+        assertThat(nextSecond.toString()).isEqualTo(HttpHeaderDateFormat.get().format(new Date(startOfSecond + 1000)));
+    }
+
+    @Test
+    public void getDateHeaderValue_truncates_to_the_second() {
+        // given
+        DateHeaderCache cache = new DateHeaderCache();
+
+        // expect
+        assertThat(cache.getDateHeaderValue(1500000000789L).toString())
+            .isEqualTo(HttpHeaderDateFormat.get().format(new Date(1500000000000L)));
+    }
+
+    @Test
+    public void currentDateHeaderValue_returns_the_same_cached_instance_for_the_same_thread_and_second() {
+        // given
+        long nowSecond = System.currentTimeMillis() / 1000;
+
+        // when
+        CharSequence first = DateHeaderCache.currentDateHeaderValue();
+        CharSequence second = DateHeaderCache.currentDateHeaderValue();
+
+        // then
+        if (System.currentTimeMillis() / 1000 == nowSecond)
+            assertThat(second).isSameAs(first);
+
+        assertThat(first.toString()).endsWith(" GMT");
+    }
+}
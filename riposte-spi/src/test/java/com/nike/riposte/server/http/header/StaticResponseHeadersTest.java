@@ -0,0 +1,95 @@
+package com.nike.riposte.server.http.header;
+
+import com.tngtech.java.junit.dataprovider.DataProvider;
+import com.tngtech.java.junit.dataprovider.DataProviderRunner;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaders;
+
+import static io.netty.handler.codec.http.HttpHeaders.Names.DATE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * Tests the functionality of {@link StaticResponseHeaders}.
+ */
+@RunWith(DataProviderRunner.class)
+public class StaticResponseHeadersTest {
+
+    @DataProvider(value = {
+        "true",
+        "false"
+    })
+    @Test
+    public void applyTo_adds_headers_that_are_not_already_present(boolean includeDateHeader) {
+        // given
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("X-Content-Type-Options", "nosniff");
+        headers.put("Server", "riposte");
+        StaticResponseHeaders staticHeaders = new StaticResponseHeaders(headers, includeDateHeader);
+        HttpHeaders responseHeaders = new DefaultHttpHeaders().set("server", "endpoint-specified");
+
+        // when
+        staticHeaders.applyTo(responseHeaders);
+
+        // then
+        assertThat(responseHeaders.get("X-Content-Type-Options")).isEqualTo("nosniff");
+        assertThat(responseHeaders.getAll("Server")).containsExactly("endpoint-specified");
+        if (includeDateHeader)
+            assertThat(responseHeaders.get(DATE)).endsWith(" GMT");
+        else
+            assertThat(responseHeaders.contains(DATE)).isFalse();
+    }
+
+    @Test
+    public void applyTo_does_not_override_existing_date_header() {
+        // given
+        StaticResponseHeaders staticHeaders = new StaticResponseHeaders(null, true);
+        HttpHeaders responseHeaders = new DefaultHttpHeaders().set(DATE, "Thu, 01 Jan 1970 00:00:00 GMT");
+
+        // when
+        staticHeaders.applyTo(responseHeaders);
+
+        // then
+        assertThat(responseHeaders.getAll(DATE)).containsExactly("Thu, 01 Jan 1970 00:00:00 GMT");
+    }
+
+    @Test
+    public void constructor_copies_headers_and_exposes_them() {
+        // given
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("foo", "bar");
+
+        // when
+        StaticResponseHeaders staticHeaders = new StaticResponseHeaders(headers, false);
+        headers.put("baz", "bat");
+
+        // then
+        assertThat(staticHeaders.getHeaders()).isEqualTo(Collections.singletonMap("foo", "bar"));
+        assertThat(staticHeaders.isIncludeDateHeader()).isFalse();
+    }
+
+    @DataProvider(value = {
+        "null   |   bar",
+        "foo    |   null"
+    }, splitBy = "\\|")
+    @Test
+    public void constructor_throws_IllegalArgumentException_for_null_names_or_values(String name, String value) {
+        // given
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put(name, value);
+
+        // when
+        Throwable ex = catchThrowable(() -> new StaticResponseHeaders(headers, false));
+
+        // then
+        assertThat(ex).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -1,5 +1,6 @@
 package com.nike.riposte.server.http.impl;
 
+import com.nike.riposte.server.http.ResponseChunkPublisher;
 import com.nike.riposte.server.http.ResponseInfo;
 
 import com.google.common.collect.Sets;
@@ -55,9 +56,36 @@ public class ChunkedResponseInfoTest {
         assertThat(responseInfo.isChunkedResponse(), is(true));
         assertThat(responseInfo.isResponseSendingStarted(), is(false));
         assertThat(responseInfo.isResponseSendingLastChunkSent(), is(false));
+        assertThat(responseInfo.getResponseChunkPublisher(), nullValue());
 
     }
 
+    @Test
+    public void uber_constructor_with_publisher_sets_publisher() {
+        // given
+        ResponseChunkPublisher publisher = mock(ResponseChunkPublisher.class);
+
+        // when
+        ChunkedResponseInfo responseInfo = new ChunkedResponseInfo(200, null, null, null, null, false, publisher);
+
+        // then
+        assertThat(responseInfo.getResponseChunkPublisher(), is(publisher));
+    }
+
+    @Test
+    public void setResponseChunkPublisher_sets_publisher() {
+        // given
+        ChunkedResponseInfo responseInfo = new ChunkedResponseInfo();
+        ResponseChunkPublisher publisher = mock(ResponseChunkPublisher.class);
+        assertThat(responseInfo.getResponseChunkPublisher(), nullValue());
+
+        // when
+        responseInfo.setResponseChunkPublisher(publisher);
+
+        // then
+        assertThat(responseInfo.getResponseChunkPublisher(), is(publisher));
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void constructor_throws_IllegalArgumentException_if_passed_mime_type_with_charset_in_it() {
         // expect
@@ -142,6 +170,7 @@ public class ChunkedResponseInfoTest {
         Charset encoding = CharsetUtil.US_ASCII;
         Set<Cookie> cookies = mock(Set.class);
         boolean preventCompressedOutput = Math.random() > 0.5;
+        ResponseChunkPublisher publisher = mock(ResponseChunkPublisher.class);
 
         // when
         ChunkedResponseInfo responseInfo = builder
@@ -151,6 +180,7 @@ public class ChunkedResponseInfoTest {
                 .withDesiredContentWriterEncoding(encoding)
                 .withCookies(cookies)
                 .withPreventCompressedOutput(preventCompressedOutput)
+                .withResponseChunkPublisher(publisher)
                 .build();
 
         // then
@@ -160,5 +190,6 @@ public class ChunkedResponseInfoTest {
         assertThat(responseInfo.getDesiredContentWriterEncoding(), is(encoding));
         assertThat(responseInfo.getCookies(), is(cookies));
         assertThat(responseInfo.isPreventCompressedOutput(), is(preventCompressedOutput));
+        assertThat(responseInfo.getResponseChunkPublisher(), is(publisher));
     }
 }
\ No newline at end of file
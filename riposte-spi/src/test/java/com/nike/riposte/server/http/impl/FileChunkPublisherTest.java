@@ -0,0 +1,266 @@
+package com.nike.riposte.server.http.impl;
+
+import com.tngtech.java.junit.dataprovider.DataProvider;
+import com.tngtech.java.junit.dataprovider.DataProviderRunner;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * Tests the functionality of {@link FileChunkPublisher}
+ */
+@RunWith(DataProviderRunner.class)
+public class FileChunkPublisherTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File file;
+    private byte[] fileBytes;
+    private ByteBufAllocator allocator = UnpooledByteBufAllocator.DEFAULT;
+    // Run reads on the calling thread so the tests don't have to wait for them.
+    private Executor readExecutor = Runnable::run;
+
+    @Before
+    public void beforeMethod() throws Exception {
+        fileBytes = new byte[1000];
+        for (int i = 0; i < fileBytes.length; i++) {
+            fileBytes[i] = (byte) i;
+        }
+        file = tempFolder.newFile();
+        Files.write(file.toPath(), fileBytes);
+    }
+
+    private byte[] readAllChunks(FileChunkPublisher publisher, int expectedChunkSize) throws Exception {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        ByteBuf chunk;
+        while ((chunk = publisher.nextChunk().get()) != null) {
+            try {
+                assertThat(chunk.readableBytes()).isLessThanOrEqualTo(expectedChunkSize);
+                byte[] chunkBytes = new byte[chunk.readableBytes()];
+                chunk.readBytes(chunkBytes);
+                result.write(chunkBytes);
+            }
+            finally {
+                chunk.release();
+            }
+        }
+        return result.toByteArray();
+    }
+
+    private byte[] expectedBytes(int start, int length) {
+        byte[] expected = new byte[length];
+        System.arraycopy(fileBytes, start, expected, 0, length);
+        return expected;
+    }
+
+    @DataProvider(value = {
+        "0      |   1000    |   64",
+        "0      |   1000    |   1000",
+        "0      |   1000    |   5000",
+        "100    |   250     |   64",
+        "999    |   1       |   64",
+        "500    |   0       |   64"
+    }, splitBy = "\\|")
+    @Test
+    public void nextChunk_returns_the_requested_region_of_the_file_in_chunks(int start, int length, int chunkSize)
+        throws Exception {
+        // given
+        FileChunkPublisher publisher = new FileChunkPublisher(file, start, length, chunkSize, allocator, readExecutor);
+
+        // when
+        byte[] result = readAllChunks(publisher, chunkSize);
+
+        // then
+        assertThat(result).isEqualTo(expectedBytes(start, length));
+        assertThat(publisher.fileChannel).isNull();
+        assertThat(publisher.closed).isTrue();
+    }
+
+    @Test
+    public void three_arg_constructor_uses_default_chunk_size() {
+        // when
+        FileChunkPublisher publisher = new FileChunkPublisher(file, 0, fileBytes.length);
+
+        // then
+        assertThat(publisher.getChunkSize()).isEqualTo(FileChunkPublisher.DEFAULT_CHUNK_SIZE);
+        assertThat(publisher.allocator).isSameAs(ByteBufAllocator.DEFAULT);
+        assertThat(publisher.readExecutor).isSameAs(FileChunkPublisher.getDefaultReadExecutor());
+    }
+
+    @Test
+    public void default_read_executor_reads_chunks_off_the_calling_thread() throws Exception {
+        // given
+        FileChunkPublisher publisher = new FileChunkPublisher(file, 0, fileBytes.length);
+
+        // when
+        byte[] result = readAllChunks(publisher, FileChunkPublisher.DEFAULT_CHUNK_SIZE);
+
+        // then
+        assertThat(result).isEqualTo(fileBytes);
+    }
+
+    @Test
+    public void nextChunk_reads_the_file_on_the_read_executor() throws Exception {
+        // given
+        List<Runnable> readTasks = new ArrayList<>();
+        FileChunkPublisher publisher =
+            new FileChunkPublisher(file, 0, fileBytes.length, 100, allocator, readTasks::add);
+
+        // when
+        CompletableFuture<ByteBuf> chunkFuture = publisher.nextChunk();
+
+        // then
+        assertThat(chunkFuture).isNotDone();
+        assertThat(publisher.fileChannel).isNull();
+        assertThat(readTasks).hasSize(1);
+
+        // and when
+        readTasks.get(0).run();
+
+        // then
+        ByteBuf chunk = chunkFuture.get();
+        assertThat(chunk.readableBytes()).isEqualTo(100);
+        chunk.release();
+        publisher.cancel(new Exception("done"));
+    }
+
+    @Test
+    public void nextChunk_fails_and_closes_if_the_read_executor_rejects_the_read() {
+        // given
+        RejectedExecutionException rejectedEx = new RejectedExecutionException("intentional test rejection");
+        FileChunkPublisher publisher = new FileChunkPublisher(
+            file, 0, fileBytes.length, 100, allocator, task -> { throw rejectedEx; }
+        );
+
+        // when
+        Throwable ex = catchThrowable(() -> publisher.nextChunk().get());
+
+        // then
+        assertThat(ex).hasCause(rejectedEx);
+        assertThat(publisher.closed).isTrue();
+    }
+
+    @Test
+    public void read_that_runs_after_cancel_fails_without_opening_the_file() {
+        // given
+        List<Runnable> readTasks = new ArrayList<>();
+        FileChunkPublisher publisher =
+            new FileChunkPublisher(file, 0, fileBytes.length, 100, allocator, readTasks::add);
+        CompletableFuture<ByteBuf> chunkFuture = publisher.nextChunk();
+
+        // when
+        publisher.cancel(new Exception("intentional test cancel"));
+        readTasks.get(0).run();
+
+        // then
+        Throwable ex = catchThrowable(chunkFuture::get);
+        assertThat(ex.getCause()).isInstanceOf(IllegalStateException.class);
+        assertThat(publisher.fileChannel).isNull();
+    }
+
+    @Test
+    public void file_is_not_opened_until_first_chunk_is_requested() throws Exception {
+        // given
+        FileChunkPublisher publisher = new FileChunkPublisher(file, 0, fileBytes.length, 100, allocator, readExecutor);
+        assertThat(publisher.fileChannel).isNull();
+
+        // when
+        ByteBuf chunk = publisher.nextChunk().get();
+
+        // then
+        assertThat(publisher.fileChannel).isNotNull();
+        assertThat(publisher.fileChannel.isOpen()).isTrue();
+        chunk.release();
+        publisher.cancel(new Exception("done"));
+    }
+
+    @Test
+    public void cancel_closes_the_file_and_fails_subsequent_chunk_requests() throws Exception {
+        // given
+        FileChunkPublisher publisher = new FileChunkPublisher(file, 0, fileBytes.length, 100, allocator, readExecutor);
+        publisher.nextChunk().get().release();
+
+        // when
+        publisher.cancel(new Exception("intentional test cancel"));
+        CompletableFuture<ByteBuf> afterCancel = publisher.nextChunk();
+
+        // then
+        assertThat(publisher.fileChannel).isNull();
+        Throwable ex = catchThrowable(afterCancel::get);
+        assertThat(ex).isInstanceOf(ExecutionException.class);
+        assertThat(ex.getCause()).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void nextChunk_fails_if_the_file_is_shorter_than_expected() throws Exception {
+        // given
+        FileChunkPublisher publisher =
+            new FileChunkPublisher(file, 0, fileBytes.length + 10, 5000, allocator, readExecutor);
+
+        // when
+        Throwable ex = catchThrowable(() -> publisher.nextChunk().get());
+
+        // then
+        assertThat(ex).isInstanceOf(ExecutionException.class);
+        assertThat(ex.getCause()).hasMessageStartingWith("Reached the end of the file before");
+        assertThat(publisher.closed).isTrue();
+        assertThat(publisher.fileChannel).isNull();
+    }
+
+    @Test
+    public void nextChunk_fails_if_the_file_does_not_exist() throws Exception {
+        // given
+        File missingFile = new File(tempFolder.getRoot(), "does-not-exist");
+        FileChunkPublisher publisher = new FileChunkPublisher(missingFile, 0, 10, 100, allocator, readExecutor);
+
+        // when
+        Throwable ex = catchThrowable(() -> publisher.nextChunk().get());
+
+        // then
+        assertThat(ex).isInstanceOf(ExecutionException.class);
+        assertThat(publisher.closed).isTrue();
+    }
+
+    @DataProvider(value = {
+        "true   |   0   |   10  |   100 |   true    |   true",
+        "false  |   -1  |   10  |   100 |   true    |   true",
+        "false  |   0   |   -1  |   100 |   true    |   true",
+        "false  |   0   |   10  |   0   |   true    |   true",
+        "false  |   0   |   10  |   100 |   false   |   true",
+        "false  |   0   |   10  |   100 |   true    |   false"
+    }, splitBy = "\\|")
+    @Test
+    public void constructor_throws_IllegalArgumentException_for_invalid_args(
+        boolean nullFile, long start, long length, int chunkSize, boolean useAllocator, boolean useReadExecutor
+    ) {
+        // when
+        Throwable ex = catchThrowable(() -> new FileChunkPublisher(
+            (nullFile) ? null : file, start, length, chunkSize, (useAllocator) ? allocator : null,
+            (useReadExecutor) ? readExecutor : null
+        ));
+
+        // then
+        assertThat(ex).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,157 @@
+package com.nike.riposte.server.http.impl;
+
+import com.nike.riposte.server.http.ResponseChunkPublisher;
+import com.nike.riposte.server.http.ResponseInfo;
+
+import com.google.common.collect.Sets;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Set;
+
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.cookie.Cookie;
+import io.netty.handler.codec.http.cookie.DefaultCookie;
+import io.netty.util.CharsetUtil;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests the functionality of {@link FileResponseInfo}
+ */
+public class FileResponseInfoTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void beforeMethod() throws Exception {
+        file = tempFolder.newFile();
+        Files.write(file.toPath(), new byte[1000]);
+    }
+
+    @Test
+    public void builder_sets_fields_as_expected() {
+        // given
+        HttpHeaders headers = new DefaultHttpHeaders();
+        Set<Cookie> cookies = Sets.newHashSet(new DefaultCookie("key1", "val1"));
+
+        // when
+        FileResponseInfo responseInfo = ResponseInfo.newFileResponseBuilder(file)
+                                                    .withHttpStatusCode(201)
+                                                    .withHeaders(headers)
+                                                    .withDesiredContentWriterMimeType("image/png")
+                                                    .withDesiredContentWriterEncoding(CharsetUtil.US_ASCII)
+                                                    .withCookies(cookies)
+                                                    .withPreventCompressedOutput(true)
+                                                    .build();
+
+        // then
+        assertThat(responseInfo.getFile()).isSameAs(file);
+        assertThat(responseInfo.getFileLength()).isEqualTo(1000);
+        assertThat(responseInfo.getFileLastModifiedMillis()).isEqualTo(file.lastModified());
+        assertThat(responseInfo.getRangeStart()).isEqualTo(0);
+        assertThat(responseInfo.getRangeLength()).isEqualTo(1000);
+        assertThat(responseInfo.getHttpStatusCode()).isEqualTo(201);
+        assertThat(responseInfo.getHeaders()).isSameAs(headers);
+        assertThat(responseInfo.getDesiredContentWriterMimeType()).isEqualTo("image/png");
+        assertThat(responseInfo.getDesiredContentWriterEncoding()).isEqualTo(CharsetUtil.US_ASCII);
+        assertThat(responseInfo.getCookies()).isEqualTo(cookies);
+        assertThat(responseInfo.isPreventCompressedOutput()).isTrue();
+        assertThat(responseInfo.isChunkedResponse()).isTrue();
+    }
+
+    @Test
+    public void mime_type_defaults_to_octet_stream() {
+        // when
+        FileResponseInfo responseInfo = ResponseInfo.newFileResponseBuilder(file).build();
+
+        // then
+        assertThat(responseInfo.getDesiredContentWriterMimeType())
+            .isEqualTo(FileResponseInfo.DEFAULT_FILE_MIME_TYPE);
+    }
+
+    @Test
+    public void constructor_throws_IllegalArgumentException_if_file_is_null() {
+        // when
+        Throwable ex = catchThrowable(() -> ResponseInfo.newFileResponseBuilder(null).build());
+
+        // then
+        assertThat(ex).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void constructor_throws_IllegalArgumentException_if_file_does_not_exist() {
+        // when
+        Throwable ex = catchThrowable(
+            () -> ResponseInfo.newFileResponseBuilder(new File(tempFolder.getRoot(), "nope")).build()
+        );
+
+        // then
+        assertThat(ex).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void constructor_throws_IllegalArgumentException_if_file_is_a_directory() {
+        // when
+        Throwable ex = catchThrowable(() -> ResponseInfo.newFileResponseBuilder(tempFolder.getRoot()).build());
+
+        // then
+        assertThat(ex).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void getResponseChunkPublisher_returns_FileChunkPublisher_for_current_range() {
+        // given
+        FileResponseInfo responseInfo = ResponseInfo.newFileResponseBuilder(file).build();
+        ResponseChunkPublisher fullFilePublisher = responseInfo.getResponseChunkPublisher();
+
+        // when
+        responseInfo.setRange(100, 50);
+        ResponseChunkPublisher rangePublisher = responseInfo.getResponseChunkPublisher();
+
+        // then
+        assertThat(fullFilePublisher).isInstanceOf(FileChunkPublisher.class);
+        assertThat(((FileChunkPublisher) fullFilePublisher).startOffset).isEqualTo(0);
+        assertThat(((FileChunkPublisher) fullFilePublisher).endOffsetExclusive).isEqualTo(1000);
+        assertThat(responseInfo.getResponseChunkPublisher()).isSameAs(rangePublisher);
+        assertThat(((FileChunkPublisher) rangePublisher).startOffset).isEqualTo(100);
+        assertThat(((FileChunkPublisher) rangePublisher).endOffsetExclusive).isEqualTo(150);
+    }
+
+    @Test
+    public void getResponseChunkPublisher_returns_explicitly_set_publisher() {
+        // given
+        FileResponseInfo responseInfo = ResponseInfo.newFileResponseBuilder(file).build();
+        ResponseChunkPublisher publisher = mock(ResponseChunkPublisher.class);
+
+        // when
+        responseInfo.setResponseChunkPublisher(publisher);
+
+        // then
+        assertThat(responseInfo.getResponseChunkPublisher()).isSameAs(publisher);
+    }
+
+    @Test
+    public void setRange_throws_IllegalArgumentException_for_ranges_outside_the_file() {
+        // given
+        FileResponseInfo responseInfo = ResponseInfo.newFileResponseBuilder(file).build();
+
+        // expect
+        assertThat(catchThrowable(() -> responseInfo.setRange(-1, 10))).isInstanceOf(IllegalArgumentException.class);
+        assertThat(catchThrowable(() -> responseInfo.setRange(0, -1))).isInstanceOf(IllegalArgumentException.class);
+        assertThat(catchThrowable(() -> responseInfo.setRange(999, 2))).isInstanceOf(IllegalArgumentException.class);
+        assertThat(responseInfo.getRangeStart()).isEqualTo(0);
+        assertThat(responseInfo.getRangeLength()).isEqualTo(1000);
+    }
+}
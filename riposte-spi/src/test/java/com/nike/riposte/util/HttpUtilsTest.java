@@ -2,6 +2,7 @@ package com.nike.riposte.util;
 
 import com.nike.riposte.server.error.exception.InvalidCharsetInContentTypeHeaderException;
 import com.nike.riposte.server.http.RequestInfo;
+import com.nike.riposte.server.http.ResponseInfo;
 
 import com.tngtech.java.junit.dataprovider.DataProvider;
 import com.tngtech.java.junit.dataprovider.DataProviderRunner;
@@ -414,4 +415,39 @@ public class HttpUtilsTest {
         Assertions.assertThat(result).isEqualTo(expectedResult);
     }
 
-}
\ No newline at end of file
+    @DataProvider(value = {
+        "false  |   false   |   true",
+        "true   |   false   |   false",
+        "false  |   true    |   false"
+    }, splitBy = "\\|")
+    @Test
+    public void releaseUnsentResponseContent_releases_ByteBuf_content_only_if_response_was_not_sent(
+        boolean sendingStarted, boolean alreadyReleased, boolean expectRelease
+    ) {
+        // given
+        ByteBuf content = Unpooled.copiedBuffer("foo", CharsetUtil.UTF_8);
+        ResponseInfo<ByteBuf> responseInfo = ResponseInfo.newBuilder(content).build();
+        responseInfo.setResponseSendingStarted(sendingStarted);
+        if (alreadyReleased)
+            content.release();
+
+        // when
+        boolean result = HttpUtils.releaseUnsentResponseContent(responseInfo);
+
+        // then
+        Assertions.assertThat(result).isEqualTo(expectRelease);
+        Assertions.assertThat(content.refCnt()).isEqualTo((sendingStarted) ? 1 : 0);
+    }
+
+    @Test
+    public void releaseUnsentResponseContent_does_nothing_for_null_chunked_or_non_ByteBuf_responses() {
+        // expect
+        Assertions.assertThat(HttpUtils.releaseUnsentResponseContent(null)).isFalse();
+        Assertions.assertThat(HttpUtils.releaseUnsentResponseContent(ResponseInfo.newChunkedResponseBuilder().build()))
+                  .isFalse();
+        Assertions.assertThat(HttpUtils.releaseUnsentResponseContent(ResponseInfo.newBuilder("foo").build()))
+                  .isFalse();
+        Assertions.assertThat(HttpUtils.releaseUnsentResponseContent(ResponseInfo.newBuilder().build())).isFalse();
+    }
+
+}